@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The pending result of an asynchronous operation (an SNMP request, a poll,
+ * a collection) that is completed by whoever performs the I/O.
+ *
+ * <p>Callers can either block on {@link #get()} or register a
+ * {@link Callback} that is run once the result is known, without holding a
+ * thread in the meantime.</p>
+ *
+ * <p>Callbacks run on the thread that completes the future (usually an I/O
+ * thread shared by many requests) unless they are registered with an
+ * {@link Executor}, and must not block when run inline: doing so would
+ * stall every other request sharing that thread.  Threads waiting in
+ * {@link #get()} are released before the callbacks run.</p>
+ *
+ * @param <T> the type of the result
+ */
+public class CallbackFuture<T> implements Future<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CallbackFuture.class);
+
+    /**
+     * Receives the outcome of a {@link CallbackFuture}.  Exactly one of the
+     * methods is called, exactly once.  A cancelled future fails with a
+     * {@link CancellationException}.
+     */
+    public static interface Callback<T> {
+        void onSuccess(T result);
+        void onFailure(Throwable t);
+    }
+
+    private final CountDownLatch m_latch = new CountDownLatch(1);
+    private final List<Runnable> m_callbacks = new ArrayList<Runnable>(1);
+
+    private boolean m_done = false;
+    private T m_result;
+    private Throwable m_failure;
+
+    /**
+     * @return a future that has already completed with the given value
+     */
+    public static <T> CallbackFuture<T> completedFuture(final T result) {
+        final CallbackFuture<T> future = new CallbackFuture<T>();
+        future.complete(result);
+        return future;
+    }
+
+    /**
+     * @return a future that has already failed with the given cause
+     */
+    public static <T> CallbackFuture<T> failedFuture(final Throwable t) {
+        final CallbackFuture<T> future = new CallbackFuture<T>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    /**
+     * Completes the future with the given value.
+     *
+     * @return false if the future was already done
+     */
+    public boolean complete(final T result) {
+        return finish(result, null);
+    }
+
+    /**
+     * Completes the future with the given failure.
+     *
+     * @return false if the future was already done
+     */
+    public boolean completeExceptionally(final Throwable t) {
+        if (t == null) throw new NullPointerException("You must specify the cause of the failure.");
+        return finish(null, t);
+    }
+
+    /**
+     * Marks the future as cancelled.  This only stops callers from waiting;
+     * I/O that is already in progress is left to complete or time out.
+     */
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        return finish(null, new CancellationException());
+    }
+
+    private boolean finish(final T result, final Throwable failure) {
+        final List<Runnable> callbacks;
+        synchronized (this) {
+            if (m_done) {
+                return false;
+            }
+            m_done = true;
+            m_result = result;
+            m_failure = failure;
+            callbacks = new ArrayList<Runnable>(m_callbacks);
+            m_callbacks.clear();
+        }
+        m_latch.countDown();
+        for (final Runnable callback : callbacks) {
+            callback.run();
+        }
+        return true;
+    }
+
+    /**
+     * Registers a callback to be run when the future completes.  If it has
+     * already completed, the callback is run immediately on this thread.
+     */
+    public void addCallback(final Callback<? super T> callback) {
+        addCallback(callback, null);
+    }
+
+    /**
+     * Registers a callback to be handed to the given executor when the
+     * future completes, so that it can do blocking work without holding up
+     * the thread that completed it.
+     */
+    public void addCallback(final Callback<? super T> callback, final Executor executor) {
+        final Runnable r = new Runnable() {
+            @Override
+            public void run() {
+                if (executor == null) {
+                    runCallback(callback);
+                    return;
+                }
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            runCallback(callback);
+                        }
+                    });
+                } catch (final RuntimeException e) {
+                    // never drop a callback, whoever is waiting on it would wait forever
+                    LOG.warn("Unable to hand callback {} to {}, running it directly", callback, executor, e);
+                    runCallback(callback);
+                }
+            }
+        };
+
+        synchronized (this) {
+            if (!m_done) {
+                m_callbacks.add(r);
+                return;
+            }
+        }
+        r.run();
+    }
+
+    private void runCallback(final Callback<? super T> callback) {
+        final T result;
+        final Throwable failure;
+        synchronized (this) {
+            result = m_result;
+            failure = m_failure;
+        }
+        try {
+            if (failure == null) {
+                callback.onSuccess(result);
+            } else {
+                callback.onFailure(failure);
+            }
+        } catch (final RuntimeException e) {
+            LOG.warn("Unexpected exception thrown by callback {}", callback, e);
+        }
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return m_failure instanceof CancellationException;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return m_done;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        m_latch.await();
+        return getResult();
+    }
+
+    @Override
+    public T get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!m_latch.await(timeout, unit)) {
+            throw new TimeoutException("Timeout of " + unit.toMillis(timeout) + "ms expired while waiting for " + this);
+        }
+        return getResult();
+    }
+
+    private synchronized T getResult() throws ExecutionException {
+        if (m_failure instanceof CancellationException) {
+            throw (CancellationException)m_failure;
+        } else if (m_failure != null) {
+            throw new ExecutionException(m_failure);
+        }
+        return m_result;
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (!m_done) {
+            return "CallbackFuture[pending]";
+        } else if (m_failure != null) {
+            return "CallbackFuture[failed: " + m_failure + "]";
+        } else {
+            return "CallbackFuture[" + m_result + "]";
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+public class CallbackFutureTest {
+
+    private static class RecordingCallback implements CallbackFuture.Callback<String> {
+        private final List<Object> m_outcomes = new ArrayList<Object>();
+
+        @Override
+        public void onSuccess(final String result) {
+            m_outcomes.add(result);
+        }
+
+        @Override
+        public void onFailure(final Throwable t) {
+            m_outcomes.add(t);
+        }
+    }
+
+    @Test
+    public void testCallbacksRunOnceOnCompletion() throws Exception {
+        final CallbackFuture<String> future = new CallbackFuture<String>();
+        final RecordingCallback before = new RecordingCallback();
+        future.addCallback(before);
+        assertTrue(before.m_outcomes.isEmpty());
+        assertFalse(future.isDone());
+
+        assertTrue(future.complete("done"));
+        assertFalse(future.complete("again"));
+        assertFalse(future.completeExceptionally(new IOException()));
+
+        // registered after completion, runs right away
+        final RecordingCallback after = new RecordingCallback();
+        future.addCallback(after);
+
+        assertEquals(1, before.m_outcomes.size());
+        assertEquals("done", before.m_outcomes.get(0));
+        assertEquals(1, after.m_outcomes.size());
+        assertEquals("done", future.get());
+        assertTrue(future.isDone());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        final IOException cause = new IOException("no response");
+        final CallbackFuture<String> future = CallbackFuture.failedFuture(cause);
+        final RecordingCallback callback = new RecordingCallback();
+        future.addCallback(callback);
+
+        assertSame(cause, callback.m_outcomes.get(0));
+        try {
+            future.get();
+            fail("expected an ExecutionException");
+        } catch (final ExecutionException e) {
+            assertSame(cause, e.getCause());
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final CallbackFuture<String> future = new CallbackFuture<String>();
+        final RecordingCallback callback = new RecordingCallback();
+        future.addCallback(callback);
+
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertFalse(future.complete("late"));
+        assertTrue(callback.m_outcomes.get(0) instanceof CancellationException);
+        try {
+            future.get();
+            fail("expected a CancellationException");
+        } catch (final CancellationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCallbackHandedToExecutor() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        final Executor executor = new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+        };
+        final CallbackFuture<String> future = new CallbackFuture<String>();
+        final RecordingCallback callback = new RecordingCallback();
+        future.addCallback(callback, executor);
+
+        future.complete("done");
+        assertTrue(callback.m_outcomes.isEmpty());
+        assertEquals(1, tasks.size());
+
+        tasks.get(0).run();
+        assertEquals("done", callback.m_outcomes.get(0));
+    }
+
+    @Test
+    public void testRejectedCallbackRunsDirectly() throws Exception {
+        final Executor executor = new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                throw new IllegalStateException("shut down");
+            }
+        };
+        final RecordingCallback callback = new RecordingCallback();
+        CallbackFuture.completedFuture("done").addCallback(callback, executor);
+
+        assertEquals("done", callback.m_outcomes.get(0));
+    }
+
+    @Test(expected=TimeoutException.class)
+    public void testGetTimesOut() throws Exception {
+        new CallbackFuture<String>().get(10, TimeUnit.MILLISECONDS);
+    }
+}
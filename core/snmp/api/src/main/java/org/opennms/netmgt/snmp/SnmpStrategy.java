@@ -32,6 +32,8 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.util.List;
 
+import org.opennms.core.utils.CallbackFuture;
+
 
 public interface SnmpStrategy {
 
@@ -49,6 +51,28 @@ public interface SnmpStrategy {
     
     SnmpValue[] getBulk(SnmpAgentConfig agentConfig, SnmpObjId[] oids);
 
+    /**
+     * Non-blocking form of {@link #get(SnmpAgentConfig, SnmpObjId[])}.  The
+     * future completes with the same values the blocking call would have
+     * returned, including <code>{ null }</code> when the agent times out.  It
+     * only fails if the request could not be sent at all.
+     */
+    CallbackFuture<SnmpValue[]> getAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids);
+
+    /**
+     * Non-blocking form of {@link #getNext(SnmpAgentConfig, SnmpObjId[])}.
+     *
+     * @see #getAsync(SnmpAgentConfig, SnmpObjId[])
+     */
+    CallbackFuture<SnmpValue[]> getNextAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids);
+
+    /**
+     * Non-blocking form of {@link #getBulk(SnmpAgentConfig, SnmpObjId[])}.
+     *
+     * @see #getAsync(SnmpAgentConfig, SnmpObjId[])
+     */
+    CallbackFuture<SnmpValue[]> getBulkAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids);
+
     void registerForTraps(TrapNotificationListener listener, TrapProcessorFactory processorFactory, InetAddress address, int snmpTrapPort, List<SnmpV3User> snmpv3Users) throws IOException;
 
     void registerForTraps(TrapNotificationListener listener, TrapProcessorFactory processorFactory, InetAddress address, int snmpTrapPort) throws IOException;
@@ -38,6 +38,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import org.opennms.core.utils.CallbackFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -98,6 +99,28 @@ public abstract class SnmpUtils {
         return getStrategy().getBulk(agentConfig, oids);
     }
 
+    public static CallbackFuture<SnmpValue[]> getAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
+        return getStrategy().getAsync(agentConfig, oids);
+    }
+
+    public static CallbackFuture<SnmpValue[]> getNextAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
+        return getStrategy().getNextAsync(agentConfig, oids);
+    }
+
+    public static CallbackFuture<SnmpValue[]> getBulkAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
+        return getStrategy().getBulkAsync(agentConfig, oids);
+    }
+
+    /**
+     * Creates and starts a walker for the given trackers without waiting for
+     * it.  The returned future completes with the walker once it is done.
+     */
+    public static CallbackFuture<SnmpWalker> walkAsync(SnmpAgentConfig agentConfig, String name, CollectionTracker... trackers) {
+        final SnmpWalker walker = createWalker(agentConfig, name, trackers);
+        walker.start();
+        return walker.getCompletion();
+    }
+
     public static SnmpValue set(final SnmpAgentConfig agentConfig, final SnmpObjId oid, final SnmpValue value) {
     	return getStrategy().set(agentConfig, oid, value);
     }
@@ -34,6 +34,7 @@ import java.net.InetAddress;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import org.opennms.core.utils.CallbackFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,6 +54,7 @@ public abstract class SnmpWalker implements Closeable {
     private final CollectionTracker m_tracker;
 
     private final CountDownLatch m_signal;
+    private final CallbackFuture<SnmpWalker> m_completion = new CallbackFuture<SnmpWalker>();
 
     private final InetAddress m_address;
     private WalkerPduBuilder m_pduBuilder;
@@ -162,6 +164,7 @@ public abstract class SnmpWalker implements Closeable {
         } catch (IOException e) {
             LOG.error("{}: Unexpected Error occured closing SNMP session for: {}", getName(), m_address, e);
         }
+        m_completion.complete(this);
     }
 
     @Override
@@ -180,6 +183,16 @@ public abstract class SnmpWalker implements Closeable {
         }
     }
 
+    /**
+     * Returns a future that completes with this walker once the walk is
+     * finished and the walker has been closed.  Failed and timed out walks
+     * complete normally too; check {@link #failed()} and {@link #timedOut()}
+     * just as after {@link #waitFor()}.
+     */
+    public final CallbackFuture<SnmpWalker> getCompletion() {
+        return m_completion;
+    }
+
     public void waitFor() throws InterruptedException {
         m_signal.await();
     }
@@ -37,6 +37,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.opennms.core.utils.CallbackFuture;
 import org.opennms.netmgt.snmp.CollectionTracker;
 import org.opennms.netmgt.snmp.InetAddrUtils;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
@@ -252,6 +253,29 @@ public class JoeSnmpStrategy implements SnmpStrategy {
     	throw new UnsupportedOperationException("JoeSnmpStrategy.getBulk() not yet implemented.");
     }
 
+    /**
+     * JoeSNMP has no non-blocking request API, so the async calls are
+     * answered on the calling thread and return a completed future.
+     */
+        @Override
+    public CallbackFuture<SnmpValue[]> getAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
+        return CallbackFuture.completedFuture(get(agentConfig, oids));
+    }
+
+        @Override
+    public CallbackFuture<SnmpValue[]> getNextAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
+        return CallbackFuture.completedFuture(getNext(agentConfig, oids));
+    }
+
+        @Override
+    public CallbackFuture<SnmpValue[]> getBulkAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
+        try {
+            return CallbackFuture.completedFuture(getBulk(agentConfig, oids));
+        } catch (final UnsupportedOperationException e) {
+            return CallbackFuture.failedFuture(e);
+        }
+    }
+
     public static class RegistrationInfo {
         private TrapNotificationListener m_listener;
         private InetAddress m_address;
@@ -34,7 +34,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
+import org.opennms.core.utils.CallbackFuture;
 import org.opennms.netmgt.snmp.CollectionTracker;
 import org.opennms.netmgt.snmp.InetAddrUtils;
 import org.opennms.netmgt.snmp.SnmpAgentAddress;
@@ -116,14 +118,19 @@ public class MockSnmpStrategy implements SnmpStrategy {
 
     @Override
     public SnmpValue[] get(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return waitFor(getAsync(agentConfig, oids));
+    }
+
+    @Override
+    public CallbackFuture<SnmpValue[]> getAsync(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
         final PropertyOidContainer container = getOidContainer(agentConfig);
-        if (container == null) return new SnmpValue[oids.length];
+        if (container == null) return CallbackFuture.completedFuture(new SnmpValue[oids.length]);
         final List<SnmpValue> values = new ArrayList<SnmpValue>();
 
         for (final SnmpObjId oid : oids) {
     		values.add(container.findValueForOid(oid));
         }
-        return values.toArray(EMPTY_SNMP_VALUE_ARRAY);
+        return CallbackFuture.completedFuture(values.toArray(EMPTY_SNMP_VALUE_ARRAY));
     }
 
     @Override
@@ -135,19 +142,44 @@ public class MockSnmpStrategy implements SnmpStrategy {
 
     @Override
     public SnmpValue[] getNext(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return waitFor(getNextAsync(agentConfig, oids));
+    }
+
+    @Override
+    public CallbackFuture<SnmpValue[]> getNextAsync(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
         final PropertyOidContainer oidContainer = getOidContainer(agentConfig);
-        if (oidContainer == null) return null;
+        if (oidContainer == null) return CallbackFuture.completedFuture(null);
         final List<SnmpValue> values = new ArrayList<SnmpValue>();
 
         for (final SnmpObjId oid : oids) {
             values.add(oidContainer.findNextValueForOid(oid));
         }
-        return values.toArray(EMPTY_SNMP_VALUE_ARRAY);
+        return CallbackFuture.completedFuture(values.toArray(EMPTY_SNMP_VALUE_ARRAY));
     }
 
     @Override
     public SnmpValue[] getBulk(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
-        return getNext(agentConfig, oids);
+        return waitFor(getBulkAsync(agentConfig, oids));
+    }
+
+    @Override
+    public CallbackFuture<SnmpValue[]> getBulkAsync(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return getNextAsync(agentConfig, oids);
+    }
+
+    /**
+     * The mock answers from memory so its futures are always complete by
+     * the time they are returned; this just unwraps them.
+     */
+    private static SnmpValue[] waitFor(final CallbackFuture<SnmpValue[]> future) {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a completed future", e);
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException("Unexpected failure in MockSnmpStrategy", e.getCause());
+        }
     }
 
     @Override
@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+
+/**
+ * A set of long-lived SNMP4J sessions shared by all requests and walkers.
+ *
+ * <p>Each {@link Snmp} session owns a single UDP socket and listener thread
+ * and can have any number of requests in flight: SNMP4J matches responses to
+ * requests by request-id and applies the timeout and retries of each
+ * request's own {@link org.snmp4j.Target}, so agents with different
+ * timeouts can share a socket.</p>
+ *
+ * <p>SNMPv1/v2c requests are spread over a fixed number of sessions, picked
+ * by agent address so that an agent always sees the same source port.
+ * SNMPv3 requests need a USM holding the user's credentials, so one session
+ * is kept for each distinct set of credentials.</p>
+ *
+ * <p>The number of community sessions can be set with the
+ * <code>org.opennms.snmp.snmp4j.sessionPoolSize</code> system property.</p>
+ */
+public class Snmp4JSessionPool implements Snmp4JSessionPoolMBean {
+
+    private static final transient Logger LOG = LoggerFactory.getLogger(Snmp4JSessionPool.class);
+
+    public static final String POOL_SIZE_PROPERTY = "org.opennms.snmp.snmp4j.sessionPoolSize";
+
+    private static final int DEFAULT_POOL_SIZE = 4;
+
+    private static final String OBJECT_NAME = "OpenNMS:Name=Snmp4JSessionPool";
+
+    private static Snmp4JSessionPool s_instance;
+
+    private final Snmp[] m_communitySessions;
+    private final Map<String, Snmp> m_v3Sessions = new LinkedHashMap<String, Snmp>();
+
+    private final AtomicInteger m_outstanding = new AtomicInteger(0);
+    private final AtomicLong m_requests = new AtomicLong(0);
+    private final AtomicLong m_timeouts = new AtomicLong(0);
+    private final AtomicLong m_errors = new AtomicLong(0);
+
+    /**
+     * Wraps a caller's listener so that the pool can cancel the request in
+     * SNMP4J and keep its counters up to date.
+     */
+    private final class CountingResponseListener implements ResponseListener {
+        private final ResponseListener m_delegate;
+        private final AtomicBoolean m_done = new AtomicBoolean(false);
+
+        private CountingResponseListener(final ResponseListener delegate) {
+            m_delegate = delegate;
+        }
+
+        @Override
+        public void onResponse(final ResponseEvent responseEvent) {
+            // need to cancel the request here otherwise SNMP4J keeps it around forever
+            ((Snmp)responseEvent.getSource()).cancel(responseEvent.getRequest(), this);
+
+            // a timeout and the response can race each other, only the first one counts
+            if (!m_done.compareAndSet(false, true)) {
+                return;
+            }
+            complete(responseEvent);
+            m_delegate.onResponse(responseEvent);
+        }
+    }
+
+    public Snmp4JSessionPool(final int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("The SNMP session pool size must be at least 1, not " + size);
+        }
+        m_communitySessions = new Snmp[size];
+    }
+
+    /**
+     * Returns the pool shared by all {@link Snmp4JStrategy} instances in this
+     * class loader, creating it (and registering it with JMX) on first use.
+     */
+    public static synchronized Snmp4JSessionPool getInstance() {
+        if (s_instance == null) {
+            s_instance = new Snmp4JSessionPool(Integer.getInteger(POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE));
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(s_instance, new ObjectName(OBJECT_NAME));
+            } catch (final Exception e) {
+                LOG.debug("Unable to register {} with JMX", OBJECT_NAME, e);
+            }
+        }
+        return s_instance;
+    }
+
+    /**
+     * Sends a request and blocks until the response arrives or the agent's
+     * timeout and retries are exhausted.  If <code>expectResponse</code> is
+     * false (traps) the PDU is sent and null is returned immediately.
+     */
+    public ResponseEvent send(final Snmp4JAgentConfig agentConfig, final PDU pdu, final boolean expectResponse) throws IOException {
+        final Snmp session = getSession(agentConfig);
+        if (!expectResponse) {
+            session.send(pdu, agentConfig.getTarget());
+            return null;
+        }
+
+        m_outstanding.incrementAndGet();
+        m_requests.incrementAndGet();
+        ResponseEvent responseEvent = null;
+        try {
+            responseEvent = session.send(pdu, agentConfig.getTarget());
+            return responseEvent;
+        } finally {
+            if (responseEvent == null) {
+                m_outstanding.decrementAndGet();
+                m_errors.incrementAndGet();
+            } else {
+                complete(responseEvent);
+            }
+        }
+    }
+
+    /**
+     * Sends a request without blocking.  The listener is called exactly once
+     * from the session's listener thread with the response, timeout or
+     * error, and the request has already been cancelled in SNMP4J by then.
+     */
+    public void send(final Snmp4JAgentConfig agentConfig, final PDU pdu, final ResponseListener listener) throws IOException {
+        final Snmp session = getSession(agentConfig);
+        final ResponseListener counting = trackRequest(listener);
+        try {
+            session.send(pdu, agentConfig.getTarget(), null, counting);
+        } catch (final IOException e) {
+            m_outstanding.decrementAndGet();
+            m_errors.incrementAndGet();
+            throw e;
+        } catch (final RuntimeException e) {
+            m_outstanding.decrementAndGet();
+            m_errors.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Counts a request as outstanding and returns the listener to send it
+     * with, which passes the first response or timeout on to the given one.
+     */
+    ResponseListener trackRequest(final ResponseListener listener) {
+        m_outstanding.incrementAndGet();
+        m_requests.incrementAndGet();
+        return new CountingResponseListener(listener);
+    }
+
+    private void complete(final ResponseEvent responseEvent) {
+        m_outstanding.decrementAndGet();
+        if (responseEvent.getError() != null) {
+            m_errors.incrementAndGet();
+        } else if (responseEvent.getResponse() == null) {
+            m_timeouts.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the session to use for the given agent, opening it if needed.
+     */
+    protected Snmp getSession(final Snmp4JAgentConfig agentConfig) throws IOException {
+        if (agentConfig.isSnmpV3()) {
+            final String key = getV3SessionKey(agentConfig);
+            synchronized (m_v3Sessions) {
+                Snmp session = m_v3Sessions.get(key);
+                if (session == null) {
+                    session = openSession(agentConfig);
+                    m_v3Sessions.put(key, session);
+                }
+                return session;
+            }
+        }
+
+        final int index = (agentConfig.getInetAddress().hashCode() & Integer.MAX_VALUE) % m_communitySessions.length;
+        synchronized (m_communitySessions) {
+            Snmp session = m_communitySessions[index];
+            if (session == null) {
+                session = openSession(agentConfig);
+                m_communitySessions[index] = session;
+            }
+            return session;
+        }
+    }
+
+    private static Snmp openSession(final Snmp4JAgentConfig agentConfig) throws IOException {
+        final Snmp session = agentConfig.createSnmpSession();
+        try {
+            session.listen();
+        } catch (final IOException e) {
+            closeQuietly(session);
+            throw e;
+        }
+        LOG.debug("Opened shared SNMP session for {} requests", agentConfig.getVersionString());
+        return session;
+    }
+
+    private static String getV3SessionKey(final Snmp4JAgentConfig agentConfig) {
+        return agentConfig.getSecurityName() + "|" + agentConfig.getAuthProtocol() + "|" + agentConfig.getAuthPassPhrase() + "|" + agentConfig.getPrivProtocol() + "|" + agentConfig.getPrivPassPhrase();
+    }
+
+    /**
+     * Closes all of the sessions.  Requests still in flight will complete
+     * with an error.  The pool can still be used afterwards and will open
+     * new sessions as needed.
+     */
+    public void close() {
+        final List<Snmp> sessions = new ArrayList<Snmp>();
+        synchronized (m_communitySessions) {
+            for (int i = 0; i < m_communitySessions.length; i++) {
+                if (m_communitySessions[i] != null) {
+                    sessions.add(m_communitySessions[i]);
+                    m_communitySessions[i] = null;
+                }
+            }
+        }
+        synchronized (m_v3Sessions) {
+            sessions.addAll(m_v3Sessions.values());
+            m_v3Sessions.clear();
+        }
+        for (final Snmp session : sessions) {
+            closeQuietly(session);
+        }
+    }
+
+    private static void closeQuietly(final Snmp session) {
+        try {
+            session.close();
+        } catch (final IOException e) {
+            LOG.error("error closing SNMP connection", e);
+        }
+    }
+
+    @Override
+    public int getOutstandingRequests() {
+        return m_outstanding.get();
+    }
+
+    @Override
+    public long getRequestsSent() {
+        return m_requests.get();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return m_timeouts.get();
+    }
+
+    @Override
+    public long getErrors() {
+        return m_errors.get();
+    }
+
+    @Override
+    public int getSocketCount() {
+        int count = 0;
+        synchronized (m_communitySessions) {
+            for (final Snmp session : m_communitySessions) {
+                if (session != null) count++;
+            }
+        }
+        synchronized (m_v3Sessions) {
+            count += m_v3Sessions.size();
+        }
+        return count;
+    }
+}
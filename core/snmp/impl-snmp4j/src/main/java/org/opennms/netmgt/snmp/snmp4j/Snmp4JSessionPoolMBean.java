@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+/**
+ * JMX view of the shared SNMP4J sessions.
+ */
+public interface Snmp4JSessionPoolMBean {
+
+    /**
+     * @return the number of requests that have been sent and are still
+     *         waiting for a response or a timeout
+     */
+    public int getOutstandingRequests();
+
+    /**
+     * @return the cumulative number of requests sent through the pool
+     */
+    public long getRequestsSent();
+
+    /**
+     * @return the cumulative number of requests that timed out after all
+     *         retries were exhausted
+     */
+    public long getTimeouts();
+
+    /**
+     * @return the cumulative number of requests that failed with an error
+     */
+    public long getErrors();
+
+    /**
+     * @return the number of UDP sockets currently held open by the pool
+     */
+    public int getSocketCount();
+}
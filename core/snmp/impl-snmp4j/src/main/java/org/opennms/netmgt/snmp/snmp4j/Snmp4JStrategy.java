@@ -36,7 +36,9 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
+import org.opennms.core.utils.CallbackFuture;
 import org.opennms.netmgt.snmp.CollectionTracker;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpConfiguration;
@@ -63,9 +65,11 @@ import org.snmp4j.ScopedPDU;
 import org.snmp4j.Snmp;
 import org.snmp4j.TransportMapping;
 import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
 import org.snmp4j.mp.MPv3;
 import org.snmp4j.mp.MessageProcessingModel;
 import org.snmp4j.mp.PduHandle;
+import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.security.SecurityLevel;
 import org.snmp4j.security.SecurityModel;
 import org.snmp4j.security.SecurityModels;
@@ -130,15 +134,18 @@ public class Snmp4JStrategy implements SnmpStrategy {
      */
         @Override
     public SnmpWalker createWalker(SnmpAgentConfig snmpAgentConfig, String name, CollectionTracker tracker) {
-        return new Snmp4JWalker(new Snmp4JAgentConfig(snmpAgentConfig), name, tracker);
+        return new Snmp4JWalker(new Snmp4JAgentConfig(snmpAgentConfig), getSessionPool(), name, tracker);
     }
     
     /**
-     * Not yet implemented.  Use a walker.
+     * SNMP GetBulk implementation.  Asks for up to the agent's max-repetitions
+     * successors of each OID; SNMPv1 agents get a plain GetNext instead.
      */
         @Override
-    public SnmpValue[] getBulk(SnmpAgentConfig agentConfig, SnmpObjId[] oid) {
-    	throw new UnsupportedOperationException("Snmp4JStrategy.getBulk not yet implemented.");
+    public SnmpValue[] getBulk(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
+    	LOG.debug("getBulk: OID: {} for Agent: {}", oids, agentConfig);
+
+        return waitFor(getBulkAsync(agentConfig, oids));
     }
 
         @Override
@@ -192,7 +199,7 @@ public class Snmp4JStrategy implements SnmpStrategy {
     public SnmpValue[] get(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
     	LOG.debug("get: OID: {} for Agent: {}", oids, agentConfig);
         
-        return buildAndSendPdu(agentConfig, PDU.GET, oids, null);
+        return waitFor(getAsync(agentConfig, oids));
     }
     
     /**
@@ -223,7 +230,85 @@ public class Snmp4JStrategy implements SnmpStrategy {
     public SnmpValue[] getNext(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
     	LOG.debug("getNext: OID: {} for Agent: {}", oids, agentConfig);
         
-        return buildAndSendPdu(agentConfig, PDU.GETNEXT, oids, null);
+        return waitFor(getNextAsync(agentConfig, oids));
+    }
+
+        @Override
+    public CallbackFuture<SnmpValue[]> getAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
+        return buildAndSendPduAsync(new Snmp4JAgentConfig(agentConfig), PDU.GET, oids);
+    }
+
+        @Override
+    public CallbackFuture<SnmpValue[]> getNextAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
+        return buildAndSendPduAsync(new Snmp4JAgentConfig(agentConfig), PDU.GETNEXT, oids);
+    }
+
+        @Override
+    public CallbackFuture<SnmpValue[]> getBulkAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
+        final Snmp4JAgentConfig snmp4jAgentConfig = new Snmp4JAgentConfig(agentConfig);
+        if (snmp4jAgentConfig.getVersion() == SnmpConstants.version1) {
+            return buildAndSendPduAsync(snmp4jAgentConfig, PDU.GETNEXT, oids);
+        }
+
+        final PDU pdu = buildPdu(snmp4jAgentConfig, PDU.GETBULK, oids, null);
+        if (pdu == null) {
+            return CallbackFuture.completedFuture(null);
+        }
+        pdu.setNonRepeaters(0);
+        pdu.setMaxRepetitions(snmp4jAgentConfig.getMaxRepetitions());
+        return sendAsync(snmp4jAgentConfig, pdu);
+    }
+
+    private CallbackFuture<SnmpValue[]> buildAndSendPduAsync(Snmp4JAgentConfig agentConfig, int type, SnmpObjId[] oids) {
+        final PDU pdu = buildPdu(agentConfig, type, oids, null);
+        if (pdu == null) {
+            return CallbackFuture.completedFuture(null);
+        }
+        return sendAsync(agentConfig, pdu);
+    }
+
+    /**
+     * Sends an SNMP4J request PDU without blocking.  The future is completed
+     * from the session's listener thread with the processed response, or
+     * fails if the request could not be sent.
+     */
+    protected CallbackFuture<SnmpValue[]> sendAsync(final Snmp4JAgentConfig agentConfig, final PDU pdu) {
+        final CallbackFuture<SnmpValue[]> future = new CallbackFuture<SnmpValue[]>();
+        try {
+            getSessionPool().send(agentConfig, pdu, new ResponseListener() {
+                @Override
+                public void onResponse(final ResponseEvent responseEvent) {
+                    try {
+                        future.complete(processResponse(agentConfig, responseEvent));
+                    } catch (final Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (final IOException e) {
+            future.completeExceptionally(e);
+        } catch (final RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Blocks until an asynchronous request completes, turning failures into
+     * the <code>{ null }</code> result the blocking calls have always
+     * returned.
+     */
+    private static SnmpValue[] waitFor(final CallbackFuture<SnmpValue[]> future) {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            LOG.warn("send: interrupted while waiting for SNMP response");
+            Thread.currentThread().interrupt();
+            return new SnmpValue[] { null };
+        } catch (final ExecutionException e) {
+            LOG.error("send: error during SNMP operation", e.getCause());
+            return new SnmpValue[] { null };
+        }
     }
 
     private SnmpValue[] buildAndSendPdu(SnmpAgentConfig agentConfig, int type, SnmpObjId[] oids, SnmpValue[] values) {
@@ -240,46 +325,29 @@ public class Snmp4JStrategy implements SnmpStrategy {
     /**
      * Sends and SNMP4J request PDU.  The attributes in SnmpAgentConfig should have been
      * adapted from default SnmpAgentConfig values to those compatible with the SNMP4J library.
+     * The request goes out over one of the shared sessions in {@link Snmp4JSessionPool}.
      */
     protected SnmpValue[] send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse) {
-        Snmp session;
-
         try {
-            session = agentConfig.createSnmpSession();
-        } catch (IOException e) {
-            LOG.error("send: Could not create SNMP session for agent {}", agentConfig, e);
-            return new SnmpValue[] { null };
-        }
+            final ResponseEvent responseEvent = getSessionPool().send(agentConfig, pdu, expectResponse);
 
-        try {
             if (expectResponse) {
-                try {
-                    session.listen();
-                } catch (IOException e) {
-                    LOG.error("send: error setting up listener for SNMP responses", e);
-                    return new SnmpValue[] { null };
-                }
-            }
-    
-            try {
-                final ResponseEvent responseEvent = session.send(pdu, agentConfig.getTarget());
-
-                if (expectResponse) {
-                    return processResponse(agentConfig, responseEvent);
-                } else {
-                    return null;
-                }
-            } catch (final IOException e) {
-                LOG.error("send: error during SNMP operation", e);
-                return new SnmpValue[] { null };
-            } catch (final RuntimeException e) {
-                LOG.error("send: unexpected error during SNMP operation", e);
-                return new SnmpValue[] { null };
+                return processResponse(agentConfig, responseEvent);
+            } else {
+                return null;
             }
-        } finally {
-            closeQuietly(session);
+        } catch (final IOException e) {
+            LOG.error("send: error during SNMP operation", e);
+            return new SnmpValue[] { null };
+        } catch (final RuntimeException e) {
+            LOG.error("send: unexpected error during SNMP operation", e);
+            return new SnmpValue[] { null };
         }
     }
+
+    protected Snmp4JSessionPool getSessionPool() {
+        return Snmp4JSessionPool.getInstance();
+    }
     
 
     protected PDU buildPdu(Snmp4JAgentConfig agentConfig, int pduType, SnmpObjId[] oids, SnmpValue[] values) {
@@ -37,7 +37,6 @@ import org.opennms.netmgt.snmp.SnmpWalker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.snmp4j.PDU;
-import org.snmp4j.Snmp;
 import org.snmp4j.Target;
 import org.snmp4j.event.ResponseEvent;
 import org.snmp4j.event.ResponseListener;
@@ -163,11 +162,12 @@ public class Snmp4JWalker extends SnmpWalker {
 
         @Override
         public void onResponse(ResponseEvent responseEvent) {
-            // need to cancel the request here otherwise SNMP4J Keeps it around forever... go figure
-            m_session.cancel(responseEvent.getRequest(), this);
-
+            // The request has already been cancelled by the session pool.  A walker
+            // that has been closed may still get the answer to its last request.
+            if (m_closed) {
+                LOG.debug("Ignoring response for closed walker {} for {}", getName(), getAddress());
             // Check to see if we got an interrupted exception
-            if (responseEvent.getError() instanceof InterruptedException) {
+            } else if (responseEvent.getError() instanceof InterruptedException) {
                 LOG.debug("Interruption event.  We have probably tried to close the session due to an error", responseEvent.getError());
             // Check to see if the response is null, indicating a timeout
             } else if (responseEvent.getResponse() == null) {
@@ -185,15 +185,21 @@ public class Snmp4JWalker extends SnmpWalker {
         
     }
     
-    private Snmp m_session;
+    private final Snmp4JSessionPool m_sessionPool;
+    private volatile boolean m_closed = false;
     private final Target m_tgt;
     private final ResponseListener m_listener;
     private final Snmp4JAgentConfig m_agentConfig;
 
     public Snmp4JWalker(Snmp4JAgentConfig agentConfig, String name, CollectionTracker tracker) {
+        this(agentConfig, Snmp4JSessionPool.getInstance(), name, tracker);
+    }
+
+    public Snmp4JWalker(Snmp4JAgentConfig agentConfig, Snmp4JSessionPool sessionPool, String name, CollectionTracker tracker) {
         super(agentConfig.getInetAddress(), name, agentConfig.getMaxVarsPerPdu(), agentConfig.getMaxRepetitions(), tracker);
         
         m_agentConfig = agentConfig;
+        m_sessionPool = sessionPool;
         
         m_tgt = agentConfig.getTarget();
         m_listener = new Snmp4JResponseListener();
@@ -217,24 +223,24 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
     protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws IOException {
         Snmp4JPduBuilder snmp4JPduBuilder = (Snmp4JPduBuilder)pduBuilder;
-        if (m_session == null) {
-            m_session = m_agentConfig.createSnmpSession();
-            m_session.listen();
+        if (m_closed) {
+            throw new IOException("Walker " + getName() + " for " + getAddress() + " has already been closed");
         }
         
         LOG.debug("Sending tracker pdu of size {}", snmp4JPduBuilder.getPdu().size());
-        m_session.send(snmp4JPduBuilder.getPdu(), m_tgt, null, m_listener);
+        m_sessionPool.send(m_agentConfig, snmp4JPduBuilder.getPdu(), m_listener);
     }
     
     protected int getVersion() {
         return m_tgt.getVersion();
     }
 
+    /**
+     * The session is shared, so closing a walker only stops it from
+     * processing further responses or sending more requests.
+     */
     @Override
     public void close() throws IOException {
-        if (m_session != null) {
-            m_session.close();
-            m_session = null;
-        }
+        m_closed = true;
     }
 }
@@ -29,14 +29,21 @@
 package org.opennms.netmgt.snmp.mock;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.opennms.core.utils.CallbackFuture;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.snmp.CollectionTracker;
 import org.opennms.netmgt.snmp.ColumnTracker;
@@ -232,6 +239,45 @@ public class MockSnmpStrategyTest {
         assertEquals("it should match no columns (timeout)", Long.valueOf(0).longValue(), ct.getCount());
     }
     
+    @Test
+    public void testGetAsync() throws Exception {
+        final SnmpObjId[] oids = new SnmpObjId[] { SnmpObjId.get(".1.3.5.1.1.3.0") };
+
+        final CallbackFuture<SnmpValue[]> future = SnmpUtils.getAsync(getAgentConfig(), oids);
+        assertTrue("the mock answers immediately", future.isDone());
+
+        final SnmpValue[] values = future.get();
+        assertEquals("values list size", 1, values.length);
+        assertSnmpValueEquals("values[0]", SnmpValue.SNMP_INT32, 42, values[0]);
+    }
+
+    @Test
+    public void testWalkAsync() throws Exception {
+        final CountingColumnTracker ct = new CountingColumnTracker(SnmpObjId.get(".1.3.5.1.1"));
+        final AtomicReference<SnmpWalker> completed = new AtomicReference<SnmpWalker>();
+        final CountDownLatch callbackRun = new CountDownLatch(1);
+
+        final CallbackFuture<SnmpWalker> future = SnmpUtils.walkAsync(getAgentConfig(), "test", ct);
+        future.addCallback(new CallbackFuture.Callback<SnmpWalker>() {
+            @Override
+            public void onSuccess(final SnmpWalker walker) {
+                completed.set(walker);
+                callbackRun.countDown();
+            }
+            @Override
+            public void onFailure(final Throwable t) {
+                callbackRun.countDown();
+            }
+        });
+
+        final SnmpWalker walker = future.get(5, TimeUnit.SECONDS);
+        assertFalse(walker.failed());
+        // waiters may be released before the callbacks have run
+        assertTrue(callbackRun.await(5, TimeUnit.SECONDS));
+        assertSame(walker, completed.get());
+        assertEquals("number of columns returned must match test data", 9, ct.getCount());
+    }
+
     private void assertSnmpValueEquals(final String message, final int expectedType, final int expectedValue, final SnmpValue value) {
         assertEquals(message + " getType()", expectedType, value.getType());
         assertEquals(message + " toInt()", expectedValue, value.toInt());
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+
+/**
+ * Verifies that requests and walks share the sessions of a
+ * {@link Snmp4JSessionPool} and that its counters add up.
+ */
+public class Snmp4JSessionPoolTest extends MockSnmpAgentTestCase {
+
+    private final Snmp4JSessionPool m_pool = new Snmp4JSessionPool(2);
+
+    private final Snmp4JStrategy m_strategy = new Snmp4JStrategy() {
+        @Override
+        protected Snmp4JSessionPool getSessionPool() {
+            return m_pool;
+        }
+    };
+
+    @Override
+    protected boolean usingMockStrategy() {
+        return false;
+    }
+
+    @After
+    public void closePool() {
+        m_pool.close();
+    }
+
+    @Test
+    public void testRequestsShareOneSocket() throws Exception {
+        final SnmpObjId oid = SnmpObjId.get(".1.3.5.1.1.3.0");
+        for (int i = 0; i < 100; i++) {
+            final SnmpValue value = m_strategy.get(getAgentConfig(), oid);
+            assertNotNull(value);
+            assertEquals(42, value.toInt());
+        }
+
+        assertEquals(1, m_pool.getSocketCount());
+        assertEquals(100, m_pool.getRequestsSent());
+        assertEquals(0, m_pool.getOutstandingRequests());
+        assertEquals(0, m_pool.getTimeouts());
+    }
+
+    @Test
+    public void testWalkerUsesPool() throws Exception {
+        m_strategy.get(getAgentConfig(), SnmpObjId.get(".1.3.5.1.1.3.0"));
+
+        final SnmpWalker walker = m_strategy.createWalker(getAgentConfig(), "test", new ColumnTracker(SnmpObjId.get(".1.3.5.1.1")));
+        walker.start();
+        walker.waitFor();
+
+        assertFalse(walker.getErrorMessage(), walker.failed());
+        assertEquals(1, m_pool.getSocketCount());
+        assertEquals(0, m_pool.getOutstandingRequests());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        final SnmpAgentConfig agentConfig = getAgentConfig();
+        // nothing is listening here
+        agentConfig.setPort(getAgentPort() + 1);
+        agentConfig.setTimeout(100);
+        agentConfig.setRetries(1);
+
+        assertNull(m_strategy.get(agentConfig, SnmpObjId.get(".1.3.5.1.1.3.0")));
+
+        assertEquals(1, m_pool.getTimeouts());
+        assertEquals(0, m_pool.getOutstandingRequests());
+    }
+
+    @Test
+    public void testListenerIsCalledOnce() throws Exception {
+        final AtomicInteger calls = new AtomicInteger(0);
+        final ResponseListener listener = m_pool.trackRequest(new ResponseListener() {
+            @Override
+            public void onResponse(final ResponseEvent event) {
+                calls.incrementAndGet();
+            }
+        });
+        assertEquals(1, m_pool.getOutstandingRequests());
+
+        final Snmp session = new Snmp();
+        try {
+            final PDU request = new PDU();
+            // the timeout and the response arrive on different threads
+            listener.onResponse(new ResponseEvent(session, null, request, null, null));
+            listener.onResponse(new ResponseEvent(session, null, request, new PDU(), null));
+        } finally {
+            session.close();
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(0, m_pool.getOutstandingRequests());
+        assertEquals(1, m_pool.getTimeouts());
+    }
+}
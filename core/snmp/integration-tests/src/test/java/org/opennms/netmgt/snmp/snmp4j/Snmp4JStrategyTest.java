@@ -31,10 +31,18 @@ package org.opennms.netmgt.snmp.snmp4j;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Ignore;
 import org.junit.Test;
 import org.opennms.core.test.MockLogAppender;
+import org.opennms.core.utils.CallbackFuture;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpObjId;
 import org.opennms.netmgt.snmp.SnmpValue;
 import org.snmp4j.PDU;
@@ -217,6 +225,61 @@ public class Snmp4JStrategyTest extends MockSnmpAgentTestCase {
         assertSnmpValueEquals("values[1]", SnmpValue.SNMP_COUNTER32, 42, values[1]);
     }
     
+    @Test
+    public void testGetAsync() throws Exception {
+        SnmpObjId[] oids = new SnmpObjId[] { SnmpObjId.get(".1.3.5.1.1.3.0") };
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<SnmpValue[]> result = new AtomicReference<SnmpValue[]>();
+        CallbackFuture<SnmpValue[]> future = m_strategy.getAsync(getAgentConfig(), oids);
+        future.addCallback(new CallbackFuture.Callback<SnmpValue[]>() {
+            @Override
+            public void onSuccess(SnmpValue[] values) {
+                result.set(values);
+                latch.countDown();
+            }
+            @Override
+            public void onFailure(Throwable t) {
+                latch.countDown();
+            }
+        });
+
+        assertTrue("callback should have been called", latch.await(5, TimeUnit.SECONDS));
+        SnmpValue[] values = result.get();
+        assertNotNull("values should not be null", values);
+        assertEquals("values list size", 1, values.length);
+        assertSnmpValueEquals("values[0]", SnmpValue.SNMP_INT32, 42, values[0]);
+        assertSame(values, future.get());
+    }
+
+    @Test
+    public void testGetAsyncTimeout() throws Exception {
+        SnmpAgentConfig agentConfig = getAgentConfig();
+        // nothing is listening here
+        agentConfig.setPort(getAgentPort() + 1);
+        agentConfig.setTimeout(100);
+        agentConfig.setRetries(0);
+
+        SnmpValue[] values = m_strategy.getAsync(agentConfig, new SnmpObjId[] { SnmpObjId.get(".1.3.5.1.1.3.0") }).get(5, TimeUnit.SECONDS);
+        assertEquals("values list size", 1, values.length);
+        assertNull("timeout should return null", values[0]);
+    }
+
+    @Test
+    public void testGetBulk() throws Exception {
+        SnmpAgentConfig agentConfig = getAgentConfig();
+        agentConfig.setVersion(SnmpAgentConfig.VERSION2C);
+        agentConfig.setMaxRepetitions(3);
+
+        SnmpValue[] values = m_strategy.getBulk(agentConfig, new SnmpObjId[] { SnmpObjId.get(".1.3.5.1.1.3.0") });
+
+        assertNotNull("values should not be null", values);
+        assertEquals("values list size", 3, values.length);
+        // Expect the three values after .1.3.5.1.1.3.0
+        assertSnmpValueEquals("values[0]", SnmpValue.SNMP_GAUGE32, 42, values[0]);
+        assertSnmpValueEquals("values[1]", SnmpValue.SNMP_COUNTER32, 42, values[1]);
+    }
+
     @Test
     public void testPreparePduWithNoValues() throws Exception {
         SnmpObjId[] oids = new SnmpObjId[] {
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collection.api;
+
+import java.util.Map;
+
+import org.opennms.core.utils.CallbackFuture;
+import org.opennms.netmgt.events.api.EventProxy;
+
+/**
+ * A {@link ServiceCollector} that can collect without holding the calling
+ * thread for the duration of the collection.
+ *
+ * <p>Collectd starts each collection of an asynchronous collector from one
+ * of its threads and gets the thread back as soon as the requests are on the
+ * wire, so a slow or dead agent no longer ties up a collectd thread for its
+ * timeouts and retries.  The collected data is persisted and thresholded
+ * once the future completes.
+ * {@link #collect(CollectionAgent, EventProxy, Map)} must still work and is
+ * normally implemented by waiting for the future.</p>
+ */
+public interface AsyncServiceCollector extends ServiceCollector {
+
+    /**
+     * Starts collecting from the given agent.  Implementations should return
+     * as soon as the collection has been started and complete the future from
+     * their own I/O thread; anything that fails before or during the
+     * collection is reported by failing the future.
+     *
+     * @param agent the agent to collect from
+     * @param eproxy the proxy used to send events
+     * @param parameters the service parameters from the collectd configuration
+     * @return the pending result of the collection
+     */
+    public CallbackFuture<CollectionSet> collectAsync(CollectionAgent agent, EventProxy eproxy, Map<String, Object> parameters);
+}
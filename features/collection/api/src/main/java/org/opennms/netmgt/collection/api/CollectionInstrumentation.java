@@ -140,6 +140,19 @@ public interface CollectionInstrumentation {
      * @param svcName a {@link java.lang.String} object.
      */
     void endCollectorCollect(String packageName, int nodeId, String ipAddress, String svcName);
+    /**
+     * Reports how long a collection took from the moment it was started
+     * until its result was known.  Asynchronous collections end on the
+     * collector's thread, so this is the only reliable measure of the
+     * latency of an agent.
+     *
+     * @param packageName a {@link java.lang.String} object.
+     * @param nodeId a int.
+     * @param ipAddress a {@link java.lang.String} object.
+     * @param svcName a {@link java.lang.String} object.
+     * @param latencyMillis the time the collection took, in milliseconds
+     */
+    void reportCollectionLatency(String packageName, int nodeId, String ipAddress, String svcName, long latencyMillis);
     /**
      * <p>beginCollectingServiceData</p>
      *
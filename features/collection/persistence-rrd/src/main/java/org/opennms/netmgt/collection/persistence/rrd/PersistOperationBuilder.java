@@ -32,7 +32,6 @@ package org.opennms.netmgt.collection.persistence.rrd;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -183,20 +182,14 @@ public class PersistOperationBuilder {
         }
     }
 
-    private String getValues() {
-        boolean first = true;
-        StringBuffer values = new StringBuffer();
-        for (Iterator<CollectionAttributeType> iter = m_declarations.keySet().iterator(); iter.hasNext();) {
-        	CollectionAttributeType attrDef = iter.next();
-            String value = m_declarations.get(attrDef);
-            if (!first) {
-                values.append(':');
-            } else {
-                first = false;
-            }
-            values.append(value);
-        }
-        return values.toString();
+    /**
+     * Returns the values as they were collected, in the same order as the
+     * data sources.  They are only parsed if the strategy accepts
+     * {@link org.opennms.netmgt.rrd.RrdSample}s, so that strategies which
+     * write strings get Counter64 values without any loss of precision.
+     */
+    private String[] getValues() {
+        return m_declarations.values().toArray(new String[m_declarations.size()]);
     }
 
     private Map<String, String> getAttributeMappings() {
@@ -28,20 +28,28 @@
 
 package org.opennms.netmgt.eventd;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.core.logging.Logging;
@@ -94,6 +102,12 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         }
     }
 
+    /**
+     * Resolutions are cached for at most this many distinct UEIs; events
+     * with UEIs beyond that are still routed, just not cached.
+     */
+    private static final int MAX_CACHED_UEIS = 10000;
+
     /**
      * Hash table of list of event listeners keyed by event UEI
      */
@@ -109,6 +123,13 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
      */
     private Map<String, EventListenerExecutor> m_listenerThreads = new HashMap<String, EventListenerExecutor>();
 
+    /**
+     * Immutable snapshot of the three collections above that
+     * {@link #broadcastNow(Event)} reads without locking.  It is replaced,
+     * never modified, whenever a listener is added or removed.
+     */
+    private volatile RoutingTable m_routingTable = new RoutingTable();
+
     /**
      * The thread pool handling the events
      */
@@ -120,13 +141,109 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     
     private Integer m_handlerQueueLength;
 
+    /**
+     * Maps each UEI to the listener threads that should receive it.  The
+     * wildcard "directory" matches of a UEI are worked out the first time it
+     * is seen and cached, so routing an event is a single hash lookup.
+     */
+    private static final class RoutingTable {
+        private static final EventListenerExecutor[] NONE = new EventListenerExecutor[0];
+
+        private final EventListenerExecutor[] m_matchAll;
+        private final Map<String, EventListener[]> m_ueiListeners;
+        private final Map<String, EventListenerExecutor> m_executors;
+        private final ConcurrentMap<String, EventListenerExecutor[]> m_resolved = new ConcurrentHashMap<String, EventListenerExecutor[]>();
+
+        private RoutingTable() {
+            m_matchAll = NONE;
+            m_ueiListeners = Collections.emptyMap();
+            m_executors = Collections.emptyMap();
+        }
+
+        private RoutingTable(final List<EventListener> matchAll, final Map<String, List<EventListener>> ueiListeners, final Map<String, EventListenerExecutor> executors) {
+            m_executors = new HashMap<String, EventListenerExecutor>(executors);
+            m_matchAll = toExecutors(matchAll);
+            m_ueiListeners = new HashMap<String, EventListener[]>();
+            for (final Map.Entry<String, List<EventListener>> entry : ueiListeners.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    m_ueiListeners.put(entry.getKey(), entry.getValue().toArray(new EventListener[entry.getValue().size()]));
+                }
+            }
+        }
+
+        public EventListenerExecutor[] getMatchAll() {
+            return m_matchAll;
+        }
+
+        public EventListenerExecutor[] resolve(final String uei) {
+            EventListenerExecutor[] resolved = m_resolved.get(uei);
+            if (resolved == null) {
+                resolved = doResolve(uei);
+                if (m_resolved.size() < MAX_CACHED_UEIS) {
+                    m_resolved.putIfAbsent(uei, resolved);
+                }
+            }
+            return resolved;
+        }
+
+        /**
+         * Finds the listeners for the UEI itself and for each of its
+         * "directories", e.g. <code>uei.opennms.org/nodes/</code> and
+         * <code>uei.opennms.org/</code> for <code>uei.opennms.org/nodes/nodeDown</code>.
+         */
+        private EventListenerExecutor[] doResolve(final String event) {
+            if (m_ueiListeners.isEmpty()) {
+                return NONE;
+            }
+            final Set<EventListener> listeners = new LinkedHashSet<EventListener>();
+            for (String uei = event; uei.length() > 0; ) {
+                final EventListener[] ueiListeners = m_ueiListeners.get(uei);
+                if (ueiListeners != null) {
+                    Collections.addAll(listeners, ueiListeners);
+                }
+
+                // Try wild cards: Find / before last character
+                int i = uei.lastIndexOf("/", uei.length() - 2);
+                if (i > 0) {
+                    // Split at "/", including the /
+                    uei = uei.substring (0, i + 1);
+                } else {
+                    // No more wild cards to match
+                    break;
+                }
+            }
+            return toExecutors(listeners);
+        }
+
+        private EventListenerExecutor[] toExecutors(final Collection<EventListener> listeners) {
+            if (listeners.isEmpty()) {
+                return NONE;
+            }
+            final List<EventListenerExecutor> executors = new ArrayList<EventListenerExecutor>(listeners.size());
+            for (final EventListener listener : listeners) {
+                final EventListenerExecutor executor = m_executors.get(listener.getName());
+                if (executor != null) {
+                    executors.add(executor);
+                }
+            }
+            return executors.toArray(new EventListenerExecutor[executors.size()]);
+        }
+    }
+
     /**
      * A thread dedicated to each listener. The events meant for each listener
      * is added to an execution queue when the 'sendNow()' is called. The
      * ListenerThread reads events off of this queue and sends them to the
      * appropriate listener.
      */
-    private static class EventListenerExecutor {
+    private static class EventListenerExecutor implements EventListenerQueueMBean {
+        /**
+         * The executor whose statistics are currently registered under each
+         * name, so that stopping a replaced executor leaves its successor's
+         * registration alone.
+         */
+        private static final ConcurrentMap<ObjectName, EventListenerExecutor> s_registered = new ConcurrentHashMap<ObjectName, EventListenerExecutor>();
+
         /**
          * Listener to which this thread is dedicated
          */
@@ -135,7 +252,16 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         /**
          * The thread that is running this runnable.
          */
-        private final ExecutorService m_delegateThread;
+        private final ThreadPoolExecutor m_delegateThread;
+
+        private final AtomicLong m_queued = new AtomicLong(0);
+        private final AtomicLong m_dropped = new AtomicLong(0);
+        private final AtomicLong m_handled = new AtomicLong(0);
+        private final AtomicLong m_handlingNanos = new AtomicLong(0);
+        private final AtomicLong m_maxHandlingNanos = new AtomicLong(0);
+        private final AtomicLong m_queueNanos = new AtomicLong(0);
+
+        private ObjectName m_objectName;
 
         /**
          * Constructor
@@ -157,6 +283,7 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
                     new RejectedExecutionHandler() {
                         @Override
                         public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                            m_dropped.incrementAndGet();
                             LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
                         }
                     }
@@ -164,9 +291,13 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         }
 
         public void addEvent(final Event event) {
+            final long queuedAt = System.nanoTime();
+            m_queued.incrementAndGet();
             m_delegateThread.execute(new Runnable() {
                 @Override
                 public void run() {
+                    final long start = System.nanoTime();
+                    m_queueNanos.addAndGet(start - queuedAt);
                     try {
                         LOG.debug("run: calling onEvent on {} for event {} dbid {} with time {}", m_listener.getName(), event.getUei(), event.getDbid(), event.getTime());
 
@@ -179,16 +310,96 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
                         }
                     } catch (Throwable t) {
                         LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
+                    } finally {
+                        recordHandlingTime(System.nanoTime() - start);
                     }
                 }
             });
         }
 
+        private void recordHandlingTime(final long nanos) {
+            m_handled.incrementAndGet();
+            m_handlingNanos.addAndGet(nanos);
+            long max = m_maxHandlingNanos.get();
+            while (nanos > max && !m_maxHandlingNanos.compareAndSet(max, nanos)) {
+                max = m_maxHandlingNanos.get();
+            }
+        }
+
+        /**
+         * Makes this listener's queue statistics visible through JMX,
+         * replacing those of any earlier listener with the same name.
+         */
+        public void register() {
+            try {
+                final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                final ObjectName objectName = new ObjectName("OpenNMS:Name=Eventd,Type=EventListener,Listener=" + ObjectName.quote(m_listener.getName()));
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+                server.registerMBean(new StandardMBean(this, EventListenerQueueMBean.class), objectName);
+                s_registered.put(objectName, this);
+                m_objectName = objectName;
+            } catch (final Exception e) {
+                LOG.debug("Unable to register the event queue of listener {} with JMX", m_listener.getName(), e);
+            }
+        }
+
         /**
          * Stops the execution of this listener.
          */
         public void stop() {
             m_delegateThread.shutdown();
+            if (m_objectName != null && s_registered.remove(m_objectName, this)) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(m_objectName);
+                } catch (final Exception e) {
+                    LOG.debug("Unable to unregister {} from JMX", m_objectName, e);
+                }
+                m_objectName = null;
+            }
+        }
+
+        @Override
+        public String getListenerName() {
+            return m_listener.getName();
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return m_delegateThread.getQueue().size();
+        }
+
+        @Override
+        public long getEventsQueued() {
+            return m_queued.get();
+        }
+
+        @Override
+        public long getEventsDropped() {
+            return m_dropped.get();
+        }
+
+        @Override
+        public long getEventsHandled() {
+            return m_handled.get();
+        }
+
+        @Override
+        public double getAverageHandlingTime() {
+            final long handled = m_handled.get();
+            return handled == 0 ? 0.0 : m_handlingNanos.get() / 1000000.0 / handled;
+        }
+
+        @Override
+        public double getMaxHandlingTime() {
+            return m_maxHandlingNanos.get() / 1000000.0;
+        }
+
+        @Override
+        public double getAverageQueueTime() {
+            final long handled = m_handled.get();
+            return handled == 0 ? 0.0 : m_queueNanos.get() / 1000000.0 / handled;
         }
     }
 
@@ -262,13 +473,15 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     public void broadcastNow(Event event) {
         LOG.debug("Event ID {} to be broadcasted: {}", event.getDbid(), event.getUei());
 
-        if (m_listeners.isEmpty()) {
+        final RoutingTable routingTable = m_routingTable;
+        final EventListenerExecutor[] matchAll = routingTable.getMatchAll();
+        if (matchAll.length == 0) {
             LOG.debug("No listeners interested in all events");
         }
 
         // Send to listeners interested in receiving all events
-        for (EventListener listener : m_listeners) {
-            queueEventToListener(event, listener);
+        for (final EventListenerExecutor listenerThread : matchAll) {
+            listenerThread.addEvent(event);
         }
 
         if (event.getUei() == null) {
@@ -277,38 +490,25 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         }
 
         /*
-         * Send to listeners who are interested in this event UEI.
-         * Loop to attempt partial wild card "directory" matches.
+         * Send to listeners who are interested in this event UEI,
+         * including partial wild card "directory" matches.
          */
-        Set<EventListener> sentToListeners = new HashSet<EventListener>();
-        for (String uei = event.getUei(); uei.length() > 0; ) {
-            if (m_ueiListeners.containsKey(uei)) {
-                for (EventListener listener : m_ueiListeners.get(uei)) {
-                    if (!sentToListeners.contains(listener)) {
-                        queueEventToListener(event, listener);
-                        sentToListeners.add(listener);
-                    }
-                }
-            }
-            
-            // Try wild cards: Find / before last character
-            int i = uei.lastIndexOf("/", uei.length() - 2);
-            if (i > 0) {
-                // Split at "/", including the /
-                uei = uei.substring (0, i + 1);
-            } else {
-                // No more wild cards to match
-                break;
-            }
+        final EventListenerExecutor[] ueiListeners = routingTable.resolve(event.getUei());
+        for (final EventListenerExecutor listenerThread : ueiListeners) {
+            listenerThread.addEvent(event);
         }
         
-        if (sentToListeners.isEmpty()) {
+        if (ueiListeners.length == 0) {
             LOG.debug("No listener interested in event ID {}: {}", event.getDbid(), event.getUei());
         }
     }
 
-    private void queueEventToListener(Event event, EventListener listener) {
-        m_listenerThreads.get(listener.getName()).addEvent(event);
+    /**
+     * Publishes the current listeners to {@link #broadcastNow(Event)}.  Must
+     * be called, with the lock held, after every change to them.
+     */
+    private void updateRoutingTable() {
+        m_routingTable = new RoutingTable(m_listeners, m_ueiListeners, m_listenerThreads);
     }
 
     /**
@@ -329,6 +529,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : m_ueiListeners.keySet()) {
             removeUeiForListener(uei, listener);
         }
+
+        updateRoutingTable();
     }
 
     /**
@@ -356,6 +558,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
         // Since we have a UEI-specific listener, remove the match-all listener
         removeMatchAllForListener(listener);
+
+        updateRoutingTable();
     }
 
     /**
@@ -390,6 +594,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : ueis) {
             removeUeiForListener(uei, listener);
         }
+
+        updateRoutingTable();
     }
 
     /**
@@ -409,6 +615,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.notNull(uei, "uei argument cannot be null");
 
         removeUeiForListener(uei, listener);
+
+        updateRoutingTable();
     }
 
     /**
@@ -435,6 +643,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
             m_listenerThreads.remove(listener.getName());
         }
+
+        updateRoutingTable();
     }
 
     /**
@@ -447,6 +657,7 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         }
         
         EventListenerExecutor listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength);
+        listenerThread.register();
         m_listenerThreads.put(listener.getName(), listenerThread);
     }
 
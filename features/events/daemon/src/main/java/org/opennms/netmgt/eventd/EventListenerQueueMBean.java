@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+/**
+ * JMX view of the queue that feeds events to one {@link org.opennms.netmgt.events.api.EventListener}.
+ */
+public interface EventListenerQueueMBean {
+
+    /**
+     * @return the name of the listener
+     */
+    public String getListenerName();
+
+    /**
+     * @return the number of events waiting to be handed to the listener
+     */
+    public int getQueueDepth();
+
+    /**
+     * @return the cumulative number of events queued for the listener
+     */
+    public long getEventsQueued();
+
+    /**
+     * @return the cumulative number of events discarded because the
+     *         listener's queue was full
+     */
+    public long getEventsDropped();
+
+    /**
+     * @return the cumulative number of events the listener has handled
+     */
+    public long getEventsHandled();
+
+    /**
+     * @return the average time, in milliseconds, the listener took to
+     *         handle an event
+     */
+    public double getAverageHandlingTime();
+
+    /**
+     * @return the longest time, in milliseconds, the listener took to handle
+     *         an event
+     */
+    public double getMaxHandlingTime();
+
+    /**
+     * @return the average time, in milliseconds, events waited in the queue
+     *         before being handed to the listener
+     */
+    public double getAverageQueueTime();
+}
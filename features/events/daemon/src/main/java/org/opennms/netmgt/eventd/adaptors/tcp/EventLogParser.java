@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.adaptors.tcp;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * Reads the events of an event record with StAX.  Only the
+ * <code>&lt;event&gt;</code> elements are unmarshalled, one at a time, so
+ * the parse never holds more than one event's tree and never builds the
+ * enclosing {@link org.opennms.netmgt.xml.event.Log}.
+ *
+ * <p>Like {@link JaxbUtils#unmarshal(Class, org.xml.sax.InputSource)},
+ * elements without a namespace are read as if they were in the event
+ * namespace, since most clients don't declare it.</p>
+ */
+final class EventLogParser {
+
+    private static final String EVENT_NAMESPACE = "http://xmlns.opennms.org/xsd/event";
+
+    private static final XMLInputFactory s_inputFactory;
+
+    static {
+        s_inputFactory = XMLInputFactory.newInstance();
+        s_inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        s_inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    /**
+     * Puts elements without a namespace into the event namespace.
+     */
+    private static final class EventNamespaceReader extends StreamReaderDelegate {
+        private EventNamespaceReader(final XMLStreamReader reader) {
+            super(reader);
+        }
+
+        private boolean isElement() {
+            return getEventType() == XMLStreamConstants.START_ELEMENT || getEventType() == XMLStreamConstants.END_ELEMENT;
+        }
+
+        @Override
+        public String getNamespaceURI() {
+            final String namespace = super.getNamespaceURI();
+            return isElement() && (namespace == null || namespace.isEmpty()) ? EVENT_NAMESPACE : namespace;
+        }
+
+        @Override
+        public QName getName() {
+            return isElement() ? new QName(getNamespaceURI(), getLocalName(), getPrefix() == null ? "" : getPrefix()) : super.getName();
+        }
+    }
+
+    private EventLogParser() {
+    }
+
+    /**
+     * Returns the events of a record, in document order.
+     *
+     * @throws XMLStreamException if the record isn't well-formed or its root isn't a log
+     * @throws JAXBException if an event can't be unmarshalled
+     */
+    static List<Event> parse(final InputStream record) throws XMLStreamException, JAXBException {
+        final XMLStreamReader reader = new EventNamespaceReader(s_inputFactory.createXMLStreamReader(record));
+        try {
+            reader.nextTag();
+            if (!"log".equals(reader.getLocalName())) {
+                throw new XMLStreamException("Expected a log element but found " + reader.getLocalName(), reader.getLocation());
+            }
+
+            final Unmarshaller unmarshaller = JaxbUtils.getUnmarshallerFor(Event.class, null, false);
+            final List<Event> events = new ArrayList<Event>();
+            // log is at depth 1, events at 2 and event at 3
+            int depth = 1;
+            int eventType = reader.next();
+            while (depth > 0) {
+                if (eventType == XMLStreamConstants.START_ELEMENT) {
+                    if (depth == 2 && "event".equals(reader.getLocalName())) {
+                        events.add(unmarshaller.unmarshal(reader, Event.class).getValue());
+                        // the reader is left on the token after the event, or on its end tag
+                        eventType = reader.getEventType();
+                        if (eventType == XMLStreamConstants.END_ELEMENT && "event".equals(reader.getLocalName())) {
+                            eventType = reader.next();
+                        }
+                        continue;
+                    }
+                    depth++;
+                } else if (eventType == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+                if (depth > 0) {
+                    eventType = reader.next();
+                }
+            }
+            return events;
+        } finally {
+            reader.close();
+        }
+    }
+}
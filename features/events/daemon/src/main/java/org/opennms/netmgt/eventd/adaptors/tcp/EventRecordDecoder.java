@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.adaptors.tcp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits the byte stream of a connection into event records, each one a
+ * complete <code>&lt;log&gt;</code> document ending with a
+ * <code>&lt;/log&gt;</code> tag, optionally with a namespace prefix.
+ * Anything between records up to the next <code>&lt;</code> is discarded.
+ *
+ * <p>The scan picks up where the previous one stopped, so every byte is
+ * looked at once no matter how the record is split across reads.  The end
+ * tag is matched on bytes, which is safe for any ASCII-compatible encoding.
+ * Records longer than the limit close the connection.</p>
+ */
+final class EventRecordDecoder extends FrameDecoder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventRecordDecoder.class);
+
+    private static final byte[] LOG_NAME = new byte[] { 'l', 'o', 'g' };
+
+    private static final int OUTSIDE = 0;
+    private static final int TEXT = 1;
+    private static final int OPEN = 2;
+    private static final int END_TAG = 3;
+
+    private final int m_maxRecordLength;
+
+    private int m_state = OUTSIDE;
+
+    /**
+     * The number of bytes of the current record already scanned.
+     */
+    private int m_scanned = 0;
+
+    /**
+     * The number of characters of "log" matched by the local name of the
+     * current end tag, or -1 if it can't be "log".
+     */
+    private int m_matched = 0;
+
+    EventRecordDecoder(final int maxRecordLength) {
+        m_maxRecordLength = maxRecordLength;
+    }
+
+    @Override
+    protected Object decode(final ChannelHandlerContext ctx, final Channel channel, final ChannelBuffer buffer) throws Exception {
+        if (m_state == OUTSIDE) {
+            final int start = buffer.indexOf(buffer.readerIndex(), buffer.writerIndex(), (byte)'<');
+            if (start < 0) {
+                buffer.skipBytes(buffer.readableBytes());
+                return null;
+            }
+            buffer.readerIndex(start);
+            m_state = TEXT;
+            m_scanned = 0;
+        }
+
+        final int start = buffer.readerIndex();
+        final int end = buffer.writerIndex();
+        for (int i = start + m_scanned; i < end; i++) {
+            if (next(buffer.getByte(i))) {
+                m_state = OUTSIDE;
+                m_scanned = 0;
+                return buffer.readBytes(i + 1 - start);
+            }
+        }
+
+        m_scanned = end - start;
+        if (m_scanned > m_maxRecordLength) {
+            throw new TooLongFrameException("Event record from " + channel.getRemoteAddress() + " is longer than " + m_maxRecordLength + " bytes");
+        }
+        return null;
+    }
+
+    /**
+     * Advances the end tag state machine.
+     *
+     * @return true if the byte completes a <code>&lt;/log&gt;</code> tag
+     */
+    private boolean next(final byte b) {
+        switch (m_state) {
+        case OPEN:
+            if (b == '/') {
+                m_state = END_TAG;
+                m_matched = 0;
+                return false;
+            }
+            break;
+        case END_TAG:
+            if (b == '>') {
+                final boolean found = m_matched == LOG_NAME.length;
+                m_state = TEXT;
+                return found;
+            } else if (b == ':') {
+                // the local name starts after the prefix
+                m_matched = 0;
+                return false;
+            } else if (isNameByte(b)) {
+                m_matched = m_matched >= 0 && m_matched < LOG_NAME.length && LOG_NAME[m_matched] == b ? m_matched + 1 : -1;
+                return false;
+            }
+            break;
+        default:
+            break;
+        }
+        m_state = b == '<' ? OPEN : TEXT;
+        return false;
+    }
+
+    private static boolean isNameByte(final byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '-' || b == '_' || b == '.';
+    }
+
+    @Override
+    protected Object decodeLast(final ChannelHandlerContext ctx, final Channel channel, final ChannelBuffer buffer) throws Exception {
+        final Object record = decode(ctx, channel, buffer);
+        if (record == null && buffer.readable()) {
+            LOG.debug("Discarding {} bytes of an incomplete event record from {}", buffer.readableBytes(), channel.getRemoteAddress());
+            buffer.skipBytes(buffer.readableBytes());
+        }
+        return record;
+    }
+}
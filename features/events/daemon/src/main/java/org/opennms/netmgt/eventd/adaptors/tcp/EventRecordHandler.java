@@ -0,0 +1,367 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.adaptors.tcp;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.opennms.core.fiber.Fiber;
+import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.eventd.adaptors.EventHandler;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.EventReceipt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handles the event records of one connection.  Each record is parsed and
+ * passed to the event handlers on the receiver's executor, never on a Netty
+ * I/O thread, and all of the successfully processed events that have a
+ * UUID are acknowledged to the client with an XML event receipt.
+ *
+ * <p>Records are handled one at a time, in order, and the connection isn't
+ * read while a record is being handled.  When the event handlers reject an
+ * event because their pool is saturated, the event is retried with an
+ * increasing delay instead of being dropped, so a busy eventd slows the
+ * clients down through TCP flow control.  The retry is scheduled on the
+ * executor rather than waited for, so a connection that is being held
+ * back doesn't keep a thread from the other connections.</p>
+ */
+final class EventRecordHandler extends SimpleChannelUpstreamHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventRecordHandler.class);
+
+    private static final long MIN_RETRY_DELAY = 10;
+    private static final long MAX_RETRY_DELAY = 1000;
+
+    /**
+     * Orders events without a time first, then by time.
+     */
+    static final Comparator<Event> EVENT_TIME_ORDER = new Comparator<Event>() {
+        @Override
+        public int compare(final Event e1, final Event e2) {
+            final Date de1 = e1.getTime();
+            final Date de2 = e2.getTime();
+            if (de1 != null && de2 == null) {
+                return 1;
+            } else if (de1 == null && de2 != null) {
+                return -1;
+            } else if (de1 == null && de2 == null) {
+                return 0;
+            }
+            return de1.compareTo(de2);
+        }
+    };
+
+    private final Fiber m_parent;
+    private final List<EventHandler> m_handlers;
+    private final ScheduledExecutorService m_executor;
+    private final ChannelGroup m_channels;
+
+    /**
+     * The number of records the connection may still send, or
+     * {@link TcpEventReceiver#UNLIMITED_EVENTS}.
+     */
+    private int m_remaining;
+
+    private final LinkedList<ChannelBuffer> m_pending = new LinkedList<ChannelBuffer>();
+    private boolean m_processing = false;
+    private ChannelFuture m_lastWrite = null;
+
+    /**
+     * The record being handled, only used by the thread that is processing
+     * the records of the connection.
+     */
+    private RecordProgress m_current = null;
+
+    /**
+     * How far the events of a record have been passed to the handlers.
+     */
+    private static final class RecordProgress {
+        private final List<Event> m_events;
+        private final EventHandler[] m_handlers;
+        private final List<Event> m_okEvents;
+        private int m_handler = 0;
+        private int m_event = 0;
+        private long m_delay = 0;
+
+        private RecordProgress(final List<Event> events, final EventHandler[] handlers) {
+            m_events = events;
+            m_handlers = handlers;
+            m_okEvents = new ArrayList<Event>(events.size());
+        }
+    }
+
+    EventRecordHandler(final Fiber parent, final List<EventHandler> handlers, final ScheduledExecutorService executor, final ChannelGroup channels, final int recordsPerConnection) {
+        m_parent = parent;
+        m_handlers = handlers;
+        m_executor = executor;
+        m_channels = channels;
+        m_remaining = recordsPerConnection;
+    }
+
+    @Override
+    public void channelOpen(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception {
+        m_channels.add(e.getChannel());
+        LOG.debug("New connection accepted from {}", e.getChannel().getRemoteAddress());
+        super.channelOpen(ctx, e);
+    }
+
+    @Override
+    public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent e) throws Exception {
+        final Channel channel = e.getChannel();
+        synchronized (this) {
+            if (m_remaining == 0) {
+                // the connection is closed once the last allowed record is handled
+                return;
+            }
+            if (m_remaining > 0) {
+                m_remaining--;
+            }
+            m_pending.add((ChannelBuffer)e.getMessage());
+            // stop reading until the records are handled
+            channel.setReadable(false);
+            if (m_processing) {
+                return;
+            }
+            m_processing = true;
+        }
+
+        try {
+            m_executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    processPending(channel);
+                }
+            });
+        } catch (final RejectedExecutionException ex) {
+            LOG.debug("The receiver is stopping, closing the connection from {}", channel.getRemoteAddress());
+            channel.close();
+        }
+    }
+
+    private void processPending(final Channel channel) {
+        while (true) {
+            if (m_current == null) {
+                final ChannelBuffer record;
+                synchronized (this) {
+                    record = m_pending.poll();
+                    if (record == null) {
+                        m_processing = false;
+                        if (m_remaining == 0) {
+                            closeAfterLastWrite(channel);
+                        } else if (channel.isOpen()) {
+                            channel.setReadable(true);
+                        }
+                        return;
+                    }
+                }
+                m_current = parseRecord(record);
+                if (m_current == null) {
+                    continue;
+                }
+            }
+
+            if (!processEvents(m_current)) {
+                retryLater(channel, m_current);
+                return;
+            }
+            if (m_current.m_okEvents.size() > 0) {
+                sendReceipt(channel, m_current.m_okEvents, m_current.m_handlers);
+            }
+            m_current = null;
+        }
+    }
+
+    private void closeAfterLastWrite(final Channel channel) {
+        if (m_lastWrite == null) {
+            channel.close();
+        } else {
+            m_lastWrite.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * @return the events of the record, or null if it doesn't have any
+     */
+    private RecordProgress parseRecord(final ChannelBuffer record) {
+        final List<Event> events;
+        try {
+            events = EventLogParser.parse(new ChannelBufferInputStream(record));
+            LOG.debug("Event record converted");
+        } catch (final Exception e) {
+            LOG.error("Could not unmarshall the XML record.", e);
+            return null;
+        }
+
+        if (events.isEmpty()) {
+            LOG.debug("The agent sent an empty event stream");
+            return null;
+        }
+        Collections.sort(events, EVENT_TIME_ORDER);
+
+        synchronized (m_handlers) {
+            return new RecordProgress(events, m_handlers.toArray(new EventHandler[m_handlers.size()]));
+        }
+    }
+
+    /**
+     * Passes the events of a record to the handlers, starting where the
+     * previous attempt stopped.
+     *
+     * @return false if a handler rejected an event because it is saturated
+     */
+    private boolean processEvents(final RecordProgress progress) {
+        // have each handler process all the events in the record before moving to the next one
+        for (; progress.m_handler < progress.m_handlers.length; progress.m_handler++, progress.m_event = 0) {
+            final EventHandler hdl = progress.m_handlers[progress.m_handler];
+            for (; progress.m_event < progress.m_events.size(); progress.m_event++) {
+                final Event event = progress.m_events.get(progress.m_event);
+                try {
+                    LOG.debug("handling event: {}", event);
+                    if (hdl.processEvent(event) && !progress.m_okEvents.contains(event)) {
+                        progress.m_okEvents.add(event);
+                    }
+                } catch (final RejectedExecutionException e) {
+                    if (m_parent.getStatus() == Fiber.STOP_PENDING || m_parent.getStatus() == Fiber.STOPPED) {
+                        LOG.warn("An exception occured while processing an event.", e);
+                        continue;
+                    }
+                    return false;
+                } catch (final Throwable t) {
+                    LOG.warn("An exception occured while processing an event.", t);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hands the rejected event back to the executor after an increasing
+     * delay.  The connection stays unreadable in the meantime.
+     */
+    private void retryLater(final Channel channel, final RecordProgress progress) {
+        if (progress.m_delay == 0) {
+            LOG.debug("The event handler is saturated, holding back the client {}", channel.getRemoteAddress());
+            progress.m_delay = MIN_RETRY_DELAY;
+        } else {
+            progress.m_delay = Math.min(progress.m_delay * 2, MAX_RETRY_DELAY);
+        }
+        try {
+            m_executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    processPending(channel);
+                }
+            }, progress.m_delay, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            LOG.debug("The receiver is stopping, closing the connection from {}", channel.getRemoteAddress());
+            channel.close();
+        }
+    }
+
+    private void sendReceipt(final Channel channel, final List<Event> okEvents, final EventHandler[] handlers) {
+        final EventReceipt receipt = new EventReceipt();
+        for (final Event event : okEvents) {
+            if (event.getUuid() != null) {
+                receipt.addUuid(event.getUuid());
+            }
+        }
+        if (receipt.getUuidCount() == 0) {
+            return;
+        }
+
+        final StringWriter writer = new StringWriter();
+        JaxbUtils.marshal(receipt, writer);
+        final String xml = writer.toString();
+
+        final ChannelFuture future;
+        try {
+            future = channel.write(ChannelBuffers.wrappedBuffer(xml.getBytes("UTF-8")));
+        } catch (final IOException e) {
+            throw new IllegalStateException("UTF-8 is not supported", e);
+        }
+        synchronized (this) {
+            m_lastWrite = future;
+        }
+        future.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(final ChannelFuture f) {
+                if (!f.isSuccess()) {
+                    LOG.warn("Failed to send event-receipt XML document.", f.getCause());
+                    f.getChannel().close();
+                    return;
+                }
+                for (final EventHandler hdl : handlers) {
+                    try {
+                        hdl.receiptSent(receipt);
+                    } catch (final Throwable t) {
+                        LOG.warn("An exception occured while processing an event receipt.", t);
+                    }
+                }
+                LOG.debug("Sent Event Receipt {}", xml);
+            }
+        });
+    }
+
+    @Override
+    public void exceptionCaught(final ChannelHandlerContext ctx, final ExceptionEvent e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof TooLongFrameException) {
+            LOG.warn("{}, closing the connection", cause.getMessage());
+        } else if (cause instanceof IOException) {
+            LOG.debug("An I/O error occured on the connection from {}", e.getChannel().getRemoteAddress(), cause);
+        } else {
+            LOG.warn("An error occured on the connection from {}", e.getChannel().getRemoteAddress(), cause);
+        }
+        e.getChannel().close();
+    }
+}
@@ -28,17 +28,30 @@
 
 package org.opennms.netmgt.eventd.adaptors.tcp;
 
-import java.io.IOException;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.management.InstanceNotFoundException;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
 
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.ChannelException;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.logging.Logging;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.eventd.adaptors.EventHandler;
 import org.opennms.netmgt.eventd.adaptors.EventHandlerMBeanProxy;
@@ -52,10 +65,10 @@ import org.springframework.util.Assert;
  * This fiber sets up an server socket that accepts incoming connections on the
  * configured port (port 5817 by default).
  *
- * When a connection is established a new thread is started to process the
- * socket connection. The event document is decoded and each of the events are
- * passed to the handlers. Based upon the action of the handlers an event receipt
- * is generated and sent to the remote client.
+ * Connections are multiplexed over a small number of Netty I/O threads. Each
+ * event document read from a connection is decoded and each of the events are
+ * passed to the handlers on a separate pool of threads. Based upon the action
+ * of the handlers an event receipt is generated and sent to the remote client.
  *
  * @author <a href="mailto:weave@oculan.com">Brian Weaver </a>
  * @author <a href="http;//www.opennms.org">OpenNMS </a>
@@ -70,15 +83,36 @@ public final class TcpEventReceiver implements EventReceiver, TcpEventReceiverMB
     public static final int UNLIMITED_EVENTS = -1;
 
     /**
-     * The main server thread. This thread of execution is used to handle all
-     * incoming connection requests.
+     * The default TCP/IP port where the server listens for connections.
      */
-    private Thread m_worker;
+    static final int TCP_PORT = 5817;
 
     /**
-     * The server socket
+     * The default IP address where the server listens for connections.
      */
-    private TcpServer m_server;
+    static final String DEFAULT_IP_ADDRESS = "127.0.0.1";
+
+    /**
+     * The default size limit of a single event record. A client that sends a
+     * larger record is disconnected.
+     */
+    static final int DEFAULT_MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * The server bootstrap, holding the I/O threads.
+     */
+    private ServerBootstrap m_bootstrap;
+
+    /**
+     * The server channel and all of the accepted connections.
+     */
+    private ChannelGroup m_channels;
+
+    /**
+     * The threads that decode the event records and pass the events to the
+     * handlers.
+     */
+    private ScheduledExecutorService m_processor;
 
     /**
      * The registered list of event handlers. Each incoming event will be
@@ -113,6 +147,11 @@ public final class TcpEventReceiver implements EventReceiver, TcpEventReceiverMB
      */
     private String m_ipAddress;
 
+    /**
+     * The largest event record accepted from a client.
+     */
+    private int m_maxRecordLength;
+
     /**
      * Constructs a new TCP/IP event receiver on the default TCP/IP port. The
      * server socket allocation is delayed until the fiber is actually started.
@@ -120,7 +159,7 @@ public final class TcpEventReceiver implements EventReceiver, TcpEventReceiverMB
      * @throws java.net.UnknownHostException if any.
      */
     public TcpEventReceiver() throws UnknownHostException {
-        this(TcpServer.TCP_PORT, TcpServer.DEFAULT_IP_ADDRESS);
+        this(TCP_PORT, DEFAULT_IP_ADDRESS);
     }
 
     /**
@@ -137,15 +176,14 @@ public final class TcpEventReceiver implements EventReceiver, TcpEventReceiverMB
         m_status = START_PENDING;
         m_tcpPort = port;
         m_ipAddress = ipAddress;
-        m_server = null;
-        m_worker = null;
         m_logPrefix = null;
         m_recsPerConn = UNLIMITED_EVENTS;
+        m_maxRecordLength = DEFAULT_MAX_RECORD_LENGTH;
     }
 
     /**
-     * Allocates the server socket and starts up the server socket processor
-     * thread. If an error occurs allocating the server socket or the Fiber is
+     * Allocates the server socket and starts up the I/O and record processing
+     * threads. If an error occurs allocating the server socket or the Fiber is
      * in an erronous state then a
      * {@link java.lang.RuntimeException runtime exception}is thrown.
      *
@@ -153,42 +191,62 @@ public final class TcpEventReceiver implements EventReceiver, TcpEventReceiverMB
      *             Thrown if an error occurs allocating the server socket.
      * @throws java.lang.RuntimeException
      *             Thrown if the fiber is in an erronous state or the underlying
-     *             thread cannot be started.
+     *             threads cannot be started.
      */
     @Override
     public synchronized void start() {
         assertNotRunning();
 
         m_status = STARTING;
-        try {
-            InetAddress address = "*".equals(m_ipAddress) ? null : InetAddressUtils.addr(m_ipAddress);
-            m_server = new TcpServer(this, m_eventHandlers, m_tcpPort, address);
-            if (m_logPrefix != null) {
-                m_server.setLogPrefix(m_logPrefix);
+        final InetAddress address = "*".equals(m_ipAddress) ? null : InetAddressUtils.addr(m_ipAddress);
+        final String prefix = m_logPrefix == null ? org.opennms.netmgt.eventd.Eventd.LOG4J_CATEGORY : m_logPrefix;
+        final int threads = Runtime.getRuntime().availableProcessors();
+
+        // create the thread factories with the log prefix so that the threads inherit it
+        Logging.withPrefix(prefix, new Runnable() {
+            @Override
+            public void run() {
+                m_processor = Executors.newScheduledThreadPool(threads, new LogPreservingThreadFactory(getName() + "-Processor", threads));
+                m_bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(
+                    Executors.newCachedThreadPool(new LogPreservingThreadFactory(getName() + "-Boss", Integer.MAX_VALUE)),
+                    Executors.newCachedThreadPool(new LogPreservingThreadFactory(getName() + "-Worker", threads)),
+                    threads
+                ));
             }
-            if (m_recsPerConn != UNLIMITED_EVENTS) {
-                m_server.setEventsPerConnection(m_recsPerConn);
+        });
+        m_channels = new DefaultChannelGroup(getName());
+
+        final List<EventHandler> handlers = m_eventHandlers;
+        final int recsPerConn = m_recsPerConn;
+        final int maxRecordLength = m_maxRecordLength;
+        m_bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() {
+                return Channels.pipeline(
+                    new EventRecordDecoder(maxRecordLength),
+                    new EventRecordHandler(TcpEventReceiver.this, handlers, m_processor, m_channels, recsPerConn)
+                );
             }
-        } catch (IOException e) {
-            throw new UndeclaredThrowableException(e, "Error opening server socket: " + e);
-        }
-        m_worker = new Thread(m_server, "Event TCP Server[" + m_tcpPort + "]");
+        });
+        m_bootstrap.setOption("reuseAddress", true);
+        m_bootstrap.setOption("child.tcpNoDelay", true);
+        m_bootstrap.setOption("child.keepAlive", true);
 
         try {
-            m_worker.start();
-        } catch (RuntimeException e) {
-            m_worker.interrupt();
+            m_channels.add(m_bootstrap.bind(new InetSocketAddress(address, m_tcpPort)));
+        } catch (ChannelException e) {
+            shutdown();
             m_status = STOPPED;
-            throw e;
+            throw new UndeclaredThrowableException(e.getCause() == null ? e : e.getCause(), "Error opening server socket: " + e);
         }
 
         m_status = RUNNING;
     }
 
     /**
-     * Stops the TCP/IP event receiver. This method will block until all the
-     * children threads of this object are terminated and
-     * {@link java.lang.Thread#join joined}.
+     * Stops the TCP/IP event receiver. This method will block until the server
+     * socket and all of the connections are closed and the I/O and processing
+     * threads are terminated.
      */
     @Override
     public synchronized void stop() {
@@ -201,17 +259,31 @@ public final class TcpEventReceiver implements EventReceiver, TcpEventReceiverMB
         }
 
         m_status = STOP_PENDING;
+        shutdown();
+        m_status = STOPPED;
+    }
 
-        // Stop the main server thread then iterate over the connected threads
-        try {
-            m_server.stop();
-        } catch (InterruptedException e) {
-            LOG.warn("Thread Interrupted while attempting to join server socket thread", e);
+    private void shutdown() {
+        if (m_channels != null) {
+            m_channels.close().awaitUninterruptibly();
+            m_channels = null;
+        }
+        if (m_bootstrap != null) {
+            m_bootstrap.releaseExternalResources();
+            m_bootstrap = null;
+        }
+        if (m_processor != null) {
+            m_processor.shutdownNow();
+            try {
+                if (!m_processor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    LOG.warn("Timed out waiting for the event record processing threads to finish");
+                }
+            } catch (InterruptedException e) {
+                LOG.warn("Thread Interrupted while waiting for the event record processing threads to finish", e);
+                Thread.currentThread().interrupt();
+            }
+            m_processor = null;
         }
-        m_server = null;
-        m_worker = null;
-
-        m_status = STOPPED;
     }
 
     /**
@@ -387,6 +459,18 @@ public final class TcpEventReceiver implements EventReceiver, TcpEventReceiverMB
         m_recsPerConn = number.intValue();
     }
 
+    /**
+     * Sets the size limit, in bytes, of a single event record. A client that
+     * sends a larger record is disconnected.
+     *
+     * @param maxRecordLength a {@link java.lang.Integer} object.
+     */
+    public synchronized void setMaxRecordLength(final Integer maxRecordLength) {
+        assertNotRunning();
+
+        m_maxRecordLength = maxRecordLength.intValue();
+    }
+
     private void assertNotRunning() {
         Assert.state(m_status == START_PENDING || m_status == STOPPED, "The fiber is already running and cannot be modified or started");
     }
@@ -0,0 +1,414 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.utils.DBUtils;
+import org.opennms.netmgt.eventd.EventdConstants;
+import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.DataAccessException;
+
+/**
+ * EventWriter that groups the events of concurrent event handler threads
+ * into JDBC batch inserts.
+ *
+ * <p>{@link #process(Header, Event)} hands the event to a single writer thread
+ * and blocks until the batch holding it has been committed, so the event
+ * already has its database ID when the next processor broadcasts it.  The
+ * writer takes all of the IDs for a batch with one query, inserts the rows
+ * with one JDBC batch and commits once.</p>
+ *
+ * <p>A batch is written when it reaches <code>batchSize</code> events, when
+ * <code>maxBatchDelay</code> milliseconds have passed since its first event,
+ * or as soon as every thread waiting in <code>process</code> is part of it,
+ * since no more events can arrive until one of them returns.  The largest
+ * batches are therefore bounded by the number of event handler threads
+ * ("receivers" in eventd-configuration.xml).</p>
+ *
+ * <p>If a batch fails, its events are retried one at a time so that a bad
+ * event only fails its own handler.</p>
+ */
+public class BatchingEventWriter extends AbstractJdbcPersister implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingEventWriter.class);
+
+    private int m_batchSize = 100;
+
+    private long m_maxBatchDelay = 10;
+
+    private String m_getNextIdsString;
+
+    private final BlockingQueue<PendingEvent> m_queue = new LinkedBlockingQueue<PendingEvent>();
+
+    /**
+     * Number of threads blocked in {@link #process(Header, Event)}.
+     */
+    private final AtomicInteger m_waiting = new AtomicInteger(0);
+
+    private final AtomicLong m_eventsWritten = new AtomicLong(0);
+
+    private final AtomicLong m_batchesWritten = new AtomicLong(0);
+
+    private volatile boolean m_running = false;
+
+    private Thread m_writerThread;
+
+    private static final class PendingEvent {
+        private final Header m_header;
+        private final Event m_event;
+        private final CountDownLatch m_done = new CountDownLatch(1);
+        private Exception m_exception;
+
+        private PendingEvent(final Header header, final Event event) {
+            m_header = header;
+            m_event = event;
+        }
+
+        private void succeed(final int eventID) {
+            synchronized (m_event) {
+                m_event.setDbid(eventID);
+            }
+            m_done.countDown();
+        }
+
+        private void fail(final Exception e) {
+            m_exception = e;
+            m_done.countDown();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Queues the event for the next batch and waits until it has been
+     * inserted into the database.
+     */
+    @Override
+    public void process(final Header eventHeader, final Event event) throws EventProcessorException {
+        if (!checkEventSanityAndDoWeProcess(event, "BatchingEventWriter")) {
+            return;
+        }
+
+        if (!m_running) {
+            throw new EventProcessorException("BatchingEventWriter is not running; unable to persist event " + event.getUei());
+        }
+
+        LOG.debug("BatchingEventWriter: queueing {} nodeid: {} ipaddr: {} serviceid: {} time: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
+
+        final PendingEvent pending = new PendingEvent(eventHeader, event);
+        m_waiting.incrementAndGet();
+        try {
+            m_queue.add(pending);
+            pending.m_done.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EventProcessorException("Interrupted while waiting for event " + event.getUei() + " to be persisted");
+        } finally {
+            m_waiting.decrementAndGet();
+        }
+
+        if (pending.m_exception != null) {
+            throw new EventProcessorException(pending.m_exception);
+        }
+    }
+
+    private void runWriter() {
+        final List<PendingEvent> batch = new ArrayList<PendingEvent>(m_batchSize);
+        while (m_running || !m_queue.isEmpty()) {
+            try {
+                final PendingEvent first = m_queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                fillBatch(batch);
+                writeBatch(batch);
+            } catch (final InterruptedException e) {
+                LOG.debug("Event writer interrupted; writing any queued events before stopping");
+            } catch (final Throwable t) {
+                LOG.warn("Unexpected error writing a batch of {} events", batch.size(), t);
+                for (final PendingEvent pending : batch) {
+                    if (pending.m_done.getCount() > 0) {
+                        pending.fail(new SQLException("Unexpected error writing event batch: " + t, t));
+                    }
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Adds queued events to the batch until it should be written.  An
+     * interrupt (from {@link #destroy()}) just ends the wait.
+     */
+    private void fillBatch(final List<PendingEvent> batch) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(m_maxBatchDelay);
+        while (batch.size() < m_batchSize) {
+            m_queue.drainTo(batch, m_batchSize - batch.size());
+            if (batch.size() >= m_batchSize || batch.size() >= m_waiting.get()) {
+                return;
+            }
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !m_running) {
+                return;
+            }
+            final PendingEvent next;
+            try {
+                next = m_queue.poll(remaining, TimeUnit.NANOSECONDS);
+            } catch (final InterruptedException e) {
+                return;
+            }
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void writeBatch(final List<PendingEvent> batch) {
+        try {
+            insertEvents(batch);
+        } catch (final Exception e) {
+            if (batch.size() == 1) {
+                LOG.warn("Error inserting event into the datastore.", e);
+                batch.get(0).fail(e);
+                return;
+            }
+            LOG.warn("Error inserting a batch of {} events into the datastore; retrying them one at a time.", batch.size(), e);
+            for (final PendingEvent pending : batch) {
+                writeBatch(Collections.singletonList(pending));
+            }
+        }
+    }
+
+    private void insertEvents(final List<PendingEvent> batch) throws SQLException {
+        final Connection connection = getDataSource().getConnection();
+        final DBUtils d = new DBUtils(getClass(), connection);
+        try {
+            connection.setAutoCommit(false);
+            try {
+                final int[] eventIDs = getNextIds(connection, d, batch.size());
+
+                final PreparedStatement insStmt = connection.prepareStatement(EventdConstants.SQL_DB_INS_EVENT);
+                d.watch(insStmt);
+                for (int i = 0; i < batch.size(); i++) {
+                    final PendingEvent pending = batch.get(i);
+                    setEventValues(insStmt, pending.m_header, pending.m_event, eventIDs[i]);
+                    insStmt.addBatch();
+                }
+                insStmt.executeBatch();
+
+                connection.commit();
+
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).succeed(eventIDs[i]);
+                }
+            } catch (final SQLException e) {
+                rollback(connection);
+                throw e;
+            } catch (final DataAccessException e) {
+                rollback(connection);
+                throw e;
+            }
+        } finally {
+            d.cleanUp();
+        }
+
+        m_batchesWritten.incrementAndGet();
+        m_eventsWritten.addAndGet(batch.size());
+        LOG.debug("SUCCESSFULLY added a batch of {} events into the EVENTS table.", batch.size());
+    }
+
+    private static void rollback(final Connection connection) {
+        try {
+            connection.rollback();
+        } catch (final Throwable e) {
+            LOG.warn("Rollback of transaction failed.", e);
+        }
+    }
+
+    /**
+     * Takes <code>count</code> IDs from the event sequence, with a single
+     * query if <code>getNextIdsString</code> is known.
+     */
+    private int[] getNextIds(final Connection connection, final DBUtils d, final int count) throws SQLException {
+        final int[] ids = new int[count];
+        if (count == 1 || m_getNextIdsString == null) {
+            final PreparedStatement stmt = connection.prepareStatement(getGetNextIdString());
+            d.watch(stmt);
+            for (int i = 0; i < count; i++) {
+                ids[i] = queryForId(stmt, d);
+            }
+            return ids;
+        }
+
+        final PreparedStatement stmt = connection.prepareStatement(m_getNextIdsString);
+        d.watch(stmt);
+        stmt.setInt(1, count);
+        final ResultSet rs = stmt.executeQuery();
+        d.watch(rs);
+        int i = 0;
+        while (i < count && rs.next()) {
+            ids[i++] = rs.getInt(1);
+        }
+        if (i < count) {
+            throw new SQLException("Expected " + count + " event IDs from '" + m_getNextIdsString + "' but got " + i);
+        }
+        return ids;
+    }
+
+    private static int queryForId(final PreparedStatement stmt, final DBUtils d) throws SQLException {
+        final ResultSet rs = stmt.executeQuery();
+        d.watch(rs);
+        if (!rs.next()) {
+            throw new SQLException("Unable to get the next event ID");
+        }
+        return rs.getInt(1);
+    }
+
+    /**
+     * <p>afterPropertiesSet</p>
+     *
+     * @throws java.sql.SQLException if any.
+     */
+    @Override
+    public synchronized void afterPropertiesSet() throws SQLException {
+        super.afterPropertiesSet();
+
+        if (m_batchSize < 1) {
+            throw new IllegalStateException("property batchSize must be at least 1");
+        }
+
+        /*
+         * The default "SELECT nextval('eventsNxtId')" can hand out a whole
+         * batch of IDs at once when it is run against generate_series().
+         */
+        if (m_getNextIdsString == null && !getGetNextIdString().toLowerCase().contains(" from ")) {
+            m_getNextIdsString = getGetNextIdString() + " FROM generate_series(1, ?)";
+        }
+
+        if (m_writerThread == null) {
+            m_running = true;
+            m_writerThread = new LogPreservingThreadFactory(getClass().getSimpleName(), 1).newThread(new Runnable() {
+                @Override
+                public void run() {
+                    runWriter();
+                }
+            });
+            m_writerThread.start();
+        }
+    }
+
+    /**
+     * Stops the writer thread once the events already queued are written.
+     *
+     * @throws java.lang.InterruptedException if any.
+     */
+    @Override
+    public synchronized void destroy() throws InterruptedException {
+        if (m_writerThread == null) {
+            return;
+        }
+        m_running = false;
+        m_writerThread.interrupt();
+        m_writerThread.join();
+        m_writerThread = null;
+
+        // anything queued after the writer stopped will never be written
+        final List<PendingEvent> leftovers = new ArrayList<PendingEvent>();
+        m_queue.drainTo(leftovers);
+        for (final PendingEvent pending : leftovers) {
+            pending.fail(new SQLException("BatchingEventWriter was stopped before the event was written"));
+        }
+    }
+
+    public int getBatchSize() {
+        return m_batchSize;
+    }
+
+    /**
+     * Sets the largest number of events inserted in one batch.
+     */
+    public void setBatchSize(final int batchSize) {
+        m_batchSize = batchSize;
+    }
+
+    public long getMaxBatchDelay() {
+        return m_maxBatchDelay;
+    }
+
+    /**
+     * Sets how long, in milliseconds, the first event of a batch waits for
+     * more events before the batch is written.
+     */
+    public void setMaxBatchDelay(final long maxBatchDelay) {
+        m_maxBatchDelay = maxBatchDelay;
+    }
+
+    public String getGetNextIdsString() {
+        return m_getNextIdsString;
+    }
+
+    /**
+     * Sets a query that returns as many event IDs as its single integer
+     * parameter.  If it isn't set, one is derived from
+     * <code>getNextIdString</code> where possible.
+     */
+    public void setGetNextIdsString(final String getNextIdsString) {
+        m_getNextIdsString = getNextIdsString;
+    }
+
+    public long getEventsWritten() {
+        return m_eventsWritten.get();
+    }
+
+    public long getBatchesWritten() {
+        return m_batchesWritten.get();
+    }
+}
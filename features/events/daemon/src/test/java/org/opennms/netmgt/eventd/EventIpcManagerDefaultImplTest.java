@@ -31,8 +31,15 @@ package org.opennms.netmgt.eventd;
 import static org.opennms.core.utils.InetAddressUtils.addr;
 
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import junit.framework.TestCase;
 
@@ -425,6 +432,90 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
         assertTrue("could not remove broadcasted event--did it make it?", m_listener.getEvents().remove(e));
     }
     
+    public void testRemoveEventListenerWithUeiAndBroadcast() throws Exception {
+        EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "testRemoveEventListenerWithUeiAndBroadcast");
+        Event e = bldr.getEvent();
+        
+        m_mocks.replayAll();
+
+        m_manager.addEventListener(m_listener, e.getUei());
+        m_manager.broadcastNow(e);
+        m_manager.removeEventListener(m_listener, e.getUei());
+        m_manager.broadcastNow(e);
+        Thread.sleep(100);
+        
+        m_mocks.verifyAll();
+        
+        assertEquals("only the first broadcast should be received", 1, m_listener.getEvents().size());
+        assertTrue("could not remove broadcasted event--did it make it?", m_listener.getEvents().remove(e));
+    }
+
+    public void testListenerQueueStatistics() throws Exception {
+        EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "testListenerQueueStatistics");
+        Event e = bldr.getEvent();
+        
+        m_mocks.replayAll();
+
+        m_manager.addEventListener(m_listener, "uei.opennms.org/");
+        for (int i = 0; i < 10; i++) {
+            m_manager.broadcastNow(e);
+        }
+        Thread.sleep(100);
+        
+        m_mocks.verifyAll();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("OpenNMS:Name=Eventd,Type=EventListener,Listener=" + ObjectName.quote(m_listener.getName()));
+        assertEquals(10L, server.getAttribute(name, "EventsQueued"));
+        assertEquals(10L, server.getAttribute(name, "EventsHandled"));
+        assertEquals(0L, server.getAttribute(name, "EventsDropped"));
+        assertEquals(0, server.getAttribute(name, "QueueDepth"));
+
+        m_manager.removeEventListener(m_listener);
+        assertFalse("listener should be unregistered once it is removed", server.isRegistered(name));
+
+        m_listener.getEvents().clear();
+    }
+
+    public void testBroadcastThroughput() throws Exception {
+        final int count = 200000;
+        // three of the four UEIs below are routed to the listener
+        final CountDownLatch received = new CountDownLatch(count / 4 * 3);
+        EventListener counter = new EventListener() {
+            @Override
+            public String getName() {
+                return "testBroadcastThroughput";
+            }
+
+            @Override
+            public void onEvent(Event e) {
+                received.countDown();
+            }
+        };
+
+        m_mocks.replayAll();
+
+        m_manager.addEventListener(counter, Arrays.asList("uei.opennms.org/nodes/nodeDown", "uei.opennms.org/nodes/", "uei.opennms.org/internal/"));
+        m_manager.addEventListener(m_listener, "uei.opennms.org/nodes/nodeUp");
+
+        List<Event> events = new ArrayList<Event>();
+        for (String uei : new String[] { "uei.opennms.org/nodes/nodeDown", "uei.opennms.org/nodes/interfaceDown", "uei.opennms.org/internal/reloadDaemonConfig", "uei.opennms.org/vendor/Cisco/traps/unknown" }) {
+            events.add(new EventBuilder(uei, "testBroadcastThroughput").getEvent());
+        }
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            m_manager.broadcastNow(events.get(i % events.size()));
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        assertTrue("timed out waiting for the listener", received.await(30, TimeUnit.SECONDS));
+
+        System.err.printf("%d events: Elapsed: %d ms: events per second %f.%n", count, elapsed, count * 1000.0 / elapsed);
+
+        m_mocks.verifyAll();
+        m_manager.removeEventListener(counter);
+    }
+    
 
     /**
      * This is the type of exception we want to catch.
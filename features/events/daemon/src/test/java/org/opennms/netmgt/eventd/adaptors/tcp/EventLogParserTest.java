@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.adaptors.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+import org.opennms.netmgt.xml.event.Event;
+
+public class EventLogParserTest {
+
+    private static List<Event> parse(final String xml) throws Exception {
+        return EventLogParser.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testEventsWithoutNamespace() throws Exception {
+        final List<Event> events = parse("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<log>\n"
+                + " <events>\n"
+                + "  <event uuid=\"1\">\n"
+                + "   <uei>uei.opennms.org/test/one</uei>\n"
+                + "   <source>test</source>\n"
+                + "   <time>Thursday, 1 January 2015 00:00:00 o'clock GMT</time>\n"
+                + "   <host>localhost</host>\n"
+                + "   <interface>192.168.1.1</interface>\n"
+                + "   <parms><parm><parmName><![CDATA[foo]]></parmName><value type=\"string\" encoding=\"text\"><![CDATA[bar]]></value></parm></parms>\n"
+                + "  </event>"
+                + "<event><uei>uei.opennms.org/test/two</uei></event>\n"
+                + " </events>\n"
+                + "</log>");
+
+        assertEquals(2, events.size());
+        assertEquals("1", events.get(0).getUuid());
+        assertEquals("uei.opennms.org/test/one", events.get(0).getUei());
+        assertEquals("test", events.get(0).getSource());
+        assertEquals("192.168.1.1", events.get(0).getInterface());
+        assertEquals(1, events.get(0).getParmCollection().size());
+        assertEquals("foo", events.get(0).getParmCollection().get(0).getParmName());
+        assertEquals("bar", events.get(0).getParmCollection().get(0).getValue().getContent());
+        assertEquals("uei.opennms.org/test/two", events.get(1).getUei());
+    }
+
+    @Test
+    public void testEventsWithNamespaceAndHeader() throws Exception {
+        final List<Event> events = parse("<e:log xmlns:e=\"http://xmlns.opennms.org/xsd/event\">"
+                + "<e:header><e:ver>1.0</e:ver><e:created>now</e:created></e:header>"
+                + "<e:events><e:event uuid=\"42\"><e:uei>uei.opennms.org/test</e:uei></e:event></e:events>"
+                + "</e:log>");
+
+        assertEquals(1, events.size());
+        assertEquals("42", events.get(0).getUuid());
+        assertEquals("uei.opennms.org/test", events.get(0).getUei());
+    }
+
+    @Test
+    public void testEmptyLog() throws Exception {
+        assertEquals(0, parse("<log><events/></log>").size());
+        assertEquals(0, parse("<log/>").size());
+    }
+
+    @Test
+    public void testMalformedRecord() throws Exception {
+        try {
+            parse("<log><events><event><uei>foo</event></events></log>");
+            fail("expected an XMLStreamException");
+        } catch (final XMLStreamException e) {
+            // expected
+        } catch (final javax.xml.bind.JAXBException e) {
+            // also acceptable, depending on where the parser notices
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.adaptors.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.CodecEmbedderException;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.jboss.netty.util.CharsetUtil;
+import org.junit.Test;
+
+public class EventRecordDecoderTest {
+
+    private final DecoderEmbedder<ChannelBuffer> m_decoder = new DecoderEmbedder<ChannelBuffer>(new EventRecordDecoder(64));
+
+    private void offer(final String data) {
+        m_decoder.offer(ChannelBuffers.copiedBuffer(data, CharsetUtil.UTF_8));
+    }
+
+    private String poll() {
+        final ChannelBuffer record = m_decoder.poll();
+        return record == null ? null : record.toString(CharsetUtil.UTF_8);
+    }
+
+    @Test
+    public void testRecordSplitAcrossReads() throws Exception {
+        offer("\r\n<log><events>");
+        assertNull(poll());
+        offer("</events></lo");
+        assertNull(poll());
+        offer("g>");
+        assertEquals("<log><events></events></log>", poll());
+        assertNull(poll());
+    }
+
+    @Test
+    public void testSeveralRecordsInOneRead() throws Exception {
+        offer("<log>1</log>\n<log>2</log><log>3");
+        assertEquals("<log>1</log>", poll());
+        assertEquals("<log>2</log>", poll());
+        assertNull(poll());
+        offer("</log>");
+        assertEquals("<log>3</log>", poll());
+    }
+
+    @Test
+    public void testNamespacePrefixedEndTag() throws Exception {
+        offer("<e:log xmlns:e=\"http://xmlns.opennms.org/xsd/event\"/></e:log>");
+        assertEquals("<e:log xmlns:e=\"http://xmlns.opennms.org/xsd/event\"/></e:log>", poll());
+    }
+
+    @Test
+    public void testOtherEndTagsDoNotEndTheRecord() throws Exception {
+        offer("<log></catalog></logs></x:logger>");
+        assertNull(poll());
+        offer("</log>");
+        assertEquals("<log></catalog></logs></x:logger></log>", poll());
+    }
+
+    @Test
+    public void testTooLongRecord() throws Exception {
+        offer("<log>");
+        try {
+            offer("0123456789012345678901234567890123456789012345678901234567890123456789");
+            fail("The record should have been rejected");
+        } catch (final CodecEmbedderException e) {
+            assertTrue(e.getCause() instanceof TooLongFrameException);
+        }
+    }
+
+    @Test
+    public void testPartialRecordAtEndOfStream() throws Exception {
+        offer("<log>1</log><log>2");
+        assertEquals("<log>1</log>", poll());
+        assertFalse(m_decoder.finish());
+        assertNull(poll());
+    }
+}
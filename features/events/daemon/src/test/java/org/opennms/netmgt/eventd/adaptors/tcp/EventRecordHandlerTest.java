@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.adaptors.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.util.CharsetUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.fiber.Fiber;
+import org.opennms.netmgt.eventd.adaptors.EventHandler;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.EventReceipt;
+
+/**
+ * Runs {@link EventRecordHandler} on a single processing thread against
+ * mock channels, so that a connection which is held back would visibly
+ * keep the others from being handled.
+ */
+public class EventRecordHandlerTest {
+
+    private static final String BUSY_UEI = "uei.opennms.org/test/busy";
+    private static final String OK_UEI = "uei.opennms.org/test/ok";
+
+    private ScheduledExecutorService m_executor;
+    private RecordingEventHandler m_handler;
+
+    private final Fiber m_parent = new Fiber() {
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public String getName() {
+            return "test";
+        }
+
+        @Override
+        public int getStatus() {
+            return RUNNING;
+        }
+    };
+
+    /**
+     * Rejects the events with {@link #BUSY_UEI} while it is busy, like an
+     * event handler with a saturated pool.
+     */
+    private static class RecordingEventHandler implements EventHandler {
+        private final List<String> m_uuids = new CopyOnWriteArrayList<String>();
+        private final List<EventReceipt> m_receipts = new CopyOnWriteArrayList<EventReceipt>();
+        private final CountDownLatch m_rejections;
+        private volatile boolean m_busy = false;
+
+        private RecordingEventHandler(final int rejections) {
+            m_rejections = new CountDownLatch(rejections);
+        }
+
+        @Override
+        public boolean processEvent(final Event event) {
+            if (m_busy && BUSY_UEI.equals(event.getUei())) {
+                m_rejections.countDown();
+                throw new RejectedExecutionException("saturated");
+            }
+            m_uuids.add(event.getUuid());
+            return true;
+        }
+
+        @Override
+        public void receiptSent(final EventReceipt receipt) {
+            m_receipts.add(receipt);
+        }
+    }
+
+    /**
+     * A mock channel that records what is written to it and whether it is
+     * being read.
+     */
+    private static class TestChannel {
+        private final Channel m_channel = EasyMock.createNiceMock(Channel.class);
+        private final BlockingQueue<String> m_writes = new LinkedBlockingQueue<String>();
+        private final CountDownLatch m_closed = new CountDownLatch(1);
+        private volatile boolean m_readable = true;
+
+        private TestChannel() {
+            EasyMock.expect(m_channel.isOpen()).andReturn(true).anyTimes();
+            EasyMock.expect(m_channel.setReadable(EasyMock.anyBoolean())).andAnswer(new IAnswer<ChannelFuture>() {
+                @Override
+                public ChannelFuture answer() {
+                    m_readable = (Boolean) EasyMock.getCurrentArguments()[0];
+                    return Channels.succeededFuture(m_channel);
+                }
+            }).anyTimes();
+            EasyMock.expect(m_channel.write(EasyMock.anyObject())).andAnswer(new IAnswer<ChannelFuture>() {
+                @Override
+                public ChannelFuture answer() {
+                    m_writes.add(((ChannelBuffer) EasyMock.getCurrentArguments()[0]).toString(CharsetUtil.UTF_8));
+                    return Channels.succeededFuture(m_channel);
+                }
+            }).anyTimes();
+            EasyMock.expect(m_channel.close()).andAnswer(new IAnswer<ChannelFuture>() {
+                @Override
+                public ChannelFuture answer() {
+                    m_closed.countDown();
+                    return Channels.succeededFuture(m_channel);
+                }
+            }).anyTimes();
+            EasyMock.replay(m_channel);
+        }
+
+        private String awaitWrite() throws InterruptedException {
+            return m_writes.poll(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        m_executor = Executors.newScheduledThreadPool(1);
+    }
+
+    @After
+    public void tearDown() {
+        m_executor.shutdownNow();
+    }
+
+    private EventRecordHandler createHandler(final int recordsPerConnection) {
+        return new EventRecordHandler(m_parent, Collections.<EventHandler>singletonList(m_handler), m_executor, new DefaultChannelGroup("test"), recordsPerConnection);
+    }
+
+    private static String record(final String uei, final String... uuids) {
+        final StringBuilder record = new StringBuilder("<log><events>");
+        for (final String uuid : uuids) {
+            record.append(uuid == null ? "<event>" : "<event uuid=\"" + uuid + "\">");
+            record.append("<uei>").append(uei).append("</uei></event>");
+        }
+        return record.append("</events></log>").toString();
+    }
+
+    private static void send(final EventRecordHandler handler, final TestChannel channel, final String record) throws Exception {
+        handler.messageReceived(null, new UpstreamMessageEvent(channel.m_channel, ChannelBuffers.copiedBuffer(record, CharsetUtil.UTF_8), null));
+    }
+
+    @Test
+    public void testReceipt() throws Exception {
+        m_handler = new RecordingEventHandler(0);
+        final TestChannel channel = new TestChannel();
+        send(createHandler(TcpEventReceiver.UNLIMITED_EVENTS), channel, record(OK_UEI, "1", null, "2"));
+
+        final String receipt = channel.awaitWrite();
+        assertNotNull(receipt);
+        assertTrue(receipt, receipt.contains("<uuid>1</uuid>"));
+        assertTrue(receipt, receipt.contains("<uuid>2</uuid>"));
+        assertEquals(3, m_handler.m_uuids.size());
+        assertEquals(1, m_handler.m_receipts.size());
+        assertEquals(2, m_handler.m_receipts.get(0).getUuidCount());
+        assertTrue(channel.m_readable);
+    }
+
+    @Test
+    public void testNoReceiptWithoutUuids() throws Exception {
+        m_handler = new RecordingEventHandler(0);
+        final TestChannel channel = new TestChannel();
+        final EventRecordHandler handler = createHandler(TcpEventReceiver.UNLIMITED_EVENTS);
+        send(handler, channel, record(OK_UEI, (String) null));
+        send(handler, channel, record(OK_UEI, "3"));
+
+        assertTrue(channel.awaitWrite().contains("<uuid>3</uuid>"));
+        assertNull(channel.m_writes.poll());
+        assertEquals(2, m_handler.m_uuids.size());
+    }
+
+    @Test
+    public void testRecordsPerConnection() throws Exception {
+        m_handler = new RecordingEventHandler(0);
+        final TestChannel channel = new TestChannel();
+        final EventRecordHandler handler = createHandler(2);
+        send(handler, channel, record(OK_UEI, "1"));
+        send(handler, channel, record(OK_UEI, "2"));
+        send(handler, channel, record(OK_UEI, "3"));
+
+        assertTrue(channel.m_closed.await(5, TimeUnit.SECONDS));
+        assertEquals(2, channel.m_writes.size());
+        assertEquals(2, m_handler.m_uuids.size());
+        assertFalse(m_handler.m_uuids.contains("3"));
+    }
+
+    /**
+     * Rejected events are retried later without keeping the only processing
+     * thread, and without reading the next record of their connection in
+     * the meantime.
+     */
+    @Test
+    public void testRejectedEventsHoldBackOnlyTheirConnection() throws Exception {
+        final int busyConnections = 3;
+        // every busy connection is retried at least once
+        m_handler = new RecordingEventHandler(busyConnections * 2);
+        m_handler.m_busy = true;
+
+        final List<TestChannel> busyChannels = new ArrayList<TestChannel>();
+        for (int i = 0; i < busyConnections; i++) {
+            final TestChannel channel = new TestChannel();
+            final EventRecordHandler handler = createHandler(TcpEventReceiver.UNLIMITED_EVENTS);
+            send(handler, channel, record(BUSY_UEI, "busy" + i));
+            send(handler, channel, record(OK_UEI, "next" + i));
+            busyChannels.add(channel);
+        }
+        assertTrue(m_handler.m_rejections.await(5, TimeUnit.SECONDS));
+
+        final TestChannel free = new TestChannel();
+        send(createHandler(TcpEventReceiver.UNLIMITED_EVENTS), free, record(OK_UEI, "free"));
+        final String receipt = free.awaitWrite();
+        assertNotNull("a held back connection starved the others", receipt);
+        assertTrue(receipt.contains("<uuid>free</uuid>"));
+        assertEquals(Collections.singletonList("free"), m_handler.m_uuids);
+        for (final TestChannel channel : busyChannels) {
+            assertFalse(channel.m_readable);
+            assertTrue(channel.m_writes.isEmpty());
+        }
+
+        m_handler.m_busy = false;
+        for (int i = 0; i < busyConnections; i++) {
+            final TestChannel channel = busyChannels.get(i);
+            assertTrue(channel.awaitWrite().contains("<uuid>busy" + i + "</uuid>"));
+            assertTrue(channel.awaitWrite().contains("<uuid>next" + i + "</uuid>"));
+            assertTrue(m_handler.m_uuids.indexOf("busy" + i) < m_handler.m_uuids.indexOf("next" + i));
+        }
+    }
+}
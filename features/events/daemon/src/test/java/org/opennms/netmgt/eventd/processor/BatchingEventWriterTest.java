@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.netmgt.dao.api.EventdServiceManager;
+import org.opennms.netmgt.eventd.EventUtil;
+import org.opennms.netmgt.events.api.EventProcessor;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+
+/**
+ * Verifies that the {@link BatchingEventWriter} assigns every event its own
+ * database ID before returning, and compares its throughput with the
+ * {@link HibernateEventWriter} for the same number of handler threads.
+ */
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-dao.xml",
+        "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+        "classpath*:/META-INF/opennms/component-dao.xml",
+        "classpath*:/META-INF/opennms/component-service.xml",
+        "classpath:/META-INF/opennms/applicationContext-daemon.xml",
+        "classpath:/META-INF/opennms/mockEventIpcManager.xml",
+        "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml",
+
+        "classpath:/META-INF/opennms/applicationContext-eventDaemon.xml"
+})
+@JUnitConfigurationEnvironment
+@JUnitTemporaryDatabase(reuseDatabase=false)
+public class BatchingEventWriterTest {
+
+    private static final int HANDLER_THREADS = 5;
+
+    private static final int EVENTS = 5000;
+
+    @Autowired
+    private EventWriter m_hibernateEventWriter;
+
+    @Autowired
+    private EventdServiceManager m_eventdServiceManager;
+
+    @Autowired
+    private EventUtil m_eventUtil;
+
+    @Autowired
+    private DataSource m_dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private BatchingEventWriter m_batchingEventWriter;
+
+    @Before
+    public void setUp() throws Exception {
+        m_batchingEventWriter = new BatchingEventWriter();
+        m_batchingEventWriter.setEventdServiceManager(m_eventdServiceManager);
+        m_batchingEventWriter.setEventUtil(m_eventUtil);
+        m_batchingEventWriter.setDataSource(m_dataSource);
+        m_batchingEventWriter.setGetNextIdString("SELECT nextval('eventsNxtId')");
+        m_batchingEventWriter.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_batchingEventWriter.destroy();
+    }
+
+    @Test
+    public void testWriteEvent() throws Exception {
+        EventBuilder bldr = new EventBuilder("testUei", "testSource");
+        bldr.setLogDest("logndisplay");
+        bldr.setLogMessage("abc\u0000def");
+        bldr.addParam("test", "testVal");
+
+        Event event = bldr.getEvent();
+        assertEquals(new Integer(0), event.getDbid());
+        m_batchingEventWriter.process(null, event);
+        assertTrue(event.getDbid() > 0);
+
+        assertEquals("abc%0def", jdbcTemplate.queryForObject("SELECT eventLogmsg FROM events WHERE eventId = ?", String.class, event.getDbid()));
+        assertEquals("test=testVal(string,text)", jdbcTemplate.queryForObject("SELECT eventParms FROM events WHERE eventId = ?", String.class, event.getDbid()));
+    }
+
+    @Test
+    public void testConcurrentEventsAreBatched() throws Exception {
+        final List<Event> events = writeEvents(m_batchingEventWriter, 500);
+
+        final Set<Integer> dbids = new HashSet<Integer>();
+        for (final Event event : events) {
+            assertTrue("event was not assigned an ID", event.getDbid() > 0);
+            dbids.add(event.getDbid());
+        }
+        assertEquals("event IDs are not unique", events.size(), dbids.size());
+        assertEquals(events.size(), jdbcTemplate.queryForInt("SELECT count(*) FROM events"));
+        assertEquals(events.size(), m_batchingEventWriter.getEventsWritten());
+        assertTrue("no events were batched", m_batchingEventWriter.getBatchesWritten() < events.size());
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        long start = System.currentTimeMillis();
+        writeEvents(m_hibernateEventWriter, EVENTS);
+        final long hibernateElapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        start = System.currentTimeMillis();
+        writeEvents(m_batchingEventWriter, EVENTS);
+        final long batchingElapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        System.err.printf("HibernateEventWriter: %d events: Elapsed: %d ms: events per second %f.%n", EVENTS, hibernateElapsed, EVENTS * 1000.0 / hibernateElapsed);
+        System.err.printf("BatchingEventWriter: %d events in %d batches: Elapsed: %d ms: events per second %f.%n", EVENTS, m_batchingEventWriter.getBatchesWritten(), batchingElapsed, EVENTS * 1000.0 / batchingElapsed);
+
+        assertEquals(2 * EVENTS, jdbcTemplate.queryForInt("SELECT count(*) FROM events"));
+    }
+
+    /**
+     * Writes events from {@link #HANDLER_THREADS} threads the way the eventd
+     * handler pool does.
+     */
+    private static List<Event> writeEvents(final EventProcessor writer, final int count) throws Exception {
+        final ExecutorService handlers = Executors.newFixedThreadPool(HANDLER_THREADS);
+        try {
+            final List<Future<Event>> futures = new ArrayList<Future<Event>>(count);
+            for (int i = 0; i < count; i++) {
+                final EventBuilder bldr = new EventBuilder("uei.opennms.org/test/batch" + (i % 10), "BatchingEventWriterTest");
+                bldr.setLogDest("logndisplay");
+                bldr.setLogMessage("event " + i);
+                bldr.setInterface(addr("192.168.1." + (i % 250 + 1)));
+                bldr.addParam("index", i);
+                final Event event = bldr.getEvent();
+                futures.add(handlers.submit(new Callable<Event>() {
+                    @Override
+                    public Event call() throws Exception {
+                        writer.process(null, event);
+                        return event;
+                    }
+                }));
+            }
+
+            final List<Event> events = new ArrayList<Event>(count);
+            for (final Future<Event> future : futures) {
+                events.add(future.get());
+            }
+            return events;
+        } finally {
+            handlers.shutdown();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller;
+
+import java.util.Map;
+
+import org.opennms.core.utils.CallbackFuture;
+
+/**
+ * A {@link ServiceMonitor} that can poll without holding the calling thread
+ * for the duration of the poll.
+ *
+ * <p>The poller starts each poll of an asynchronous monitor from one of its
+ * threads and gets the thread back as soon as the request is on the wire, so
+ * a service that is down no longer ties up a poller thread for its timeout
+ * and retries.  {@link #poll(MonitoredService, Map)} must still work and is
+ * normally implemented by waiting for the future.</p>
+ */
+public interface AsyncServiceMonitor extends ServiceMonitor {
+
+    /**
+     * Starts polling the given service.  Implementations should return as
+     * soon as the poll has been started and complete the future from their
+     * own I/O thread; anything that fails before or during the poll is
+     * reported as an unavailable {@link PollStatus}.
+     *
+     * @param svc the service to poll
+     * @param parameters the service parameters from the poller configuration
+     * @return the pending result of the poll
+     */
+    public CallbackFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters);
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.monitors;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import org.opennms.core.utils.CallbackFuture;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+
+/**
+ * Base class for monitors that implement {@link AsyncServiceMonitor}.
+ * Blocking polls simply wait for the asynchronous one.
+ */
+public abstract class AbstractAsyncServiceMonitor extends AbstractServiceMonitor implements AsyncServiceMonitor {
+
+    /** {@inheritDoc} */
+    @Override
+    public PollStatus poll(final MonitoredService svc, final Map<String, Object> parameters) {
+        return waitFor(pollAsync(svc, parameters));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public abstract CallbackFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters);
+
+    /**
+     * Waits for the given poll to complete.
+     *
+     * @return the status of the poll, or unknown if the thread was
+     *         interrupted or the poll did not complete with a status
+     */
+    public static PollStatus waitFor(final CallbackFuture<PollStatus> future) {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            return PollStatus.unknown("Interrupted while waiting for poll");
+        } catch (final CancellationException e) {
+            return PollStatus.unknown("Poll cancelled");
+        } catch (final ExecutionException e) {
+            return PollStatus.unknown("Poll failed: " + e.getCause());
+        }
+    }
+}
@@ -30,6 +30,7 @@ package org.opennms.netmgt.poller.remote;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 import org.opennms.netmgt.config.poller.Package;
@@ -130,6 +131,20 @@ public interface PollerBackEnd {
      */
     void reportResult(int locationMonitorID, int serviceId, PollStatus status);
 
+    /**
+     * Report a batch of poll results from the client to the server.  The
+     * results are processed in a single transaction.  Results whose
+     * sequence number is not greater than the last one accepted from this
+     * location monitor since it started are ignored, so a batch can be sent
+     * again if the response to it was lost.
+     *
+     * @param locationMonitorId the id of the location monitor that did the polls
+     * @param results the results in the order they were polled
+     * @return the highest sequence number accepted from this location
+     * monitor; every spooled result up to and including it can be discarded
+     */
+    long reportResults(int locationMonitorId, List<SequencedPollResult> results);
+
 
     /**
      * <p>configurationUpdated</p>
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.remote;
+
+import java.io.Serializable;
+
+import org.opennms.netmgt.poller.PollStatus;
+
+/**
+ * A poll result as it is spooled by the remote poller and sent to the
+ * server in a batch.  Sequence numbers increase with each result reported
+ * by a location monitor, so that the server can ignore results it has
+ * already processed when a batch is sent again.
+ */
+public class SequencedPollResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long m_sequence;
+    private final int m_serviceId;
+    private final PollStatus m_status;
+
+    /**
+     * <p>Constructor for SequencedPollResult.</p>
+     *
+     * @param sequence the sequence number of this result
+     * @param serviceId the id of the service that was polled
+     * @param status the result of the poll
+     */
+    public SequencedPollResult(final long sequence, final int serviceId, final PollStatus status) {
+        m_sequence = sequence;
+        m_serviceId = serviceId;
+        m_status = status;
+    }
+
+    /**
+     * <p>getSequence</p>
+     *
+     * @return a long.
+     */
+    public long getSequence() {
+        return m_sequence;
+    }
+
+    /**
+     * <p>getServiceId</p>
+     *
+     * @return a int.
+     */
+    public int getServiceId() {
+        return m_serviceId;
+    }
+
+    /**
+     * <p>getStatus</p>
+     *
+     * @return a {@link org.opennms.netmgt.poller.PollStatus} object.
+     */
+    public PollStatus getStatus() {
+        return m_status;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "SequencedPollResult[sequence=" + m_sequence + ", serviceId=" + m_serviceId + ", status=" + m_status + "]";
+    }
+}
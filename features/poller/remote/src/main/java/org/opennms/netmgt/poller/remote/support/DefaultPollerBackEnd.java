@@ -75,6 +75,7 @@ import org.opennms.netmgt.poller.remote.PolledService;
 import org.opennms.netmgt.poller.remote.PollerBackEnd;
 import org.opennms.netmgt.poller.remote.PollerConfiguration;
 import org.opennms.netmgt.poller.remote.RemoteHostThreadLocal;
+import org.opennms.netmgt.poller.remote.SequencedPollResult;
 import org.opennms.netmgt.rrd.RrdException;
 import org.opennms.netmgt.rrd.RrdUtils;
 import org.slf4j.Logger;
@@ -82,6 +83,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.dao.PermissionDeniedDataAccessException;
 import org.springframework.orm.ObjectRetrievalFailureException;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 
 /**
@@ -145,6 +148,7 @@ public class DefaultPollerBackEnd implements PollerBackEnd, SpringServiceDaemon
     
     private final AtomicReference<Date> m_configurationTimestamp = new AtomicReference<Date>();
     private final AtomicReference<ConcurrentHashMap<String, SimplePollerConfiguration>> m_configCache = new AtomicReference<ConcurrentHashMap<String,SimplePollerConfiguration>>();
+    private final ConcurrentHashMap<Integer, Long> m_lastSequences = new ConcurrentHashMap<Integer, Long>();
 
     /**
      * <p>afterPropertiesSet</p>
@@ -425,6 +429,9 @@ public class DefaultPollerBackEnd implements PollerBackEnd, SpringServiceDaemon
         mon.setStatus(MonitorStatus.STARTED);
         mon.setLastCheckInTime(m_timeKeeper.getCurrentDate());
 
+        // a restarted poller may number its results from scratch
+        m_lastSequences.remove(locationMonitorId);
+
         updateConnectionHostDetails(mon, pollerDetails);
 
         m_locMonDao.update(mon);
@@ -533,18 +540,72 @@ public class DefaultPollerBackEnd implements PollerBackEnd, SpringServiceDaemon
     /** {@inheritDoc} */
     @Override
     public void reportResult(final int locationMonitorId, final int serviceId, final PollStatus pollResult) {
+        final OnmsLocationMonitor locationMonitor = getLocationMonitorForResults(locationMonitorId);
+        if (locationMonitor != null) {
+            processResult(locationMonitorId, locationMonitor, serviceId, pollResult);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long reportResults(final int locationMonitorId, final List<SequencedPollResult> results) {
+        final Long lastSequence = m_lastSequences.get(locationMonitorId);
+        long accepted = lastSequence == null ? Long.MIN_VALUE : lastSequence;
+
+        final OnmsLocationMonitor locationMonitor = getLocationMonitorForResults(locationMonitorId);
+        int processed = 0;
+        for (final SequencedPollResult result : results) {
+            if (result.getSequence() <= accepted) {
+                LOG.debug("Ignoring result {} from location monitor ID {}: it has already been processed.", result.getSequence(), locationMonitorId);
+                continue;
+            }
+            if (locationMonitor != null) {
+                processResult(locationMonitorId, locationMonitor, result.getServiceId(), result.getStatus());
+                processed++;
+            }
+            accepted = result.getSequence();
+        }
+        LOG.debug("Processed {} of {} results from location monitor ID {}.", processed, results.size(), locationMonitorId);
+
+        if (accepted != Long.MIN_VALUE && (lastSequence == null || accepted > lastSequence)) {
+            setLastSequence(locationMonitorId, accepted);
+        }
+        return accepted;
+    }
+
+    /**
+     * Remembers the last result processed once the transaction that saved
+     * it commits, so that a batch whose transaction is rolled back is
+     * processed again when it is resent.
+     */
+    private void setLastSequence(final int locationMonitorId, final long sequence) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    m_lastSequences.put(locationMonitorId, sequence);
+                }
+            });
+        } else {
+            m_lastSequences.put(locationMonitorId, sequence);
+        }
+    }
+
+    private OnmsLocationMonitor getLocationMonitorForResults(final int locationMonitorId) {
         final OnmsLocationMonitor locationMonitor;
         try {
         	locationMonitor = m_locMonDao.get(locationMonitorId);
         } catch (final Exception e) {
             LOG.info("Unable to report result for location monitor ID {}: Location monitor does not exist.", locationMonitorId, e);
-            return;
+            return null;
         }
         if (locationMonitor == null) {
             LOG.info("Unable to report result for location monitor ID {}: Location monitor does not exist.", locationMonitorId);
-            return;
         }
+        return locationMonitor;
+    }
 
+    private void processResult(final int locationMonitorId, final OnmsLocationMonitor locationMonitor, final int serviceId, final PollStatus pollResult) {
         final OnmsMonitoredService monSvc;
         try {
         	monSvc = m_monSvcDao.get(serviceId);
@@ -31,6 +31,7 @@ package org.opennms.netmgt.poller.remote.support;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Arrays;
 import java.util.Collection;
@@ -42,6 +43,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.model.OnmsLocationMonitor.MonitorStatus;
@@ -55,6 +57,7 @@ import org.opennms.netmgt.poller.remote.PollerBackEnd;
 import org.opennms.netmgt.poller.remote.PollerConfiguration;
 import org.opennms.netmgt.poller.remote.PollerFrontEnd;
 import org.opennms.netmgt.poller.remote.PollerSettings;
+import org.opennms.netmgt.poller.remote.SequencedPollResult;
 import org.opennms.netmgt.poller.remote.ServicePollState;
 import org.opennms.netmgt.poller.remote.ServicePollStateChangedEvent;
 import org.opennms.netmgt.poller.remote.ServicePollStateChangedListener;
@@ -69,6 +72,17 @@ import org.springframework.util.ObjectUtils;
 /**
  * <p>DefaultPollerFrontEnd class.</p>
  *
+ * <p>If a result spool is configured, poll results are appended to it and
+ * sent to the server in batches, either once enough of them are waiting or
+ * once the flush interval has passed since the last batch.  Results stay in
+ * the spool until the server has accepted them, so they are replayed after
+ * the server was unreachable or the poller was restarted.  The spool is
+ * cleared when the poller registers as a new location monitor.</p>
+ *
+ * <p>If a result cannot be spooled it is reported directly once the spooled
+ * results have been sent.  If they cannot all be sent, it is reported ahead
+ * of those that are left, which the server then receives out of order.</p>
+ *
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  * @version $Id: $
  */
@@ -271,6 +285,18 @@ public class DefaultPollerFrontEnd implements PollerFrontEnd, InitializingBean,
 
     public class Running extends RunningState {
 
+        @Override
+        public void checkIn() {
+            super.checkIn();
+            if (m_state == this) {
+                try {
+                    sendSpooledResults();
+                } catch (final Throwable e) {
+                    LOG.error("Unexpected exception occurred while sending spooled results.", e);
+                }
+            }
+        }
+
         @Override
         public void pollService(final Integer polledServiceId) {
             try {
@@ -371,6 +397,18 @@ public class DefaultPollerFrontEnd implements PollerFrontEnd, InitializingBean,
     
     private TimeAdjustment m_timeAdjustment;
 
+    private String m_resultSpoolFile;
+
+    private PollResultSpool m_resultSpool;
+
+    private int m_resultBatchSize = 100;
+
+    private long m_resultFlushInterval = 1000;
+
+    private volatile long m_lastResultFlush = 0;
+
+    private final AtomicBoolean m_sendingResults = new AtomicBoolean(false);
+
     // listeners
     private LinkedList<PropertyChangeListener> m_propertyChangeListeners = new LinkedList<PropertyChangeListener>();
 
@@ -435,6 +473,14 @@ public class DefaultPollerFrontEnd implements PollerFrontEnd, InitializingBean,
         assertNotNull(m_pollService, "pollService");
         assertNotNull(m_pollerSettings, "pollerSettings");
 
+        if (m_resultSpool == null && m_resultSpoolFile != null && !"".equals(m_resultSpoolFile.trim())) {
+            try {
+                m_resultSpool = new PollResultSpool(new File(m_resultSpoolFile.trim()));
+            } catch (final IOException e) {
+                LOG.warn("Unable to open result spool {}; results will be reported one at a time.", m_resultSpoolFile, e);
+            }
+        }
+
         m_state.initialize();
     }
 
@@ -453,6 +499,9 @@ public class DefaultPollerFrontEnd implements PollerFrontEnd, InitializingBean,
     @Override
     public void destroy() {
         stop();
+        if (m_resultSpool != null) {
+            m_resultSpool.close();
+        }
     }
 
     /**
@@ -514,7 +563,55 @@ public class DefaultPollerFrontEnd implements PollerFrontEnd, InitializingBean,
 
         updateServicePollState(polledServiceId, result);
 
-        m_backEnd.reportResult(getMonitorId(), polledServiceId, result);
+        if (m_resultSpool == null) {
+            m_backEnd.reportResult(getMonitorId(), polledServiceId, result);
+            return;
+        }
+
+        try {
+            m_resultSpool.append(getMonitorId(), polledServiceId, result);
+        } catch (final IOException e) {
+            LOG.warn("Unable to spool result for service ID {}; reporting it directly.", polledServiceId, e);
+            // send what is already spooled first, so the server sees the results in order
+            sendSpooledResults();
+            if (m_resultSpool.size() > 0) {
+                LOG.warn("Reporting the result for service ID {} ahead of {} spooled results.", polledServiceId, m_resultSpool.size());
+            }
+            m_backEnd.reportResult(getMonitorId(), polledServiceId, result);
+            return;
+        }
+
+        if (m_resultSpool.size() >= m_resultBatchSize || System.currentTimeMillis() - m_lastResultFlush >= m_resultFlushInterval) {
+            sendSpooledResults();
+        }
+    }
+
+    /**
+     * Sends the spooled results to the server in batches until the spool
+     * is empty or the server stops accepting them.  Only one thread sends
+     * at a time; others return immediately and leave their results for it.
+     */
+    private void sendSpooledResults() {
+        if (m_resultSpool == null || !m_sendingResults.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            m_lastResultFlush = System.currentTimeMillis();
+            List<SequencedPollResult> batch = m_resultSpool.peek(getMonitorId(), m_resultBatchSize);
+            while (!batch.isEmpty()) {
+                final long accepted = m_backEnd.reportResults(getMonitorId(), batch);
+                if (accepted < batch.get(0).getSequence()) {
+                    LOG.info("Server did not accept the spooled results; keeping {} results to send later.", m_resultSpool.size());
+                    return;
+                }
+                m_resultSpool.acknowledge(accepted);
+                batch = m_resultSpool.peek(getMonitorId(), m_resultBatchSize);
+            }
+        } catch (final IOException e) {
+            LOG.warn("Unable to read or update result spool {}.", m_resultSpool.getFile(), e);
+        } finally {
+            m_sendingResults.set(false);
+        }
     }
 
     /**
@@ -527,6 +624,14 @@ public class DefaultPollerFrontEnd implements PollerFrontEnd, InitializingBean,
         int monitorId = m_backEnd.registerLocationMonitor(location);
         setMonitorId(monitorId);
 
+        if (m_resultSpool != null) {
+            try {
+                m_resultSpool.clear();
+            } catch (final IOException e) {
+                LOG.warn("Unable to clear result spool {}.", m_resultSpool.getFile(), e);
+            }
+        }
+
         doPollerStart();
 
     }
@@ -535,6 +640,13 @@ public class DefaultPollerFrontEnd implements PollerFrontEnd, InitializingBean,
      * <p>doStop</p>
      */
     private void doStop() {
+        if (isRegistered()) {
+            try {
+                sendSpooledResults();
+            } catch (final Throwable e) {
+                LOG.warn("Unable to send spooled results before stopping.", e);
+            }
+        }
         m_backEnd.pollerStopping(getMonitorId());
     }
 
@@ -718,6 +830,47 @@ public class DefaultPollerFrontEnd implements PollerFrontEnd, InitializingBean,
         m_pollerSettings = settings;
     }
 
+    /**
+     * Sets the file that poll results are spooled to before they are sent
+     * to the server.  Results are reported one at a time if this is empty.
+     *
+     * @param resultSpoolFile a {@link java.lang.String} object.
+     */
+    public void setResultSpoolFile(final String resultSpoolFile) {
+        m_resultSpoolFile = resultSpoolFile;
+    }
+
+    /**
+     * <p>setResultSpool</p>
+     *
+     * @param resultSpool a {@link org.opennms.netmgt.poller.remote.support.PollResultSpool} object.
+     */
+    public void setResultSpool(final PollResultSpool resultSpool) {
+        m_resultSpool = resultSpool;
+    }
+
+    /**
+     * Sets the maximum number of results sent to the server at once, and
+     * the number of spooled results that causes a batch to be sent.
+     *
+     * @param resultBatchSize a int.
+     */
+    public void setResultBatchSize(final int resultBatchSize) {
+        Assert.isTrue(resultBatchSize > 0, "resultBatchSize must be positive");
+        m_resultBatchSize = resultBatchSize;
+    }
+
+    /**
+     * Sets the time, in milliseconds, after the last batch was sent at
+     * which a new result is sent even though the batch is not full.
+     * Results that are still waiting are sent at the next check-in.
+     *
+     * @param resultFlushInterval a long.
+     */
+    public void setResultFlushInterval(final long resultFlushInterval) {
+        m_resultFlushInterval = resultFlushInterval;
+    }
+
     /**
      * @param timeAdjustment the timeAdjustment to set
      */
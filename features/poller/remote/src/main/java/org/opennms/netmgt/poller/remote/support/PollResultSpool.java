@@ -0,0 +1,393 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.remote.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.remote.SequencedPollResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only file of poll results that have not been accepted by the
+ * server yet.
+ *
+ * <p>Each record holds the sequence number, the ID of the location monitor
+ * that polled it and the serialized {@link SequencedPollResult}.  The
+ * sequence number of the last result the server accepted is kept in a
+ * second file next to the spool, so results are replayed after a restart
+ * without sending the ones already accepted.  The spool is truncated once
+ * every result has been accepted, and the accepted head is cut off once it
+ * grows past a few megabytes.</p>
+ *
+ * <p>Only results of the monitor that reads the spool are ever sent; those
+ * of any other monitor (left over from before the poller registered again,
+ * or from a poller using the same file against another server) are
+ * discarded.  The file is locked while it is open, so a second poller
+ * cannot open it at the same time.</p>
+ *
+ * <p>Records are written without forcing them to disk, so a crash of the
+ * operating system (but not of the poller) can lose the most recent
+ * results.  A partial record at the end of the file is discarded when the
+ * spool is opened.</p>
+ */
+public class PollResultSpool {
+    private static final Logger LOG = LoggerFactory.getLogger(PollResultSpool.class);
+
+    private static final long COMPACT_THRESHOLD = 4L * 1024L * 1024L;
+
+    /** sequence number, monitor ID and size of the serialized result */
+    private static final int HEADER_SIZE = 8 + 4 + 4;
+
+    private final File m_file;
+    private final File m_acknowledgedFile;
+    private final RandomAccessFile m_spool;
+    private final RandomAccessFile m_acknowledged;
+
+    private long m_nextSequence = 1;
+    private long m_lastAcknowledged = 0;
+    private long m_readPosition = 0;
+    private int m_pending = 0;
+
+    /**
+     * Opens the spool, creating it if it does not exist.
+     *
+     * @param file the spool file
+     * @throws java.io.IOException if the spool cannot be read or created
+     */
+    public PollResultSpool(final File file) throws IOException {
+        m_file = file;
+        m_acknowledgedFile = new File(file.getPath() + ".ack");
+        if (file.getParentFile() != null && !file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Unable to create directory for result spool " + file);
+        }
+        m_spool = new RandomAccessFile(m_file, "rw");
+        try {
+            lock();
+        } catch (final IOException e) {
+            closeQuietly(m_spool);
+            throw e;
+        }
+        m_acknowledged = new RandomAccessFile(m_acknowledgedFile, "rw");
+        recover();
+    }
+
+    private void lock() throws IOException {
+        final FileLock lock;
+        try {
+            lock = m_spool.getChannel().tryLock();
+        } catch (final OverlappingFileLockException e) {
+            throw new IOException("Result spool " + m_file + " is already open", e);
+        }
+        if (lock == null) {
+            throw new IOException("Result spool " + m_file + " is in use by another poller");
+        }
+        // released when the file is closed
+    }
+
+    private void recover() throws IOException {
+        if (m_acknowledged.length() >= 8) {
+            m_acknowledged.seek(0);
+            m_lastAcknowledged = m_acknowledged.readLong();
+        }
+
+        long lastSequence = m_lastAcknowledged;
+        long position = 0;
+        m_readPosition = -1;
+        m_spool.seek(0);
+        final long length = m_spool.length();
+        while (position + HEADER_SIZE <= length) {
+            final long sequence = m_spool.readLong();
+            m_spool.readInt();
+            final int size = m_spool.readInt();
+            if (size < 0 || position + HEADER_SIZE + size > length) {
+                break;
+            }
+            if (sequence > m_lastAcknowledged) {
+                if (m_readPosition < 0) {
+                    m_readPosition = position;
+                }
+                m_pending++;
+            }
+            lastSequence = Math.max(lastSequence, sequence);
+            position += HEADER_SIZE + size;
+            m_spool.seek(position);
+        }
+        if (position < length) {
+            LOG.warn("Discarding {} bytes of incomplete results at the end of {}", length - position, m_file);
+            m_spool.setLength(position);
+        }
+        if (m_readPosition < 0) {
+            m_readPosition = position;
+        }
+        m_nextSequence = lastSequence + 1;
+        LOG.debug("Opened result spool {} with {} results waiting to be sent", m_file, m_pending);
+    }
+
+    /**
+     * Appends a result to the spool and assigns it the next sequence number.
+     *
+     * @param monitorId the id of the location monitor that polled the service
+     * @param serviceId the id of the service that was polled
+     * @param status the result of the poll
+     * @return the spooled result
+     * @throws java.io.IOException if the result cannot be written
+     */
+    public synchronized SequencedPollResult append(final int monitorId, final int serviceId, final PollStatus status) throws IOException {
+        final SequencedPollResult result = new SequencedPollResult(m_nextSequence, serviceId, status);
+        final byte[] bytes = serialize(result);
+
+        final long end = m_spool.length();
+        m_spool.seek(end);
+        try {
+            m_spool.writeLong(result.getSequence());
+            m_spool.writeInt(monitorId);
+            m_spool.writeInt(bytes.length);
+            m_spool.write(bytes);
+        } catch (final IOException e) {
+            // don't leave a partial record behind
+            m_spool.setLength(end);
+            throw e;
+        }
+        m_nextSequence++;
+        m_pending++;
+        return result;
+    }
+
+    /**
+     * Returns the oldest results of the given monitor that have not been
+     * acknowledged, without removing them.  Results spooled for any other
+     * monitor are discarded.
+     *
+     * @param monitorId the id of the location monitor sending the results
+     * @param max the maximum number of results to return
+     * @return a list of up to <code>max</code> results in the order they
+     *         were appended
+     * @throws java.io.IOException if the spool cannot be read
+     */
+    public synchronized List<SequencedPollResult> peek(final int monitorId, final int max) throws IOException {
+        final List<SequencedPollResult> results = new ArrayList<SequencedPollResult>(Math.min(max, m_pending));
+        long position = m_readPosition;
+        final long length = m_spool.length();
+        while (results.size() < max && position < length) {
+            m_spool.seek(position);
+            final long sequence = m_spool.readLong();
+            final int recordMonitorId = m_spool.readInt();
+            final int size = m_spool.readInt();
+            position += HEADER_SIZE + size;
+            if (sequence <= m_lastAcknowledged) {
+                continue;
+            }
+            if (recordMonitorId != monitorId) {
+                retain(monitorId);
+                return peek(monitorId, max);
+            }
+            final byte[] bytes = new byte[size];
+            m_spool.readFully(bytes);
+            results.add(deserialize(bytes));
+        }
+        return results;
+    }
+
+    /**
+     * Rewrites the spool with only the results of the given monitor that
+     * have not been acknowledged.
+     */
+    private void retain(final int monitorId) throws IOException {
+        final List<byte[]> kept = new ArrayList<byte[]>(m_pending);
+        long position = m_readPosition;
+        final long length = m_spool.length();
+        while (position < length) {
+            m_spool.seek(position);
+            final long sequence = m_spool.readLong();
+            final int recordMonitorId = m_spool.readInt();
+            final int size = m_spool.readInt();
+            if (sequence > m_lastAcknowledged && recordMonitorId == monitorId) {
+                final byte[] record = new byte[HEADER_SIZE + size];
+                m_spool.seek(position);
+                m_spool.readFully(record);
+                kept.add(record);
+            }
+            position += HEADER_SIZE + size;
+        }
+
+        LOG.warn("Discarding {} results in {} that were not spooled by location monitor {}", m_pending - kept.size(), m_file, monitorId);
+        m_spool.seek(0);
+        for (final byte[] record : kept) {
+            m_spool.write(record);
+        }
+        m_spool.setLength(m_spool.getFilePointer());
+        m_readPosition = 0;
+        m_pending = kept.size();
+    }
+
+    /**
+     * Discards every result in the spool, for example because the poller
+     * has registered as a new location monitor.  Sequence numbers keep
+     * counting from where they were.
+     *
+     * @throws java.io.IOException if the spool cannot be updated
+     */
+    public synchronized void clear() throws IOException {
+        if (m_pending > 0) {
+            LOG.info("Discarding {} results in {} that were never sent", m_pending, m_file);
+        }
+        m_lastAcknowledged = m_nextSequence - 1;
+        m_acknowledged.seek(0);
+        m_acknowledged.writeLong(m_lastAcknowledged);
+        m_spool.setLength(0);
+        m_readPosition = 0;
+        m_pending = 0;
+    }
+
+    /**
+     * Discards every result up to and including the given sequence number.
+     *
+     * @param sequence the highest sequence number accepted by the server
+     * @throws java.io.IOException if the spool cannot be updated
+     */
+    public synchronized void acknowledge(final long sequence) throws IOException {
+        if (sequence <= m_lastAcknowledged) {
+            return;
+        }
+        m_lastAcknowledged = sequence;
+        m_acknowledged.seek(0);
+        m_acknowledged.writeLong(sequence);
+
+        final long length = m_spool.length();
+        while (m_readPosition < length) {
+            m_spool.seek(m_readPosition);
+            final long recordSequence = m_spool.readLong();
+            if (recordSequence > sequence) {
+                break;
+            }
+            m_spool.readInt();
+            m_readPosition += HEADER_SIZE + m_spool.readInt();
+            m_pending--;
+        }
+
+        if (m_pending == 0) {
+            m_spool.setLength(0);
+            m_readPosition = 0;
+        } else if (m_readPosition >= COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Moves the results that have not been acknowledged to the start of
+     * the spool.
+     */
+    private void compact() throws IOException {
+        final long length = m_spool.length();
+        final byte[] buffer = new byte[64 * 1024];
+        long from = m_readPosition;
+        long to = 0;
+        while (from < length) {
+            m_spool.seek(from);
+            final int read = m_spool.read(buffer, 0, (int)Math.min(buffer.length, length - from));
+            if (read < 0) {
+                throw new EOFException("Unexpected end of result spool " + m_file);
+            }
+            m_spool.seek(to);
+            m_spool.write(buffer, 0, read);
+            from += read;
+            to += read;
+        }
+        m_spool.setLength(to);
+        LOG.debug("Compacted result spool {} from {} to {} bytes", m_file, length, to);
+        m_readPosition = 0;
+    }
+
+    /**
+     * <p>size</p>
+     *
+     * @return the number of results that have not been acknowledged
+     */
+    public synchronized int size() {
+        return m_pending;
+    }
+
+    /**
+     * <p>getFile</p>
+     *
+     * @return the spool file
+     */
+    public File getFile() {
+        return m_file;
+    }
+
+    /**
+     * Closes the spool files.
+     */
+    public synchronized void close() {
+        closeQuietly(m_spool);
+        closeQuietly(m_acknowledged);
+    }
+
+    private void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (final IOException e) {
+            LOG.debug("Unable to close result spool {}", m_file, e);
+        }
+    }
+
+    private static byte[] serialize(final SequencedPollResult result) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(result);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private SequencedPollResult deserialize(final byte[] bytes) throws IOException {
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return (SequencedPollResult)in.readObject();
+        } catch (final ClassNotFoundException e) {
+            throw new IOException("Unable to read result from spool " + m_file, e);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+}
@@ -31,6 +31,7 @@ package org.opennms.netmgt.poller.remote.support;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
@@ -44,6 +45,7 @@ import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.poller.ServiceMonitorLocator;
 import org.opennms.netmgt.poller.remote.PollerBackEnd;
 import org.opennms.netmgt.poller.remote.PollerConfiguration;
+import org.opennms.netmgt.poller.remote.SequencedPollResult;
 import org.springframework.remoting.RemoteAccessException;
 
 /**
@@ -174,6 +176,26 @@ public class ServerUnreachableAdaptor implements PollerBackEnd {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Returns {@link Long#MIN_VALUE}, meaning that no results were
+     * accepted, while the server is unresponsive so that the caller keeps
+     * the results until it can reach the server again.
+     */
+    @Override
+    public long reportResults(final int locationMonitorId, final List<SequencedPollResult> results) {
+        if (!m_serverUnresponsive) {
+            try {
+                return m_remoteBackEnd.reportResults(locationMonitorId, results);
+            } catch (RemoteAccessException e) {
+                m_serverUnresponsive = true;
+                LOG.warn("Server is unable to respond due to the following exception.", e);
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
 
     /** {@inheritDoc} */
     @Override
@@ -676,6 +676,38 @@ public class PollerBackEndTest extends TestCase {
         m_backEnd.reportResult(1, 2, newStatus);
     }
 
+    public void testReportResults() {
+        expect(m_locMonDao.get(1)).andReturn(m_locationMonitor).times(2);
+        expect(m_monSvcDao.get(1)).andReturn(m_httpService);
+        expect(m_monSvcDao.get(2)).andReturn(m_dnsService).times(2);
+
+        expect(m_locMonDao.getMostRecentStatusChange(m_locationMonitor, m_httpService)).andReturn(m_httpCurrentStatus);
+        expect(m_locMonDao.getMostRecentStatusChange(m_locationMonitor, m_dnsService)).andReturn(m_dnsCurrentStatus).times(2);
+
+        EventBuilder eventBuilder = new EventBuilder(EventConstants.REMOTE_NODE_LOST_SERVICE_UEI, "PollerBackEnd")
+        .setMonitoredService(m_httpService)
+        .addParam(EventConstants.PARM_LOCATION_MONITOR_ID, "1");
+
+        m_eventIpcManager.sendNow(eq(eventBuilder.getEvent()));
+
+        final PollStatus httpDown = PollStatus.unavailable("Test Down");
+        final PollStatus dnsDown = PollStatus.unavailable("Still Down");
+
+        m_locMonDao.saveStatusChange(isA(OnmsLocationSpecificStatus.class));
+        expectLastCall().andAnswer(new StatusChecker(new OnmsLocationSpecificStatus(m_locationMonitor, m_httpService, httpDown)));
+
+        m_mocks.replayAll();
+
+        final List<SequencedPollResult> results = new ArrayList<SequencedPollResult>();
+        results.add(new SequencedPollResult(1, 1, httpDown));
+        results.add(new SequencedPollResult(2, 2, dnsDown));
+        assertEquals(2, m_backEnd.reportResults(1, results));
+
+        // the first two were already processed, so only the third is
+        results.add(new SequencedPollResult(3, 2, dnsDown));
+        assertEquals(3, m_backEnd.reportResults(1, results));
+    }
+
     public void testStatusDownWhenNoneKnown() {
 
         expect(m_locMonDao.get(1)).andReturn(m_locationMonitor);
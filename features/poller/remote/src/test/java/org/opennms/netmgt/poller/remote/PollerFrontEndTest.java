@@ -35,6 +35,7 @@ import static org.springframework.util.ObjectUtils.nullSafeEquals;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.io.File;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Map;
@@ -52,6 +53,7 @@ import org.opennms.netmgt.poller.ServiceMonitor;
 import org.opennms.netmgt.poller.ServiceMonitorLocator;
 import org.opennms.netmgt.poller.remote.support.DefaultPollerFrontEnd;
 import org.opennms.netmgt.poller.remote.support.DefaultPollerFrontEnd.PollerFrontEndStates;
+import org.opennms.netmgt.poller.remote.support.PollResultSpool;
 import org.opennms.test.mock.EasyMockUtils;
 
 public class PollerFrontEndTest extends TestCase {
@@ -269,6 +271,34 @@ public class PollerFrontEndTest extends TestCase {
 
     }
 
+    public void testRegisterClearsResultSpool() throws Exception {
+        final File file = File.createTempFile("results", ".spool");
+        final PollResultSpool spool = new PollResultSpool(file);
+        try {
+            // left over from the monitor this poller was registered as before
+            spool.append(99, pollConfig().getFirstId(), PollStatus.down());
+            m_frontEnd.setResultSpool(spool);
+
+            anticipateAfterPropertiesSet();
+
+            anticiapateRegister();
+
+            m_mock.replayAll();
+
+            m_frontEnd.afterPropertiesSet();
+
+            m_frontEnd.register("OAK");
+
+            m_mock.verifyAll();
+
+            assertEquals(0, spool.size());
+        } finally {
+            spool.close();
+            file.delete();
+            new File(file.getPath() + ".ack").delete();
+        }
+    }
+
     public void testSetInitialPollTime() throws Exception {
 
         Date start = new Date(1200000000000L);
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.remote.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.remote.SequencedPollResult;
+
+public class PollResultSpoolTest extends TestCase {
+
+    private static final int MONITOR_ID = 7;
+
+    private File m_file;
+    private PollResultSpool m_spool;
+
+    @Override
+    protected void setUp() throws Exception {
+        m_file = File.createTempFile("results", ".spool");
+        m_spool = new PollResultSpool(m_file);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        m_spool.close();
+        m_file.delete();
+        new File(m_file.getPath() + ".ack").delete();
+    }
+
+    public void testAppendAndAcknowledge() throws IOException {
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, m_spool.append(MONITOR_ID, i, PollStatus.available(i * 10.0)).getSequence());
+        }
+        assertEquals(5, m_spool.size());
+
+        List<SequencedPollResult> batch = m_spool.peek(MONITOR_ID, 3);
+        assertEquals(3, batch.size());
+        assertEquals(1, batch.get(0).getSequence());
+        assertEquals(1, batch.get(0).getServiceId());
+        assertEquals(10.0, batch.get(0).getStatus().getResponseTime());
+        assertEquals(3, batch.get(2).getSequence());
+
+        // peeking doesn't remove anything
+        assertEquals(3, m_spool.peek(MONITOR_ID, 3).size());
+
+        m_spool.acknowledge(3);
+        assertEquals(2, m_spool.size());
+        batch = m_spool.peek(MONITOR_ID, 10);
+        assertEquals(2, batch.size());
+        assertEquals(4, batch.get(0).getSequence());
+
+        m_spool.acknowledge(5);
+        assertEquals(0, m_spool.size());
+        assertTrue(m_spool.peek(MONITOR_ID, 10).isEmpty());
+        assertEquals(0, m_file.length());
+
+        // numbering continues after the spool was truncated
+        assertEquals(6, m_spool.append(MONITOR_ID, 1, PollStatus.unavailable()).getSequence());
+    }
+
+    public void testReplayAfterRestart() throws IOException {
+        for (int i = 1; i <= 4; i++) {
+            m_spool.append(MONITOR_ID, i, PollStatus.unavailable("down " + i));
+        }
+        m_spool.acknowledge(2);
+        m_spool.close();
+
+        m_spool = new PollResultSpool(m_file);
+        assertEquals(2, m_spool.size());
+        final List<SequencedPollResult> batch = m_spool.peek(MONITOR_ID, 10);
+        assertEquals(2, batch.size());
+        assertEquals(3, batch.get(0).getSequence());
+        assertEquals("down 3", batch.get(0).getStatus().getReason());
+        assertEquals(5, m_spool.append(MONITOR_ID, 5, PollStatus.up()).getSequence());
+    }
+
+    public void testPartialRecordIsDiscarded() throws IOException {
+        m_spool.append(MONITOR_ID, 1, PollStatus.up());
+        m_spool.append(MONITOR_ID, 2, PollStatus.up());
+        m_spool.close();
+
+        // simulate a crash in the middle of writing the second record
+        final RandomAccessFile file = new RandomAccessFile(m_file, "rw");
+        file.setLength(file.length() - 5);
+        file.close();
+
+        m_spool = new PollResultSpool(m_file);
+        assertEquals(1, m_spool.size());
+        assertEquals(1, m_spool.peek(MONITOR_ID, 10).get(0).getSequence());
+        assertEquals(2, m_spool.append(MONITOR_ID, 2, PollStatus.up()).getSequence());
+        assertEquals(2, m_spool.peek(MONITOR_ID, 10).size());
+    }
+
+    public void testResultsOfOtherMonitorsAreDiscarded() throws IOException {
+        m_spool.append(MONITOR_ID + 1, 1, PollStatus.up());
+        m_spool.append(MONITOR_ID, 2, PollStatus.up());
+        m_spool.append(MONITOR_ID + 1, 3, PollStatus.up());
+        m_spool.append(MONITOR_ID, 4, PollStatus.down());
+        assertEquals(4, m_spool.size());
+
+        final List<SequencedPollResult> batch = m_spool.peek(MONITOR_ID, 10);
+        assertEquals(2, batch.size());
+        assertEquals(2, batch.get(0).getServiceId());
+        assertEquals(4, batch.get(1).getServiceId());
+        assertEquals(2, m_spool.size());
+
+        m_spool.acknowledge(batch.get(1).getSequence());
+        assertEquals(0, m_spool.size());
+        assertEquals(0, m_file.length());
+    }
+
+    public void testClear() throws IOException {
+        m_spool.append(MONITOR_ID, 1, PollStatus.up());
+        m_spool.append(MONITOR_ID, 2, PollStatus.up());
+        m_spool.clear();
+        assertEquals(0, m_spool.size());
+        assertTrue(m_spool.peek(MONITOR_ID, 10).isEmpty());
+
+        // nothing from before comes back after a restart
+        assertEquals(3, m_spool.append(MONITOR_ID, 3, PollStatus.up()).getSequence());
+        m_spool.close();
+        m_spool = new PollResultSpool(m_file);
+        final List<SequencedPollResult> batch = m_spool.peek(MONITOR_ID, 10);
+        assertEquals(1, batch.size());
+        assertEquals(3, batch.get(0).getServiceId());
+    }
+
+    public void testSpoolCannotBeOpenedTwice() throws IOException {
+        try {
+            new PollResultSpool(m_file);
+            fail("expected the spool to be locked");
+        } catch (final IOException e) {
+            // expected
+        }
+        // the first one is still usable
+        m_spool.append(MONITOR_ID, 1, PollStatus.up());
+        assertEquals(1, m_spool.peek(MONITOR_ID, 10).size());
+    }
+}
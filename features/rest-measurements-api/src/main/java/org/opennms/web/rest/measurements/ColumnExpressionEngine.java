@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.web.rest.measurements;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.jexl2.JexlContext;
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.JexlException;
+import org.apache.commons.jexl2.MapContext;
+import org.opennms.core.expression.CompiledExpression;
+import org.opennms.core.expression.ExpressionScope;
+import org.opennms.web.rest.measurements.fetch.FetchResults;
+import org.opennms.web.rest.measurements.model.Expression;
+import org.opennms.web.rest.measurements.model.QueryRequest;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * An expression engine that evaluates each expression over all of the rows
+ * at once with a {@link CompiledExpression}, instead of evaluating every
+ * expression with JEXL for every row.
+ *
+ * <p>Expressions that can't be compiled, and the rows that a compiled
+ * expression flags as faults, are evaluated with JEXL, so the results are
+ * the same as those of the {@link JEXLExpressionEngine}.  Requests in which
+ * an expression references its own label or the label of a later
+ * expression see values from the previous row, and are handed to the
+ * {@link JEXLExpressionEngine} as a whole.</p>
+ */
+public class ColumnExpressionEngine implements ExpressionEngine {
+
+    /**
+     * Matches the (possibly dotted) names an expression may reference.
+     */
+    private static final Pattern NAME_PATTERN = Pattern.compile("\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*(?:\\.\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*)*");
+
+    /**
+     * Use a single instance of the JEXL engine, which is thread-safe.
+     */
+    private final JexlEngine jexl = JEXLExpressionEngine.newJexlEngine();
+
+    private final ExpressionEngine rowExpressionEngine = new JEXLExpressionEngine();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void applyExpressions(final QueryRequest request, final FetchResults results) throws ExpressionException {
+        Preconditions.checkNotNull(request, "request argument");
+        Preconditions.checkNotNull(results, "results argument");
+
+        final List<Expression> expressions = request.getExpressions();
+        final int numExpressions = expressions.size();
+
+        // Don't do anything if there are no expressions
+        if (numExpressions < 1) {
+            return;
+        }
+
+        final long timestamps[] = results.getTimestamps();
+        final Map<String, double[]> columns = results.getColumns();
+        final int numRows = timestamps.length;
+
+        if (!canEvaluateByColumn(expressions, columns.keySet())) {
+            rowExpressionEngine.applyExpressions(request, results);
+            return;
+        }
+
+        // Parse all of the expressions before evaluating any of them, so that
+        // syntax errors are reported the same way as by the JEXL engine
+        final org.apache.commons.jexl2.Expression jexlExpressions[] = new org.apache.commons.jexl2.Expression[numExpressions];
+        for (int k = 0; k < numExpressions; k++) {
+            final Expression e = expressions.get(k);
+            try {
+                jexlExpressions[k] = jexl.createExpression(e.getExpression());
+            } catch (JexlException ex) {
+                throw new ExpressionException("Failed to parse expression label '" +
+                        e.getLabel() + "'.", ex);
+            }
+        }
+
+        // The names the expressions can reference, where sources take precedence
+        // over the labels of previous expressions, which take precedence over the
+        // constants, and the timestamp takes precedence over everything
+        final ExpressionScope scope = new ExpressionScope(ExpressionScope.FunctionSyntax.NAMESPACE);
+        for (final Map.Entry<String, Object> constant : results.getConstants().entrySet()) {
+            if (constant.getValue() instanceof Number) {
+                scope.addConstant(constant.getKey(), (Number)constant.getValue());
+            } else {
+                scope.addConstant(constant.getKey(), null);
+            }
+        }
+        scope.addConstant("__inf", Double.POSITIVE_INFINITY);
+        scope.addConstant("__neg_inf", Double.NEGATIVE_INFINITY);
+
+        // The columns are the timestamps, the sources and then the values of the expressions
+        final double scopeColumns[][] = new double[1 + columns.size() + numExpressions][];
+        scopeColumns[0] = new double[numRows];
+        for (int i = 0; i < numRows; i++) {
+            scopeColumns[0][i] = timestamps[i];
+        }
+        int numColumns = 1;
+        for (final Map.Entry<String, double[]> column : columns.entrySet()) {
+            scope.addColumn(column.getKey(), numColumns);
+            scopeColumns[numColumns++] = column.getValue();
+        }
+        scope.addIntegerColumn("timestamp", 0);
+
+        final double expressionValues[][] = new double[numExpressions][];
+        for (int k = 0; k < numExpressions; k++) {
+            final Expression e = expressions.get(k);
+            final int index = k;
+            final CompiledExpression compiled = CompiledExpression.compile(jexlExpressions[k], scope);
+            try {
+                // The rows that can't be compiled are evaluated with JEXL
+                expressionValues[k] = compiled.evaluate(scopeColumns, numRows, new CompiledExpression.ContextFactory() {
+                    private Map<String, Object> jexlValues;
+
+                    @Override
+                    public JexlContext getContext(int row) {
+                        if (jexlValues == null) {
+                            jexlValues = Maps.newHashMap();
+                            jexlValues.putAll(results.getConstants());
+                            jexlValues.put("__inf", Double.POSITIVE_INFINITY);
+                            jexlValues.put("__neg_inf", Double.NEGATIVE_INFINITY);
+                        }
+                        // Values of the previous expressions in the row, which the timestamp and the sources override
+                        for (int j = 0; j < index; j++) {
+                            jexlValues.put(expressions.get(j).getLabel(), expressionValues[j][row]);
+                        }
+                        jexlValues.put("timestamp", timestamps[row]);
+                        for (final Map.Entry<String, double[]> column : columns.entrySet()) {
+                            jexlValues.put(column.getKey(), column.getValue()[row]);
+                        }
+                        return new MapContext(jexlValues);
+                    }
+                });
+            } catch (NullPointerException|NumberFormatException ex) {
+                throw new ExpressionException("The return value from expression with label '" +
+                        e.getLabel() + "' could not be cast to a Double.", ex);
+            } catch (JexlException ex) {
+                throw new ExpressionException("Failed to evaluate expression with label '" +
+                        e.getLabel() + "'.", ex);
+            }
+
+            if (!columns.containsKey(e.getLabel()) && !"timestamp".equals(e.getLabel())) {
+                scope.addColumn(e.getLabel(), numColumns);
+                scopeColumns[numColumns++] = expressionValues[k];
+            }
+        }
+
+        // Store the results
+        for (int k = 0; k < numExpressions; k++) {
+            final Expression e = expressions.get(k);
+            if (!e.getTransient()) {
+                columns.put(e.getLabel(), expressionValues[k]);
+            }
+        }
+    }
+
+    /**
+     * Checks that the labels are unique and that no expression references
+     * its own label, or the label of a later expression, unless a source or
+     * the timestamp hides it.
+     */
+    private static boolean canEvaluateByColumn(final List<Expression> expressions, final Set<String> sourceLabels) {
+        final Set<String> labels = Sets.newHashSet();
+        for (final Expression e : expressions) {
+            if (!labels.add(e.getLabel())) {
+                return false;
+            }
+        }
+
+        for (int k = 0; k < expressions.size(); k++) {
+            final Set<String> names = getNames(expressions.get(k).getExpression());
+            for (int j = k; j < expressions.size(); j++) {
+                final String label = expressions.get(j).getLabel();
+                if (names.contains(label) && !"timestamp".equals(label) && !sourceLabels.contains(label)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns every name, and every prefix of a dotted name, that appears
+     * in the expression.
+     */
+    private static Set<String> getNames(final String expression) {
+        final Set<String> names = Sets.newHashSet();
+        if (expression == null) {
+            return names;
+        }
+        final Matcher matcher = NAME_PATTERN.matcher(expression);
+        while (matcher.find()) {
+            final String name = matcher.group();
+            for (int dot = name.indexOf('.'); dot > 0; dot = name.indexOf('.', dot + 1)) {
+                names.add(name.substring(0, dot));
+            }
+            names.add(name);
+        }
+        return names;
+    }
+}
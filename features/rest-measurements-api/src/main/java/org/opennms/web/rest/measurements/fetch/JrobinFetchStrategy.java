@@ -34,6 +34,7 @@ import java.util.Map;
 import org.jrobin.core.RrdException;
 import org.jrobin.data.DataProcessor;
 import org.opennms.netmgt.dao.api.ResourceDao;
+import org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy;
 import org.opennms.web.rest.measurements.model.Source;
 
 import com.google.common.collect.Maps;
@@ -46,8 +47,20 @@ import com.google.common.collect.Maps;
  */
 public class JrobinFetchStrategy extends AbstractRrdBasedFetchStrategy {
 
+    private final JRobinRrdStrategy m_rrdStrategy;
+
     public JrobinFetchStrategy(final ResourceDao resourceDao) {
+        this(resourceDao, null);
+    }
+
+    /**
+     * @param rrdStrategy the strategy used to read the data sources, so that
+     *        strategies built on JRobin's graphing can provide their own
+     *        values, or null to read JRB files directly
+     */
+    public JrobinFetchStrategy(final ResourceDao resourceDao, final JRobinRrdStrategy rrdStrategy) {
         super(resourceDao);
+        m_rrdStrategy = rrdStrategy;
     }
 
     /**
@@ -76,8 +89,13 @@ public class JrobinFetchStrategy extends AbstractRrdBasedFetchStrategy {
             final Source source = entry.getKey();
             final String rrdFile = entry.getValue();
 
-            dproc.addDatasource(source.getLabel(), rrdFile, source.getAttribute(),
-                    source.getAggregation());
+            if (m_rrdStrategy == null) {
+                dproc.addDatasource(source.getLabel(), rrdFile, source.getAttribute(),
+                        source.getAggregation());
+            } else {
+                m_rrdStrategy.addDatasource(dproc, source.getLabel(), rrdFile, source.getAttribute(),
+                        source.getAggregation(), startInSeconds, endInSeconds);
+            }
         }
 
         try {
@@ -34,6 +34,7 @@ import org.opennms.netmgt.rrd.QueuingRrdStrategy;
 import org.opennms.netmgt.rrd.RrdStrategy;
 import org.opennms.netmgt.rrd.RrdUtils;
 import org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy;
+import org.opennms.netmgt.rrd.logstore.LogStoreRrdStrategy;
 import org.opennms.netmgt.rrd.rrdtool.JniRrdStrategy;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -55,7 +56,9 @@ public class MeasurementFetchStrategyFactory {
 		if (strategy instanceof JniRrdStrategy) {
 			return new RrdtoolXportFetchStrategy(m_resourceDao);
         } else if (strategy instanceof JRobinRrdStrategy) {
-		return new JrobinFetchStrategy(m_resourceDao);
+		return new JrobinFetchStrategy(m_resourceDao, (JRobinRrdStrategy) strategy);
+        } else if (strategy instanceof LogStoreRrdStrategy) {
+            return new JrobinFetchStrategy(m_resourceDao, ((LogStoreRrdStrategy) strategy).getGraphStrategy());
         } else {
             throw new RuntimeException("Unsupported RRD strategy: " + strategy.getClass());
         }
@@ -66,7 +69,7 @@ public class MeasurementFetchStrategyFactory {
     }
 
     private static RrdStrategy<?, ?> findRrdStrategy(final RrdStrategy<?, ?> rrdStrategy) {
-        if (rrdStrategy instanceof JniRrdStrategy || rrdStrategy instanceof JRobinRrdStrategy) {
+        if (rrdStrategy instanceof JniRrdStrategy || rrdStrategy instanceof JRobinRrdStrategy || rrdStrategy instanceof LogStoreRrdStrategy) {
             return rrdStrategy;
         }
 
@@ -78,7 +81,7 @@ public class MeasurementFetchStrategyFactory {
             for (final RrdStrategy<?, ?> delegate : ((MultiOutputRrdStrategy) rrdStrategy).getDelegates()) {
                 RrdStrategy<?, ?> x = findRrdStrategy(delegate);
 
-                if (x instanceof JniRrdStrategy || x instanceof JRobinRrdStrategy) {
+                if (x instanceof JniRrdStrategy || x instanceof JRobinRrdStrategy || x instanceof LogStoreRrdStrategy) {
                     return x;
                 }
             }
@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.web.rest.measurements;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.web.rest.measurements.fetch.FetchResults;
+import org.opennms.web.rest.measurements.model.Expression;
+import org.opennms.web.rest.measurements.model.QueryRequest;
+import org.opennms.web.rest.measurements.model.Source;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class ColumnExpressionEngineTest {
+
+    private final ExpressionEngine columnExpressionEngine = new ColumnExpressionEngine();
+
+    private final ExpressionEngine jexlExpressionEngine = new JEXLExpressionEngine();
+
+    @Test(expected=ExpressionException.class)
+    public void failsWhenExpressionHasInvalidSyntax() throws ExpressionException {
+        peformExpression("/");
+    }
+
+    @Test(expected=ExpressionException.class)
+    public void failsWhenExpressionDoesNotReturnADouble() throws ExpressionException {
+        peformExpression("!(!true)");
+    }
+
+    @Test
+    public void canPerformLinearCombination() throws ExpressionException {
+        double results[] = peformExpression("x * 5 + 7");
+        assertEquals(12, results[1], 0.0001);
+    }
+
+    @Test
+    public void canPerformSin() throws ExpressionException {
+        double results[] = peformExpression("math:sin(x)");
+        assertEquals(Math.sin(1.0d), results[1], 0.0001);
+    }
+
+    @Test
+    public void canReferenceTimestamp() throws ExpressionException {
+        double results[] = peformExpression("timestamp / 125.0d");
+        assertEquals(400.0d, results[50], 0.0001);
+    }
+
+    @Test
+    public void canReferenceConstant() throws ExpressionException {
+        Map<String, Object> constants = Maps.newHashMap();
+        constants.put("speed", 65);
+
+        double results[] = peformExpression("speed / 0.62137", constants);
+        assertEquals(104.607560713, results[0], 0.0001);
+    }
+
+    @Test
+    public void canReferencePreviousExpression() throws ExpressionException {
+        QueryRequest request = createRequest(1, Lists.newArrayList(
+                new Expression("a", "x0 * 2", true),
+                new Expression("b", "a + 1", false)));
+        FetchResults results = createResults(1, 100);
+
+        columnExpressionEngine.applyExpressions(request, results);
+
+        assertEquals(null, results.getColumns().get("a"));
+        assertEquals(results.getColumns().get("x0")[3] * 2 + 1, results.getColumns().get("b")[3], 0.0001);
+    }
+
+    @Test
+    public void producesTheSameResultsAsJexl() throws ExpressionException {
+        final List<Expression> expressions = Lists.newArrayList(
+                new Expression("sum", "x0 + x1 + x2", false),
+                new Expression("scaled", "x0 * 8 / x0.ifSpeed", false),
+                new Expression("ratio", "x1 / x0", false),
+                new Expression("remainder", "x1 % x0", false),
+                new Expression("capped", "x0 > 50 ? 50 : x0", false),
+                new Expression("decimal", "x0 < 10 ? 0.1 : x0 * 0.1", false),
+                new Expression("equal", "x0 == x1 ? 1 : 0", false),
+                new Expression("guarded", "x0 != 0 && x1 / x0 > 1 ? 1 : 0", false),
+                new Expression("seconds", "timestamp / 1000", false),
+                new Expression("minutes", "timestamp / 60000.0d", false),
+                new Expression("rounded", "math:round(x2)", false),
+                new Expression("power", "math:pow(x1, 2) - __inf", false),
+                new Expression("derived", "sum * 2 - capped", false),
+                new Expression("bits", "x2 * 8", false),
+                new Expression("negated", "-x2", false),
+                new Expression("unsupported", "strictmath:abs(x2)", false));
+
+        final FetchResults jexlResults = createResults(3, 200);
+        jexlExpressionEngine.applyExpressions(createRequest(3, expressions), jexlResults);
+
+        final FetchResults columnResults = createResults(3, 200);
+        columnExpressionEngine.applyExpressions(createRequest(3, expressions), columnResults);
+
+        for (final Expression expression : expressions) {
+            assertArrayEquals(expression.getExpression(),
+                    jexlResults.getColumns().get(expression.getLabel()),
+                    columnResults.getColumns().get(expression.getLabel()), 0.0d);
+        }
+    }
+
+    @Test
+    public void canEvaluateManyRows() throws ExpressionException {
+        final int numSources = 10;
+        final int numRows = 2880;
+        final int numIterations = 20;
+        final List<Expression> expressions = Lists.newArrayList(
+                new Expression("inBits", "x0 * 8", false),
+                new Expression("outBits", "x1 * 8", false),
+                new Expression("total", "inBits + outBits", false),
+                new Expression("usage", "x0 * 8 * 100 / x0.ifSpeed", false),
+                new Expression("capped", "usage > 100 ? 100 : usage", false),
+                new Expression("average", "(x2 + x3 + x4 + x5 + x6) / 5.0d", false));
+
+        final long jexlElapsed = timeExpressions(jexlExpressionEngine, expressions, numSources, numRows, numIterations);
+        final long columnElapsed = timeExpressions(columnExpressionEngine, expressions, numSources, numRows, numIterations);
+
+        final int numEvaluations = numIterations * numRows * expressions.size();
+        System.err.printf("JEXLExpressionEngine: %d evaluations: Elapsed: %d ms: evaluations per second %f.%n",
+                numEvaluations, jexlElapsed, numEvaluations * 1000.0 / jexlElapsed);
+        System.err.printf("ColumnExpressionEngine: %d evaluations: Elapsed: %d ms: evaluations per second %f.%n",
+                numEvaluations, columnElapsed, numEvaluations * 1000.0 / columnElapsed);
+    }
+
+    private long timeExpressions(ExpressionEngine engine, List<Expression> expressions, int numSources, int numRows, int numIterations) throws ExpressionException {
+        // Warm up
+        engine.applyExpressions(createRequest(numSources, expressions), createResults(numSources, numRows));
+
+        long elapsed = 0;
+        for (int i = 0; i < numIterations; i++) {
+            final QueryRequest request = createRequest(numSources, expressions);
+            final FetchResults results = createResults(numSources, numRows);
+
+            final long start = System.currentTimeMillis();
+            engine.applyExpressions(request, results);
+            elapsed += System.currentTimeMillis() - start;
+
+            assertEquals(numSources + expressions.size(), results.getColumns().size());
+        }
+        return Math.max(1, elapsed);
+    }
+
+    private double[] peformExpression(String expression) throws ExpressionException {
+        Map<String, Object> constants = Maps.newHashMap();
+        return peformExpression(expression, constants);
+    }
+
+    private double[] peformExpression(String expression, Map<String, Object> constants) throws ExpressionException {
+        // Build a simple request with the given expression
+        QueryRequest request = new QueryRequest();
+
+        Source constant = new Source();
+        constant.setLabel("x");
+        request.setSources(Lists.newArrayList(constant));
+
+        Expression exp = new Expression();
+        exp.setLabel("y");
+        exp.setExpression(expression);
+        request.setExpressions(Lists.newArrayList(exp));
+
+        // Build the fetch results with known values
+        final int N = 100;
+        long timestamps[] = new long[N];
+        double xValues[] = new double[N];
+        for (int i = 0; i < N; i++) {
+            timestamps[i] = i * 1000;
+            xValues[i] = Double.valueOf(i);
+        }
+        Map<String, double[]> values = Maps.newHashMap();
+        values.put("x", xValues);
+        FetchResults results = new FetchResults(timestamps, values, 1, constants);
+
+        // Use the engine to evaluate the expression
+        columnExpressionEngine.applyExpressions(request, results);
+
+        // Retrieve the results
+        return results.getColumns().get("y");
+    }
+
+    private static QueryRequest createRequest(int numSources, List<Expression> expressions) {
+        QueryRequest request = new QueryRequest();
+        List<Source> sources = Lists.newArrayList();
+        for (int j = 0; j < numSources; j++) {
+            Source source = new Source();
+            source.setLabel("x" + j);
+            sources.add(source);
+        }
+        request.setSources(sources);
+        request.setExpressions(expressions);
+        return request;
+    }
+
+    /**
+     * Builds results with five minute steps, where every source has a few
+     * unknown values and zeros.
+     */
+    private static FetchResults createResults(int numSources, int numRows) {
+        long timestamps[] = new long[numRows];
+        for (int i = 0; i < numRows; i++) {
+            timestamps[i] = 1414602000000L + i * 300000L;
+        }
+
+        Map<String, double[]> columns = Maps.newHashMap();
+        Map<String, Object> constants = Maps.newHashMap();
+        for (int j = 0; j < numSources; j++) {
+            double values[] = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                if ((i + j) % 97 == 0) {
+                    values[i] = Double.NaN;
+                } else if ((i + j) % 31 == 0) {
+                    values[i] = 0.0d;
+                } else {
+                    values[i] = ((i * 7 + j * 13) % 101) * 1.5d;
+                }
+            }
+            columns.put("x" + j, values);
+            constants.put("x" + j + ".ifSpeed", 1000000.0d);
+        }
+        return new FetchResults(timestamps, columns, 300000L, constants);
+    }
+}
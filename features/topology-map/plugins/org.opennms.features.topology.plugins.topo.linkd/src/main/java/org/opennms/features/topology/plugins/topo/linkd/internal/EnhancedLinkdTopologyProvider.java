@@ -39,9 +39,13 @@ import org.opennms.features.topology.api.support.VertexHopGraphProvider;
 import org.opennms.features.topology.api.support.VertexHopGraphProvider.VertexHopCriteria;
 import org.opennms.features.topology.api.topo.*;
 import org.opennms.netmgt.dao.api.*;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
 import org.opennms.netmgt.model.*;
 import org.opennms.netmgt.model.topology.BridgeMacTopologyLink;
 import org.opennms.netmgt.model.topology.CdpTopologyLink;
+import org.opennms.netmgt.xml.event.Event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.transaction.annotation.Transactional;
@@ -51,8 +55,9 @@ import javax.xml.bind.JAXBException;
 import java.io.File;
 import java.net.MalformedURLException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider {
+public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider implements EventListener {
 
     public CdpLinkDao getCdpLinkDao() {
         return m_cdpLinkDao;
@@ -372,12 +377,29 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
     private BridgeBridgeLinkDao m_bridgeBridgeLinkDao;
     private BridgeMacLinkDao m_bridgeMacLinkDao;
     private CdpLinkDao m_cdpLinkDao;
+    private EventSubscriptionService m_eventSubscriptionService;
+    private final AtomicBoolean m_topologyChanged = new AtomicBoolean(true);
     public final static String LLDP_EDGE_NAMESPACE = TOPOLOGY_NAMESPACE_LINKD + "::LLDP";
     public final static String OSPF_EDGE_NAMESPACE = TOPOLOGY_NAMESPACE_LINKD + "::OSPF";
     public final static String ISIS_EDGE_NAMESPACE = TOPOLOGY_NAMESPACE_LINKD + "::ISIS";
     public final static String BRIDGE_EDGE_NAMESPACE = TOPOLOGY_NAMESPACE_LINKD + "::BRIDGE";
     public final static String CDP_EDGE_NAMESPACE = TOPOLOGY_NAMESPACE_LINKD + "::CDP";
 
+    /**
+     * Sent by enlinkd whenever it has finished discovering the links of a node.
+     */
+    public final static String NODE_LINK_DISCOVERY_COMPLETED_EVENT_UEI = "uei.opennms.org/internal/linkd/nodeLinkDiscoveryCompleted";
+
+    /**
+     * Events after which the graph has to be built again on the next {@link #refresh()}.
+     */
+    private static final List<String> TOPOLOGY_CHANGED_UEIS = Arrays.asList(
+            NODE_LINK_DISCOVERY_COMPLETED_EVENT_UEI,
+            EventConstants.NODE_ADDED_EVENT_UEI,
+            EventConstants.NODE_DELETED_EVENT_UEI,
+            EventConstants.NODE_LABEL_CHANGED_EVENT_UEI
+    );
+
     public EnhancedLinkdTopologyProvider() { }
 
     /**
@@ -388,6 +410,9 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
     public void onInit() throws MalformedURLException, JAXBException {
         LOG.debug("init: loading topology.");
         load(null);
+        if (m_eventSubscriptionService != null) {
+            m_eventSubscriptionService.addEventListener(this, TOPOLOGY_CHANGED_UEIS);
+        }
     }
 
     @Override
@@ -401,6 +426,8 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
             //This reset container is set in here for the demo, don't commit
 
             resetContainer();
+            // events received from here on mark the graph stale again
+            m_topologyChanged.set(false);
 
             getLldpLinks();
             getOspfLinks();
@@ -474,26 +501,32 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
 
     }
 
+    /**
+     * Marks the graph as stale whenever the container is emptied, so that the
+     * next {@link #refresh()} builds it again.
+     */
+    @Override
+    public void resetContainer() {
+        m_topologyChanged.set(true);
+        super.resetContainer();
+    }
+
     private void getOspfLinks() {
         List<OspfLink> allLinks =  getOspfLinkDao().findAll();
         Set<OspfLinkDetail> combinedLinkDetails = new HashSet<OspfLinkDetail>();
-        for(OspfLink sourceLink : allLinks) {
-
-            for (OspfLink targetLink : allLinks) {
-                boolean ipAddrCheck = sourceLink.getOspfRemIpAddr().equals(targetLink.getOspfIpAddr()) && targetLink.getOspfRemIpAddr().equals(sourceLink.getOspfIpAddr());
-                if(ipAddrCheck) {
-                    String id = "ospf::" + Math.min(sourceLink.getId(), targetLink.getId()) + "||" + Math.max(sourceLink.getId(), targetLink.getId());
-                    AbstractVertex source = new AbstractVertex(AbstractLinkdTopologyProvider.TOPOLOGY_NAMESPACE_LINKD, sourceLink.getNode().getNodeId(), sourceLink.getNode().getLabel());
-                    source.setIpAddress(sourceLink.getOspfIpAddr().getHostAddress());
-
-                    AbstractVertex target = new AbstractVertex(AbstractLinkdTopologyProvider.TOPOLOGY_NAMESPACE_LINKD, targetLink.getNode().getNodeId(), targetLink.getNode().getLabel());
-                    target.setIpAddress(targetLink.getOspfIpAddr().getHostAddress());
-
-                    OspfLinkDetail linkDetail = new OspfLinkDetail(
-                            Math.min(sourceLink.getId(), targetLink.getId()) + "|" + Math.max(sourceLink.getId(), targetLink.getId()),
-                            source, sourceLink, target, targetLink);
-                    combinedLinkDetails.add(linkDetail);
-                }
+        Multimap<OspfLink, OspfLink> matchedLinks = LinkMatcher.matchOspfLinks(allLinks);
+        for (OspfLink sourceLink : matchedLinks.keySet()) {
+            for (OspfLink targetLink : matchedLinks.get(sourceLink)) {
+                AbstractVertex source = new AbstractVertex(AbstractLinkdTopologyProvider.TOPOLOGY_NAMESPACE_LINKD, sourceLink.getNode().getNodeId(), sourceLink.getNode().getLabel());
+                source.setIpAddress(sourceLink.getOspfIpAddr().getHostAddress());
+
+                AbstractVertex target = new AbstractVertex(AbstractLinkdTopologyProvider.TOPOLOGY_NAMESPACE_LINKD, targetLink.getNode().getNodeId(), targetLink.getNode().getLabel());
+                target.setIpAddress(targetLink.getOspfIpAddr().getHostAddress());
+
+                OspfLinkDetail linkDetail = new OspfLinkDetail(
+                        Math.min(sourceLink.getId(), targetLink.getId()) + "|" + Math.max(sourceLink.getId(), targetLink.getId()),
+                        source, sourceLink, target, targetLink);
+                combinedLinkDetails.add(linkDetail);
             }
         }
 
@@ -506,10 +539,10 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
     private void getLldpLinks() {
         List<LldpLink> allLinks = m_lldpLinkDao.findAll();
         Set<LldpLinkDetail> combinedLinkDetails = new HashSet<LldpLinkDetail>();
+        Multimap<LldpLink, LldpLink> matchedLinks = LinkMatcher.matchLldpLinks(allLinks);
         for (LldpLink sourceLink : allLinks) {
             LOG.debug("loadtopology: parsing link: " + sourceLink);
             OnmsNode sourceNode = sourceLink.getNode();
-            LldpElement sourceElement = sourceNode.getLldpElement();
             LOG.debug("loadtopology: found source node: " + sourceNode.getLabel());
             Vertex source = getVertex(getVertexNamespace(), sourceNode.getNodeId());
             if (source == null) {
@@ -518,28 +551,17 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
                 addVertices(source);
             }
 
-            for (LldpLink targetLink : allLinks) {
+            for (LldpLink targetLink : matchedLinks.get(sourceLink)) {
                 OnmsNode targetNode = targetLink.getNode();
-                LldpElement targetLldpElement = targetNode.getLldpElement();
-
-                //Compare the remote data to the targetNode element data
-                boolean bool1 = sourceLink.getLldpRemPortId().equals(targetLink.getLldpPortId()) && targetLink.getLldpRemPortId().equals(sourceLink.getLldpPortId());
-                boolean bool2 = sourceLink.getLldpRemPortDescr().equals(targetLink.getLldpPortDescr()) && targetLink.getLldpRemPortDescr().equals(sourceLink.getLldpPortDescr());
-                boolean bool3 = sourceLink.getLldpRemChassisId().equals(targetLldpElement.getLldpChassisId()) && targetLink.getLldpRemChassisId().equals(sourceElement.getLldpChassisId());
-                boolean bool4 = sourceLink.getLldpRemSysname().equals(targetLldpElement.getLldpSysname()) && targetLink.getLldpRemSysname().equals(sourceElement.getLldpSysname());
-                boolean bool5 = sourceLink.getLldpRemPortIdSubType() == targetLink.getLldpPortIdSubType() && targetLink.getLldpRemPortIdSubType() == sourceLink.getLldpPortIdSubType();
-
-                if (bool1 && bool2 && bool3 && bool4 && bool5) {
-                    Vertex target = getVertex(getVertexNamespace(), targetNode.getNodeId());
-                    if (target == null) {
-                        target = getVertex(targetNode);
-                    }
-
-                    LldpLinkDetail linkDetail = new LldpLinkDetail(
-                            Math.min(sourceLink.getId(), targetLink.getId()) + "|" + Math.max(sourceLink.getId(), targetLink.getId()),
-                            source, sourceLink, target, targetLink);
-                    combinedLinkDetails.add(linkDetail);
+                Vertex target = getVertex(getVertexNamespace(), targetNode.getNodeId());
+                if (target == null) {
+                    target = getVertex(targetNode);
                 }
+
+                LldpLinkDetail linkDetail = new LldpLinkDetail(
+                        Math.min(sourceLink.getId(), targetLink.getId()) + "|" + Math.max(sourceLink.getId(), targetLink.getId()),
+                        source, sourceLink, target, targetLink);
+                combinedLinkDetails.add(linkDetail);
             }
 
         }
@@ -668,8 +690,17 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
 
     }
 
+    /**
+     * Builds the graph again if enlinkd has reported changes since it was last
+     * loaded. Without an event subscription there is no way to tell, so the
+     * graph is always built again.
+     */
     @Override
     public void refresh() {
+        if (m_eventSubscriptionService != null && !m_topologyChanged.get()) {
+            LOG.debug("refresh: topology has not changed, keeping the current graph");
+            return;
+        }
         try {
             load(null);
         } catch (MalformedURLException e) {
@@ -802,6 +833,25 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
         m_bridgeBridgeLinkDao = bridgeBridgeLinkDao;
     }
 
+    public EventSubscriptionService getEventSubscriptionService() {
+        return m_eventSubscriptionService;
+    }
+
+    public void setEventSubscriptionService(EventSubscriptionService eventSubscriptionService) {
+        m_eventSubscriptionService = eventSubscriptionService;
+    }
+
+    @Override
+    public String getName() {
+        return "EnhancedLinkdTopologyProvider";
+    }
+
+    @Override
+    public void onEvent(Event e) {
+        LOG.debug("onEvent: {} invalidates the topology", e.getUei());
+        m_topologyChanged.set(true);
+    }
+
     //Search Provider methods
     @Override
     public String getSearchProviderNamespace() {
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.features.topology.plugins.topo.linkd.internal;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.netmgt.model.LldpElement;
+import org.opennms.netmgt.model.LldpLink;
+import org.opennms.netmgt.model.OspfLink;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+
+/**
+ * Finds the two ends of the links discovered by enlinkd.
+ *
+ * <p>Each link is looked up by the attributes its counterpart must have,
+ * so matching takes time in proportion to the number of links rather than
+ * its square.</p>
+ */
+final class LinkMatcher {
+
+    private LinkMatcher() {
+    }
+
+    /**
+     * Pairs every LLDP link with the links seen from the other end: the remote
+     * port, chassis and system name of one must be the local ones of the other,
+     * both ways round.
+     */
+    static Multimap<LldpLink, LldpLink> matchLldpLinks(List<LldpLink> allLinks) {
+        Map<LldpLink, List<Object>> localKeys = new HashMap<LldpLink, List<Object>>(allLinks.size());
+        Multimap<List<Object>, LldpLink> linksByLocalKey = ArrayListMultimap.create();
+        for (LldpLink link : allLinks) {
+            LldpElement element = link.getNode().getLldpElement();
+            List<Object> localKey = Arrays.<Object>asList(link.getLldpPortId(), link.getLldpPortDescr(), link.getLldpPortIdSubType(),
+                    element.getLldpChassisId(), element.getLldpSysname());
+            localKeys.put(link, localKey);
+            linksByLocalKey.put(localKey, link);
+        }
+
+        Multimap<LldpLink, LldpLink> matchedLinks = ArrayListMultimap.create();
+        for (LldpLink sourceLink : allLinks) {
+            for (LldpLink targetLink : linksByLocalKey.get(getLldpRemoteKey(sourceLink))) {
+                if (getLldpRemoteKey(targetLink).equals(localKeys.get(sourceLink))) {
+                    matchedLinks.put(sourceLink, targetLink);
+                }
+            }
+        }
+        return matchedLinks;
+    }
+
+    private static List<Object> getLldpRemoteKey(LldpLink link) {
+        return Arrays.<Object>asList(link.getLldpRemPortId(), link.getLldpRemPortDescr(), link.getLldpRemPortIdSubType(),
+                link.getLldpRemChassisId(), link.getLldpRemSysname());
+    }
+
+    /**
+     * Pairs every OSPF link with the links whose address is its remote address
+     * and whose remote address is its own address, looking them up by address.
+     */
+    static Multimap<OspfLink, OspfLink> matchOspfLinks(List<OspfLink> allLinks) {
+        Multimap<InetAddress, OspfLink> linksByIpAddr = ArrayListMultimap.create();
+        for (OspfLink link : allLinks) {
+            linksByIpAddr.put(link.getOspfIpAddr(), link);
+        }
+
+        Multimap<OspfLink, OspfLink> matchedLinks = ArrayListMultimap.create();
+        for (OspfLink sourceLink : allLinks) {
+            for (OspfLink targetLink : linksByIpAddr.get(sourceLink.getOspfRemIpAddr())) {
+                if (targetLink.getOspfRemIpAddr().equals(sourceLink.getOspfIpAddr())) {
+                    matchedLinks.put(sourceLink, targetLink);
+                }
+            }
+        }
+        return matchedLinks;
+    }
+}
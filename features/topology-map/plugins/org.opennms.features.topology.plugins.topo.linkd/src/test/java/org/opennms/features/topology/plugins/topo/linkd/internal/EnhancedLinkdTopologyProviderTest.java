@@ -39,7 +39,9 @@ import org.opennms.features.topology.api.topo.*;
 import org.opennms.netmgt.dao.api.DataLinkInterfaceDao;
 import org.opennms.netmgt.dao.api.LldpLinkDao;
 import org.opennms.netmgt.dao.api.OspfLinkDao;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
 import org.opennms.netmgt.model.*;
+import org.opennms.netmgt.model.events.EventBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -244,6 +246,26 @@ public class EnhancedLinkdTopologyProviderTest {
         assertEquals(0, m_topologyProvider.getSemanticZoomLevel(vertexE));
     }
 
+    @Test
+    public void testRefreshKeepsGraphUntilTopologyChanges() throws Exception {
+        m_topologyProvider.setEventSubscriptionService(EasyMock.createNiceMock(EventSubscriptionService.class));
+        try {
+            m_topologyProvider.addVertex(50, 100);
+            assertEquals(9, m_topologyProvider.getVertices().size());
+
+            // nothing has changed, so the graph is not built again
+            m_topologyProvider.refresh();
+            assertEquals(9, m_topologyProvider.getVertices().size());
+
+            m_topologyProvider.onEvent(new EventBuilder(EnhancedLinkdTopologyProvider.NODE_LINK_DISCOVERY_COMPLETED_EVENT_UEI, "test").getEvent());
+            m_topologyProvider.refresh();
+            assertEquals(8, m_topologyProvider.getVertices().size());
+            assertEquals(9, m_topologyProvider.getEdges().size());
+        } finally {
+            m_topologyProvider.setEventSubscriptionService(null);
+        }
+    }
+
     @Test
     public void loadSampleGraph() throws Exception {
         m_topologyProvider.setConfigurationFile("target/test-classes/saved-vmware-graph.xml");
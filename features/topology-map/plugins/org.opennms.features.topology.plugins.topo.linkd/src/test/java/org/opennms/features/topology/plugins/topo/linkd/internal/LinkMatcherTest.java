@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.features.topology.plugins.topo.linkd.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.model.LldpElement;
+import org.opennms.netmgt.model.LldpElement.LldpChassisIdSubType;
+import org.opennms.netmgt.model.LldpLink;
+import org.opennms.netmgt.model.LldpLink.LldpPortIdSubType;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OspfLink;
+
+import com.google.common.collect.Multimap;
+
+/**
+ * Checks the link matching on synthetic rings of increasing size.  The
+ * largest ring can be set with the
+ * <code>org.opennms.features.topology.linkd.matchTest.nodes</code> system
+ * property.
+ */
+public class LinkMatcherTest {
+
+    private static final int MAX_NODES = Integer.getInteger("org.opennms.features.topology.linkd.matchTest.nodes", 16000);
+
+    @Test
+    public void testLldpLinks() {
+        final List<LldpLink> links = createLldpRing(3);
+        // a link to a chassis that is not monitored
+        final OnmsNode node = links.get(0).getNode();
+        links.add(new LldpLink(node, 99, 99, "port99", "port99", LldpPortIdSubType.LLDP_PORTID_SUBTYPE_LOCAL,
+                "unknownChassisId", "unknown", LldpChassisIdSubType.LLDP_CHASSISID_SUBTYPE_LOCAL,
+                "port1", LldpPortIdSubType.LLDP_PORTID_SUBTYPE_LOCAL, "port1"));
+
+        final Multimap<LldpLink, LldpLink> matched = LinkMatcher.matchLldpLinks(links);
+        assertEquals(6, matched.size());
+        for (final LldpLink source : matched.keySet()) {
+            for (final LldpLink target : matched.get(source)) {
+                assertTrue(matched.containsEntry(target, source));
+                assertEquals(source.getLldpRemChassisId(), target.getNode().getLldpElement().getLldpChassisId());
+            }
+        }
+        assertTrue(matched.get(links.get(6)).isEmpty());
+    }
+
+    @Test
+    public void testOspfLinks() {
+        final List<OspfLink> links = createOspfRing(3);
+        // the remote end answers from another address
+        final OspfLink stray = createOspfLink(links.get(0).getNode(), "10.255.0.1", "10.0.0.2");
+        links.add(stray);
+
+        final Multimap<OspfLink, OspfLink> matched = LinkMatcher.matchOspfLinks(links);
+        assertEquals(6, matched.size());
+        assertSame(links.get(1), matched.get(links.get(0)).iterator().next());
+        assertTrue(matched.get(stray).isEmpty());
+    }
+
+    @Test
+    public void testLargeTopologies() {
+        for (int nodes = 1000; nodes <= MAX_NODES; nodes *= 4) {
+            final List<LldpLink> lldpLinks = createLldpRing(nodes);
+            final List<OspfLink> ospfLinks = createOspfRing(nodes);
+
+            final long start = System.currentTimeMillis();
+            final Multimap<LldpLink, LldpLink> lldpMatched = LinkMatcher.matchLldpLinks(lldpLinks);
+            final Multimap<OspfLink, OspfLink> ospfMatched = LinkMatcher.matchOspfLinks(ospfLinks);
+            final long elapsed = System.currentTimeMillis() - start;
+
+            assertEquals(2 * nodes, lldpMatched.size());
+            assertEquals(2 * nodes, ospfMatched.size());
+            System.err.printf("LinkMatcher: %d nodes, %d LLDP links, %d OSPF links: Elapsed: %d ms%n",
+                    nodes, lldpLinks.size(), ospfLinks.size(), elapsed);
+        }
+    }
+
+    /**
+     * Connects node i to node i+1 with port "port2" on node i and port
+     * "port1" on node i+1.
+     */
+    private static List<LldpLink> createLldpRing(final int size) {
+        final List<OnmsNode> nodes = new ArrayList<OnmsNode>(size);
+        for (int i = 0; i < size; i++) {
+            final OnmsNode node = new OnmsNode();
+            node.setId(i + 1);
+            node.setLabel("node" + i);
+            node.setLldpElement(new LldpElement(node, "chassis" + i, "sysname" + i, LldpChassisIdSubType.LLDP_CHASSISID_SUBTYPE_LOCAL));
+            nodes.add(node);
+        }
+
+        final List<LldpLink> links = new ArrayList<LldpLink>(2 * size);
+        for (int i = 0; i < size; i++) {
+            final OnmsNode node = nodes.get(i);
+            final OnmsNode next = nodes.get((i + 1) % size);
+            final OnmsNode previous = nodes.get((i + size - 1) % size);
+            links.add(createLldpLink(node, 2, next, 1));
+            links.add(createLldpLink(node, 1, previous, 2));
+        }
+        return links;
+    }
+
+    private static LldpLink createLldpLink(final OnmsNode node, final int port, final OnmsNode remNode, final int remPort) {
+        final LldpElement remElement = remNode.getLldpElement();
+        return new LldpLink(node, port, port, "port" + port, "port" + port, LldpPortIdSubType.LLDP_PORTID_SUBTYPE_LOCAL,
+                remElement.getLldpChassisId(), remElement.getLldpSysname(), remElement.getLldpChassisIdSubType(),
+                "port" + remPort, LldpPortIdSubType.LLDP_PORTID_SUBTYPE_LOCAL, "port" + remPort);
+    }
+
+    /**
+     * Connects node i to node i+1 over the point-to-point network 10.x.y.z/30
+     * numbered after i.
+     */
+    private static List<OspfLink> createOspfRing(final int size) {
+        final List<OnmsNode> nodes = new ArrayList<OnmsNode>(size);
+        for (int i = 0; i < size; i++) {
+            final OnmsNode node = new OnmsNode();
+            node.setId(i + 1);
+            node.setLabel("node" + i);
+            nodes.add(node);
+        }
+
+        final List<OspfLink> links = new ArrayList<OspfLink>(2 * size);
+        for (int i = 0; i < size; i++) {
+            final int network = i * 4;
+            final String near = getAddress(network + 1);
+            final String far = getAddress(network + 2);
+            links.add(createOspfLink(nodes.get(i), near, far));
+            links.add(createOspfLink(nodes.get((i + 1) % size), far, near));
+        }
+        return links;
+    }
+
+    private static String getAddress(final int host) {
+        return "10." + ((host >> 16) & 0xff) + "." + ((host >> 8) & 0xff) + "." + (host & 0xff);
+    }
+
+    private static OspfLink createOspfLink(final OnmsNode node, final String ipAddr, final String remIpAddr) {
+        final OspfLink link = new OspfLink();
+        link.setNode(node);
+        link.setOspfIpAddr(InetAddressUtils.addr(ipAddr));
+        link.setOspfIpMask(InetAddressUtils.addr("255.255.255.252"));
+        link.setOspfRemIpAddr(InetAddressUtils.addr(remIpAddr));
+        return link;
+    }
+}
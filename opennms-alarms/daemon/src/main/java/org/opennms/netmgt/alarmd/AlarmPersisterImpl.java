@@ -28,8 +28,28 @@
 
 package org.opennms.netmgt.alarmd;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.criteria.CriteriaBuilder;
+import org.opennms.netmgt.alarmd.api.NorthboundAlarm;
+import org.opennms.netmgt.alarmd.api.Northbounder;
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.dao.api.OnmsDao;
 import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.model.OnmsEvent;
 import org.opennms.netmgt.model.OnmsSeverity;
@@ -37,19 +57,81 @@ import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.UpdateField;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.util.Assert;
 
 /**
  * Singleton to persist OnmsAlarms.
  *
+ * <p>The ID of the alarm for each reduction key is kept in memory, loaded
+ * when alarmd starts and kept up to date as alarms are created, so that
+ * reducing an event into an existing alarm doesn't have to search the alarms
+ * table.  Alarms changed or deleted by others are noticed when the alarm is
+ * loaded and the index is corrected.</p>
+ *
+ * <p>If <code>writeBehindInterval</code> is set, events reduced into an
+ * alarm that is already indexed are not written immediately: they are
+ * queued and applied every <code>writeBehindInterval</code> milliseconds,
+ * all of the events for each alarm in one transaction.  The northbound
+ * interfaces are then told about each changed alarm once, with its state as
+ * written.  Events that create an alarm are always written immediately.</p>
+ *
+ * <p>If <code>autoCleanInterval</code> is set, the previous events of
+ * auto-clean alarms are deleted by a sweep every
+ * <code>autoCleanInterval</code> milliseconds instead of with every
+ * reduction.</p>
+ *
+ * <p>Both default to 0 (disabled) and can be set with the
+ * <code>org.opennms.alarmd.writeBehindInterval</code> and
+ * <code>org.opennms.alarmd.autoCleanInterval</code> system properties.</p>
+ *
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  * @version $Id: $
  */
-public class AlarmPersisterImpl implements AlarmPersister {
+public class AlarmPersisterImpl implements AlarmPersister, InitializingBean, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(AlarmPersisterImpl.class);
 
+    public static final String WRITE_BEHIND_INTERVAL_PROPERTY = "org.opennms.alarmd.writeBehindInterval";
+
+    public static final String AUTO_CLEAN_INTERVAL_PROPERTY = "org.opennms.alarmd.autoCleanInterval";
+
+    /**
+     * Largest number of IDs in a single "in" query.
+     */
+    private static final int MAX_IDS_PER_QUERY = 1000;
+
     private AlarmDao m_alarmDao;
     private EventDao m_eventDao;
+    private TransactionOperations m_transactionOperations;
+    private List<Northbounder> m_northboundInterfaces;
+
+    private long m_writeBehindInterval = Long.getLong(WRITE_BEHIND_INTERVAL_PROPERTY, 0L);
+    private long m_autoCleanInterval = Long.getLong(AUTO_CLEAN_INTERVAL_PROPERTY, 0L);
+
+    /**
+     * Alarm IDs keyed by reduction key.
+     */
+    private final ConcurrentMap<String, Integer> m_alarmIds = new ConcurrentHashMap<String, Integer>();
+
+    private final Object m_pendingLock = new Object();
+
+    /**
+     * Events waiting to be reduced, in the order they arrived, keyed by the
+     * ID of the alarm they will be reduced into.
+     */
+    private Map<Integer, List<Event>> m_pendingReductions = new LinkedHashMap<Integer, List<Event>>();
+
+    /**
+     * Auto-clean alarms that have been reduced since the last sweep.
+     */
+    private Set<Integer> m_pendingAutoCleans = new LinkedHashSet<Integer>();
+
+    private ScheduledExecutorService m_executor;
 
     /** {@inheritDoc} 
      * @return */
@@ -60,30 +142,40 @@ public class AlarmPersisterImpl implements AlarmPersister {
         }
         LOG.debug("process: {}; nodeid: {}; ipaddr: {}; serviceid: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService());
 
-        return addOrReduceEventAsAlarm(event);
-    }
-
-    private OnmsAlarm addOrReduceEventAsAlarm(Event event) {
         //TODO: Understand why we use Assert
         Assert.notNull(event, "Incoming event was null, aborting"); 
         Assert.isTrue(event.getDbid() > 0, "Incoming event has an illegal dbid (" + event.getDbid() + "), aborting");
-        
-        
+
+        final Integer alarmId = m_alarmIds.get(event.getAlarmData().getReductionKey());
+        if (alarmId != null && m_writeBehindInterval > 0) {
+            LOG.debug("persist: queueing event {} for reduction into alarm {}", event.getDbid(), alarmId);
+            synchronized (m_pendingLock) {
+                List<Event> events = m_pendingReductions.get(alarmId);
+                if (events == null) {
+                    events = new ArrayList<Event>();
+                    m_pendingReductions.put(alarmId, events);
+                }
+                events.add(event);
+            }
+            // the northbound interfaces are told once it has been written
+            return null;
+        }
+
+        return addOrReduceEventAsAlarm(event, alarmId);
+    }
+
+    private OnmsAlarm addOrReduceEventAsAlarm(Event event, Integer alarmId) {
         //for some reason when we get here the event from the DB doesn't have the LogMsg (in my tests anyway)
         OnmsEvent e = m_eventDao.get(event.getDbid());
         Assert.notNull(e, "Event was deleted before we could retrieve it and create an alarm.");
     
         String reductionKey = event.getAlarmData().getReductionKey();
         LOG.debug("addOrReduceEventAsAlarm: looking for existing reduction key: {}", reductionKey);
-        OnmsAlarm alarm = m_alarmDao.findByReductionKey(reductionKey);
+        OnmsAlarm alarm = findAlarm(reductionKey, alarmId);
     
         if (alarm == null) {
             LOG.debug("addOrReduceEventAsAlarm: reductionKey:{} not found, instantiating new alarm", reductionKey);
-            alarm = createNewAlarm(e, event);
-            
-            //FIXME: this should be a cascaded save
-            m_alarmDao.save(alarm);
-            m_eventDao.saveOrUpdate(e);
+            alarm = createAlarm(e, event);
         } else {
             LOG.debug("addOrReduceEventAsAlarm: reductionKey:{} found, reducing event to existing alarm: {}", reductionKey, alarm.getIpAddr());
             reduceEvent(e, alarm, event);
@@ -91,13 +183,261 @@ public class AlarmPersisterImpl implements AlarmPersister {
             m_eventDao.update(e);
     
             if (event.getAlarmData().isAutoClean()) {
-                m_eventDao.deletePreviousEventsForAlarm(alarm.getId(), e);
+                autoClean(alarm, e);
             }
         }
         
         return alarm;
     }
 
+    private OnmsAlarm createAlarm(OnmsEvent e, Event event) {
+        OnmsAlarm alarm = createNewAlarm(e, event);
+
+        //FIXME: this should be a cascaded save
+        m_alarmDao.save(alarm);
+        m_eventDao.saveOrUpdate(e);
+
+        m_alarmIds.put(alarm.getReductionKey(), alarm.getId());
+        return alarm;
+    }
+
+    /**
+     * Returns the alarm for a reduction key, trying the indexed alarm ID
+     * first and correcting the index if it turns out to be stale.
+     */
+    private OnmsAlarm findAlarm(String reductionKey, Integer alarmId) {
+        if (alarmId != null) {
+            final OnmsAlarm alarm = m_alarmDao.get(alarmId);
+            if (alarm != null && reductionKey.equals(alarm.getReductionKey())) {
+                return alarm;
+            }
+            m_alarmIds.remove(reductionKey, alarmId);
+        }
+
+        final OnmsAlarm alarm = m_alarmDao.findByReductionKey(reductionKey);
+        if (alarm != null) {
+            m_alarmIds.put(reductionKey, alarm.getId());
+        }
+        return alarm;
+    }
+
+    private void autoClean(OnmsAlarm alarm, OnmsEvent e) {
+        if (m_autoCleanInterval > 0) {
+            synchronized (m_pendingLock) {
+                m_pendingAutoCleans.add(alarm.getId());
+            }
+        } else {
+            m_eventDao.deletePreviousEventsForAlarm(alarm.getId(), e);
+        }
+    }
+
+    /**
+     * Writes the queued reductions and tells the northbound interfaces about
+     * the alarms that changed.
+     */
+    public void flushReductions() {
+        final Map<Integer, List<Event>> pending;
+        synchronized (m_pendingLock) {
+            if (m_pendingReductions.isEmpty()) {
+                return;
+            }
+            pending = m_pendingReductions;
+            m_pendingReductions = new LinkedHashMap<Integer, List<Event>>();
+        }
+
+        List<NorthboundAlarm> changed;
+        try {
+            changed = writeReductions(pending);
+        } catch (final Throwable t) {
+            LOG.warn("Unable to reduce events into {} alarms in one transaction; retrying each alarm on its own.", pending.size(), t);
+            changed = new ArrayList<NorthboundAlarm>();
+            for (final Map.Entry<Integer, List<Event>> entry : pending.entrySet()) {
+                try {
+                    changed.addAll(writeReductions(Collections.singletonMap(entry.getKey(), entry.getValue())));
+                } catch (final Throwable t2) {
+                    LOG.error("Unable to reduce {} events into alarm {}; discarding them.", entry.getValue().size(), entry.getKey(), t2);
+                }
+            }
+        }
+
+        if (m_northboundInterfaces != null) {
+            for (final NorthboundAlarm alarm : changed) {
+                for (final Northbounder nbi : m_northboundInterfaces) {
+                    nbi.onAlarm(alarm);
+                }
+            }
+        }
+    }
+
+    private List<NorthboundAlarm> writeReductions(final Map<Integer, List<Event>> pending) {
+        return m_transactionOperations.execute(new TransactionCallback<List<NorthboundAlarm>>() {
+            @Override
+            public List<NorthboundAlarm> doInTransaction(final TransactionStatus status) {
+                final List<Integer> eventIds = new ArrayList<Integer>();
+                for (final List<Event> events : pending.values()) {
+                    for (final Event event : events) {
+                        eventIds.add(event.getDbid());
+                    }
+                }
+                final Map<Integer, OnmsAlarm> alarms = new HashMap<Integer, OnmsAlarm>();
+                for (final OnmsAlarm alarm : findByIds(m_alarmDao, OnmsAlarm.class, pending.keySet())) {
+                    alarms.put(alarm.getId(), alarm);
+                }
+                final Map<Integer, OnmsEvent> onmsEvents = new HashMap<Integer, OnmsEvent>();
+                for (final OnmsEvent e : findByIds(m_eventDao, OnmsEvent.class, eventIds)) {
+                    onmsEvents.put(e.getId(), e);
+                }
+
+                final Map<Integer, OnmsAlarm> changed = new LinkedHashMap<Integer, OnmsAlarm>();
+                for (final Map.Entry<Integer, List<Event>> entry : pending.entrySet()) {
+                    OnmsAlarm alarm = alarms.get(entry.getKey());
+                    for (final Event event : entry.getValue()) {
+                        final OnmsEvent e = onmsEvents.get(event.getDbid());
+                        if (e == null) {
+                            LOG.warn("writeReductions: event {} was deleted before it could be reduced into alarm {}", event.getDbid(), entry.getKey());
+                            continue;
+                        }
+
+                        final String reductionKey = event.getAlarmData().getReductionKey();
+                        if (alarm == null || !reductionKey.equals(alarm.getReductionKey())) {
+                            // the alarm was deleted or changed since it was indexed
+                            m_alarmIds.remove(reductionKey, entry.getKey());
+                            alarm = findAlarm(reductionKey, null);
+                        }
+
+                        if (alarm == null) {
+                            LOG.debug("writeReductions: reductionKey:{} not found, instantiating new alarm", reductionKey);
+                            alarm = createAlarm(e, event);
+                        } else {
+                            reduceEvent(e, alarm, event);
+                            m_alarmDao.update(alarm);
+                            m_eventDao.update(e);
+
+                            if (event.getAlarmData().isAutoClean()) {
+                                autoClean(alarm, e);
+                            }
+                        }
+                        changed.put(alarm.getId(), alarm);
+                    }
+                }
+
+                LOG.debug("writeReductions: reduced {} events into {} alarms", eventIds.size(), changed.size());
+
+                final List<NorthboundAlarm> northboundAlarms = new ArrayList<NorthboundAlarm>(changed.size());
+                for (final OnmsAlarm alarm : changed.values()) {
+                    if (alarm.getServiceType() != null) {
+                        alarm.getServiceType().getName(); // To avoid potential LazyInitializationException when dealing with NorthboundAlarm
+                    }
+                    northboundAlarms.add(new NorthboundAlarm(alarm));
+                }
+                return northboundAlarms;
+            }
+        });
+    }
+
+    private static <T> List<T> findByIds(final OnmsDao<T, Integer> dao, final Class<T> clazz, final Collection<Integer> ids) {
+        final List<Integer> idList = new ArrayList<Integer>(ids);
+        final List<T> found = new ArrayList<T>(idList.size());
+        for (int i = 0; i < idList.size(); i += MAX_IDS_PER_QUERY) {
+            final List<Integer> chunk = idList.subList(i, Math.min(idList.size(), i + MAX_IDS_PER_QUERY));
+            found.addAll(dao.findMatching(new CriteriaBuilder(clazz).in("id", chunk).toCriteria()));
+        }
+        return found;
+    }
+
+    /**
+     * Deletes all but the last event of the auto-clean alarms that have
+     * been reduced since the last sweep.
+     */
+    public void sweepAutoCleans() {
+        final Set<Integer> alarmIds;
+        synchronized (m_pendingLock) {
+            if (m_pendingAutoCleans.isEmpty()) {
+                return;
+            }
+            alarmIds = m_pendingAutoCleans;
+            m_pendingAutoCleans = new LinkedHashSet<Integer>();
+        }
+
+        try {
+            m_transactionOperations.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                    int deleted = 0;
+                    for (final OnmsAlarm alarm : findByIds(m_alarmDao, OnmsAlarm.class, alarmIds)) {
+                        if (alarm.getLastEvent() != null) {
+                            deleted += m_eventDao.deletePreviousEventsForAlarm(alarm.getId(), alarm.getLastEvent());
+                        }
+                    }
+                    LOG.debug("sweepAutoCleans: deleted {} previous events of {} alarms", deleted, alarmIds.size());
+                }
+            });
+        } catch (final Throwable t) {
+            LOG.warn("Unable to delete the previous events of {} auto-clean alarms", alarmIds.size(), t);
+        }
+    }
+
+    /**
+     * Loads the reduction keys of the existing alarms and starts the
+     * write-behind and auto-clean threads if they are enabled.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        Assert.state(m_alarmDao != null, "alarmDao property must be set");
+        Assert.state(m_eventDao != null, "eventDao property must be set");
+
+        if (m_transactionOperations == null) {
+            Assert.state(m_writeBehindInterval <= 0 && m_autoCleanInterval <= 0, "transactionOperations property must be set to write alarms behind or clean them later");
+            return;
+        }
+
+        m_transactionOperations.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                m_alarmIds.putAll(m_alarmDao.getAlarmIdsByReductionKey());
+            }
+        });
+        LOG.info("Indexed the reduction keys of {} alarms", m_alarmIds.size());
+
+        if (m_writeBehindInterval > 0 || m_autoCleanInterval > 0) {
+            m_executor = Executors.newSingleThreadScheduledExecutor(new LogPreservingThreadFactory(getClass().getSimpleName(), 1));
+        }
+        if (m_writeBehindInterval > 0) {
+            m_executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flushReductions();
+                }
+            }, m_writeBehindInterval, m_writeBehindInterval, TimeUnit.MILLISECONDS);
+        }
+        if (m_autoCleanInterval > 0) {
+            m_executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    sweepAutoCleans();
+                }
+            }, m_autoCleanInterval, m_autoCleanInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes anything still queued and stops the background threads.
+     *
+     * @throws java.lang.InterruptedException if any.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        if (m_executor != null) {
+            m_executor.shutdown();
+            m_executor.awaitTermination(1, TimeUnit.MINUTES);
+            m_executor = null;
+        }
+        if (m_transactionOperations != null) {
+            flushReductions();
+            sweepAutoCleans();
+        }
+    }
+
     private static void reduceEvent(OnmsEvent e, OnmsAlarm alarm, Event event) {
         
         //Always set these
@@ -254,4 +594,40 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return m_eventDao;
     }
 
+    public TransactionOperations getTransactionOperations() {
+        return m_transactionOperations;
+    }
+
+    public void setTransactionOperations(TransactionOperations transactionOperations) {
+        m_transactionOperations = transactionOperations;
+    }
+
+    public List<Northbounder> getNorthboundInterfaces() {
+        return m_northboundInterfaces;
+    }
+
+    /**
+     * Sets the northbound interfaces that are told about alarms changed by
+     * write-behind reductions.
+     */
+    public void setNorthboundInterfaces(List<Northbounder> northboundInterfaces) {
+        m_northboundInterfaces = northboundInterfaces;
+    }
+
+    public long getWriteBehindInterval() {
+        return m_writeBehindInterval;
+    }
+
+    public void setWriteBehindInterval(long writeBehindInterval) {
+        m_writeBehindInterval = writeBehindInterval;
+    }
+
+    public long getAutoCleanInterval() {
+        return m_autoCleanInterval;
+    }
+
+    public void setAutoCleanInterval(long autoCleanInterval) {
+        m_autoCleanInterval = autoCleanInterval;
+    }
+
 }
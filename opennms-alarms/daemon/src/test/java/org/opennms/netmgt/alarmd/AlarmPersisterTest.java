@@ -28,18 +28,39 @@
 
 package org.opennms.netmgt.alarmd;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.opennms.core.spring.BeanUtils;
 import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.MockDatabase;
+import org.opennms.core.test.db.TemporaryDatabaseAware;
 import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.netmgt.alarmd.api.NorthboundAlarm;
+import org.opennms.netmgt.alarmd.api.Northbounder;
+import org.opennms.netmgt.alarmd.api.NorthbounderException;
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.dao.api.EventDao;
 import org.opennms.netmgt.dao.mock.MockEventIpcManager;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.AlarmData;
+import org.opennms.netmgt.xml.event.Event;
 import org.opennms.test.JUnitConfigurationEnvironment;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ContextConfiguration;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * AlarmPersting tests
@@ -57,8 +78,8 @@ import org.springframework.test.context.ContextConfiguration;
         "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml"
 })
 @JUnitConfigurationEnvironment
-@JUnitTemporaryDatabase
-public class AlarmPersisterTest implements InitializingBean {
+@JUnitTemporaryDatabase(tempDbClass=MockDatabase.class)
+public class AlarmPersisterTest implements TemporaryDatabaseAware<MockDatabase>, InitializingBean {
 
     @Autowired
     private MockEventIpcManager m_mockEventIpcManager;
@@ -69,6 +90,19 @@ public class AlarmPersisterTest implements InitializingBean {
     @Autowired
     private EventDao m_eventDao;
 
+    @Autowired
+    private TransactionTemplate m_transactionTemplate;
+
+    @Autowired
+    private JdbcTemplate m_jdbcTemplate;
+
+    private MockDatabase m_database;
+
+    @Override
+    public void setTemporaryDatabase(final MockDatabase database) {
+        m_database = database;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         BeanUtils.assertAutowiring(this);
@@ -79,4 +113,97 @@ public class AlarmPersisterTest implements InitializingBean {
         // Do something?
     }
 
+    @Test
+    public void testWriteBehind() throws Exception {
+        final List<NorthboundAlarm> northboundAlarms = new ArrayList<NorthboundAlarm>();
+        final Northbounder northbounder = new Northbounder() {
+            @Override
+            public void start() throws NorthbounderException {
+            }
+
+            @Override
+            public void onAlarm(final NorthboundAlarm alarm) throws NorthbounderException {
+                northboundAlarms.add(alarm);
+            }
+
+            @Override
+            public void stop() throws NorthbounderException {
+            }
+
+            @Override
+            public String getName() {
+                return "AlarmPersisterTest";
+            }
+        };
+
+        final AlarmPersisterImpl persister = new AlarmPersisterImpl();
+        persister.setAlarmDao(m_alarmDao);
+        persister.setEventDao(m_eventDao);
+        persister.setTransactionOperations(m_transactionTemplate);
+        persister.setNorthboundInterfaces(Collections.singletonList(northbounder));
+        // long enough that only the explicit flush below writes anything
+        persister.setWriteBehindInterval(60000);
+        persister.afterPropertiesSet();
+
+        try {
+            // the first event creates the alarm right away
+            final OnmsAlarm alarm = persistInTransaction(persister, createEvent("writeBehind"));
+            assertNotNull(alarm);
+            assertEquals(1, getCounter("writeBehind"));
+
+            // the rest are queued
+            for (int i = 0; i < 4; i++) {
+                assertNull(persistInTransaction(persister, createEvent("writeBehind")));
+            }
+            assertEquals(1, getCounter("writeBehind"));
+            assertEquals(0, northboundAlarms.size());
+
+            persister.flushReductions();
+            assertEquals(5, getCounter("writeBehind"));
+            assertEquals(1, m_jdbcTemplate.queryForObject("select count(*) from alarms", Integer.class).intValue());
+
+            // the northbound interfaces hear about the alarm once, as written
+            assertEquals(1, northboundAlarms.size());
+            assertEquals(alarm.getId(), northboundAlarms.get(0).getId());
+            assertEquals(Integer.valueOf(5), northboundAlarms.get(0).getCount());
+
+            // an alarm deleted behind our back is recreated when the queue is written
+            m_jdbcTemplate.update("update events set alarmId = null");
+            m_jdbcTemplate.update("delete from alarms");
+            assertNull(persistInTransaction(persister, createEvent("writeBehind")));
+            persister.flushReductions();
+            assertEquals(1, getCounter("writeBehind"));
+        } finally {
+            persister.destroy();
+        }
+    }
+
+    private OnmsAlarm persistInTransaction(final AlarmPersister persister, final Event event) {
+        return m_transactionTemplate.execute(new TransactionCallback<OnmsAlarm>() {
+            @Override
+            public OnmsAlarm doInTransaction(final TransactionStatus status) {
+                return persister.persist(event);
+            }
+        });
+    }
+
+    private Event createEvent(final String reductionKey) {
+        final EventBuilder bldr = new EventBuilder("uei.opennms.org/test/writeBehind", "AlarmPersisterTest");
+        bldr.setLogMessage("testing");
+        bldr.setSeverity("Major");
+
+        final AlarmData data = new AlarmData();
+        data.setAlarmType(1);
+        data.setReductionKey(reductionKey);
+        bldr.setAlarmData(data);
+
+        final Event event = bldr.getEvent();
+        m_database.writeEvent(event);
+        return event;
+    }
+
+    private int getCounter(final String reductionKey) {
+        return m_jdbcTemplate.queryForObject("select counter from alarms where reductionKey = ?", new Object[] { reductionKey }, Integer.class).intValue();
+    }
+
 }
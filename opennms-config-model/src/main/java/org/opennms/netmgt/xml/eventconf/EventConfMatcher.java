@@ -0,0 +1,407 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_EID;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_GENERIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_SPECIFIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_UEI;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.opennms.netmgt.xml.event.Snmp;
+
+/**
+ * An immutable, pre-compiled index over all of the event definitions of a
+ * root {@link Events} object and its loaded event files.
+ *
+ * <p>Every definition is assigned an ordinal in the same depth-first order
+ * used by {@link EventOrdering} and then filed under the most selective key
+ * its mask allows: an exact UEI, an exact enterprise-id or an enterprise-id
+ * prefix (stored in a character trie).  Definitions that can't be keyed
+ * (regular expressions, or masks that don't constrain either field) are kept
+ * in a single unindexed list.</p>
+ *
+ * <p>A lookup merges the candidate lists that apply to the incoming event in
+ * ordinal order, rejects candidates whose generic/specific constraints can't
+ * match, and runs the full {@link Event#matches(org.opennms.netmgt.xml.event.Event)}
+ * (including varbind constraints) on what is left.  The first definition that
+ * matches is the same one {@link Events#findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}
+ * would return.</p>
+ *
+ * <p>The matcher must be recompiled whenever the underlying events are
+ * re-initialized.</p>
+ */
+public class EventConfMatcher {
+
+    private static final Candidate[] EMPTY_CANDIDATES = new Candidate[0];
+
+    /**
+     * A single event definition along with its position in the global
+     * ordering and the cheap pre-checks derived from its mask.
+     */
+    private static final class Candidate {
+        private final int m_ordinal;
+        private final Event m_event;
+        private final int[] m_generic;
+        private final int[] m_specific;
+
+        private Candidate(final int ordinal, final Event event) {
+            m_ordinal = ordinal;
+            m_event = event;
+            m_generic = intValues(event, TAG_SNMP_GENERIC);
+            m_specific = intValues(event, TAG_SNMP_SPECIFIC);
+        }
+
+        private boolean matches(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+            if (m_generic != null || m_specific != null) {
+                final Snmp snmp = matchingEvent.getSnmp();
+                if (snmp == null) {
+                    return false;
+                }
+                if (m_generic != null && (!snmp.hasGeneric() || !contains(m_generic, snmp.getGeneric()))) {
+                    return false;
+                }
+                if (m_specific != null && (!snmp.hasSpecific() || !contains(m_specific, snmp.getSpecific()))) {
+                    return false;
+                }
+            }
+            return m_event.matches(matchingEvent);
+        }
+
+        private static boolean contains(final int[] values, final int value) {
+            for (final int v : values) {
+                if (v == value) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Returns the integer values of the named mask element, or null if
+         * the element is absent or has any value that isn't a plain integer
+         * (in which case the full matcher is left to decide).
+         */
+        private static int[] intValues(final Event event, final String mename) {
+            final List<String> values = maskElementValues(event, mename);
+            if (values == null) return null;
+            final int[] result = new int[values.size()];
+            int i = 0;
+            for (final String value : values) {
+                if (value == null) return null;
+                try {
+                    result[i++] = Integer.parseInt(value);
+                } catch (final NumberFormatException e) {
+                    return null;
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Node in the enterprise-id prefix trie.  Children are kept in sorted
+     * parallel arrays once the trie is frozen.
+     */
+    private static final class TrieNode {
+        private final TreeMap<Character, TrieNode> m_building = new TreeMap<Character, TrieNode>();
+        private final List<Candidate> m_buildingCandidates = new ArrayList<Candidate>(0);
+
+        private char[] m_keys;
+        private TrieNode[] m_children;
+        private Candidate[] m_candidates;
+
+        private void add(final String prefix, final Candidate candidate) {
+            TrieNode node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                final Character c = Character.valueOf(prefix.charAt(i));
+                TrieNode child = node.m_building.get(c);
+                if (child == null) {
+                    child = new TrieNode();
+                    node.m_building.put(c, child);
+                }
+                node = child;
+            }
+            node.m_buildingCandidates.add(candidate);
+        }
+
+        private void freeze() {
+            m_keys = new char[m_building.size()];
+            m_children = new TrieNode[m_building.size()];
+            int i = 0;
+            for (final Map.Entry<Character, TrieNode> entry : m_building.entrySet()) {
+                m_keys[i] = entry.getKey().charValue();
+                m_children[i] = entry.getValue();
+                m_children[i].freeze();
+                i++;
+            }
+            m_building.clear();
+            m_candidates = toSortedArray(m_buildingCandidates);
+            m_buildingCandidates.clear();
+        }
+
+        private TrieNode child(final char c) {
+            int low = 0;
+            int high = m_keys.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final char key = m_keys[mid];
+                if (key < c) {
+                    low = mid + 1;
+                } else if (key > c) {
+                    high = mid - 1;
+                } else {
+                    return m_children[mid];
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Map<String, Candidate[]> m_byUei;
+    private final Map<String, Candidate[]> m_byEnterpriseId;
+    private final TrieNode m_enterpriseIdPrefixes;
+    private final Candidate[] m_unindexed;
+    private final int m_eventCount;
+
+    private EventConfMatcher(final List<Event> events) {
+        final Map<String, List<Candidate>> byUei = new HashMap<String, List<Candidate>>();
+        final Map<String, List<Candidate>> byEnterpriseId = new HashMap<String, List<Candidate>>();
+        final TrieNode prefixes = new TrieNode();
+        final List<Candidate> unindexed = new ArrayList<Candidate>();
+
+        int ordinal = 0;
+        for (final Event event : events) {
+            final Candidate candidate = new Candidate(ordinal++, event);
+            final Mask mask = event.getMask();
+            if (mask == null || mask.getMaskelementCount() <= 0) {
+                // matched on the UEI alone, and never matches without one
+                if (event.getUei() != null) {
+                    addTo(byUei, event.getUei(), candidate);
+                }
+                continue;
+            }
+
+            final List<String> ueis = maskElementValues(event, TAG_UEI);
+            if (ueis != null && isExact(ueis)) {
+                for (final String uei : ueis) {
+                    addTo(byUei, uei, candidate);
+                }
+                continue;
+            }
+
+            final List<String> ids = maskElementValues(event, TAG_SNMP_EID);
+            if (ids != null && isIndexable(ids)) {
+                for (final String id : ids) {
+                    if (id.endsWith("%")) {
+                        prefixes.add(id.substring(0, id.length() - 1), candidate);
+                    } else {
+                        addTo(byEnterpriseId, id, candidate);
+                    }
+                }
+                continue;
+            }
+
+            unindexed.add(candidate);
+        }
+
+        m_byUei = freeze(byUei);
+        m_byEnterpriseId = freeze(byEnterpriseId);
+        prefixes.freeze();
+        m_enterpriseIdPrefixes = prefixes;
+        m_unindexed = toSortedArray(unindexed);
+        m_eventCount = ordinal;
+    }
+
+    /**
+     * Compiles a matcher for the given (already initialized) root events.
+     *
+     * @param events the root event configuration
+     * @return a new, immutable matcher
+     */
+    public static EventConfMatcher compile(final Events events) {
+        final List<Event> allEvents = events.forEachEvent(new ArrayList<Event>(), new Events.EventCallback<List<Event>>() {
+            @Override
+            public List<Event> process(final List<Event> accum, final Event event) {
+                accum.add(event);
+                return accum;
+            }
+        });
+        return new EventConfMatcher(allEvents);
+    }
+
+    /**
+     * @return the number of event definitions known to this matcher
+     */
+    public int getEventCount() {
+        return m_eventCount;
+    }
+
+    /**
+     * Finds the first event definition, in configuration order, that
+     * matches the given event.
+     *
+     * @param matchingEvent the event to match
+     * @return the matching definition, or null if none matches
+     */
+    public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        final List<Candidate[]> lists = new ArrayList<Candidate[]>(4);
+
+        final String uei = matchingEvent.getUei();
+        if (uei != null) {
+            addIfNotEmpty(lists, m_byUei.get(uei));
+        }
+
+        final String enterpriseId = matchingEvent.getSnmp() == null ? null : matchingEvent.getSnmp().getId();
+        if (enterpriseId != null) {
+            addIfNotEmpty(lists, m_byEnterpriseId.get(enterpriseId));
+            TrieNode node = m_enterpriseIdPrefixes;
+            addIfNotEmpty(lists, node.m_candidates);
+            for (int i = 0; i < enterpriseId.length() && node != null; i++) {
+                node = node.child(enterpriseId.charAt(i));
+                if (node != null) {
+                    addIfNotEmpty(lists, node.m_candidates);
+                }
+            }
+        }
+
+        addIfNotEmpty(lists, m_unindexed);
+
+        switch (lists.size()) {
+        case 0:
+            return null;
+        case 1:
+            for (final Candidate candidate : lists.get(0)) {
+                if (candidate.matches(matchingEvent)) {
+                    return candidate.m_event;
+                }
+            }
+            return null;
+        default:
+            return mergeAndMatch(lists, matchingEvent);
+        }
+    }
+
+    /**
+     * Walks several ordinal-sorted candidate lists as if they were one,
+     * skipping definitions that appear in more than one list.
+     */
+    private static Event mergeAndMatch(final List<Candidate[]> lists, final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        final int count = lists.size();
+        final int[] positions = new int[count];
+        int lastOrdinal = -1;
+        while (true) {
+            int best = -1;
+            int bestOrdinal = Integer.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                final Candidate[] list = lists.get(i);
+                if (positions[i] < list.length && list[positions[i]].m_ordinal < bestOrdinal) {
+                    best = i;
+                    bestOrdinal = list[positions[i]].m_ordinal;
+                }
+            }
+            if (best < 0) {
+                return null;
+            }
+            final Candidate candidate = lists.get(best)[positions[best]++];
+            if (candidate.m_ordinal == lastOrdinal) {
+                continue;
+            }
+            lastOrdinal = candidate.m_ordinal;
+            if (candidate.matches(matchingEvent)) {
+                return candidate.m_event;
+            }
+        }
+    }
+
+    private static void addIfNotEmpty(final List<Candidate[]> lists, final Candidate[] candidates) {
+        if (candidates != null && candidates.length > 0) {
+            lists.add(candidates);
+        }
+    }
+
+    private static List<String> maskElementValues(final Event event, final String mename) {
+        return event.getMask() == null ? null : event.getMask().getMaskElementValues(mename);
+    }
+
+    private static boolean isExact(final List<String> values) {
+        for (final String value : values) {
+            if (value == null || value.startsWith("~") || value.endsWith("%")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isIndexable(final List<String> values) {
+        for (final String value : values) {
+            if (value == null || value.startsWith("~")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addTo(final Map<String, List<Candidate>> index, final String key, final Candidate candidate) {
+        List<Candidate> candidates = index.get(key);
+        if (candidates == null) {
+            candidates = new ArrayList<Candidate>(1);
+            index.put(key, candidates);
+        }
+        // an event listing the same value twice only needs to be checked once
+        if (candidates.isEmpty() || candidates.get(candidates.size() - 1) != candidate) {
+            candidates.add(candidate);
+        }
+    }
+
+    private static Map<String, Candidate[]> freeze(final Map<String, List<Candidate>> index) {
+        final Map<String, Candidate[]> frozen = new HashMap<String, Candidate[]>(index.size() * 2);
+        for (final Map.Entry<String, List<Candidate>> entry : index.entrySet()) {
+            frozen.put(entry.getKey(), toSortedArray(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(frozen);
+    }
+
+    /**
+     * Candidates are always added in ordinal order, so this only has to
+     * convert to an array.
+     */
+    private static Candidate[] toSortedArray(final List<Candidate> candidates) {
+        return candidates.isEmpty() ? EMPTY_CANDIDATES : candidates.toArray(new Candidate[candidates.size()]);
+    }
+
+    @Override
+    public String toString() {
+        return "EventConfMatcher[events=" + m_eventCount + ", ueis=" + m_byUei.size() + ", enterpriseIds=" + m_byEnterpriseId.size() + ", unindexed=" + m_unindexed.length + "]";
+    }
+}
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.event.Snmp;
+
+public class EventConfMatcherTest {
+
+    /**
+     * Same partitioning as the DefaultEventConfDao so that the results of
+     * Events.findFirstMatchingEvent() can be used as a reference.
+     */
+    private static class EnterpriseIdPartition implements Partition {
+        private final Field m_field = EventMatchers.field("id");
+
+        @Override
+        public List<String> group(final Event eventConf) {
+            final List<String> keys = eventConf.getMaskElementValues("id");
+            if (keys == null) return null;
+            for (final String key : keys) {
+                if (key.endsWith("%")) return null;
+                if (key.startsWith("~")) return null;
+            }
+            return keys;
+        }
+
+        @Override
+        public String group(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+            return m_field.get(matchingEvent);
+        }
+    }
+
+    private Events m_root;
+    private Events m_subFile;
+
+    @Before
+    public void setUp() {
+        m_root = new Events();
+        m_root.addEvent(event("uei.example.org/root/exact", null));
+        m_root.addEvent(trap("uei.example.org/root/exactTrap", ".1.3.6.1.4.1.9.9.41", "6", "1"));
+
+        m_subFile = new Events();
+        m_subFile.addEvent(trap("uei.example.org/sub/prefixTrap", ".1.3.6.1.4.1.9%", "6", null));
+        m_subFile.addEvent(trap("uei.example.org/sub/exactTrap", ".1.3.6.1.4.1.9.9.41", "6", "2"));
+        m_subFile.addEvent(trap("uei.example.org/sub/regexTrap", "~^\\.1\\.3\\.6\\.1\\.4\\.1\\.2636\\..*", "6", null));
+        m_subFile.addEvent(varbindTrap("uei.example.org/sub/varbindTrap", ".1.3.6.1.4.1.2021", "6", "3", 1, "up"));
+        m_subFile.addEvent(trap("uei.example.org/sub/anyTrap", "%", null, null));
+        m_subFile.addEvent(event("uei.example.org/root/exact", null));
+        m_root.addLoadedEventFile("events/sub.events.xml", m_subFile);
+
+        m_root.initialize(new EnterpriseIdPartition(), new EventOrdering());
+    }
+
+    @Test
+    public void testUei() {
+        assertMatches("uei.example.org/root/exact", uei("uei.example.org/root/exact"));
+        assertMatches(null, uei("uei.example.org/unknown"));
+    }
+
+    @Test
+    public void testExactEnterpriseIdBeforePrefix() {
+        // the root file wins over the sub-file prefix match
+        assertMatches("uei.example.org/root/exactTrap", snmp(".1.3.6.1.4.1.9.9.41", 6, 1));
+        // the sub-file prefix match comes before the sub-file exact match
+        assertMatches("uei.example.org/sub/prefixTrap", snmp(".1.3.6.1.4.1.9.9.41", 6, 2));
+        // generic doesn't match the prefix, so fall through to the catch-all
+        assertMatches("uei.example.org/sub/anyTrap", snmp(".1.3.6.1.4.1.9.9.41", 0, 0));
+    }
+
+    @Test
+    public void testRegexEnterpriseId() {
+        assertMatches("uei.example.org/sub/regexTrap", snmp(".1.3.6.1.4.1.2636.4.5", 6, 7));
+    }
+
+    @Test
+    public void testVarbind() {
+        final org.opennms.netmgt.xml.event.Event up = snmp(".1.3.6.1.4.1.2021", 6, 3);
+        up.addParm(new Parm(".1.3.6.1.4.1.2021.1", "up"));
+        assertMatches("uei.example.org/sub/varbindTrap", up);
+
+        final org.opennms.netmgt.xml.event.Event down = snmp(".1.3.6.1.4.1.2021", 6, 3);
+        down.addParm(new Parm(".1.3.6.1.4.1.2021.1", "down"));
+        assertMatches("uei.example.org/sub/anyTrap", down);
+    }
+
+    @Test
+    public void testNoEnterpriseId() {
+        final org.opennms.netmgt.xml.event.Event event = new org.opennms.netmgt.xml.event.Event();
+        event.setSnmp(new Snmp());
+        assertMatches(null, event);
+    }
+
+    @Test
+    public void testRecompileAfterAddingEvent() {
+        final org.opennms.netmgt.xml.event.Event event = uei("uei.example.org/root/added");
+        assertMatches(null, event);
+
+        m_root.addEvent(0, event("uei.example.org/root/added", null));
+        m_root.initialize(new EnterpriseIdPartition(), new EventOrdering());
+        assertMatches("uei.example.org/root/added", event);
+    }
+
+    @Test
+    public void testEventCount() {
+        assertEquals(8, EventConfMatcher.compile(m_root).getEventCount());
+    }
+
+    private void assertMatches(final String expectedUei, final org.opennms.netmgt.xml.event.Event event) {
+        final Event expected = m_root.findFirstMatchingEvent(event);
+        final Event actual = EventConfMatcher.compile(m_root).findFirstMatchingEvent(event);
+        assertSame(expected, actual);
+        if (expectedUei == null) {
+            assertNull(actual);
+        } else {
+            assertEquals(expectedUei, actual.getUei());
+        }
+    }
+
+    private static org.opennms.netmgt.xml.event.Event uei(final String uei) {
+        final org.opennms.netmgt.xml.event.Event event = new org.opennms.netmgt.xml.event.Event();
+        event.setUei(uei);
+        return event;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event snmp(final String id, final int generic, final int specific) {
+        final Snmp snmp = new Snmp();
+        snmp.setId(id);
+        snmp.setGeneric(generic);
+        snmp.setSpecific(specific);
+        final org.opennms.netmgt.xml.event.Event event = new org.opennms.netmgt.xml.event.Event();
+        event.setSnmp(snmp);
+        return event;
+    }
+
+    private static Event event(final String uei, final Mask mask) {
+        final Event event = new Event();
+        event.setUei(uei);
+        event.setMask(mask);
+        return event;
+    }
+
+    private static Event trap(final String uei, final String id, final String generic, final String specific) {
+        final Mask mask = new Mask();
+        mask.addMaskelement(maskElement("id", id));
+        if (generic != null) {
+            mask.addMaskelement(maskElement("generic", generic));
+        }
+        if (specific != null) {
+            mask.addMaskelement(maskElement("specific", specific));
+        }
+        return event(uei, mask);
+    }
+
+    private static Event varbindTrap(final String uei, final String id, final String generic, final String specific, final int vbnumber, final String value) {
+        final Event event = trap(uei, id, generic, specific);
+        final Varbind varbind = new Varbind();
+        varbind.setVbnumber(vbnumber);
+        varbind.setVbvalue(Arrays.asList(value));
+        event.getMask().addVarbind(varbind);
+        return event;
+    }
+
+    private static Maskelement maskElement(final String name, final String value) {
+        final Maskelement element = new Maskelement();
+        element.setMename(name);
+        element.addMevalue(value);
+        return element;
+    }
+}
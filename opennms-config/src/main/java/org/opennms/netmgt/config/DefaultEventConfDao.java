@@ -44,6 +44,7 @@ import java.util.TreeSet;
 import org.opennms.core.xml.JaxbUtils;
 import org.opennms.netmgt.config.api.EventConfDao;
 import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.EventConfMatcher;
 import org.opennms.netmgt.xml.eventconf.EventMatchers;
 import org.opennms.netmgt.xml.eventconf.EventOrdering;
 import org.opennms.netmgt.xml.eventconf.Events;
@@ -67,6 +68,12 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 	private Events m_events;
 
+	/**
+	 * Compiled index over m_events used by findByEvent(); rebuilt every time
+	 * the events are re-initialized.
+	 */
+	private volatile EventConfMatcher m_matcher;
+
 	private Resource m_configResource;
 
 	private Partition m_partition;
@@ -190,7 +197,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 	@Override
 	public void addEvent(Event event) {
 		m_events.addEvent(event);
-		m_events.initialize(m_partition, new EventOrdering());
+		initializeEvents(m_events);
 	}
 
 	@Override
@@ -202,7 +209,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 		}
 
 		programmaticEvents.addEvent(event);
-		m_events.initialize(m_partition, new EventOrdering());
+		initializeEvents(m_events);
 
 	}
 
@@ -216,7 +223,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 			m_events.removeLoadedEventFile(m_programmaticStoreRelativePath);
 		} 
 
-		m_events.initialize(m_partition, new EventOrdering());
+		initializeEvents(m_events);
 
 		return true;
 
@@ -241,7 +248,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 	@Override
 	public Event findByEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
-		return m_events.findFirstMatchingEvent(matchingEvent);
+		return m_matcher.findFirstMatchingEvent(matchingEvent);
 	}
 
 	@Override
@@ -283,6 +290,20 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 		
 	}
 
+    /**
+     * Orders the given events and compiles the matcher used by findByEvent().
+     * When called on the active events the new matcher is published
+     * immediately.
+     */
+    private EventConfMatcher initializeEvents(final Events events) {
+        events.initialize(m_partition, new EventOrdering());
+        final EventConfMatcher matcher = EventConfMatcher.compile(events);
+        if (events == m_events) {
+            m_matcher = matcher;
+        }
+        return matcher;
+    }
+
     private synchronized void reloadConfig() throws DataAccessException {
         try {
             // Load the root event file
@@ -305,8 +326,8 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
             // Load/reload the event files as necessary
             events.loadEventFilesIfModified(m_configResource, m_lastModifiedEventFiles);
 
-            // Order the events for efficient searching
-            events.initialize(m_partition, new EventOrdering());
+            // Order and index the events for efficient searching
+            m_matcher = initializeEvents(events);
 
             m_events = events;
         } catch (Exception e) {
@@ -320,7 +341,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 			m_lastModifiedEventFiles = events.loadEventFiles(m_configResource);
 
 			m_partition = new EnterpriseIdPartition();
-			events.initialize(m_partition, new EventOrdering());
+			m_matcher = initializeEvents(events);
 
 			m_events = events;
 		} catch (Exception e) {
@@ -65,8 +65,11 @@ import org.opennms.netmgt.config.notifications.Notification;
 import org.opennms.netmgt.config.notifications.Notifications;
 import org.opennms.netmgt.config.notifications.Parameter;
 import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.filter.FilterDao;
 import org.opennms.netmgt.filter.FilterDaoFactory;
+import org.opennms.netmgt.filter.FilterNodeCache;
 import org.opennms.netmgt.filter.FilterParseException;
+import org.opennms.netmgt.filter.JdbcFilterDao;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Parm;
 import org.opennms.netmgt.xml.event.Tticket;
@@ -149,6 +152,7 @@ public abstract class NotificationManager {
 
     NotifdConfigManager m_configManager;
     private DataSource m_dataSource;
+    private final FilterNodeCache m_filterNodeCache = new FilterNodeCache();
 
     /**
      * A parameter expansion algorithm, designed to replace strings delimited by
@@ -389,11 +393,53 @@ public abstract class NotificationManager {
             }
         }
 
+        final Boolean matches = isRuleMatchingNode(notif, event);
+        if (matches != null) {
+            return matches;
+        }
+
         String rule = "((" + notif.getRule() + ")" + constraints + ")";
 
         return isRuleMatchingFilter(notif, rule);
     }
 
+    /**
+     * Matches the rule against the cached copy of the event's node, applying
+     * the same constraints as {@link #nodeInterfaceServiceValid(Notification, Event)}.
+     *
+     * @return whether the rule matches, or null if it needs to go to the database
+     */
+    private Boolean isRuleMatchingNode(final Notification notif, final Event event) {
+        final FilterDao filterDao = FilterDaoFactory.getInstance();
+        if (event.getNodeid() == 0 || !(filterDao instanceof JdbcFilterDao)) {
+            return null;
+        }
+
+        String ipAddr = null;
+        String serviceName = null;
+        if (event.getInterface() != null && !"0.0.0.0".equals(event.getInterface())) {
+            ipAddr = event.getInterface();
+            serviceName = event.getService();
+        }
+        // quotes would end up in the SQL as-is, leave whatever that does to the database
+        if ((ipAddr != null && ipAddr.indexOf('\'') >= 0) || (serviceName != null && serviceName.indexOf('\'') >= 0)) {
+            return null;
+        }
+
+        return m_filterNodeCache.isRuleMatching((JdbcFilterDao)filterDao, notif.getRule(), event.getNodeid(), ipAddr, serviceName);
+    }
+
+    /**
+     * Returns the cache of nodes used to match notification rules without
+     * querying the database.  Notifd passes every event to it so that it can
+     * forget nodes whose inventory changed.
+     *
+     * @return the cache
+     */
+    public FilterNodeCache getFilterNodeCache() {
+        return m_filterNodeCache;
+    }
+
     private boolean isRuleMatchingFilter(final Notification notif, final String rule) {
         try {
             return FilterDaoFactory.getInstance().isRuleMatching(rule);
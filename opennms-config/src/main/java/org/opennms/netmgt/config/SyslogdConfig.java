@@ -53,6 +53,35 @@ public interface SyslogdConfig {
      */
     public abstract String getListenAddress();
     
+    /**
+     * <p>getTcpPort</p>
+     *
+     * @return the TCP port to listen on, or null if TCP is disabled
+     */
+    public abstract Integer getTcpPort();
+
+    /**
+     * <p>getTlsPort</p>
+     *
+     * @return the TLS port to listen on, or null if TLS is disabled
+     */
+    public abstract Integer getTlsPort();
+
+    /**
+     * <p>getTlsKeystore</p>
+     *
+     * @return the path of the keystore used on the TLS port, or null to use
+     *         the JVM's default key material
+     */
+    public abstract String getTlsKeystore();
+
+    /**
+     * <p>getTlsKeystorePassword</p>
+     *
+     * @return the password of the TLS keystore
+     */
+    public abstract String getTlsKeystorePassword();
+
     /**
      * <p>getNewSuspectOnMessage</p>
      *
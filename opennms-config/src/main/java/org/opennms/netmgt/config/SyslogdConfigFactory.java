@@ -188,6 +188,46 @@ public final class SyslogdConfigFactory implements SyslogdConfig {
         return m_config.getConfiguration().getListenAddress();
     }
     
+    /**
+     * <p>getTcpPort</p>
+     *
+     * @return the TCP port to listen on, or null if TCP is disabled
+     */
+    @Override
+    public synchronized Integer getTcpPort() {
+        return m_config.getConfiguration().hasTcpPort() ? m_config.getConfiguration().getTcpPort() : null;
+    }
+
+    /**
+     * <p>getTlsPort</p>
+     *
+     * @return the TLS port to listen on, or null if TLS is disabled
+     */
+    @Override
+    public synchronized Integer getTlsPort() {
+        return m_config.getConfiguration().hasTlsPort() ? m_config.getConfiguration().getTlsPort() : null;
+    }
+
+    /**
+     * <p>getTlsKeystore</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public synchronized String getTlsKeystore() {
+        return m_config.getConfiguration().getTlsKeystore();
+    }
+
+    /**
+     * <p>getTlsKeystorePassword</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public synchronized String getTlsKeystorePassword() {
+        return m_config.getConfiguration().getTlsKeystorePassword();
+    }
+
     /**
      * Return whether or not a newSuspect event should be sent when a trap is
      * received from an unknown IP address.
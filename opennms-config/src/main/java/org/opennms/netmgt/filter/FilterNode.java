@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.opennms.core.utils.DBUtils;
+
+/**
+ * An immutable copy of the rows of a single node that a {@link FilterRule}
+ * can be evaluated against: the node itself, its interfaces and their
+ * services, its categories and its asset record.
+ */
+public final class FilterNode {
+    private static final String NODE_SQL = "SELECT nodeparentid, nodetype, nodesysoid, nodesysname, nodesysdescription, nodesyslocation, nodesyscontact, nodelabel, foreignsource, foreignid FROM node WHERE nodeid = ?";
+    private static final String INTERFACE_SQL = "SELECT id, ipaddr, iphostname, ismanaged, issnmpprimary, ipstatus FROM ipinterface WHERE nodeid = ? ORDER BY id";
+    private static final String SERVICE_SQL = "SELECT ifservices.ipinterfaceid, service.serviceid, service.servicename FROM ifservices JOIN service ON (ifservices.serviceid = service.serviceid) JOIN ipinterface ON (ifservices.ipinterfaceid = ipinterface.id) WHERE ipinterface.nodeid = ?";
+    private static final String CATEGORY_SQL = "SELECT categories.categoryid, categories.categoryname, categories.categorydescription FROM category_node JOIN categories ON (category_node.categoryid = categories.categoryid) WHERE category_node.nodeid = ?";
+    private static final String ASSET_SQL = "SELECT * FROM assets WHERE nodeid = ?";
+
+    private final int m_nodeId;
+    private final Integer m_nodeParentId;
+    private final Map<String, String> m_columns;
+    private final List<Interface> m_interfaces;
+    private final List<Category> m_categories;
+    private final List<Map<String, String>> m_assets;
+
+    public static final class Interface {
+        private final String m_ipAddr;
+        private final String m_ipHostname;
+        private final String m_isManaged;
+        private final String m_isSnmpPrimary;
+        private final Integer m_ipStatus;
+        private final List<Service> m_services;
+
+        public Interface(final String ipAddr, final String ipHostname, final String isManaged, final String isSnmpPrimary, final Integer ipStatus, final List<Service> services) {
+            m_ipAddr = ipAddr;
+            m_ipHostname = ipHostname;
+            m_isManaged = isManaged;
+            m_isSnmpPrimary = isSnmpPrimary;
+            m_ipStatus = ipStatus;
+            m_services = Collections.unmodifiableList(new ArrayList<Service>(services));
+        }
+
+        public String getIpAddr() {
+            return m_ipAddr;
+        }
+
+        public String getIpHostname() {
+            return m_ipHostname;
+        }
+
+        public String getIsManaged() {
+            return m_isManaged;
+        }
+
+        public String getIsSnmpPrimary() {
+            return m_isSnmpPrimary;
+        }
+
+        public Integer getIpStatus() {
+            return m_ipStatus;
+        }
+
+        public List<Service> getServices() {
+            return m_services;
+        }
+
+        public boolean hasService(final String serviceName) {
+            for (final Service service : m_services) {
+                if (service.getServiceName().equals(serviceName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public static final class Service {
+        private final int m_serviceId;
+        private final String m_serviceName;
+
+        public Service(final int serviceId, final String serviceName) {
+            m_serviceId = serviceId;
+            m_serviceName = serviceName;
+        }
+
+        public int getServiceId() {
+            return m_serviceId;
+        }
+
+        public String getServiceName() {
+            return m_serviceName;
+        }
+    }
+
+    public static final class Category {
+        private final int m_categoryId;
+        private final String m_categoryName;
+        private final String m_categoryDescription;
+
+        public Category(final int categoryId, final String categoryName, final String categoryDescription) {
+            m_categoryId = categoryId;
+            m_categoryName = categoryName;
+            m_categoryDescription = categoryDescription;
+        }
+
+        public int getCategoryId() {
+            return m_categoryId;
+        }
+
+        public String getCategoryName() {
+            return m_categoryName;
+        }
+
+        public String getCategoryDescription() {
+            return m_categoryDescription;
+        }
+    }
+
+    /**
+     * @param nodeId the node ID
+     * @param nodeParentId the parent node ID, or null
+     * @param columns the character columns of the node table, keyed by lower-case column name
+     * @param interfaces the node's interfaces
+     * @param categories the node's categories
+     * @param assets the node's asset records (normally zero or one) with their character
+     *     columns keyed by lower-case column name
+     */
+    public FilterNode(final int nodeId, final Integer nodeParentId, final Map<String, String> columns, final List<Interface> interfaces, final List<Category> categories, final List<Map<String, String>> assets) {
+        m_nodeId = nodeId;
+        m_nodeParentId = nodeParentId;
+        m_columns = Collections.unmodifiableMap(new HashMap<String, String>(columns));
+        m_interfaces = Collections.unmodifiableList(new ArrayList<Interface>(interfaces));
+        m_categories = Collections.unmodifiableList(new ArrayList<Category>(categories));
+        final List<Map<String, String>> assetList = new ArrayList<Map<String, String>>(assets.size());
+        for (final Map<String, String> asset : assets) {
+            assetList.add(Collections.unmodifiableMap(new HashMap<String, String>(asset)));
+        }
+        m_assets = Collections.unmodifiableList(assetList);
+    }
+
+    /**
+     * Creates the snapshot of a node that does not exist: no rule matches it.
+     */
+    public FilterNode(final int nodeId) {
+        this(nodeId, null, Collections.<String, String>emptyMap(), Collections.<Interface>emptyList(), Collections.<Category>emptyList(), Collections.<Map<String, String>>emptyList());
+    }
+
+    public int getNodeId() {
+        return m_nodeId;
+    }
+
+    public Integer getNodeParentId() {
+        return m_nodeParentId;
+    }
+
+    /**
+     * @return the value of a character column of the node table, or null
+     */
+    public String getColumn(final String column) {
+        return m_columns.get(column);
+    }
+
+    public List<Interface> getInterfaces() {
+        return m_interfaces;
+    }
+
+    public List<Category> getCategories() {
+        return m_categories;
+    }
+
+    public boolean hasCategory(final String categoryName) {
+        for (final Category category : m_categories) {
+            if (category.getCategoryName().equals(categoryName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<Map<String, String>> getAssets() {
+        return m_assets;
+    }
+
+    /**
+     * Reads a node and everything a filter rule can refer to from the database.
+     *
+     * @param dataSource the database to read from
+     * @param nodeId the node to read
+     * @return the node's snapshot; a node that does not exist has no interfaces
+     * @throws SQLException if the database cannot be read
+     */
+    public static FilterNode load(final DataSource dataSource, final int nodeId) throws SQLException {
+        final DBUtils d = new DBUtils(FilterNode.class);
+        try {
+            final Connection conn = dataSource.getConnection();
+            d.watch(conn);
+
+            PreparedStatement stmt = conn.prepareStatement(NODE_SQL);
+            d.watch(stmt);
+            stmt.setInt(1, nodeId);
+            ResultSet rs = stmt.executeQuery();
+            d.watch(rs);
+            if (!rs.next()) {
+                return new FilterNode(nodeId);
+            }
+            final Integer nodeParentId = getInteger(rs, "nodeparentid");
+            final Map<String, String> columns = new HashMap<String, String>();
+            final ResultSetMetaData nodeMeta = rs.getMetaData();
+            for (int i = 2; i <= nodeMeta.getColumnCount(); i++) {
+                columns.put(nodeMeta.getColumnName(i).toLowerCase(), rs.getString(i));
+            }
+
+            stmt = conn.prepareStatement(SERVICE_SQL);
+            d.watch(stmt);
+            stmt.setInt(1, nodeId);
+            rs = stmt.executeQuery();
+            d.watch(rs);
+            final Map<Integer, List<Service>> services = new HashMap<Integer, List<Service>>();
+            while (rs.next()) {
+                final int ipInterfaceId = rs.getInt("ipinterfaceid");
+                List<Service> list = services.get(ipInterfaceId);
+                if (list == null) {
+                    list = new ArrayList<Service>();
+                    services.put(ipInterfaceId, list);
+                }
+                list.add(new Service(rs.getInt("serviceid"), rs.getString("servicename")));
+            }
+
+            stmt = conn.prepareStatement(INTERFACE_SQL);
+            d.watch(stmt);
+            stmt.setInt(1, nodeId);
+            rs = stmt.executeQuery();
+            d.watch(rs);
+            final List<Interface> interfaces = new ArrayList<Interface>();
+            while (rs.next()) {
+                final List<Service> list = services.get(rs.getInt("id"));
+                interfaces.add(new Interface(rs.getString("ipaddr"), rs.getString("iphostname"), rs.getString("ismanaged"), rs.getString("issnmpprimary"), getInteger(rs, "ipstatus"), list == null ? Collections.<Service>emptyList() : list));
+            }
+
+            stmt = conn.prepareStatement(CATEGORY_SQL);
+            d.watch(stmt);
+            stmt.setInt(1, nodeId);
+            rs = stmt.executeQuery();
+            d.watch(rs);
+            final List<Category> categories = new ArrayList<Category>();
+            while (rs.next()) {
+                categories.add(new Category(rs.getInt("categoryid"), rs.getString("categoryname"), rs.getString("categorydescription")));
+            }
+
+            stmt = conn.prepareStatement(ASSET_SQL);
+            d.watch(stmt);
+            stmt.setInt(1, nodeId);
+            rs = stmt.executeQuery();
+            d.watch(rs);
+            final List<Map<String, String>> assets = new ArrayList<Map<String, String>>();
+            final ResultSetMetaData assetMeta = rs.getMetaData();
+            while (rs.next()) {
+                // only character columns are kept, rules on any other column go to the database
+                final Map<String, String> asset = new LinkedHashMap<String, String>();
+                for (int i = 1; i <= assetMeta.getColumnCount(); i++) {
+                    if (isCharacterType(assetMeta.getColumnType(i))) {
+                        asset.put(assetMeta.getColumnName(i).toLowerCase(), rs.getString(i));
+                    }
+                }
+                assets.add(asset);
+            }
+
+            return new FilterNode(nodeId, nodeParentId, columns, interfaces, categories, assets);
+        } finally {
+            d.cleanUp();
+        }
+    }
+
+    private static Integer getInteger(final ResultSet rs, final String column) throws SQLException {
+        final int value = rs.getInt(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    private static boolean isCharacterType(final int type) {
+        switch (type) {
+        case Types.CHAR:
+        case Types.VARCHAR:
+        case Types.LONGVARCHAR:
+        case Types.NCHAR:
+        case Types.NVARCHAR:
+        case Types.LONGNVARCHAR:
+            return true;
+        default:
+            return false;
+        }
+    }
+}
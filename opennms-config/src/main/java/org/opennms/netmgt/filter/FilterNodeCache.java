@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.xml.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Answers "does this rule match this node, interface and service" from
+ * compiled {@link FilterRule}s and {@link FilterNode} snapshots instead of a
+ * query per check.
+ *
+ * <p>A node is read from the database the first time it is needed and is
+ * kept until an event says that its interfaces, services, categories or
+ * assets changed, or until it is older than the time-to-live, which bounds
+ * how stale a node can get through changes that are not announced with an
+ * event.  Whenever a rule can't be decided from the snapshot
+ * {@link #isRuleMatching(JdbcFilterDao, String, long, String, String)}
+ * returns null and the caller should ask the database.</p>
+ *
+ * <p>The cache can be turned off with the
+ * <code>org.opennms.netmgt.filter.nodeCache</code> system property and the
+ * time-to-live (in milliseconds) set with
+ * <code>org.opennms.netmgt.filter.nodeCache.ttl</code>.</p>
+ */
+public class FilterNodeCache {
+    private static final Logger LOG = LoggerFactory.getLogger(FilterNodeCache.class);
+
+    public static final String ENABLED_PROPERTY = "org.opennms.netmgt.filter.nodeCache";
+
+    public static final String TTL_PROPERTY = "org.opennms.netmgt.filter.nodeCache.ttl";
+
+    private static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(5);
+
+    private static final Set<String> NODE_UEIS = new HashSet<String>(Arrays.asList(
+        EventConstants.NODE_ADDED_EVENT_UEI,
+        EventConstants.NODE_UPDATED_EVENT_UEI,
+        EventConstants.NODE_DELETED_EVENT_UEI,
+        EventConstants.DUP_NODE_DELETED_EVENT_UEI,
+        EventConstants.NODE_LABEL_CHANGED_EVENT_UEI,
+        EventConstants.NODE_INFO_CHANGED_EVENT_UEI,
+        EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI,
+        EventConstants.INTERFACE_DELETED_EVENT_UEI,
+        EventConstants.NODE_GAINED_SERVICE_EVENT_UEI,
+        EventConstants.SERVICE_DELETED_EVENT_UEI,
+        EventConstants.SERVICE_UNMANAGED_EVENT_UEI,
+        EventConstants.PRIMARY_SNMP_INTERFACE_CHANGED_EVENT_UEI,
+        EventConstants.REINITIALIZE_PRIMARY_SNMP_INTERFACE_EVENT_UEI,
+        EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI,
+        EventConstants.ASSET_INFO_CHANGED_EVENT_UEI
+    ));
+
+    private static final Set<String> ALL_NODES_UEIS = new HashSet<String>(Arrays.asList(
+        EventConstants.INTERFACE_REPARENTED_EVENT_UEI
+    ));
+
+    private static final class Entry {
+        private final FilterNode m_node;
+        private final long m_loaded;
+
+        private Entry(final FilterNode node, final long loaded) {
+            m_node = node;
+            m_loaded = loaded;
+        }
+    }
+
+    private final ConcurrentMap<Long, Entry> m_nodes = new ConcurrentHashMap<Long, Entry>();
+    private final ConcurrentMap<String, FilterRule> m_rules = new ConcurrentHashMap<String, FilterRule>();
+    private final AtomicLong m_generation = new AtomicLong(0);
+    private final long m_ttl;
+    private final boolean m_enabled;
+
+    private final AtomicLong m_localMatches = new AtomicLong(0);
+    private final AtomicLong m_databaseMatches = new AtomicLong(0);
+
+    public FilterNodeCache() {
+        this(Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true")), Long.getLong(TTL_PROPERTY, DEFAULT_TTL));
+    }
+
+    public FilterNodeCache(final boolean enabled, final long ttl) {
+        m_enabled = enabled;
+        m_ttl = ttl;
+    }
+
+    public boolean isEnabled() {
+        return m_enabled;
+    }
+
+    /**
+     * Checks whether a rule matches a node, optionally constrained to one of
+     * its interfaces and a service on it.
+     *
+     * @param filterDao the DAO that would otherwise run the query
+     * @param rule the filter rule
+     * @param nodeId the node
+     * @param ipAddr the interface, or null for any
+     * @param serviceName the service, or null for any
+     * @return whether the rule matches, or null if the database must be asked
+     */
+    public Boolean isRuleMatching(final JdbcFilterDao filterDao, final String rule, final long nodeId, final String ipAddr, final String serviceName) {
+        if (!m_enabled || nodeId <= 0 || nodeId > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        final FilterRule filterRule = getRule(filterDao, rule);
+        if (!filterRule.isLocal()) {
+            m_databaseMatches.incrementAndGet();
+            return null;
+        }
+
+        final FilterNode node = getNode(filterDao, nodeId);
+        final Boolean matches = node == null ? null : filterRule.evaluate(node, ipAddr, serviceName);
+        if (matches == null) {
+            m_databaseMatches.incrementAndGet();
+        } else {
+            m_localMatches.incrementAndGet();
+        }
+        return matches;
+    }
+
+    private FilterRule getRule(final JdbcFilterDao filterDao, final String rule) {
+        FilterRule filterRule = m_rules.get(rule);
+        if (filterRule == null || filterRule.getFilterDao() != filterDao) {
+            filterRule = FilterRule.compile(filterDao, rule);
+            m_rules.put(rule, filterRule);
+        }
+        return filterRule;
+    }
+
+    private FilterNode getNode(final JdbcFilterDao filterDao, final long nodeId) {
+        final long now = System.currentTimeMillis();
+        final Entry entry = m_nodes.get(nodeId);
+        if (entry != null && now - entry.m_loaded < m_ttl) {
+            return entry.m_node;
+        }
+
+        // an invalidation while we load means the row we read may already be stale
+        final long generation = m_generation.get();
+        final FilterNode node;
+        try {
+            node = FilterNode.load(filterDao.getDataSource(), (int)nodeId);
+        } catch (final SQLException e) {
+            LOG.warn("Unable to read node {} for filter rule matching", nodeId, e);
+            return null;
+        }
+        if (m_generation.get() == generation) {
+            m_nodes.put(nodeId, new Entry(node, now));
+        }
+        return node;
+    }
+
+    /**
+     * Forgets a node so that it is read again the next time it is needed.
+     *
+     * @param nodeId the node
+     */
+    public void invalidateNode(final long nodeId) {
+        m_generation.incrementAndGet();
+        m_nodes.remove(nodeId);
+    }
+
+    /**
+     * Forgets all nodes and compiled rules.
+     */
+    public void invalidateAll() {
+        m_generation.incrementAndGet();
+        m_nodes.clear();
+        m_rules.clear();
+    }
+
+    /**
+     * Invalidates whatever an inventory event may have changed.  This should
+     * be called for every event before any rules are matched for it.
+     *
+     * @param event the event
+     */
+    public void onEvent(final Event event) {
+        if (!m_enabled || event.getUei() == null) {
+            return;
+        }
+        if (NODE_UEIS.contains(event.getUei())) {
+            LOG.debug("Invalidating node {} on {}", event.getNodeid(), event.getUei());
+            invalidateNode(event.getNodeid());
+        } else if (ALL_NODES_UEIS.contains(event.getUei())) {
+            LOG.debug("Invalidating all nodes on {}", event.getUei());
+            invalidateAll();
+        }
+    }
+
+    /**
+     * @return the number of rule checks answered from the cache
+     */
+    public long getLocalMatches() {
+        return m_localMatches.get();
+    }
+
+    /**
+     * @return the number of rule checks left to the database
+     */
+    public long getDatabaseMatches() {
+        return m_databaseMatches.get();
+    }
+}
@@ -0,0 +1,861 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.opennms.core.utils.IPLike;
+import org.opennms.netmgt.config.DatabaseSchemaConfigFactory;
+import org.opennms.netmgt.config.filter.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A filter rule compiled into a predicate tree that can be evaluated against
+ * a {@link FilterNode} instead of the database.
+ *
+ * <p>The rule is first translated by {@link JdbcFilterDao} exactly as it
+ * would be for a query, and the resulting WHERE clause is then compiled, so
+ * that the aliases, prefixed values and IPLIKE operators mean the same thing
+ * in both places.  Clauses are evaluated with SQL's three-valued logic plus a
+ * fourth "unknown" value for anything that can't be decided from the
+ * snapshot (string ordering, <code>notisSERVICE</code> on an interface that
+ * doesn't have the service, asset columns that aren't text).  A rule that
+ * the database would reject, that refers to columns or joins that aren't
+ * modelled here, or whose outcome is unknown is left to the database:
+ * {@link #evaluate(FilterNode, String, String)} then returns null.</p>
+ */
+public final class FilterRule {
+    private static final Logger LOG = LoggerFactory.getLogger(FilterRule.class);
+
+    private static final String PRIMARY_TABLE = "ipInterface";
+
+    private static final Map<String, String> JOINS = new HashMap<String, String>();
+    static {
+        JOINS.put("node", " JOIN node ON (ipInterface.nodeID = node.nodeID)");
+        JOINS.put("category_node", " LEFT JOIN category_node ON (ipInterface.nodeID = category_node.nodeID)");
+        JOINS.put("categories", " LEFT JOIN categories ON (category_node.categoryID = categories.categoryID)");
+        JOINS.put("ifServices", " JOIN ifServices ON (ipInterface.id = ifServices.ipInterfaceId)");
+        JOINS.put("service", " JOIN service ON (ifServices.serviceID = service.serviceID)");
+        JOINS.put("assets", " JOIN assets ON (ipInterface.nodeID = assets.nodeID)");
+    }
+
+    // the sub-selects JdbcFilterDao generates for catincVALUE and notisVALUE
+    private static final Pattern CATINC_PATTERN = Pattern.compile("(\\w+\\.\\w+) IN \\(SELECT category_node\\.nodeID FROM category_node, categories WHERE categories\\.categoryID = category_node\\.categoryID AND categories\\.categoryName = '([^']*)'\\)");
+    private static final Pattern NOTIS_PATTERN = Pattern.compile("(\\w+\\.\\w+) NOT IN \\(SELECT ifServices\\.ipAddr FROM ifServices, service WHERE service\\.serviceName ='([^']*)' AND service\\.serviceID = ifServices\\.serviceID\\)");
+
+    private static final Object UNAVAILABLE = new Object();
+
+    private static final List<Object> NO_JOIN = Collections.singletonList(null);
+
+    enum Truth {
+        TRUE, FALSE, NULL, UNKNOWN;
+
+        static Truth valueOf(final boolean value) {
+            return value ? TRUE : FALSE;
+        }
+
+        Truth and(final Truth other) {
+            if (this == FALSE || other == FALSE) return FALSE;
+            if (this == UNKNOWN || other == UNKNOWN) return UNKNOWN;
+            if (this == NULL || other == NULL) return NULL;
+            return TRUE;
+        }
+
+        Truth or(final Truth other) {
+            if (this == TRUE || other == TRUE) return TRUE;
+            if (this == UNKNOWN || other == UNKNOWN) return UNKNOWN;
+            if (this == NULL || other == NULL) return NULL;
+            return FALSE;
+        }
+
+        Truth not() {
+            if (this == TRUE) return FALSE;
+            if (this == FALSE) return TRUE;
+            return this;
+        }
+    }
+
+    private final JdbcFilterDao m_filterDao;
+    private final String m_rule;
+    private final Expr m_expr;
+    private final boolean m_joinServices;
+    private final boolean m_joinCategories;
+    private final boolean m_joinAssets;
+
+    private FilterRule(final JdbcFilterDao filterDao, final String rule, final Expr expr, final boolean joinServices, final boolean joinCategories, final boolean joinAssets) {
+        m_filterDao = filterDao;
+        m_rule = rule;
+        m_expr = expr;
+        m_joinServices = joinServices;
+        m_joinCategories = joinCategories;
+        m_joinAssets = joinAssets;
+    }
+
+    /**
+     * Compiles a rule.  This never fails: a rule that can't be evaluated
+     * locally compiles to one that always defers to the database, which will
+     * also report any errors in it.
+     *
+     * @param filterDao the DAO whose translation and schema should be used
+     * @param rule the filter rule
+     * @return the compiled rule
+     */
+    public static FilterRule compile(final JdbcFilterDao filterDao, final String rule) {
+        try {
+            if (rule == null || rule.trim().length() == 0) {
+                throw new NotLocalException("empty rule");
+            }
+            final DatabaseSchemaConfigFactory schema = filterDao.getDatabaseSchemaConfigFactory();
+            final Table primary = schema.getPrimaryTable();
+            if (primary == null || !PRIMARY_TABLE.equals(primary.getName())) {
+                throw new NotLocalException("primary table is not " + PRIMARY_TABLE);
+            }
+
+            final List<Table> tables = new ArrayList<Table>();
+            tables.add(primary);
+            final String where = filterDao.parseRule(tables, rule);
+
+            final List<String> joinTables = schema.getJoinTables(tables);
+            final StringBuilder expectedJoins = new StringBuilder("FROM ").append(PRIMARY_TABLE);
+            for (final String table : joinTables.subList(1, joinTables.size())) {
+                final String join = JOINS.get(table);
+                if (join == null) {
+                    throw new NotLocalException("table " + table + " is not available locally");
+                }
+                expectedJoins.append(join);
+            }
+            if (!PRIMARY_TABLE.equals(joinTables.get(0)) || !expectedJoins.toString().equals(schema.constructJoinExprForTables(tables))) {
+                throw new NotLocalException("the tables are not joined as expected");
+            }
+
+            final Parser parser = new Parser(where.substring("WHERE ".length()));
+            final Expr expr = parser.parse();
+            return new FilterRule(filterDao, rule, expr, joinTables.contains("ifServices"), joinTables.contains("category_node"), joinTables.contains("assets"));
+        } catch (final NotLocalException e) {
+            LOG.debug("Filter rule \"{}\" will be evaluated by the database: {}", rule, e.getMessage());
+        } catch (final FilterParseException e) {
+            LOG.debug("Filter rule \"{}\" will be evaluated by the database: {}", rule, e.getMessage());
+        }
+        return new FilterRule(filterDao, rule, null, false, false, false);
+    }
+
+    public JdbcFilterDao getFilterDao() {
+        return m_filterDao;
+    }
+
+    public String getRule() {
+        return m_rule;
+    }
+
+    /**
+     * @return true if the rule can be evaluated against a {@link FilterNode} at all
+     */
+    public boolean isLocal() {
+        return m_expr != null;
+    }
+
+    /**
+     * Evaluates the rule for a node, constrained to an interface and service
+     * just like {@link JdbcFilterDao#getSQLStatement(String, long, String, String)}.
+     *
+     * @param node the node's snapshot
+     * @param ipAddr the interface to constrain to, or null
+     * @param serviceName the service to constrain to, or null
+     * @return whether any row matches, or null if only the database can tell
+     */
+    public Boolean evaluate(final FilterNode node, final String ipAddr, final String serviceName) {
+        if (m_expr == null) {
+            return null;
+        }
+
+        final boolean joinServices = m_joinServices || serviceName != null;
+        final List<?> categories = !m_joinCategories || node.getCategories().isEmpty() ? NO_JOIN : node.getCategories();
+        final List<?> assets = m_joinAssets ? node.getAssets() : NO_JOIN;
+
+        final Row row = new Row(node);
+        boolean unknown = false;
+        for (final FilterNode.Interface iface : node.getInterfaces()) {
+            if (ipAddr != null && !ipAddr.equals(iface.getIpAddr())) {
+                continue;
+            }
+            row.m_interface = iface;
+            for (final Object service : joinServices ? iface.getServices() : NO_JOIN) {
+                row.m_service = (FilterNode.Service)service;
+                if (serviceName != null && !serviceName.equals(row.m_service.getServiceName())) {
+                    continue;
+                }
+                for (final Object category : categories) {
+                    row.m_category = (FilterNode.Category)category;
+                    for (final Object asset : assets) {
+                        @SuppressWarnings("unchecked")
+                        final Map<String, String> assetColumns = (Map<String, String>)asset;
+                        row.m_asset = assetColumns;
+                        final Truth result = m_expr.evaluate(row);
+                        if (result == Truth.TRUE) {
+                            return true;
+                        } else if (result == Truth.UNKNOWN) {
+                            unknown = true;
+                        }
+                    }
+                }
+            }
+        }
+        return unknown ? null : Boolean.FALSE;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "FilterRule[" + m_rule + (isLocal() ? "]" : " (database only)]");
+    }
+
+    private static final class NotLocalException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private NotLocalException(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * One row of the join of the tables a rule refers to.
+     */
+    private static final class Row {
+        private final FilterNode m_node;
+        private FilterNode.Interface m_interface;
+        private FilterNode.Service m_service;
+        private FilterNode.Category m_category;
+        private Map<String, String> m_asset;
+
+        private Row(final FilterNode node) {
+            m_node = node;
+        }
+    }
+
+    private static enum ColumnType {
+        INTEGER, STRING, CHAR
+    }
+
+    private static final class Column {
+        private static final int NODE_ID = 0;
+        private static final int NODE_PARENT_ID = 1;
+        private static final int NODE = 2;
+        private static final int IP_ADDR = 3;
+        private static final int IP_HOSTNAME = 4;
+        private static final int IS_MANAGED = 5;
+        private static final int IS_SNMP_PRIMARY = 6;
+        private static final int IP_STATUS = 7;
+        private static final int SERVICE_ID = 8;
+        private static final int SERVICE_NAME = 9;
+        private static final int CATEGORY_ID = 10;
+        private static final int CATEGORY_NAME = 11;
+        private static final int CATEGORY_DESCRIPTION = 12;
+        private static final int ASSET = 13;
+
+        private static final Map<String, Column> COLUMNS = new HashMap<String, Column>();
+        static {
+            add("node.nodeid", NODE_ID, ColumnType.INTEGER);
+            add("node.nodeparentid", NODE_PARENT_ID, ColumnType.INTEGER);
+            add("node.nodetype", NODE, ColumnType.CHAR);
+            for (final String column : new String[] { "nodesysoid", "nodesysname", "nodesysdescription", "nodesyslocation", "nodesyscontact", "nodelabel", "foreignsource", "foreignid" }) {
+                add("node." + column, NODE, ColumnType.STRING);
+            }
+            add("ipinterface.ipaddr", IP_ADDR, ColumnType.STRING);
+            add("ipinterface.iphostname", IP_HOSTNAME, ColumnType.STRING);
+            add("ipinterface.ismanaged", IS_MANAGED, ColumnType.CHAR);
+            add("ipinterface.issnmpprimary", IS_SNMP_PRIMARY, ColumnType.CHAR);
+            add("ipinterface.ipstatus", IP_STATUS, ColumnType.INTEGER);
+            add("ifservices.serviceid", SERVICE_ID, ColumnType.INTEGER);
+            add("service.servicename", SERVICE_NAME, ColumnType.STRING);
+            add("categories.categoryid", CATEGORY_ID, ColumnType.INTEGER);
+            add("categories.categoryname", CATEGORY_NAME, ColumnType.STRING);
+            add("categories.categorydescription", CATEGORY_DESCRIPTION, ColumnType.STRING);
+        }
+
+        private final String m_name;
+        private final int m_source;
+        private final ColumnType m_type;
+
+        private Column(final String name, final int source, final ColumnType type) {
+            m_name = name;
+            m_source = source;
+            m_type = type;
+        }
+
+        private static void add(final String name, final int source, final ColumnType type) {
+            COLUMNS.put(name, new Column(name, source, type));
+        }
+
+        /**
+         * @param name a lower-case table.column reference
+         * @return the column, or null if it isn't available locally
+         */
+        private static Column get(final String name) {
+            if (name.startsWith("assets.")) {
+                return new Column(name.substring("assets.".length()), ASSET, ColumnType.STRING);
+            }
+            return COLUMNS.get(name);
+        }
+
+        /**
+         * @return the column's value in the row, null for SQL NULL or
+         *         UNAVAILABLE if it isn't in the snapshot
+         */
+        private Object getValue(final Row row) {
+            switch (m_source) {
+            case NODE_ID: return row.m_node.getNodeId();
+            case NODE_PARENT_ID: return row.m_node.getNodeParentId();
+            case NODE: return row.m_node.getColumn(m_name.substring("node.".length()));
+            case IP_ADDR: return row.m_interface.getIpAddr();
+            case IP_HOSTNAME: return row.m_interface.getIpHostname();
+            case IS_MANAGED: return row.m_interface.getIsManaged();
+            case IS_SNMP_PRIMARY: return row.m_interface.getIsSnmpPrimary();
+            case IP_STATUS: return row.m_interface.getIpStatus();
+            case SERVICE_ID: return row.m_service.getServiceId();
+            case SERVICE_NAME: return row.m_service.getServiceName();
+            case CATEGORY_ID: return row.m_category == null ? null : row.m_category.getCategoryId();
+            case CATEGORY_NAME: return row.m_category == null ? null : row.m_category.getCategoryName();
+            case CATEGORY_DESCRIPTION: return row.m_category == null ? null : row.m_category.getCategoryDescription();
+            case ASSET: return row.m_asset.containsKey(m_name) ? row.m_asset.get(m_name) : UNAVAILABLE;
+            default: return UNAVAILABLE;
+            }
+        }
+
+        private boolean isIpAddr() {
+            return m_source == IP_ADDR;
+        }
+
+        private boolean isNodeId() {
+            return m_source == NODE_ID;
+        }
+    }
+
+    private static String rtrim(final String value) {
+        int end = value.length();
+        while (end > 0 && value.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return value.substring(0, end);
+    }
+
+    private interface Expr {
+        Truth evaluate(Row row);
+    }
+
+    private static final class And implements Expr {
+        private final Expr[] m_exprs;
+
+        private And(final List<Expr> exprs) {
+            m_exprs = exprs.toArray(new Expr[exprs.size()]);
+        }
+
+        @Override
+        public Truth evaluate(final Row row) {
+            Truth result = Truth.TRUE;
+            for (final Expr expr : m_exprs) {
+                result = result.and(expr.evaluate(row));
+                if (result == Truth.FALSE) break;
+            }
+            return result;
+        }
+    }
+
+    private static final class Or implements Expr {
+        private final Expr[] m_exprs;
+
+        private Or(final List<Expr> exprs) {
+            m_exprs = exprs.toArray(new Expr[exprs.size()]);
+        }
+
+        @Override
+        public Truth evaluate(final Row row) {
+            Truth result = Truth.FALSE;
+            for (final Expr expr : m_exprs) {
+                result = result.or(expr.evaluate(row));
+                if (result == Truth.TRUE) break;
+            }
+            return result;
+        }
+    }
+
+    private static final class Not implements Expr {
+        private final Expr m_expr;
+
+        private Not(final Expr expr) {
+            m_expr = expr;
+        }
+
+        @Override
+        public Truth evaluate(final Row row) {
+            return m_expr.evaluate(row).not();
+        }
+    }
+
+    private static final class Compare implements Expr {
+        private final Column m_column;
+        private final String m_op;
+        private final Object m_value;
+
+        private Compare(final Column column, final String op, final Object value) {
+            m_column = column;
+            m_op = op;
+            m_value = column.m_type == ColumnType.CHAR ? rtrim((String)value) : value;
+        }
+
+        @Override
+        public Truth evaluate(final Row row) {
+            final Object value = m_column.getValue(row);
+            if (value == UNAVAILABLE) return Truth.UNKNOWN;
+            if (value == null) return Truth.NULL;
+
+            final int comparison;
+            if (m_column.m_type == ColumnType.INTEGER) {
+                final long left = ((Integer)value).longValue();
+                final long right = ((Long)m_value).longValue();
+                comparison = left < right ? -1 : (left == right ? 0 : 1);
+            } else if ("=".equals(m_op) || "!=".equals(m_op) || "<>".equals(m_op)) {
+                final String left = m_column.m_type == ColumnType.CHAR ? rtrim((String)value) : (String)value;
+                comparison = left.equals(m_value) ? 0 : 1;
+            } else {
+                // string ordering depends on the database's collation
+                return Truth.UNKNOWN;
+            }
+
+            if ("=".equals(m_op)) return Truth.valueOf(comparison == 0);
+            if ("!=".equals(m_op) || "<>".equals(m_op)) return Truth.valueOf(comparison != 0);
+            if ("<".equals(m_op)) return Truth.valueOf(comparison < 0);
+            if ("<=".equals(m_op)) return Truth.valueOf(comparison <= 0);
+            if (">".equals(m_op)) return Truth.valueOf(comparison > 0);
+            return Truth.valueOf(comparison >= 0);
+        }
+    }
+
+    private static final class Like implements Expr {
+        private final Column m_column;
+        private final Pattern m_pattern;
+
+        private Like(final Column column, final Pattern pattern) {
+            m_column = column;
+            m_pattern = pattern;
+        }
+
+        @Override
+        public Truth evaluate(final Row row) {
+            final Object value = m_column.getValue(row);
+            if (value == UNAVAILABLE) return Truth.UNKNOWN;
+            if (value == null) return Truth.NULL;
+            final String string = m_column.m_type == ColumnType.CHAR ? rtrim((String)value) : (String)value;
+            return Truth.valueOf(m_pattern.matcher(string).matches());
+        }
+    }
+
+    private static final class IsNull implements Expr {
+        private final Column m_column;
+
+        private IsNull(final Column column) {
+            m_column = column;
+        }
+
+        @Override
+        public Truth evaluate(final Row row) {
+            final Object value = m_column.getValue(row);
+            if (value == UNAVAILABLE) return Truth.UNKNOWN;
+            return Truth.valueOf(value == null);
+        }
+    }
+
+    private static final class IpLike implements Expr {
+        private final Column m_column;
+        private final String m_pattern;
+
+        private IpLike(final Column column, final String pattern) {
+            m_column = column;
+            m_pattern = pattern;
+        }
+
+        @Override
+        public Truth evaluate(final Row row) {
+            final String address = (String)m_column.getValue(row);
+            if (address == null) return Truth.NULL;
+            // only IPv4 is matched locally, the database function is the reference for IPv6
+            if (address.indexOf(':') >= 0 || m_pattern.indexOf(':') >= 0) return Truth.UNKNOWN;
+            try {
+                return Truth.valueOf(IPLike.matches(address, m_pattern));
+            } catch (final RuntimeException e) {
+                return Truth.UNKNOWN;
+            }
+        }
+    }
+
+    private static final class InCategory implements Expr {
+        private final String m_categoryName;
+
+        private InCategory(final String categoryName) {
+            m_categoryName = categoryName;
+        }
+
+        @Override
+        public Truth evaluate(final Row row) {
+            return Truth.valueOf(row.m_node.hasCategory(m_categoryName));
+        }
+    }
+
+    private static final class NotInService implements Expr {
+        private final String m_serviceName;
+
+        private NotInService(final String serviceName) {
+            m_serviceName = serviceName;
+        }
+
+        @Override
+        public Truth evaluate(final Row row) {
+            // the sub-select covers the interfaces of every node, so only a match here is conclusive
+            return row.m_interface.hasService(m_serviceName) ? Truth.FALSE : Truth.UNKNOWN;
+        }
+    }
+
+    /**
+     * Recursive descent parser for the WHERE clauses generated by
+     * {@link JdbcFilterDao}.  Anything outside of the subset of SQL it knows
+     * throws a {@link NotLocalException}.
+     */
+    private static final class Parser {
+        private static final int WORD = 0;
+        private static final int STRING = 1;
+        private static final int NUMBER = 2;
+        private static final int OPERATOR = 3;
+        private static final int OPEN = 4;
+        private static final int CLOSE = 5;
+        private static final int COMMA = 6;
+        private static final int CATINC = 7;
+        private static final int NOTIS = 8;
+        private static final int END = 9;
+
+        private final String m_where;
+        private int m_pos = 0;
+        private int m_type;
+        private String m_text;
+        private String m_text2;
+
+        private Parser(final String where) {
+            m_where = where;
+        }
+
+        private Expr parse() throws NotLocalException {
+            next();
+            final Expr expr = parseOr();
+            if (m_type != END) {
+                throw new NotLocalException("unexpected '" + m_text + "'");
+            }
+            return expr;
+        }
+
+        private Expr parseOr() throws NotLocalException {
+            final List<Expr> exprs = new ArrayList<Expr>();
+            exprs.add(parseAnd());
+            while (isKeyword("OR")) {
+                next();
+                exprs.add(parseAnd());
+            }
+            return exprs.size() == 1 ? exprs.get(0) : new Or(exprs);
+        }
+
+        private Expr parseAnd() throws NotLocalException {
+            final List<Expr> exprs = new ArrayList<Expr>();
+            exprs.add(parseNot());
+            while (isKeyword("AND")) {
+                next();
+                exprs.add(parseNot());
+            }
+            return exprs.size() == 1 ? exprs.get(0) : new And(exprs);
+        }
+
+        private Expr parseNot() throws NotLocalException {
+            if (isKeyword("NOT")) {
+                next();
+                return new Not(parseNot());
+            }
+            return parsePrimary();
+        }
+
+        private Expr parsePrimary() throws NotLocalException {
+            if (m_type == OPEN) {
+                next();
+                final Expr expr = parseOr();
+                expect(CLOSE);
+                return expr;
+            } else if (m_type == CATINC) {
+                final Column column = getColumn(m_text);
+                if (!column.isNodeId()) {
+                    throw new NotLocalException("unexpected category sub-select on " + m_text);
+                }
+                final Expr expr = new InCategory(m_text2);
+                next();
+                return expr;
+            } else if (m_type == NOTIS) {
+                final Column column = getColumn(m_text);
+                if (!column.isIpAddr()) {
+                    throw new NotLocalException("unexpected service sub-select on " + m_text);
+                }
+                final Expr expr = new NotInService(m_text2);
+                next();
+                return expr;
+            } else if (isKeyword("IPLIKE")) {
+                next();
+                expect(OPEN);
+                final Object column = parseOperand();
+                expect(COMMA);
+                final Object pattern = parseOperand();
+                expect(CLOSE);
+                if (!(column instanceof Column) || !((Column)column).isIpAddr() || !(pattern instanceof String)) {
+                    throw new NotLocalException("IPLIKE is only evaluated on ipAddr with a quoted pattern");
+                }
+                return new IpLike((Column)column, (String)pattern);
+            }
+
+            final Object left = parseOperand();
+            if (m_type == OPERATOR) {
+                final String op = m_text;
+                next();
+                return compare(left, op, parseOperand());
+            } else if (isKeyword("IS")) {
+                next();
+                boolean not = false;
+                if (isKeyword("NOT")) {
+                    not = true;
+                    next();
+                }
+                if (!isKeyword("NULL") || !(left instanceof Column)) {
+                    throw new NotLocalException("unexpected IS expression");
+                }
+                next();
+                final Expr expr = new IsNull((Column)left);
+                return not ? new Not(expr) : expr;
+            }
+
+            boolean not = false;
+            if (isKeyword("NOT")) {
+                not = true;
+                next();
+            }
+            if (!isKeyword("LIKE")) {
+                throw new NotLocalException("unexpected '" + m_text + "'");
+            }
+            next();
+            final Object right = parseOperand();
+            if (!(left instanceof Column) || ((Column)left).m_type == ColumnType.INTEGER || !(right instanceof String)) {
+                throw new NotLocalException("LIKE is only evaluated on text columns with a quoted pattern");
+            }
+            final Expr expr = new Like((Column)left, likePattern((String)right));
+            return not ? new Not(expr) : expr;
+        }
+
+        private Expr compare(final Object left, final String op, final Object right) throws NotLocalException {
+            if (left instanceof Column && !(right instanceof Column)) {
+                return compare((Column)left, op, right);
+            } else if (right instanceof Column && !(left instanceof Column)) {
+                final String flipped = op.startsWith("<") && !"<>".equals(op) ? op.replace('<', '>') : op.startsWith(">") ? op.replace('>', '<') : op;
+                return compare((Column)right, flipped, left);
+            }
+            throw new NotLocalException("only comparisons between a column and a value are evaluated");
+        }
+
+        private static Expr compare(final Column column, final String op, final Object value) throws NotLocalException {
+            if (column.m_type == ColumnType.INTEGER) {
+                if (value instanceof Long) {
+                    return new Compare(column, op, value);
+                }
+                try {
+                    return new Compare(column, op, Long.valueOf(Integer.parseInt(((String)value).trim())));
+                } catch (final NumberFormatException e) {
+                    throw new NotLocalException("'" + value + "' is not an integer");
+                }
+            } else if (value instanceof String) {
+                return new Compare(column, op, value);
+            }
+            throw new NotLocalException("a number is compared with a text column");
+        }
+
+        private Object parseOperand() throws NotLocalException {
+            final Object operand;
+            if (m_type == WORD && m_text.indexOf('.') > 0) {
+                operand = getColumn(m_text);
+            } else if (m_type == STRING) {
+                operand = m_text;
+            } else if (m_type == NUMBER) {
+                try {
+                    operand = Long.valueOf(m_text);
+                } catch (final NumberFormatException e) {
+                    throw new NotLocalException("'" + m_text + "' is out of range");
+                }
+            } else {
+                throw new NotLocalException("unexpected '" + m_text + "'");
+            }
+            next();
+            return operand;
+        }
+
+        private static Column getColumn(final String name) throws NotLocalException {
+            final Column column = Column.get(name.toLowerCase());
+            if (column == null) {
+                throw new NotLocalException("column " + name + " is not available locally");
+            }
+            return column;
+        }
+
+        private static Pattern likePattern(final String like) throws NotLocalException {
+            final StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < like.length(); i++) {
+                final char c = like.charAt(i);
+                if (c == '%') {
+                    regex.append(".*");
+                } else if (c == '_') {
+                    regex.append('.');
+                } else if (c == '\\') {
+                    if (++i == like.length()) {
+                        throw new NotLocalException("LIKE pattern must not end with escape character");
+                    }
+                    regex.append(Pattern.quote(String.valueOf(like.charAt(i))));
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+
+        private boolean isKeyword(final String keyword) {
+            return m_type == WORD && keyword.equalsIgnoreCase(m_text);
+        }
+
+        private void expect(final int type) throws NotLocalException {
+            if (m_type != type) {
+                throw new NotLocalException("unexpected '" + m_text + "'");
+            }
+            next();
+        }
+
+        private void next() throws NotLocalException {
+            final int length = m_where.length();
+            while (m_pos < length && Character.isWhitespace(m_where.charAt(m_pos))) {
+                m_pos++;
+            }
+            m_text2 = null;
+            if (m_pos == length) {
+                m_type = END;
+                m_text = "end of rule";
+                return;
+            }
+
+            final char c = m_where.charAt(m_pos);
+            if (Character.isLetter(c) || c == '_') {
+                for (final Pattern pattern : new Pattern[] { CATINC_PATTERN, NOTIS_PATTERN }) {
+                    final Matcher matcher = pattern.matcher(m_where).region(m_pos, length);
+                    if (matcher.lookingAt()) {
+                        m_type = pattern == CATINC_PATTERN ? CATINC : NOTIS;
+                        m_text = matcher.group(1);
+                        m_text2 = matcher.group(2);
+                        m_pos = matcher.end();
+                        return;
+                    }
+                }
+                final int start = m_pos;
+                while (m_pos < length && (Character.isLetterOrDigit(m_where.charAt(m_pos)) || m_where.charAt(m_pos) == '_' || m_where.charAt(m_pos) == '.')) {
+                    m_pos++;
+                }
+                m_type = WORD;
+                m_text = m_where.substring(start, m_pos);
+            } else if (Character.isDigit(c)) {
+                final int start = m_pos;
+                while (m_pos < length && Character.isDigit(m_where.charAt(m_pos))) {
+                    m_pos++;
+                }
+                if (m_pos < length && (Character.isLetter(m_where.charAt(m_pos)) || m_where.charAt(m_pos) == '.' || m_where.charAt(m_pos) == '_')) {
+                    throw new NotLocalException("unexpected number format");
+                }
+                m_type = NUMBER;
+                m_text = m_where.substring(start, m_pos);
+            } else if (c == '\'') {
+                final StringBuilder value = new StringBuilder();
+                m_pos++;
+                while (true) {
+                    if (m_pos >= length) {
+                        throw new NotLocalException("unterminated string");
+                    }
+                    final char s = m_where.charAt(m_pos++);
+                    if (s == '\'') {
+                        if (m_pos < length && m_where.charAt(m_pos) == '\'') {
+                            value.append('\'');
+                            m_pos++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        value.append(s);
+                    }
+                }
+                m_type = STRING;
+                m_text = value.toString();
+            } else if (c == '(') {
+                m_pos++;
+                m_type = OPEN;
+                m_text = "(";
+            } else if (c == ')') {
+                m_pos++;
+                m_type = CLOSE;
+                m_text = ")";
+            } else if (c == ',') {
+                m_pos++;
+                m_type = COMMA;
+                m_text = ",";
+            } else if (m_where.startsWith("<=", m_pos) || m_where.startsWith(">=", m_pos) || m_where.startsWith("<>", m_pos) || m_where.startsWith("!=", m_pos)) {
+                m_type = OPERATOR;
+                m_text = m_where.substring(m_pos, m_pos + 2);
+                m_pos += 2;
+            } else if (c == '=' || c == '<' || c == '>') {
+                m_pos++;
+                m_type = OPERATOR;
+                m_text = String.valueOf(c);
+            } else {
+                throw new NotLocalException("unexpected '" + c + "'");
+            }
+
+            // operators run together like "=-" are a different operator in SQL
+            if (m_type == OPERATOR && m_pos < length && "=<>!~+-*/%^&|#@`?".indexOf(m_where.charAt(m_pos)) >= 0) {
+                throw new NotLocalException("unexpected operator");
+            }
+        }
+    }
+}
@@ -559,7 +559,7 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
      * @throws FilterParseException
      *             if any errors occur during parsing
      */
-    private String parseRule(final List<Table> tables, final String rule) throws FilterParseException {
+    String parseRule(final List<Table> tables, final String rule) throws FilterParseException {
         if (rule != null && rule.length() > 0) {
         	final List<String> extractedStrings = new ArrayList<String>();
         	
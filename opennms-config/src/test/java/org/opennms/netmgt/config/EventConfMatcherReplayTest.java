@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.EventConfMatcher;
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Replays a trap mix derived from the full default event configuration
+ * through both the compiled {@link EventConfMatcher} and the partitioned
+ * {@link Events#findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}
+ * scan, verifying they agree and printing the throughput of each.
+ */
+public class EventConfMatcherReplayTest {
+
+    private static final int PASSES = 5;
+
+    private DefaultEventConfDao m_eventConfDao;
+    private List<org.opennms.netmgt.xml.event.Event> m_trapMix;
+
+    @Before
+    public void setUp() throws Exception {
+        m_eventConfDao = new DefaultEventConfDao();
+        m_eventConfDao.setConfigResource(new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml")));
+        m_eventConfDao.afterPropertiesSet();
+
+        m_trapMix = createTrapMix(m_eventConfDao.getAllEvents(), new Random(42));
+    }
+
+    @Test
+    public void testSameResultAsEventsScan() {
+        final Events root = m_eventConfDao.getRootEvents();
+        for (final org.opennms.netmgt.xml.event.Event event : m_trapMix) {
+            assertSame("mismatch for " + event, root.findFirstMatchingEvent(event), m_eventConfDao.findByEvent(event));
+        }
+    }
+
+    @Test
+    public void testReplayThroughput() {
+        final Events root = m_eventConfDao.getRootEvents();
+        final EventConfMatcher matcher = EventConfMatcher.compile(root);
+        System.err.println("Replaying " + m_trapMix.size() + " events against " + matcher);
+
+        long start = System.currentTimeMillis();
+        int scanMatches = 0;
+        for (int i = 0; i < PASSES; i++) {
+            for (final org.opennms.netmgt.xml.event.Event event : m_trapMix) {
+                if (root.findFirstMatchingEvent(event) != null) scanMatches++;
+            }
+        }
+        final long scanElapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        start = System.currentTimeMillis();
+        int compiledMatches = 0;
+        for (int i = 0; i < PASSES; i++) {
+            for (final org.opennms.netmgt.xml.event.Event event : m_trapMix) {
+                if (matcher.findFirstMatchingEvent(event) != null) compiledMatches++;
+            }
+        }
+        final long compiledElapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        final int attempts = PASSES * m_trapMix.size();
+        System.err.printf("Events.findFirstMatchingEvent: %d attempts: Elapsed: %d ms: events per second %f.%n", attempts, scanElapsed, attempts * 1000.0 / scanElapsed);
+        System.err.printf("EventConfMatcher.findFirstMatchingEvent: %d attempts: Elapsed: %d ms: events per second %f.%n", attempts, compiledElapsed, attempts * 1000.0 / compiledElapsed);
+
+        assertTrue(compiledMatches > 0);
+        assertTrue(compiledMatches == scanMatches);
+    }
+
+    /**
+     * Builds one trap for each enterprise-id based definition, one event per
+     * UEI-only definition and a share of traps that only the catch-all
+     * definitions will match, in random order.
+     */
+    private static List<org.opennms.netmgt.xml.event.Event> createTrapMix(final List<Event> eventConfs, final Random random) {
+        final List<org.opennms.netmgt.xml.event.Event> events = new ArrayList<org.opennms.netmgt.xml.event.Event>();
+        for (final Event eventConf : eventConfs) {
+            final List<String> ids = eventConf.getMaskElementValues("id");
+            if (ids == null || ids.isEmpty()) {
+                if (eventConf.getMask() == null && eventConf.getUei() != null) {
+                    events.add(new EventBuilder(eventConf.getUei(), "EventConfMatcherReplayTest").getEvent());
+                }
+                continue;
+            }
+
+            String id = ids.get(random.nextInt(ids.size()));
+            if (id.startsWith("~")) {
+                continue;
+            } else if (id.endsWith("%")) {
+                id = id.substring(0, id.length() - 1) + random.nextInt(100);
+            }
+
+            final EventBuilder bldr = new EventBuilder(null, "trapd");
+            bldr.setSnmpVersion("v2");
+            bldr.setCommunity("public");
+            bldr.setHost("127.0.0.1");
+            bldr.setSnmpHost("127.0.0.1");
+            bldr.setEnterpriseId(id);
+            bldr.setGeneric(intValue(eventConf.getMaskElementValues("generic"), 6, random));
+            bldr.setSpecific(intValue(eventConf.getMaskElementValues("specific"), random.nextInt(100), random));
+            for (int i = 0; i < 5; i++) {
+                bldr.addParam(".1.3.6." + (i + 1), "parm" + (i + 1));
+            }
+            events.add(bldr.getEvent());
+        }
+
+        final int unknown = events.size() / 10;
+        for (int i = 0; i < unknown; i++) {
+            final EventBuilder bldr = new EventBuilder(null, "trapd");
+            bldr.setSnmpVersion("v2");
+            bldr.setEnterpriseId(".1.3.6.1.4.1.99999." + i);
+            bldr.setGeneric(6);
+            bldr.setSpecific(i);
+            events.add(bldr.getEvent());
+        }
+
+        Collections.shuffle(events, random);
+        return events;
+    }
+
+    private static int intValue(final List<String> values, final int defaultValue, final Random random) {
+        if (values == null || values.isEmpty()) return defaultValue;
+        try {
+            return Integer.parseInt(values.get(random.nextInt(values.size())));
+        } catch (final NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
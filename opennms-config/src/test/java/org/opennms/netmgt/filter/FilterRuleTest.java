@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.config.DatabaseSchemaConfigFactory;
+
+/**
+ * Evaluates rules against a hand-built {@link FilterNode}, checking that
+ * anything the snapshot can't answer is left to the database.
+ */
+public class FilterRuleTest {
+
+    private static final int PASSES = 20000;
+
+    private JdbcFilterDao m_dao;
+    private FilterNode m_node;
+
+    @Before
+    public void setUp() throws Exception {
+        final InputStream is = ConfigurationTestUtils.getInputStreamForConfigFile("database-schema.xml");
+        try {
+            m_dao = new JdbcFilterDao();
+            m_dao.setDatabaseSchemaConfigFactory(new DatabaseSchemaConfigFactory(is));
+        } finally {
+            is.close();
+        }
+
+        final Map<String, String> columns = new HashMap<String, String>();
+        columns.put("nodelabel", "router1");
+        columns.put("nodetype", "A");
+        columns.put("nodesysoid", ".1.3.6.1.4.1.9.1.1");
+        columns.put("foreignsource", "core");
+        columns.put("nodesysname", null);
+
+        final Map<String, String> asset = new HashMap<String, String>();
+        asset.put("building", "HQ");
+        asset.put("city", null);
+
+        m_node = new FilterNode(1, null, columns,
+            Arrays.asList(
+                new FilterNode.Interface("192.168.1.1", "router1.example.com", "M", "P", 1, Arrays.asList(new FilterNode.Service(1, "ICMP"), new FilterNode.Service(2, "SNMP"))),
+                new FilterNode.Interface("192.168.1.2", null, "M", "N", 1, Arrays.asList(new FilterNode.Service(1, "ICMP"))),
+                new FilterNode.Interface("10.0.0.1", null, "U", "N", 1, Collections.<FilterNode.Service>emptyList())
+            ),
+            Arrays.asList(new FilterNode.Category(10, "Routers", null), new FilterNode.Category(11, "Production", "Production systems")),
+            Collections.singletonList(asset)
+        );
+    }
+
+    @Test
+    public void testColumns() {
+        assertMatches(true, "nodeLabel == 'router1'");
+        assertMatches(true, "nodelabel = \"router1\"");
+        assertMatches(false, "nodeLabel != 'router1'");
+        assertMatches(true, "nodeID == 1");
+        assertMatches(true, "nodeId == '1'");
+        assertMatches(true, "nodeID > 0 & nodeID <= 1");
+        assertMatches(false, "1 < nodeID");
+        assertMatches(true, "nodeType == 'A '");
+        assertMatches(true, "ipHostname == 'router1.example.com'");
+        assertMatches(true, "foreignSource == 'core' & (nodeLabel == 'switch1' | nodeLabel == 'router1')");
+    }
+
+    @Test
+    public void testPrefixedValues() {
+        assertMatches(true, "isICMP");
+        assertMatches(false, "isHTTP");
+        assertMatches(true, "isSNMP & catincRouters");
+        assertMatches(true, "catincProduction & !catincDevelopment");
+        assertMatches(false, "catincServers");
+        assertMatches(false, "notisSNMP", "192.168.1.1", null);
+        // some other node could have the same address with the service
+        assertMatches(null, "notisSNMP", "192.168.1.2", null);
+    }
+
+    @Test
+    public void testIplike() {
+        assertMatches(true, "IPADDR IPLIKE *.*.*.*");
+        assertMatches(true, "ipAddr iplike 192.168.1.1-2");
+        assertMatches(false, "ipAddr iplike 192.168.1.1-2", "10.0.0.1", null);
+        assertMatches(true, "IPLIKE(ipAddr, '10.*.*.*')");
+        assertMatches(true, "ipaddr != '0.0.0.0'");
+    }
+
+    @Test
+    public void testConstraints() {
+        assertMatches(true, "nodeLabel == 'router1'", "10.0.0.1", null);
+        assertMatches(false, "nodeLabel == 'router1'", "10.0.0.2", null);
+        // the service join drops interfaces without services
+        assertMatches(false, "nodeLabel == 'router1'", "10.0.0.1", "ICMP");
+        assertMatches(false, "isICMP", "10.0.0.1", null);
+        assertMatches(true, "isICMP", "192.168.1.2", "ICMP");
+        assertMatches(false, "isICMP", "192.168.1.2", "SNMP");
+        assertMatches(true, "ipHostname IS NULL", "192.168.1.2", null);
+        assertMatches(false, "ipHostname IS NULL", "192.168.1.1", null);
+    }
+
+    @Test
+    public void testLike() {
+        assertMatches(true, "nodeLabel like 'rout%'");
+        assertMatches(false, "nodeLabel not like 'rout%'");
+        assertMatches(true, "nodeLabel LIKE 'router_'");
+        assertMatches(false, "nodeLabel LIKE 'Router%'");
+        assertMatches(true, "nodeSysOid LIKE '.1.3.6.1.4.1.9.%'");
+        assertMatches(false, "nodeLabel LIKE 'router\\_'");
+    }
+
+    @Test
+    public void testNulls() {
+        assertMatches(true, "nodeSysName IS NULL");
+        assertMatches(false, "nodeSysName IS NOT NULL");
+        assertMatches(false, "nodeSysName == 'foo'");
+        assertMatches(false, "nodeSysName != 'foo'");
+        assertMatches(false, "!(nodeSysName == 'foo')");
+        assertMatches(true, "nodeSysName == 'foo' | nodeLabel == 'router1'");
+        assertMatches(true, "nodeParentID IS NULL");
+    }
+
+    @Test
+    public void testCategoriesAndAssets() {
+        assertMatches(true, "categoryName == 'Routers'");
+        assertMatches(true, "categoryName == 'Production' & categoryDescription LIKE 'Production%'");
+        assertMatches(false, "categoryName IS NULL");
+        assertMatches(true, "building == 'HQ'");
+        assertMatches(true, "city IS NULL");
+
+        final FilterNode bare = new FilterNode(2, null, Collections.<String, String>emptyMap(),
+            Collections.singletonList(new FilterNode.Interface("10.0.0.2", null, "M", "N", 1, Collections.<FilterNode.Service>emptyList())),
+            Collections.<FilterNode.Category>emptyList(), Collections.<Map<String, String>>emptyList());
+        // category_node is a left join, assets an inner join
+        assertEquals(Boolean.TRUE, FilterRule.compile(m_dao, "categoryName IS NULL").evaluate(bare, null, null));
+        assertEquals(Boolean.FALSE, FilterRule.compile(m_dao, "building IS NULL").evaluate(bare, null, null));
+        assertEquals(Boolean.FALSE, FilterRule.compile(m_dao, "nodeID == 2").evaluate(new FilterNode(2), null, null));
+    }
+
+    @Test
+    public void testDatabaseOnly() {
+        // errors in the database
+        assertDatabaseOnly("nodeLabel == 5");
+        assertDatabaseOnly("nodeID == 'one'");
+        assertDatabaseOnly("nodeID LIKE '1%'");
+        assertDatabaseOnly("noSuchColumn == 1");
+        assertDatabaseOnly("(nodeID == 1");
+        assertDatabaseOnly("nodeLabel == 'router1'::INET");
+        // isManaged is read as the service prefix
+        assertDatabaseOnly("isManaged == 'M'");
+        assertDatabaseOnly("");
+        // not modelled locally
+        assertDatabaseOnly("snmpIfType == 6");
+        assertDatabaseOnly("nodeCreateTime > '2014-01-01'");
+        assertDatabaseOnly("nodeLabel == nodeSysName");
+        assertDatabaseOnly("nodeID IN (1, 2)");
+
+        // depends on the collation
+        assertMatches(null, "nodeLabel < 'switch'");
+        // ...unless the rest of the rule decides it
+        assertMatches(false, "nodeLabel < 'switch' & nodeID == 2");
+    }
+
+    @Test
+    public void testThroughput() {
+        final List<String> rules = Arrays.asList(
+            "IPADDR != '0.0.0.0'",
+            "IPADDR IPLIKE *.*.*.*",
+            "(isICMP | isSNMP) & catincProduction",
+            "nodeLabel LIKE 'router%' & !catincDevelopment",
+            "isHTTP & (categoryName == 'Servers' | building == 'HQ')"
+        );
+        final FilterRule[] compiled = new FilterRule[rules.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = FilterRule.compile(m_dao, rules.get(i));
+            assertTrue(compiled[i].toString(), compiled[i].isLocal());
+        }
+
+        // what the database path costs before the query is even sent
+        long start = System.currentTimeMillis();
+        int statements = 0;
+        for (int i = 0; i < PASSES; i++) {
+            for (final String rule : rules) {
+                if (m_dao.getSQLStatement(rule, 1, "192.168.1.1", "ICMP") != null) statements++;
+            }
+        }
+        final long sqlElapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        start = System.currentTimeMillis();
+        int matches = 0;
+        for (int i = 0; i < PASSES; i++) {
+            for (final FilterRule rule : compiled) {
+                if (rule.evaluate(m_node, "192.168.1.1", "ICMP")) matches++;
+            }
+        }
+        final long compiledElapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        final int attempts = PASSES * rules.size();
+        System.err.printf("JdbcFilterDao.getSQLStatement: %d rules: Elapsed: %d ms: rules per second %f.%n", attempts, sqlElapsed, attempts * 1000.0 / sqlElapsed);
+        System.err.printf("FilterRule.evaluate: %d rules: Elapsed: %d ms: rules per second %f.%n", attempts, compiledElapsed, attempts * 1000.0 / compiledElapsed);
+
+        assertEquals(attempts, statements);
+        assertEquals(4 * PASSES, matches);
+    }
+
+    private void assertMatches(final Boolean expected, final String rule) {
+        assertMatches(expected, rule, null, null);
+    }
+
+    private void assertMatches(final Boolean expected, final String rule, final String ipAddr, final String serviceName) {
+        final FilterRule filterRule = FilterRule.compile(m_dao, rule);
+        assertTrue(rule + " should be evaluated locally", filterRule.isLocal());
+        assertEquals(rule, expected, filterRule.evaluate(m_node, ipAddr, serviceName));
+    }
+
+    private void assertDatabaseOnly(final String rule) {
+        final FilterRule filterRule = FilterRule.compile(m_dao, rule);
+        assertFalse(rule + " should be left to the database", filterRule.isLocal());
+        assertNull(rule, filterRule.evaluate(m_node, null, null));
+    }
+}
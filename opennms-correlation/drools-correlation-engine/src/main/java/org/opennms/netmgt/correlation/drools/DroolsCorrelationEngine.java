@@ -31,12 +31,23 @@ package org.opennms.netmgt.correlation.drools;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.commons.io.IOUtils;
 import org.drools.RuleBase;
@@ -47,47 +58,247 @@ import org.drools.WorkingMemory;
 import org.drools.compiler.DroolsParserException;
 import org.drools.compiler.PackageBuilder;
 import org.drools.compiler.PackageBuilderConfiguration;
+import org.drools.event.DefaultWorkingMemoryEventListener;
+import org.drools.event.ObjectInsertedEvent;
+import org.drools.event.ObjectRetractedEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.opennms.netmgt.correlation.AbstractCorrelationEngine;
+import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
 import org.springframework.core.io.Resource;
 
 /**
  * <p>DroolsCorrelationEngine class.</p>
  *
+ * <p>By default each event is inserted into a single working memory and the
+ * rules are fired on the thread that delivered it.  If a batch size or a
+ * partition count greater than one is configured, events are instead queued
+ * and drained by one thread per partition, which inserts up to a batch of
+ * events and timer expirations and then fires the rules once.  Events are
+ * assigned to a partition by their node ID, interface or location monitor,
+ * so all of the events with the same key are correlated in order in the
+ * same working memory; rules that match facts with different keys must use
+ * a single partition.</p>
+ *
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  * @version $Id: $
  */
-public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
+public class DroolsCorrelationEngine extends AbstractCorrelationEngine implements DroolsCorrelationEngineMBean {
     private static final Logger LOG = LoggerFactory.getLogger(DroolsCorrelationEngine.class);
 
-    private WorkingMemory m_workingMemory;
+    /** Partition events by node ID. */
+    public static final String PARTITION_BY_NODEID = "nodeid";
+    /** Partition events by interface address. */
+    public static final String PARTITION_BY_INTERFACE = "interface";
+    /** Partition events by the location monitor that reported them. */
+    public static final String PARTITION_BY_LOCATION = "location";
+
+    private Partition[] m_partitions;
     private List<String> m_interestingEvents;
     private List<Resource> m_rules;
     private Map<String, Object> m_globals = new HashMap<String, Object>();
     private String m_name;
     private String m_assertBehaviour;
-    
+    private int m_batchSize = 1;
+    private int m_partitionCount = 1;
+    private String m_partitionBy = PARTITION_BY_NODEID;
+
+    private final ThreadLocal<Partition> m_firingPartition = new ThreadLocal<Partition>();
+    private final Map<Integer, Partition> m_timerPartitions = new HashMap<Integer, Partition>();
+
+    private final AtomicLong m_factsInserted = new AtomicLong(0);
+    private final AtomicLong m_batchesFired = new AtomicLong(0);
+    private final AtomicLong m_maxBatchSize = new AtomicLong(0);
+    private final AtomicLong m_fireNanos = new AtomicLong(0);
+    private final AtomicLong m_maxFireNanos = new AtomicLong(0);
+
+    /**
+     * A working memory together with the queue of facts waiting to be
+     * inserted into it.
+     */
+    private class Partition implements Runnable {
+        private final WorkingMemory m_workingMemory;
+        private final BlockingQueue<Object> m_queue = new LinkedBlockingQueue<Object>();
+        private final AtomicInteger m_pending = new AtomicInteger(0);
+        private final AtomicLong m_factCount = new AtomicLong(0);
+
+        public Partition(final WorkingMemory workingMemory) {
+            m_workingMemory = workingMemory;
+            m_workingMemory.addEventListener(new DefaultWorkingMemoryEventListener() {
+                @Override
+                public void objectInserted(final ObjectInsertedEvent event) {
+                    m_factCount.incrementAndGet();
+                }
+
+                @Override
+                public void objectRetracted(final ObjectRetractedEvent event) {
+                    m_factCount.decrementAndGet();
+                }
+            });
+        }
+
+        public void submit(final Object fact) {
+            if (!isQueued()) {
+                synchronized (this) {
+                    fire(Collections.singletonList(fact));
+                }
+                return;
+            }
+            m_pending.incrementAndGet();
+            m_queue.add(fact);
+        }
+
+        @Override
+        public void run() {
+            final List<Object> batch = new ArrayList<Object>(m_batchSize);
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    batch.add(m_queue.take());
+                } catch (final InterruptedException e) {
+                    break;
+                }
+                m_queue.drainTo(batch, m_batchSize - 1);
+                try {
+                    fire(batch);
+                } catch (final RuntimeException e) {
+                    LOG.error("Failed to correlate {} facts in engine {}", batch.size(), m_name, e);
+                } finally {
+                    if (m_pending.addAndGet(-batch.size()) == 0) {
+                        synchronized (this) {
+                            notifyAll();
+                        }
+                    }
+                    batch.clear();
+                }
+            }
+            LOG.debug("Stopped correlating events for engine {}", m_name);
+        }
+
+        private void fire(final List<Object> facts) {
+            m_firingPartition.set(this);
+            try {
+                for (final Object fact : facts) {
+                    m_workingMemory.insert(fact);
+                }
+                final long start = System.nanoTime();
+                m_workingMemory.fireAllRules();
+                batchFired(facts.size(), System.nanoTime() - start);
+            } finally {
+                m_firingPartition.remove();
+            }
+        }
+
+        public synchronized boolean awaitIdle(final long deadline) throws InterruptedException {
+            long remaining = deadline - System.currentTimeMillis();
+            while (m_pending.get() > 0) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return true;
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
-    public synchronized void correlate(final Event e) {
+    public void correlate(final Event e) {
 	LOG.debug("Begin correlation for Event {} uei: {}", e.getDbid(), e.getUei());
-        m_workingMemory.insert(e);
-        m_workingMemory.fireAllRules();
+        getPartition(e).submit(e);
 	LOG.debug("End correlation for Event {} uei: {}", e.getDbid(), e.getUei());
     }
 
     /** {@inheritDoc} */
     @Override
-    protected synchronized void timerExpired(final Integer timerId) {
+    protected void timerExpired(final Integer timerId) {
 	LOG.info("Begin correlation for Timer {}", timerId);
-        TimerExpired expiration  = new TimerExpired(timerId);
-        m_workingMemory.insert(expiration);
-        m_workingMemory.fireAllRules();
+        Partition partition;
+        synchronized (m_timerPartitions) {
+            partition = m_timerPartitions.remove(timerId);
+        }
+        if (partition == null) {
+            partition = m_partitions[0];
+        }
+        partition.submit(new TimerExpired(timerId));
 	LOG.debug("Begin correlation for Timer {}", timerId);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The expiration is delivered to the working memory whose rules set
+     * the timer.
+     */
+    @Override
+    public Integer setTimer(final long millis) {
+        if (m_partitions.length == 1) {
+            return super.setTimer(millis);
+        }
+        // hold the lock so that a short timer cannot expire before it is mapped
+        synchronized (m_timerPartitions) {
+            final Integer timerId = super.setTimer(millis);
+            final Partition partition = m_firingPartition.get();
+            if (partition != null) {
+                m_timerPartitions.put(timerId, partition);
+            }
+            return timerId;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void cancelTimer(final Integer timerId) {
+        super.cancelTimer(timerId);
+        synchronized (m_timerPartitions) {
+            m_timerPartitions.remove(timerId);
+        }
+    }
+
+    private Partition getPartition(final Event e) {
+        if (m_partitions.length == 1) {
+            return m_partitions[0];
+        }
+        final Object key = getPartitionKey(e);
+        return key == null ? m_partitions[0] : m_partitions[(key.hashCode() & Integer.MAX_VALUE) % m_partitions.length];
+    }
+
+    private Object getPartitionKey(final Event e) {
+        if (PARTITION_BY_INTERFACE.equals(m_partitionBy)) {
+            return e.getInterface();
+        } else if (PARTITION_BY_LOCATION.equals(m_partitionBy)) {
+            for (final Parm parm : e.getParmCollection()) {
+                if (EventConstants.PARM_LOCATION_MONITOR_ID.equals(parm.getParmName()) && parm.getValue() != null) {
+                    return parm.getValue().getContent();
+                }
+            }
+            return null;
+        } else {
+            return e.hasNodeid() ? e.getNodeid() : null;
+        }
+    }
+
+    private boolean isQueued() {
+        return m_batchSize > 1 || m_partitionCount > 1;
+    }
+
+    private void batchFired(final int size, final long nanos) {
+        m_factsInserted.addAndGet(size);
+        m_batchesFired.incrementAndGet();
+        m_fireNanos.addAndGet(nanos);
+        updateMax(m_maxBatchSize, size);
+        updateMax(m_maxFireNanos, nanos);
+    }
+
+    private static void updateMax(final AtomicLong max, final long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public List<String> getInterestingEvents() {
@@ -148,13 +359,40 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
 
         ruleBase.addPackage( builder.getPackage() );
 
-        m_workingMemory = ruleBase.newStatefulSession();
-        m_workingMemory.setGlobal("engine", this);
-        
-        for (final Map.Entry<String, Object> entry : m_globals.entrySet()) {
-            m_workingMemory.setGlobal(entry.getKey(), entry.getValue());
+        m_partitions = new Partition[m_partitionCount];
+        for (int i = 0; i < m_partitions.length; i++) {
+            final WorkingMemory workingMemory = ruleBase.newStatefulSession();
+            workingMemory.setGlobal("engine", this);
+
+            for (final Map.Entry<String, Object> entry : m_globals.entrySet()) {
+                workingMemory.setGlobal(entry.getKey(), entry.getValue());
+            }
+            m_partitions[i] = new Partition(workingMemory);
         }
 
+        if (isQueued()) {
+            LOG.info("Correlating events for engine {} in batches of {} over {} partitions by {}", m_name, m_batchSize, m_partitionCount, m_partitionBy);
+            for (int i = 0; i < m_partitions.length; i++) {
+                final Thread thread = new Thread(m_partitions[i], "DroolsCorrelationEngine-" + m_name + "-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        registerMBean();
+    }
+
+    private void registerMBean() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName("OpenNMS:Name=DroolsCorrelationEngine,Engine=" + ObjectName.quote(String.valueOf(m_name)));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (final Exception e) {
+            LOG.debug("Unable to register engine {} with JMX", m_name, e);
+        }
     }
 
     private void loadRules(final PackageBuilder builder) throws DroolsParserException, IOException {
@@ -170,6 +408,25 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
             }
         }
     }
+
+    /**
+     * Waits until every queued event and timer expiration has been inserted
+     * and its rules fired.  This returns immediately unless batching or
+     * partitioning is enabled.
+     *
+     * @param timeout the maximum time to wait, in milliseconds
+     * @return true if the queues drained before the timeout elapsed
+     * @throws java.lang.InterruptedException if interrupted while waiting
+     */
+    public boolean awaitIdle(final long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        for (final Partition partition : m_partitions) {
+            if (!partition.awaitIdle(deadline)) {
+                return false;
+            }
+        }
+        return true;
+    }
     
     /**
      * <p>getMemorySize</p>
@@ -178,8 +435,10 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
      */
     public int getMemorySize() {
         int count = 0;
-        for(final Iterator<?> it = m_workingMemory.iterateObjects(); it.hasNext(); it.next()) {
-            count++;
+        for (final Partition partition : m_partitions) {
+            for(final Iterator<?> it = partition.m_workingMemory.iterateObjects(); it.hasNext(); it.next()) {
+                count++;
+            }
         }
     	return count;
     }
@@ -191,14 +450,20 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
      */
     public List<Object> getMemoryObjects() {
     	final List<Object> objects = new LinkedList<Object>();
-        for(Iterator<?> it = m_workingMemory.iterateObjects(); it.hasNext(); ) {
-        	objects.add(it.next());
+        for (final Partition partition : m_partitions) {
+            for(Iterator<?> it = partition.m_workingMemory.iterateObjects(); it.hasNext(); ) {
+            	objects.add(it.next());
+            }
         }
         return objects;
     }
     
+    /**
+     * Returns the working memory of the first partition, which is the only
+     * one unless partitioning is enabled.
+     */
     public WorkingMemory getWorkingMemory() {
-    	return m_workingMemory;
+    	return m_partitions[0].m_workingMemory;
     }
 
     /**
@@ -227,10 +492,122 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
      * @param value a {@link java.lang.Object} object.
      */
     public void setGlobal(final String name, final Object value) {
-        m_workingMemory.setGlobal(name, value);
+        for (final Partition partition : m_partitions) {
+            partition.m_workingMemory.setGlobal(name, value);
+        }
     }
 
 	public void setAssertBehaviour(String assertBehaviour) {
 		m_assertBehaviour = assertBehaviour;
 	}
+
+    /**
+     * Sets the maximum number of events inserted before the rules are
+     * fired.  Must be set before {@link #initialize()}.
+     *
+     * @param batchSize a int.
+     */
+    public void setBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be at least 1, not " + batchSize);
+        }
+        m_batchSize = batchSize;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getBatchSize() {
+        return m_batchSize;
+    }
+
+    /**
+     * Sets the number of working memories the events are spread over.
+     * Must be set before {@link #initialize()}.
+     *
+     * @param partitionCount a int.
+     */
+    public void setPartitionCount(final int partitionCount) {
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("The partition count must be at least 1, not " + partitionCount);
+        }
+        m_partitionCount = partitionCount;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getPartitionCount() {
+        return m_partitionCount;
+    }
+
+    /**
+     * Sets the event field used to pick a partition: one of
+     * {@link #PARTITION_BY_NODEID}, {@link #PARTITION_BY_INTERFACE} or
+     * {@link #PARTITION_BY_LOCATION}.
+     *
+     * @param partitionBy a {@link java.lang.String} object.
+     */
+    public void setPartitionBy(final String partitionBy) {
+        if (!PARTITION_BY_NODEID.equals(partitionBy) && !PARTITION_BY_INTERFACE.equals(partitionBy) && !PARTITION_BY_LOCATION.equals(partitionBy)) {
+            throw new IllegalArgumentException("Unknown partition key: " + partitionBy);
+        }
+        m_partitionBy = partitionBy;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getQueuedFacts() {
+        int queued = 0;
+        for (final Partition partition : m_partitions) {
+            queued += partition.m_pending.get();
+        }
+        return queued;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getFactsInserted() {
+        return m_factsInserted.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getBatchesFired() {
+        return m_batchesFired.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getAverageBatchSize() {
+        final long batches = m_batchesFired.get();
+        return batches == 0 ? 0.0 : (double)m_factsInserted.get() / batches;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getMaxBatchSize() {
+        return (int)m_maxBatchSize.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getAverageFireLatency() {
+        final long batches = m_batchesFired.get();
+        return batches == 0 ? 0.0 : m_fireNanos.get() / (double)batches / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getMaxFireLatency() {
+        return m_maxFireNanos.get() / (double)TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getFactCount() {
+        long count = 0;
+        for (final Partition partition : m_partitions) {
+            count += partition.m_factCount.get();
+        }
+        return count;
+    }
 }
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.correlation.drools;
+
+/**
+ * JMX view of the batches fired by a {@link DroolsCorrelationEngine}.
+ */
+public interface DroolsCorrelationEngineMBean {
+
+    /**
+     * @return the name of the rule set
+     */
+    public String getName();
+
+    /**
+     * @return the maximum number of facts inserted before the rules are fired
+     */
+    public int getBatchSize();
+
+    /**
+     * @return the number of working memories the events are spread over
+     */
+    public int getPartitionCount();
+
+    /**
+     * @return the number of events and timer expirations waiting to be
+     *         inserted into a working memory
+     */
+    public int getQueuedFacts();
+
+    /**
+     * @return the cumulative number of events and timer expirations
+     *         inserted into the working memories
+     */
+    public long getFactsInserted();
+
+    /**
+     * @return the cumulative number of calls to fireAllRules
+     */
+    public long getBatchesFired();
+
+    /**
+     * @return the average number of facts inserted per call to fireAllRules
+     */
+    public double getAverageBatchSize();
+
+    /**
+     * @return the largest number of facts inserted for a single call to
+     *         fireAllRules
+     */
+    public int getMaxBatchSize();
+
+    /**
+     * @return the average time spent in fireAllRules, in milliseconds
+     */
+    public double getAverageFireLatency();
+
+    /**
+     * @return the longest time spent in a single call to fireAllRules, in
+     *         milliseconds
+     */
+    public double getMaxFireLatency();
+
+    /**
+     * @return the number of facts currently held by all of the working
+     *         memories
+     */
+    public long getFactCount();
+}
@@ -99,6 +99,15 @@ public class RuleSet implements Serializable {
 
 	@XmlAttribute(name="assert-behaviour")
 	private String _assertBehaviour;
+
+	@XmlAttribute(name="batch-size")
+	private Integer _batchSize;
+
+	@XmlAttribute(name="partitions")
+	private Integer _partitions;
+
+	@XmlAttribute(name="partition-by")
+	private String _partitionBy;
     /**
      * Field _ruleFileList.
      */
@@ -150,6 +159,52 @@ public class RuleSet implements Serializable {
 	}
 
 
+	/**
+	 * Returns the maximum number of events inserted into the working
+	 * memory before the rules are fired.
+	 * 
+	 * @return the value of field 'BatchSize'.
+	 */
+	public int getBatchSize() {
+		return _batchSize == null ? 1 : _batchSize;
+	}
+
+
+	public void setBatchSize(final int batchSize) {
+		this._batchSize = batchSize;
+	}
+
+
+	/**
+	 * Returns the number of working memories the events are spread over.
+	 * 
+	 * @return the value of field 'Partitions'.
+	 */
+	public int getPartitions() {
+		return _partitions == null ? 1 : _partitions;
+	}
+
+
+	public void setPartitions(final int partitions) {
+		this._partitions = partitions;
+	}
+
+
+	/**
+	 * Returns the event field used to pick the partition of an event.
+	 * 
+	 * @return the value of field 'PartitionBy'.
+	 */
+	public String getPartitionBy() {
+		return _partitionBy == null ? DroolsCorrelationEngine.PARTITION_BY_NODEID : _partitionBy;
+	}
+
+
+	public void setPartitionBy(final String partitionBy) {
+		this._partitionBy = partitionBy;
+	}
+
+
 	/**
      * 
      * 
@@ -925,6 +980,9 @@ public class RuleSet implements Serializable {
 		final DroolsCorrelationEngine engine = new DroolsCorrelationEngine();
 		engine.setName(getName());
 		engine.setAssertBehaviour(getAssertBehaviour());
+		engine.setBatchSize(getBatchSize());
+		engine.setPartitionCount(getPartitions());
+		engine.setPartitionBy(getPartitionBy());
 		engine.setEventIpcManager(eventIpcManager);
 		engine.setScheduler(new ScheduledThreadPoolExecutor(1));
 		engine.setInterestingEvents(getInterestingEvents());
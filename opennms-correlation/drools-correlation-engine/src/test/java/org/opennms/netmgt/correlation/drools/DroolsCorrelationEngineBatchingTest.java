@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.correlation.drools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.dao.mock.MockEventIpcManager;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * Runs the location monitor example rules with events inserted in batches
+ * and spread over several working memories, and prints the throughput of
+ * each mode.
+ */
+public class DroolsCorrelationEngineBatchingTest {
+
+    private static final String RULES = "src/test/opennms-home/etc/drools-engine.d/locationMonitorRules/LocationMonitorRules.drl";
+    private static final String WS_OUTAGE_UEI = "uei.opennms.org/correlation/remote/wideSpreadOutage";
+    private static final String WS_RESOLVED_UEI = "uei.opennms.org/correlation/remote/wideSpreadOutageResolved";
+    private static final int[] MONITORS = { 7, 8, 9 };
+
+    private MockEventIpcManager m_eventIpcManager;
+    private ScheduledThreadPoolExecutor m_scheduler;
+
+    @Before
+    public void setUp() {
+        MockLogAppender.setupLogging(true, "WARN");
+        m_eventIpcManager = new MockEventIpcManager();
+        m_scheduler = new ScheduledThreadPoolExecutor(1);
+    }
+
+    @After
+    public void tearDown() {
+        m_scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testPartitionedBatches() throws Exception {
+        final int nodes = 20;
+        final DroolsCorrelationEngine engine = createEngine(10, 4, DroolsCorrelationEngine.PARTITION_BY_NODEID);
+
+        for (int node = 1; node <= nodes; node++) {
+            m_eventIpcManager.getEventAnticipator().anticipateEvent(createServiceEvent(WS_OUTAGE_UEI, node));
+        }
+        for (int node = 1; node <= nodes; node++) {
+            for (final int monitor : MONITORS) {
+                engine.correlate(createRemoteEvent(EventConstants.REMOTE_NODE_LOST_SERVICE_UEI, node, monitor));
+            }
+        }
+        assertTrue(engine.awaitIdle(10000));
+        m_eventIpcManager.getEventAnticipator().verifyAnticipated(1000, 0, 0, 0, 0);
+
+        // an affliction and a flap for each monitor
+        assertEquals(nodes * 4, engine.getMemorySize());
+        assertEquals(engine.getMemorySize(), engine.getFactCount());
+        assertEquals(nodes * MONITORS.length, engine.getFactsInserted());
+        assertTrue(engine.getMaxBatchSize() <= 10);
+
+        m_eventIpcManager.getEventAnticipator().reset();
+        for (int node = 1; node <= nodes; node++) {
+            m_eventIpcManager.getEventAnticipator().anticipateEvent(createServiceEvent(WS_RESOLVED_UEI, node));
+        }
+        for (int node = 1; node <= nodes; node++) {
+            for (final int monitor : MONITORS) {
+                engine.correlate(createRemoteEvent(EventConstants.REMOTE_NODE_REGAINED_SERVICE_UEI, node, monitor));
+            }
+        }
+        assertTrue(engine.awaitIdle(10000));
+        m_eventIpcManager.getEventAnticipator().verifyAnticipated(1000, 0, 0, 0, 0);
+
+        // the flaps and their counts remain until the timers expire
+        assertEquals(nodes * 6, engine.getMemorySize());
+
+        // each expiration must reach the working memory that set its timer
+        Thread.sleep(1100);
+        assertTrue(engine.awaitIdle(10000));
+        assertEquals(0, engine.getMemorySize());
+        assertEquals(0, engine.getFactCount());
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        final int nodes = 2000;
+        runBenchmark("per event", createEngine(1, 1, DroolsCorrelationEngine.PARTITION_BY_NODEID), nodes);
+        runBenchmark("batches of 100", createEngine(100, 1, DroolsCorrelationEngine.PARTITION_BY_NODEID), nodes);
+        runBenchmark("4 partitions", createEngine(100, 4, DroolsCorrelationEngine.PARTITION_BY_NODEID), nodes);
+    }
+
+    private void runBenchmark(final String mode, final DroolsCorrelationEngine engine, final int nodes) throws Exception {
+        final long start = System.nanoTime();
+        for (int node = 1; node <= nodes; node++) {
+            for (final int monitor : MONITORS) {
+                engine.correlate(createRemoteEvent(EventConstants.REMOTE_NODE_LOST_SERVICE_UEI, node, monitor));
+            }
+            for (final int monitor : MONITORS) {
+                engine.correlate(createRemoteEvent(EventConstants.REMOTE_NODE_REGAINED_SERVICE_UEI, node, monitor));
+            }
+        }
+        assertTrue(engine.awaitIdle(60000));
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        assertEquals(0, engine.getQueuedFacts());
+        System.err.printf("%-15s: %6d events in %6.3fs (%8.0f events/s), average batch %6.1f, average fire %7.3fms, max fire %7.3fms%n",
+                          mode, engine.getFactsInserted(), seconds, engine.getFactsInserted() / seconds,
+                          engine.getAverageBatchSize(), engine.getAverageFireLatency(), engine.getMaxFireLatency());
+    }
+
+    private DroolsCorrelationEngine createEngine(final int batchSize, final int partitions, final String partitionBy) throws Exception {
+        final Map<String, Object> globals = new HashMap<String, Object>();
+        globals.put("WIDE_SPREAD_THRESHOLD", Integer.valueOf(3));
+        globals.put("FLAP_INTERVAL", Long.valueOf(1000));
+        globals.put("FLAP_COUNT", Integer.valueOf(3));
+
+        final DroolsCorrelationEngine engine = new DroolsCorrelationEngine();
+        engine.setName("locationMonitorRules");
+        engine.setAssertBehaviour("identity");
+        engine.setEventIpcManager(m_eventIpcManager);
+        engine.setScheduler(m_scheduler);
+        engine.setInterestingEvents(Collections.singletonList(EventConstants.REMOTE_NODE_LOST_SERVICE_UEI));
+        engine.setRulesResources(Collections.<Resource>singletonList(new FileSystemResource(RULES)));
+        engine.setGlobals(globals);
+        engine.setBatchSize(batchSize);
+        engine.setPartitionCount(partitions);
+        engine.setPartitionBy(partitionBy);
+        engine.initialize();
+        return engine;
+    }
+
+    private static Event createRemoteEvent(final String uei, final int nodeId, final int locationMonitor) {
+        return new EventBuilder(uei, "test")
+            .setNodeid(nodeId)
+            .setInterface(addr("192.168.1.1"))
+            .setService("HTTP")
+            .addParam(EventConstants.PARM_LOCATION_MONITOR_ID, locationMonitor)
+            .getEvent();
+    }
+
+    private static Event createServiceEvent(final String uei, final int nodeId) {
+        return new EventBuilder(uei, "Drools")
+            .setNodeid(nodeId)
+            .setInterface(addr("192.168.1.1"))
+            .setService("HTTP")
+            .getEvent();
+    }
+}
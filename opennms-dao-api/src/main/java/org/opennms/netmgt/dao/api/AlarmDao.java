@@ -33,11 +33,18 @@ import org.opennms.netmgt.model.alarm.AlarmSummary;
 import org.opennms.netmgt.model.topology.EdgeAlarmStatusSummary;
 
 import java.util.List;
+import java.util.Map;
 
 public interface AlarmDao extends LegacyOnmsDao<OnmsAlarm, Integer> {
 
     OnmsAlarm findByReductionKey(String reductionKey);
 
+    /**
+     * Returns the ID of every alarm that has a reduction key, keyed by the
+     * reduction key, without loading the alarms themselves.
+     */
+    Map<String, Integer> getAlarmIdsByReductionKey();
+
     /**
      * <p>Get the list of current - not yet acknowledged - alarms per node with severity greater than normal,
      * reflecting the max severity, the minimum last event time and alarm count;
@@ -28,7 +28,9 @@
 
 package org.opennms.netmgt.dao.mock;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.opennms.netmgt.dao.api.AlarmDao;
@@ -73,6 +75,17 @@ public class MockAlarmDao extends AbstractMockDao<OnmsAlarm, Integer> implements
         throw new UnsupportedOperationException("Not yet implemented!");
     }
 
+    @Override
+    public Map<String, Integer> getAlarmIdsByReductionKey() {
+        final Map<String, Integer> alarmIds = new HashMap<String, Integer>();
+        for (final OnmsAlarm alarm : findAll()) {
+            if (alarm.getReductionKey() != null) {
+                alarmIds.put(alarm.getReductionKey(), alarm.getId());
+            }
+        }
+        return alarmIds;
+    }
+
     @Override
     public List<AlarmSummary> getNodeAlarmSummaries() {
         throw new UnsupportedOperationException("Not yet implemented!");
@@ -29,7 +29,9 @@
 package org.opennms.netmgt.dao.hibernate;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.model.OnmsAlarm;
@@ -55,6 +57,16 @@ public class AlarmDaoHibernate extends AbstractDaoHibernate<OnmsAlarm, Integer>
         return super.findUnique(hql, reductionKey);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, Integer> getAlarmIdsByReductionKey() {
+        final Map<String, Integer> alarmIds = new HashMap<String, Integer>();
+        for (final Object[] row : findObjects(Object[].class, "select alarms.reductionKey, alarms.id from OnmsAlarm as alarms where alarms.reductionKey is not null")) {
+            alarmIds.put((String)row[0], (Integer)row[1]);
+        }
+        return alarmIds;
+    }
+
     /** {@inheritDoc} */
     @Override
     public List<AlarmSummary> getNodeAlarmSummariesIncludeAcknowledgedOnes(List<Integer> nodeIds) {
@@ -51,7 +51,7 @@ public class BridgeTopology {
 
     public class BridgeTopologyLinkCandidate implements Comparable<BridgeTopologyLinkCandidate> {
         private final BridgeTopologyPort bridgeTopologyPort;
-        private Set<String> macs = new TreeSet<String>();
+        private MacSet macs;
         private Set<Integer> targets = new TreeSet<Integer>();
         private BridgePortRole role;
         private BridgeTopologyPort linkportcandidate;
@@ -62,52 +62,28 @@ public class BridgeTopology {
         }
 
         public void removeMacs(Set<String> otherMacs) {
-            Set<String> curmacs = new HashSet<String>();
-            for (String mac : getMacs()) {
-                if (otherMacs.contains(mac)) {
-                    continue;
-                }
-                curmacs.add(mac);
-            }
-            macs = curmacs;
+            macs = macs.difference(MacSet.of(otherMacs));
         }
 
-        public Set<String> getMacs() {
+        public MacSet getMacs() {
             return macs;
         }
 
         public boolean intersectionNull(BridgeTopologyLinkCandidate portcandidate) {
-            for (String mac : getMacs()) {
-                if (portcandidate.getMacs().contains(mac)) {
-                    return false;
-                }
-            }
-            return true;
+            return !getMacs().intersects(portcandidate.getMacs());
         }
 
         public boolean strictContainedPort(BridgeTopologyLinkCandidate portcandidate) {
-            if (portcandidate.getBridgeTopologyPort().getMacs().size() <= getBridgeTopologyPort().getMacs().size()) {
-                return false;
-            }
-            for (String mac : getBridgeTopologyPort().getMacs()) {
-                if (!portcandidate.getBridgeTopologyPort().getMacs().contains(mac)) {
-                    return false;
-                }
-            }
-            return true;
-
+            final MacSet portmacs = getBridgeTopologyPort().getMacs();
+            final MacSet otherportmacs = portcandidate.getBridgeTopologyPort().getMacs();
+            return otherportmacs.size() > portmacs.size() && otherportmacs.containsAll(portmacs);
         }
 
         public boolean strictContained(BridgeTopologyLinkCandidate portcandidate) {
             if (portcandidate.getMacs().size() <= getMacs().size()) {
                 return strictContainedPort(portcandidate);
             }
-            for (String mac : getMacs()) {
-                if (!portcandidate.getMacs().contains(mac)) {
-                    return false;
-                }
-            }
-            return true;
+            return portcandidate.getMacs().containsAll(getMacs());
         }
 
         public BridgeTopologyPort getBridgeTopologyPort() {
@@ -158,16 +134,16 @@ public class BridgeTopology {
     public class BridgeTopologyPort implements Comparable<BridgeTopologyPort> {
         private final Integer nodeid;
         private final Integer bridgePort;
-        private final Set<String> macs;
+        private final MacSet macs;
 
         public BridgeTopologyPort(Integer nodeid, Integer bridgePort, Set<String> macs) {
             super();
             this.nodeid = nodeid;
             this.bridgePort = bridgePort;
-            this.macs = macs;
+            this.macs = MacSet.of(macs);
         }
 
-        public Set<String> getMacs() {
+        public MacSet getMacs() {
             return macs;
         }
 
@@ -231,7 +207,7 @@ public class BridgeTopology {
         final private BridgeTopologyPort bridgePort;
         private BridgeTopologyPort designatebridgePort;
 
-        private Set<String> macs = new TreeSet<String>();
+        private MacSet macs;
 
         public BridgeTopologyLink(BridgeTopologyPort bridgeport) {
             super();
@@ -243,14 +219,10 @@ public class BridgeTopology {
             super();
             this.bridgePort = bridgeport;
             this.designatebridgePort = designatedbridgePort;
-            for (String mac : bridgeport.getMacs()) {
-                if (designatedbridgePort.getMacs().contains(mac)) {
-                    macs.add(mac);
-                }
-            }
+            macs = bridgeport.getMacs().intersection(designatedbridgePort.getMacs());
         }
 
-        public Set<String> getMacs() {
+        public MacSet getMacs() {
             return macs;
         }
 
@@ -275,27 +247,32 @@ public class BridgeTopology {
     }
 
     private List<BridgeTopologyLink> bridgelinks = new ArrayList<BridgeTopologyLink>();
-    private Map<String, Set<BridgeTopologyPort>> bridgeAssociatedMacAddressMap = new HashMap<String, Set<BridgeTopologyPort>>();
+    private Set<BridgeTopologyPort> parsedPorts = new HashSet<BridgeTopologyPort>();
+    private Map<Long, Set<BridgeTopologyPort>> bridgeAssociatedMacAddressMap = new HashMap<Long, Set<BridgeTopologyPort>>();
     private List<BridgeTopologyLinkCandidate> bridgeTopologyPortCandidates = new ArrayList<BridgeTopologyLinkCandidate>();
 
     public void addBridgeAssociatedMac(Integer nodeid, Integer port, Set<String> macsonport, String mac) {
         LOG.info( "addBridgeAssociatedMac: adding nodeid {}, bridge port {}, mac {}", nodeid, port, mac);
-        if (bridgeAssociatedMacAddressMap.containsKey(mac)) {
-            bridgeAssociatedMacAddressMap.get(mac).add(new BridgeTopologyPort(nodeid, port, macsonport));
+        final Long key = MacSet.pack(mac);
+        if (bridgeAssociatedMacAddressMap.containsKey(key)) {
+            bridgeAssociatedMacAddressMap.get(key).add(new BridgeTopologyPort(nodeid, port, macsonport));
         } else {
             Set<BridgeTopologyPort> ports = new TreeSet<BridgeTopologyPort>();
             ports.add(new BridgeTopologyPort(nodeid, port, macsonport));
-            bridgeAssociatedMacAddressMap.put(mac, ports);
+            bridgeAssociatedMacAddressMap.put(key, ports);
         }
     }
 
     private boolean parsed(BridgeTopologyPort bridgePort) {
-        for (BridgeTopologyLink link : bridgelinks) {
-            if (link.contains(bridgePort)) {
-                return true;
-            }
+        return parsedPorts.contains(bridgePort);
+    }
+
+    private void addLink(BridgeTopologyLink link) {
+        bridgelinks.add(link);
+        parsedPorts.add(link.getBridgeTopologyPort());
+        if (link.getDesignateBridgePort() != null) {
+            parsedPorts.add(link.getDesignateBridgePort());
         }
-        return false;
     }
 
     public void addTopology(Integer nodeid, Map<Integer, Set<String>> bridgeTopologyTable, Set<Integer> targets) {
@@ -324,9 +301,12 @@ public class BridgeTopology {
             }
 
             BridgeTopologyLinkCandidate topologycandidate = new BridgeTopologyLinkCandidate(bridgetopologyport);
-            for (String mac : curEntry.getValue()) {
-                if (bridgeAssociatedMacAddressMap.containsKey(mac)) {
-                    for (BridgeTopologyPort swPort : bridgeAssociatedMacAddressMap.get(mac)) {
+            final MacSet portmacs = bridgetopologyport.getMacs();
+            for (int i = 0; !bridgeAssociatedMacAddressMap.isEmpty() && i < portmacs.size(); i++) {
+                final Set<BridgeTopologyPort> swPorts = bridgeAssociatedMacAddressMap.get(portmacs.get(i));
+                if (swPorts != null) {
+                    final String mac = MacSet.unpack(portmacs.get(i));
+                    for (BridgeTopologyPort swPort : swPorts) {
                         if (swPort.getNodeid().intValue() == nodeid) {
                             continue;
                         }
@@ -381,12 +361,7 @@ public class BridgeTopology {
                 if (candidateB.getRole() == BridgePortRole.DIRECT) {
                     continue;
                 }
-                Set<String> otherMacs = new TreeSet<String>();
-                for (String mac : candidateA.getMacs()) {
-                    if (candidateB.getMacs().contains(mac)) {
-                        otherMacs.add(mac);
-                    }
-                }
+                final MacSet otherMacs = candidateA.getMacs().intersection(candidateB.getMacs());
                 if (otherMacs.isEmpty()) {
                     continue;
                 }
@@ -522,7 +497,7 @@ public class BridgeTopology {
         LOG.info("parseSTPEntry: nodeid {}, port {}, designated nodeid {}, designated port {}, macs on link {}.",
                  nodeid, bridgePort, designatednodeid, designatedport, link.getMacs());
         if (sourceLink.intersectionNull(designatedLink)) {
-            bridgelinks.add(link);
+            addLink(link);
         } else {
             sourceLink.addTarget(designatednodeid);
             designatedLink.addTarget(nodeid);
@@ -581,7 +556,7 @@ public class BridgeTopology {
                     if (linkFound) {
                         BridgeTopologyLink link = new BridgeTopologyLink(candidateA.getBridgeTopologyPort(), candidateB.getBridgeTopologyPort());
                         LOG.info("getTopology: bridgetobridge discovery: link found {}", link);
-                        bridgelinks.add(link);
+                        addLink(link);
                     }
                 }
             }
@@ -601,7 +576,7 @@ public class BridgeTopology {
                      candidate.getMacs());
             BridgeTopologyLink link = new BridgeTopologyLink(btp);
             LOG.info("getTopology: bridgetomac link found {}", link);
-            bridgelinks.add(link);
+            addLink(link);
         }
         return bridgelinks;
     }
@@ -0,0 +1,368 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.model.topology;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An immutable set of MAC addresses, each packed into the low 48 bits of a
+ * long and kept in a sorted array.
+ *
+ * <p>Bridge forwarding tables hold hundreds of thousands of addresses, and
+ * {@link BridgeTopology} spends most of its time intersecting them and
+ * checking one for containment in another.  On sorted arrays these are
+ * linear merges over primitives rather than a hash lookup of a
+ * <code>String</code> for every element.</p>
+ *
+ * <p>Viewed as a <code>Set&lt;String&gt;</code>, the addresses are the usual
+ * twelve lower case hex digits, in ascending order.</p>
+ */
+public final class MacSet extends AbstractSet<String> implements Comparable<MacSet> {
+    private static final Logger LOG = LoggerFactory.getLogger(MacSet.class);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public static final MacSet EMPTY = new MacSet(new long[0], 0);
+
+    private final long[] m_macs;
+    private final int m_size;
+
+    private MacSet(final long[] macs, final int size) {
+        m_macs = macs;
+        m_size = size;
+    }
+
+    /**
+     * Packs a MAC address made of twelve hex digits, optionally separated by
+     * colons, dashes or dots, into a long.
+     *
+     * @throws IllegalArgumentException if the address isn't valid
+     */
+    public static long pack(final String mac) {
+        long packed = 0;
+        int digits = 0;
+        for (int i = 0; i < mac.length(); i++) {
+            final char c = mac.charAt(i);
+            if (c == ':' || c == '-' || c == '.') {
+                continue;
+            }
+            final int value = Character.digit(c, 16);
+            if (value < 0 || ++digits > 12) {
+                throw new IllegalArgumentException("Invalid MAC address: " + mac);
+            }
+            packed = (packed << 4) | value;
+        }
+        if (digits != 12) {
+            throw new IllegalArgumentException("Invalid MAC address: " + mac);
+        }
+        return packed;
+    }
+
+    /**
+     * Returns a packed MAC address as twelve lower case hex digits.
+     */
+    public static String unpack(final long mac) {
+        final char[] chars = new char[12];
+        for (int i = 11; i >= 0; i--) {
+            chars[i] = HEX[(int)((mac >>> ((11 - i) * 4)) & 0xf)];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the given addresses as a MacSet, or the collection itself if
+     * it already is one.  Invalid addresses are left out.
+     */
+    public static MacSet of(final Collection<String> macs) {
+        if (macs instanceof MacSet) {
+            return (MacSet)macs;
+        }
+        if (macs == null || macs.isEmpty()) {
+            return EMPTY;
+        }
+        final long[] packed = new long[macs.size()];
+        int size = 0;
+        for (final String mac : macs) {
+            try {
+                final long value = pack(mac);
+                packed[size++] = value;
+            } catch (final IllegalArgumentException e) {
+                LOG.warn("Ignoring {}", e.getMessage());
+            }
+        }
+        return sorted(packed, size);
+    }
+
+    /**
+     * Returns the given packed addresses as a MacSet.  The array is copied.
+     */
+    public static MacSet of(final long... macs) {
+        return sorted(Arrays.copyOf(macs, macs.length), macs.length);
+    }
+
+    private static MacSet sorted(final long[] macs, final int length) {
+        if (length == 0) {
+            return EMPTY;
+        }
+        Arrays.sort(macs, 0, length);
+        int size = 1;
+        for (int i = 1; i < length; i++) {
+            if (macs[i] != macs[size - 1]) {
+                macs[size++] = macs[i];
+            }
+        }
+        return new MacSet(macs, size);
+    }
+
+    @Override
+    public int size() {
+        return m_size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return m_size == 0;
+    }
+
+    /**
+     * Returns the i<sup>th</sup> smallest address, packed.
+     */
+    public long get(final int i) {
+        if (i < 0 || i >= m_size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + m_size);
+        }
+        return m_macs[i];
+    }
+
+    public boolean containsMac(final long mac) {
+        return Arrays.binarySearch(m_macs, 0, m_size, mac) >= 0;
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        if (!(o instanceof String)) {
+            return false;
+        }
+        final long mac;
+        try {
+            mac = pack((String)o);
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+        return containsMac(mac);
+    }
+
+    @Override
+    public boolean containsAll(final Collection<?> c) {
+        if (c instanceof MacSet) {
+            return containsAll((MacSet)c);
+        }
+        return super.containsAll(c);
+    }
+
+    /**
+     * Returns true if every address in the other set is also in this one.
+     */
+    public boolean containsAll(final MacSet other) {
+        if (other.m_size > m_size) {
+            return false;
+        }
+        int i = 0;
+        for (int j = 0; j < other.m_size; j++) {
+            final long mac = other.m_macs[j];
+            while (i < m_size && m_macs[i] < mac) {
+                i++;
+            }
+            if (i == m_size || m_macs[i] != mac) {
+                return false;
+            }
+            i++;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the two sets have at least one address in common.
+     */
+    public boolean intersects(final MacSet other) {
+        int i = 0;
+        int j = 0;
+        while (i < m_size && j < other.m_size) {
+            if (m_macs[i] < other.m_macs[j]) {
+                i++;
+            } else if (m_macs[i] > other.m_macs[j]) {
+                j++;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the addresses that are in both sets.
+     */
+    public MacSet intersection(final MacSet other) {
+        final long[] result = new long[Math.min(m_size, other.m_size)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < m_size && j < other.m_size) {
+            if (m_macs[i] < other.m_macs[j]) {
+                i++;
+            } else if (m_macs[i] > other.m_macs[j]) {
+                j++;
+            } else {
+                result[size++] = m_macs[i];
+                i++;
+                j++;
+            }
+        }
+        return size == 0 ? EMPTY : new MacSet(result, size);
+    }
+
+    /**
+     * Returns the addresses in this set that are not in the other one.
+     */
+    public MacSet difference(final MacSet other) {
+        if (!intersects(other)) {
+            return this;
+        }
+        final long[] result = new long[m_size];
+        int size = 0;
+        int j = 0;
+        for (int i = 0; i < m_size; i++) {
+            final long mac = m_macs[i];
+            while (j < other.m_size && other.m_macs[j] < mac) {
+                j++;
+            }
+            if (j == other.m_size || other.m_macs[j] != mac) {
+                result[size++] = mac;
+            }
+        }
+        return size == 0 ? EMPTY : new MacSet(result, size);
+    }
+
+    /**
+     * Returns the addresses that are in either set.
+     */
+    public MacSet union(final MacSet other) {
+        if (other.m_size == 0) {
+            return this;
+        }
+        if (m_size == 0) {
+            return other;
+        }
+        final long[] result = new long[m_size + other.m_size];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < m_size || j < other.m_size) {
+            if (j == other.m_size || (i < m_size && m_macs[i] < other.m_macs[j])) {
+                result[size++] = m_macs[i++];
+            } else if (i == m_size || other.m_macs[j] < m_macs[i]) {
+                result[size++] = other.m_macs[j++];
+            } else {
+                result[size++] = m_macs[i++];
+                j++;
+            }
+        }
+        return new MacSet(result, size);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private int m_next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return m_next < m_size;
+            }
+
+            @Override
+            public String next() {
+                if (m_next >= m_size) {
+                    throw new NoSuchElementException();
+                }
+                return unpack(m_macs[m_next++]);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("MacSet is immutable");
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (o instanceof MacSet) {
+            final MacSet other = (MacSet)o;
+            if (other.m_size != m_size) {
+                return false;
+            }
+            for (int i = 0; i < m_size; i++) {
+                if (m_macs[i] != other.m_macs[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        // must match the hash of a Set<String> with the same addresses
+        int hash = 0;
+        for (int i = 0; i < m_size; i++) {
+            hash += unpack(m_macs[i]).hashCode();
+        }
+        return hash;
+    }
+
+    @Override
+    public int compareTo(final MacSet other) {
+        final int length = Math.min(m_size, other.m_size);
+        for (int i = 0; i < length; i++) {
+            if (m_macs[i] != other.m_macs[i]) {
+                return m_macs[i] < other.m_macs[i] ? -1 : 1;
+            }
+        }
+        return m_size - other.m_size;
+    }
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.model.topology;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.model.topology.BridgeTopology.BridgeTopologyLink;
+
+/**
+ * Computes the topology of a synthetic L2 domain: a core switch with an
+ * access switch on each of its ports, and a segment of hosts behind each of
+ * the access switch's ports.  Every uplink learns the MACs of all of the
+ * other access switches, so the forwarding tables grow with the square of
+ * the number of switches.
+ *
+ * <p>The size of the domain can be set with the
+ * <code>org.opennms.netmgt.model.topology.loadTest.switches</code>,
+ * <code>ports</code> and <code>hosts</code> system properties.</p>
+ */
+public class BridgeTopologyLoadTest {
+
+    private static final int SWITCHES = Integer.getInteger("org.opennms.netmgt.model.topology.loadTest.switches", 50);
+    private static final int PORTS = Integer.getInteger("org.opennms.netmgt.model.topology.loadTest.ports", 24);
+    private static final int HOSTS = Integer.getInteger("org.opennms.netmgt.model.topology.loadTest.hosts", 40);
+
+    private static final int CORE = 1;
+    private static final int UPLINK = 100;
+
+    @Before
+    public void setUp() {
+        // the topology logs every decision at INFO
+        MockLogAppender.setupLogging(false, "WARN");
+    }
+
+    private static String mac(final int sw, final int port, final int host) {
+        return MacSet.unpack(((long)sw << 24) | ((long)port << 16) | host);
+    }
+
+    @Test
+    public void testStarDomain() {
+        final Map<Integer,Map<Integer,Set<String>>> bfts = new HashMap<Integer,Map<Integer,Set<String>>>();
+        final Map<Integer,Set<String>> core = new HashMap<Integer,Set<String>>();
+        int macCount = 0;
+        for (int sw = 2; sw < SWITCHES + 2; sw++) {
+            final Map<Integer,Set<String>> access = new HashMap<Integer,Set<String>>();
+            final Set<String> local = new HashSet<String>();
+            for (int port = 1; port <= PORTS; port++) {
+                final Set<String> segment = new HashSet<String>();
+                for (int host = 0; host < HOSTS; host++) {
+                    segment.add(mac(sw, port, host));
+                }
+                access.put(port, segment);
+                local.addAll(segment);
+                macCount += segment.size();
+            }
+            access.put(UPLINK, new HashSet<String>());
+            core.put(sw, local);
+            bfts.put(sw, access);
+        }
+        for (final Map.Entry<Integer,Set<String>> entry : core.entrySet()) {
+            final Set<String> uplink = bfts.get(entry.getKey()).get(UPLINK);
+            for (final Map.Entry<Integer,Set<String>> other : core.entrySet()) {
+                if (!other.getKey().equals(entry.getKey())) {
+                    uplink.addAll(other.getValue());
+                }
+            }
+        }
+
+        long entries = 0;
+        for (final Set<String> macs : core.values()) {
+            entries += macs.size();
+        }
+        for (final Map<Integer,Set<String>> bft : bfts.values()) {
+            for (final Set<String> macs : bft.values()) {
+                entries += macs.size();
+            }
+        }
+
+        final long start = System.nanoTime();
+        final BridgeTopology topology = new BridgeTopology();
+        topology.parseBFT(CORE, core);
+        for (final Map.Entry<Integer,Map<Integer,Set<String>>> bft : bfts.entrySet()) {
+            topology.parseBFT(bft.getKey(), bft.getValue());
+        }
+        final List<BridgeTopologyLink> links = topology.getTopology();
+        final long elapsed = System.nanoTime() - start;
+
+        System.err.printf("BridgeTopology: %d switches, %d macs, %d forwarding entries: Elapsed: %d ms: %d links%n",
+                          SWITCHES + 1, macCount, entries, elapsed / 1000000L, links.size());
+
+        // every host segment ends up on a direct link from its access port
+        int hostLinks = 0;
+        int hostMacs = 0;
+        for (final BridgeTopologyLink link : links) {
+            if (link.getBridgeTopologyPort().getNodeid() != CORE && link.getBridgeTopologyPort().getBridgePort() != UPLINK) {
+                assertNull(link.getDesignateBridgePort());
+                assertEquals(HOSTS, link.getMacs().size());
+                hostLinks++;
+                hostMacs += link.getMacs().size();
+            }
+        }
+        assertEquals(SWITCHES * PORTS, hostLinks);
+        assertEquals(macCount, hostMacs);
+    }
+}
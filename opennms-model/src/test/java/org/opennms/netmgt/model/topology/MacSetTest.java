@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.model.topology;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class MacSetTest {
+
+    @Test
+    public void testPackUnpack() {
+        assertEquals(0x000daaaa0001L, MacSet.pack("000daaaa0001"));
+        assertEquals(0x000daaaa0001L, MacSet.pack("00:0D:AA:AA:00:01"));
+        assertEquals(0x000daaaa0001L, MacSet.pack("000d.aaaa.0001"));
+        assertEquals(0xffffffffffffL, MacSet.pack("ff-ff-ff-ff-ff-ff"));
+        assertEquals("000daaaa0001", MacSet.unpack(0x000daaaa0001L));
+        assertEquals("000000000000", MacSet.unpack(0L));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testPackTooShort() {
+        MacSet.pack("000daaaa001");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testPackNotHex() {
+        MacSet.pack("000daaaa000g");
+    }
+
+    @Test
+    public void testBehavesAsSet() {
+        final Set<String> macs = new HashSet<String>(Arrays.asList("000daaaa0003", "000daaaa0001", "000daaaa0002", "000daaaa0001"));
+        final MacSet set = MacSet.of(macs);
+        assertEquals(3, set.size());
+        assertEquals(macs, set);
+        assertEquals(set, macs);
+        assertEquals(macs.hashCode(), set.hashCode());
+        assertEquals(new TreeSet<String>(macs).toString(), set.toString());
+        assertTrue(set.contains("000daaaa0002"));
+        assertTrue(set.contains("00:0d:aa:aa:00:02"));
+        assertFalse(set.contains("000daaaa0004"));
+        assertFalse(set.contains("not a mac"));
+        assertSame(set, MacSet.of(set));
+        assertSame(MacSet.EMPTY, MacSet.of(new HashSet<String>()));
+    }
+
+    @Test
+    public void testInvalidAddressesAreLeftOut() {
+        final MacSet set = MacSet.of(Arrays.asList("000daaaa0001", "bogus", "000daaaa0002"));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void testSetOperations() {
+        final MacSet a = MacSet.of(1L, 2L, 3L, 5L, 8L);
+        final MacSet b = MacSet.of(2L, 3L, 4L, 8L, 9L);
+        final MacSet c = MacSet.of(6L, 7L);
+
+        assertEquals(MacSet.of(2L, 3L, 8L), a.intersection(b));
+        assertEquals(MacSet.of(1L, 5L), a.difference(b));
+        assertSame(a, a.difference(c));
+        assertEquals(MacSet.of(1L, 2L, 3L, 4L, 5L, 8L, 9L), a.union(b));
+        assertTrue(a.intersects(b));
+        assertFalse(a.intersects(c));
+        assertTrue(a.containsAll(MacSet.of(1L, 8L)));
+        assertFalse(a.containsAll(MacSet.of(1L, 4L)));
+        assertTrue(a.containsAll(MacSet.EMPTY));
+        assertTrue(a.compareTo(b) < 0);
+        assertEquals(0, a.compareTo(MacSet.of(8L, 5L, 3L, 2L, 1L)));
+    }
+
+    @Test
+    public void testAgainstTreeSet() {
+        final Random random = new Random(42);
+        for (int round = 0; round < 100; round++) {
+            final Set<String> a = randomMacs(random, 200);
+            final Set<String> b = randomMacs(random, 200);
+            final MacSet packedA = MacSet.of(a);
+            final MacSet packedB = MacSet.of(b);
+
+            final Set<String> intersection = new TreeSet<String>(a);
+            intersection.retainAll(b);
+            final Set<String> difference = new TreeSet<String>(a);
+            difference.removeAll(b);
+            final Set<String> union = new TreeSet<String>(a);
+            union.addAll(b);
+
+            assertEquals(intersection, packedA.intersection(packedB));
+            assertEquals(difference, packedA.difference(packedB));
+            assertEquals(union, packedA.union(packedB));
+            assertEquals(!intersection.isEmpty(), packedA.intersects(packedB));
+            assertEquals(a.containsAll(intersection), packedA.containsAll(packedA.intersection(packedB)));
+            assertEquals(b.containsAll(a), packedB.containsAll(packedA));
+        }
+    }
+
+    private static Set<String> randomMacs(final Random random, final int count) {
+        final Set<String> macs = new TreeSet<String>();
+        for (int i = 0; i < count; i++) {
+            // a small range so that the sets overlap
+            macs.add(MacSet.unpack(0x000daaaa0000L + random.nextInt(1000)));
+        }
+        return macs;
+    }
+}
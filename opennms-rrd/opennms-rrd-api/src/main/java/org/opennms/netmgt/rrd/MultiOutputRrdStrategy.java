@@ -43,7 +43,7 @@ import java.util.Properties;
  * @author ranger
  * @version $Id: $
  */
-public class MultiOutputRrdStrategy implements RrdStrategy<List<Object>,List<Object>> {
+public class MultiOutputRrdStrategy implements RrdStrategy<List<Object>,List<Object>>, RrdSampleStrategy<List<Object>>, RrdFileCache {
 
     private final List<RrdStrategy<Object,Object>> m_strategies = new ArrayList<RrdStrategy<Object,Object>>();
     private int m_graphStrategyIndex;
@@ -253,6 +253,16 @@ public class MultiOutputRrdStrategy implements RrdStrategy<List<Object>,List<Obj
         }
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void evictFiles(String path) {
+        for (RrdStrategy<Object, Object> strategy : m_strategies) {
+            if (strategy instanceof RrdFileCache) {
+                ((RrdFileCache)strategy).evictFiles(path);
+            }
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public void updateFile(List<Object> rrd, String owner, String data) throws Exception {
@@ -260,4 +270,27 @@ public class MultiOutputRrdStrategy implements RrdStrategy<List<Object>,List<Obj
             m_strategies.get(i).updateFile(rrd.get(i), owner, data);
         }
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Delegates that don't accept samples get the string form, which is
+     * only built once.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void updateFile(List<Object> rrd, String owner, RrdSample sample) throws Exception {
+        String data = null;
+        for (int i = 0; i < rrd.size(); i++) {
+            final RrdStrategy<Object, Object> strategy = m_strategies.get(i);
+            if (strategy instanceof RrdSampleStrategy) {
+                ((RrdSampleStrategy<Object>) strategy).updateFile(rrd.get(i), owner, sample);
+            } else {
+                if (data == null) {
+                    data = sample.toString();
+                }
+                strategy.updateFile(rrd.get(i), owner, data);
+            }
+        }
+    }
 }
@@ -109,7 +109,7 @@ import org.slf4j.LoggerFactory;
  * @author ranger
  * @version $Id: $
  */
-public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.CreateOperation,String>, Runnable {
+public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.CreateOperation,String>, RrdSampleStrategy<String>, RrdFileCache, Runnable {
 
     private Logger m_log = LoggerFactory.getLogger(QueuingRrdStrategy.class);
 
@@ -493,15 +493,16 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     }
 
     /**
-     * Represents an update to a rrd file.
+     * Represents an update to a rrd file.  The update is either a string or
+     * an {@link RrdSample}.
      */
     public class UpdateOperation extends Operation {
 
-        UpdateOperation(String fileName, String data) {
+        UpdateOperation(String fileName, Object data) {
             super(fileName, UPDATE, data, true);
         }
 
-        UpdateOperation(String fileName, String data, boolean significant) {
+        UpdateOperation(String fileName, Object data, boolean significant) {
             super(fileName, UPDATE, data, significant);
         }
 
@@ -510,11 +511,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             // open the file if we need to
             if (rrd == null) rrd = m_delegate.openFile(getFileName());
 
-            final String update = (String) getData();
+            final Object update = getData();
 
             try {
                 // process the update
-                m_delegate.updateFile(rrd, "", update);
+                updateDelegate(rrd, update);
             } catch (final Throwable e) {
                 final String error = String.format("Error processing update for file %s: %s", getFileName(), update);
                 m_log.debug(error, e);
@@ -559,10 +560,10 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                 if (rrd == null)
                     rrd = m_delegate.openFile(getFileName());
 
-                String update = ts + ":0";
+                final RrdSample update = new RrdSample(ts, new double[] { 0.0 });
                 try {
                     // process the update
-                    m_delegate.updateFile(rrd, "", update);
+                    updateDelegate(rrd, update);
                 } catch (Throwable e) {
                     throw new Exception("Error processing update " + i + " for file " + getFileName() + ": " + update, e);
                 }
@@ -641,6 +642,23 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         }
     }
 
+    /**
+     * Passes an update on to the delegate, as an {@link RrdSample} if the
+     * delegate accepts them.
+     */
+    @SuppressWarnings("unchecked")
+    private void updateDelegate(final Object rrd, final Object update) throws Exception {
+        if (update instanceof RrdSample) {
+            if (m_delegate instanceof RrdSampleStrategy) {
+                ((RrdSampleStrategy<Object>) m_delegate).updateFile(rrd, "", (RrdSample) update);
+            } else {
+                m_delegate.updateFile(rrd, "", update.toString());
+            }
+        } else {
+            m_delegate.updateFile(rrd, "", (String) update);
+        }
+    }
+
     /**
      * <p>makeCreateOperation</p>
      *
@@ -676,6 +694,25 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         return new UpdateOperation(fileName, update);
     }
 
+    /**
+     * <p>makeUpdateOperation</p>
+     *
+     * @param fileName a {@link java.lang.String} object.
+     * @param owner a {@link java.lang.String} object.
+     * @param sample a {@link org.opennms.netmgt.rrd.RrdSample} object.
+     * @return a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
+     */
+    Operation makeUpdateOperation(String fileName, String owner, RrdSample sample) {
+        final double[] values = sample.getValues();
+        if (values.length == 1 && values[0] == 0.0) {
+            if (sample.getTimestamp() == 0)
+                m_log.debug("ZERO ERROR: created a zero update with ts=0 for file: {}, data: {}", fileName, sample);
+
+            return new ZeroUpdateOperation(fileName, sample.getTimestamp());
+        }
+        return new UpdateOperation(fileName, sample);
+    }
+
     //
     // Queue management functions.
     //
@@ -871,6 +908,18 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_delegate.promoteEnqueuedFiles(rrdFiles);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Operations that are still queued for the files will reopen them.
+     */
+    @Override
+    public void evictFiles(final String path) {
+        if (m_delegate instanceof RrdFileCache) {
+            ((RrdFileCache)m_delegate).evictFiles(path);
+        }
+    }
+
     /**
      * Return true if and only if all the operations in the list are
      * insignificant
@@ -1023,6 +1072,12 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         addOperation(makeUpdateOperation((String) rrdFile, owner, data));
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(String rrdFile, String owner, RrdSample sample) throws Exception {
+        addOperation(makeUpdateOperation(rrdFile, owner, sample));
+    }
+
     /** {@inheritDoc} */
     @Override
     public Double fetchLastValue(String rrdFile, String ds, int interval) throws NumberFormatException, RrdException {
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.math.BigDecimal;
+
+/**
+ * A single update to an RRD file: a timestamp and one value for each data
+ * source, in the order the data sources were defined when the file was
+ * created.  Unknown values are {@link Double#NaN}.
+ *
+ * <p>This carries the same information as the
+ * <code>"timestamp:value1:value2"</code> strings passed to
+ * {@link RrdStrategy#updateFile(Object, String, String)} without having to
+ * format and parse the values.  {@link #toString()} returns that string for
+ * strategies that only accept strings.</p>
+ *
+ * <p>A sample created from the collected strings keeps them, and only parses
+ * them into doubles when {@link #getValues()} is first called.  Strategies
+ * that only accept strings therefore get the values exactly as they were
+ * collected: a double can't hold every Counter64 value above 2<sup>53</sup>.</p>
+ *
+ * @see RrdSampleStrategy
+ */
+public final class RrdSample {
+
+    private final long m_timestamp;
+    private final String[] m_text;
+    private volatile double[] m_values;
+
+    /**
+     * @param timestamp the time of the sample in seconds since the epoch
+     * @param values the values, which are not copied and must not be
+     *        changed afterwards
+     */
+    public RrdSample(final long timestamp, final double[] values) {
+        if (values == null) {
+            throw new IllegalArgumentException("values may not be null");
+        }
+        m_timestamp = timestamp;
+        m_text = null;
+        m_values = values;
+    }
+
+    /**
+     * @param timestamp the time of the sample in seconds since the epoch
+     * @param values the values as they were collected, with <code>null</code>
+     *        or <code>U</code> for unknown values.  They are not copied and
+     *        must not be changed afterwards.
+     */
+    public RrdSample(final long timestamp, final String[] values) {
+        if (values == null) {
+            throw new IllegalArgumentException("values may not be null");
+        }
+        m_timestamp = timestamp;
+        m_text = values;
+    }
+
+    /**
+     * @return the time of the sample in seconds since the epoch
+     */
+    public long getTimestamp() {
+        return m_timestamp;
+    }
+
+    /**
+     * @return the values, which must not be changed
+     */
+    public double[] getValues() {
+        double[] values = m_values;
+        if (values == null) {
+            values = new double[m_text.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = parseValue(m_text[i]);
+            }
+            m_values = values;
+        }
+        return values;
+    }
+
+    /**
+     * Returns the sample in the <code>"timestamp:value1:value2"</code> form
+     * accepted by {@link RrdStrategy#updateFile(Object, String, String)}.
+     */
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder(16 + (m_text == null ? m_values.length : m_text.length) * 12);
+        buf.append(m_timestamp).append(':');
+        if (m_text == null) {
+            appendValues(buf, m_values);
+        } else {
+            appendValues(buf, m_text);
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Formats values as a colon separated list.  Unknown values are written
+     * as <code>U</code> and integral values as plain integers without a
+     * fraction or exponent so that rrdtool accepts them for counters.
+     *
+     * @param values the values to format
+     * @return the values in the form <code>"value1:value2"</code>
+     */
+    public static String formatValues(final double[] values) {
+        final StringBuilder buf = new StringBuilder(values.length * 12);
+        appendValues(buf, values);
+        return buf.toString();
+    }
+
+    /**
+     * Joins collected values into a colon separated list without changing
+     * them, writing <code>null</code> values as <code>U</code>.
+     *
+     * @param values the values to format
+     * @return the values in the form <code>"value1:value2"</code>
+     */
+    public static String formatValues(final String[] values) {
+        final StringBuilder buf = new StringBuilder(values.length * 12);
+        appendValues(buf, values);
+        return buf.toString();
+    }
+
+    /**
+     * Parses a collected value, returning {@link Double#NaN} for unknown or
+     * non-numeric values.
+     *
+     * @param value the value as it was collected
+     * @return the value as a double
+     */
+    public static double parseValue(final String value) {
+        if (value == null || "U".equals(value)) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (final NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static void appendValues(final StringBuilder buf, final double[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                buf.append(':');
+            }
+            final double value = values[i];
+            if (Double.isNaN(value)) {
+                buf.append('U');
+            } else if (value != Math.rint(value) || Double.isInfinite(value)) {
+                buf.append(value);
+            } else if (Math.abs(value) < 9.2e18) {
+                buf.append((long) value);
+            } else {
+                buf.append(new BigDecimal(value).toPlainString());
+            }
+        }
+    }
+
+    private static void appendValues(final StringBuilder buf, final String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                buf.append(':');
+            }
+            buf.append(values[i] == null ? "U" : values[i]);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+/**
+ * Implemented by strategies that can apply an {@link RrdSample} directly,
+ * without going through the string form of the update.
+ *
+ * @param <F> the type of the open file handle, as in {@link RrdStrategy}
+ * @see RrdUtils#updateRRD(String, String, String, long, double[])
+ */
+public interface RrdSampleStrategy<F> {
+
+    /**
+     * Adds a sample to an open file.  This is equivalent to calling
+     * {@link RrdStrategy#updateFile(Object, String, String)} with
+     * <code>sample.toString()</code>.
+     *
+     * @param rrd the file returned by {@link RrdStrategy#openFile(String)}
+     * @param owner the owner of the file, used in log messages
+     * @param sample the timestamp and values to add
+     * @throws java.lang.Exception if the update fails
+     */
+    public void updateFile(F rrd, String owner, RrdSample sample) throws Exception;
+}
@@ -353,6 +353,96 @@ public abstract class RrdUtils {
         LOG.debug("updateRRD: RRD update command completed.");
     }
 
+    /**
+     * Add datapoints to a round robin database without formatting them as a
+     * string first, if the strategy supports it.
+     *
+     * @param owner the owner of the file. This is used in log messages
+     * @param repositoryDir the directory the file resides in
+     * @param rrdName the name for the rrd file.
+     * @param timestamp the timestamp in millis to use for the rrd update (this
+     * gets rounded to the nearest second)
+     * @param values one value for each datasource of the rrd, in the order
+     * the datasources were created, with {@link Double#NaN} for unknown values
+     * @throws org.opennms.netmgt.rrd.RrdException if any.
+     * @see RrdSampleStrategy
+     */
+    public static void updateRRD(String owner, String repositoryDir, String rrdName, long timestamp, double[] values) throws RrdException {
+        final RrdStrategy<Object, Object> strategy = getStrategy();
+        if (!(strategy instanceof RrdSampleStrategy)) {
+            updateRRD(owner, repositoryDir, rrdName, timestamp, RrdSample.formatValues(values));
+            return;
+        }
+        updateRRD(strategy, owner, repositoryDir, rrdName, new RrdSample((timestamp + 500L) / 1000L, values));
+    }
+
+    /**
+     * Add datapoints to a round robin database.  Strategies that accept
+     * {@link RrdSample}s get the values parsed into doubles, any other
+     * strategy gets them exactly as they are given, joined into an update
+     * string.
+     *
+     * @param owner the owner of the file. This is used in log messages
+     * @param repositoryDir the directory the file resides in
+     * @param rrdName the name for the rrd file.
+     * @param timestamp the timestamp in millis to use for the rrd update (this
+     * gets rounded to the nearest second)
+     * @param values one value for each datasource of the rrd, in the order
+     * the datasources were created, with <code>null</code> or <code>U</code>
+     * for unknown values
+     * @throws org.opennms.netmgt.rrd.RrdException if any.
+     * @see RrdSampleStrategy
+     */
+    public static void updateRRD(String owner, String repositoryDir, String rrdName, long timestamp, String[] values) throws RrdException {
+        final RrdStrategy<Object, Object> strategy = getStrategy();
+        if (!(strategy instanceof RrdSampleStrategy)) {
+            updateRRD(owner, repositoryDir, rrdName, timestamp, RrdSample.formatValues(values));
+            return;
+        }
+        updateRRD(strategy, owner, repositoryDir, rrdName, new RrdSample((timestamp + 500L) / 1000L, values));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void updateRRD(RrdStrategy<Object, Object> strategy, String owner, String repositoryDir, String rrdName, RrdSample sample) throws RrdException {
+        String rrdFile = repositoryDir + File.separator + rrdName + getExtension();
+
+        LOG.info("updateRRD: updating RRD file {} with values '{}'", rrdFile, sample);
+
+        Object rrd = null;
+        try {
+            rrd = strategy.openFile(rrdFile);
+            ((RrdSampleStrategy<Object>) strategy).updateFile(rrd, owner, sample);
+        } catch (Throwable e) {
+            LOG.error("updateRRD: Error updating RRD file {} with values '{}'", rrdFile, sample, e);
+            throw new org.opennms.netmgt.rrd.RrdException("Error updating RRD file " + rrdFile + " with values '" + sample + "': " + e, e);
+        } finally {
+            try {
+                if (rrd != null) {
+                    strategy.closeFile(rrd);
+                }
+            } catch (Throwable e) {
+                LOG.error("updateRRD: Exception closing RRD file {}", rrdFile, e);
+                throw new org.opennms.netmgt.rrd.RrdException("Exception closing RRD file " + rrdFile + ": " + e, e);
+            }
+        }
+
+        LOG.debug("updateRRD: RRD update command completed.");
+    }
+
+    /**
+     * Tells the configured strategy to close any handles it is holding on
+     * the given file, or on any file below the given directory.  This must
+     * be called before RRD files are moved or deleted.
+     *
+     * @param path an RRD file or a directory containing RRD files
+     */
+    public static void evictFiles(String path) {
+        final RrdStrategy<?, ?> strategy = getStrategy();
+        if (strategy instanceof RrdFileCache) {
+            ((RrdFileCache)strategy).evictFiles(path);
+        }
+    }
+
     /**
      * This method issues an round robin fetch command to retrieve the last
      * value of the datasource stored in the specified RRD file. The retrieved
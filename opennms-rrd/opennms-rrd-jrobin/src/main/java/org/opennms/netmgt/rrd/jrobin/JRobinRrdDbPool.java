@@ -0,0 +1,374 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jrobin.core.RrdBackendFactory;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps recently used JRobin {@link RrdDb} handles open between updates so
+ * that each collection cycle doesn't have to reopen and re-read the header
+ * of every RRD file it writes to.
+ *
+ * <p>Handles are shared: every caller asking for the same file while it is
+ * open gets the same {@link RrdDb} instance (JRobin synchronizes updates on
+ * the instance) and must hand it back with {@link #release(RrdDb)}.  Once
+ * more than {@link #getCapacity()} files are open, the least recently used
+ * files that nobody is using are closed.  Files that are evicted while in
+ * use are closed when they are released.</p>
+ *
+ * <p>Files are opened with the given backend factory, or the JRobin default
+ * factory if none is given.  The NIO backend memory-maps the files, which
+ * makes updates to files held open by the pool very cheap at the cost of
+ * address space.</p>
+ */
+public class JRobinRrdDbPool implements JRobinRrdDbPoolMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdDbPool.class);
+
+    private static final String OBJECT_NAME = "OpenNMS:Name=JRobinRrdDbPool";
+
+    private static final class Entry {
+        private final String m_path;
+        /** null while the file is being opened */
+        private RrdDb m_rrdDb;
+        private int m_users;
+        private boolean m_evicted;
+
+        private Entry(final String path) {
+            m_path = path;
+        }
+    }
+
+    /** open and opening files in least recently used order */
+    private final LinkedHashMap<String, Entry> m_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    /** every handle given out by the pool, including evicted ones still in use */
+    private final Map<RrdDb, Entry> m_handles = new IdentityHashMap<RrdDb, Entry>();
+
+    private final RrdBackendFactory m_factory;
+    private volatile int m_capacity;
+
+    private final AtomicLong m_hits = new AtomicLong(0);
+    private final AtomicLong m_misses = new AtomicLong(0);
+    private final AtomicLong m_evictions = new AtomicLong(0);
+
+    /**
+     * @param capacity the maximum number of idle files to keep open
+     * @param factory the backend used to open files, or null to use the
+     *        JRobin default
+     */
+    public JRobinRrdDbPool(final int capacity, final RrdBackendFactory factory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The RRD file pool size must be at least 1, not " + capacity);
+        }
+        m_capacity = capacity;
+        m_factory = factory;
+    }
+
+    /**
+     * Registers the pool with the platform MBean server, replacing any pool
+     * registered before.
+     */
+    public void registerMBean() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (final Exception e) {
+            LOG.debug("Unable to register {} with JMX", OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Returns an open handle on the given file, opening it if needed.  The
+     * handle must be given back with {@link #release(RrdDb)} and never
+     * closed directly.
+     */
+    public RrdDb requestRrdDb(final String path) throws IOException, RrdException {
+        final String key = getKey(path);
+        final Entry entry;
+        synchronized (this) {
+            while (true) {
+                final Entry existing = m_entries.get(key);
+                if (existing == null) {
+                    entry = new Entry(key);
+                    entry.m_users = 1;
+                    m_entries.put(key, entry);
+                    m_misses.incrementAndGet();
+                    break;
+                } else if (existing.m_rrdDb == null) {
+                    // another thread is opening the file
+                    try {
+                        wait();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for " + key + " to be opened");
+                    }
+                } else {
+                    existing.m_users++;
+                    m_hits.incrementAndGet();
+                    return existing.m_rrdDb;
+                }
+            }
+        }
+
+        // open the file without holding the lock so other files can be served meanwhile
+        RrdDb rrdDb = null;
+        try {
+            rrdDb = m_factory == null ? new RrdDb(key) : new RrdDb(key, m_factory);
+        } finally {
+            synchronized (this) {
+                if (rrdDb == null) {
+                    if (m_entries.get(key) == entry) {
+                        m_entries.remove(key);
+                    }
+                } else {
+                    entry.m_rrdDb = rrdDb;
+                    m_handles.put(rrdDb, entry);
+                }
+                notifyAll();
+            }
+        }
+
+        final List<RrdDb> idle;
+        synchronized (this) {
+            idle = trim();
+        }
+        close(idle);
+        return rrdDb;
+    }
+
+    /**
+     * Gives back a handle obtained from {@link #requestRrdDb(String)}.
+     * Handles that did not come from the pool are closed.
+     */
+    public void release(final RrdDb rrdDb) throws IOException {
+        final List<RrdDb> toClose;
+        synchronized (this) {
+            final Entry entry = m_handles.get(rrdDb);
+            if (entry == null) {
+                toClose = null;
+            } else if (--entry.m_users == 0 && entry.m_evicted) {
+                m_handles.remove(rrdDb);
+                toClose = Collections.singletonList(rrdDb);
+            } else {
+                toClose = trim();
+            }
+        }
+
+        if (toClose == null) {
+            rrdDb.close();
+        } else {
+            close(toClose);
+        }
+    }
+
+    /**
+     * Makes sure the given handle is closed once it is released instead of
+     * being handed out again, for instance because an update failed with an
+     * I/O error and the state of the handle is unknown.
+     */
+    public void invalidate(final RrdDb rrdDb) {
+        RrdDb idle = null;
+        synchronized (this) {
+            final Entry entry = m_handles.get(rrdDb);
+            if (entry != null && !entry.m_evicted) {
+                m_entries.remove(entry.m_path);
+                idle = evict(entry);
+            }
+        }
+        if (idle != null) {
+            close(Collections.singletonList(idle));
+        }
+    }
+
+    /**
+     * Closes the given file, or all files below the given directory, as soon
+     * as they are released.
+     */
+    public void evictFiles(final String path) {
+        final String key = getKey(path);
+        final String prefix = key.endsWith(File.separator) ? key : key + File.separator;
+        final List<RrdDb> idle = new ArrayList<RrdDb>();
+        synchronized (this) {
+            for (final Iterator<Entry> it = m_entries.values().iterator(); it.hasNext();) {
+                final Entry entry = it.next();
+                if (entry.m_path.equals(key) || entry.m_path.startsWith(prefix)) {
+                    it.remove();
+                    final RrdDb rrdDb = evict(entry);
+                    if (rrdDb != null) {
+                        idle.add(rrdDb);
+                    }
+                }
+            }
+        }
+        LOG.debug("evictFiles: evicted {} idle files for {}", idle.size(), key);
+        close(idle);
+    }
+
+    /**
+     * Closes all files that are not in use, and all others as they are
+     * released.
+     */
+    public void close() {
+        final List<RrdDb> idle = new ArrayList<RrdDb>();
+        synchronized (this) {
+            for (final Entry entry : m_entries.values()) {
+                final RrdDb rrdDb = evict(entry);
+                if (rrdDb != null) {
+                    idle.add(rrdDb);
+                }
+            }
+            m_entries.clear();
+        }
+        close(idle);
+    }
+
+    /**
+     * Marks the entry as evicted and returns its handle if it can be closed
+     * right away.  The caller must hold the lock and remove the entry from
+     * {@link #m_entries}.
+     */
+    private RrdDb evict(final Entry entry) {
+        entry.m_evicted = true;
+        m_evictions.incrementAndGet();
+        if (entry.m_users == 0 && entry.m_rrdDb != null) {
+            m_handles.remove(entry.m_rrdDb);
+            return entry.m_rrdDb;
+        }
+        return null;
+    }
+
+    /**
+     * Evicts least recently used idle files until the pool is back to its
+     * capacity and returns their handles.  The caller must hold the lock.
+     */
+    private List<RrdDb> trim() {
+        if (m_entries.size() <= m_capacity) {
+            return Collections.emptyList();
+        }
+        final List<RrdDb> idle = new ArrayList<RrdDb>();
+        for (final Iterator<Entry> it = m_entries.values().iterator(); it.hasNext() && m_entries.size() > m_capacity;) {
+            final Entry entry = it.next();
+            if (entry.m_users == 0 && entry.m_rrdDb != null) {
+                it.remove();
+                idle.add(evict(entry));
+            }
+        }
+        return idle;
+    }
+
+    private static void close(final List<RrdDb> rrdDbs) {
+        for (final RrdDb rrdDb : rrdDbs) {
+            try {
+                rrdDb.close();
+            } catch (final IOException e) {
+                LOG.error("Failed to close rrd file: {}", rrdDb.getPath(), e);
+            }
+        }
+    }
+
+    private static String getKey(final String path) {
+        return new File(path).getAbsolutePath();
+    }
+
+    @Override
+    public int getCapacity() {
+        return m_capacity;
+    }
+
+    @Override
+    public void setCapacity(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The RRD file pool size must be at least 1, not " + capacity);
+        }
+        m_capacity = capacity;
+        final List<RrdDb> idle;
+        synchronized (this) {
+            idle = trim();
+        }
+        close(idle);
+    }
+
+    @Override
+    public synchronized int getOpenFiles() {
+        return m_handles.size();
+    }
+
+    @Override
+    public synchronized int getFilesInUse() {
+        int count = 0;
+        for (final Entry entry : m_handles.values()) {
+            if (entry.m_users > 0) count++;
+        }
+        return count;
+    }
+
+    @Override
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return m_misses.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return m_evictions.get();
+    }
+
+    @Override
+    public String getBackendFactory() {
+        return m_factory == null ? RrdBackendFactory.getDefaultFactory().getFactoryName() : m_factory.getFactoryName();
+    }
+}
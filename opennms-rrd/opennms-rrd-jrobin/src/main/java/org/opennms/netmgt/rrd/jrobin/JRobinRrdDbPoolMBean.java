@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+/**
+ * JMX view of the RRD files held open by {@link JRobinRrdStrategy}.
+ */
+public interface JRobinRrdDbPoolMBean {
+
+    /**
+     * @return the maximum number of idle files kept open
+     */
+    public int getCapacity();
+
+    /**
+     * @param capacity the maximum number of idle files kept open
+     */
+    public void setCapacity(int capacity);
+
+    /**
+     * @return the number of files currently held open by the pool
+     */
+    public int getOpenFiles();
+
+    /**
+     * @return the number of open files currently in use by a caller
+     */
+    public int getFilesInUse();
+
+    /**
+     * @return the cumulative number of requests served by an already open
+     *         file
+     */
+    public long getHits();
+
+    /**
+     * @return the cumulative number of requests that had to open the file
+     */
+    public long getMisses();
+
+    /**
+     * @return the cumulative number of files closed to make room for others
+     *         or because they were evicted explicitly
+     */
+    public long getEvictions();
+
+    /**
+     * @return the name of the JRobin backend used to open files
+     */
+    public String getBackendFactory();
+}
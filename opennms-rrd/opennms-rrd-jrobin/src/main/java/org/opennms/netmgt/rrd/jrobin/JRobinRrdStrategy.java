@@ -44,6 +44,7 @@ import java.util.Map.Entry;
 import java.util.Properties;
 
 import org.jrobin.core.FetchData;
+import org.jrobin.core.RrdBackendFactory;
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdDef;
 import org.jrobin.core.RrdException;
@@ -53,7 +54,10 @@ import org.jrobin.data.Plottable;
 import org.jrobin.graph.RrdGraph;
 import org.jrobin.graph.RrdGraphDef;
 import org.opennms.netmgt.rrd.RrdDataSource;
+import org.opennms.netmgt.rrd.RrdFileCache;
 import org.opennms.netmgt.rrd.RrdGraphDetails;
+import org.opennms.netmgt.rrd.RrdSample;
+import org.opennms.netmgt.rrd.RrdSampleStrategy;
 import org.opennms.netmgt.rrd.RrdStrategy;
 import org.opennms.netmgt.rrd.RrdUtils;
 import org.opennms.netmgt.rrd.jrobin.JRobinRrdGraphDetails;
@@ -66,13 +70,19 @@ import org.slf4j.LoggerFactory;
  * FILE mode (NIO is too memory consuming for the large number of files that we
  * open)
  *
+ * If <code>org.opennms.rrd.jrobin.pool.size</code> is set, up to that many
+ * files are kept open between updates by a {@link JRobinRrdDbPool}, using the
+ * backend named by <code>org.opennms.rrd.jrobin.pool.backendFactory</code>.
+ *
  * @author ranger
  * @version $Id: $
  */
-public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
+public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb>, RrdSampleStrategy<RrdDb>, RrdFileCache {
     private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdStrategy.class);
     private static final String BACKEND_FACTORY_PROPERTY = "org.jrobin.core.RrdBackendFactory";
     private static final String DEFAULT_BACKEND_FACTORY = "FILE";
+    private static final String POOL_SIZE_PROPERTY = "org.opennms.rrd.jrobin.pool.size";
+    private static final String POOL_BACKEND_FACTORY_PROPERTY = "org.opennms.rrd.jrobin.pool.backendFactory";
 
     /*
      * Ensure that we only initialize certain things *once* per
@@ -82,6 +92,9 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
 
     private Properties m_configurationProperties;
 
+    /** null unless open files are pooled */
+    private JRobinRrdDbPool m_pool;
+
     /**
      * An extremely simple Plottable for holding static datasources that
      * can't be represented with an SDEF -- currently used only for PERCENT
@@ -138,6 +151,57 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
                 LOG.error("Could not set default JRobin RRD factory", e);
             }
         }
+        configurePool();
+    }
+
+    private void configurePool() {
+        if (m_pool != null) {
+            m_pool.close();
+            m_pool = null;
+        }
+
+        final String poolSize = m_configurationProperties == null ? null : m_configurationProperties.getProperty(POOL_SIZE_PROPERTY);
+        final int capacity;
+        try {
+            capacity = poolSize == null || poolSize.trim().isEmpty() ? 0 : Integer.parseInt(poolSize.trim());
+        } catch (NumberFormatException e) {
+            LOG.error("Invalid value for {}: {}, not pooling open RRD files", POOL_SIZE_PROPERTY, poolSize);
+            return;
+        }
+        if (capacity <= 0) {
+            return;
+        }
+
+        RrdBackendFactory factory = null;
+        final String factoryName = m_configurationProperties.getProperty(POOL_BACKEND_FACTORY_PROPERTY);
+        if (factoryName != null && !factoryName.trim().isEmpty()) {
+            try {
+                factory = RrdBackendFactory.getFactory(factoryName.trim());
+            } catch (RrdException e) {
+                LOG.error("Unknown JRobin backend factory {}, using the default factory for pooled RRD files", factoryName, e);
+            }
+        }
+
+        m_pool = new JRobinRrdDbPool(capacity, factory);
+        m_pool.registerMBean();
+        LOG.info("Keeping up to {} RRD files open using the {} backend", capacity, m_pool.getBackendFactory());
+    }
+
+    /**
+     * <p>getPool</p>
+     *
+     * @return the pool of open files, or null if files aren't pooled
+     */
+    public JRobinRrdDbPool getPool() {
+        return m_pool;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void evictFiles(final String path) {
+        if (m_pool != null) {
+            m_pool.evictFiles(path);
+        }
     }
 
     /**
@@ -148,7 +212,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public void closeFile(final RrdDb rrdFile) throws Exception {
-        rrdFile.close();
+        if (m_pool == null) {
+            rrdFile.close();
+        } else {
+            m_pool.release(rrdFile);
+        }
     }
 
     /** {@inheritDoc} */
@@ -203,6 +271,9 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
         LOG.info("createRRD: creating RRD file {}", rrdDef.getPath());
 
+        // don't keep writing to a file that is about to be replaced
+        evictFiles(rrdDef.getPath());
+
         RrdDb rrd = new RrdDb(rrdDef);
         rrd.close();
 
@@ -223,7 +294,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public RrdDb openFile(final String fileName) throws Exception {
-        return new RrdDb(fileName);
+        return m_pool == null ? new RrdDb(fileName) : m_pool.requestRrdDb(fileName);
     }
 
     /**
@@ -234,7 +305,33 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     @Override
     public void updateFile(final RrdDb rrdFile, final String owner, final String data) throws Exception {
         Sample sample = rrdFile.createSample();
-        sample.setAndUpdate(data);
+        try {
+            sample.setAndUpdate(data);
+        } catch (IOException e) {
+            if (m_pool != null) {
+                m_pool.invalidate(rrdFile);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Sets the values of a JRobin sample directly instead of parsing them.
+     */
+    @Override
+    public void updateFile(final RrdDb rrdFile, final String owner, final RrdSample rrdSample) throws Exception {
+        Sample sample = rrdFile.createSample(rrdSample.getTimestamp());
+        sample.setValues(rrdSample.getValues());
+        try {
+            sample.update();
+        } catch (IOException e) {
+            if (m_pool != null) {
+                m_pool.invalidate(rrdFile);
+            }
+            throw e;
+        }
     }
 
     /**
@@ -266,7 +363,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         try {
             long now = System.currentTimeMillis();
             long collectTime = (now - (now % interval)) / 1000L;
-            rrd = new RrdDb(fileName, true);
+            rrd = openFileForFetch(fileName);
             FetchData data = rrd.createFetchRequest(consolidationFunction, collectTime, collectTime).fetchData();
             LOG.debug(data.toString());
             double[] vals = data.getValues(ds);
@@ -281,7 +378,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         } finally {
             if (rrd != null) {
                 try {
-                    rrd.close();
+                    closeFileForFetch(rrd);
                 } catch (IOException e) {
                     LOG.error("Failed to close rrd file: {}", fileName, e);
                 }
@@ -289,12 +386,28 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
     }
 
+    /**
+     * Pooled files are shared with writers so that fetches see updates that
+     * are still buffered by the backend.
+     */
+    private RrdDb openFileForFetch(final String fileName) throws IOException, RrdException {
+        return m_pool == null ? new RrdDb(fileName, true) : m_pool.requestRrdDb(fileName);
+    }
+
+    private void closeFileForFetch(final RrdDb rrd) throws IOException {
+        if (m_pool == null) {
+            rrd.close();
+        } else {
+            m_pool.release(rrd);
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public Double fetchLastValueInRange(final String fileName, final String ds, final int interval, final int range) throws NumberFormatException, org.opennms.netmgt.rrd.RrdException {
         RrdDb rrd = null;
         try {
-        	rrd = new RrdDb(fileName, true);
+        	rrd = openFileForFetch(fileName);
          	long now = System.currentTimeMillis();
             long latestUpdateTime = (now - (now % interval)) / 1000L;
             long earliestUpdateTime = ((now - (now % interval)) - range) / 1000L;
@@ -323,7 +436,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         } finally {
             if (rrd != null) {
                 try {
-                    rrd.close();
+                    closeFileForFetch(rrd);
                 } catch (IOException e) {
                     LOG.error("Failed to close rrd file: {}", fileName, e);
                 }
@@ -602,7 +715,12 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
 
                 final String absolutePath = (File.separatorChar == '\\')? dsFile.getAbsolutePath().replace("\\", "\\\\") : dsFile.getAbsolutePath();
                 // LOG.debug("absolutePath = {}", absolutePath);
-                graphDef.datasource(ds[0], absolutePath, def[1], def[2]);
+                final Plottable plottable = getPlottable(absolutePath, def[1], def[2], start, end);
+                if (plottable == null) {
+                    graphDef.datasource(ds[0], absolutePath, def[1], def[2]);
+                } else {
+                    graphDef.datasource(ds[0], plottable);
+                }
 
                 List<String> defBits = new ArrayList<String>();
                 defBits.add(absolutePath);
@@ -1045,6 +1163,46 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     	}
     }
 
+    /**
+     * Returns the values of a DEF that isn't stored in a JRobin file, or null
+     * to let JRobin read <code>file</code> itself.  Strategies that keep their
+     * data elsewhere override this so that they can reuse the graphing code.
+     *
+     * @param file the absolute path of the data file
+     * @param ds the data source name
+     * @param consolFun the consolidation function
+     * @param start the start of the graph, in seconds
+     * @param end the end of the graph, in seconds
+     * @return the values of the data source, or null
+     * @throws org.jrobin.core.RrdException if the values can't be read
+     */
+    protected Plottable getPlottable(final String file, final String ds, final String consolFun, final long start, final long end) throws RrdException {
+        return null;
+    }
+
+    /**
+     * Adds a data source to a {@link DataProcessor}, reading it through
+     * {@link #getPlottable(String, String, String, long, long)} when this
+     * strategy provides the values itself.
+     *
+     * @param dataProcessor the data processor
+     * @param name the name of the source in the data processor
+     * @param file the absolute path of the data file
+     * @param ds the data source name
+     * @param consolFun the consolidation function
+     * @param start the start of the data processor, in seconds
+     * @param end the end of the data processor, in seconds
+     * @throws org.jrobin.core.RrdException if the values can't be read
+     */
+    public void addDatasource(final DataProcessor dataProcessor, final String name, final String file, final String ds, final String consolFun, final long start, final long end) throws RrdException {
+        final Plottable plottable = getPlottable(file, ds, consolFun, start, end);
+        if (plottable == null) {
+            dataProcessor.addDatasource(name, file, ds, consolFun);
+        } else {
+            dataProcessor.addDatasource(name, plottable);
+        }
+    }
+
     protected void addVdefDs(RrdGraphDef graphDef, String sourceName, String[] rhs, double start, double end, Map<String,List<String>> defs) throws RrdException {
         if (rhs.length == 2) {
             graphDef.datasource(sourceName, rhs[0], rhs[1]);
@@ -1056,7 +1214,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
                 final String dsName = entry.getKey();
                 final List<String> thisDef = entry.getValue();
                 if (thisDef.size() == 3) {
-                    dataProcessor.addDatasource(dsName, thisDef.get(0), thisDef.get(1), thisDef.get(2));
+                    addDatasource(dataProcessor, dsName, thisDef.get(0), thisDef.get(1), thisDef.get(2), (long)start, (long)end);
                 } else if (thisDef.size() == 1) {
                     dataProcessor.addDatasource(dsName, thisDef.get(0));
                 }
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.rrd.RrdDataSource;
+import org.opennms.netmgt.rrd.RrdUtils;
+import org.opennms.test.FileAnticipator;
+
+/**
+ * Verifies that {@link JRobinRrdDbPool} shares and evicts open files and
+ * compares pooled updates against opening every file for each update.
+ */
+public class JRobinRrdDbPoolTest {
+
+    private JRobinRrdStrategy m_strategy;
+    private JRobinRrdDbPool m_pool;
+    private FileAnticipator m_fileAnticipator;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(true, "INFO");
+
+        m_strategy = new JRobinRrdStrategy();
+        m_pool = new JRobinRrdDbPool(2, null);
+        m_fileAnticipator = new FileAnticipator();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_pool.close();
+        m_fileAnticipator.deleteExpected();
+        m_fileAnticipator.tearDown();
+    }
+
+    @Test
+    public void testHandlesAreShared() throws Exception {
+        final String path = createRrdFile("foo").getAbsolutePath();
+
+        final RrdDb first = m_pool.requestRrdDb(path);
+        final RrdDb second = m_pool.requestRrdDb(path);
+        assertSame(first, second);
+        assertEquals(1, m_pool.getOpenFiles());
+        assertEquals(1, m_pool.getFilesInUse());
+
+        m_pool.release(first);
+        m_pool.release(second);
+        assertEquals(0, m_pool.getFilesInUse());
+
+        assertSame(first, m_pool.requestRrdDb(path));
+        m_pool.release(first);
+
+        assertEquals(1, m_pool.getMisses());
+        assertEquals(2, m_pool.getHits());
+        assertEquals(0, m_pool.getEvictions());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsClosed() throws Exception {
+        final String foo = createRrdFile("foo").getAbsolutePath();
+        final String bar = createRrdFile("bar").getAbsolutePath();
+        final String baz = createRrdFile("baz").getAbsolutePath();
+
+        final RrdDb fooDb = m_pool.requestRrdDb(foo);
+        m_pool.release(fooDb);
+        m_pool.release(m_pool.requestRrdDb(bar));
+        // foo is now more recently used than bar
+        m_pool.release(m_pool.requestRrdDb(foo));
+        m_pool.release(m_pool.requestRrdDb(baz));
+
+        assertEquals(2, m_pool.getOpenFiles());
+        assertEquals(1, m_pool.getEvictions());
+        assertSame(fooDb, m_pool.requestRrdDb(foo));
+        m_pool.release(fooDb);
+        assertEquals(3, m_pool.getMisses());
+    }
+
+    @Test
+    public void testFilesInUseAreNotClosed() throws Exception {
+        final RrdDb foo = m_pool.requestRrdDb(createRrdFile("foo").getAbsolutePath());
+        final RrdDb bar = m_pool.requestRrdDb(createRrdFile("bar").getAbsolutePath());
+        final RrdDb baz = m_pool.requestRrdDb(createRrdFile("baz").getAbsolutePath());
+        assertEquals(3, m_pool.getOpenFiles());
+
+        foo.createSample().setAndUpdate("N:1");
+        m_pool.release(foo);
+        assertEquals(2, m_pool.getOpenFiles());
+        assertTrue(foo.isClosed());
+
+        m_pool.release(bar);
+        m_pool.release(baz);
+        assertEquals(2, m_pool.getOpenFiles());
+    }
+
+    @Test
+    public void testEvictDirectory() throws Exception {
+        final String foo = createRrdFile("foo").getAbsolutePath();
+        final String bar = createRrdFile("bar").getAbsolutePath();
+
+        final RrdDb fooDb = m_pool.requestRrdDb(foo);
+        final RrdDb barDb = m_pool.requestRrdDb(bar);
+        m_pool.release(barDb);
+
+        m_pool.evictFiles(m_fileAnticipator.getTempDir().getAbsolutePath());
+        assertTrue(barDb.isClosed());
+        assertFalse(fooDb.isClosed());
+
+        // the evicted file is not handed out again
+        final RrdDb reopened = m_pool.requestRrdDb(foo);
+        assertNotSame(fooDb, reopened);
+        m_pool.release(reopened);
+
+        m_pool.release(fooDb);
+        assertTrue(fooDb.isClosed());
+        assertEquals(1, m_pool.getOpenFiles());
+    }
+
+    @Test
+    public void testUpdateThroughput() throws Exception {
+        final int files = 100;
+        final int updates = 20;
+        final List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < files; i++) {
+            paths.add(createRrdFile("file" + i).getAbsolutePath());
+        }
+
+        final JRobinRrdDbPool pool = new JRobinRrdDbPool(files, null);
+        try {
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < updates; i++) {
+                final long timestamp = 1000 + (i + 1) * 300;
+                for (final String path : paths) {
+                    final RrdDb rrdDb = new RrdDb(path);
+                    rrdDb.createSample().setAndUpdate(timestamp + ":" + i);
+                    rrdDb.close();
+                }
+            }
+            final long unpooled = Math.max(1, System.currentTimeMillis() - start);
+
+            start = System.currentTimeMillis();
+            for (int i = 0; i < updates; i++) {
+                final long timestamp = 1000 + (updates + i + 1) * 300;
+                for (final String path : paths) {
+                    final RrdDb rrdDb = pool.requestRrdDb(path);
+                    rrdDb.createSample().setAndUpdate(timestamp + ":" + i);
+                    pool.release(rrdDb);
+                }
+            }
+            final long pooled = Math.max(1, System.currentTimeMillis() - start);
+
+            final int total = files * updates;
+            System.err.printf("RrdDb open/update/close: %d updates: Elapsed: %d ms: updates per second %f.%n", total, unpooled, total * 1000.0 / unpooled);
+            System.err.printf("JRobinRrdDbPool request/update/release: %d updates: Elapsed: %d ms: updates per second %f.%n", total, pooled, total * 1000.0 / pooled);
+
+            assertEquals(files, pool.getMisses());
+            assertEquals(total - files, pool.getHits());
+        } finally {
+            pool.close();
+        }
+    }
+
+    private File createRrdFile(final String name) throws Exception {
+        final List<RrdDataSource> dataSources = new ArrayList<RrdDataSource>();
+        dataSources.add(new RrdDataSource("bar", "GAUGE", 3000, "U", "U"));
+        final List<String> rraList = new ArrayList<String>();
+        rraList.add("RRA:AVERAGE:0.5:1:2016");
+        final RrdDef def = m_strategy.createDefinition("hello!", m_fileAnticipator.getTempDir().getAbsolutePath(), name, 300, dataSources, rraList);
+        m_strategy.createFile(def, null);
+
+        return m_fileAnticipator.expecting(name + RrdUtils.getExtension());
+    }
+}
@@ -0,0 +1,602 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.logstore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores compressed blocks in shared, append-only block files and keeps an
+ * in-memory index of them.
+ *
+ * <p>Every flush appends the blocks of all series to the current block file
+ * in one sequential write.  Each block starts with a small header: the
+ * series, the archive (or {@link #RAW} for rates), the time range, the
+ * number of points and columns, the raw values of the last update (so that
+ * counters carry on after a restart) and a checksum of the payload.  The
+ * index is rebuilt at startup by reading just the headers.  Files are
+ * memory-mapped for reading; blocks are never changed in place, they are
+ * removed from the index and their files rewritten or deleted once most of
+ * their blocks are dead.</p>
+ */
+class BlockStore implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlockStore.class);
+
+    /** The archive number of blocks that hold raw rates. */
+    static final int RAW = -1;
+
+    private static final int MAGIC = 0x4c53424b;
+    private static final int FIXED_HEADER_SIZE = 52;
+    private static final String PREFIX = "blocks-";
+    private static final String SUFFIX = ".dat";
+
+    private final File m_directory;
+    private final long m_maxFileSize;
+    private final CRC32 m_crc = new CRC32();
+
+    private final TreeMap<Long, BlockFile> m_files = new TreeMap<Long, BlockFile>();
+    private final Map<Integer, Map<Integer, List<BlockRef>>> m_index = new HashMap<Integer, Map<Integer, List<BlockRef>>>();
+
+    private BlockFile m_current;
+    private FileChannel m_out;
+    private long m_blockCount = 0;
+
+    private static final class BlockFile {
+        private final long m_sequence;
+        private final File m_file;
+        private long m_size = 0;
+        private long m_liveBytes = 0;
+        private MappedByteBuffer m_mapping;
+
+        private BlockFile(final long sequence, final File file) {
+            m_sequence = sequence;
+            m_file = file;
+        }
+    }
+
+    /**
+     * The location and header of a block.
+     */
+    static final class BlockRef {
+        private final long m_file;
+        private final long m_offset;
+        private final int m_length;
+        private final int m_seriesId;
+        private final int m_archive;
+        private final long m_intervalStart;
+        private final long m_minTimestamp;
+        private final long m_maxTimestamp;
+        private final int m_count;
+        private final int m_columns;
+        private final int m_checksum;
+        private final double[] m_lastValues;
+
+        private BlockRef(final long file, final long offset, final int length, final int seriesId, final int archive, final long intervalStart,
+                final long minTimestamp, final long maxTimestamp, final int count, final int columns, final int checksum, final double[] lastValues) {
+            m_file = file;
+            m_offset = offset;
+            m_length = length;
+            m_seriesId = seriesId;
+            m_archive = archive;
+            m_intervalStart = intervalStart;
+            m_minTimestamp = minTimestamp;
+            m_maxTimestamp = maxTimestamp;
+            m_count = count;
+            m_columns = columns;
+            m_checksum = checksum;
+            m_lastValues = lastValues;
+        }
+
+        int getSeriesId() {
+            return m_seriesId;
+        }
+
+        int getArchive() {
+            return m_archive;
+        }
+
+        long getIntervalStart() {
+            return m_intervalStart;
+        }
+
+        long getMinTimestamp() {
+            return m_minTimestamp;
+        }
+
+        long getMaxTimestamp() {
+            return m_maxTimestamp;
+        }
+
+        int getCount() {
+            return m_count;
+        }
+
+        int getColumns() {
+            return m_columns;
+        }
+
+        int getLength() {
+            return m_length;
+        }
+
+        /**
+         * @return the raw values of the update at the end of a raw block
+         */
+        double[] getLastValues() {
+            return m_lastValues;
+        }
+
+        private int getHeaderSize() {
+            return FIXED_HEADER_SIZE + 8 * m_columns;
+        }
+    }
+
+    /**
+     * The contents of a block to be written.
+     */
+    static final class BlockData {
+        private final int m_seriesId;
+        private final int m_archive;
+        private final long m_intervalStart;
+        private final long[] m_timestamps;
+        private final double[][] m_columns;
+        private final int m_count;
+        private final double[] m_lastValues;
+
+        BlockData(final int seriesId, final int archive, final long intervalStart, final long[] timestamps, final double[][] columns, final int count, final double[] lastValues) {
+            if (count < 1) {
+                throw new IllegalArgumentException("A block needs at least one point");
+            }
+            m_seriesId = seriesId;
+            m_archive = archive;
+            m_intervalStart = intervalStart;
+            m_timestamps = timestamps;
+            m_columns = columns;
+            m_count = count;
+            m_lastValues = lastValues;
+        }
+    }
+
+    BlockStore(final File directory, final long maxFileSize) {
+        m_directory = directory;
+        m_maxFileSize = maxFileSize;
+    }
+
+    /**
+     * Rebuilds the index from the block headers of the existing files.
+     * Blocks cut short by a crash are dropped from the end of the file.
+     */
+    synchronized void open() throws IOException {
+        final File[] files = m_directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(final File file) {
+                return file.isFile() && file.getName().matches(PREFIX + "[0-9a-f]{16}" + SUFFIX.replace(".", "\\."));
+            }
+        });
+        if (files != null) {
+            Arrays.sort(files);
+            for (final File file : files) {
+                final String name = file.getName();
+                final long sequence = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()), 16);
+                scan(new BlockFile(sequence, file));
+            }
+        }
+        LOG.info("Found {} blocks in {} block files in {}", m_blockCount, m_files.size(), m_directory);
+    }
+
+    private void scan(final BlockFile blockFile) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(blockFile.m_file, "rw");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long size = channel.size();
+            final ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_SIZE);
+            long offset = 0;
+            while (offset + FIXED_HEADER_SIZE <= size) {
+                header.clear();
+                channel.read(header, offset);
+                header.flip();
+                if (header.getInt() != MAGIC) {
+                    break;
+                }
+                final int seriesId = header.getInt();
+                final int archive = header.getInt();
+                final long intervalStart = header.getLong();
+                final long minTimestamp = header.getLong();
+                final long maxTimestamp = header.getLong();
+                final int count = header.getInt();
+                final int columns = header.getInt();
+                final int payloadLength = header.getInt();
+                final int checksum = header.getInt();
+                if (count < 1 || columns < 1 || columns > Short.MAX_VALUE || payloadLength < 0) {
+                    break;
+                }
+
+                final int length = FIXED_HEADER_SIZE + 8 * columns + payloadLength;
+                if (offset + length > size) {
+                    break;
+                }
+                final ByteBuffer state = ByteBuffer.allocate(8 * columns);
+                channel.read(state, offset + FIXED_HEADER_SIZE);
+                state.flip();
+                final double[] lastValues = new double[columns];
+                for (int i = 0; i < columns; i++) {
+                    lastValues[i] = state.getDouble();
+                }
+
+                index(blockFile, new BlockRef(blockFile.m_sequence, offset, length, seriesId, archive, intervalStart, minTimestamp, maxTimestamp, count, columns, checksum, lastValues));
+                offset += length;
+            }
+            if (offset < size) {
+                LOG.warn("Truncating {} from {} to {} bytes, the rest doesn't hold complete blocks", blockFile.m_file, size, offset);
+                channel.truncate(offset);
+            }
+            blockFile.m_size = offset;
+        } finally {
+            raf.close();
+        }
+        m_files.put(blockFile.m_sequence, blockFile);
+    }
+
+    private void index(final BlockFile blockFile, final BlockRef ref) {
+        Map<Integer, List<BlockRef>> archives = m_index.get(ref.m_seriesId);
+        if (archives == null) {
+            archives = new TreeMap<Integer, List<BlockRef>>();
+            m_index.put(ref.m_seriesId, archives);
+        }
+        List<BlockRef> blocks = archives.get(ref.m_archive);
+        if (blocks == null) {
+            blocks = new ArrayList<BlockRef>();
+            archives.put(ref.m_archive, blocks);
+        }
+
+        // blocks are almost always appended in time order
+        int position = blocks.size();
+        while (position > 0 && blocks.get(position - 1).m_minTimestamp > ref.m_minTimestamp) {
+            position--;
+        }
+        blocks.add(position, ref);
+
+        blockFile.m_liveBytes += ref.m_length;
+        m_blockCount++;
+    }
+
+    /**
+     * Appends blocks to the current block file in a single write, forces
+     * them to disk and adds them to the index.
+     *
+     * @return the number of bytes written
+     */
+    synchronized long write(final List<BlockData> blocks) throws IOException {
+        if (blocks.isEmpty()) {
+            return 0;
+        }
+
+        final List<byte[]> payloads = new ArrayList<byte[]>(blocks.size());
+        int length = 0;
+        for (final BlockData block : blocks) {
+            final byte[] payload = TimeSeriesCodec.encode(block.m_timestamps, block.m_columns, block.m_count);
+            payloads.add(payload);
+            length += FIXED_HEADER_SIZE + 8 * block.m_columns.length + payload.length;
+        }
+        // files are mapped for reading, so they must stay below 2GB
+        if (m_current == null || m_current.m_size >= m_maxFileSize || m_current.m_size + length > Integer.MAX_VALUE) {
+            startFile();
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        final List<BlockRef> refs = new ArrayList<BlockRef>(blocks.size());
+        long offset = m_current.m_size;
+        for (int i = 0; i < blocks.size(); i++) {
+            final BlockData block = blocks.get(i);
+            final byte[] payload = payloads.get(i);
+            final int columns = block.m_columns.length;
+            final double[] lastValues = block.m_lastValues == null ? nans(columns) : block.m_lastValues;
+            m_crc.reset();
+            m_crc.update(payload, 0, payload.length);
+            final int checksum = (int)m_crc.getValue();
+
+            buffer.putInt(MAGIC);
+            buffer.putInt(block.m_seriesId);
+            buffer.putInt(block.m_archive);
+            buffer.putLong(block.m_intervalStart);
+            buffer.putLong(block.m_timestamps[0]);
+            buffer.putLong(block.m_timestamps[block.m_count - 1]);
+            buffer.putInt(block.m_count);
+            buffer.putInt(columns);
+            buffer.putInt(payload.length);
+            buffer.putInt(checksum);
+            for (final double value : lastValues) {
+                buffer.putDouble(value);
+            }
+            buffer.put(payload);
+
+            final int blockLength = FIXED_HEADER_SIZE + 8 * columns + payload.length;
+            refs.add(new BlockRef(m_current.m_sequence, offset, blockLength, block.m_seriesId, block.m_archive, block.m_intervalStart,
+                                  block.m_timestamps[0], block.m_timestamps[block.m_count - 1], block.m_count, columns, checksum, lastValues));
+            offset += blockLength;
+        }
+
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            m_out.write(buffer);
+        }
+        m_out.force(false);
+        m_current.m_size = offset;
+
+        for (final BlockRef ref : refs) {
+            index(m_current, ref);
+        }
+        return length;
+    }
+
+    private void startFile() throws IOException {
+        if (m_out != null) {
+            m_out.close();
+        }
+        final long sequence = m_files.isEmpty() ? 1 : m_files.lastKey() + 1;
+        m_current = new BlockFile(sequence, new File(m_directory, String.format("%s%016x%s", PREFIX, sequence, SUFFIX)));
+        m_out = new RandomAccessFile(m_current.m_file, "rw").getChannel();
+        m_out.position(m_out.size());
+        m_files.put(sequence, m_current);
+    }
+
+    /**
+     * Returns the payload of a block, read from the memory-mapped file.
+     */
+    ByteBuffer readPayload(final BlockRef ref) throws IOException {
+        final ByteBuffer payload;
+        synchronized (this) {
+            final BlockFile blockFile = m_files.get(ref.m_file);
+            if (blockFile == null) {
+                throw new IOException("The block file of series " + ref.m_seriesId + " has been removed");
+            }
+            if (blockFile.m_mapping == null || blockFile.m_mapping.capacity() < ref.m_offset + ref.m_length) {
+                // the file has grown since it was mapped
+                final RandomAccessFile raf = new RandomAccessFile(blockFile.m_file, "r");
+                try {
+                    blockFile.m_mapping = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, blockFile.m_size);
+                } finally {
+                    raf.close();
+                }
+            }
+            payload = blockFile.m_mapping.duplicate();
+        }
+        payload.position((int)ref.m_offset + ref.getHeaderSize());
+        payload.limit((int)ref.m_offset + ref.m_length);
+
+        final byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        if ((int)crc.getValue() != ref.m_checksum) {
+            throw new IOException("Checksum mismatch in block of series " + ref.m_seriesId + " at offset " + ref.m_offset + " of block file " + ref.m_file);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Returns the blocks of a series and archive, ordered by time.
+     */
+    synchronized List<BlockRef> getBlocks(final int seriesId, final int archive) {
+        final Map<Integer, List<BlockRef>> archives = m_index.get(seriesId);
+        if (archives == null || !archives.containsKey(archive)) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<BlockRef>(archives.get(archive));
+    }
+
+    /**
+     * Returns the blocks of all archives of a series.
+     */
+    synchronized List<BlockRef> getBlocks(final int seriesId) {
+        final List<BlockRef> blocks = new ArrayList<BlockRef>();
+        final Map<Integer, List<BlockRef>> archives = m_index.get(seriesId);
+        if (archives != null) {
+            for (final List<BlockRef> archive : archives.values()) {
+                blocks.addAll(archive);
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Returns the latest block of a series and archive, or null if there is none.
+     */
+    synchronized BlockRef getLastBlock(final int seriesId, final int archive) {
+        final Map<Integer, List<BlockRef>> archives = m_index.get(seriesId);
+        final List<BlockRef> blocks = archives == null ? null : archives.get(archive);
+        if (blocks == null || blocks.isEmpty()) {
+            return null;
+        }
+        BlockRef last = blocks.get(0);
+        for (final BlockRef block : blocks) {
+            if (block.m_maxTimestamp > last.m_maxTimestamp) {
+                last = block;
+            }
+        }
+        return last;
+    }
+
+    synchronized Set<Integer> getSeriesIds() {
+        return new HashSet<Integer>(m_index.keySet());
+    }
+
+    /**
+     * Removes blocks from the index.  Their bytes stay in the block files
+     * until {@link #compact(double)} rewrites or deletes them.
+     */
+    synchronized void remove(final Collection<BlockRef> refs) {
+        for (final BlockRef ref : refs) {
+            final Map<Integer, List<BlockRef>> archives = m_index.get(ref.m_seriesId);
+            final List<BlockRef> blocks = archives == null ? null : archives.get(ref.m_archive);
+            if (blocks == null || !blocks.remove(ref)) {
+                continue;
+            }
+            if (blocks.isEmpty()) {
+                archives.remove(ref.m_archive);
+                if (archives.isEmpty()) {
+                    m_index.remove(ref.m_seriesId);
+                }
+            }
+            final BlockFile blockFile = m_files.get(ref.m_file);
+            if (blockFile != null) {
+                blockFile.m_liveBytes -= ref.m_length;
+            }
+            m_blockCount--;
+        }
+    }
+
+    /**
+     * Deletes the block files without live blocks, and copies the live
+     * blocks of files where less than <code>minLiveRatio</code> of the
+     * bytes are live to the current file before deleting them.
+     *
+     * @return the number of files rewritten or deleted
+     */
+    synchronized int compact(final double minLiveRatio) throws IOException {
+        int compacted = 0;
+        for (final BlockFile blockFile : new ArrayList<BlockFile>(m_files.values())) {
+            if (blockFile == m_current || blockFile.m_liveBytes >= blockFile.m_size * minLiveRatio) {
+                continue;
+            }
+            if (blockFile.m_liveBytes > 0) {
+                rewrite(blockFile);
+            }
+            m_files.remove(blockFile.m_sequence);
+            blockFile.m_mapping = null;
+            if (!blockFile.m_file.delete()) {
+                LOG.warn("Unable to delete block file {}", blockFile.m_file);
+            }
+            compacted++;
+        }
+        return compacted;
+    }
+
+    private void rewrite(final BlockFile blockFile) throws IOException {
+        final List<BlockRef> live = new ArrayList<BlockRef>();
+        for (final Map<Integer, List<BlockRef>> archives : m_index.values()) {
+            for (final List<BlockRef> blocks : archives.values()) {
+                for (final BlockRef ref : blocks) {
+                    if (ref.m_file == blockFile.m_sequence) {
+                        live.add(ref);
+                    }
+                }
+            }
+        }
+        LOG.debug("Copying {} live blocks ({} of {} bytes) out of {}", live.size(), blockFile.m_liveBytes, blockFile.m_size, blockFile.m_file);
+
+        if (m_current == null || m_current == blockFile || m_current.m_size >= m_maxFileSize) {
+            startFile();
+        }
+        final RandomAccessFile raf = new RandomAccessFile(blockFile.m_file, "r");
+        try {
+            final FileChannel in = raf.getChannel();
+            for (final BlockRef ref : live) {
+                final ByteBuffer block = ByteBuffer.allocate(ref.m_length);
+                in.read(block, ref.m_offset);
+                block.flip();
+                final long offset = m_current.m_size;
+                while (block.hasRemaining()) {
+                    m_out.write(block);
+                }
+                m_current.m_size += ref.m_length;
+
+                remove(Collections.singletonList(ref));
+                index(m_current, new BlockRef(m_current.m_sequence, offset, ref.m_length, ref.m_seriesId, ref.m_archive, ref.m_intervalStart,
+                                              ref.m_minTimestamp, ref.m_maxTimestamp, ref.m_count, ref.m_columns, ref.m_checksum, ref.m_lastValues));
+            }
+            m_out.force(false);
+        } finally {
+            raf.close();
+        }
+    }
+
+    synchronized int getFileCount() {
+        return m_files.size();
+    }
+
+    synchronized long getBlockCount() {
+        return m_blockCount;
+    }
+
+    synchronized long getSize() {
+        long size = 0;
+        for (final BlockFile blockFile : m_files.values()) {
+            size += blockFile.m_size;
+        }
+        return size;
+    }
+
+    synchronized long getLiveBytes() {
+        long live = 0;
+        for (final BlockFile blockFile : m_files.values()) {
+            live += blockFile.m_liveBytes;
+        }
+        return live;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (m_out != null) {
+            m_out.close();
+            m_out = null;
+        }
+        m_current = null;
+        for (final BlockFile blockFile : m_files.values()) {
+            blockFile.m_mapping = null;
+        }
+    }
+
+    private static double[] nans(final int count) {
+        final double[] values = new double[count];
+        Arrays.fill(values, Double.NaN);
+        return values;
+    }
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.logstore;
+
+import java.util.List;
+
+/**
+ * Turns rates into the values rrdtool would store in its archives.
+ *
+ * <p>Rates are first averaged over each step, weighted by the time they
+ * cover, to give primary data points (PDPs); a PDP is unknown if less than
+ * half of its step is known.  Archives with more than one step per row
+ * consolidate their PDPs with the archive's function, and a row is unknown
+ * if more than the archive's xff of its PDPs are unknown.  Buckets end at
+ * multiples of their width, as in rrdtool.</p>
+ */
+final class Consolidator {
+
+    private Consolidator() {
+    }
+
+    /**
+     * Computes <code>count</code> PDPs of width <code>step</code>, the first
+     * one ending at <code>firstEnd</code>.
+     *
+     * @param runs the runs of rates, ordered by their first timestamp;
+     *        points that have already been seen in an earlier run are skipped
+     */
+    static double[] toPrimaryValues(final List<Run> runs, final long firstEnd, final long step, final int count) {
+        final double[] sums = new double[count];
+        final long[] known = new long[count];
+        final long rangeStart = firstEnd - step;
+        final long rangeEnd = firstEnd + (count - 1) * step;
+
+        long seen = Long.MIN_VALUE;
+        for (final Run run : runs) {
+            final long[] timestamps = run.getTimestamps();
+            final double[] rates = run.getValues();
+            for (int i = 0; i < timestamps.length; i++) {
+                final long end = timestamps[i];
+                if (end <= seen) {
+                    continue;
+                }
+                final long start = Math.max(seen, i == 0 ? run.getIntervalStart() : timestamps[i - 1]);
+                seen = end;
+
+                final double rate = rates[i];
+                final long lo = Math.max(start, rangeStart);
+                final long hi = Math.min(end, rangeEnd);
+                if (Double.isNaN(rate) || hi <= lo) {
+                    continue;
+                }
+                for (int k = (int)((lo - rangeStart) / step); k < count; k++) {
+                    final long bucketStart = rangeStart + k * step;
+                    if (bucketStart >= hi) {
+                        break;
+                    }
+                    final long overlap = Math.min(hi, bucketStart + step) - Math.max(lo, bucketStart);
+                    sums[k] += rate * overlap;
+                    known[k] += overlap;
+                }
+            }
+        }
+
+        final double[] values = new double[count];
+        for (int k = 0; k < count; k++) {
+            values[k] = known[k] * 2 >= step ? sums[k] / known[k] : Double.NaN;
+        }
+        return values;
+    }
+
+    /**
+     * Consolidates consecutive groups of <code>steps</code> PDPs into rows.
+     */
+    static double[] consolidate(final double[] primaryValues, final int steps, final String consolidationFunction, final double xff) {
+        if (steps == 1) {
+            return primaryValues;
+        }
+
+        final double[] rows = new double[primaryValues.length / steps];
+        for (int row = 0; row < rows.length; row++) {
+            int unknown = 0;
+            double result = Double.NaN;
+            double sum = 0;
+            for (int i = row * steps; i < (row + 1) * steps; i++) {
+                final double value = primaryValues[i];
+                if (Double.isNaN(value)) {
+                    unknown++;
+                    continue;
+                }
+                if ("AVERAGE".equals(consolidationFunction)) {
+                    sum += value;
+                } else if ("MIN".equals(consolidationFunction)) {
+                    result = Double.isNaN(result) ? value : Math.min(result, value);
+                } else if ("MAX".equals(consolidationFunction)) {
+                    result = Double.isNaN(result) ? value : Math.max(result, value);
+                } else {
+                    result = value;
+                }
+            }
+            if (unknown == steps || unknown > xff * steps) {
+                rows[row] = Double.NaN;
+            } else if ("AVERAGE".equals(consolidationFunction)) {
+                rows[row] = sum / (steps - unknown);
+            } else {
+                rows[row] = result;
+            }
+        }
+        return rows;
+    }
+}
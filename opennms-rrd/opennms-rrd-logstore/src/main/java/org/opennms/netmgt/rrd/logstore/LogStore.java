@@ -0,0 +1,979 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.logstore;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.netmgt.rrd.logstore.BlockStore.BlockData;
+import org.opennms.netmgt.rrd.logstore.BlockStore.BlockRef;
+import org.opennms.netmgt.rrd.logstore.LogStoreDefinition.Archive;
+import org.opennms.netmgt.rrd.logstore.LogStoreDefinition.Datasource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An embedded, log-structured time series store.
+ *
+ * <p>Updates are turned into rates with rrdtool's rules, appended to the
+ * {@link WriteAheadLog} and buffered in a {@link MemTable}.  The memtable
+ * is flushed to compressed, columnar blocks in shared, append-only block
+ * files, either periodically or when it holds too many values, so that the
+ * disk only ever sees large sequential writes instead of a random write to
+ * every RRD file on every update.</p>
+ *
+ * <p>Maintenance runs in the background: it rolls the rates up into the
+ * archives with more than one step per row, drops blocks that have fallen
+ * out of their archive's retention, merges runs of small blocks into larger
+ * ones and rewrites or deletes block files that are mostly dead.</p>
+ *
+ * <p>Reads consolidate rates into rows on the fly, using rollup blocks where
+ * they exist, so that callers see what rrdtool would have stored.</p>
+ */
+public class LogStore implements LogStoreMBean, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LogStore.class);
+
+    private static final String OBJECT_NAME = "OpenNMS:Name=LogStore";
+    private static final String SERIES_FILE = "series.dat";
+
+    /** blocks with fewer points than this are merged with their neighbours */
+    private static final int SMALL_BLOCK_POINTS = 256;
+    /** the most points a merged block gets */
+    private static final int MERGED_BLOCK_POINTS = 4096;
+    /** the fewest consecutive small blocks worth merging */
+    private static final int MIN_BLOCKS_TO_MERGE = 4;
+    /** block files with less than this ratio of live bytes are rewritten */
+    private static final double MIN_LIVE_RATIO = 0.5;
+
+    private final File m_directory;
+    private final WriteAheadLog m_wal;
+    private final BlockStore m_blocks;
+    private final long m_flushValues;
+
+    private final Object m_flushLock = new Object();
+    private final Object m_maintenanceLock = new Object();
+
+    private final Map<String, Integer> m_seriesIds = new HashMap<String, Integer>();
+    private final List<String> m_paths = new ArrayList<String>();
+    private final Map<Integer, LogStoreDefinition> m_definitions = new HashMap<Integer, LogStoreDefinition>();
+    private final Map<Integer, SeriesState> m_states = new HashMap<Integer, SeriesState>();
+    private DataOutputStream m_seriesOut;
+
+    private MemTable m_memTable = new MemTable();
+    /** the memtable being flushed, kept until it has been written */
+    private MemTable m_frozen;
+    private long m_frozenSequence;
+
+    private ScheduledExecutorService m_executor;
+    private final AtomicBoolean m_flushPending = new AtomicBoolean(false);
+
+    private final AtomicLong m_updates = new AtomicLong(0);
+    private final AtomicLong m_flushes = new AtomicLong(0);
+    private final AtomicLong m_bytesWritten = new AtomicLong(0);
+    private final AtomicLong m_rollupBlocks = new AtomicLong(0);
+    private final AtomicLong m_mergedBlocks = new AtomicLong(0);
+    private final AtomicLong m_expiredBlocks = new AtomicLong(0);
+    private final AtomicLong m_compactedFiles = new AtomicLong(0);
+
+    /**
+     * The time and raw values of the last update of a series.
+     */
+    private static final class SeriesState {
+        private final long m_lastUpdate;
+        private final double[] m_lastValues;
+
+        private SeriesState(final long lastUpdate, final double[] lastValues) {
+            m_lastUpdate = lastUpdate;
+            m_lastValues = lastValues;
+        }
+    }
+
+    /**
+     * The rows returned by a fetch.
+     */
+    public static class FetchResult {
+        private final long[] m_timestamps;
+        private final double[] m_values;
+        private final long m_step;
+
+        FetchResult(final long[] timestamps, final double[] values, final long step) {
+            m_timestamps = timestamps;
+            m_values = values;
+            m_step = step;
+        }
+
+        /**
+         * @return the end of each row, in seconds
+         */
+        public long[] getTimestamps() {
+            return m_timestamps;
+        }
+
+        public double[] getValues() {
+            return m_values;
+        }
+
+        /**
+         * @return the width of the rows, in seconds
+         */
+        public long getStep() {
+            return m_step;
+        }
+    }
+
+    /**
+     * @param directory the directory holding the log, the block files and the series dictionary
+     * @param walSegmentSize the size of each log segment, in bytes
+     * @param maxBlockFileSize the size at which a new block file is started, in bytes
+     * @param flushValues the number of buffered values that triggers a flush
+     */
+    public LogStore(final File directory, final int walSegmentSize, final long maxBlockFileSize, final long flushValues) {
+        m_directory = directory;
+        m_wal = new WriteAheadLog(directory, walSegmentSize);
+        m_blocks = new BlockStore(directory, maxBlockFileSize);
+        m_flushValues = flushValues;
+    }
+
+    /**
+     * Loads the series dictionary and the block index, and replays the
+     * updates in the log that hadn't been flushed yet.
+     */
+    public synchronized void open() throws IOException {
+        if (!m_directory.isDirectory() && !m_directory.mkdirs()) {
+            throw new IOException("Unable to create the store directory " + m_directory);
+        }
+        loadSeries();
+        m_blocks.open();
+
+        for (final Integer seriesId : m_blocks.getSeriesIds()) {
+            final BlockRef last = m_blocks.getLastBlock(seriesId, BlockStore.RAW);
+            if (last != null) {
+                m_states.put(seriesId, new SeriesState(last.getMaxTimestamp(), last.getLastValues()));
+            }
+        }
+
+        final long replayed = m_wal.replay(new WriteAheadLog.Replay() {
+            @Override
+            public void record(final int seriesId, final long timestamp, final double[] values, final double[] rates) {
+                final SeriesState state = m_states.get(seriesId);
+                if (state != null && timestamp <= state.m_lastUpdate) {
+                    // already flushed
+                    return;
+                }
+                m_memTable.add(seriesId, state == null ? timestamp : state.m_lastUpdate, timestamp, values, rates);
+                m_states.put(seriesId, new SeriesState(timestamp, values));
+            }
+        });
+        LOG.info("Opened the store in {} with {} series, replayed {} logged updates", m_directory, m_paths.size(), replayed);
+    }
+
+    private void loadSeries() throws IOException {
+        final File file = new File(m_directory, SERIES_FILE);
+        if (file.exists()) {
+            final byte[] bytes = Files.readAllBytes(file.toPath());
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            int valid = 0;
+            try {
+                while (true) {
+                    final int seriesId = in.readInt();
+                    final String path = in.readUTF();
+                    if (seriesId != m_paths.size()) {
+                        throw new IOException("Series dictionary " + file + " is out of order at series " + seriesId);
+                    }
+                    m_paths.add(path);
+                    m_seriesIds.put(path, seriesId);
+                    valid = bytes.length - in.available();
+                }
+            } catch (final EOFException e) {
+                // end of the dictionary
+            }
+            if (valid < bytes.length) {
+                LOG.warn("Truncating the incomplete last entry of {}", file);
+                final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.setLength(valid);
+                } finally {
+                    raf.close();
+                }
+            }
+        }
+        m_seriesOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    /**
+     * Starts flushing and maintaining the store in the background.
+     *
+     * @param flushInterval the longest time updates stay in memory, in seconds
+     * @param maintenanceInterval the time between rollups and compactions, in seconds
+     */
+    public synchronized void start(final long flushInterval, final long maintenanceInterval) {
+        if (m_executor != null) {
+            return;
+        }
+        m_executor = Executors.newSingleThreadScheduledExecutor(new LogPreservingThreadFactory("LogStore", 1));
+        m_executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushQuietly();
+            }
+        }, flushInterval, flushInterval, TimeUnit.SECONDS);
+        m_executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    maintain();
+                } catch (final Throwable e) {
+                    LOG.error("Maintenance of the store in {} failed", m_directory, e);
+                }
+            }
+        }, maintenanceInterval, maintenanceInterval, TimeUnit.SECONDS);
+    }
+
+    public void registerMBean() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (final Exception e) {
+            LOG.debug("Unable to register {} with JMX", OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Opens the data file with the given header path, registering it as a
+     * new series if it hasn't been seen before.
+     */
+    public synchronized LogStoreFile open(final String path) throws IOException {
+        final String absolutePath = new File(path).getAbsolutePath();
+        Integer seriesId = m_seriesIds.get(absolutePath);
+        LogStoreDefinition definition = seriesId == null ? null : m_definitions.get(seriesId);
+        if (definition == null) {
+            // read the header first so that other files never become series
+            definition = LogStoreDefinition.read(absolutePath);
+        }
+
+        if (seriesId == null) {
+            seriesId = addSeries(absolutePath);
+        }
+        m_definitions.put(seriesId, definition);
+        return new LogStoreFile(seriesId, definition);
+    }
+
+    /**
+     * Registers the series of a header that hasn't been written yet, for
+     * converting existing files.  Any data left in the store by an earlier
+     * conversion of the same file that didn't finish is dropped.
+     */
+    public synchronized LogStoreFile create(final LogStoreDefinition definition) throws IOException {
+        final String absolutePath = new File(definition.getPath()).getAbsolutePath();
+        Integer seriesId = m_seriesIds.get(absolutePath);
+        if (seriesId == null) {
+            seriesId = addSeries(absolutePath);
+        } else {
+            removeSeries(seriesId);
+        }
+        m_definitions.put(seriesId, definition);
+        return new LogStoreFile(seriesId, definition);
+    }
+
+    /**
+     * Drops the data of a series created by {@link #create(LogStoreDefinition)}
+     * whose header won't be written because the conversion failed.
+     */
+    public void drop(final LogStoreFile file) {
+        synchronized (this) {
+            m_definitions.remove(file.getSeriesId());
+        }
+        removeSeries(file.getSeriesId());
+    }
+
+    private int addSeries(final String absolutePath) throws IOException {
+        final int seriesId = m_paths.size();
+        m_seriesOut.writeInt(seriesId);
+        m_seriesOut.writeUTF(absolutePath);
+        m_seriesOut.flush();
+        m_paths.add(absolutePath);
+        m_seriesIds.put(absolutePath, seriesId);
+        return seriesId;
+    }
+
+    /**
+     * Forgets the cached definitions of the files under the given path, so
+     * that they are read again the next time they are opened.
+     */
+    public synchronized void evict(final String path) {
+        final String prefix = new File(path).getAbsolutePath();
+        for (final Iterator<Integer> it = m_definitions.keySet().iterator(); it.hasNext();) {
+            if (m_paths.get(it.next()).startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Applies an update to a series.
+     *
+     * @param timestamp the time of the update, in seconds
+     * @param values the raw values, NaN for unknown
+     */
+    public void update(final LogStoreFile file, final long timestamp, final double[] values) throws IOException {
+        final LogStoreDefinition definition = file.getDefinition();
+        final List<Datasource> datasources = definition.getDatasources();
+        if (values.length != datasources.size()) {
+            throw new IllegalArgumentException("Expected " + datasources.size() + " values for " + file.getPath() + " but got " + values.length);
+        }
+
+        final int seriesId = file.getSeriesId();
+        final boolean flush;
+        synchronized (this) {
+            final SeriesState state = m_states.get(seriesId);
+            if (state != null && timestamp <= state.m_lastUpdate) {
+                throw new IllegalArgumentException("Bad sample time " + timestamp + " for " + file.getPath() + ", the last update was at " + state.m_lastUpdate);
+            }
+
+            final double[] rates = new double[values.length];
+            final long interval = state == null ? 0 : timestamp - state.m_lastUpdate;
+            for (int i = 0; i < rates.length; i++) {
+                rates[i] = datasources.get(i).rate(state == null ? Double.NaN : state.m_lastValues[i], values[i], interval);
+            }
+
+            final double[] copy = values.clone();
+            m_wal.append(seriesId, timestamp, copy, rates);
+            m_memTable.add(seriesId, state == null ? timestamp : state.m_lastUpdate, timestamp, copy, rates);
+            m_states.put(seriesId, new SeriesState(timestamp, copy));
+            flush = m_memTable.getValueCount() >= m_flushValues;
+        }
+        m_updates.incrementAndGet();
+
+        if (flush && m_executor != null && m_flushPending.compareAndSet(false, true)) {
+            m_executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flushQuietly();
+                }
+            });
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (final Throwable e) {
+            LOG.error("Unable to flush the store in {}", m_directory, e);
+        }
+    }
+
+    /**
+     * Writes the buffered updates to a block file and deletes the log
+     * segments that held them.
+     */
+    public void flush() throws IOException {
+        synchronized (m_flushLock) {
+            m_flushPending.set(false);
+            final MemTable frozen;
+            final long sequence;
+            synchronized (this) {
+                // if the last flush failed, its memtable is written first
+                if (m_frozen == null) {
+                    if (m_memTable.isEmpty()) {
+                        return;
+                    }
+                    m_frozen = m_memTable;
+                    m_frozenSequence = m_wal.rotate();
+                    m_memTable = new MemTable();
+                }
+                frozen = m_frozen;
+                sequence = m_frozenSequence;
+            }
+
+            final List<BlockData> blocks = new ArrayList<BlockData>();
+            for (final MemTable.SeriesBuffer buffer : frozen.getSeries()) {
+                blocks.add(new BlockData(buffer.getSeriesId(), BlockStore.RAW, buffer.getIntervalStart(), buffer.getTimestamps(), buffer.getRates(), buffer.getCount(), buffer.getLastValues()));
+            }
+            final long bytes = m_blocks.write(blocks);
+            m_bytesWritten.addAndGet(bytes);
+            m_flushes.incrementAndGet();
+            LOG.debug("Flushed {} values of {} series in {} bytes", frozen.getValueCount(), blocks.size(), bytes);
+
+            synchronized (this) {
+                m_frozen = null;
+            }
+            m_wal.deleteBefore(sequence);
+        }
+    }
+
+    /**
+     * Reads the rows of a data source, from the archive rrdtool would pick.
+     *
+     * @param start the start of the range, in seconds
+     * @param end the end of the range, in seconds
+     * @param resolution the requested row width in seconds, or 0 for the finest
+     */
+    public FetchResult fetch(final LogStoreFile file, final String ds, final String consolidationFunction, final long start, final long end, final long resolution) throws IOException {
+        final LogStoreDefinition definition = file.getDefinition();
+        final int column = definition.getDatasourceIndex(ds);
+        if (column < 0) {
+            throw new IllegalArgumentException("No data source " + ds + " in " + file.getPath());
+        }
+
+        final long lastUpdate = getLastUpdate(file.getSeriesId());
+        final int archiveIndex = definition.findArchive(consolidationFunction, start, resolution, lastUpdate < 0 ? end : lastUpdate);
+        final Archive archive = definition.getArchives().get(archiveIndex);
+        final long step = archive.getSteps() * definition.getStep();
+
+        final long fetchStart = start - start % step;
+        final long fetchEnd = end % step == 0 ? end : end - end % step + step;
+        final int rows = (int)((fetchEnd - fetchStart) / step) + 1;
+        final long[] timestamps = new long[rows];
+        final double[] values = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            timestamps[i] = fetchStart + i * step;
+        }
+        Arrays.fill(values, Double.NaN);
+
+        long computeFrom = fetchStart;
+        if (archive.getSteps() > 1) {
+            for (final BlockRef block : m_blocks.getBlocks(file.getSeriesId(), archiveIndex)) {
+                computeFrom = Math.max(computeFrom, block.getMaxTimestamp() + step);
+                if (block.getMaxTimestamp() < fetchStart || block.getMinTimestamp() > fetchEnd) {
+                    continue;
+                }
+                final ByteBuffer payload = m_blocks.readPayload(block);
+                final long[] blockTimestamps = TimeSeriesCodec.decodeTimestamps(payload, block.getCount());
+                final double[] blockValues = TimeSeriesCodec.decodeColumn(payload, block.getCount(), column);
+                for (int i = 0; i < blockTimestamps.length; i++) {
+                    final long offset = blockTimestamps[i] - fetchStart;
+                    if (offset >= 0 && offset % step == 0 && offset / step < rows) {
+                        values[(int)(offset / step)] = blockValues[i];
+                    }
+                }
+            }
+        }
+
+        if (computeFrom <= fetchEnd) {
+            final int first = (int)((computeFrom - fetchStart) / step);
+            final double[] computed = computeRows(file.getSeriesId(), column, definition, archive, computeFrom, rows - first);
+            System.arraycopy(computed, 0, values, first, computed.length);
+        }
+        return new FetchResult(timestamps, values, step);
+    }
+
+    /**
+     * Consolidates the rates of one column into <code>count</code> rows of
+     * an archive, the first one ending at <code>firstEnd</code>.
+     */
+    private double[] computeRows(final int seriesId, final int column, final LogStoreDefinition definition, final Archive archive, final long firstEnd, final int count) throws IOException {
+        final long pdpStep = definition.getStep();
+        final int steps = archive.getSteps();
+        final long firstPdpEnd = firstEnd - (steps - 1) * pdpStep;
+        final long rangeStart = firstPdpEnd - pdpStep;
+        final long rangeEnd = firstEnd + (count - 1) * steps * pdpStep;
+
+        final List<Run> runs = getRawRuns(seriesId, column, rangeStart, rangeEnd);
+        final double[] primaryValues = Consolidator.toPrimaryValues(runs, firstPdpEnd, pdpStep, count * steps);
+        return Consolidator.consolidate(primaryValues, steps, archive.getConsolidationFunction(), archive.getXff());
+    }
+
+    /**
+     * Collects the runs of rates of one column that overlap the given
+     * range, ordered by their first timestamp.  The memtables are read
+     * before the blocks, so that a flush in between only causes duplicates,
+     * which {@link Consolidator} skips, rather than gaps.
+     */
+    private List<Run> getRawRuns(final int seriesId, final int column, final long rangeStart, final long rangeEnd) throws IOException {
+        final List<Run> runs = new ArrayList<Run>();
+        synchronized (this) {
+            if (m_frozen != null && m_frozen.get(seriesId) != null) {
+                runs.add(m_frozen.get(seriesId).copyColumn(column));
+            }
+            if (m_memTable.get(seriesId) != null) {
+                runs.add(m_memTable.get(seriesId).copyColumn(column));
+            }
+        }
+
+        for (final BlockRef block : m_blocks.getBlocks(seriesId, BlockStore.RAW)) {
+            if (block.getMaxTimestamp() <= rangeStart || block.getIntervalStart() >= rangeEnd) {
+                continue;
+            }
+            final ByteBuffer payload = m_blocks.readPayload(block);
+            runs.add(new Run(block.getIntervalStart(), TimeSeriesCodec.decodeTimestamps(payload, block.getCount()), TimeSeriesCodec.decodeColumn(payload, block.getCount(), column)));
+        }
+
+        Collections.sort(runs, new Comparator<Run>() {
+            @Override
+            public int compare(final Run a, final Run b) {
+                return Long.compare(a.getFirstTimestamp(), b.getFirstTimestamp());
+            }
+        });
+        return runs;
+    }
+
+    /**
+     * @return the time of the last update of the series, or -1 if it has none
+     */
+    public synchronized long getLastUpdate(final int seriesId) {
+        final SeriesState state = m_states.get(seriesId);
+        return state == null ? -1 : state.m_lastUpdate;
+    }
+
+    /**
+     * Rolls up, expires and merges the blocks of every series, then
+     * compacts the block files.
+     */
+    public void maintain() throws IOException {
+        synchronized (m_maintenanceLock) {
+            final Set<Integer> seriesIds = new HashSet<Integer>(m_blocks.getSeriesIds());
+            synchronized (this) {
+                seriesIds.addAll(m_states.keySet());
+            }
+
+            final BlockBatch batch = new BlockBatch();
+            for (final Integer seriesId : seriesIds) {
+                final LogStoreDefinition definition;
+                try {
+                    definition = getDefinition(seriesId);
+                } catch (final FileNotFoundException e) {
+                    dropSeries(seriesId);
+                    continue;
+                } catch (final IOException e) {
+                    LOG.warn("Unable to read the header of series {}, skipping it", seriesId, e);
+                    continue;
+                }
+                rollup(seriesId, definition, batch);
+                expire(seriesId, definition);
+                for (int archive = BlockStore.RAW; archive < definition.getArchives().size(); archive++) {
+                    merge(seriesId, archive, batch);
+                }
+                batch.writeIfFull();
+            }
+            batch.write();
+
+            final int compacted = m_blocks.compact(MIN_LIVE_RATIO);
+            m_compactedFiles.addAndGet(compacted);
+            LOG.debug("Maintained {} series, compacted {} block files", seriesIds.size(), compacted);
+        }
+    }
+
+    /**
+     * Writes the blocks produced by maintenance in batches, since every
+     * write is forced to disk, and removes the blocks they replace only
+     * once they have been written.
+     */
+    private final class BlockBatch {
+        private static final int SIZE = 1024;
+        private final List<BlockData> m_writes = new ArrayList<BlockData>();
+        private final List<BlockRef> m_removals = new ArrayList<BlockRef>();
+
+        private void add(final BlockData block, final List<BlockRef> replaced) {
+            m_writes.add(block);
+            m_removals.addAll(replaced);
+        }
+
+        private void writeIfFull() throws IOException {
+            if (m_writes.size() >= SIZE) {
+                write();
+            }
+        }
+
+        private void write() throws IOException {
+            m_bytesWritten.addAndGet(m_blocks.write(m_writes));
+            m_blocks.remove(m_removals);
+            m_writes.clear();
+            m_removals.clear();
+        }
+    }
+
+    private LogStoreDefinition getDefinition(final int seriesId) throws IOException {
+        final String path;
+        synchronized (this) {
+            if (m_definitions.containsKey(seriesId)) {
+                return m_definitions.get(seriesId);
+            }
+            path = m_paths.get(seriesId);
+        }
+        return LogStoreDefinition.read(path);
+    }
+
+    private void dropSeries(final int seriesId) {
+        synchronized (this) {
+            LOG.info("The header of series {} ({}) is gone, dropping its data", seriesId, m_paths.get(seriesId));
+        }
+        m_expiredBlocks.addAndGet(removeSeries(seriesId));
+    }
+
+    /**
+     * Forgets the last update of a series and removes its blocks.
+     *
+     * @return the number of blocks removed
+     */
+    private int removeSeries(final int seriesId) {
+        synchronized (this) {
+            m_states.remove(seriesId);
+        }
+        final List<BlockRef> blocks = m_blocks.getBlocks(seriesId);
+        m_blocks.remove(blocks);
+        return blocks.size();
+    }
+
+    /**
+     * Writes the rows of each archive with more than one step per row that
+     * have been completed by the updates since the last rollup.
+     */
+    private void rollup(final int seriesId, final LogStoreDefinition definition, final BlockBatch batch) throws IOException {
+        final long lastUpdate = getLastUpdate(seriesId);
+        if (lastUpdate < 0) {
+            return;
+        }
+        final int columns = definition.getDatasources().size();
+
+        for (int archiveIndex = 0; archiveIndex < definition.getArchives().size(); archiveIndex++) {
+            final Archive archive = definition.getArchives().get(archiveIndex);
+            if (archive.getSteps() == 1) {
+                continue;
+            }
+            final long step = archive.getSteps() * definition.getStep();
+            final long lastEnd = lastUpdate - lastUpdate % step;
+
+            long firstEnd;
+            final BlockRef last = m_blocks.getLastBlock(seriesId, archiveIndex);
+            if (last != null) {
+                firstEnd = last.getMaxTimestamp() + step;
+            } else {
+                final long firstRate = getFirstRate(seriesId);
+                if (firstRate < 0) {
+                    continue;
+                }
+                firstEnd = firstRate - firstRate % step + step;
+            }
+            // rows that would already have fallen out of the archive aren't worth computing
+            firstEnd = Math.max(firstEnd, lastEnd - (archive.getRows() - 1) * step);
+            if (firstEnd > lastEnd) {
+                continue;
+            }
+
+            final int count = (int)((lastEnd - firstEnd) / step) + 1;
+            final long[] timestamps = new long[count];
+            for (int i = 0; i < count; i++) {
+                timestamps[i] = firstEnd + i * step;
+            }
+            final double[][] values = new double[columns][];
+            for (int column = 0; column < columns; column++) {
+                values[column] = computeRows(seriesId, column, definition, archive, firstEnd, count);
+            }
+            batch.add(new BlockData(seriesId, archiveIndex, firstEnd - step, timestamps, values, count, null), Collections.<BlockRef>emptyList());
+            m_rollupBlocks.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the start of the first interval with a rate, or -1 if there is none
+     */
+    private long getFirstRate(final int seriesId) {
+        final List<BlockRef> blocks = m_blocks.getBlocks(seriesId, BlockStore.RAW);
+        if (!blocks.isEmpty()) {
+            return blocks.get(0).getIntervalStart();
+        }
+        synchronized (this) {
+            final MemTable.SeriesBuffer buffer = m_frozen != null && m_frozen.get(seriesId) != null ? m_frozen.get(seriesId) : m_memTable.get(seriesId);
+            return buffer == null ? -1 : buffer.getIntervalStart();
+        }
+    }
+
+    /**
+     * Drops the blocks that have fallen out of their archive.  Rates are
+     * kept for as long as the longest single-step archive needs them, and
+     * until every rollup archive has consumed them.
+     */
+    private void expire(final int seriesId, final LogStoreDefinition definition) {
+        final long lastUpdate = getLastUpdate(seriesId);
+        final List<BlockRef> expired = new ArrayList<BlockRef>();
+        long rolledUp = Long.MAX_VALUE;
+
+        for (int archiveIndex = 0; archiveIndex < definition.getArchives().size(); archiveIndex++) {
+            final Archive archive = definition.getArchives().get(archiveIndex);
+            if (archive.getSteps() == 1) {
+                continue;
+            }
+            final List<BlockRef> blocks = m_blocks.getBlocks(seriesId, archiveIndex);
+            if (blocks.isEmpty()) {
+                rolledUp = Long.MIN_VALUE;
+                continue;
+            }
+            final long step = archive.getSteps() * definition.getStep();
+            final long newest = m_blocks.getLastBlock(seriesId, archiveIndex).getMaxTimestamp();
+            rolledUp = Math.min(rolledUp, newest);
+            for (final BlockRef block : blocks) {
+                if (block.getMaxTimestamp() <= Math.max(lastUpdate, newest) - archive.getRows() * step) {
+                    expired.add(block);
+                }
+            }
+        }
+
+        final long rawRetention = definition.getRawRetention();
+        for (final BlockRef block : m_blocks.getBlocks(seriesId, BlockStore.RAW)) {
+            if (block.getMaxTimestamp() <= lastUpdate - rawRetention && block.getMaxTimestamp() <= rolledUp) {
+                expired.add(block);
+            }
+        }
+
+        if (!expired.isEmpty()) {
+            m_blocks.remove(expired);
+            m_expiredBlocks.addAndGet(expired.size());
+        }
+    }
+
+    /**
+     * Merges runs of consecutive small blocks of a series and archive into
+     * larger ones, which compress better and are cheaper to read.
+     */
+    private void merge(final int seriesId, final int archive, final BlockBatch batch) throws IOException {
+        final List<BlockRef> blocks = m_blocks.getBlocks(seriesId, archive);
+        final List<BlockRef> group = new ArrayList<BlockRef>();
+        int points = 0;
+        for (final BlockRef block : blocks) {
+            final boolean contiguous = !group.isEmpty() && block.getIntervalStart() == group.get(group.size() - 1).getMaxTimestamp();
+            if (!contiguous || block.getCount() >= SMALL_BLOCK_POINTS || points + block.getCount() > MERGED_BLOCK_POINTS) {
+                mergeGroup(group, batch);
+                group.clear();
+                points = 0;
+            }
+            if (block.getCount() < SMALL_BLOCK_POINTS) {
+                group.add(block);
+                points += block.getCount();
+            }
+        }
+        mergeGroup(group, batch);
+    }
+
+    private void mergeGroup(final List<BlockRef> group, final BlockBatch batch) throws IOException {
+        if (group.size() < MIN_BLOCKS_TO_MERGE) {
+            return;
+        }
+
+        final BlockRef first = group.get(0);
+        final BlockRef last = group.get(group.size() - 1);
+        int count = 0;
+        for (final BlockRef block : group) {
+            count += block.getCount();
+        }
+        final long[] timestamps = new long[count];
+        final double[][] columns = new double[first.getColumns()][count];
+        int offset = 0;
+        for (final BlockRef block : group) {
+            final ByteBuffer payload = m_blocks.readPayload(block);
+            System.arraycopy(TimeSeriesCodec.decodeTimestamps(payload, block.getCount()), 0, timestamps, offset, block.getCount());
+            for (int column = 0; column < columns.length; column++) {
+                System.arraycopy(TimeSeriesCodec.decodeColumn(payload, block.getCount(), column), 0, columns[column], offset, block.getCount());
+            }
+            offset += block.getCount();
+        }
+
+        // readers skip the duplicates until the small blocks are removed
+        batch.add(new BlockData(first.getSeriesId(), first.getArchive(), first.getIntervalStart(), timestamps, columns, count, last.getLastValues()), group);
+        m_mergedBlocks.addAndGet(group.size());
+    }
+
+    /**
+     * Imports rates into a series, for converting existing files.  The
+     * series must not have any updates after <code>intervalStart</code>.
+     *
+     * @param intervalStart the start of the interval covered by the first rate
+     * @param timestamps the end of the interval covered by each rate
+     * @param rates the rates, one array per data source
+     * @param lastValues the raw values of the last update
+     * @param lastUpdate the time of the last update
+     */
+    public void importRates(final LogStoreFile file, final long intervalStart, final long[] timestamps, final double[][] rates, final double[] lastValues, final long lastUpdate) throws IOException {
+        synchronized (this) {
+            final SeriesState state = m_states.get(file.getSeriesId());
+            if (state != null && state.m_lastUpdate > intervalStart) {
+                throw new IllegalArgumentException(file.getPath() + " already has updates up to " + state.m_lastUpdate);
+            }
+        }
+        if (timestamps.length > 0) {
+            m_bytesWritten.addAndGet(m_blocks.write(Collections.singletonList(new BlockData(file.getSeriesId(), BlockStore.RAW, intervalStart, timestamps, rates, timestamps.length, lastValues))));
+        }
+        synchronized (this) {
+            m_states.put(file.getSeriesId(), new SeriesState(lastUpdate, lastValues.clone()));
+        }
+    }
+
+    /**
+     * Imports the rows of an archive with more than one step per row, for
+     * converting existing files.
+     */
+    public void importRows(final LogStoreFile file, final int archiveIndex, final long[] timestamps, final double[][] values) throws IOException {
+        final Archive archive = file.getDefinition().getArchives().get(archiveIndex);
+        if (archive.getSteps() == 1) {
+            throw new IllegalArgumentException("Single-step archives are computed from the rates");
+        }
+        if (timestamps.length > 0) {
+            final long step = archive.getSteps() * file.getDefinition().getStep();
+            m_bytesWritten.addAndGet(m_blocks.write(Collections.singletonList(new BlockData(file.getSeriesId(), archiveIndex, timestamps[0] - step, timestamps, values, timestamps.length, null))));
+        }
+    }
+
+    /**
+     * Stops the background work, flushes the buffered updates and closes
+     * the files.
+     */
+    @Override
+    public void close() throws IOException {
+        final ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = m_executor;
+            m_executor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        flush();
+        synchronized (this) {
+            m_wal.close();
+            m_blocks.close();
+            m_seriesOut.close();
+        }
+    }
+
+    /**
+     * @return a summary of the store's counters
+     */
+    public String getStats() {
+        return "series: " + getSeriesCount() + ", buffered values: " + getBufferedValues()
+                + ", block files: " + getBlockFileCount() + ", blocks: " + getBlockCount()
+                + ", block file bytes: " + getBlockFileBytes() + ", updates: " + getUpdates()
+                + ", flushes: " + getFlushes() + ", bytes written: " + getBytesWritten();
+    }
+
+    @Override
+    public synchronized int getSeriesCount() {
+        return m_paths.size();
+    }
+
+    @Override
+    public synchronized long getBufferedValues() {
+        return m_memTable.getValueCount() + (m_frozen == null ? 0 : m_frozen.getValueCount());
+    }
+
+    @Override
+    public int getBlockFileCount() {
+        return m_blocks.getFileCount();
+    }
+
+    @Override
+    public long getBlockCount() {
+        return m_blocks.getBlockCount();
+    }
+
+    @Override
+    public long getBlockFileBytes() {
+        return m_blocks.getSize();
+    }
+
+    @Override
+    public long getLiveBlockBytes() {
+        return m_blocks.getLiveBytes();
+    }
+
+    @Override
+    public long getUpdates() {
+        return m_updates.get();
+    }
+
+    @Override
+    public long getFlushes() {
+        return m_flushes.get();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return m_bytesWritten.get();
+    }
+
+    @Override
+    public long getRollupBlocks() {
+        return m_rollupBlocks.get();
+    }
+
+    @Override
+    public long getMergedBlocks() {
+        return m_mergedBlocks.get();
+    }
+
+    @Override
+    public long getExpiredBlocks() {
+        return m_expiredBlocks.get();
+    }
+
+    @Override
+    public long getCompactedFiles() {
+        return m_compactedFiles.get();
+    }
+}
@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.logstore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jrobin.core.RrdException;
+import org.opennms.netmgt.rrd.logstore.LogStoreDefinition.Archive;
+import org.opennms.netmgt.rrd.logstore.LogStoreDefinition.Datasource;
+import org.opennms.netmgt.rrd.logstore.LogStoreDefinition.DatasourceType;
+import org.opennms.netmgt.rrd.model.AbstractDS;
+import org.opennms.netmgt.rrd.model.AbstractRRA;
+import org.opennms.netmgt.rrd.model.AbstractRRD;
+import org.opennms.netmgt.rrd.model.Row;
+import org.opennms.netmgt.rrd.model.RrdConvertUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Imports existing JRobin (<code>.jrb</code>) and rrdtool (<code>.rrd</code>)
+ * files into a {@link LogStore}.
+ *
+ * <p>Each file is read through the RRD model, and a header with the same
+ * data sources and archives is written next to it with the
+ * <code>.lss</code> extension.  The rows of the single-step archive become
+ * rates, the rows of the other archives become rollup blocks, and the last
+ * raw values are kept so that counters carry on without a gap.  The header
+ * is written last, and the imported data is dropped if the import fails, so
+ * a file that wasn't converted completely is converted again the next
+ * time.  The original files are left alone.  Archives with functions other than
+ * AVERAGE, MIN, MAX and LAST are dropped.</p>
+ *
+ * <p>Usage: <code>LogStoreConverter &lt;store directory&gt; &lt;file or
+ * directory&gt;...</code></p>
+ */
+public class LogStoreConverter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LogStoreConverter.class);
+
+    private final LogStore m_store;
+
+    public LogStoreConverter(final LogStore store) {
+        m_store = store;
+    }
+
+    /**
+     * Converts one file.
+     *
+     * @return the header that was written, or null if the file has already been converted
+     */
+    public File convert(final File source) throws IOException, RrdException {
+        final File header = getHeader(source);
+        if (header.exists()) {
+            LOG.info("{} has already been converted to {}", source, header);
+            return null;
+        }
+
+        final AbstractRRD rrd = source.getName().endsWith(".rrd") ? RrdConvertUtils.dumpRrd(source) : RrdConvertUtils.dumpJrb(source);
+        final long step = rrd.getStep();
+
+        final List<Datasource> datasources = new ArrayList<Datasource>();
+        for (final AbstractDS ds : rrd.getDataSources()) {
+            datasources.add(new Datasource(ds.getName(), DatasourceType.valueOf(getType(ds)), ds.getMinHeartbeat(),
+                                           ds.getMin() == null ? Double.NaN : ds.getMin(), ds.getMax() == null ? Double.NaN : ds.getMax()));
+        }
+
+        final List<AbstractRRA> rras = new ArrayList<AbstractRRA>();
+        final List<Archive> archives = new ArrayList<Archive>();
+        for (final AbstractRRA rra : rrd.getRras()) {
+            final String cf = getConsolidationFunction(rra);
+            if (!Arrays.asList("AVERAGE", "MIN", "MAX", "LAST").contains(cf)) {
+                LOG.warn("Dropping the {} archive of {}", cf, source);
+                continue;
+            }
+            rras.add(rra);
+            archives.add(new Archive(cf, getXff(rra), rra.getPdpPerRow().intValue(), rra.getRows().size()));
+        }
+
+        final LogStoreDefinition definition = new LogStoreDefinition(header.getAbsolutePath(), step, datasources, archives);
+        final LogStoreFile file = m_store.create(definition);
+        boolean converted = false;
+        try {
+            importData(rrd, rras, file);
+            definition.write();
+            converted = true;
+        } finally {
+            if (!converted) {
+                m_store.drop(file);
+            }
+        }
+
+        LOG.info("Converted {} to {}", source, header);
+        return header;
+    }
+
+    private void importData(final AbstractRRD rrd, final List<AbstractRRA> rras, final LogStoreFile file) throws IOException {
+        final long step = rrd.getStep();
+        final List<Datasource> datasources = file.getDefinition().getDatasources();
+        final List<Archive> archives = file.getDefinition().getArchives();
+
+        final double[] lastValues = new double[datasources.size()];
+        for (int i = 0; i < lastValues.length; i++) {
+            final Double lastDs = rrd.getDataSource(i).getLastDs();
+            lastValues[i] = lastDs == null ? Double.NaN : lastDs;
+        }
+
+        // rates come from the single-step archive, preferably the AVERAGE one
+        int rateArchive = -1;
+        for (int i = 0; i < archives.size(); i++) {
+            if (archives.get(i).getSteps() == 1 && (rateArchive < 0 || "AVERAGE".equals(archives.get(i).getConsolidationFunction()))) {
+                rateArchive = i;
+            }
+        }
+        if (rateArchive >= 0) {
+            final AbstractRRA rra = rras.get(rateArchive);
+            final long[] timestamps = getTimestamps(rrd, rra);
+            m_store.importRates(file, timestamps.length == 0 ? rrd.getLastUpdate() : timestamps[0] - step, timestamps, getValues(rra, datasources.size()), lastValues, rrd.getLastUpdate());
+        } else {
+            m_store.importRates(file, rrd.getLastUpdate(), new long[0], new double[datasources.size()][0], lastValues, rrd.getLastUpdate());
+        }
+
+        for (int i = 0; i < archives.size(); i++) {
+            if (archives.get(i).getSteps() > 1) {
+                final AbstractRRA rra = rras.get(i);
+                m_store.importRows(file, i, getTimestamps(rrd, rra), getValues(rra, datasources.size()));
+            }
+        }
+    }
+
+    private static File getHeader(final File source) {
+        final String name = source.getName();
+        final int dot = name.lastIndexOf('.');
+        return new File(source.getParentFile(), (dot < 0 ? name : name.substring(0, dot)) + ".lss");
+    }
+
+    private static String getType(final AbstractDS ds) {
+        if (ds instanceof org.opennms.netmgt.rrd.model.v1.DS) {
+            return ((org.opennms.netmgt.rrd.model.v1.DS)ds).getType().value();
+        }
+        return ((org.opennms.netmgt.rrd.model.v3.DS)ds).getType().value();
+    }
+
+    private static String getConsolidationFunction(final AbstractRRA rra) {
+        if (rra instanceof org.opennms.netmgt.rrd.model.v1.RRA) {
+            return ((org.opennms.netmgt.rrd.model.v1.RRA)rra).getConsolidationFunction().value();
+        }
+        return ((org.opennms.netmgt.rrd.model.v3.RRA)rra).getConsolidationFunction().value();
+    }
+
+    private static double getXff(final AbstractRRA rra) {
+        final Double xff;
+        if (rra instanceof org.opennms.netmgt.rrd.model.v1.RRA) {
+            xff = ((org.opennms.netmgt.rrd.model.v1.RRA)rra).getXff();
+        } else {
+            xff = ((org.opennms.netmgt.rrd.model.v3.RRA)rra).getParameters().getXff();
+        }
+        return xff == null ? 0.5 : xff;
+    }
+
+    private static long[] getTimestamps(final AbstractRRD rrd, final AbstractRRA rra) {
+        final long start = rrd.getStartTimestamp(rra);
+        final long step = rra.getPdpPerRow() * rrd.getStep();
+        final long[] timestamps = new long[rra.getRows().size()];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = start + i * step;
+        }
+        return timestamps;
+    }
+
+    private static double[][] getValues(final AbstractRRA rra, final int columns) {
+        final List<Row> rows = rra.getRows();
+        final double[][] values = new double[columns][rows.size()];
+        for (int row = 0; row < rows.size(); row++) {
+            final List<Double> rowValues = rows.get(row).getValues();
+            for (int column = 0; column < columns; column++) {
+                final Double value = rowValues.get(column);
+                values[column][row] = value == null ? Double.NaN : value;
+            }
+        }
+        return values;
+    }
+
+    private int convertAll(final File file) {
+        if (file.isDirectory()) {
+            int converted = 0;
+            final File[] children = file.listFiles();
+            if (children != null) {
+                for (final File child : children) {
+                    converted += convertAll(child);
+                }
+            }
+            return converted;
+        }
+        if (!file.getName().endsWith(".jrb") && !file.getName().endsWith(".rrd")) {
+            return 0;
+        }
+        try {
+            return convert(file) == null ? 0 : 1;
+        } catch (final Exception e) {
+            LOG.error("Unable to convert {}", file, e);
+            System.err.println("Unable to convert " + file + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: " + LogStoreConverter.class.getName() + " <store directory> <file or directory>...");
+            System.exit(1);
+        }
+
+        final LogStore store = new LogStore(new File(args[0]), 32 * 1024 * 1024, 256L * 1024 * 1024, Long.MAX_VALUE);
+        store.open();
+        try {
+            final LogStoreConverter converter = new LogStoreConverter(store);
+            int converted = 0;
+            for (int i = 1; i < args.length; i++) {
+                converted += converter.convertAll(new File(args[i]));
+            }
+            System.out.println("Converted " + converted + " files");
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,428 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.logstore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.opennms.netmgt.rrd.RrdDataSource;
+
+/**
+ * The layout of one data file: its step, data sources and archives.
+ *
+ * <p>The definition is written once, when the file is created, to a small
+ * header file at the path where the RRD file would have been, so that
+ * resources are still found by looking for files with the strategy's
+ * extension.  The data itself lives in the {@link LogStore}.  Data sources
+ * and archives use rrdtool's <code>DS:</code> and <code>RRA:</code>
+ * syntax.</p>
+ */
+public class LogStoreDefinition {
+
+    private static final String VERSION = "1";
+
+    private final String m_path;
+    private final long m_step;
+    private final List<Datasource> m_datasources;
+    private final List<Archive> m_archives;
+
+    public enum DatasourceType {
+        GAUGE, COUNTER, DERIVE, ABSOLUTE
+    }
+
+    /**
+     * A data source, and the rrdtool rules that turn its raw values into
+     * rates.
+     */
+    public static class Datasource {
+        private static final double COUNTER32_WRAP = 4294967296.0;
+        private static final double COUNTER64_WRAP = 18446744073709551616.0 - COUNTER32_WRAP;
+
+        private final String m_name;
+        private final DatasourceType m_type;
+        private final long m_heartbeat;
+        private final double m_min;
+        private final double m_max;
+
+        public Datasource(final String name, final DatasourceType type, final long heartbeat, final double min, final double max) {
+            m_name = name;
+            m_type = type;
+            m_heartbeat = heartbeat;
+            m_min = min;
+            m_max = max;
+        }
+
+        public String getName() {
+            return m_name;
+        }
+
+        public DatasourceType getType() {
+            return m_type;
+        }
+
+        public long getHeartbeat() {
+            return m_heartbeat;
+        }
+
+        public double getMin() {
+            return m_min;
+        }
+
+        public double getMax() {
+            return m_max;
+        }
+
+        /**
+         * Computes the rate for the interval between two updates.
+         *
+         * @param previous the raw value of the previous update, NaN if unknown
+         * @param value the raw value of this update, NaN if unknown
+         * @param interval the seconds since the previous update
+         * @return the rate, or NaN if it is unknown
+         */
+        public double rate(final double previous, final double value, final long interval) {
+            if (interval <= 0 || interval > m_heartbeat || Double.isNaN(value)) {
+                return Double.NaN;
+            }
+
+            double rate;
+            switch (m_type) {
+            case GAUGE:
+                rate = value;
+                break;
+            case COUNTER:
+                double delta = value - previous;
+                if (delta < 0) {
+                    delta += COUNTER32_WRAP;
+                    if (delta < 0) {
+                        delta += COUNTER64_WRAP;
+                    }
+                }
+                rate = delta / interval;
+                break;
+            case DERIVE:
+                rate = (value - previous) / interval;
+                break;
+            case ABSOLUTE:
+                rate = value / interval;
+                break;
+            default:
+                throw new IllegalStateException("Unknown data source type " + m_type);
+            }
+
+            if ((!Double.isNaN(m_min) && rate < m_min) || (!Double.isNaN(m_max) && rate > m_max)) {
+                return Double.NaN;
+            }
+            return rate;
+        }
+
+        @Override
+        public String toString() {
+            return "DS:" + m_name + ":" + m_type + ":" + m_heartbeat + ":" + format(m_min) + ":" + format(m_max);
+        }
+
+        /**
+         * Parses a <code>DS:name:type:heartbeat:min:max</code> string.
+         */
+        public static Datasource parse(final String ds) {
+            final String[] fields = ds.split(":");
+            if (fields.length != 6 || !"DS".equals(fields[0])) {
+                throw new IllegalArgumentException("Invalid data source: " + ds);
+            }
+            return new Datasource(fields[1], DatasourceType.valueOf(fields[2].toUpperCase()), Long.parseLong(fields[3]), parseLimit(fields[4], ds), parseLimit(fields[5], ds));
+        }
+    }
+
+    /**
+     * An archive, which sets how long data is kept at which resolution.
+     */
+    public static class Archive {
+        private final String m_consolidationFunction;
+        private final double m_xff;
+        private final int m_steps;
+        private final int m_rows;
+
+        public Archive(final String consolidationFunction, final double xff, final int steps, final int rows) {
+            if (!"AVERAGE".equals(consolidationFunction) && !"MIN".equals(consolidationFunction)
+                    && !"MAX".equals(consolidationFunction) && !"LAST".equals(consolidationFunction)) {
+                throw new IllegalArgumentException("Unsupported consolidation function " + consolidationFunction);
+            }
+            if (steps < 1 || rows < 1) {
+                throw new IllegalArgumentException("Archives need at least one step and one row");
+            }
+            m_consolidationFunction = consolidationFunction;
+            m_xff = xff;
+            m_steps = steps;
+            m_rows = rows;
+        }
+
+        public String getConsolidationFunction() {
+            return m_consolidationFunction;
+        }
+
+        public double getXff() {
+            return m_xff;
+        }
+
+        public int getSteps() {
+            return m_steps;
+        }
+
+        public int getRows() {
+            return m_rows;
+        }
+
+        @Override
+        public String toString() {
+            return "RRA:" + m_consolidationFunction + ":" + m_xff + ":" + m_steps + ":" + m_rows;
+        }
+
+        /**
+         * Parses a <code>RRA:cf:xff:steps:rows</code> string.
+         */
+        public static Archive parse(final String rra) {
+            final String[] fields = rra.split(":");
+            if (fields.length != 5 || !"RRA".equals(fields[0])) {
+                throw new IllegalArgumentException("Invalid archive: " + rra);
+            }
+            return new Archive(fields[1].toUpperCase(), Double.parseDouble(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4]));
+        }
+    }
+
+    public LogStoreDefinition(final String path, final long step, final List<Datasource> datasources, final List<Archive> archives) {
+        if (step < 1) {
+            throw new IllegalArgumentException("The step must be at least one second");
+        }
+        if (datasources.isEmpty()) {
+            throw new IllegalArgumentException("At least one data source is required for " + path);
+        }
+        if (archives.isEmpty()) {
+            throw new IllegalArgumentException("At least one archive is required for " + path);
+        }
+        m_path = path;
+        m_step = step;
+        m_datasources = Collections.unmodifiableList(new ArrayList<Datasource>(datasources));
+        m_archives = Collections.unmodifiableList(new ArrayList<Archive>(archives));
+    }
+
+    /**
+     * Creates a definition from the arguments of
+     * {@link org.opennms.netmgt.rrd.RrdStrategy#createDefinition}.
+     */
+    public static LogStoreDefinition create(final String path, final int step, final List<RrdDataSource> dataSources, final List<String> rraList) {
+        final List<Datasource> datasources = new ArrayList<Datasource>(dataSources.size());
+        for (final RrdDataSource dataSource : dataSources) {
+            datasources.add(new Datasource(dataSource.getName(), DatasourceType.valueOf(dataSource.getType().toUpperCase()), dataSource.getHeartBeat(),
+                                           parseLimit(dataSource.getMin(), dataSource.getName()), parseLimit(dataSource.getMax(), dataSource.getName())));
+        }
+        final List<Archive> archives = new ArrayList<Archive>(rraList.size());
+        for (final String rra : rraList) {
+            archives.add(Archive.parse(rra));
+        }
+        return new LogStoreDefinition(path, step, datasources, archives);
+    }
+
+    public String getPath() {
+        return m_path;
+    }
+
+    public long getStep() {
+        return m_step;
+    }
+
+    public List<Datasource> getDatasources() {
+        return m_datasources;
+    }
+
+    public List<Archive> getArchives() {
+        return m_archives;
+    }
+
+    /**
+     * @return the index of the named data source, or -1 if there is none
+     */
+    public int getDatasourceIndex(final String name) {
+        for (int i = 0; i < m_datasources.size(); i++) {
+            if (m_datasources.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of seconds of raw rates that must be kept: as long
+     * as the longest single-step archive, and at least two rows of the
+     * coarsest archive so that rollups always have their input.
+     */
+    public long getRawRetention() {
+        long retention = 0;
+        for (final Archive archive : m_archives) {
+            if (archive.getSteps() == 1) {
+                retention = Math.max(retention, archive.getRows() * m_step);
+            } else {
+                retention = Math.max(retention, 2 * archive.getSteps() * m_step);
+            }
+        }
+        return retention;
+    }
+
+    /**
+     * Picks the archive to read, the way rrdtool does: among the archives
+     * with the requested consolidation function, the one that reaches back
+     * to <code>start</code> with the resolution closest to the requested
+     * one, or the one reaching back the furthest if none does.
+     *
+     * @param resolution the requested resolution in seconds, or 0 for the finest
+     * @param lastUpdate the time of the last update, which the archives end at
+     * @return the index of the archive
+     */
+    public int findArchive(final String consolidationFunction, final long start, final long resolution, final long lastUpdate) {
+        String cf = consolidationFunction == null ? "AVERAGE" : consolidationFunction.toUpperCase();
+        if (!hasArchive(cf)) {
+            cf = hasArchive("AVERAGE") ? "AVERAGE" : null;
+        }
+
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        int furthest = -1;
+        long furthestStart = Long.MAX_VALUE;
+        for (int i = 0; i < m_archives.size(); i++) {
+            final Archive archive = m_archives.get(i);
+            if (cf != null && !cf.equals(archive.getConsolidationFunction())) {
+                continue;
+            }
+            final long archiveStep = archive.getSteps() * m_step;
+            final long archiveStart = lastUpdate - archive.getRows() * archiveStep;
+            if (archiveStart < furthestStart) {
+                furthestStart = archiveStart;
+                furthest = i;
+            }
+            if (archiveStart <= start) {
+                final long distance = Math.abs(archiveStep - resolution);
+                if (distance < bestDistance || (distance == bestDistance && archiveStep < m_archives.get(best).getSteps() * m_step)) {
+                    best = i;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best >= 0 ? best : furthest;
+    }
+
+    private boolean hasArchive(final String cf) {
+        for (final Archive archive : m_archives) {
+            if (archive.getConsolidationFunction().equals(cf)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the definition to its header file.  The file is written under
+     * a temporary name first so that readers never see half of it.
+     */
+    public void write() throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty("version", VERSION);
+        properties.setProperty("step", Long.toString(m_step));
+        for (int i = 0; i < m_datasources.size(); i++) {
+            properties.setProperty("ds." + i, m_datasources.get(i).toString());
+        }
+        for (int i = 0; i < m_archives.size(); i++) {
+            properties.setProperty("rra." + i, m_archives.get(i).toString());
+        }
+
+        final File file = new File(m_path);
+        final File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        final OutputStream out = new FileOutputStream(temp);
+        try {
+            properties.store(out, "OpenNMS log-structured store header, the data is kept in the store directory");
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * Reads the definition from a header file.
+     */
+    public static LogStoreDefinition read(final String path) throws IOException {
+        final Properties properties = new Properties();
+        final InputStream in = new FileInputStream(path);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        if (!VERSION.equals(properties.getProperty("version"))) {
+            throw new IOException(path + " is not a log-structured store header");
+        }
+
+        try {
+            final List<Datasource> datasources = new ArrayList<Datasource>();
+            for (int i = 0; properties.containsKey("ds." + i); i++) {
+                datasources.add(Datasource.parse(properties.getProperty("ds." + i)));
+            }
+            final List<Archive> archives = new ArrayList<Archive>();
+            for (int i = 0; properties.containsKey("rra." + i); i++) {
+                archives.add(Archive.parse(properties.getProperty("rra." + i)));
+            }
+            return new LogStoreDefinition(path, Long.parseLong(properties.getProperty("step")), datasources, archives);
+        } catch (final IllegalArgumentException e) {
+            throw new IOException("Invalid header " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static double parseLimit(final String value, final String context) {
+        if (value == null || "U".equalsIgnoreCase(value) || value.isEmpty()) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid minimum or maximum " + value + " for " + context);
+        }
+    }
+
+    private static String format(final double value) {
+        return Double.isNaN(value) ? "U" : Double.toString(value);
+    }
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.logstore;
+
+/**
+ * An open data file: the definition of a series and its id in the store.
+ */
+public class LogStoreFile {
+    private final int m_seriesId;
+    private final LogStoreDefinition m_definition;
+
+    LogStoreFile(final int seriesId, final LogStoreDefinition definition) {
+        m_seriesId = seriesId;
+        m_definition = definition;
+    }
+
+    public int getSeriesId() {
+        return m_seriesId;
+    }
+
+    public LogStoreDefinition getDefinition() {
+        return m_definition;
+    }
+
+    public String getPath() {
+        return m_definition.getPath();
+    }
+
+    @Override
+    public String toString() {
+        return m_definition.getPath() + " (series " + m_seriesId + ")";
+    }
+}
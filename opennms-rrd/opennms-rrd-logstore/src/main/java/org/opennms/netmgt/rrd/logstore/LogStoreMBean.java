@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.logstore;
+
+/**
+ * JMX view of a {@link LogStore}.
+ */
+public interface LogStoreMBean {
+
+    /**
+     * @return the number of series known to the store
+     */
+    public int getSeriesCount();
+
+    /**
+     * @return the number of values buffered in memory and not yet flushed
+     */
+    public long getBufferedValues();
+
+    /**
+     * @return the number of block files on disk
+     */
+    public int getBlockFileCount();
+
+    /**
+     * @return the number of live blocks
+     */
+    public long getBlockCount();
+
+    /**
+     * @return the size of the block files, in bytes
+     */
+    public long getBlockFileBytes();
+
+    /**
+     * @return the bytes of the block files that belong to live blocks
+     */
+    public long getLiveBlockBytes();
+
+    /**
+     * @return the cumulative number of updates
+     */
+    public long getUpdates();
+
+    /**
+     * @return the cumulative number of flushes of the memtable
+     */
+    public long getFlushes();
+
+    /**
+     * @return the cumulative number of bytes written to block files
+     */
+    public long getBytesWritten();
+
+    /**
+     * @return the cumulative number of rollup blocks written
+     */
+    public long getRollupBlocks();
+
+    /**
+     * @return the cumulative number of small blocks merged into larger ones
+     */
+    public long getMergedBlocks();
+
+    /**
+     * @return the cumulative number of blocks dropped by retention
+     */
+    public long getExpiredBlocks();
+
+    /**
+     * @return the cumulative number of block files rewritten or deleted
+     */
+    public long getCompactedFiles();
+}
@@ -0,0 +1,439 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.logstore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.jrobin.core.RrdException;
+import org.jrobin.data.Plottable;
+import org.opennms.netmgt.rrd.RrdDataSource;
+import org.opennms.netmgt.rrd.RrdFileCache;
+import org.opennms.netmgt.rrd.RrdGraphDetails;
+import org.opennms.netmgt.rrd.RrdSample;
+import org.opennms.netmgt.rrd.RrdSampleStrategy;
+import org.opennms.netmgt.rrd.RrdStrategy;
+import org.opennms.netmgt.rrd.RrdUtils;
+import org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides an RrdStrategy that keeps the data of all files in a single
+ * embedded {@link LogStore} instead of one RRD file per resource, so that
+ * updates become large sequential writes instead of random writes.
+ *
+ * <p>Each data file is replaced by a small header with the strategy's
+ * extension, <code>.lss</code>, which holds the file's definition and lets
+ * resources be found as before.  Graphs are drawn by JRobin, which reads
+ * the data sources from the store.</p>
+ *
+ * <p>The following properties configure the store:</p>
+ * <ul>
+ * <li><code>org.opennms.rrd.logstore.directory</code>: where the store keeps
+ *     its files, <code>${rrd.base.dir}/logstore</code> by default</li>
+ * <li><code>org.opennms.rrd.logstore.walSegmentSize</code>: the size of each
+ *     write-ahead log segment, in bytes</li>
+ * <li><code>org.opennms.rrd.logstore.blockFileSize</code>: the size at which a
+ *     new block file is started, in bytes</li>
+ * <li><code>org.opennms.rrd.logstore.flushValues</code>: the number of
+ *     buffered values that triggers a flush</li>
+ * <li><code>org.opennms.rrd.logstore.flushInterval</code>: the longest time
+ *     updates stay in memory, in seconds</li>
+ * <li><code>org.opennms.rrd.logstore.maintenanceInterval</code>: the time
+ *     between rollups and compactions, in seconds</li>
+ * </ul>
+ */
+public class LogStoreRrdStrategy implements RrdStrategy<LogStoreDefinition, LogStoreFile>, RrdSampleStrategy<LogStoreFile>, RrdFileCache {
+    private static final Logger LOG = LoggerFactory.getLogger(LogStoreRrdStrategy.class);
+
+    private static final String DIRECTORY_PROPERTY = "org.opennms.rrd.logstore.directory";
+    private static final String WAL_SEGMENT_SIZE_PROPERTY = "org.opennms.rrd.logstore.walSegmentSize";
+    private static final String BLOCK_FILE_SIZE_PROPERTY = "org.opennms.rrd.logstore.blockFileSize";
+    private static final String FLUSH_VALUES_PROPERTY = "org.opennms.rrd.logstore.flushValues";
+    private static final String FLUSH_INTERVAL_PROPERTY = "org.opennms.rrd.logstore.flushInterval";
+    private static final String MAINTENANCE_INTERVAL_PROPERTY = "org.opennms.rrd.logstore.maintenanceInterval";
+
+    private static final long DEFAULT_WAL_SEGMENT_SIZE = 32L * 1024 * 1024;
+    private static final long DEFAULT_BLOCK_FILE_SIZE = 256L * 1024 * 1024;
+    private static final long DEFAULT_FLUSH_VALUES = 5000000L;
+    private static final long DEFAULT_FLUSH_INTERVAL = 3600L;
+    private static final long DEFAULT_MAINTENANCE_INTERVAL = 900L;
+
+    private Properties m_configurationProperties;
+
+    private LogStore m_store;
+
+    private final GraphStrategy m_graphStrategy;
+
+    /**
+     * Draws graphs with JRobin, reading the DEFs from the store.
+     */
+    private class GraphStrategy extends JRobinRrdStrategy {
+        private GraphStrategy() throws Exception {
+            super();
+        }
+
+        @Override
+        protected Plottable getPlottable(final String file, final String ds, final String consolFun, final long start, final long end) throws RrdException {
+            return LogStoreRrdStrategy.this.getPlottable(file, ds, consolFun, start, end);
+        }
+    }
+
+    /**
+     * Serves the rows of a fetch to JRobin.  Each row holds the value of
+     * the interval that ends at its timestamp.
+     */
+    private static class FetchResultPlottable extends Plottable {
+        private final LogStore.FetchResult m_result;
+
+        private FetchResultPlottable(final LogStore.FetchResult result) {
+            m_result = result;
+        }
+
+        @Override
+        public double getValue(final long timestamp) {
+            final long[] timestamps = m_result.getTimestamps();
+            final long step = m_result.getStep();
+            final long offset = timestamp - timestamps[0];
+            final long row = offset <= 0 ? (offset > -step ? 0 : -1) : (offset + step - 1) / step;
+            return row < 0 || row >= timestamps.length ? Double.NaN : m_result.getValues()[(int)row];
+        }
+    }
+
+    /**
+     * <p>Constructor for LogStoreRrdStrategy.</p>
+     *
+     * @throws java.lang.Exception if any.
+     */
+    public LogStoreRrdStrategy() throws Exception {
+        m_graphStrategy = new GraphStrategy();
+    }
+
+    /**
+     * <p>getConfigurationProperties</p>
+     *
+     * @return a {@link java.util.Properties} object.
+     */
+    public Properties getConfigurationProperties() {
+        return m_configurationProperties;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void setConfigurationProperties(final Properties configurationParameters) {
+        m_configurationProperties = configurationParameters;
+        if (m_store != null) {
+            try {
+                m_store.close();
+            } catch (final IOException e) {
+                LOG.error("Unable to close the store", e);
+            }
+            m_store = null;
+        }
+    }
+
+    /**
+     * Returns the store, opening it on first use.
+     *
+     * @return the store
+     * @throws java.io.IOException if the store can't be opened
+     */
+    public synchronized LogStore getStore() throws IOException {
+        if (m_store == null) {
+            final String baseDir = System.getProperty("rrd.base.dir", System.getProperty("opennms.home") + File.separator + "share" + File.separator + "rrd");
+            final String directory = getProperty(DIRECTORY_PROPERTY, baseDir + File.separator + "logstore");
+            final long walSegmentSize = getLongProperty(WAL_SEGMENT_SIZE_PROPERTY, DEFAULT_WAL_SEGMENT_SIZE);
+            final long blockFileSize = getLongProperty(BLOCK_FILE_SIZE_PROPERTY, DEFAULT_BLOCK_FILE_SIZE);
+
+            final LogStore store = new LogStore(new File(directory), (int)Math.min(Integer.MAX_VALUE, walSegmentSize),
+                                                Math.min(Integer.MAX_VALUE, blockFileSize), getLongProperty(FLUSH_VALUES_PROPERTY, DEFAULT_FLUSH_VALUES));
+            store.open();
+            store.start(getLongProperty(FLUSH_INTERVAL_PROPERTY, DEFAULT_FLUSH_INTERVAL), getLongProperty(MAINTENANCE_INTERVAL_PROPERTY, DEFAULT_MAINTENANCE_INTERVAL));
+            store.registerMBean();
+            Runtime.getRuntime().addShutdownHook(new Thread("LogStore-Shutdown") {
+                @Override
+                public void run() {
+                    try {
+                        store.close();
+                    } catch (final IOException e) {
+                        LOG.error("Unable to close the store", e);
+                    }
+                }
+            });
+            m_store = store;
+        }
+        return m_store;
+    }
+
+    private String getProperty(final String name, final String defaultValue) {
+        final String value = m_configurationProperties == null ? null : m_configurationProperties.getProperty(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    private long getLongProperty(final String name, final long defaultValue) {
+        final String value = getProperty(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (final NumberFormatException e) {
+            LOG.error("Invalid value for {}: {}, using {}", name, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the strategy used for graphing, which can also feed JRobin's
+     * {@link org.jrobin.data.DataProcessor} from the store.
+     *
+     * @return a {@link org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy} object.
+     */
+    public JRobinRrdStrategy getGraphStrategy() {
+        return m_graphStrategy;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getDefaultFileExtension() {
+        return ".lss";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public LogStoreDefinition createDefinition(final String creator, final String directory, final String rrdName, final int step, final List<RrdDataSource> dataSources, final List<String> rraList) throws Exception {
+        final File f = new File(directory);
+        f.mkdirs();
+
+        final String fileName = directory + File.separator + rrdName + RrdUtils.getExtension();
+        if (new File(fileName).exists()) {
+            LOG.debug("createDefinition: filename [{}] already exists returning null as definition", fileName);
+            return null;
+        }
+        return LogStoreDefinition.create(fileName, step, dataSources, rraList);
+    }
+
+    /**
+     * Writes the header of the file.  The store itself only learns about the
+     * file when it is first opened.
+     */
+    @Override
+    public void createFile(final LogStoreDefinition rrdDef, final Map<String, String> attributeMappings) throws Exception {
+        if (rrdDef == null) {
+            LOG.debug("createRRD: skipping RRD file");
+            return;
+        }
+        LOG.info("createRRD: creating RRD file {}", rrdDef.getPath());
+
+        evictFiles(rrdDef.getPath());
+        rrdDef.write();
+
+        final String filenameWithoutExtension = rrdDef.getPath().replace(RrdUtils.getExtension(), "");
+        final int lastIndexOfSeparator = filenameWithoutExtension.lastIndexOf(File.separator);
+        RrdUtils.createMetaDataFile(
+            filenameWithoutExtension.substring(0, lastIndexOfSeparator),
+            filenameWithoutExtension.substring(lastIndexOfSeparator),
+            attributeMappings
+        );
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public LogStoreFile openFile(final String fileName) throws Exception {
+        return getStore().open(fileName);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Parses an rrdtool style <code>timestamp:value:value...</code> update.
+     */
+    @Override
+    public void updateFile(final LogStoreFile rrd, final String owner, final String data) throws Exception {
+        final String[] fields = data.split(":");
+        final long timestamp = "N".equals(fields[0]) ? System.currentTimeMillis() / 1000L : Long.parseLong(fields[0]);
+        final double[] values = new double[fields.length - 1];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = "U".equals(fields[i + 1]) ? Double.NaN : Double.parseDouble(fields[i + 1]);
+        }
+        getStore().update(rrd, timestamp, values);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(final LogStoreFile rrd, final String owner, final RrdSample sample) throws Exception {
+        getStore().update(rrd, sample.getTimestamp(), sample.getValues());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Nothing is held open for a file, so there is nothing to close.
+     */
+    @Override
+    public void closeFile(final LogStoreFile rrd) throws Exception {
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void evictFiles(final String path) {
+        final LogStore store;
+        synchronized (this) {
+            store = m_store;
+        }
+        if (store != null) {
+            store.evict(path);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValue(final String fileName, final String ds, final int interval) throws NumberFormatException, org.opennms.netmgt.rrd.RrdException {
+        return fetchLastValue(fileName, ds, "AVERAGE", interval);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValue(final String fileName, final String ds, final String consolidationFunction, final int interval) throws NumberFormatException, org.opennms.netmgt.rrd.RrdException {
+        final long now = System.currentTimeMillis();
+        final long collectTime = (now - (now % interval)) / 1000L;
+        final double[] values = fetch(fileName, ds, consolidationFunction, collectTime, collectTime).getValues();
+        if (values.length > 0) {
+            return new Double(values[values.length - 1]);
+        }
+        return null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValueInRange(final String fileName, final String ds, final int interval, final int range) throws NumberFormatException, org.opennms.netmgt.rrd.RrdException {
+        final long now = System.currentTimeMillis();
+        final long latestUpdateTime = (now - (now % interval)) / 1000L;
+        final long earliestUpdateTime = ((now - (now % interval)) - range) / 1000L;
+        LOG.debug("fetchInRange: fetching data from {} to {}", earliestUpdateTime, latestUpdateTime);
+
+        final LogStore.FetchResult result = fetch(fileName, ds, "AVERAGE", earliestUpdateTime, latestUpdateTime);
+        final double[] values = result.getValues();
+        for (int i = values.length - 1; i >= 0; i--) {
+            if (Double.isNaN(values[i])) {
+                LOG.debug("fetchInRange: Got a NaN value at interval: {} continuing back in time", result.getTimestamps()[i]);
+            } else {
+                LOG.debug("Got a non NaN value at interval: {} : {}", result.getTimestamps()[i], values[i]);
+                return new Double(values[i]);
+            }
+        }
+        return null;
+    }
+
+    private LogStore.FetchResult fetch(final String fileName, final String ds, final String consolidationFunction, final long start, final long end) throws org.opennms.netmgt.rrd.RrdException {
+        try {
+            final LogStore store = getStore();
+            return store.fetch(store.open(fileName), ds, consolidationFunction, start, end, 0);
+        } catch (final IOException e) {
+            throw new org.opennms.netmgt.rrd.RrdException("Exception occurred fetching data from " + fileName, e);
+        } catch (final IllegalArgumentException e) {
+            throw new org.opennms.netmgt.rrd.RrdException("Exception occurred fetching data from " + fileName, e);
+        }
+    }
+
+    /**
+     * Reads a DEF from the store for JRobin, or returns null if the file
+     * isn't one of this strategy's headers so that JRobin reads it itself.
+     */
+    private Plottable getPlottable(final String file, final String ds, final String consolFun, final long start, final long end) throws RrdException {
+        final LogStoreFile logStoreFile;
+        final LogStore store;
+        try {
+            store = getStore();
+            logStoreFile = store.open(file);
+        } catch (final IOException e) {
+            LOG.debug("{} is not in the store, leaving it to JRobin", file, e);
+            return null;
+        }
+        try {
+            return new FetchResultPlottable(store.fetch(logStoreFile, ds, consolFun, start, end, 0));
+        } catch (final IOException e) {
+            throw new RrdException("Unable to read " + ds + " from " + file, e);
+        } catch (final IllegalArgumentException e) {
+            throw new RrdException("Unable to read " + ds + " from " + file, e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public InputStream createGraph(final String command, final File workDir) throws IOException, org.opennms.netmgt.rrd.RrdException {
+        return m_graphStrategy.createGraph(command, workDir);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public RrdGraphDetails createGraphReturnDetails(final String command, final File workDir) throws IOException, org.opennms.netmgt.rrd.RrdException {
+        return m_graphStrategy.createGraphReturnDetails(command, workDir);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphLeftOffset() {
+        return m_graphStrategy.getGraphLeftOffset();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphRightOffset() {
+        return m_graphStrategy.getGraphRightOffset();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphTopOffsetWithText() {
+        return m_graphStrategy.getGraphTopOffsetWithText();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getStats() {
+        final LogStore store;
+        synchronized (this) {
+            store = m_store;
+        }
+        return store == null ? "The store hasn't been opened yet" : store.getStats();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void promoteEnqueuedFiles(final Collection<String> rrdFiles) {
+        // updates are buffered by the store itself
+    }
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.logstore;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Buffers the rates of recent updates in memory, per series, until they
+ * are flushed to blocks.  Buffering many points per series is what lets a
+ * flush write long, well-compressed runs instead of one small write per
+ * update.  This class isn't thread-safe; the {@link LogStore} serializes
+ * access to it.
+ */
+class MemTable {
+
+    /**
+     * The buffered points of one series.
+     */
+    static final class SeriesBuffer {
+        private final int m_seriesId;
+        private final long m_intervalStart;
+        private long[] m_timestamps = new long[8];
+        private final double[][] m_rates;
+        private double[] m_lastValues;
+        private int m_count = 0;
+
+        private SeriesBuffer(final int seriesId, final long intervalStart, final int columns) {
+            m_seriesId = seriesId;
+            m_intervalStart = intervalStart;
+            m_rates = new double[columns][8];
+        }
+
+        private void add(final long timestamp, final double[] values, final double[] rates) {
+            if (rates.length != m_rates.length) {
+                throw new IllegalArgumentException("Expected " + m_rates.length + " values for series " + m_seriesId + " but got " + rates.length);
+            }
+            if (m_count == m_timestamps.length) {
+                m_timestamps = Arrays.copyOf(m_timestamps, m_count * 2);
+                for (int i = 0; i < m_rates.length; i++) {
+                    m_rates[i] = Arrays.copyOf(m_rates[i], m_count * 2);
+                }
+            }
+            m_timestamps[m_count] = timestamp;
+            for (int i = 0; i < rates.length; i++) {
+                m_rates[i][m_count] = rates[i];
+            }
+            m_lastValues = values;
+            m_count++;
+        }
+
+        int getSeriesId() {
+            return m_seriesId;
+        }
+
+        /**
+         * @return the time of the update before the first buffered point
+         */
+        long getIntervalStart() {
+            return m_intervalStart;
+        }
+
+        long[] getTimestamps() {
+            return m_timestamps;
+        }
+
+        double[][] getRates() {
+            return m_rates;
+        }
+
+        /**
+         * @return the raw values of the last buffered update
+         */
+        double[] getLastValues() {
+            return m_lastValues;
+        }
+
+        int getCount() {
+            return m_count;
+        }
+
+        long getLastTimestamp() {
+            return m_timestamps[m_count - 1];
+        }
+
+        /**
+         * Copies one column, since the buffer keeps changing after a read.
+         */
+        Run copyColumn(final int column) {
+            return new Run(m_intervalStart, Arrays.copyOf(m_timestamps, m_count), Arrays.copyOf(m_rates[column], m_count));
+        }
+    }
+
+    private final Map<Integer, SeriesBuffer> m_series = new HashMap<Integer, SeriesBuffer>();
+    private long m_values = 0;
+
+    /**
+     * Buffers the rates of an update.
+     *
+     * @param intervalStart the time of the previous update of the series
+     */
+    void add(final int seriesId, final long intervalStart, final long timestamp, final double[] values, final double[] rates) {
+        SeriesBuffer buffer = m_series.get(seriesId);
+        if (buffer == null) {
+            buffer = new SeriesBuffer(seriesId, intervalStart, rates.length);
+            m_series.put(seriesId, buffer);
+        }
+        buffer.add(timestamp, values, rates);
+        m_values += rates.length;
+    }
+
+    SeriesBuffer get(final int seriesId) {
+        return m_series.get(seriesId);
+    }
+
+    Collection<SeriesBuffer> getSeries() {
+        return m_series.values();
+    }
+
+    /**
+     * @return the number of buffered values, over all series and columns
+     */
+    long getValueCount() {
+        return m_values;
+    }
+
+    boolean isEmpty() {
+        return m_series.isEmpty();
+    }
+}
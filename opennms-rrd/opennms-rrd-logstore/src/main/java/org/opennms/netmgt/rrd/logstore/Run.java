@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.logstore;
+
+/**
+ * Consecutive points of one column of a series, as read from a block or
+ * the memtable.  The value at <code>i</code> covers the interval from the
+ * previous timestamp (or <code>intervalStart</code> for the first point)
+ * to <code>timestamps[i]</code>.
+ */
+final class Run {
+    private final long m_intervalStart;
+    private final long[] m_timestamps;
+    private final double[] m_values;
+
+    Run(final long intervalStart, final long[] timestamps, final double[] values) {
+        m_intervalStart = intervalStart;
+        m_timestamps = timestamps;
+        m_values = values;
+    }
+
+    long getIntervalStart() {
+        return m_intervalStart;
+    }
+
+    long[] getTimestamps() {
+        return m_timestamps;
+    }
+
+    double[] getValues() {
+        return m_values;
+    }
+
+    int size() {
+        return m_timestamps.length;
+    }
+
+    long getFirstTimestamp() {
+        return m_timestamps[0];
+    }
+
+    long getLastTimestamp() {
+        return m_timestamps[m_timestamps.length - 1];
+    }
+}
@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.logstore;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compresses the points of a block column by column, the way Facebook's
+ * Gorilla does: timestamps are stored as deltas of deltas, values as the
+ * XOR against the previous value.  Regularly collected series need about
+ * one bit per timestamp and only a few bits per slowly changing value.
+ *
+ * <p>The payload is laid out as the length-prefixed timestamp column
+ * followed by each length-prefixed value column, so a reader can skip the
+ * columns it doesn't need.</p>
+ */
+final class TimeSeriesCodec {
+
+    private TimeSeriesCodec() {
+    }
+
+    /**
+     * Encodes the first <code>count</code> points of the given columns.
+     */
+    static byte[] encode(final long[] timestamps, final double[][] columns, final int count) {
+        final BitWriter timestampBits = new BitWriter(count / 4 + 16);
+        encodeTimestamps(timestampBits, timestamps, count);
+
+        final byte[][] encodedColumns = new byte[columns.length][];
+        int length = 4 + timestampBits.length();
+        for (int i = 0; i < columns.length; i++) {
+            final BitWriter valueBits = new BitWriter(count + 16);
+            encodeValues(valueBits, columns[i], count);
+            encodedColumns[i] = valueBits.toByteArray();
+            length += 4 + encodedColumns[i].length;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        final byte[] encodedTimestamps = timestampBits.toByteArray();
+        buffer.putInt(encodedTimestamps.length);
+        buffer.put(encodedTimestamps);
+        for (final byte[] encodedColumn : encodedColumns) {
+            buffer.putInt(encodedColumn.length);
+            buffer.put(encodedColumn);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes the timestamp column of a payload.
+     */
+    static long[] decodeTimestamps(final ByteBuffer payload, final int count) {
+        final ByteBuffer buffer = payload.duplicate();
+        final int length = buffer.getInt();
+        buffer.limit(buffer.position() + length);
+
+        final long[] timestamps = new long[count];
+        final BitReader in = new BitReader(buffer);
+        long delta = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                timestamps[0] = in.read(64);
+                continue;
+            }
+            final long deltaOfDelta;
+            if (!in.readBit()) {
+                deltaOfDelta = 0;
+            } else if (!in.readBit()) {
+                deltaOfDelta = in.read(7) - 63;
+            } else if (!in.readBit()) {
+                deltaOfDelta = in.read(9) - 255;
+            } else if (!in.readBit()) {
+                deltaOfDelta = in.read(12) - 2047;
+            } else {
+                deltaOfDelta = in.read(64);
+            }
+            delta += deltaOfDelta;
+            timestamps[i] = timestamps[i - 1] + delta;
+        }
+        return timestamps;
+    }
+
+    /**
+     * Decodes one value column of a payload without decoding the others.
+     */
+    static double[] decodeColumn(final ByteBuffer payload, final int count, final int column) {
+        final ByteBuffer buffer = payload.duplicate();
+        buffer.position(buffer.position() + 4 + buffer.getInt(buffer.position()));
+        for (int i = 0; i < column; i++) {
+            buffer.position(buffer.position() + 4 + buffer.getInt(buffer.position()));
+        }
+        final int length = buffer.getInt();
+        buffer.limit(buffer.position() + length);
+
+        final double[] values = new double[count];
+        final BitReader in = new BitReader(buffer);
+        long previous = 0;
+        int leading = -1;
+        int trailing = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                previous = in.read(64);
+            } else if (in.readBit()) {
+                if (in.readBit()) {
+                    leading = (int)in.read(5);
+                    int meaningful = (int)in.read(6);
+                    if (meaningful == 0) {
+                        meaningful = 64;
+                    }
+                    trailing = 64 - leading - meaningful;
+                }
+                previous ^= in.read(64 - leading - trailing) << trailing;
+            }
+            values[i] = Double.longBitsToDouble(previous);
+        }
+        return values;
+    }
+
+    private static void encodeTimestamps(final BitWriter out, final long[] timestamps, final int count) {
+        long delta = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                out.write(timestamps[0], 64);
+                continue;
+            }
+            final long newDelta = timestamps[i] - timestamps[i - 1];
+            final long deltaOfDelta = newDelta - delta;
+            delta = newDelta;
+            if (deltaOfDelta == 0) {
+                out.write(0, 1);
+            } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+                out.write(0x2, 2);
+                out.write(deltaOfDelta + 63, 7);
+            } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+                out.write(0x6, 3);
+                out.write(deltaOfDelta + 255, 9);
+            } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+                out.write(0xe, 4);
+                out.write(deltaOfDelta + 2047, 12);
+            } else {
+                out.write(0xf, 4);
+                out.write(deltaOfDelta, 64);
+            }
+        }
+    }
+
+    private static void encodeValues(final BitWriter out, final double[] values, final int count) {
+        long previous = 0;
+        int leading = -1;
+        int trailing = 0;
+        for (int i = 0; i < count; i++) {
+            final long bits = Double.doubleToRawLongBits(values[i]);
+            if (i == 0) {
+                out.write(bits, 64);
+                previous = bits;
+                continue;
+            }
+            final long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.write(0, 1);
+                continue;
+            }
+            out.write(1, 1);
+
+            final int newLeading = Math.min(31, Long.numberOfLeadingZeros(xor));
+            final int newTrailing = Long.numberOfTrailingZeros(xor);
+            if (leading >= 0 && newLeading >= leading && newTrailing >= trailing) {
+                // the meaningful bits fit in the previous window
+                out.write(0, 1);
+            } else {
+                leading = newLeading;
+                trailing = newTrailing;
+                final int meaningful = 64 - leading - trailing;
+                out.write(1, 1);
+                out.write(leading, 5);
+                out.write(meaningful == 64 ? 0 : meaningful, 6);
+            }
+            out.write(xor >>> trailing, 64 - leading - trailing);
+        }
+    }
+
+    /**
+     * Writes big-endian bit strings into a growing byte array.
+     */
+    static final class BitWriter {
+        private byte[] m_bytes;
+        private int m_length = 0;
+        private int m_current = 0;
+        private int m_bits = 0;
+
+        BitWriter(final int capacity) {
+            m_bytes = new byte[Math.max(16, capacity)];
+        }
+
+        /**
+         * Writes the lowest <code>bits</code> bits of <code>value</code>.
+         */
+        void write(final long value, int bits) {
+            while (bits > 0) {
+                final int n = Math.min(8 - m_bits, bits);
+                final int chunk = (int)(value >>> (bits - n)) & ((1 << n) - 1);
+                m_current = (m_current << n) | chunk;
+                m_bits += n;
+                bits -= n;
+                if (m_bits == 8) {
+                    append((byte)m_current);
+                    m_current = 0;
+                    m_bits = 0;
+                }
+            }
+        }
+
+        private void append(final byte b) {
+            if (m_length == m_bytes.length) {
+                m_bytes = Arrays.copyOf(m_bytes, m_bytes.length * 2);
+            }
+            m_bytes[m_length++] = b;
+        }
+
+        int length() {
+            return m_length + (m_bits > 0 ? 1 : 0);
+        }
+
+        byte[] toByteArray() {
+            final byte[] bytes = Arrays.copyOf(m_bytes, length());
+            if (m_bits > 0) {
+                bytes[m_length] = (byte)(m_current << (8 - m_bits));
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Reads the bit strings written by a {@link BitWriter}.
+     */
+    static final class BitReader {
+        private final ByteBuffer m_buffer;
+        private int m_current = 0;
+        private int m_bits = 0;
+
+        BitReader(final ByteBuffer buffer) {
+            m_buffer = buffer;
+        }
+
+        boolean readBit() {
+            return read(1) != 0;
+        }
+
+        long read(int bits) {
+            long value = 0;
+            while (bits > 0) {
+                if (m_bits == 0) {
+                    m_current = m_buffer.get() & 0xff;
+                    m_bits = 8;
+                }
+                final int n = Math.min(m_bits, bits);
+                value = (value << n) | ((m_current >>> (m_bits - n)) & ((1 << n) - 1));
+                m_bits -= n;
+                bits -= n;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.logstore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs every update to memory-mapped, preallocated segment files before it
+ * is applied to the memtable, so that updates which haven't been flushed
+ * to blocks yet survive a restart.
+ *
+ * <p>Appending is a copy into the mapping: the kernel writes the pages back
+ * sequentially in the background.  Each record is checksummed so that a
+ * torn record at the end of a segment ends the replay instead of producing
+ * garbage.  The log is rotated to a new segment whenever the memtable is
+ * frozen for a flush, so that whole segments can be deleted once the flush
+ * has been written.  This class isn't thread-safe; the {@link LogStore}
+ * serializes access to it.</p>
+ */
+class WriteAheadLog implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+
+    private final File m_directory;
+    private final int m_segmentSize;
+    private final CRC32 m_crc = new CRC32();
+
+    private long m_sequence = 0;
+    private MappedByteBuffer m_segment;
+    private ByteBuffer m_record = ByteBuffer.allocate(256);
+
+    /**
+     * Receives the records of the log when it is replayed.
+     */
+    interface Replay {
+        void record(int seriesId, long timestamp, double[] values, double[] rates);
+    }
+
+    WriteAheadLog(final File directory, final int segmentSize) {
+        m_directory = directory;
+        m_segmentSize = segmentSize;
+    }
+
+    /**
+     * Replays the records of the existing segments, oldest first.  This must
+     * be called once, before the first append.
+     *
+     * @return the number of records replayed
+     */
+    long replay(final Replay replay) throws IOException {
+        long records = 0;
+        for (final File file : listSegments()) {
+            m_sequence = Math.max(m_sequence, getSequence(file));
+
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                records += replay(file, buffer, replay);
+            } finally {
+                raf.close();
+            }
+        }
+        return records;
+    }
+
+    private long replay(final File file, final ByteBuffer buffer, final Replay replay) {
+        long records = 0;
+        while (buffer.remaining() >= 8) {
+            final int length = buffer.getInt();
+            if (length <= 0) {
+                break;
+            }
+            final int checksum = buffer.getInt();
+            if (length > buffer.remaining()) {
+                LOG.warn("Truncated record at offset {} of {}, ignoring the rest of the segment", buffer.position() - 8, file);
+                break;
+            }
+
+            final byte[] body = new byte[length];
+            buffer.get(body);
+            m_crc.reset();
+            m_crc.update(body, 0, length);
+            if ((int)m_crc.getValue() != checksum) {
+                LOG.warn("Corrupt record at offset {} of {}, ignoring the rest of the segment", buffer.position() - length - 8, file);
+                break;
+            }
+
+            final ByteBuffer record = ByteBuffer.wrap(body);
+            final int seriesId = record.getInt();
+            final long timestamp = record.getLong();
+            final int count = record.getShort();
+            final double[] values = new double[count];
+            final double[] rates = new double[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = record.getDouble();
+            }
+            for (int i = 0; i < count; i++) {
+                rates[i] = record.getDouble();
+            }
+            replay.record(seriesId, timestamp, values, rates);
+            records++;
+        }
+        return records;
+    }
+
+    /**
+     * Appends an update.
+     */
+    void append(final int seriesId, final long timestamp, final double[] values, final double[] rates) throws IOException {
+        final int length = 4 + 8 + 2 + 16 * values.length;
+        if (length + 8 > m_segmentSize) {
+            throw new IllegalArgumentException("An update of " + values.length + " values doesn't fit in a log segment");
+        }
+        if (m_record.capacity() < length) {
+            m_record = ByteBuffer.allocate(length);
+        }
+
+        m_record.clear();
+        m_record.putInt(seriesId);
+        m_record.putLong(timestamp);
+        m_record.putShort((short)values.length);
+        for (final double value : values) {
+            m_record.putDouble(value);
+        }
+        for (final double rate : rates) {
+            m_record.putDouble(rate);
+        }
+        m_crc.reset();
+        m_crc.update(m_record.array(), 0, length);
+
+        if (m_segment == null || m_segment.remaining() < length + 8) {
+            rotate();
+        }
+        m_segment.putInt(length);
+        m_segment.putInt((int)m_crc.getValue());
+        m_segment.put(m_record.array(), 0, length);
+    }
+
+    /**
+     * Starts a new segment.  Everything appended before this call is in
+     * segments older than the returned sequence number.
+     *
+     * @return the sequence number of the new segment
+     */
+    long rotate() throws IOException {
+        m_sequence++;
+        final File file = getSegment(m_sequence);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(m_segmentSize);
+            m_segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, m_segmentSize);
+        } finally {
+            raf.close();
+        }
+        return m_sequence;
+    }
+
+    /**
+     * Deletes the segments older than the given sequence number.
+     */
+    void deleteBefore(final long sequence) {
+        for (final File file : listSegments()) {
+            if (getSequence(file) < sequence && !file.delete()) {
+                LOG.warn("Unable to delete log segment {}", file);
+            }
+        }
+    }
+
+    /**
+     * Forces the current segment to disk.
+     */
+    void force() {
+        if (m_segment != null) {
+            m_segment.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        force();
+        // the mapping itself is released when the buffer is garbage collected
+        m_segment = null;
+    }
+
+    private File getSegment(final long sequence) {
+        return new File(m_directory, String.format("%s%016x%s", PREFIX, sequence, SUFFIX));
+    }
+
+    private static long getSequence(final File file) {
+        final String name = file.getName();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()), 16);
+    }
+
+    private File[] listSegments() {
+        final File[] files = m_directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(final File file) {
+                return file.isFile() && file.getName().matches(PREFIX + "[0-9a-f]{16}" + SUFFIX.replace(".", "\\."));
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.logstore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.Sample;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.rrd.logstore.LogStore.FetchResult;
+import org.opennms.test.FileAnticipator;
+
+/**
+ * Verifies that {@link LogStoreConverter} leaves nothing behind when an
+ * import fails, so that the file is converted again the next time.
+ */
+public class LogStoreConverterTest {
+
+    private static final long START = 1400000000L - 1400000000L % 3600;
+
+    private FileAnticipator m_fileAnticipator;
+    private FailingLogStore m_store;
+    private File m_source;
+
+    /**
+     * Fails the first import of rollup rows, as a full disk would.
+     */
+    private static class FailingLogStore extends LogStore {
+        private boolean m_fail = true;
+
+        public FailingLogStore(final File directory) {
+            super(directory, 64 * 1024, 1024 * 1024, Long.MAX_VALUE);
+        }
+
+        @Override
+        public void importRows(final LogStoreFile file, final int archiveIndex, final long[] timestamps, final double[][] values) throws IOException {
+            if (m_fail) {
+                m_fail = false;
+                throw new IOException("No space left on device");
+            }
+            super.importRows(file, archiveIndex, timestamps, values);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(true, "INFO");
+
+        m_fileAnticipator = new FileAnticipator();
+        m_store = new FailingLogStore(m_fileAnticipator.tempDir("logstore"));
+        m_store.open();
+
+        m_source = new File(m_fileAnticipator.tempDir("rrd"), "gauge.jrb");
+        final RrdDef def = new RrdDef(m_source.getAbsolutePath(), START, 300);
+        def.addDatasource("value", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addArchive("AVERAGE", 0.5, 1, 288);
+        def.addArchive("AVERAGE", 0.5, 12, 100);
+        final RrdDb db = new RrdDb(def);
+        try {
+            for (int i = 1; i <= 36; i++) {
+                final Sample sample = db.createSample(START + i * 300);
+                sample.setValue(0, i);
+                sample.update();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_store.close();
+        m_fileAnticipator.tearDown();
+    }
+
+    @Test
+    public void testFailedImportIsConvertedAgain() throws Exception {
+        final LogStoreConverter converter = new LogStoreConverter(m_store);
+        final File header = new File(m_source.getParentFile(), "gauge.lss");
+
+        try {
+            converter.convert(m_source);
+            fail("The import of the rollup rows should have failed");
+        } catch (final IOException e) {
+            assertEquals("No space left on device", e.getMessage());
+        }
+        assertFalse(header.exists());
+        assertEquals(0, m_store.getBlockCount());
+
+        assertEquals(header.getAbsoluteFile(), converter.convert(m_source).getAbsoluteFile());
+        assertTrue(header.exists());
+        assertEquals(2, m_store.getBlockCount());
+
+        final FetchResult result = m_store.fetch(m_store.open(header.getAbsolutePath()), "value", "AVERAGE", START + 300, START + 3600, 300);
+        for (int i = 0; i < 12; i++) {
+            assertEquals(i + 1, result.getValues()[i], 0.0);
+        }
+
+        assertNull(converter.convert(m_source));
+    }
+}
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.logstore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.jrobin.data.DataProcessor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.rrd.RrdDataSource;
+import org.opennms.netmgt.rrd.RrdStrategy;
+import org.opennms.netmgt.rrd.RrdUtils;
+import org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy;
+import org.opennms.netmgt.rrd.logstore.LogStore.FetchResult;
+import org.opennms.test.FileAnticipator;
+
+/**
+ * Writes the same counters through {@link LogStoreRrdStrategy} and
+ * {@link JRobinRrdStrategy}, verifying that both return the same values
+ * and printing the write and read throughput of each, and converts JRobin
+ * files into the store.
+ */
+public class LogStoreRrdStrategyTest {
+
+    private static final int FILES = 200;
+    private static final int DATASOURCES = 10;
+    private static final int UPDATES = 288;
+    private static final int STEP = 300;
+    private static final long START = 1400000000L - 1400000000L % 3600;
+    private static final List<String> RRAS = Arrays.asList("RRA:AVERAGE:0.5:1:2016", "RRA:AVERAGE:0.5:12:1488", "RRA:MAX:0.5:12:1488");
+
+    private FileAnticipator m_fileAnticipator;
+    private RrdStrategy<?, ?> m_previousStrategy;
+    private JRobinRrdStrategy m_jrobin;
+    private LogStoreRrdStrategy m_logStore;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(true, "WARN");
+        m_previousStrategy = RrdUtils.getStrategy();
+        m_fileAnticipator = new FileAnticipator();
+
+        m_jrobin = new JRobinRrdStrategy();
+        m_jrobin.setConfigurationProperties(new Properties());
+
+        final Properties properties = new Properties();
+        properties.setProperty("org.opennms.rrd.logstore.directory", m_fileAnticipator.tempDir("logstore").getAbsolutePath());
+        m_logStore = new LogStoreRrdStrategy();
+        m_logStore.setConfigurationProperties(properties);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_logStore.getStore().close();
+        RrdUtils.setStrategy(m_previousStrategy);
+        m_fileAnticipator.tearDown();
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        final List<String> jrobinFiles = createFiles(m_jrobin, m_fileAnticipator.tempDir("jrobin"), FILES);
+        final List<String> logStoreFiles = createFiles(m_logStore, m_fileAnticipator.tempDir("lss"), FILES);
+
+        final long jrobinWrite = write(m_jrobin, jrobinFiles);
+        final long logStoreWrite = write(m_logStore, logStoreFiles);
+        // the rollups happen in the background, so they are part of the write cost
+        long start = System.currentTimeMillis();
+        m_logStore.getStore().flush();
+        m_logStore.getStore().maintain();
+        final long logStoreMaintain = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        final double[] jrobinValues = read(m_jrobin, jrobinFiles);
+        final long jrobinRead = Math.max(1, System.currentTimeMillis() - start);
+        start = System.currentTimeMillis();
+        final double[] logStoreValues = read(m_logStore.getGraphStrategy(), logStoreFiles);
+        final long logStoreRead = Math.max(1, System.currentTimeMillis() - start);
+
+        final int values = FILES * DATASOURCES * UPDATES;
+        System.err.printf("JRobin writes: %d values: Elapsed: %d ms: values per second %f.%n", values, jrobinWrite, values * 1000.0 / jrobinWrite);
+        System.err.printf("LogStore writes: %d values: Elapsed: %d ms (%d ms maintenance): values per second %f.%n", values, logStoreWrite + logStoreMaintain, logStoreMaintain, values * 1000.0 / (logStoreWrite + logStoreMaintain));
+        System.err.printf("JRobin reads: %d files: Elapsed: %d ms: files per second %f.%n", FILES, jrobinRead, FILES * 1000.0 / jrobinRead);
+        System.err.printf("LogStore reads: %d files: Elapsed: %d ms: files per second %f.%n", FILES, logStoreRead, FILES * 1000.0 / logStoreRead);
+        System.err.println(m_logStore.getStats());
+
+        for (int i = 0; i < FILES; i++) {
+            assertEquals(jrobinValues[i], logStoreValues[i], 0.0001);
+            assertEquals(m_jrobin.fetchLastValue(jrobinFiles.get(i), "ds1", STEP * 1000), m_logStore.fetchLastValue(logStoreFiles.get(i), "ds1", STEP * 1000), 0.0001);
+        }
+    }
+
+    @Test
+    public void testConvert() throws Exception {
+        final List<String> files = createFiles(m_jrobin, m_fileAnticipator.tempDir("convert"), 1);
+        write(m_jrobin, files);
+        final File source = new File(files.get(0));
+
+        final File header = new LogStoreConverter(m_logStore.getStore()).convert(source);
+        assertNotNull(header);
+
+        final LogStoreFile file = m_logStore.openFile(header.getAbsolutePath());
+        final long end = START + UPDATES * STEP;
+        final FetchResult result = m_logStore.getStore().fetch(file, "ds2", "AVERAGE", end - 12 * STEP, end, STEP);
+        final DataProcessor dataProcessor = new DataProcessor(end - 12 * STEP, end);
+        dataProcessor.setFetchRequestResolution(STEP);
+        dataProcessor.addDatasource("ds2", source.getAbsolutePath(), "ds2", "AVERAGE");
+        dataProcessor.processData();
+        for (int i = 0; i < result.getTimestamps().length; i++) {
+            assertEquals(dataProcessor.getValues("ds2")[i], result.getValues()[i], 0.0001);
+        }
+        assertEquals(3.0, result.getValues()[result.getValues().length - 1], 0.0001);
+
+        // the counters carry on from the converted values
+        final StringBuilder update = new StringBuilder().append(end + STEP);
+        for (int ds = 0; ds < DATASOURCES; ds++) {
+            update.append(':').append(getCounter(ds, UPDATES + 1));
+        }
+        m_logStore.updateFile(file, "test", update.toString());
+        assertEquals(3.0, m_logStore.fetchLastValue(header.getAbsolutePath(), "ds2", STEP * 1000), 0.0001);
+    }
+
+    private <D, F> List<String> createFiles(final RrdStrategy<D, F> strategy, final File directory, final int count) throws Exception {
+        RrdUtils.setStrategy(strategy);
+        final List<RrdDataSource> dataSources = new ArrayList<RrdDataSource>();
+        for (int ds = 0; ds < DATASOURCES; ds++) {
+            dataSources.add(new RrdDataSource("ds" + ds, "COUNTER", STEP * 2, "U", "U"));
+        }
+        final List<String> files = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            final D definition = strategy.createDefinition("test", directory.getAbsolutePath(), "file" + i, STEP, dataSources, RRAS);
+            strategy.createFile(definition, null);
+            files.add(directory.getAbsolutePath() + File.separator + "file" + i + RrdUtils.getExtension());
+        }
+        return files;
+    }
+
+    /**
+     * Collection order: every file is updated once per step.
+     */
+    private <D, F> long write(final RrdStrategy<D, F> strategy, final List<String> files) throws Exception {
+        RrdUtils.setStrategy(strategy);
+        final long start = System.currentTimeMillis();
+        for (int update = 0; update <= UPDATES; update++) {
+            for (final String path : files) {
+                final StringBuilder data = new StringBuilder().append(START + update * STEP);
+                for (int ds = 0; ds < DATASOURCES; ds++) {
+                    data.append(':').append(getCounter(ds, update));
+                }
+                final F file = strategy.openFile(path);
+                strategy.updateFile(file, "test", data.toString());
+                strategy.closeFile(file);
+            }
+        }
+        return Math.max(1, System.currentTimeMillis() - start);
+    }
+
+    private static long getCounter(final int ds, final int update) {
+        return 1000000L + (long)update * STEP * (ds + 1);
+    }
+
+    /**
+     * Reads the last day of ds0 at the finest resolution and returns the
+     * sum of the rows of each file.
+     */
+    private static double[] read(final JRobinRrdStrategy strategy, final List<String> files) throws Exception {
+        final long end = START + UPDATES * STEP;
+        final double[] sums = new double[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            final DataProcessor dataProcessor = new DataProcessor(START, end);
+            dataProcessor.setFetchRequestResolution(STEP);
+            strategy.addDatasource(dataProcessor, "ds0", files.get(i), "ds0", "AVERAGE", START, end);
+            dataProcessor.processData();
+            for (final double value : dataProcessor.getValues("ds0")) {
+                if (!Double.isNaN(value)) {
+                    sums[i] += value;
+                }
+            }
+        }
+        return sums;
+    }
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.logstore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.rrd.RrdDataSource;
+import org.opennms.netmgt.rrd.logstore.LogStore.FetchResult;
+import org.opennms.test.FileAnticipator;
+
+/**
+ * Verifies that {@link LogStore} returns what was written to it across
+ * flushes, restarts, rollups, merges and compactions.
+ */
+public class LogStoreTest {
+
+    private static final long START = 1400000000L - 1400000000L % 3600;
+
+    private FileAnticipator m_fileAnticipator;
+    private File m_directory;
+    private LogStore m_store;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(true, "INFO");
+
+        m_fileAnticipator = new FileAnticipator();
+        m_directory = m_fileAnticipator.tempDir("logstore");
+        m_store = openStore();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_store.close();
+        m_fileAnticipator.tearDown();
+    }
+
+    private LogStore openStore() throws Exception {
+        final LogStore store = new LogStore(m_directory, 64 * 1024, 1024 * 1024, Long.MAX_VALUE);
+        store.open();
+        return store;
+    }
+
+    private LogStoreFile createFile(final String name, final String type) throws Exception {
+        final String path = new File(m_directory, name + ".lss").getAbsolutePath();
+        final LogStoreDefinition definition = LogStoreDefinition.create(path, 300,
+                Arrays.asList(new RrdDataSource("value", type, 600, "U", "U")),
+                Arrays.asList("RRA:AVERAGE:0.5:1:288", "RRA:AVERAGE:0.5:12:100", "RRA:MAX:0.5:12:100"));
+        definition.write();
+        return m_store.open(path);
+    }
+
+    @Test
+    public void testGaugeUpdatesAreFetched() throws Exception {
+        final LogStoreFile file = createFile("gauge", "GAUGE");
+        for (int i = 0; i <= 12; i++) {
+            m_store.update(file, START + i * 300, new double[] { i });
+        }
+
+        assertGauge(file);
+        m_store.flush();
+        assertEquals(1, m_store.getFlushes());
+        assertEquals(0, m_store.getBufferedValues());
+        assertGauge(file);
+    }
+
+    private void assertGauge(final LogStoreFile file) throws Exception {
+        final FetchResult result = m_store.fetch(file, "value", "AVERAGE", START + 300, START + 3600, 300);
+        assertEquals(300, result.getStep());
+        assertEquals(START + 300, result.getTimestamps()[0]);
+        for (int i = 0; i < 12; i++) {
+            assertEquals(i + 1, result.getValues()[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testCounterRates() throws Exception {
+        final LogStoreFile file = createFile("counter", "COUNTER");
+        m_store.update(file, START, new double[] { 1000 });
+        m_store.update(file, START + 300, new double[] { 4000 });
+        // the 32-bit counter wraps
+        m_store.update(file, START + 600, new double[] { 4294967296.0 - 2000 + 1000 });
+        m_store.update(file, START + 900, new double[] { Double.NaN });
+
+        final FetchResult result = m_store.fetch(file, "value", "AVERAGE", START + 300, START + 900, 300);
+        assertEquals(10.0, result.getValues()[0], 0.0001);
+        assertEquals(4294962296.0 / 300, result.getValues()[1], 0.0001);
+        assertTrue(Double.isNaN(result.getValues()[2]));
+    }
+
+    @Test
+    public void testOldSamplesAreRejected() throws Exception {
+        final LogStoreFile file = createFile("gauge", "GAUGE");
+        m_store.update(file, START, new double[] { 1 });
+        try {
+            m_store.update(file, START, new double[] { 2 });
+            fail("expected an IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        final LogStoreFile file = createFile("gauge", "GAUGE");
+        for (int i = 0; i <= 6; i++) {
+            m_store.update(file, START + i * 300, new double[] { i });
+        }
+        m_store.flush();
+        for (int i = 7; i <= 12; i++) {
+            m_store.update(file, START + i * 300, new double[] { i });
+        }
+        m_store.close();
+
+        m_store = openStore();
+        final LogStoreFile reopened = m_store.open(file.getPath());
+        assertEquals(file.getSeriesId(), reopened.getSeriesId());
+        assertEquals(START + 3600, m_store.getLastUpdate(reopened.getSeriesId()));
+        assertGauge(reopened);
+
+        // the last value was kept, so the next update doesn't start a new series
+        m_store.update(reopened, START + 3900, new double[] { 13 });
+        assertEquals(13.0, m_store.fetch(reopened, "value", "AVERAGE", START + 3900, START + 3900, 300).getValues()[0], 0.0);
+    }
+
+    @Test
+    public void testUnflushedUpdatesAreReplayed() throws Exception {
+        final File directory = m_fileAnticipator.tempDir("wal");
+        final WriteAheadLog wal = new WriteAheadLog(directory, 4096);
+        wal.replay(new WriteAheadLog.Replay() {
+            @Override
+            public void record(final int seriesId, final long timestamp, final double[] values, final double[] rates) {
+                fail("the log should be empty");
+            }
+        });
+        // enough records to span several segments
+        for (int i = 0; i < 500; i++) {
+            wal.append(i % 3, START + i, new double[] { i, -i }, new double[] { Double.NaN, i / 2.0 });
+        }
+        wal.close();
+
+        final List<Long> timestamps = new ArrayList<Long>();
+        final WriteAheadLog reopened = new WriteAheadLog(directory, 4096);
+        reopened.replay(new WriteAheadLog.Replay() {
+            @Override
+            public void record(final int seriesId, final long timestamp, final double[] values, final double[] rates) {
+                final int i = timestamps.size();
+                assertEquals(i % 3, seriesId);
+                assertArrayEquals(new double[] { i, -i }, values, 0.0);
+                assertEquals(i / 2.0, rates[1], 0.0);
+                timestamps.add(timestamp);
+            }
+        });
+        reopened.close();
+        assertEquals(500, timestamps.size());
+        assertEquals(START + 499, timestamps.get(499).longValue());
+    }
+
+    @Test
+    public void testRollupMergeAndCompact() throws Exception {
+        final LogStoreFile file = createFile("gauge", "GAUGE");
+        // 24 hours, flushed every hour so that there are many small blocks
+        m_store.update(file, START, new double[] { 0 });
+        for (int hour = 0; hour < 24; hour++) {
+            for (int i = 1; i <= 12; i++) {
+                m_store.update(file, START + hour * 3600 + i * 300, new double[] { hour * 100 + i });
+            }
+            m_store.flush();
+        }
+        m_store.maintain();
+
+        assertTrue(m_store.getRollupBlocks() > 0);
+        assertTrue(m_store.getMergedBlocks() > 0);
+
+        final FetchResult average = m_store.fetch(file, "value", "AVERAGE", START, START + 24 * 3600, 3600);
+        assertEquals(3600, average.getStep());
+        final FetchResult max = m_store.fetch(file, "value", "MAX", START, START + 24 * 3600, 3600);
+        for (int hour = 0; hour < 24; hour++) {
+            assertEquals(START + (hour + 1) * 3600, average.getTimestamps()[hour + 1]);
+            assertEquals(hour * 100 + 6.5, average.getValues()[hour + 1], 0.0001);
+            assertEquals(hour * 100 + 12, max.getValues()[hour + 1], 0.0001);
+        }
+
+        // the rates outlive the single-step archive until they have been rolled up
+        final FetchResult raw = m_store.fetch(file, "value", "AVERAGE", START + 23 * 3600 + 300, START + 24 * 3600, 300);
+        assertEquals(300, raw.getStep());
+        assertEquals(2301.0, raw.getValues()[0], 0.0);
+
+        m_store.close();
+        m_store = openStore();
+        final LogStoreFile reopened = m_store.open(file.getPath());
+        assertArrayEquals(average.getValues(), m_store.fetch(reopened, "value", "AVERAGE", START, START + 24 * 3600, 3600).getValues(), 0.0);
+    }
+
+    @Test
+    public void testRemovedSeriesAreDropped() throws Exception {
+        final LogStoreFile file = createFile("gauge", "GAUGE");
+        for (int i = 1; i <= 24; i++) {
+            m_store.update(file, START + i * 300, new double[] { i });
+        }
+        m_store.flush();
+        assertTrue(m_store.getBlockCount() > 0);
+
+        assertTrue(new File(file.getPath()).delete());
+        m_store.evict(file.getPath());
+        m_store.maintain();
+
+        assertEquals(0, m_store.getBlockCount());
+        assertTrue(m_store.getExpiredBlocks() > 0);
+    }
+}
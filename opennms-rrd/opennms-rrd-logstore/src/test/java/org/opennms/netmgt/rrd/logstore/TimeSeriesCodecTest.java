@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.logstore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Verifies that {@link TimeSeriesCodec} round-trips timestamps and values
+ * exactly, whatever their spacing.
+ */
+public class TimeSeriesCodecTest {
+
+    @Test
+    public void testRegularSeriesCompresses() {
+        final int count = 1000;
+        final long[] timestamps = new long[count];
+        final double[][] columns = new double[2][count];
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = 1400000000L + i * 300;
+            columns[0][i] = 42.0;
+            columns[1][i] = i % 10;
+        }
+
+        final byte[] encoded = TimeSeriesCodec.encode(timestamps, columns, count);
+        assertRoundTrip(timestamps, columns, count, encoded);
+        // 24 bytes per point uncompressed
+        assertTrue("encoded " + encoded.length + " bytes", encoded.length < count * 24 / 4);
+    }
+
+    @Test
+    public void testIrregularSeries() {
+        final Random random = new Random(1);
+        final int count = 5000;
+        final long[] timestamps = new long[count];
+        final double[][] columns = new double[3][count];
+        long timestamp = 1400000000L;
+        for (int i = 0; i < count; i++) {
+            // exercise every delta-of-delta bucket
+            switch (random.nextInt(5)) {
+            case 0: timestamp += 300; break;
+            case 1: timestamp += 300 + random.nextInt(100); break;
+            case 2: timestamp += 1 + random.nextInt(500); break;
+            case 3: timestamp += 1 + random.nextInt(4000); break;
+            default: timestamp += 1 + random.nextInt(Integer.MAX_VALUE); break;
+            }
+            timestamps[i] = timestamp;
+            columns[0][i] = random.nextDouble() * 1e9;
+            columns[1][i] = random.nextInt(3) == 0 ? Double.NaN : random.nextInt(100);
+            columns[2][i] = random.nextBoolean() ? -0.0 : Double.longBitsToDouble(random.nextLong());
+        }
+
+        assertRoundTrip(timestamps, columns, count, TimeSeriesCodec.encode(timestamps, columns, count));
+    }
+
+    @Test
+    public void testSinglePoint() {
+        final long[] timestamps = new long[] { 300 };
+        final double[][] columns = new double[][] { { Double.NaN }, { 1.5 } };
+        assertRoundTrip(timestamps, columns, 1, TimeSeriesCodec.encode(timestamps, columns, 1));
+    }
+
+    private static void assertRoundTrip(final long[] timestamps, final double[][] columns, final int count, final byte[] encoded) {
+        final ByteBuffer payload = ByteBuffer.wrap(encoded);
+        assertArrayEquals(timestamps, TimeSeriesCodec.decodeTimestamps(payload, count));
+        for (int column = 0; column < columns.length; column++) {
+            final double[] decoded = TimeSeriesCodec.decodeColumn(payload, count, column);
+            assertEquals(count, decoded.length);
+            for (int i = 0; i < count; i++) {
+                assertEquals("column " + column + " point " + i, Double.doubleToRawLongBits(columns[column][i]), Double.doubleToRawLongBits(decoded[i]));
+            }
+        }
+    }
+}
@@ -29,8 +29,10 @@
 package org.opennms.netmgt.collectd;
 
 import java.io.File;
+import java.util.concurrent.Executor;
 
 import org.opennms.core.logging.Logging;
+import org.opennms.core.utils.CallbackFuture;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.collectd.Collectd.SchedulingCompletedFlag;
 import org.opennms.netmgt.collection.api.CollectionAgent;
@@ -51,8 +53,10 @@ import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.ResourceTypeUtils;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.rrd.RrdRepository;
+import org.opennms.netmgt.rrd.RrdUtils;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.SchedulingExecutor;
 import org.opennms.netmgt.threshd.ThresholdingVisitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -105,6 +109,12 @@ final class CollectableService implements ReadyRunnable {
      */
     private static final boolean ABORT_COLLECTION = true;
 
+    /**
+     * Whether collectors that support it collect without holding a collectd
+     * thread until the collection completes.
+     */
+    private static final boolean ASYNC_COLLECTION = Boolean.valueOf(System.getProperty("org.opennms.netmgt.collectd.asyncCollection", "true"));
+
 	private final CollectionSpecification m_spec;
 
 	private final SchedulingCompletedFlag m_schedulingCompletedFlag;
@@ -119,6 +129,8 @@ final class CollectableService implements ReadyRunnable {
     
     private final RrdRepository m_repository;
 
+    private final Executor m_executor;
+
     /**
      * Constructs a new instance of a CollectableService object.
      *
@@ -134,6 +146,7 @@ final class CollectableService implements ReadyRunnable {
         m_agent = DefaultCollectionAgent.create(iface.getId(), ifaceDao, transMgr);
         m_spec = spec;
         m_scheduler = scheduler;
+        m_executor = new SchedulingExecutor(scheduler);
         m_schedulingCompletedFlag = schedulingCompletedFlag;
         m_ifaceDao = ifaceDao;
         m_transMgr = transMgr;
@@ -318,28 +331,89 @@ final class CollectableService implements ReadyRunnable {
          * that the collection should be skipped.
          */
         if (!m_spec.scheduledOutage(m_agent)) {
-            try {
-                doCollection();
-                updateStatus(ServiceCollector.COLLECTION_SUCCEEDED, null);
-            } catch (CollectionTimedOut e) {
-                LOG.info(e.getMessage());
-                updateStatus(ServiceCollector.COLLECTION_FAILED, e);
-            } catch (CollectionWarning e) {
-                LOG.warn(e.getMessage(), e);
-                updateStatus(ServiceCollector.COLLECTION_FAILED, e);
-            } catch (CollectionException e) {
-                LOG.error(e.getMessage(), e);
-                updateStatus(ServiceCollector.COLLECTION_FAILED, e);
-            } catch (Throwable e) {
-                LOG.error(e.getMessage(), e);
-                updateStatus(ServiceCollector.COLLECTION_FAILED, new CollectionException("Collection failed unexpectedly: " + e.getClass().getSimpleName() + ": " + e.getMessage(), e));
+            final CallbackFuture<CollectionSet> future = startCollection();
+            if (future != null) {
+                // the thread goes back to the scheduler; the service is rescheduled once the collection completes
+                future.addCallback(new CallbackFuture.Callback<CollectionSet>() {
+                    @Override
+                    public void onSuccess(CollectionSet collectionSet) {
+                        collectionComplete(future);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        collectionComplete(future);
+                    }
+                }, m_executor);
+                return;
             }
+            collect(null);
         }
         
     	// Reschedule the service
         m_scheduler.schedule(m_spec.getInterval(), getReadyRunnable());
     }
 
+    /**
+     * Starts an asynchronous collection if the collector supports it.
+     *
+     * @return the pending collection, or null if the service has to be
+     *         collected on this thread
+     */
+    private CallbackFuture<CollectionSet> startCollection() {
+        if (!ASYNC_COLLECTION) {
+            return null;
+        }
+        final CallbackFuture<CollectionSet> future = m_spec.collectAsync(m_agent);
+        if (future != null) {
+            logStartingCollection();
+        }
+        return future;
+    }
+
+    /**
+     * Persists and thresholds the result of an asynchronous collection and
+     * reschedules the service.  Runs on a scheduler thread.
+     */
+    private void collectionComplete(final CallbackFuture<CollectionSet> future) {
+        Logging.withPrefix(Collectd.LOG4J_CATEGORY, new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    collect(future);
+                } finally {
+                    // Reschedule the service
+                    m_scheduler.schedule(m_spec.getInterval(), getReadyRunnable());
+                }
+            }
+            
+        });
+    }
+
+    /**
+     * @param completed an asynchronous collection that has already completed,
+     *        or null to collect the service now
+     */
+    private void collect(CallbackFuture<CollectionSet> completed) {
+        try {
+            doCollection(completed);
+            updateStatus(ServiceCollector.COLLECTION_SUCCEEDED, null);
+        } catch (CollectionTimedOut e) {
+            LOG.info(e.getMessage());
+            updateStatus(ServiceCollector.COLLECTION_FAILED, e);
+        } catch (CollectionWarning e) {
+            LOG.warn(e.getMessage(), e);
+            updateStatus(ServiceCollector.COLLECTION_FAILED, e);
+        } catch (CollectionException e) {
+            LOG.error(e.getMessage(), e);
+            updateStatus(ServiceCollector.COLLECTION_FAILED, e);
+        } catch (Throwable e) {
+            LOG.error(e.getMessage(), e);
+            updateStatus(ServiceCollector.COLLECTION_FAILED, new CollectionException("Collection failed unexpectedly: " + e.getClass().getSimpleName() + ": " + e.getMessage(), e));
+        }
+    }
+
     private void updateStatus(int status, CollectionException e) {
         // Any change in status?
         if (status != m_status) {
@@ -381,11 +455,16 @@ final class CollectableService implements ReadyRunnable {
         /**
          * Perform data collection.
          */
-	private void doCollection() throws CollectionException {
-		LOG.info("run: starting new collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+	private void doCollection(CallbackFuture<CollectionSet> completed) throws CollectionException {
 		CollectionSet result = null;
 		try {
-		    result = m_spec.collect(m_agent);
+		    if (completed == null) {
+		        logStartingCollection();
+		        result = m_spec.collect(m_agent);
+		    } else {
+		        // already done, this doesn't block
+		        result = CollectionSpecification.waitFor(completed);
+		    }
 		    if (result != null) {
                         Collectd.instrumentation().beginPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
                         try {
@@ -423,6 +502,10 @@ final class CollectableService implements ReadyRunnable {
 		LOG.info("run: finished collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
 	}
 
+	private void logStartingCollection() {
+		LOG.info("run: starting new collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+	}
+
 	/**
      * Process any outstanding updates.
      * 
@@ -494,6 +577,11 @@ final class CollectableService implements ReadyRunnable {
 
                 // Does the <newNodeId> directory already exist?
                 File newNodeDir = new File(rrdPath + File.separator + m_updates.getReparentNewNodeId());
+
+                // Close any RRD files of the old node that are held open so
+                // that they aren't written to after they have been moved.
+                RrdUtils.evictFiles(rrdPath + File.separator + m_updates.getReparentOldNodeId());
+
                 if (!newNodeDir.isDirectory()) {
                     // New directory does not exist yet so simply rename the old
                     // directory to
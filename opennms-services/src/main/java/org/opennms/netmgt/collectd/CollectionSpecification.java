@@ -32,7 +32,11 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
+import org.opennms.core.utils.CallbackFuture;
+import org.opennms.netmgt.collection.api.AsyncServiceCollector;
 import org.opennms.netmgt.collection.api.CollectionAgent;
 import org.opennms.netmgt.collection.api.CollectionException;
 import org.opennms.netmgt.collection.api.CollectionInitializationException;
@@ -270,6 +274,7 @@ public class CollectionSpecification {
      */
     public CollectionSet collect(CollectionAgent agent) throws CollectionException {
         m_instrumentation.beginCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
+        final long startTime = System.currentTimeMillis();
         try {
             CollectionSet set = getCollector().collect(agent, EventIpcManagerFactory.getIpcManager(), getPropertyMap());
             // There are collector implementations that never throw an exception just return a collection failed
@@ -281,10 +286,96 @@ public class CollectionSpecification {
             m_instrumentation.reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, e);
             throw e;
         } finally {
+            m_instrumentation.reportCollectionLatency(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, System.currentTimeMillis() - startTime);
             m_instrumentation.endCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
         }
     }
 
+    /**
+     * Starts a collection without waiting for it to complete.  The
+     * collection is reported to the instrumentation as ending when the
+     * returned future completes.
+     *
+     * @param agent a {@link org.opennms.netmgt.collection.api.CollectionAgent} object.
+     * @return the pending collection, or null if the collector can only
+     *         collect with {@link #collect(CollectionAgent)}
+     */
+    public CallbackFuture<CollectionSet> collectAsync(final CollectionAgent agent) {
+        if (!(getCollector() instanceof AsyncServiceCollector)) {
+            return null;
+        }
+
+        final String packageName = m_package.getName();
+        final int nodeId = agent.getNodeId();
+        final String hostAddress = agent.getHostAddress();
+
+        m_instrumentation.beginCollectorCollect(packageName, nodeId, hostAddress, m_svcName);
+        final long startTime = System.currentTimeMillis();
+        CallbackFuture<CollectionSet> future;
+        try {
+            future = ((AsyncServiceCollector)getCollector()).collectAsync(agent, EventIpcManagerFactory.getIpcManager(), getPropertyMap());
+        } catch (Throwable t) {
+            future = CallbackFuture.failedFuture(new CollectionException("An undeclared throwable was caught while starting data collection for interface " + nodeId + "/" + hostAddress + "/" + m_svcName, t));
+        }
+
+        future.addCallback(new CallbackFuture.Callback<CollectionSet>() {
+            @Override
+            public void onSuccess(final CollectionSet set) {
+                // There are collector implementations that never throw an exception just return a collection failed
+                if (set.getStatus() == ServiceCollector.COLLECTION_FAILED) {
+                    m_instrumentation.reportCollectionException(packageName, nodeId, hostAddress, m_svcName, new CollectionFailed(ServiceCollector.COLLECTION_FAILED));
+                }
+                collectionEnded();
+            }
+
+            @Override
+            public void onFailure(final Throwable t) {
+                m_instrumentation.reportCollectionException(packageName, nodeId, hostAddress, m_svcName, toCollectionException(t));
+                collectionEnded();
+            }
+
+            private void collectionEnded() {
+                m_instrumentation.reportCollectionLatency(packageName, nodeId, hostAddress, m_svcName, System.currentTimeMillis() - startTime);
+                m_instrumentation.endCollectorCollect(packageName, nodeId, hostAddress, m_svcName);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Waits for an asynchronous collection and returns its result the way
+     * {@link ServiceCollector#collect(CollectionAgent, org.opennms.netmgt.events.api.EventProxy, Map)}
+     * would.
+     *
+     * @throws CollectionException if the collection failed or the calling
+     *         thread was interrupted while waiting
+     */
+    static CollectionSet waitFor(final CallbackFuture<CollectionSet> future) throws CollectionException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CollectionException("Interrupted while waiting for collection to complete", e);
+        } catch (final CancellationException e) {
+            throw toCollectionException(e);
+        } catch (final ExecutionException e) {
+            throw toCollectionException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the exception that {@link #collect(CollectionAgent)} would have
+     * thrown for an asynchronous collection that failed with the given cause.
+     */
+    private static CollectionException toCollectionException(final Throwable t) {
+        if (t instanceof CollectionException) {
+            return (CollectionException)t;
+        } else if (t instanceof CancellationException) {
+            return new CollectionException("Collection cancelled");
+        }
+        return new CollectionException("Collection failed unexpectedly: " + t.getClass().getSimpleName() + ": " + t.getMessage(), t);
+    }
+
     /**
      * <p>scheduledOutage</p>
      *
@@ -28,6 +28,12 @@
 
 package org.opennms.netmgt.collectd;
 
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.collection.api.CollectionInstrumentation;
 import org.opennms.netmgt.collection.api.CollectionException;
@@ -36,11 +42,18 @@ import org.slf4j.LoggerFactory;
 
 
 /**
+ * Logs collectd's activity to the instrumentation log and keeps the number
+ * of collections in flight and the latest collection latency of each agent
+ * for the collectd MBean.
+ *
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  */
 public class DefaultCollectdInstrumentation implements CollectionInstrumentation {
     public static final Logger LOG = LoggerFactory.getLogger(DefaultCollectdInstrumentation.class);
 
+    private final AtomicInteger m_collectionsInFlight = new AtomicInteger(0);
+    private final ConcurrentMap<String, Long> m_latencies = new ConcurrentHashMap<String, Long>();
+
     @Override
     public void beginScheduleExistingInterfaces() {
         log("scheduleExistingInterfaces: begin");
@@ -83,14 +96,22 @@ public class DefaultCollectdInstrumentation implements CollectionInstrumentation
 
     @Override
     public void beginCollectorCollect(final String packageName, final int nodeId, final String ipAddress, final String svcName) {
+        m_collectionsInFlight.incrementAndGet();
         log("collector.collect: begin:{}/{}/{}/{}", packageName, nodeId, ipAddress, svcName);
     }
 
     @Override
     public void endCollectorCollect(final String packageName, final int nodeId, final String ipAddress, final String svcName) {
+        m_collectionsInFlight.decrementAndGet();
         log("collector.collect: end:{}/{}/{}/{}", packageName, nodeId, ipAddress, svcName);
     }
 
+    @Override
+    public void reportCollectionLatency(final String packageName, final int nodeId, final String ipAddress, final String svcName, final long latencyMillis) {
+        m_latencies.put(getAgentKey(nodeId, ipAddress, svcName), latencyMillis);
+        log("collector.collect: latency: {}/{}/{}/{}: {}ms", packageName, nodeId, ipAddress, svcName, latencyMillis);
+    }
+
     @Override
     public void beginCollectorRelease(final String packageName, final int nodeId, final String ipAddress, final String svcName) {
         log("collector.release: begin: {}/{}/{}/{}", packageName, nodeId, ipAddress, svcName);
@@ -98,6 +119,7 @@ public class DefaultCollectdInstrumentation implements CollectionInstrumentation
 
     @Override
     public void endCollectorRelease(final String packageName, final int nodeId, final String ipAddress, final String svcName) {
+        m_latencies.remove(getAgentKey(nodeId, ipAddress, svcName));
         log("collector.release: end: {}/{}/{}/{}", packageName, nodeId, ipAddress, svcName);
     }
 
@@ -136,6 +158,26 @@ public class DefaultCollectdInstrumentation implements CollectionInstrumentation
         log("collector.collect: error: {}/{}/{}/{}: {}", packageName, nodeId, ipAddress, svcName, e.getMessage());
     }
 
+    /**
+     * @return the number of collections that have been started and have not
+     *         completed yet
+     */
+    public int getCollectionsInFlight() {
+        return m_collectionsInFlight.get();
+    }
+
+    /**
+     * @return the latency of the latest collection of each agent in
+     *         milliseconds, keyed by nodeId/ipAddress/service
+     */
+    public Map<String, Long> getCollectionLatencies() {
+        return new TreeMap<String, Long>(m_latencies);
+    }
+
+    private static String getAgentKey(final int nodeId, final String ipAddress, final String svcName) {
+        return nodeId + "/" + ipAddress + "/" + svcName;
+    }
+
     private void log(final String msg, final Object... args) {
         Logging.withPrefix("instrumentation", new Runnable() {
             @Override public void run() {
@@ -65,6 +65,6 @@ public class JMXSecureCollector extends JMXCollector
         @Override
     public ConnectionWrapper getMBeanServerConnection(Map<String,Object> parameterMap, InetAddress address)
 	{
-		return JMXSecureConnectionFactory.getMBeanServerConnection(parameterMap, address);
+		return JMXSecureConnectionFactory.getPooledMBeanServerConnection(parameterMap, address);
 	}
 }
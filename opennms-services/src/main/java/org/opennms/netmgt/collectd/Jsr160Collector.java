@@ -66,6 +66,6 @@ public class Jsr160Collector extends JMXCollector {
     /** {@inheritDoc} */
     @Override
     public ConnectionWrapper getMBeanServerConnection(Map<String, Object> parameterMap, InetAddress address) {
-        return Jsr160ConnectionFactory.getMBeanServerConnection(parameterMap, address);
+        return Jsr160ConnectionFactory.getPooledMBeanServerConnection(parameterMap, address);
     }
 }
@@ -66,6 +66,6 @@ public class MX4JCollector extends JMXCollector {
   /** {@inheritDoc} */
   @Override
   public ConnectionWrapper getMBeanServerConnection(Map<String, Object> parameterMap, InetAddress address) {
-      return MX4JConnectionFactory.getMBeanServerConnection(parameterMap, address);
+      return MX4JConnectionFactory.getPooledMBeanServerConnection(parameterMap, address);
   }
 }
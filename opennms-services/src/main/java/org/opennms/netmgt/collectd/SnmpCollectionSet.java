@@ -35,6 +35,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import org.opennms.core.utils.CallbackFuture;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.netmgt.collection.api.CollectionAgent;
 import org.opennms.netmgt.collection.api.CollectionAttributeType;
@@ -373,28 +374,51 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
 
     void collect() throws CollectionException {
         // XXX Should we have a call to hasDataToCollect here?
-        try {
-            // now collect the data
-            SnmpWalker walker = createWalker();
-            walker.start();
+        CollectionSpecification.waitFor(collectAsync());
+    }
+
+    /**
+     * Starts the walk of the agent and returns without waiting for it.  The
+     * returned future is completed with this collection set from the SNMP
+     * strategy's thread once the walk is finished, or fails with the same
+     * exception {@link #collect()} would have thrown.
+     *
+     * @return the pending result of the walk
+     */
+    CallbackFuture<CollectionSet> collectAsync() {
+        final CallbackFuture<CollectionSet> future = new CallbackFuture<CollectionSet>();
 
-            logStartedWalker();
+        // now collect the data
+        final SnmpWalker walker = createWalker();
+        walker.getCompletion().addCallback(new CallbackFuture.Callback<SnmpWalker>() {
+            @Override
+            public void onSuccess(final SnmpWalker result) {
+                logFinishedWalker();
+
+                // Was the collection successful?
+                try {
+                    verifySuccessfulWalk(result);
+                } catch (final CollectionException e) {
+                    future.completeExceptionally(e);
+                    return;
+                }
 
-            // wait for collection to finish
-            walker.waitFor();
+                m_status = ServiceCollector.COLLECTION_SUCCEEDED;
+                future.complete(SnmpCollectionSet.this);
+            }
 
-            logFinishedWalker();
+            @Override
+            public void onFailure(final Throwable t) {
+                future.completeExceptionally(new CollectionWarning("collect: Collection of node SNMP "
+                        + "data for interface " + getCollectionAgent().getHostAddress()
+                        + " failed: " + t, t));
+            }
+        });
+        walker.start();
 
-            // Was the collection successful?
-            verifySuccessfulWalk(walker);
+        logStartedWalker();
 
-            m_status = ServiceCollector.COLLECTION_SUCCEEDED;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new CollectionWarning("collect: Collection of node SNMP "
-                    + "data for interface " + getCollectionAgent().getHostAddress()
-                    + " interrupted: " + e, e);
-        }
+        return future;
     }
 
     boolean checkDisableForceRescan(final String disabledString) {
@@ -33,11 +33,12 @@ import java.lang.reflect.UndeclaredThrowableException;
 import java.util.Date;
 import java.util.Map;
 
+import org.opennms.core.utils.CallbackFuture;
+import org.opennms.netmgt.collection.api.AsyncServiceCollector;
 import org.opennms.netmgt.collection.api.CollectionAgent;
 import org.opennms.netmgt.collection.api.CollectionException;
 import org.opennms.netmgt.collection.api.CollectionInitializationException;
 import org.opennms.netmgt.collection.api.CollectionSet;
-import org.opennms.netmgt.collection.api.ServiceCollector;
 import org.opennms.netmgt.collection.api.ServiceParameters;
 import org.opennms.netmgt.config.DataCollectionConfigFactory;
 import org.opennms.netmgt.config.SnmpPeerFactory;
@@ -54,7 +55,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author <A HREF="mailto:brozow@opennms.org">Matt Brozowski</A>
  */
-public class SnmpCollector implements ServiceCollector {
+public class SnmpCollector implements AsyncServiceCollector {
     
     private static final Logger LOG = LoggerFactory.getLogger(SnmpCollector.class);
     
@@ -303,6 +304,18 @@ public class SnmpCollector implements ServiceCollector {
      */
     @Override
     public CollectionSet collect(CollectionAgent agent, EventProxy eventProxy, Map<String, Object> parameters) throws CollectionException {
+        return CollectionSpecification.waitFor(collectAsync(agent, eventProxy, parameters));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Starts the walk of the agent and completes the future from the SNMP
+     * strategy's thread once it is done.  The checks for a restarted agent
+     * only look at the collected values and run on that thread as well.
+     */
+    @Override
+    public CallbackFuture<CollectionSet> collectAsync(final CollectionAgent agent, final EventProxy eventProxy, final Map<String, Object> parameters) {
         try {
             // XXX: Experimental code that reuses the OnmsSnmpCollection
             // OnmsSnmpCollection snmpCollection = (OnmsSnmpCollection)agent.getAttribute("SNMP_COLLECTION");
@@ -315,35 +328,51 @@ public class SnmpCollector implements ServiceCollector {
 
             final ForceRescanState forceRescanState = new ForceRescanState(agent, eventProxy);
 
-            SnmpCollectionSet collectionSet = snmpCollection.createCollectionSet((SnmpCollectionAgent)agent);
+            final SnmpCollectionSet collectionSet = snmpCollection.createCollectionSet((SnmpCollectionAgent)agent);
             collectionSet.setCollectionTimestamp(new Date());
             if (!collectionSet.hasDataToCollect()) {
                 logNoDataToCollect(agent);
                 // should we return here?
             }
             
-            collectionSet.collect();
+            final CallbackFuture<CollectionSet> future = new CallbackFuture<CollectionSet>();
+            collectionSet.collectAsync().addCallback(new CallbackFuture.Callback<CollectionSet>() {
+                @Override
+                public void onSuccess(final CollectionSet result) {
+                    try {
+                        checkForRescan(collectionSet, forceRescanState);
+                        future.complete(collectionSet);
+                    } catch (final Throwable t) {
+                        future.completeExceptionally(new CollectionException("Unexpected error during node SNMP collection for: " + agent.getHostAddress(), t));
+                    }
+                }
+
+                @Override
+                public void onFailure(final Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+            return future;
+        } catch (Throwable t) {
+            return CallbackFuture.failedFuture(new CollectionException("Unexpected error during node SNMP collection for: " + agent.getHostAddress(), t));
+        }
+    }
 
+    private void checkForRescan(final SnmpCollectionSet collectionSet, final ForceRescanState forceRescanState) {
+        /*
+         * FIXME: Should we even be doing this? I say we get rid of this force rescan thingie
+         * {@see http://issues.opennms.org/browse/NMS-1057}
+         */
+        if (System.getProperty("org.opennms.netmgt.collectd.SnmpCollector.forceRescan", "false").equalsIgnoreCase("true")
+                && collectionSet.rescanNeeded()) {
             /*
-             * FIXME: Should we even be doing this? I say we get rid of this force rescan thingie
-             * {@see http://issues.opennms.org/browse/NMS-1057}
+             * TODO: the behavior of this object may have been re-factored away.
+             * Verify that this is correct and remove this unused object if it
+             * is no longer needed.  My gut thinks this should be investigated.
              */
-            if (System.getProperty("org.opennms.netmgt.collectd.SnmpCollector.forceRescan", "false").equalsIgnoreCase("true")
-                    && collectionSet.rescanNeeded()) {
-                /*
-                 * TODO: the behavior of this object may have been re-factored away.
-                 * Verify that this is correct and remove this unused object if it
-                 * is no longer needed.  My gut thinks this should be investigated.
-                 */
-                forceRescanState.rescanIndicated();
-            } else {
-                collectionSet.checkForSystemRestart();
-            }
-            return collectionSet;
-        } catch (CollectionException e) {
-            throw e;
-        } catch (Throwable t) {
-            throw new CollectionException("Unexpected error during node SNMP collection for: " + agent.getHostAddress(), t);
+            forceRescanState.rescanIndicated();
+        } else {
+            collectionSet.checkForSystemRestart();
         }
     }
 
@@ -28,8 +28,13 @@
 
 package org.opennms.netmgt.collectd.jmx;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.ThreadPoolExecutor;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
+
+import org.opennms.netmgt.collectd.DefaultCollectdInstrumentation;
+import org.opennms.netmgt.collection.api.CollectionInstrumentation;
+import org.opennms.netmgt.scheduler.SchedulerFactory;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
 
@@ -126,11 +131,31 @@ public class Collectd extends AbstractSpringContextJmxServiceDaemon<org.opennms.
         return getDaemon().getCollectableServiceCount();
     }
     
+    @Override
+    public long getCollectionsInFlight() {
+        final CollectionInstrumentation instrumentation = org.opennms.netmgt.collectd.Collectd.instrumentation();
+        if (instrumentation instanceof DefaultCollectdInstrumentation) {
+            return ((DefaultCollectdInstrumentation)instrumentation).getCollectionsInFlight();
+        } else {
+            return 0L;
+        }
+    }
+
+    @Override
+    public Map<String, Long> getCollectionLatencies() {
+        final CollectionInstrumentation instrumentation = org.opennms.netmgt.collectd.Collectd.instrumentation();
+        if (instrumentation instanceof DefaultCollectdInstrumentation) {
+            return ((DefaultCollectdInstrumentation)instrumentation).getCollectionLatencies();
+        } else {
+            return Collections.emptyMap();
+        }
+    }
+
     private ThreadPoolExecutor getExecutor() {
-        return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
+        return (ThreadPoolExecutor) SchedulerFactory.getRunner(getDaemon().getScheduler());
     }
 
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        return (SchedulerFactory.getRunner(getDaemon().getScheduler()) instanceof ThreadPoolExecutor);
     }
 }
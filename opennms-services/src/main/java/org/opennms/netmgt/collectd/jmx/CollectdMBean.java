@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.collectd.jmx;
 
+import java.util.Map;
+
 import org.opennms.netmgt.daemon.BaseOnmsMBean;
 
 /**
@@ -76,4 +78,17 @@ public interface CollectdMBean extends BaseOnmsMBean {
      * @return The number of collectable services currently seen by Collectd
      */
     public long getCollectableServiceCount();
+
+    /**
+     * @return The number of collections that have been started and have not
+     *         completed yet, including those waiting on an agent without
+     *         holding a collection thread
+     */
+    public long getCollectionsInFlight();
+
+    /**
+     * @return The duration in milliseconds of the latest collection of each
+     *         agent, keyed by nodeId/ipAddress/service
+     */
+    public Map<String, Long> getCollectionLatencies();
 }
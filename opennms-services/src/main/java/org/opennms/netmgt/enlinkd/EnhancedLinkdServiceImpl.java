@@ -35,6 +35,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import org.opennms.core.criteria.Alias;
@@ -75,9 +76,12 @@ import org.opennms.netmgt.model.PrimaryType;
 import org.opennms.netmgt.model.topology.BridgeTopology;
 import org.opennms.netmgt.model.topology.BridgeTopology.BridgeTopologyLink;
 import org.opennms.netmgt.model.topology.LinkableSnmpNode;
+import org.opennms.netmgt.model.topology.MacSet;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
 		
 //	private final static Logger LOG = LoggerFactory.getLogger(EnhancedLinkdServiceImpl.class);
@@ -117,6 +121,16 @@ public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
 
 	volatile Map<Integer,Map<Integer,Integer>> m_nodebridgeportifindex = new HashMap<Integer, Map<Integer,Integer>>();
 
+	/**
+	 * The bridge forwarding entries saved by the last bridge reconciliation,
+	 * by node and bridge port. They are read from the database once and then
+	 * kept in step with what each reconciliation saves, rather than reading
+	 * the whole table back for every node. Guarded by m_bridgeTopologyLock.
+	 */
+	private Map<Integer,Map<Integer,Set<String>>> m_savedBridgeTopology;
+
+	private final Object m_bridgeTopologyLock = new Object();
+
 	private void addBridgePortIfIndexEntry(Integer nodeid,Integer bridgeport, Integer ifindex) {
 		Map<Integer,Integer>bridgeportifindex = new HashMap<Integer, Integer>();
 		if (m_nodebridgeportifindex.containsKey(nodeid))
@@ -182,6 +196,10 @@ public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
 		reconcileOspf(nodeId, now);
 		reconcileIpNetToMedia(nodeId, now);
 		reconcileBridge(nodeId, now);
+		synchronized (m_bridgeTopologyLock) {
+			if (m_savedBridgeTopology != null)
+				m_savedBridgeTopology.remove(nodeId);
+		}
 	}
 
 	@Override
@@ -574,7 +592,7 @@ public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
 	}
 
 	@Override
-	public synchronized void reconcileBridge(int nodeId, Date now) {
+	public void reconcileBridge(int nodeId, Date now) {
 		m_bridgeElementDao.deleteByNodeIdOlderThen(nodeId, now);
 		m_bridgeElementDao.flush();
 
@@ -585,64 +603,124 @@ public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
 		Map<Integer,Set<String>> bft = m_bftMap.remove(nodeId);
 		if (bft == null || bft.isEmpty())
 			return;
-		Set<String> macs = new HashSet<String>();
-		for (Set<String> portmacs: bft.values()) 
-			macs.addAll(portmacs);
+		Map<Integer,Set<String>> packedbft = new HashMap<Integer, Set<String>>();
+		for (Entry<Integer,Set<String>> entry: bft.entrySet())
+			packedbft.put(entry.getKey(), MacSet.of(entry.getValue()));
 		
-		Map<Integer,Map<Integer,Set<String>>> savedtopology = new HashMap<Integer, Map<Integer,Set<String>>>();
-		for (BridgeMacLink maclink: m_bridgeMacLinkDao.findAll()) {
-			if (maclink.getNode().getId().intValue() == nodeId)
-				continue;
-			Map<Integer,Set<String>> nodesavedtopology = new HashMap<Integer, Set<String>>();
-			if (savedtopology.containsKey(maclink.getNode().getId())) 
-				nodesavedtopology = savedtopology.get(maclink.getNode().getId());
-			Set<String> macsonport = new HashSet<String>();
-			if (nodesavedtopology.containsKey(maclink.getBridgePort()))
-				macsonport = nodesavedtopology.get(maclink.getBridgePort());
-			macsonport.add(maclink.getMacAddress());
-			nodesavedtopology.put(maclink.getBridgePort(), macsonport);
-			savedtopology.put(maclink.getNode().getId(), nodesavedtopology);
-		}
-		
-		BridgeTopology topology = new BridgeTopology();
-		Set<Integer> targets = new HashSet<Integer>();
-		targets.add(nodeId);
-		for (BridgeBridgeLink bblink: m_bridgeBridgeLinkDao.findByNodeId(nodeId)) {
-			Map<Integer,Set<String>> nodesavedtopology = new HashMap<Integer, Set<String>>();
-			nodesavedtopology.put(bblink.getDesignatedPort(), new HashSet<String>());
-			topology.addTopology(bblink.getDesignatedNode().getId(), nodesavedtopology, targets);
+		// the topology is computed across all of the bridges, so only one node at a time
+		synchronized (m_bridgeTopologyLock) {
+			Map<Integer,Map<Integer,Set<String>>> savedtopology = getSavedBridgeTopology();
+
+			BridgeTopology topology = new BridgeTopology();
+			Set<Integer> targets = new HashSet<Integer>();
+			targets.add(nodeId);
+			for (BridgeBridgeLink bblink: m_bridgeBridgeLinkDao.findByNodeId(nodeId)) {
+				Map<Integer,Set<String>> nodesavedtopology = new HashMap<Integer, Set<String>>();
+				nodesavedtopology.put(bblink.getDesignatedPort(), MacSet.EMPTY);
+				topology.addTopology(bblink.getDesignatedNode().getId(), nodesavedtopology, targets);
+			}
+			for (BridgeBridgeLink bblink: m_bridgeBridgeLinkDao.findByDesignatedNodeId(nodeId)) {
+				Map<Integer,Set<String>> nodesavedtopology = new HashMap<Integer, Set<String>>();
+				nodesavedtopology.put(bblink.getBridgePort(), MacSet.EMPTY);
+				topology.addTopology(bblink.getNode().getId(), nodesavedtopology, targets);
+			}
+			for (Integer savednode: savedtopology.keySet()) {
+				if (savednode.intValue() == nodeId)
+					continue;
+				topology.parseBFT(savednode, savedtopology.get(savednode));
+			}
+			topology.parseBFT(nodeId, packedbft);
+
+			// now check the topology with the old one
+			// delete the not found links
+			Map<Integer,Map<Integer,Set<String>>> newtopology = new HashMap<Integer, Map<Integer,Set<String>>>();
+			for (BridgeTopologyLink btl: topology.getTopology()) {
+				saveLink(btl, nodeId, bridgeportifindex, newtopology);
+			}
+			
+			for (Integer curNodeId: savedtopology.keySet()) {
+				if (curNodeId.intValue() == nodeId)
+					continue;
+				m_bridgeMacLinkDao.deleteByNodeIdOlderThen(curNodeId, now);
+			}
+			m_bridgeMacLinkDao.deleteByNodeIdOlderThen(nodeId, now);
+			m_bridgeMacLinkDao.flush();
+
+			// What about bridge bridge topology
+			// The changes could only be regarding the nodeId
+			m_bridgeBridgeLinkDao.deleteByNodeIdOlderThen(nodeId, now);
+			m_bridgeBridgeLinkDao.deleteByDesignatedNodeIdOlderThen(nodeId, now);
+			m_bridgeBridgeLinkDao.flush();
+
+			// the table now holds exactly the mac links saved above
+			for (Map<Integer,Set<String>> nodetopology: newtopology.values()) {
+				for (Entry<Integer,Set<String>> entry: nodetopology.entrySet())
+					entry.setValue(MacSet.of(entry.getValue()));
+			}
+			saveBridgeTopologyAfterCommit(newtopology);
 		}
-		for (BridgeBridgeLink bblink: m_bridgeBridgeLinkDao.findByDesignatedNodeId(nodeId)) {
-			Map<Integer,Set<String>> nodesavedtopology = new HashMap<Integer, Set<String>>();
-			nodesavedtopology.put(bblink.getBridgePort(), new HashSet<String>());
-			topology.addTopology(bblink.getNode().getId(), nodesavedtopology, targets);
+	}
+
+	/**
+	 * Replaces the saved bridge forwarding entries once the transaction
+	 * that wrote them commits, so that a rollback leaves the ones that are
+	 * still in the database.
+	 */
+	private void saveBridgeTopologyAfterCommit(final Map<Integer,Map<Integer,Set<String>>> newtopology) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					synchronized (m_bridgeTopologyLock) {
+						m_savedBridgeTopology = newtopology;
+					}
+				}
+			});
+		} else {
+			m_savedBridgeTopology = newtopology;
 		}
-		for (Integer savednode: savedtopology.keySet()) {
-			topology.parseBFT(savednode, savedtopology.get(savednode));
+	}
+
+	/**
+	 * Returns the saved bridge forwarding entries, reading them from the
+	 * database the first time. Must be called holding m_bridgeTopologyLock.
+	 */
+	private Map<Integer,Map<Integer,Set<String>>> getSavedBridgeTopology() {
+		if (m_savedBridgeTopology == null) {
+			Map<Integer,Map<Integer,Set<String>>> savedtopology = new HashMap<Integer, Map<Integer,Set<String>>>();
+			for (BridgeMacLink maclink: m_bridgeMacLinkDao.findAll())
+				addSavedMac(savedtopology, maclink.getNode().getId(), maclink.getBridgePort(), maclink.getMacAddress());
+			for (Map<Integer,Set<String>> nodetopology: savedtopology.values()) {
+				for (Entry<Integer,Set<String>> entry: nodetopology.entrySet())
+					entry.setValue(MacSet.of(entry.getValue()));
+			}
+			m_savedBridgeTopology = savedtopology;
 		}
-		topology.parseBFT(nodeId, bft);
+		return m_savedBridgeTopology;
+	}
 
-		// now check the topology with the old one
-		// delete the not found links
-		for (BridgeTopologyLink btl: topology.getTopology()) {
-			saveLink(btl, nodeId, bridgeportifindex);
+	private static void addSavedMac(Map<Integer,Map<Integer,Set<String>>> savedtopology, Integer nodeid, Integer bridgeport, String mac) {
+		Map<Integer,Set<String>> nodesavedtopology = savedtopology.get(nodeid);
+		if (nodesavedtopology == null) {
+			nodesavedtopology = new HashMap<Integer, Set<String>>();
+			savedtopology.put(nodeid, nodesavedtopology);
 		}
-		
-		for (Integer curNodeId: savedtopology.keySet()) {
-			m_bridgeMacLinkDao.deleteByNodeIdOlderThen(curNodeId, now);
+		Set<String> macsonport = nodesavedtopology.get(bridgeport);
+		if (macsonport == null) {
+			macsonport = new HashSet<String>();
+			nodesavedtopology.put(bridgeport, macsonport);
 		}
-		m_bridgeMacLinkDao.deleteByNodeIdOlderThen(nodeId, now);
-		m_bridgeMacLinkDao.flush();
-
-		// What about bridge bridge topology
-		// The changes could only be regarding the nodeId
-		m_bridgeBridgeLinkDao.deleteByNodeIdOlderThen(nodeId, now);
-		m_bridgeBridgeLinkDao.deleteByDesignatedNodeIdOlderThen(nodeId, now);
-		m_bridgeBridgeLinkDao.flush();
-
+		macsonport.add(mac);
 	}
 	
 	protected void saveLink(final BridgeTopologyLink bridgelink, Integer nodeId, Map<Integer,Integer> bridgeportIfIndex) {
+		saveLink(bridgelink, nodeId, bridgeportIfIndex, new HashMap<Integer, Map<Integer,Set<String>>>());
+	}
+
+	/**
+	 * Saves the link and records the mac links saved for it in savedtopology.
+	 */
+	protected void saveLink(final BridgeTopologyLink bridgelink, Integer nodeId, Map<Integer,Integer> bridgeportIfIndex, Map<Integer,Map<Integer,Set<String>>> savedtopology) {
 		if (bridgelink == null)
 			return;
 		if (bridgeportIfIndex == null)
@@ -679,6 +757,7 @@ public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
 			}
 			maclink1.setMacAddress(mac);
 			saveBridgeMacLink(maclink1);
+			addSavedMac(savedtopology, node.getId(), maclink1.getBridgePort(), mac);
 			if (designatenode == null)
 				continue;
 			BridgeMacLink maclink2 = new BridgeMacLink();
@@ -689,6 +768,7 @@ public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
 			}
 			maclink2.setMacAddress(mac);
 			saveBridgeMacLink(maclink2);
+			addSavedMac(savedtopology, designatenode.getId(), maclink2.getBridgePort(), mac);
 		}
 	}
 
@@ -170,10 +170,13 @@ public final class BroadcastEventProcessor implements EventListener {
     public void onEvent(Event event) {
         if (event == null) return;
 
+        m_notificationManager.getFilterNodeCache().onEvent(event);
+
         if (isReloadConfigEvent(event)) {
             LOG.info("onEvent: handling reload configuration event...");
             EventBuilder ebldr = null;
             try {
+                m_notificationManager.getFilterNodeCache().invalidateAll();
                 m_userManager.update();
                 m_groupManager.update();
                 m_notificationManager.update();
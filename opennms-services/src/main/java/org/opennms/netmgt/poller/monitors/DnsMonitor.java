@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.poller.monitors;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.ConnectException;
@@ -35,9 +36,11 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
+import org.opennms.core.utils.CallbackFuture;
 import org.opennms.core.utils.InetAddressUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,11 +52,11 @@ import org.opennms.netmgt.poller.NetworkInterface;
 import org.opennms.netmgt.poller.NetworkInterfaceNotSupportedException;
 import org.opennms.netmgt.poller.PollStatus;
 import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
 import org.xbill.DNS.Message;
 import org.xbill.DNS.Name;
 import org.xbill.DNS.Record;
 import org.xbill.DNS.Section;
-import org.xbill.DNS.SimpleResolver;
 import org.xbill.DNS.Type;
 
 /**
@@ -68,7 +71,7 @@ import org.xbill.DNS.Type;
  * @author <A HREF="http://www.opennms.org/">OpenNMS </A>
  */
 @Distributable
-final public class DnsMonitor extends AbstractServiceMonitor {
+final public class DnsMonitor extends AbstractAsyncServiceMonitor {
     private static final Logger LOG = LoggerFactory.getLogger(DnsMonitor.class);
     /**
      * Default DNS port.
@@ -103,6 +106,17 @@ final public class DnsMonitor extends AbstractServiceMonitor {
      */
     private static final int DEFAULT_MAX_ANSWERS = Integer.MAX_VALUE;
 
+    /**
+     * Completes a DNS-over-TCP exchange once the two byte length prefix and
+     * the message it announces have been read.
+     */
+    private static final NioPollReactor.ResponseMatcher TCP_MESSAGE = new NioPollReactor.ResponseMatcher() {
+        @Override
+        public boolean isComplete(final byte[] response, final int length) {
+            return length >= 2 && length >= 2 + (((response[0] & 0xff) << 8) | (response[1] & 0xff));
+        }
+    };
+
     /**
      * {@inheritDoc}
      *
@@ -117,9 +131,15 @@ final public class DnsMonitor extends AbstractServiceMonitor {
      * received, it is parsed and validated. If the DNS lookup was successful
      * the service status is set to SERVICE_AVAILABLE and the method returns.
      * </P>
+     *
+     * <P>
+     * The query is sent and the response received by the shared
+     * {@link NioPollReactor}, falling back to TCP when the response is
+     * truncated, so no thread waits for the name server.
+     * </P>
      */
     @Override
-    public PollStatus poll(MonitoredService svc, Map<String, Object> parameters) {
+    public CallbackFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
         NetworkInterface<InetAddress> iface = svc.getNetInterface();
 
         //
@@ -159,92 +179,167 @@ final public class DnsMonitor extends AbstractServiceMonitor {
         //
         final InetAddress addr = iface.getAddress();
 
-        PollStatus serviceStatus = null;
-        serviceStatus = pollDNS(timeoutTracker, port, addr, lookup, fatalCodes, minAnswers, maxAnswers);
+        final DnsPoll poll = new DnsPoll(timeoutTracker, port, addr, lookup, fatalCodes, minAnswers, maxAnswers);
+        timeoutTracker.reset();
+        poll.attempt();
+        return poll.m_future;
+    }
+
+    /**
+     * The attempts of one poll, each started from the reactor callback of
+     * the previous one.
+     */
+    private static final class DnsPoll implements NioPollReactor.Callback {
+        private final CallbackFuture<PollStatus> m_future = new CallbackFuture<PollStatus>();
+        private final TimeoutTracker m_timeoutTracker;
+        private final InetSocketAddress m_address;
+        private final String m_addr;
+        private final String m_lookup;
+        private final List<Integer> m_fatalCodes;
+        private final int m_minAnswers;
+        private final int m_maxAnswers;
+        private Message m_query;
+        private boolean m_tcp = false;
 
-        if (serviceStatus == null) {
-            String reason = "Never received valid DNS response for address: " + addr;
-            LOG.debug(reason);
-            serviceStatus = PollStatus.unavailable(reason);
+        private DnsPoll(final TimeoutTracker timeoutTracker, final int port, final InetAddress address, final String lookup, final List<Integer> fatalCodes, int minAnswers, int maxAnswers) {
+            m_timeoutTracker = timeoutTracker;
+            m_address = new InetSocketAddress(address, port);
+            m_addr = InetAddressUtils.str(address);
+            m_lookup = lookup;
+            m_fatalCodes = fatalCodes;
+            m_minAnswers = minAnswers;
+            m_maxAnswers = maxAnswers;
         }
-        
-        // 
-        //
-        // return the status of the service
-        //
-        return serviceStatus;
-    }
 
-    private PollStatus pollDNS(final TimeoutTracker timeoutTracker, final int port, final InetAddress address, final String lookup, final List<Integer> fatalCodes, int minAnswers, int maxAnswers) {
-    	final String addr = InetAddressUtils.str(address);
-        for (timeoutTracker.reset(); timeoutTracker.shouldRetry(); timeoutTracker.nextAttempt()) {
+        /**
+         * The resolver used to work in whole seconds, so keep doing that.
+         */
+        private int getTimeout() {
+            return Math.max(1, m_timeoutTracker.getSoTimeout() / 1000) * 1000;
+        }
+
+        private void attempt() {
+            if (!m_timeoutTracker.shouldRetry()) {
+                String reason = "Never received valid DNS response for address: " + m_addr;
+                LOG.debug(reason);
+                m_future.complete(PollStatus.unavailable(reason));
+                return;
+            }
+
             try {
-                final Name name = Name.fromString(lookup, Name.root);
-                final SimpleResolver resolver = new SimpleResolver();
-                resolver.setAddress(new InetSocketAddress(addr, port));
-                resolver.setLocalAddress((InetSocketAddress)null);
-                double timeout = timeoutTracker.getSoTimeout()/1000;
-                resolver.setTimeout((timeout < 1 ? 1 : (int) timeout));
+                final Name name = Name.fromString(m_lookup, Name.root);
                 final Record question = Record.newRecord(name, Type.A, DClass.IN);
-                final Message query = Message.newQuery(question);
-                PollStatus status;
-
-                timeoutTracker.startAttempt();
-                final Message response = resolver.send(query);
-                double responseTime = timeoutTracker.elapsedTimeInMillis();
+                m_query = Message.newQuery(question);
+            } catch (final IOException e) {
+                fail(e);
+                return;
+            }
 
-                final Integer rcode = response.getHeader().getRcode();
-                LOG.debug("received response code: {}", rcode);
+            m_tcp = false;
+            m_timeoutTracker.startAttempt();
+            NioPollReactor.getInstance().send(m_address, getTimeout(), m_query.toWire(), this);
+        }
 
-                if (fatalCodes.contains(rcode)) {
-                    status = PollStatus.unavailable("Received an invalid DNS response for address: " + addr);
-                    LOG.debug(status.getReason());
-                    return status;
-                } else if (minAnswers != DEFAULT_MIN_ANSWERS || maxAnswers != DEFAULT_MAX_ANSWERS) {
-                    int numAnswers = response.getSectionArray(Section.ANSWER).length;
-                    boolean tooFewAnswers = numAnswers < minAnswers;
-                    boolean tooManyAnswers = numAnswers > maxAnswers;
-                    if (tooFewAnswers) {
-                        status = PollStatus.unavailable("Response contained only " + numAnswers + " answer(s), but at least " + minAnswers + " answers(s) are needed.");
-                        LOG.warn(status.getReason());
-                        return status;
-                    }
-                    if (tooManyAnswers) {
-                        status = PollStatus.unavailable("Response contained " + numAnswers + " answer(s), but " + maxAnswers + " or fewer answers(s) are needed.");
-                        LOG.warn(status.getReason());
-                        return status;
-                    }
-                    status = PollStatus.up(responseTime);
-                    LOG.debug("valid DNS response received with {} answer(s), responseTime = {}ms", numAnswers, responseTime);
-                    return status;
-                } else {
-                    status = PollStatus.up(responseTime);
-                    LOG.debug("valid DNS response received, responseTime = {}ms", responseTime);
-                    return status;
+        private void nextAttempt() {
+            m_timeoutTracker.nextAttempt();
+            NioPollReactor.getInstance().executeLater(m_timeoutTracker.getAttemptDelayInMillis(), new Runnable() {
+                @Override
+                public void run() {
+                    attempt();
                 }
+            });
+        }
 
+        @Override
+        public void exchangeComplete(final NioPollReactor.Result result) {
+            try {
+                if (!result.isSuccessful()) {
+                    throw result.getFailure();
+                }
+                final Message response = parseResponse(result.getResponse());
+                if (!m_tcp && response.getHeader().getFlag(Flags.TC)) {
+                    LOG.debug("truncated response from {}, retrying over TCP", m_addr);
+                    m_tcp = true;
+                    final byte[] query = m_query.toWire();
+                    final byte[] request = new byte[query.length + 2];
+                    request[0] = (byte)(query.length >>> 8);
+                    request[1] = (byte)query.length;
+                    System.arraycopy(query, 0, request, 2, query.length);
+                    NioPollReactor.getInstance().connect(m_address, getTimeout(), getTimeout(), request, TCP_MESSAGE, this);
+                    return;
+                }
+                m_future.complete(checkResponse(response, m_timeoutTracker.elapsedTimeInMillis()));
             } catch (final InterruptedIOException e) {
                 // No response received, retry without marking the poll failed. If we get this condition over and over until 
-                // the retries are exhausted, it will leave serviceStatus null and we'll get the log message at the bottom 
-            } catch (final NoRouteToHostException e) {
-                String reason1 = "No route to host exception for address: " + addr;
-                LOG.debug(reason1, e);
-                return PollStatus.unavailable(reason1);
-            } catch (final ConnectException e) {
-                String reason1 = "Connection exception for address: " + addr;
-                LOG.debug(reason1, e);
-                return PollStatus.unavailable(reason1);
+                // the retries are exhausted, it will complete with the "never received" message
+                nextAttempt();
             } catch (final IOException e) {
-                String reason1 = "IOException while polling address: " + addr + " " + e.getMessage();
-                LOG.debug(reason1, e);
-                return PollStatus.unavailable(reason1);
+                fail(e);
             }
         }
-        String reason = "Never received valid DNS response for address: " + addr;
-       
-        LOG.debug(reason);
-        return PollStatus.unavailable(reason);
-    }
 
+        private Message parseResponse(final byte[] bytes) throws IOException {
+            final Message response;
+            if (m_tcp) {
+                if (bytes.length < 2) {
+                    throw new EOFException("Connection closed before a DNS response was received");
+                }
+                response = new Message(Arrays.copyOfRange(bytes, 2, bytes.length));
+            } else {
+                response = new Message(bytes);
+            }
+            if (response.getHeader().getID() != m_query.getHeader().getID()) {
+                throw new IOException("invalid message id: expected " + m_query.getHeader().getID() + "; got id " + response.getHeader().getID());
+            }
+            return response;
+        }
+
+        private void fail(final IOException e) {
+            final String reason1;
+            if (e instanceof NoRouteToHostException) {
+                reason1 = "No route to host exception for address: " + m_addr;
+            } else if (e instanceof ConnectException) {
+                reason1 = "Connection exception for address: " + m_addr;
+            } else {
+                reason1 = "IOException while polling address: " + m_addr + " " + e.getMessage();
+            }
+            LOG.debug(reason1, e);
+            m_future.complete(PollStatus.unavailable(reason1));
+        }
+
+        private PollStatus checkResponse(final Message response, final double responseTime) {
+            PollStatus status;
+
+            final Integer rcode = response.getHeader().getRcode();
+            LOG.debug("received response code: {}", rcode);
+
+            if (m_fatalCodes.contains(rcode)) {
+                status = PollStatus.unavailable("Received an invalid DNS response for address: " + m_addr);
+                LOG.debug(status.getReason());
+                return status;
+            } else if (m_minAnswers != DEFAULT_MIN_ANSWERS || m_maxAnswers != DEFAULT_MAX_ANSWERS) {
+                int numAnswers = response.getSectionArray(Section.ANSWER).length;
+                boolean tooFewAnswers = numAnswers < m_minAnswers;
+                boolean tooManyAnswers = numAnswers > m_maxAnswers;
+                if (tooFewAnswers) {
+                    status = PollStatus.unavailable("Response contained only " + numAnswers + " answer(s), but at least " + m_minAnswers + " answers(s) are needed.");
+                    LOG.warn(status.getReason());
+                    return status;
+                }
+                if (tooManyAnswers) {
+                    status = PollStatus.unavailable("Response contained " + numAnswers + " answer(s), but " + m_maxAnswers + " or fewer answers(s) are needed.");
+                    LOG.warn(status.getReason());
+                    return status;
+                }
+                status = PollStatus.up(responseTime);
+                LOG.debug("valid DNS response received with {} answer(s), responseTime = {}ms", numAnswers, responseTime);
+                return status;
+            } else {
+                status = PollStatus.up(responseTime);
+                LOG.debug("valid DNS response received, responseTime = {}ms", responseTime);
+                return status;
+            }
+        }
+    }
 
 }
@@ -29,7 +29,10 @@
 package org.opennms.netmgt.poller.monitors;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
 import java.net.ConnectException;
@@ -47,6 +50,7 @@ import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 import org.opennms.core.utils.Base64;
+import org.opennms.core.utils.CallbackFuture;
 import org.opennms.core.utils.DefaultSocketWrapper;
 import org.opennms.core.utils.IPLike;
 import org.opennms.core.utils.InetAddressUtils;
@@ -66,13 +70,15 @@ import org.slf4j.LoggerFactory;
  * of the HTTP service on remote interfaces. The class implements the ServiceMonitor interface
  * that allows it to be used along with other plug-ins by the service poller framework.
  *
+ * <p>Plain HTTP is polled without blocking by the shared {@link NioPollReactor}.</p>
+ *
  * @author <A HREF="http://www.opennms.org/">OpenNMS </A>
  * @author <A HREF="mailto:tarus@opennms.org">Tarus Balog </A>
  * @author <A HREF="mailto:mike@opennms.org">Mike </A>
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  */
 @Distributable
-public class HttpMonitor extends AbstractServiceMonitor {
+public class HttpMonitor extends AbstractAsyncServiceMonitor {
     
     public static final Logger LOG = LoggerFactory.getLogger(HttpMonitor.class);
     
@@ -112,6 +118,120 @@ public class HttpMonitor extends AbstractServiceMonitor {
     public static final String PARAMETER_URL = "url";
     public static final String PARAMETER_PORT = "port";
 
+    /**
+     * One non-blocking poll.  Ports and attempts are tried in the same order
+     * as {@link HttpMonitor#poll(MonitoredService, Map)} does, each one
+     * started from the callback of the previous one on the reactor thread.
+     */
+    private final class HttpPoll implements NioPollReactor.Callback {
+        private final CallbackFuture<PollStatus> m_future = new CallbackFuture<PollStatus>();
+        private final MonitoredService m_svc;
+        private final NetworkInterface<InetAddress> m_iface;
+        private final Map<String, Object> m_parameters;
+        private final HttpMonitorClient m_httpClient;
+        private final int[] m_ports;
+        private int m_portIndex = -1;
+        private boolean m_skipRemainingPorts = false;
+        private String m_serviceInfo;
+
+        private HttpPoll(final MonitoredService svc, final Map<String, Object> parameters) {
+            m_svc = svc;
+            m_iface = svc.getNetInterface();
+            m_parameters = parameters;
+            m_httpClient = new HttpMonitorClient(svc.getNodeLabel(), m_iface, new TreeMap<String, Object>(parameters));
+            m_ports = determinePorts(m_httpClient.getParameters());
+        }
+
+        private void nextPort() {
+            m_portIndex++;
+            if (m_skipRemainingPorts || m_portIndex >= m_ports.length || m_httpClient.getPollStatus() == PollStatus.SERVICE_AVAILABLE) {
+                m_future.complete(m_httpClient.determinePollStatusResponse());
+                return;
+            }
+
+            final int currentPort = m_ports[m_portIndex];
+            m_httpClient.setTimeoutTracker(new TimeoutTracker(m_parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT));
+            LOG.debug("Port = {}, Address = {}, {}", currentPort, (m_iface.getAddress()), m_httpClient.getTimeoutTracker());
+
+            m_httpClient.setCurrentPort(currentPort);
+            m_serviceInfo = new StringBuilder(m_iface.getAddress().toString())
+            .append(":").append(m_svc.getSvcName()).append(":").append(currentPort)
+            .toString();
+
+            m_httpClient.getTimeoutTracker().reset();
+            attempt();
+        }
+
+        private void nextAttempt() {
+            m_httpClient.getTimeoutTracker().nextAttempt();
+            NioPollReactor.getInstance().executeLater(m_httpClient.getTimeoutTracker().getAttemptDelayInMillis(), new Runnable() {
+                @Override
+                public void run() {
+                    attempt();
+                }
+            });
+        }
+
+        private void attempt() {
+            final TimeoutTracker tracker = m_httpClient.getTimeoutTracker();
+            if (!tracker.shouldRetry() || m_httpClient.getPollStatus() == PollStatus.SERVICE_AVAILABLE) {
+                nextPort();
+                return;
+            }
+
+            tracker.startAttempt();
+            NioPollReactor.getInstance().connect(new InetSocketAddress(m_iface.getAddress(), m_httpClient.getCurrentPort()), tracker.getConnectionTimeout(), tracker.getSoTimeout(),
+                                                 m_httpClient.getHttpCommand(), NioPollReactor.UNTIL_CLOSED, this);
+        }
+
+        @Override
+        public void exchangeComplete(final NioPollReactor.Result result) {
+            try {
+                if (!result.isConnected()) {
+                    throw result.getFailure();
+                }
+                m_httpClient.setPollStatus(PollStatus.SERVICE_UNRESPONSIVE);
+                LOG.debug("HttpMonitor: connected to host: {} on port: {}", (m_iface.getAddress()), m_httpClient.getCurrentPort());
+
+                m_httpClient.receiveHttpResponse(new ReceivedInputStream(result));
+                // the response time is measured up to the first bytes of the response, like a blocking poll
+                checkResponse(m_httpClient, m_serviceInfo, m_httpClient.getTimeoutTracker().elapsedTimeInMillis() - result.getReadTimeInMillis());
+            } catch (final Throwable e) {
+                if (handlePollFailure(e, m_httpClient, m_serviceInfo)) {
+                    m_skipRemainingPorts = true;
+                }
+            }
+            nextAttempt();
+        }
+    }
+
+    /**
+     * Replays the bytes of a non-blocking exchange and then throws the
+     * error that ended it, if any, just as a blocking socket would have.
+     */
+    private static final class ReceivedInputStream extends FilterInputStream {
+        private final IOException m_failure;
+
+        private ReceivedInputStream(final NioPollReactor.Result result) {
+            super(new ByteArrayInputStream(result.getResponse()));
+            m_failure = result.getFailure();
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int c = super.read();
+            if (c < 0 && m_failure != null) throw m_failure;
+            return c;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int count = super.read(b, off, len);
+            if (count < 0 && m_failure != null) throw m_failure;
+            return count;
+        }
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -125,6 +245,10 @@ public class HttpMonitor extends AbstractServiceMonitor {
      */
     @Override
     public PollStatus poll(final MonitoredService svc, final Map<String, Object> parameters) {
+        if (isNonBlocking()) {
+            return super.poll(svc, parameters);
+        }
+
         final NetworkInterface<InetAddress> iface = svc.getNetInterface();
         final String nodeLabel = svc.getNodeLabel();
 
@@ -158,52 +282,11 @@ public class HttpMonitor extends AbstractServiceMonitor {
                     LOG.debug("HttpMonitor: connected to host: {} on port: {}", (iface.getAddress()), currentPort);
 
                     httpClient.sendHttpCommand();
-                    
-                    if (httpClient.isEndOfStream()) {
-                        continue;
-                    }
-
-                    httpClient.setResponseTime(httpClient.getTimeoutTracker().elapsedTimeInMillis());
-                    logResponseTimes(httpClient.getResponseTime(), httpClient.getCurrentLine());
-
-                    if (httpClient.getPollStatus() == PollStatus.SERVICE_AVAILABLE && StringUtils.isNotBlank(httpClient.getResponseText())) {
-                        httpClient.setPollStatus(PollStatus.SERVICE_UNAVAILABLE);
-                        httpClient.readLinedMatching();
-                        
-                        if (httpClient.isEndOfStream()) {
-                            continue;
-                        }
-
-                        httpClient.read();
-
-                        if (!httpClient.isResponseTextFound()) {
-                            String message = "Matching text: ["+httpClient.getResponseText()+"] not found in body of HTTP response for " + serviceInfo;
-                            LOG.debug(message);
-                            httpClient.setReason("Matching text: ["+httpClient.getResponseText()+"] not found in body of HTTP response");
-                        }
-                    }
-                    
-                } catch (NoRouteToHostException e) {
-                    LOG.warn("checkStatus: No route to host exception while polling {}", serviceInfo, e);
-                    portIndex = determinePorts(httpClient.getParameters()).length; // Will cause outer for(;;) to terminate
-                    httpClient.setReason("No route to host exception");
-                } catch (SocketTimeoutException e) {
-                    LOG.info("checkStatus: HTTP socket connection for service {} timed out with {}", serviceInfo, httpClient.getTimeoutTracker().toString());
-                    httpClient.setReason("HTTP connection timeout");
-                } catch (InterruptedIOException e) {
-                    LOG.info(String.format("checkStatus: HTTP connection for service {} interrupted after {} bytes transferred with {}", serviceInfo, e.bytesTransferred, httpClient.getTimeoutTracker().toString()), e);
-                    httpClient.setReason(String.format("HTTP connection interrupted, %d bytes transferred", e.bytesTransferred));
-                } catch (ConnectException e) {
-                    LOG.warn("Connection exception for {}", serviceInfo, e);
-                    httpClient.setReason("HTTP connection exception on port: "+determinePorts(httpClient.getParameters())[portIndex]+": "+e.getMessage());
-                } catch (IOException e) {
-                    String exceptionClass = e.getClass().getSimpleName();
-                    LOG.warn("{} while polling {}", exceptionClass, serviceInfo, e);
-                    httpClient.setReason("IOException while polling address: "+(iface.getAddress())+": "+e.getMessage());
+                    checkResponse(httpClient, serviceInfo, httpClient.getTimeoutTracker().elapsedTimeInMillis());
                 } catch (Throwable e) {
-                    String exceptionClass = e.getClass().getSimpleName();
-                    LOG.warn("Unexpected {} while polling {}", exceptionClass, serviceInfo, e);
-                    httpClient.setReason("Unexpected exception while polling address: "+(iface.getAddress())+": "+e.getMessage());
+                    if (handlePollFailure(e, httpClient, serviceInfo)) {
+                        portIndex = determinePorts(httpClient.getParameters()).length; // Will cause outer for(;;) to terminate
+                    }
                 } finally {
                     httpClient.closeConnection();
                 }
@@ -214,6 +297,98 @@ public class HttpMonitor extends AbstractServiceMonitor {
 
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Plain HTTP is polled without blocking by the shared
+     * {@link NioPollReactor}.  Subclasses that need a different socket, such
+     * as {@link HttpsMonitor}, are polled on the calling thread.
+     */
+    @Override
+    public CallbackFuture<PollStatus> pollAsync(final MonitoredService svc, final Map<String, Object> parameters) {
+        if (!isNonBlocking()) {
+            return CallbackFuture.completedFuture(poll(svc, parameters));
+        }
+        if (svc.getNetInterface().getType() != NetworkInterface.TYPE_INET) {
+            throw new NetworkInterfaceNotSupportedException("Unsupported interface type, only TYPE_INET currently supported");
+        }
+
+        final HttpPoll poll = new HttpPoll(svc, parameters);
+        poll.nextPort();
+        return poll.m_future;
+    }
+
+    /**
+     * Non-blocking polls can only be used with plain sockets.
+     *
+     * @return true if this monitor can be polled by the {@link NioPollReactor}
+     */
+    protected boolean isNonBlocking() {
+        return getSocketWrapper().getClass() == DefaultSocketWrapper.class;
+    }
+
+    /**
+     * Checks the rest of the response once the status line has been read.
+     */
+    private void checkResponse(final HttpMonitorClient httpClient, final String serviceInfo, final double responseTime) throws IOException {
+        if (httpClient.isEndOfStream()) {
+            return;
+        }
+
+        httpClient.setResponseTime(responseTime);
+        logResponseTimes(httpClient.getResponseTime(), httpClient.getCurrentLine());
+
+        if (httpClient.getPollStatus() == PollStatus.SERVICE_AVAILABLE && StringUtils.isNotBlank(httpClient.getResponseText())) {
+            httpClient.setPollStatus(PollStatus.SERVICE_UNAVAILABLE);
+            httpClient.readLinedMatching();
+            
+            if (httpClient.isEndOfStream()) {
+                return;
+            }
+
+            httpClient.read();
+
+            if (!httpClient.isResponseTextFound()) {
+                String message = "Matching text: ["+httpClient.getResponseText()+"] not found in body of HTTP response for " + serviceInfo;
+                LOG.debug(message);
+                httpClient.setReason("Matching text: ["+httpClient.getResponseText()+"] not found in body of HTTP response");
+            }
+        }
+    }
+
+    /**
+     * Records the reason an attempt failed.
+     *
+     * @return true if the remaining ports should not be tried
+     */
+    private boolean handlePollFailure(final Throwable e, final HttpMonitorClient httpClient, final String serviceInfo) {
+        final NetworkInterface<InetAddress> iface = httpClient.m_iface;
+        if (e instanceof NoRouteToHostException) {
+            LOG.warn("checkStatus: No route to host exception while polling {}", serviceInfo, e);
+            httpClient.setReason("No route to host exception");
+            return true;
+        } else if (e instanceof SocketTimeoutException) {
+            LOG.info("checkStatus: HTTP socket connection for service {} timed out with {}", serviceInfo, httpClient.getTimeoutTracker().toString());
+            httpClient.setReason("HTTP connection timeout");
+        } else if (e instanceof InterruptedIOException) {
+            final InterruptedIOException ie = (InterruptedIOException)e;
+            LOG.info(String.format("checkStatus: HTTP connection for service {} interrupted after {} bytes transferred with {}", serviceInfo, ie.bytesTransferred, httpClient.getTimeoutTracker().toString()), e);
+            httpClient.setReason(String.format("HTTP connection interrupted, %d bytes transferred", ie.bytesTransferred));
+        } else if (e instanceof ConnectException) {
+            LOG.warn("Connection exception for {}", serviceInfo, e);
+            httpClient.setReason("HTTP connection exception on port: "+httpClient.getCurrentPort()+": "+e.getMessage());
+        } else if (e instanceof IOException) {
+            String exceptionClass = e.getClass().getSimpleName();
+            LOG.warn("{} while polling {}", exceptionClass, serviceInfo, e);
+            httpClient.setReason("IOException while polling address: "+(iface.getAddress())+": "+e.getMessage());
+        } else {
+            String exceptionClass = e.getClass().getSimpleName();
+            LOG.warn("Unexpected {} while polling {}", exceptionClass, serviceInfo, e);
+            httpClient.setReason("Unexpected exception while polling address: "+(iface.getAddress())+": "+e.getMessage());
+        }
+        return false;
+    }
+
     private void logResponseTimes(Double responseTime, String line) {
         LOG.debug("poll: response= {}", line);
         LOG.debug("poll: responseTime= {}ms", responseTime);
@@ -541,11 +716,19 @@ public class HttpMonitor extends AbstractServiceMonitor {
         }
 
         public void sendHttpCommand() throws IOException {
+            m_httpSocket.getOutputStream().write(getHttpCommand());
+            receiveHttpResponse(m_httpSocket.getInputStream());
+        }
+
+        public byte[] getHttpCommand() {
             if (determineVerbosity(m_parameters) && HttpMonitor.LOG.isDebugEnabled()) {
                 HttpMonitor.LOG.debug("Sending HTTP command: {}", m_httpCmd);
             }
-            m_httpSocket.getOutputStream().write(m_httpCmd.getBytes());
-            m_lineRdr = new BufferedReader(new InputStreamReader(m_httpSocket.getInputStream()));
+            return m_httpCmd.getBytes();
+        }
+
+        public void receiveHttpResponse(final InputStream in) throws IOException {
+            m_lineRdr = new BufferedReader(new InputStreamReader(in));
             readLine();
             if (determineVerbosity(m_parameters)) {
                 HttpMonitor.LOG.debug("Server response: {}", m_currentLine);
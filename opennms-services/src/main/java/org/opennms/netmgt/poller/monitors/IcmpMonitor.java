@@ -31,11 +31,15 @@ package org.opennms.netmgt.poller.monitors;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import org.opennms.core.utils.CallbackFuture;
 import org.opennms.core.utils.ParameterMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.opennms.netmgt.icmp.EchoPacket;
 import org.opennms.netmgt.icmp.PingConstants;
+import org.opennms.netmgt.icmp.PingResponseCallback;
 import org.opennms.netmgt.icmp.PingerFactory;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
@@ -56,7 +60,7 @@ import org.opennms.netmgt.poller.PollStatus;
  */
 
 @Distributable
-final public class IcmpMonitor extends AbstractServiceMonitor {
+final public class IcmpMonitor extends AbstractAsyncServiceMonitor {
     private static final Logger LOG = LoggerFactory.getLogger(IcmpMonitor.class);
     /**
      * Constructs a new monitor.
@@ -74,14 +78,13 @@ final public class IcmpMonitor extends AbstractServiceMonitor {
      * </P>
      *
      * <P>
-     * The ICMP service monitor relies on Discovery for the actual generation of
-     * IMCP 'ping' requests. A JSDT session with two channels (send/recv) is
-     * utilized for passing poll requests and receiving poll replies from
-     * discovery. All exchanges are SOAP/XML compliant.
+     * The echo request is handed to the shared {@link org.opennms.netmgt.icmp.Pinger}
+     * and the poll completes from its response callback, so no poller thread
+     * waits for the reply.
      * </P>
      */
     @Override
-    public PollStatus poll(MonitoredService svc, Map<String, Object> parameters) {
+    public CallbackFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
         NetworkInterface<InetAddress> iface = svc.getNetInterface();
 
         // Get interface address from NetworkInterface
@@ -89,8 +92,8 @@ final public class IcmpMonitor extends AbstractServiceMonitor {
         if (iface.getType() != NetworkInterface.TYPE_INET)
             throw new NetworkInterfaceNotSupportedException("Unsupported interface type, only TYPE_INET currently supported");
 
-        Number rtt = null;
-        InetAddress host = (InetAddress) iface.getAddress();
+        final CallbackFuture<PollStatus> future = new CallbackFuture<PollStatus>();
+        final InetAddress host = (InetAddress) iface.getAddress();
 
         try {
             
@@ -100,18 +103,31 @@ final public class IcmpMonitor extends AbstractServiceMonitor {
             long timeout = ParameterMap.getKeyedLong(parameters, "timeout", PingConstants.DEFAULT_TIMEOUT);
             int packetSize = ParameterMap.getKeyedInteger(parameters, "packet-size", PingConstants.DEFAULT_PACKET_SIZE);
             
-            rtt = PingerFactory.getInstance().ping(host, timeout, retries,packetSize);
+            PingerFactory.getInstance().ping(host, timeout, retries, packetSize, 1, new PingResponseCallback() {
+                @Override
+                public void handleResponse(InetAddress address, EchoPacket response) {
+                    // round-trip time in microseconds, as the synchronous ping reports it
+                    future.complete(PollStatus.available((double)Math.round(response.elapsedTime(TimeUnit.MICROSECONDS))));
+                }
+
+                @Override
+                public void handleTimeout(InetAddress address, EchoPacket request) {
+                    // TODO add a reason code for unavailability
+                    future.complete(PollStatus.unavailable());
+                }
+
+                @Override
+                public void handleError(InetAddress address, EchoPacket request, Throwable t) {
+                    LOG.debug("failed to ping {}", host, t);
+                    future.complete(PollStatus.unavailable());
+                }
+            });
         } catch (Throwable e) {
             LOG.debug("failed to ping {}", host, e);
+            future.complete(PollStatus.unavailable());
         }
         
-        if (rtt != null) {
-            return PollStatus.available(rtt.doubleValue());
-        } else {
-            // TODO add a reason code for unavailability
-            return PollStatus.unavailable();
-        }
-
+        return future;
     }
 
 }
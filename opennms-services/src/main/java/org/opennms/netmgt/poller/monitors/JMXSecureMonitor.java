@@ -48,6 +48,6 @@ public class JMXSecureMonitor extends JMXMonitor
         @Override
 	public ConnectionWrapper getMBeanServerConnection(Map<String,Object> parameterMap, InetAddress address)
 	{
-		return JMXSecureConnectionFactory.getMBeanServerConnection(parameterMap, address);
+		return JMXSecureConnectionFactory.getPooledMBeanServerConnection(parameterMap, address, false);
 	}
 }
@@ -56,7 +56,7 @@ public class Jsr160Monitor extends JMXMonitor {
     /** {@inheritDoc} */
     @Override
     public ConnectionWrapper getMBeanServerConnection(Map<String, Object> parameterMap, InetAddress address) {
-        return Jsr160ConnectionFactory.getMBeanServerConnection(parameterMap, address);
+        return Jsr160ConnectionFactory.getPooledMBeanServerConnection(parameterMap, address, false);
     }
 
 }
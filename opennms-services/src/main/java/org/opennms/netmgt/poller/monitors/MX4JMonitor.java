@@ -56,7 +56,7 @@ public class MX4JMonitor extends JMXMonitor {
   /** {@inheritDoc} */
   @Override
   public ConnectionWrapper getMBeanServerConnection(Map<String, Object> parameterMap, InetAddress address) {
-      return MX4JConnectionFactory.getMBeanServerConnection(parameterMap, address);
+      return MX4JConnectionFactory.getPooledMBeanServerConnection(parameterMap, address, false);
   }
 
 }
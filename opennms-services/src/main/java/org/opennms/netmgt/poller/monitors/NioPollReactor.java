@@ -0,0 +1,615 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.monitors;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single selector thread that drives the socket I/O of the non-blocking
+ * service monitors.
+ *
+ * <p>Each call to {@link #connect} or {@link #send} runs one request/response
+ * exchange over its own TCP or UDP channel: the reactor connects, writes the
+ * request, reads the response and enforces the connect and read timeouts
+ * without any thread waiting on the socket.  The outcome is handed to a
+ * {@link Callback} on the reactor thread, so callbacks must not block; they
+ * may start further exchanges (the next attempt or port) directly.</p>
+ */
+public class NioPollReactor implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NioPollReactor.class);
+
+    /**
+     * Responses are never buffered beyond this size; an exchange that
+     * reaches it completes as if the peer had closed the connection.
+     */
+    public static final int MAX_RESPONSE_SIZE = 1024 * 1024;
+
+    private static final int MAX_DATAGRAM_SIZE = 65535;
+
+    private static NioPollReactor s_instance;
+
+    /**
+     * Decides when enough of a TCP response has been read.
+     */
+    public static interface ResponseMatcher {
+        /**
+         * @param response the bytes received so far
+         * @param length the number of valid bytes in <code>response</code>
+         * @return true to complete the exchange now
+         */
+        boolean isComplete(byte[] response, int length);
+    }
+
+    /**
+     * Completes as soon as the first line (terminated by a line feed) has
+     * been read.
+     */
+    public static final ResponseMatcher FIRST_LINE = new ResponseMatcher() {
+        @Override
+        public boolean isComplete(final byte[] response, final int length) {
+            for (int i = 0; i < length; i++) {
+                if (response[i] == '\n') return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Reads until the peer closes the connection.
+     */
+    public static final ResponseMatcher UNTIL_CLOSED = new ResponseMatcher() {
+        @Override
+        public boolean isComplete(final byte[] response, final int length) {
+            return false;
+        }
+    };
+
+    /**
+     * Receives the outcome of an exchange.
+     */
+    public static interface Callback {
+        void exchangeComplete(Result result);
+    }
+
+    /**
+     * The outcome of an exchange: whether the channel got connected, the
+     * response received (possibly partial) and the I/O error that ended the
+     * exchange, if any.  Timeouts are reported as a
+     * {@link SocketTimeoutException}, just as with a blocking socket.
+     */
+    public static final class Result {
+        private final boolean m_connected;
+        private final byte[] m_response;
+        private final boolean m_endOfStream;
+        private final IOException m_failure;
+        private final long m_readTimeNanos;
+
+        Result(final boolean connected, final byte[] response, final boolean endOfStream, final IOException failure, final long readTimeNanos) {
+            m_connected = connected;
+            m_response = response;
+            m_endOfStream = endOfStream;
+            m_failure = failure;
+            m_readTimeNanos = readTimeNanos;
+        }
+
+        public boolean isConnected() {
+            return m_connected;
+        }
+
+        public byte[] getResponse() {
+            return m_response;
+        }
+
+        public boolean isEndOfStream() {
+            return m_endOfStream;
+        }
+
+        public IOException getFailure() {
+            return m_failure;
+        }
+
+        public boolean isSuccessful() {
+            return m_failure == null;
+        }
+
+        /**
+         * @return the time between the first bytes of the response arriving
+         *         and the exchange completing, or 0 if nothing was received
+         */
+        public double getReadTimeInMillis() {
+            return m_readTimeNanos / 1000000.0;
+        }
+
+        @Override
+        public String toString() {
+            return "Result[connected=" + m_connected + ", bytes=" + m_response.length + ", eof=" + m_endOfStream + ", failure=" + m_failure + "]";
+        }
+    }
+
+    private final class Timeout implements Comparable<Timeout> {
+        private final long m_deadline;
+        private final long m_sequence;
+        private final Runnable m_task;
+        private boolean m_cancelled = false;
+
+        private Timeout(final long deadline, final long sequence, final Runnable task) {
+            m_deadline = deadline;
+            m_sequence = sequence;
+            m_task = task;
+        }
+
+        @Override
+        public int compareTo(final Timeout o) {
+            if (m_deadline != o.m_deadline) {
+                return m_deadline < o.m_deadline ? -1 : 1;
+            }
+            return m_sequence < o.m_sequence ? -1 : (m_sequence == o.m_sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * State shared by TCP and UDP exchanges.  Everything but the constructor
+     * runs on the reactor thread.
+     */
+    private abstract class Exchange {
+        protected final InetSocketAddress m_address;
+        protected final Callback m_callback;
+        protected SelectableChannel m_channel;
+        protected boolean m_connected = false;
+        protected byte[] m_received = new byte[0];
+        protected int m_length = 0;
+        private long m_firstReadNanos = -1L;
+        private SelectionKey m_key;
+        private Timeout m_timeout;
+        private boolean m_done = false;
+
+        protected Exchange(final InetSocketAddress address, final Callback callback) {
+            m_address = address;
+            m_callback = callback;
+        }
+
+        private void begin() {
+            try {
+                start();
+            } catch (final IOException e) {
+                finish(false, e);
+            } catch (final RuntimeException e) {
+                finish(false, new IOException("Unable to start exchange with " + m_address + ": " + e, e));
+            }
+        }
+
+        protected abstract void start() throws IOException;
+
+        protected abstract void ready(SelectionKey key) throws IOException;
+
+        protected void interest(final int ops) throws IOException {
+            if (m_key == null) {
+                m_key = m_channel.register(m_selector, ops, this);
+            } else {
+                m_key.interestOps(ops);
+            }
+        }
+
+        /**
+         * Arms the exchange timeout. Like SO_TIMEOUT, a timeout of zero or
+         * less means wait forever, so nothing is scheduled.
+         */
+        protected void arm(final long millis, final String message) {
+            disarm();
+            if (millis <= 0) {
+                return;
+            }
+            m_timeout = schedule(millis, new Runnable() {
+                @Override
+                public void run() {
+                    finish(false, new SocketTimeoutException(message));
+                }
+            });
+        }
+
+        private void disarm() {
+            if (m_timeout != null) {
+                m_timeout.m_cancelled = true;
+                m_timeout = null;
+            }
+        }
+
+        protected void append(final ByteBuffer buf) {
+            buf.flip();
+            if (m_firstReadNanos < 0 && buf.hasRemaining()) {
+                m_firstReadNanos = System.nanoTime();
+            }
+            final int needed = m_length + buf.remaining();
+            if (needed > m_received.length) {
+                m_received = Arrays.copyOf(m_received, Math.min(MAX_RESPONSE_SIZE, Math.max(needed, m_received.length * 2)));
+            }
+            final int count = Math.min(buf.remaining(), m_received.length - m_length);
+            buf.get(m_received, m_length, count);
+            m_length += count;
+            buf.clear();
+        }
+
+        protected void finish(final boolean endOfStream, final IOException failure) {
+            if (m_done) return;
+            m_done = true;
+            disarm();
+            if (m_key != null) {
+                m_key.cancel();
+            }
+            if (m_channel != null) {
+                try {
+                    m_channel.close();
+                } catch (final IOException e) {
+                    LOG.debug("Error closing channel to {}", m_address, e);
+                }
+            }
+            m_active.decrementAndGet();
+
+            final long readTime = m_firstReadNanos < 0 ? 0L : System.nanoTime() - m_firstReadNanos;
+            final Result result = new Result(m_connected, Arrays.copyOf(m_received, m_length), endOfStream, failure, readTime);
+            try {
+                m_callback.exchangeComplete(result);
+            } catch (final RuntimeException e) {
+                LOG.warn("Unexpected exception thrown by callback {} for {}", m_callback, m_address, e);
+            }
+        }
+    }
+
+    private final class TcpExchange extends Exchange {
+        private final int m_connectTimeout;
+        private final int m_readTimeout;
+        private final ByteBuffer m_request;
+        private final ResponseMatcher m_matcher;
+
+        private TcpExchange(final InetSocketAddress address, final int connectTimeout, final int readTimeout, final byte[] request, final ResponseMatcher matcher, final Callback callback) {
+            super(address, callback);
+            m_connectTimeout = connectTimeout;
+            m_readTimeout = readTimeout;
+            m_request = request == null ? null : ByteBuffer.wrap(request);
+            m_matcher = matcher;
+        }
+
+        @Override
+        protected void start() throws IOException {
+            final SocketChannel channel = SocketChannel.open();
+            m_channel = channel;
+            channel.configureBlocking(false);
+            if (channel.connect(m_address)) {
+                connected();
+            } else {
+                interest(SelectionKey.OP_CONNECT);
+                arm(m_connectTimeout, "connect timed out");
+            }
+        }
+
+        @Override
+        protected void ready(final SelectionKey key) throws IOException {
+            final SocketChannel channel = (SocketChannel)m_channel;
+            if (key.isConnectable()) {
+                if (channel.finishConnect()) {
+                    connected();
+                }
+            } else if (key.isWritable()) {
+                channel.write(m_request);
+                if (!m_request.hasRemaining()) {
+                    startReading();
+                }
+            } else if (key.isReadable()) {
+                final ByteBuffer buf = ByteBuffer.allocate(8192);
+                final int count = channel.read(buf);
+                if (count < 0) {
+                    finish(true, null);
+                } else if (count > 0) {
+                    append(buf);
+                    if (m_length >= MAX_RESPONSE_SIZE || m_matcher.isComplete(m_received, m_length)) {
+                        finish(m_length >= MAX_RESPONSE_SIZE, null);
+                    } else {
+                        // like SO_TIMEOUT, the read timeout applies to each read
+                        arm(m_readTimeout, "Read timed out");
+                    }
+                }
+            }
+        }
+
+        private void connected() throws IOException {
+            m_connected = true;
+            if (m_request != null && m_request.hasRemaining()) {
+                interest(SelectionKey.OP_WRITE);
+                arm(m_readTimeout, "Write timed out");
+            } else {
+                startReading();
+            }
+        }
+
+        private void startReading() throws IOException {
+            if (m_matcher == null) {
+                finish(false, null);
+                return;
+            }
+            interest(SelectionKey.OP_READ);
+            arm(m_readTimeout, "Read timed out");
+        }
+    }
+
+    private final class UdpExchange extends Exchange {
+        private final int m_timeout;
+        private final byte[] m_request;
+
+        private UdpExchange(final InetSocketAddress address, final int timeout, final byte[] request, final Callback callback) {
+            super(address, callback);
+            m_timeout = timeout;
+            m_request = request;
+        }
+
+        @Override
+        protected void start() throws IOException {
+            final DatagramChannel channel = DatagramChannel.open();
+            m_channel = channel;
+            channel.configureBlocking(false);
+            channel.connect(m_address);
+            channel.write(ByteBuffer.wrap(m_request));
+            m_connected = true;
+            interest(SelectionKey.OP_READ);
+            arm(m_timeout, "Receive timed out");
+        }
+
+        @Override
+        protected void ready(final SelectionKey key) throws IOException {
+            if (key.isReadable()) {
+                final ByteBuffer buf = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+                if (((DatagramChannel)m_channel).read(buf) > 0) {
+                    append(buf);
+                    finish(false, null);
+                }
+            }
+        }
+    }
+
+    private final Selector m_selector;
+    private final Queue<Runnable> m_submitted = new ConcurrentLinkedQueue<Runnable>();
+    private final PriorityQueue<Timeout> m_timeouts = new PriorityQueue<Timeout>();
+    private final AtomicInteger m_active = new AtomicInteger(0);
+    private long m_timeoutSequence = 0;
+    private volatile boolean m_running = false;
+    private Thread m_thread;
+
+    /**
+     * Returns the reactor shared by all monitors, starting it on first use.
+     */
+    public static synchronized NioPollReactor getInstance() {
+        if (s_instance == null) {
+            try {
+                s_instance = new NioPollReactor();
+            } catch (final IOException e) {
+                throw new IllegalStateException("Unable to open a selector for the NIO poll reactor", e);
+            }
+            s_instance.start();
+        }
+        return s_instance;
+    }
+
+    public NioPollReactor() throws IOException {
+        m_selector = Selector.open();
+    }
+
+    public synchronized void start() {
+        if (m_thread != null) return;
+        m_running = true;
+        m_thread = new Thread(this, "NioPollReactor");
+        m_thread.setDaemon(true);
+        m_thread.start();
+    }
+
+    /**
+     * Stops the reactor thread.  Exchanges still in progress complete with
+     * an {@link IOException}.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (m_thread == null) return;
+        m_running = false;
+        m_selector.wakeup();
+        m_thread.join();
+        m_thread = null;
+    }
+
+    /**
+     * Connects to the given address, writes the request (if any) and reads
+     * the response until the matcher is satisfied or the peer closes the
+     * connection.  With a null matcher the exchange completes as soon as the
+     * connection is established.
+     */
+    public void connect(final InetSocketAddress address, final int connectTimeout, final int readTimeout, final byte[] request, final ResponseMatcher matcher, final Callback callback) {
+        submit(new TcpExchange(address, connectTimeout, readTimeout, request, matcher, callback));
+    }
+
+    /**
+     * Sends a single datagram to the given address and waits for a single
+     * datagram in response.
+     */
+    public void send(final InetSocketAddress address, final int timeout, final byte[] request, final Callback callback) {
+        submit(new UdpExchange(address, timeout, request, callback));
+    }
+
+    private void submit(final Exchange exchange) {
+        m_active.incrementAndGet();
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                exchange.begin();
+            }
+        });
+    }
+
+    /**
+     * Runs the given task on the reactor thread as soon as possible.
+     */
+    public void execute(final Runnable task) {
+        m_submitted.add(task);
+        m_selector.wakeup();
+    }
+
+    /**
+     * Runs the given task on the reactor thread once the delay has passed.
+     * Must be called from the reactor thread; other threads should wrap the
+     * call in {@link #execute(Runnable)}.
+     */
+    private Timeout schedule(final long delayInMillis, final Runnable task) {
+        final Timeout timeout = new Timeout(System.nanoTime() + TimeUnit.NANOSECONDS.convert(delayInMillis, TimeUnit.MILLISECONDS), m_timeoutSequence++, task);
+        m_timeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Runs the given task on the reactor thread once the delay has passed.
+     */
+    public void executeLater(final long delayInMillis, final Runnable task) {
+        if (delayInMillis <= 0) {
+            execute(task);
+            return;
+        }
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                schedule(delayInMillis, task);
+            }
+        });
+    }
+
+    /**
+     * @return the number of exchanges that have been submitted and have not
+     *         completed yet
+     */
+    public int getActiveExchanges() {
+        return m_active.get();
+    }
+
+    @Override
+    public void run() {
+        while (m_running) {
+            try {
+                runSubmitted();
+                final long wait = runTimeouts();
+                if (!m_submitted.isEmpty()) {
+                    m_selector.selectNow();
+                } else {
+                    m_selector.select(wait);
+                }
+                final Iterator<SelectionKey> it = m_selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+                    final Exchange exchange = (Exchange)key.attachment();
+                    try {
+                        if (key.isValid()) {
+                            exchange.ready(key);
+                        }
+                    } catch (final IOException e) {
+                        exchange.finish(false, e);
+                    } catch (final RuntimeException e) {
+                        exchange.finish(false, new IOException("Unexpected error talking to " + exchange.m_address + ": " + e, e));
+                    }
+                }
+            } catch (final Throwable t) {
+                LOG.error("Unexpected error in NIO poll reactor", t);
+            }
+        }
+        shutdown();
+    }
+
+    private void runSubmitted() {
+        Runnable task;
+        while ((task = m_submitted.poll()) != null) {
+            try {
+                task.run();
+            } catch (final RuntimeException e) {
+                LOG.warn("Unexpected exception running {}", task, e);
+            }
+        }
+    }
+
+    /**
+     * Runs the expired timeouts.
+     *
+     * @return how long to wait for the next one, in milliseconds, or 0 if
+     *         there are none
+     */
+    private long runTimeouts() {
+        while (!m_timeouts.isEmpty()) {
+            final Timeout next = m_timeouts.peek();
+            if (next.m_cancelled) {
+                m_timeouts.poll();
+                continue;
+            }
+            final long remaining = next.m_deadline - System.nanoTime();
+            if (remaining > 0) {
+                return Math.max(1L, TimeUnit.MILLISECONDS.convert(remaining, TimeUnit.NANOSECONDS));
+            }
+            m_timeouts.poll();
+            try {
+                next.m_task.run();
+            } catch (final RuntimeException e) {
+                LOG.warn("Unexpected exception running {}", next.m_task, e);
+            }
+        }
+        return 0L;
+    }
+
+    private void shutdown() {
+        runSubmitted();
+        final List<Exchange> exchanges = new ArrayList<Exchange>();
+        for (final SelectionKey key : m_selector.keys()) {
+            exchanges.add((Exchange)key.attachment());
+        }
+        for (final Exchange exchange : exchanges) {
+            exchange.finish(false, new IOException("NIO poll reactor stopped"));
+        }
+        m_timeouts.clear();
+    }
+}
@@ -31,24 +31,31 @@ package org.opennms.netmgt.poller.monitors;
 import java.io.IOException;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import org.opennms.core.utils.CallbackFuture;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.core.utils.PropertiesUtils;
 import org.opennms.core.utils.TimeoutTracker;
 import org.opennms.netmgt.config.SnmpPeerFactory;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.DistributionContext;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.NetworkInterface;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.snmp.ColumnTracker;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
 import org.opennms.netmgt.snmp.SnmpUtils;
 import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpWalker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -68,7 +75,7 @@ import org.slf4j.LoggerFactory;
  * @author <A HREF="http://www.opennms.org/">OpenNMS </A>
  */
 @Distributable(DistributionContext.DAEMON)
-public class SnmpMonitor extends SnmpMonitorStrategy {
+public class SnmpMonitor extends SnmpMonitorStrategy implements AsyncServiceMonitor {
     
     public static final Logger LOG = LoggerFactory.getLogger(SnmpMonitor.class);
     
@@ -152,9 +159,23 @@ public class SnmpMonitor extends SnmpMonitorStrategy {
      */
     @Override
     public PollStatus poll(MonitoredService svc, Map<String, Object> parameters) {
+        return AbstractAsyncServiceMonitor.waitFor(pollAsync(svc, parameters));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <P>
+     * The request or walk is sent without blocking and the poll completes
+     * from the SNMP listener thread once the agent has answered or timed out.
+     * </P>
+     * @exception RuntimeException
+     *                Thrown for any unrecoverable errors.
+     */
+    @Override
+    public CallbackFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
         NetworkInterface<InetAddress> iface = svc.getNetInterface();
 
-        PollStatus status = PollStatus.unavailable();
         InetAddress ipaddr = iface.getAddress();
 
         // Retrieve this interface's SNMP peer object
@@ -166,14 +187,15 @@ public class SnmpMonitor extends SnmpMonitorStrategy {
 
         // Get configuration parameters
         //
-        String oid = ParameterMap.getKeyedString(parameters, "oid", DEFAULT_OBJECT_IDENTIFIER);
-        String operator = ParameterMap.getKeyedString(parameters, "operator", null);
-        String operand = ParameterMap.getKeyedString(parameters, "operand", null);
+        final SnmpPoll poll = new SnmpPoll(hostAddress);
+        poll.oid = ParameterMap.getKeyedString(parameters, "oid", DEFAULT_OBJECT_IDENTIFIER);
+        poll.operator = ParameterMap.getKeyedString(parameters, "operator", null);
+        poll.operand = ParameterMap.getKeyedString(parameters, "operand", null);
         String walkstr = ParameterMap.getKeyedString(parameters, "walk", "false");
-        String matchstr = ParameterMap.getKeyedString(parameters, "match-all", "true");
-        int countMin = ParameterMap.getKeyedInteger(parameters, "minimum", 0);
-        int countMax = ParameterMap.getKeyedInteger(parameters, "maximum", 0);
-        String reasonTemplate = ParameterMap.getKeyedString(parameters, "reason-template", DEFAULT_REASON_TEMPLATE);
+        poll.matchstr = ParameterMap.getKeyedString(parameters, "match-all", "true");
+        poll.countMin = ParameterMap.getKeyedInteger(parameters, "minimum", 0);
+        poll.countMax = ParameterMap.getKeyedInteger(parameters, "maximum", 0);
+        poll.reasonTemplate = ParameterMap.getKeyedString(parameters, "reason-template", DEFAULT_REASON_TEMPLATE);
         String hexstr = ParameterMap.getKeyedString(parameters, "hex", "false");
 
         hex = "true".equalsIgnoreCase(hexstr);
@@ -184,14 +206,14 @@ public class SnmpMonitor extends SnmpMonitorStrategy {
         agentConfig.setPort(ParameterMap.getKeyedInteger(parameters, "port", agentConfig.getPort()));
 
         // Squirrel the configuration parameters away in a Properties for later expansion if service is down
-        Properties svcParams = new Properties();
-        svcParams.setProperty("oid", oid);
-        svcParams.setProperty("operator", String.valueOf(operator));
-        svcParams.setProperty("operand", String.valueOf(operand));
+        Properties svcParams = poll.svcParams;
+        svcParams.setProperty("oid", poll.oid);
+        svcParams.setProperty("operator", String.valueOf(poll.operator));
+        svcParams.setProperty("operand", String.valueOf(poll.operand));
         svcParams.setProperty("walk", walkstr);
-        svcParams.setProperty("matchAll", matchstr);
-        svcParams.setProperty("minimum", String.valueOf(countMin));
-        svcParams.setProperty("maximum", String.valueOf(countMax));
+        svcParams.setProperty("matchAll", poll.matchstr);
+        svcParams.setProperty("minimum", String.valueOf(poll.countMin));
+        svcParams.setProperty("maximum", String.valueOf(poll.countMax));
         svcParams.setProperty("timeout", String.valueOf(agentConfig.getTimeout()));
         svcParams.setProperty("retry", String.valueOf(agentConfig.getRetries()));
         svcParams.setProperty("retries", svcParams.getProperty("retry"));
@@ -206,105 +228,187 @@ public class SnmpMonitor extends SnmpMonitorStrategy {
         try {
             LOG.debug("SnmpMonitor.poll: SnmpAgentConfig address: {}", agentConfig);
 
-            TimeoutTracker tracker = new TimeoutTracker(parameters, agentConfig.getRetries(), agentConfig.getTimeout());
-            tracker.reset();
-            tracker.startAttempt();
+            poll.tracker = new TimeoutTracker(parameters, agentConfig.getRetries(), agentConfig.getTimeout());
+            poll.tracker.reset();
+            poll.tracker.startAttempt();
 
-            SnmpObjId snmpObjectId = SnmpObjId.get(oid);
+            SnmpObjId snmpObjectId = SnmpObjId.get(poll.oid);
 
             // This if block will count the number of matches within a walk and mark the service
             // as up if it is between the minimum and maximum number, down if otherwise. Setting
             // the parameter "matchall" to "count" will act as if "walk" has been set to "true".
-            if ("count".equals(matchstr)) {
-                if (DEFAULT_REASON_TEMPLATE.equals(reasonTemplate)) {
-                    reasonTemplate = "Value: ${matchCount} outside of range Min: ${minimum} to Max: ${maximum}";
+            if ("count".equals(poll.matchstr)) {
+                if (DEFAULT_REASON_TEMPLATE.equals(poll.reasonTemplate)) {
+                    poll.reasonTemplate = "Value: ${matchCount} outside of range Min: ${minimum} to Max: ${maximum}";
                 }
-                int matchCount = 0;
-                List<SnmpValue> results = SnmpUtils.getColumns(agentConfig, "snmpPoller", snmpObjectId);
-                for(SnmpValue result : results) {
-
-                    if (result != null) {
-                        LOG.debug("poll: SNMPwalk poll succeeded, addr={} oid={} value={}", hostAddress, oid, result);
-                        if (meetsCriteria(result, operator, operand)) {
-                            matchCount++;
-                        }
+                poll.walk(agentConfig, snmpObjectId, true);
+            } else if ("true".equals(walkstr)) {
+                if (DEFAULT_REASON_TEMPLATE.equals(poll.reasonTemplate)) {
+                    poll.reasonTemplate = "SNMP poll failed, addr=${ipaddr} oid=${oid}";
+                }
+                poll.walk(agentConfig, snmpObjectId, false);
+            } else {
+                if (DEFAULT_REASON_TEMPLATE.equals(poll.reasonTemplate)) {
+                    if (poll.operator != null) {
+                        poll.reasonTemplate = "Observed value '${observedValue}' does not meet criteria '${operator} ${operand}'";
+                    } else {
+                        poll.reasonTemplate = "Observed value '${observedValue}' was null";
                     }
                 }
-                svcParams.setProperty("matchCount", String.valueOf(matchCount));
-                LOG.debug("poll: SNMPwalk count succeeded, total={} min={} max={}", matchCount, countMin, countMax);
-                if ((countMin <= matchCount) && (matchCount <= countMax)) {
-                    status = PollStatus.available(tracker.elapsedTimeInMillis());
-                } else {
-                    String reason = PropertiesUtils.substitute(reasonTemplate, svcParams);
-                    LOG.debug(reason);
-                    status = PollStatus.unavailable(reason);
-                    return status;
+                poll.get(agentConfig, snmpObjectId);
+            }
+
+        } catch (Throwable t) {
+            poll.fail(t);
+        }
+
+        return poll.future;
+    }
+
+    /**
+     * The settings and outcome of one poll, completed from the callback of
+     * the SNMP request or walk.
+     */
+    private final class SnmpPoll {
+        private final CallbackFuture<PollStatus> future = new CallbackFuture<PollStatus>();
+        private final Properties svcParams = new Properties();
+        private final String hostAddress;
+        private String oid;
+        private String operator;
+        private String operand;
+        private String matchstr;
+        private int countMin;
+        private int countMax;
+        private String reasonTemplate;
+        private TimeoutTracker tracker;
+
+        private SnmpPoll(final String hostAddress) {
+            this.hostAddress = hostAddress;
+        }
+
+        private void get(final SnmpAgentConfig agentConfig, final SnmpObjId snmpObjectId) {
+            SnmpUtils.getAsync(agentConfig, new SnmpObjId[] { snmpObjectId }).addCallback(new CallbackFuture.Callback<SnmpValue[]>() {
+                @Override
+                public void onSuccess(final SnmpValue[] results) {
+                    try {
+                        future.complete(checkValue(results == null || results.length == 0 ? null : results[0]));
+                    } catch (Throwable t) {
+                        fail(t);
+                    }
                 }
-            } else if ("true".equals(walkstr)) {
-                if (DEFAULT_REASON_TEMPLATE.equals(reasonTemplate)) {
-                    reasonTemplate = "SNMP poll failed, addr=${ipaddr} oid=${oid}";
+
+                @Override
+                public void onFailure(final Throwable t) {
+                    LOG.debug("poll: SNMP request to {} failed", hostAddress, t);
+                    onSuccess(null);
                 }
-                List<SnmpValue> results = SnmpUtils.getColumns(agentConfig, "snmpPoller", snmpObjectId);
-                for(SnmpValue result : results) {
-                    if (result != null) {
-                        svcParams.setProperty("observedValue", getStringValue(result));
-                        LOG.debug("poll: SNMPwalk poll succeeded, addr={} oid={} value={}", hostAddress, oid, result);
-                        if (meetsCriteria(result, operator, operand)) {
-                            status = PollStatus.available(tracker.elapsedTimeInMillis());
-                            if ("false".equals(matchstr)) {
-                                return status;
-                            }
-                        } else if ("true".equals(matchstr)) {
-                            String reason = PropertiesUtils.substitute(reasonTemplate, svcParams);
-                            LOG.debug(reason);
-                            status = PollStatus.unavailable(reason);
-                            return status;
+            });
+        }
+
+        private void walk(final SnmpAgentConfig agentConfig, final SnmpObjId snmpObjectId, final boolean count) {
+            final List<SnmpValue> results = Collections.synchronizedList(new ArrayList<SnmpValue>());
+            final ColumnTracker columnTracker = new ColumnTracker(snmpObjectId) {
+                @Override
+                protected void storeResult(SnmpResult res) {
+                    results.add(res.getValue());
+                }
+            };
+
+            SnmpUtils.walkAsync(agentConfig, "snmpPoller", columnTracker).addCallback(new CallbackFuture.Callback<SnmpWalker>() {
+                @Override
+                public void onSuccess(final SnmpWalker walker) {
+                    try {
+                        synchronized (results) {
+                            future.complete(count ? checkCount(results) : checkWalk(results));
                         }
+                    } catch (Throwable t) {
+                        fail(t);
                     }
                 }
 
+                @Override
+                public void onFailure(final Throwable t) {
+                    LOG.debug("poll: SNMP walk of {} failed", hostAddress, t);
+                    onSuccess(null);
+                }
+            });
+        }
+
+        private PollStatus checkValue(final SnmpValue result) {
+            if (result != null) {
+                svcParams.setProperty("observedValue", getStringValue(result));
+                LOG.debug("poll: SNMP poll succeeded, addr={} oid={} value={}", hostAddress, oid, result);
+                
+                if (meetsCriteria(result, operator, operand)) {
+                    return PollStatus.available(tracker.elapsedTimeInMillis());
+                } else {
+                    return PollStatus.unavailable(PropertiesUtils.substitute(reasonTemplate, svcParams));
+                }
             } else {
-                if (DEFAULT_REASON_TEMPLATE.equals(reasonTemplate)) {
-                    if (operator != null) {
-                        reasonTemplate = "Observed value '${observedValue}' does not meet criteria '${operator} ${operand}'";
-                    } else {
-                        reasonTemplate = "Observed value '${observedValue}' was null";
+                String reason = "SNMP poll failed, addr=" + hostAddress + " oid=" + oid;
+                LOG.debug(reason);
+                return PollStatus.unavailable(reason);
+            }
+        }
+
+        private PollStatus checkCount(final List<SnmpValue> results) {
+            int matchCount = 0;
+            for(SnmpValue result : results) {
+
+                if (result != null) {
+                    LOG.debug("poll: SNMPwalk poll succeeded, addr={} oid={} value={}", hostAddress, oid, result);
+                    if (meetsCriteria(result, operator, operand)) {
+                        matchCount++;
                     }
                 }
+            }
+            svcParams.setProperty("matchCount", String.valueOf(matchCount));
+            LOG.debug("poll: SNMPwalk count succeeded, total={} min={} max={}", matchCount, countMin, countMax);
+            if ((countMin <= matchCount) && (matchCount <= countMax)) {
+                return PollStatus.available(tracker.elapsedTimeInMillis());
+            } else {
+                String reason = PropertiesUtils.substitute(reasonTemplate, svcParams);
+                LOG.debug(reason);
+                return PollStatus.unavailable(reason);
+            }
+        }
 
-                SnmpValue result = SnmpUtils.get(agentConfig, snmpObjectId);
-
+        private PollStatus checkWalk(final List<SnmpValue> results) {
+            PollStatus status = PollStatus.unavailable();
+            for(SnmpValue result : results) {
                 if (result != null) {
                     svcParams.setProperty("observedValue", getStringValue(result));
-                    LOG.debug("poll: SNMP poll succeeded, addr={} oid={} value={}", hostAddress, oid, result);
-                    
+                    LOG.debug("poll: SNMPwalk poll succeeded, addr={} oid={} value={}", hostAddress, oid, result);
                     if (meetsCriteria(result, operator, operand)) {
                         status = PollStatus.available(tracker.elapsedTimeInMillis());
-                    } else {
-                        status = PollStatus.unavailable(PropertiesUtils.substitute(reasonTemplate, svcParams));
+                        if ("false".equals(matchstr)) {
+                            return status;
+                        }
+                    } else if ("true".equals(matchstr)) {
+                        String reason = PropertiesUtils.substitute(reasonTemplate, svcParams);
+                        LOG.debug(reason);
+                        return PollStatus.unavailable(reason);
                     }
-                } else {
-                    String reason = "SNMP poll failed, addr=" + hostAddress + " oid=" + oid;
-                    LOG.debug(reason);
-                    status = PollStatus.unavailable(reason);
                 }
             }
-
-        } catch (NumberFormatException e) {
-            String reason = "Number operator used on a non-number " + e.getMessage();
-            LOG.debug(reason);
-            status = PollStatus.unavailable(reason);
-        } catch (IllegalArgumentException e) {
-            String reason = "Invalid SNMP Criteria: " + e.getMessage();
-            LOG.debug(reason);
-            status = PollStatus.unavailable(reason);
-        } catch (Throwable t) {
-            String reason = "Unexpected exception during SNMP poll of interface " + hostAddress;
-            LOG.debug(reason, t);
-            status = PollStatus.unavailable(reason);
+            return status;
         }
 
-        return status;
+        private void fail(final Throwable t) {
+            if (t instanceof NumberFormatException) {
+                String reason = "Number operator used on a non-number " + t.getMessage();
+                LOG.debug(reason);
+                future.complete(PollStatus.unavailable(reason));
+            } else if (t instanceof IllegalArgumentException) {
+                String reason = "Invalid SNMP Criteria: " + t.getMessage();
+                LOG.debug(reason);
+                future.complete(PollStatus.unavailable(reason));
+            } else {
+                String reason = "Unexpected exception during SNMP poll of interface " + hostAddress;
+                LOG.debug(reason, t);
+                future.complete(PollStatus.unavailable(reason));
+            }
+        }
     }
 
 }
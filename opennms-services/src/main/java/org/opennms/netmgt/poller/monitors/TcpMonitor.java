@@ -28,17 +28,15 @@
 
 package org.opennms.netmgt.poller.monitors;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
-import java.net.Socket;
 import java.util.Map;
 
+import org.opennms.core.utils.CallbackFuture;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.core.utils.TimeoutTracker;
@@ -56,6 +54,8 @@ import org.slf4j.LoggerFactory;
  * implements the ServiceMonitor interface that allows it to be used along with
  * other plug-ins by the service poller framework.
  *
+ * <p>Polls are run without blocking by the shared {@link NioPollReactor}.</p>
+ *
  * @author Weave
  * @author <A HREF="mailto:tarus@opennms.org">Tarus Balog </A>
  * @author <A HREF="mike@opennms.org">Mike </A>
@@ -63,7 +63,7 @@ import org.slf4j.LoggerFactory;
  */
 
 @Distributable
-final public class TcpMonitor extends AbstractServiceMonitor {
+final public class TcpMonitor extends AbstractAsyncServiceMonitor {
     
     
     public static final Logger LOG = LoggerFactory.getLogger(TcpMonitor.class);
@@ -88,6 +88,135 @@ final public class TcpMonitor extends AbstractServiceMonitor {
     public static final String PARAMETER_BANNER = "banner";
     public static final String PARAMETER_PORT = "port";
 
+    /**
+     * One poll, retried by the {@link TimeoutTracker} until the service is
+     * available.  Each attempt is started from the callback of the previous
+     * one on the reactor thread.
+     */
+    private static final class TcpPoll implements NioPollReactor.Callback {
+        private final CallbackFuture<PollStatus> m_future = new CallbackFuture<PollStatus>();
+        private final TimeoutTracker m_tracker;
+        private final InetAddress m_address;
+        private final int m_port;
+        private final String m_bannerMatch;
+        private PollStatus m_serviceStatus = PollStatus.unavailable();
+
+        private TcpPoll(final TimeoutTracker tracker, final InetAddress address, final int port, final String bannerMatch) {
+            m_tracker = tracker;
+            m_address = address;
+            m_port = port;
+            m_bannerMatch = bannerMatch;
+        }
+
+        private boolean isBannerMatchRequired() {
+            return m_bannerMatch != null && m_bannerMatch.length() != 0 && !m_bannerMatch.equals("*");
+        }
+
+        private void start() {
+            m_tracker.reset();
+            attempt();
+        }
+
+        private void nextAttempt() {
+            m_tracker.nextAttempt();
+            if (!m_tracker.shouldRetry()) {
+                m_future.complete(m_serviceStatus);
+                return;
+            }
+            NioPollReactor.getInstance().executeLater(m_tracker.getAttemptDelayInMillis(), new Runnable() {
+                @Override
+                public void run() {
+                    attempt();
+                }
+            });
+        }
+
+        private void attempt() {
+            m_tracker.startAttempt();
+            NioPollReactor.getInstance().connect(new InetSocketAddress(m_address, m_port), m_tracker.getConnectionTimeout(), m_tracker.getSoTimeout(), null,
+                                                 isBannerMatchRequired() ? NioPollReactor.FIRST_LINE : null, this);
+        }
+
+        @Override
+        public void exchangeComplete(final NioPollReactor.Result result) {
+            if (result.isConnected()) {
+                LOG.debug("TcpMonitor: connected to host: {} on port: {}", m_address, m_port);
+
+                // We're connected, so upgrade status to unresponsive
+                m_serviceStatus = PollStatus.unresponsive();
+            }
+
+            if (!result.isSuccessful()) {
+                handleFailure(result.getFailure());
+                return;
+            }
+
+            if (!isBannerMatchRequired()) {
+                m_future.complete(PollStatus.available(m_tracker.elapsedTimeInMillis()));
+                return;
+            }
+
+            //
+            // Tokenize the Banner Line, and check the first
+            // line for a valid return.
+            //
+            final String response = getFirstLine(result.getResponse());
+            final double responseTime = m_tracker.elapsedTimeInMillis();
+
+            if (response == null) {
+                nextAttempt();
+                return;
+            }
+            LOG.debug("poll: banner = {}", response);
+            LOG.debug("poll: responseTime= {}ms", responseTime);
+
+            //Could it be a regex?
+            if (m_bannerMatch.charAt(0)=='~'){
+                if (!response.matches(m_bannerMatch.substring(1)))
+                    m_serviceStatus = PollStatus.unavailable("Banner does not match Regex '"+m_bannerMatch+"'");
+                else
+                    m_serviceStatus = PollStatus.available(responseTime);
+            }
+            else {
+                if (response.indexOf(m_bannerMatch) > -1) {
+                    m_serviceStatus = PollStatus.available(responseTime);
+                }
+                else {
+                    m_serviceStatus = PollStatus.unavailable("Banner: '"+response+"' does not contain match string '"+m_bannerMatch+"'");
+                }
+            }
+
+            if (m_serviceStatus.isAvailable()) {
+                m_future.complete(m_serviceStatus);
+            } else {
+                nextAttempt();
+            }
+        }
+
+        private void handleFailure(final IOException e) {
+            final String hostAddress = InetAddressUtils.str(m_address);
+            if (e instanceof NoRouteToHostException) {
+                String reason = "No route to host exception for address " + hostAddress;
+                LOG.debug(reason, e);
+                m_future.complete(PollStatus.unavailable(reason));
+                return;
+            } else if (e instanceof InterruptedIOException) {
+                String reason = "did not connect to host with " + m_tracker;
+                LOG.debug(reason);
+                m_serviceStatus = PollStatus.unavailable(reason);
+            } else if (e instanceof ConnectException) {
+                String reason = "Connection exception for address: " + m_address;
+                LOG.debug(reason, e);
+                m_serviceStatus = PollStatus.unavailable(reason);
+            } else {
+                String reason = "IOException while polling address: " + m_address;
+                LOG.debug(reason, e);
+                m_serviceStatus = PollStatus.unavailable(reason);
+            }
+            nextAttempt();
+        }
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -100,7 +229,7 @@ final public class TcpMonitor extends AbstractServiceMonitor {
      * status to SERVICE_AVAILABLE and return.
      */
     @Override
-    public PollStatus poll(MonitoredService svc, Map<String, Object> parameters) {
+    public CallbackFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
         NetworkInterface<InetAddress> iface = svc.getNetInterface();
 
         //
@@ -135,90 +264,23 @@ final public class TcpMonitor extends AbstractServiceMonitor {
 
         // Give it a whirl
         //
-        PollStatus serviceStatus = PollStatus.unavailable();
-
-        for (tracker.reset(); tracker.shouldRetry() && !serviceStatus.isAvailable(); tracker.nextAttempt()) {
-            Socket socket = null;
-            try {
-                
-                tracker.startAttempt();
-
-                socket = new Socket();
-                socket.connect(new InetSocketAddress(ipv4Addr, port), tracker.getConnectionTimeout());
-                socket.setSoTimeout(tracker.getSoTimeout());
-                LOG.debug("TcpMonitor: connected to host: {} on port: {}", ipv4Addr, port);
-
-                // We're connected, so upgrade status to unresponsive
-                serviceStatus = PollStatus.unresponsive();
-
-                if (strBannerMatch == null || strBannerMatch.length() == 0 || strBannerMatch.equals("*")) {
-                    serviceStatus = PollStatus.available(tracker.elapsedTimeInMillis());
-                    break;
-                }
-
-                BufferedReader rdr = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-                //
-                // Tokenize the Banner Line, and check the first
-                // line for a valid return.
-                //
-                String response = rdr.readLine();
-                double responseTime = tracker.elapsedTimeInMillis();
-
-                if (response == null)
-                    continue;
-                LOG.debug("poll: banner = {}", response);
-                LOG.debug("poll: responseTime= {}ms", responseTime);
-
-                //Could it be a regex?
-                if (strBannerMatch.charAt(0)=='~'){
-                  if (!response.matches(strBannerMatch.substring(1)))
-                    serviceStatus = PollStatus.unavailable("Banner does not match Regex '"+strBannerMatch+"'");
-                  else
-                    serviceStatus = PollStatus.available(responseTime);
-                }
-                else {
-                  if (response.indexOf(strBannerMatch) > -1) {
-                    serviceStatus = PollStatus.available(responseTime);
-                  }
-                  else {
-                    serviceStatus = PollStatus.unavailable("Banner: '"+response+"' does not contain match string '"+strBannerMatch+"'");
-                  }
-                }
+        final TcpPoll poll = new TcpPoll(tracker, ipv4Addr, port, strBannerMatch);
+        poll.start();
+        return poll.m_future;
+    }
 
-            } catch (NoRouteToHostException e) {
-            	String reason = "No route to host exception for address " + hostAddress;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-                break; // Break out of for(;;)
-            } catch (InterruptedIOException e) {
-            	String reason = "did not connect to host with " + tracker;
-                LOG.debug(reason);
-                serviceStatus = PollStatus.unavailable(reason);
-            } catch (ConnectException e) {
-            	String reason = "Connection exception for address: " + ipv4Addr;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-            } catch (IOException e) {
-            	String reason = "IOException while polling address: " + ipv4Addr;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-            } finally {
-                try {
-                    // Close the socket
-                    if (socket != null)
-                        socket.close();
-                } catch (IOException e) {
-                    e.fillInStackTrace();
-                    LOG.debug("poll: Error closing socket.", e);
-                }
-            }
+    /**
+     * Returns the first line of the response without its line terminator,
+     * like {@link java.io.BufferedReader#readLine()} would.
+     *
+     * @return the line, or null if nothing was received
+     */
+    static String getFirstLine(final byte[] response) {
+        if (response.length == 0) return null;
+        int end = 0;
+        while (end < response.length && response[end] != '\n' && response[end] != '\r') {
+            end++;
         }
-
-        //
-        // return the status of the service
-        //
-        return serviceStatus;
+        return new String(response, 0, end);
     }
-
 }
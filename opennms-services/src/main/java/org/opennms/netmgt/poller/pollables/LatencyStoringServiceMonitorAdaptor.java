@@ -38,11 +38,14 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
+import org.opennms.core.utils.CallbackFuture;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.netmgt.config.PollerConfig;
 import org.opennms.netmgt.config.poller.Package;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.poller.ServiceMonitor;
@@ -62,7 +65,7 @@ import org.slf4j.LoggerFactory;
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  * @author <a href="mailto:ranger@opennms.org">Ben Reed</a>
  */
-public class LatencyStoringServiceMonitorAdaptor implements ServiceMonitor {
+public class LatencyStoringServiceMonitorAdaptor implements AsyncServiceMonitor {
 
     
     private static final Logger LOG = LoggerFactory.getLogger(LatencyStoringServiceMonitorAdaptor.class);
@@ -74,6 +77,8 @@ public class LatencyStoringServiceMonitorAdaptor implements ServiceMonitor {
     private PollerConfig m_pollerConfig;
     private Package m_pkg;
     
+    private final Executor m_executor;
+    
     private LatencyThresholdingSet m_thresholdingSet;
 
     /**
@@ -84,9 +89,28 @@ public class LatencyStoringServiceMonitorAdaptor implements ServiceMonitor {
      * @param pkg a {@link org.opennms.netmgt.config.poller.Package} object.
      */
     public LatencyStoringServiceMonitorAdaptor(ServiceMonitor monitor, PollerConfig config, Package pkg) {
+        this(monitor, config, pkg, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    /**
+     * <p>Constructor for LatencyStoringServiceMonitorAdaptor.</p>
+     *
+     * @param monitor a {@link org.opennms.netmgt.poller.ServiceMonitor} object.
+     * @param config a {@link org.opennms.netmgt.config.PollerConfig} object.
+     * @param pkg a {@link org.opennms.netmgt.config.poller.Package} object.
+     * @param executor runs the response time storage and thresholding of
+     *        asynchronous polls, keeping it off the monitor's I/O threads
+     */
+    public LatencyStoringServiceMonitorAdaptor(ServiceMonitor monitor, PollerConfig config, Package pkg, Executor executor) {
         m_serviceMonitor = monitor;
         m_pollerConfig = config;
         m_pkg = pkg;
+        m_executor = executor;
     }
 
     /** {@inheritDoc} */
@@ -108,8 +132,48 @@ public class LatencyStoringServiceMonitorAdaptor implements ServiceMonitor {
     /** {@inheritDoc} */
     @Override
     public PollStatus poll(MonitoredService svc, Map<String, Object> parameters) {
-        PollStatus status = m_serviceMonitor.poll(svc, parameters);
+        return handlePollResult(svc, parameters, m_serviceMonitor.poll(svc, parameters));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Monitors that are not asynchronous are polled on the calling thread.
+     */
+    @Override
+    public CallbackFuture<PollStatus> pollAsync(final MonitoredService svc, final Map<String, Object> parameters) {
+        if (!(m_serviceMonitor instanceof AsyncServiceMonitor)) {
+            return CallbackFuture.completedFuture(poll(svc, parameters));
+        }
+
+        final CallbackFuture<PollStatus> result = new CallbackFuture<PollStatus>();
+        ((AsyncServiceMonitor)m_serviceMonitor).pollAsync(svc, parameters).addCallback(new CallbackFuture.Callback<PollStatus>() {
+            @Override
+            public void onSuccess(PollStatus status) {
+                try {
+                    result.complete(handlePollResult(svc, parameters, status));
+                } catch (Throwable e) {
+                    LOG.error("Failed to process the result of polling {}", svc, e);
+                    result.complete(status);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }, m_executor);
+        return result;
+    }
+
+    /**
+     * @return true if the wrapped monitor can be polled without blocking
+     */
+    boolean isAsync() {
+        return m_serviceMonitor instanceof AsyncServiceMonitor;
+    }
 
+    private PollStatus handlePollResult(MonitoredService svc, Map<String, Object> parameters, PollStatus status) {
         if (!status.getProperties().isEmpty()) {
             storeResponseTime(svc, new LinkedHashMap<String, Number>(status.getProperties()), parameters);
         }
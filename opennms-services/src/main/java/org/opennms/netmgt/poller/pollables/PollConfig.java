@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.poller.pollables;
 
+import org.opennms.core.utils.CallbackFuture;
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.scheduler.Timer;
 
@@ -47,6 +48,14 @@ public interface PollConfig extends Timer {
      */
     public PollStatus poll();
 
+    /**
+     * Starts a poll without waiting for it to complete.
+     *
+     * @return the pending poll, completed on a poller thread, or null if the
+     *         service can only be polled with {@link #poll()}
+     */
+    public CallbackFuture<PollStatus> pollAsync();
+
     /**
      * <p>getCurrentTime</p>
      *
@@ -31,8 +31,11 @@ package org.opennms.netmgt.poller.pollables;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.opennms.core.logging.Logging;
+import org.opennms.core.utils.CallbackFuture;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.poller.InetNetworkInterface;
 import org.opennms.netmgt.poller.MonitoredService;
@@ -57,9 +60,15 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     private final class PollRunner implements Runnable {
     	
     	private volatile PollStatus m_pollStatus;
+    	private final PollStatus m_asyncStatus;
+
+    	private PollRunner(PollStatus asyncStatus) {
+    	    m_asyncStatus = asyncStatus;
+    	}
+
             @Override
 		public void run() {
-		    doPoll();
+		    doPoll(m_asyncStatus);
 		    getNode().processStatusChange(new Date());
 		    m_pollStatus = getStatus();
 		}
@@ -75,6 +84,8 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     private volatile PollStatus m_oldStatus;
     private volatile Schedule m_schedule;
     private volatile long m_statusChangeTime = 0L;
+    private final AtomicBoolean m_pollInProgress = new AtomicBoolean(false);
+    private final AtomicReference<PollStatus> m_completedPoll = new AtomicReference<PollStatus>();
     /**
      * <p>Constructor for PollableService.</p>
      *
@@ -187,7 +198,10 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      */
     @Override
     public PollStatus poll() {
-        PollStatus newStatus = m_pollConfig.poll();
+        PollStatus newStatus = m_completedPoll.getAndSet(null);
+        if (newStatus == null) {
+            newStatus = m_pollConfig.poll();
+        }
         if (!newStatus.isUnknown()) { 
             updateStatus(newStatus);
         }
@@ -384,7 +398,52 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      */
     @Override
     public void run() {
-        doRun(500);
+        if (!m_pollInProgress.compareAndSet(false, true)) {
+            LOG.debug("Skipping scheduled poll of service {}, the previous poll has not completed yet", this);
+            return;
+        }
+
+        final CallbackFuture<PollStatus> future;
+        try {
+            future = m_pollConfig.pollAsync();
+        } catch (RuntimeException e) {
+            m_pollInProgress.set(false);
+            throw e;
+        }
+        if (future == null) {
+            m_pollInProgress.set(false);
+            doRun(500);
+            return;
+        }
+
+        // the scheduler moves on right away; the status is processed once the poll completes
+        future.addCallback(new CallbackFuture.Callback<PollStatus>() {
+            @Override
+            public void onSuccess(PollStatus status) {
+                try {
+                    processPollResult(status);
+                } catch (Throwable e) {
+                    LOG.error("Unexpected exception while processing the poll of service {}", PollableService.this, e);
+                } finally {
+                    m_pollInProgress.set(false);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // monitors report errors as a status, so this is a cancelled poll or a bug
+                LOG.warn("Poll of service {} did not complete", PollableService.this, t);
+                onSuccess(PollStatus.unknown("Poll did not complete: " + t));
+            }
+        });
+    }
+
+    private void processPollResult(PollStatus status) {
+        if (isDeleted()) {
+            LOG.debug("Service {} was deleted while it was being polled", this);
+            return;
+        }
+        doRun(0, status);
     }
     
     /**
@@ -397,11 +456,19 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     }
 
     private PollStatus doRun(int timeout) {
+        return doRun(timeout, null);
+    }
+
+    /**
+     * @param asyncStatus the result of a poll that has already completed, or
+     *        null to poll the service now
+     */
+    private PollStatus doRun(int timeout, PollStatus asyncStatus) {
         long startDate = System.currentTimeMillis();
         LOG.debug("Start Scheduled Poll of service {}", this);
         PollStatus status;
         if (getContext().isNodeProcessingEnabled()) {
-            PollRunner r = new PollRunner();
+            PollRunner r = new PollRunner(asyncStatus);
             try {
                 withTreeLock(r, timeout);
             } catch (LockUnavailable e) {
@@ -411,7 +478,7 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
             status = r.getPollStatus();
         }
         else {
-            doPoll();
+            doPoll(asyncStatus);
             processStatusChange(new Date());
             status = getStatus();
         }
@@ -419,6 +486,20 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
         return status;
     }
 
+    /**
+     * Polls the service, using the given result in place of polling it again
+     * if there is one.  Must be called with the tree lock held, if node
+     * processing is enabled, so that no other poll can pick up the result.
+     */
+    private void doPoll(PollStatus asyncStatus) {
+        m_completedPoll.set(asyncStatus);
+        try {
+            doPoll();
+        } finally {
+            m_completedPoll.set(null);
+        }
+    }
+
 	/**
      * <p>delete</p>
      */
@@ -32,15 +32,19 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
 
+import org.opennms.core.utils.CallbackFuture;
 import org.opennms.netmgt.config.PollOutagesConfig;
 import org.opennms.netmgt.config.PollerConfig;
 import org.opennms.netmgt.config.poller.Downtime;
 import org.opennms.netmgt.config.poller.Package;
 import org.opennms.netmgt.config.poller.Parameter;
 import org.opennms.netmgt.config.poller.Service;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.poller.ServiceMonitor;
 import org.opennms.netmgt.scheduler.ScheduleInterval;
+import org.opennms.netmgt.scheduler.ScheduleTimer;
+import org.opennms.netmgt.scheduler.SchedulingExecutor;
 import org.opennms.netmgt.scheduler.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -122,10 +126,51 @@ public class PollableServiceConfig implements PollConfig, ScheduleInterval {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Only monitors implementing {@link AsyncServiceMonitor} are polled this
+     * way, and only when the timer is the poller's scheduler: the response
+     * time storage and thresholding is handed back to its threads.
+     */
+    @Override
+    public CallbackFuture<PollStatus> pollAsync() {
+        if (!(m_timer instanceof ScheduleTimer)) {
+            return null;
+        }
+        final ServiceMonitor monitor = getServiceMonitor();
+        if (!isAsync(monitor)) {
+            return null;
+        }
+
+        String packageName = null;
+        synchronized(this) {
+            packageName = m_pkg.getName();
+        }
+        try {
+            LOG.debug("Polling {} using pkg {} without blocking", packageName, m_service);
+            return ((AsyncServiceMonitor)monitor).pollAsync(m_service, getParameters());
+        } catch (Throwable e) {
+            LOG.error("Unexpected exception while polling {}. Marking service as DOWN", m_service, e);
+            return CallbackFuture.completedFuture(PollStatus.down("Unexpected exception while polling "+m_service+". "+e));
+        }
+    }
+
+    private static boolean isAsync(final ServiceMonitor monitor) {
+        if (monitor instanceof LatencyStoringServiceMonitorAdaptor) {
+            return ((LatencyStoringServiceMonitorAdaptor)monitor).isAsync();
+        }
+        return monitor instanceof AsyncServiceMonitor;
+    }
+
     private synchronized ServiceMonitor getServiceMonitor() {
         if (m_serviceMonitor == null) {
             ServiceMonitor monitor = m_pollerConfig.getServiceMonitor(m_service.getSvcName());
-            m_serviceMonitor = new LatencyStoringServiceMonitorAdaptor(monitor, m_pollerConfig, m_pkg);
+            if (m_timer instanceof ScheduleTimer) {
+                m_serviceMonitor = new LatencyStoringServiceMonitorAdaptor(monitor, m_pollerConfig, m_pkg, new SchedulingExecutor((ScheduleTimer)m_timer));
+            } else {
+                m_serviceMonitor = new LatencyStoringServiceMonitorAdaptor(monitor, m_pollerConfig, m_pkg);
+            }
 
         }
         return m_serviceMonitor;
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how late scheduled runnables were handed to the thread pool, in
+ * fixed millisecond buckets.  Recording is lock-free and the counts can be
+ * read at any time.
+ *
+ * @see TimingWheelScheduler#getLatenessHistograms()
+ */
+public class LatenessHistogram {
+
+    /** Upper bounds (exclusive) of the buckets, in milliseconds. */
+    private static final long[] BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+
+    private final AtomicLongArray m_counts = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong m_count = new AtomicLong(0);
+    private final AtomicLong m_total = new AtomicLong(0);
+    private final AtomicLong m_max = new AtomicLong(0);
+
+    /**
+     * Records one execution that started <code>lateness</code> milliseconds
+     * after it was due.  Negative values are counted as on time.
+     */
+    public void record(final long lateness) {
+        final long value = Math.max(0, lateness);
+        m_counts.incrementAndGet(getBucket(value));
+        m_count.incrementAndGet();
+        m_total.addAndGet(value);
+
+        long max = m_max.get();
+        while (value > max && !m_max.compareAndSet(max, value)) {
+            max = m_max.get();
+        }
+    }
+
+    private static int getBucket(final long value) {
+        for (int i = 0; i < BOUNDS.length; i++) {
+            if (value < BOUNDS[i]) {
+                return i;
+            }
+        }
+        return BOUNDS.length;
+    }
+
+    public long getCount() {
+        return m_count.get();
+    }
+
+    public long getMax() {
+        return m_max.get();
+    }
+
+    public double getMean() {
+        final long count = m_count.get();
+        return count == 0 ? 0.0 : (double)m_total.get() / count;
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing the given percentile,
+     * or {@link Long#MAX_VALUE} if it falls in the last, open-ended bucket.
+     *
+     * @param percentile a value between 0 and 100
+     */
+    public long getPercentileBound(final double percentile) {
+        final long count = m_count.get();
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = (long)Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += m_counts.get(i);
+            if (seen >= rank) {
+                return BOUNDS[i];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the number of executions in each bucket, the last entry
+     *         counting everything at or above the largest bound
+     */
+    public long[] getCounts() {
+        final long[] counts = new long[m_counts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = m_counts.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * @return the exclusive upper bounds of the buckets, in milliseconds
+     */
+    public static long[] getBounds() {
+        return BOUNDS.clone();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("count=").append(getCount());
+        buf.append(String.format(", mean=%.1fms", getMean()));
+        buf.append(", max=").append(getMax()).append("ms");
+        buf.append(", p99<").append(formatBound(getPercentileBound(99.0)));
+        final long[] counts = getCounts();
+        buf.append(", buckets=[");
+        for (int i = 0; i < counts.length; i++) {
+            if (i > 0) buf.append(", ");
+            buf.append(i < BOUNDS.length ? "<" + BOUNDS[i] + "ms" : ">=" + BOUNDS[BOUNDS.length - 1] + "ms");
+            buf.append(": ").append(counts[i]);
+        }
+        buf.append("]");
+        return buf.toString();
+    }
+
+    private static String formatBound(final long bound) {
+        return bound == Long.MAX_VALUE ? "inf" : bound + "ms";
+    }
+}
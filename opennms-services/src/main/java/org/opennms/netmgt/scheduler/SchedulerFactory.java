@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the scheduler for a daemon.
+ *
+ * <p>The implementation is picked with the
+ * <code>org.opennms.netmgt.scheduler.implementation</code> system property,
+ * which can be overridden for a single daemon by appending its name, e.g.
+ * <code>org.opennms.netmgt.scheduler.implementation.Poller</code>.  Use
+ * <code>wheel</code> for the {@link TimingWheelScheduler}; anything else
+ * gives the {@link LegacyScheduler}.</p>
+ */
+public abstract class SchedulerFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SchedulerFactory.class);
+
+    public static final String IMPLEMENTATION_PROPERTY = "org.opennms.netmgt.scheduler.implementation";
+
+    public static final String LEGACY = "legacy";
+    public static final String WHEEL = "wheel";
+
+    /**
+     * @param parent
+     *            the name of the daemon, used for the thread names and the
+     *            per-daemon property
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public static Scheduler createScheduler(final String parent, final int maxSize) {
+        final String implementation = System.getProperty(IMPLEMENTATION_PROPERTY + "." + parent, System.getProperty(IMPLEMENTATION_PROPERTY, LEGACY));
+        if (WHEEL.equalsIgnoreCase(implementation)) {
+            LOG.info("createScheduler: using timing wheel scheduler for {}", parent);
+            return new TimingWheelScheduler(parent, maxSize);
+        }
+        return new LegacyScheduler(parent, maxSize);
+    }
+
+    /**
+     * Returns the thread pool of a scheduler created by this factory, or null
+     * if it doesn't expose one.
+     */
+    public static ExecutorService getRunner(final Scheduler scheduler) {
+        if (scheduler instanceof LegacyScheduler) {
+            return ((LegacyScheduler)scheduler).getRunner();
+        } else if (scheduler instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler)scheduler).getRunner();
+        }
+        return null;
+    }
+}
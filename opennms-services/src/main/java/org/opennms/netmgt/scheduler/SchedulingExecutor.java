@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks on the threads of a {@link ScheduleTimer} as soon as possible.
+ *
+ * <p>Asynchronous polls and collections complete on an I/O thread; handing
+ * the processing of their results to the daemon's scheduler keeps blocking
+ * work (database, RRD files, thresholds) off that thread and within the
+ * daemon's configured number of threads.</p>
+ */
+public class SchedulingExecutor implements Executor {
+    private final ScheduleTimer m_scheduleTimer;
+
+    public SchedulingExecutor(final ScheduleTimer scheduleTimer) {
+        m_scheduleTimer = scheduleTimer;
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        m_scheduleTimer.schedule(0, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void run() {
+                command.run();
+            }
+        });
+    }
+}
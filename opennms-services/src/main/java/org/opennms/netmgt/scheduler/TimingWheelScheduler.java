@@ -0,0 +1,571 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.ObjectName;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A scheduler built on a hierarchical timing wheel.
+ *
+ * <p>Unlike the {@link LegacyScheduler}, which polls the head of one FIFO per
+ * interval and sleeps for up to a second when nothing is ready, this
+ * scheduler files each runnable into the wheel slot for the millisecond it
+ * is due and only wakes when the earliest non-empty slot expires.  Inserting
+ * and expiring a runnable is O(1); the only ordered structure is the queue
+ * of non-empty slots, of which there are at most a few hundred.</p>
+ *
+ * <p>The wheel is owned by a single worker thread.  {@link #schedule(long,
+ * ReadyRunnable)} only appends to a lock-free queue and wakes the worker, so
+ * callers never contend with the scheduler or each other.</p>
+ *
+ * <p>A runnable whose {@link ReadyRunnable#isReady()} returns false when it
+ * comes due is put back into the wheel on its own, starting 10ms later and
+ * backing off to one second, so it never holds up other runnables.</p>
+ *
+ * <p>For each scheduling interval the scheduler keeps a
+ * {@link LatenessHistogram} of how long after their due time runnables were
+ * handed to the thread pool.</p>
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, Scheduler, TimingWheelSchedulerMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    /** The resolution of the innermost wheel, in milliseconds. */
+    private static final long TICK_MS = 1;
+
+    /** The number of slots in each wheel. */
+    private static final int WHEEL_SIZE = 64;
+
+    private static final long MIN_NOT_READY_DELAY = 10;
+    private static final long MAX_NOT_READY_DELAY = 1000;
+
+    /**
+     * A runnable waiting in the wheel.  Tasks are chained through
+     * <code>m_next</code> while they sit in a slot.
+     */
+    private static final class Task {
+        private final ReadyRunnable m_runnable;
+        private final long m_interval;
+        private long m_due;
+        private long m_notReadyDelay = 0;
+        private Task m_next;
+
+        private Task(final ReadyRunnable runnable, final long interval, final long due) {
+            m_runnable = runnable;
+            m_interval = interval;
+            m_due = due;
+        }
+    }
+
+    /**
+     * One slot of a wheel.  A slot is queued for expiry while it holds tasks.
+     */
+    private static final class Bucket implements Comparable<Bucket> {
+        private long m_expiration = -1;
+        private Task m_head;
+        private Task m_tail;
+
+        private void add(final Task task) {
+            if (m_tail == null) {
+                m_head = task;
+            } else {
+                m_tail.m_next = task;
+            }
+            m_tail = task;
+        }
+
+        /**
+         * @return true if the expiration changed, meaning the bucket was empty
+         *         and needs to be queued
+         */
+        private boolean setExpiration(final long expiration) {
+            if (m_expiration == expiration) {
+                return false;
+            }
+            m_expiration = expiration;
+            return true;
+        }
+
+        private Task flush() {
+            final Task head = m_head;
+            m_head = null;
+            m_tail = null;
+            m_expiration = -1;
+            return head;
+        }
+
+        @Override
+        public int compareTo(final Bucket o) {
+            return m_expiration < o.m_expiration ? -1 : (m_expiration == o.m_expiration ? 0 : 1);
+        }
+    }
+
+    /**
+     * One level of the wheel.  Each level covers <code>WHEEL_SIZE</code>
+     * ticks of the level below it; tasks too far in the future go to the next
+     * level up and trickle down as their slots expire.
+     */
+    private final class Wheel {
+        private final long m_tickMs;
+        private final long m_span;
+        private final Bucket[] m_slots = new Bucket[WHEEL_SIZE];
+        private long m_currentTime;
+        private Wheel m_overflow;
+
+        private Wheel(final long tickMs, final long startTime) {
+            m_tickMs = tickMs;
+            m_span = tickMs * WHEEL_SIZE;
+            m_currentTime = startTime - (startTime % tickMs);
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                m_slots[i] = new Bucket();
+            }
+        }
+
+        /**
+         * @return false if the task is already due and should be run now
+         */
+        private boolean add(final Task task) {
+            if (task.m_due < m_currentTime + m_tickMs) {
+                return false;
+            } else if (task.m_due < m_currentTime + m_span) {
+                final long virtualId = task.m_due / m_tickMs;
+                final Bucket bucket = m_slots[(int)(virtualId % WHEEL_SIZE)];
+                bucket.add(task);
+                if (bucket.setExpiration(virtualId * m_tickMs)) {
+                    m_expiring.add(bucket);
+                }
+                return true;
+            } else {
+                if (m_overflow == null) {
+                    m_overflow = new Wheel(m_span, m_currentTime);
+                }
+                return m_overflow.add(task);
+            }
+        }
+
+        private void advanceClock(final long time) {
+            if (time >= m_currentTime + m_tickMs) {
+                m_currentTime = time - (time % m_tickMs);
+                if (m_overflow != null) {
+                    m_overflow.advanceClock(m_currentTime);
+                }
+            }
+        }
+    }
+
+    private final String m_parent;
+
+    /**
+     * The pool of threads that are used to executed the runnable instances
+     * scheduled by the class' instance.
+     */
+    private final ExecutorService m_runner;
+
+    /** Runnables scheduled since the worker last looked. */
+    private final Queue<Task> m_incoming = new ConcurrentLinkedQueue<Task>();
+
+    /** Non-empty slots of all wheels, earliest first.  Worker thread only. */
+    private final PriorityQueue<Bucket> m_expiring = new PriorityQueue<Bucket>();
+
+    /** The innermost wheel.  Worker thread only. */
+    private final Wheel m_wheel;
+
+    private final long m_startNanos = System.nanoTime();
+
+    private final AtomicInteger m_scheduled = new AtomicInteger(0);
+    private final AtomicLong m_numTasksExecuted = new AtomicLong(0);
+    private final ConcurrentMap<Long, LatenessHistogram> m_lateness = new ConcurrentHashMap<Long, LatenessHistogram>();
+
+    /**
+     * The status for this fiber.
+     */
+    private volatile int m_status;
+
+    /**
+     * The worker thread that executes this instance.
+     */
+    private volatile Thread m_worker;
+
+    private ObjectName m_objectName;
+
+    /**
+     * Constructs a new instance of the scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        m_parent = parent;
+        m_status = START_PENDING;
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+        m_wheel = new Wheel(TICK_MS, elapsed());
+    }
+
+    /**
+     * Milliseconds since the scheduler was created, from the monotonic clock
+     * so that wall clock adjustments don't make everything due at once.
+     */
+    private long elapsed() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - m_startNanos);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(final long interval, final ReadyRunnable runnable) {
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+
+        m_incoming.add(new Task(runnable, interval, elapsed() + Math.max(0, interval)));
+        m_scheduled.incrementAndGet();
+
+        final Thread worker = m_worker;
+        if (worker != null) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * <p>getCurrentTime</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * <p>start</p>
+     */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_status = STARTING;
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+
+        try {
+            m_objectName = new ObjectName("OpenNMS:Name=TimingWheelScheduler,Daemon=" + ObjectName.quote(m_parent));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, m_objectName);
+        } catch (final Exception e) {
+            LOG.debug("start: unable to register scheduler with JMX", e);
+            m_objectName = null;
+        }
+
+        LOG.info("start: scheduler started");
+    }
+
+    /**
+     * <p>stop</p>
+     */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+
+        if (m_objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(m_objectName);
+            } catch (final Exception e) {
+                LOG.debug("stop: unable to unregister scheduler from JMX", e);
+            }
+            m_objectName = null;
+        }
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /**
+     * <p>pause</p>
+     */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+        LockSupport.unpark(m_worker);
+    }
+
+    /**
+     * <p>resume</p>
+     */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+        LockSupport.unpark(m_worker);
+    }
+
+    /**
+     * <p>getStatus</p>
+     *
+     * @return a int.
+     */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /**
+     * Returns the name of this fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return m_runner.toString();
+    }
+
+    /**
+     * Returns the number of runnables waiting for their time to run.
+     */
+    @Override
+    public int getScheduled() {
+        return m_scheduled.get();
+    }
+
+    /**
+     * Returns the pool of threads that are used to executed the runnable
+     * instances scheduled by the class' instance.
+     *
+     * @return thread pool
+     */
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted.get();
+    }
+
+    /**
+     * Returns the lateness histogram of each interval runnables have been
+     * scheduled with, keyed and sorted by interval.
+     */
+    public Map<Long, LatenessHistogram> getLatenessHistograms() {
+        return Collections.unmodifiableMap(new TreeMap<Long, LatenessHistogram>(m_lateness));
+    }
+
+    @Override
+    public String[] getLatenessReport() {
+        final Map<Long, LatenessHistogram> histograms = getLatenessHistograms();
+        final String[] report = new String[histograms.size()];
+        int i = 0;
+        for (final Entry<Long, LatenessHistogram> entry : histograms.entrySet()) {
+            report[i++] = "interval=" + entry.getKey() + "ms: " + entry.getValue();
+        }
+        return report;
+    }
+
+    /**
+     * The main method of the scheduler.  Moves newly scheduled runnables into
+     * the wheel, expires slots as they come due and hands ready runnables to
+     * the thread pool.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (m_status == STARTING) {
+                m_status = RUNNING;
+            }
+        }
+
+        LOG.debug("run: scheduler running");
+
+        for (;;) {
+            synchronized (this) {
+                if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                    LOG.debug("run: status = {}, time to exit", m_status);
+                    break;
+                }
+
+                // if paused or pause pending then block
+                boolean interrupted = false;
+                while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                    if (m_status == PAUSE_PENDING) {
+                        LOG.debug("run: pausing.");
+                    }
+                    m_status = PAUSED;
+                    try {
+                        wait();
+                    } catch (final InterruptedException ex) {
+                        interrupted = true;
+                        break;
+                    }
+                }
+                if (interrupted) {
+                    break;
+                }
+
+                if (m_status == RESUME_PENDING) {
+                    LOG.debug("run: resuming.");
+                    m_status = RUNNING;
+                }
+            }
+
+            final long now = elapsed();
+
+            Task task;
+            while ((task = m_incoming.poll()) != null) {
+                add(task, now);
+            }
+
+            final Bucket bucket = m_expiring.peek();
+            if (bucket != null && bucket.m_expiration <= now) {
+                m_expiring.poll();
+                m_wheel.advanceClock(bucket.m_expiration);
+                task = bucket.flush();
+                while (task != null) {
+                    final Task next = task.m_next;
+                    task.m_next = null;
+                    add(task, now);
+                    task = next;
+                }
+                continue;
+            }
+
+            if (!m_incoming.isEmpty()) {
+                continue;
+            }
+
+            if (bucket == null) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(bucket.m_expiration - now));
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    /**
+     * Files the task into the wheel, or runs it if it is already due.
+     */
+    private void add(final Task task, final long now) {
+        if (!m_wheel.add(task)) {
+            dispatch(task, now);
+        }
+    }
+
+    private void dispatch(final Task task, final long now) {
+        final boolean ready;
+        try {
+            ready = task.m_runnable.isReady();
+        } catch (final RuntimeException e) {
+            LOG.error("run: unexpected exception checking whether {} is ready, dropping it", task.m_runnable, e);
+            m_scheduled.decrementAndGet();
+            return;
+        }
+
+        if (!ready) {
+            task.m_notReadyDelay = task.m_notReadyDelay == 0 ? MIN_NOT_READY_DELAY : Math.min(MAX_NOT_READY_DELAY, task.m_notReadyDelay * 2);
+            task.m_due = now + task.m_notReadyDelay;
+            m_wheel.add(task);
+            return;
+        }
+
+        LOG.debug("run: found ready runnable {}", task.m_runnable);
+        m_scheduled.decrementAndGet();
+        getLatenessHistogram(task.m_interval).record(now - task.m_due);
+
+        try {
+            m_runner.execute(task.m_runnable);
+            m_numTasksExecuted.incrementAndGet();
+        } catch (final RejectedExecutionException e) {
+            LOG.warn("run: thread pool rejected {}, dropping it", task.m_runnable, e);
+        }
+    }
+
+    private LatenessHistogram getLatenessHistogram(final long interval) {
+        final Long key = Long.valueOf(interval);
+        LatenessHistogram histogram = m_lateness.get(key);
+        if (histogram == null) {
+            histogram = new LatenessHistogram();
+            final LatenessHistogram existing = m_lateness.putIfAbsent(key, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An Aho-Corasick automaton that finds which of a fixed set of literal
+ * strings occur in a text, in a single pass over the text no matter how
+ * many literals there are.
+ *
+ * <p>The automaton is immutable once built and can be shared between
+ * threads.</p>
+ */
+final class LiteralAutomaton {
+
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+    private static final int DENSE_CHARS = 128;
+
+    /** Root transitions for ASCII characters, indexed by character. */
+    private final int[] m_rootTransitions = new int[DENSE_CHARS];
+
+    /** The transitions of state s are m_edgeChars/m_edgeTargets[m_edgeStart[s] .. m_edgeStart[s+1]), sorted by character. */
+    private final int[] m_edgeStart;
+    private final char[] m_edgeChars;
+    private final int[] m_edgeTargets;
+
+    private final int[] m_failure;
+
+    /** The literal that ends in each state, or NONE. */
+    private final int[] m_output;
+
+    /** The nearest state along the failure chain that has an output, or NONE. */
+    private final int[] m_nextOutput;
+
+    private final int m_literalCount;
+
+    /**
+     * Builds the automaton.  Literal <code>i</code> of the list is reported
+     * as bit <code>i</code> by {@link #findAll(CharSequence, BitSet)}.  The
+     * literals must be distinct and must not be empty.
+     */
+    LiteralAutomaton(final List<String> literals) {
+        m_literalCount = literals.size();
+
+        // build the trie
+        final List<TreeMap<Character,Integer>> trie = new ArrayList<TreeMap<Character,Integer>>();
+        final List<Integer> output = new ArrayList<Integer>();
+        trie.add(new TreeMap<Character,Integer>());
+        output.add(NONE);
+        for (int i = 0; i < literals.size(); i++) {
+            final String literal = literals.get(i);
+            if (literal.isEmpty()) {
+                throw new IllegalArgumentException("Literal " + i + " is empty");
+            }
+            int state = ROOT;
+            for (int j = 0; j < literal.length(); j++) {
+                final Character c = literal.charAt(j);
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<Character,Integer>());
+                    output.add(NONE);
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            if (output.get(state) != NONE) {
+                throw new IllegalArgumentException("Literal '" + literal + "' is not unique");
+            }
+            output.set(state, i);
+        }
+
+        final int states = trie.size();
+        m_edgeStart = new int[states + 1];
+        int edges = 0;
+        for (int s = 0; s < states; s++) {
+            m_edgeStart[s] = edges;
+            edges += trie.get(s).size();
+        }
+        m_edgeStart[states] = edges;
+        m_edgeChars = new char[edges];
+        m_edgeTargets = new int[edges];
+        for (int s = 0; s < states; s++) {
+            int e = m_edgeStart[s];
+            for (final Map.Entry<Character,Integer> entry : trie.get(s).entrySet()) {
+                m_edgeChars[e] = entry.getKey();
+                m_edgeTargets[e] = entry.getValue();
+                e++;
+            }
+        }
+
+        m_output = new int[states];
+        for (int s = 0; s < states; s++) {
+            m_output[s] = output.get(s);
+        }
+
+        // compute the failure and output links breadth first
+        m_failure = new int[states];
+        m_nextOutput = new int[states];
+        m_failure[ROOT] = ROOT;
+        m_nextOutput[ROOT] = NONE;
+        final int[] queue = new int[states];
+        int head = 0, tail = 0;
+        for (int e = m_edgeStart[ROOT]; e < m_edgeStart[ROOT + 1]; e++) {
+            final int child = m_edgeTargets[e];
+            m_failure[child] = ROOT;
+            m_nextOutput[child] = NONE;
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            final int state = queue[head++];
+            for (int e = m_edgeStart[state]; e < m_edgeStart[state + 1]; e++) {
+                final char c = m_edgeChars[e];
+                final int child = m_edgeTargets[e];
+                int fallback = m_failure[state];
+                int target = transition(fallback, c);
+                while (target == NONE && fallback != ROOT) {
+                    fallback = m_failure[fallback];
+                    target = transition(fallback, c);
+                }
+                m_failure[child] = target == NONE ? ROOT : target;
+                final int f = m_failure[child];
+                m_nextOutput[child] = m_output[f] != NONE ? f : m_nextOutput[f];
+                queue[tail++] = child;
+            }
+        }
+
+        Arrays.fill(m_rootTransitions, NONE);
+        for (int e = m_edgeStart[ROOT]; e < m_edgeStart[ROOT + 1]; e++) {
+            if (m_edgeChars[e] < DENSE_CHARS) {
+                m_rootTransitions[m_edgeChars[e]] = m_edgeTargets[e];
+            }
+        }
+    }
+
+    int getLiteralCount() {
+        return m_literalCount;
+    }
+
+    private int transition(final int state, final char c) {
+        int low = m_edgeStart[state];
+        int high = m_edgeStart[state + 1] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final char m = m_edgeChars[mid];
+            if (m < c) {
+                low = mid + 1;
+            } else if (m > c) {
+                high = mid - 1;
+            } else {
+                return m_edgeTargets[mid];
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Sets the bit of every literal that occurs in the text.  Bits that are
+     * already set are left alone.
+     */
+    void findAll(final CharSequence text, final BitSet found) {
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            while (true) {
+                final int next;
+                if (state == ROOT) {
+                    next = c < DENSE_CHARS ? m_rootTransitions[c] : transition(ROOT, c);
+                } else {
+                    next = transition(state, c);
+                }
+                if (next != NONE) {
+                    state = next;
+                    break;
+                }
+                if (state == ROOT) {
+                    break;
+                }
+                state = m_failure[state];
+            }
+            for (int s = m_output[state] != NONE ? state : m_nextOutput[state]; s != NONE; s = m_nextOutput[s]) {
+                found.set(m_output[s]);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of direct buffers that UDP datagrams are received into and
+ * parsed from without being copied.
+ *
+ * <p>Each buffer, or slab, holds many datagrams back to back.  A receiving
+ * thread keeps a slab until it no longer has room for the largest possible
+ * datagram, and every datagram received into it holds a reference to it
+ * until it has been parsed.  The slab goes back to the pool when the last
+ * reference is released.</p>
+ */
+final class SyslogBufferPool {
+
+    /**
+     * One of the pooled buffers.
+     */
+    static final class Slab {
+        private final SyslogBufferPool m_pool;
+        private final ByteBuffer m_buffer;
+        private final AtomicInteger m_references = new AtomicInteger(0);
+
+        private Slab(final SyslogBufferPool pool, final int size) {
+            m_pool = pool;
+            m_buffer = ByteBuffer.allocateDirect(size);
+        }
+
+        /**
+         * Returns the buffer to receive into.  Its position is where the
+         * next datagram goes.
+         */
+        ByteBuffer getBuffer() {
+            return m_buffer;
+        }
+
+        void retain() {
+            m_references.incrementAndGet();
+        }
+
+        void release() {
+            if (m_references.decrementAndGet() == 0) {
+                m_buffer.clear();
+                m_pool.m_free.offer(this);
+            }
+        }
+    }
+
+    private final BlockingQueue<Slab> m_free;
+
+    private final int m_size;
+
+    SyslogBufferPool(final int count, final int size) {
+        m_free = new LinkedBlockingQueue<Slab>(count);
+        m_size = count;
+        for (int i = 0; i < count; i++) {
+            m_free.offer(new Slab(this, size));
+        }
+    }
+
+    /**
+     * Takes a slab from the pool, holding one reference to it on behalf of
+     * the caller.
+     *
+     * @return a slab, or null if they are all in use
+     */
+    Slab acquire() {
+        final Slab slab = m_free.poll();
+        if (slab != null) {
+            slab.retain();
+        }
+        return slab;
+    }
+
+    /**
+     * Takes a slab from the pool, waiting for one to be released if they
+     * are all in use.
+     *
+     * @return a slab, or null if none was released in time
+     */
+    Slab acquire(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final Slab slab = m_free.poll(timeout, unit);
+        if (slab != null) {
+            slab.retain();
+        }
+        return slab;
+    }
+
+    int getSize() {
+        return m_size;
+    }
+
+    int getFreeCount() {
+        return m_free.size();
+    }
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.frame.CorruptedFrameException;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+
+/**
+ * Splits a syslog TCP stream into messages, as described in RFC 6587.
+ *
+ * <p>A frame that starts with a digit uses octet counting: the length of
+ * the message in decimal, a space, then the message.  Any other frame is
+ * a message terminated by a line feed (non-transparent framing), with an
+ * optional carriage return before it.  Senders may mix both on the same
+ * connection, and stray line feeds, carriage returns and NULs between
+ * frames are skipped.</p>
+ */
+final class SyslogFrameDecoder extends FrameDecoder {
+
+    /**
+     * The most digits an octet count can have.
+     */
+    private static final int MAX_COUNT_DIGITS = 10;
+
+    private final int m_maxFrameLength;
+
+    /**
+     * How far into the current non-transparent frame the line feed has been
+     * searched for.
+     */
+    private int m_scanned = 0;
+
+    SyslogFrameDecoder(final int maxFrameLength) {
+        m_maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected Object decode(final ChannelHandlerContext ctx, final Channel channel, final ChannelBuffer buffer) throws Exception {
+        if (m_scanned == 0) {
+            skipSeparators(buffer);
+        }
+        if (!buffer.readable()) {
+            return null;
+        }
+
+        final int start = buffer.readerIndex();
+        final byte first = buffer.getByte(start);
+        if (first >= '1' && first <= '9') {
+            return decodeOctetCounted(buffer, start);
+        }
+        return decodeNonTransparent(buffer, start);
+    }
+
+    @Override
+    protected Object decodeLast(final ChannelHandlerContext ctx, final Channel channel, final ChannelBuffer buffer) throws Exception {
+        final Object frame = decode(ctx, channel, buffer);
+        if (frame != null || !buffer.readable()) {
+            return frame;
+        }
+        final byte first = buffer.getByte(buffer.readerIndex());
+        if (first >= '1' && first <= '9') {
+            // a truncated octet-counted message is dropped
+            buffer.skipBytes(buffer.readableBytes());
+            return null;
+        }
+        // the last message doesn't have to be terminated
+        m_scanned = 0;
+        return trimCarriageReturn(buffer.readBytes(buffer.readableBytes()));
+    }
+
+    private Object decodeOctetCounted(final ChannelBuffer buffer, final int start) throws Exception {
+        final int end = buffer.writerIndex();
+        long length = 0;
+        int i = start;
+        for (; i < end; i++) {
+            final byte b = buffer.getByte(i);
+            if (b == ' ') {
+                break;
+            }
+            if (b < '0' || b > '9' || i - start >= MAX_COUNT_DIGITS) {
+                buffer.skipBytes(buffer.readableBytes());
+                throw new CorruptedFrameException("Invalid octet count in syslog frame");
+            }
+            length = length * 10 + (b - '0');
+        }
+        if (length > m_maxFrameLength) {
+            buffer.skipBytes(buffer.readableBytes());
+            throw new TooLongFrameException("Syslog message of " + length + " bytes exceeds the limit of " + m_maxFrameLength + " bytes");
+        }
+        if (i == end || end - (i + 1) < length) {
+            // wait for the rest of the frame
+            return null;
+        }
+        buffer.readerIndex(i + 1);
+        return buffer.readBytes((int)length);
+    }
+
+    private Object decodeNonTransparent(final ChannelBuffer buffer, final int start) throws Exception {
+        final int end = buffer.writerIndex();
+        final int lf = buffer.indexOf(start + m_scanned, end, (byte)'\n');
+        if (lf < 0) {
+            m_scanned = end - start;
+            if (m_scanned > m_maxFrameLength) {
+                m_scanned = 0;
+                buffer.skipBytes(buffer.readableBytes());
+                throw new TooLongFrameException("Syslog message exceeds the limit of " + m_maxFrameLength + " bytes");
+            }
+            return null;
+        }
+        m_scanned = 0;
+        if (lf - start > m_maxFrameLength) {
+            buffer.readerIndex(lf + 1);
+            throw new TooLongFrameException("Syslog message of " + (lf - start) + " bytes exceeds the limit of " + m_maxFrameLength + " bytes");
+        }
+        final ChannelBuffer frame = buffer.readBytes(lf - start);
+        buffer.skipBytes(1);
+        return trimCarriageReturn(frame);
+    }
+
+    private static void skipSeparators(final ChannelBuffer buffer) {
+        while (buffer.readable()) {
+            final byte b = buffer.getByte(buffer.readerIndex());
+            if (b != '\n' && b != '\r' && b != 0) {
+                return;
+            }
+            buffer.skipBytes(1);
+        }
+    }
+
+    private static ChannelBuffer trimCarriageReturn(final ChannelBuffer frame) {
+        final int last = frame.writerIndex() - 1;
+        if (last >= frame.readerIndex() && frame.getByte(last) == '\r') {
+            frame.writerIndex(last);
+        }
+        return frame;
+    }
+}
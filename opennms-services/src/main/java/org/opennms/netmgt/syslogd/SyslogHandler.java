@@ -32,6 +32,11 @@ import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.nio.channels.DatagramChannel;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.net.ssl.SSLContext;
 
 import org.opennms.core.fiber.Fiber;
 import org.opennms.core.utils.InetAddressUtils;
@@ -56,13 +61,18 @@ import org.slf4j.LoggerFactory;
 public final class SyslogHandler implements Fiber {
     private static final Logger LOG = LoggerFactory.getLogger(SyslogHandler.class);
 
-    private final boolean USE_NIO = false;
+    private final boolean USE_NIO = true;
 
     /**
      * The UDP receiver thread.
      */
     private SyslogReceiver m_receiver;
 
+    /**
+     * The TCP and TLS receivers, if they are configured.
+     */
+    private final List<SyslogReceiver> m_streamReceivers = new ArrayList<SyslogReceiver>(2);
+
     /**
      * The Fiber's status.
      */
@@ -99,6 +109,20 @@ public final class SyslogHandler implements Fiber {
      */
     private String m_dgIp;
 
+    /**
+     * The TCP port binding, or null if syslog is not accepted over TCP.
+     */
+    private final Integer m_tcpPort;
+
+    /**
+     * The TLS port binding, or null if syslog is not accepted over TLS.
+     */
+    private final Integer m_tlsPort;
+
+    private final String m_tlsKeystore;
+
+    private final String m_tlsKeystorePassword;
+
     /**
      * The log prefix
      */
@@ -118,6 +142,10 @@ public final class SyslogHandler implements Fiber {
         m_dgSock = null;
         m_dgPort = m_syslogdConfig.getSyslogPort();
         m_dgIp = m_syslogdConfig.getListenAddress();
+        m_tcpPort = m_syslogdConfig.getTcpPort();
+        m_tlsPort = m_syslogdConfig.getTlsPort();
+        m_tlsKeystore = m_syslogdConfig.getTlsKeystore();
+        m_tlsKeystorePassword = m_syslogdConfig.getTlsKeystorePassword();
 
         // the Matching Regexp is broken out into the config-file of syslogd
 
@@ -202,8 +230,22 @@ public final class SyslogHandler implements Fiber {
             if (m_logPrefix != null) {
                 m_receiver.setLogPrefix(m_logPrefix);
             }
+
+            if (m_tcpPort != null) {
+                m_streamReceivers.add(createStreamReceiver(m_tcpPort, null));
+            }
+            if (m_tlsPort != null) {
+                m_streamReceivers.add(createStreamReceiver(m_tlsPort, SyslogReceiverTcpImpl.createSSLContext(m_tlsKeystore, m_tlsKeystorePassword)));
+            }
         } catch (IOException e) {
+            stopStreamReceivers();
             throw new java.lang.reflect.UndeclaredThrowableException(e);
+        } catch (GeneralSecurityException e) {
+            stopStreamReceivers();
+            throw new java.lang.reflect.UndeclaredThrowableException(e);
+        } catch (RuntimeException e) {
+            stopStreamReceivers();
+            throw e;
         }
 
         Thread rThread = new Thread(m_receiver, "Syslog Event Receiver["
@@ -246,9 +288,51 @@ public final class SyslogHandler implements Fiber {
             m_dgSock.close();
         }
 
+        stopStreamReceivers();
+
         m_status = STOPPED;
     }
 
+    /**
+     * Creates a TCP or TLS receiver on the configured listen address and
+     * binds it right away, so that a port conflict fails the start.
+     */
+    private SyslogReceiver createStreamReceiver(final int port, final SSLContext sslContext) {
+        final InetSocketAddress address;
+        if (m_dgIp != null && m_dgIp.length() != 0) {
+            address = new InetSocketAddress(InetAddressUtils.addr(m_dgIp), port);
+        } else {
+            address = new InetSocketAddress(port);
+        }
+
+        final SyslogReceiver receiver = new SyslogReceiverTcpImpl(
+            address,
+            sslContext,
+            m_ForwardingRegexp,
+            m_MatchingGroupHost,
+            m_MatchingGroupMessage,
+            m_UeiList,
+            m_HideMessages,
+            m_DiscardUei
+        );
+        if (m_logPrefix != null) {
+            receiver.setLogPrefix(m_logPrefix);
+        }
+        receiver.run();
+        return receiver;
+    }
+
+    private void stopStreamReceivers() {
+        for (final SyslogReceiver receiver : m_streamReceivers) {
+            try {
+                receiver.stop();
+            } catch (InterruptedException e) {
+                LOG.warn("The thread was interrupted while stopping {}", receiver, e);
+            }
+        }
+        m_streamReceivers.clear();
+    }
+
     /**
      * <p>getName</p>
      *
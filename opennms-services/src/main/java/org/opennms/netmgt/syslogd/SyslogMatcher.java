@@ -0,0 +1,555 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.HideMessage;
+import org.opennms.netmgt.config.syslogd.UeiList;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>ueiList</code> and <code>hideMessage</code> sections of the
+ * syslogd configuration, compiled for matching.
+ *
+ * <p>All of the regular expressions are compiled once.  The substring
+ * expressions, and the literal text that a regular expression can't match
+ * without, are loaded into a {@link LiteralAutomaton} so that a single pass
+ * over a message finds every rule that may match it, and the rules are
+ * indexed by facility and severity.  Only those candidate rules are then
+ * evaluated, in configuration order, so the first rule that matches still
+ * wins.</p>
+ */
+final class SyslogMatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogMatcher.class);
+
+    private static volatile SyslogMatcher s_instance;
+
+    /**
+     * The result of a successful UEI match.
+     */
+    static final class UeiMatchResult {
+        private final UeiMatch m_ueiMatch;
+        private final Matcher m_matcher;
+
+        private UeiMatchResult(final UeiMatch ueiMatch, final Matcher matcher) {
+            m_ueiMatch = ueiMatch;
+            m_matcher = matcher;
+        }
+
+        UeiMatch getUeiMatch() {
+            return m_ueiMatch;
+        }
+
+        /**
+         * @return the matcher that found the message, or null for a
+         *         substring match
+         */
+        Matcher getMatcher() {
+            return m_matcher;
+        }
+    }
+
+    private static final class CompiledRule {
+        private final UeiMatch m_ueiMatch;
+        private final Set<String> m_facilities;
+        private final Set<String> m_severities;
+        private final Pattern m_process;
+        private final Pattern m_hostname;
+        private final Pattern m_hostaddr;
+        private final boolean m_regex;
+        private final Pattern m_pattern;
+        private int[] m_literals = new int[0];
+
+        private CompiledRule(final UeiMatch ueiMatch, final boolean regex, final Pattern pattern) {
+            m_ueiMatch = ueiMatch;
+            m_facilities = lowerCase(ueiMatch.getFacilityCollection());
+            m_severities = lowerCase(ueiMatch.getSeverityCollection());
+            m_process = ueiMatch.getProcessMatch() == null ? null : compile(ueiMatch.getProcessMatch().getExpression());
+            m_hostname = ueiMatch.getHostnameMatch() == null ? null : compile(ueiMatch.getHostnameMatch().getExpression());
+            m_hostaddr = ueiMatch.getHostaddrMatch() == null ? null : compile(ueiMatch.getHostaddrMatch().getExpression());
+            m_regex = regex;
+            m_pattern = pattern;
+        }
+
+        private boolean isValid() {
+            return (m_ueiMatch.getProcessMatch() == null || m_process != null)
+                && (m_ueiMatch.getHostnameMatch() == null || m_hostname != null)
+                && (m_ueiMatch.getHostaddrMatch() == null || m_hostaddr != null)
+                && (!m_regex || m_pattern != null);
+        }
+
+        private boolean matchesFacilityAndSeverity(final String facility, final String severity) {
+            return (m_facilities.isEmpty() || m_facilities.contains(facility))
+                && (m_severities.isEmpty() || m_severities.contains(severity));
+        }
+
+        private boolean matchesSource(final SyslogMessage message) {
+            return find(m_process, message.getProcessName())
+                && find(m_hostname, message.getHostName())
+                && find(m_hostaddr, message.getHostAddress());
+        }
+
+        private static boolean find(final Pattern pattern, final String input) {
+            if (pattern == null) return true;
+            if (input == null) return false;
+            return pattern.matcher(input).find();
+        }
+    }
+
+    private final UeiList m_ueiList;
+    private final HideMessage m_hideMessage;
+
+    private final CompiledRule[] m_rules;
+    private final LiteralAutomaton m_automaton;
+
+    /** The rules that are only candidates when a literal is found, by literal. */
+    private final int[][] m_rulesByLiteral;
+
+    /** The rules without any literal, which are always candidates. */
+    private final BitSet m_unanchoredRules = new BitSet();
+
+    /** The rules whose facility and severity lists match, by facility and severity. */
+    private final Map<String,BitSet> m_rulesByPriority = new ConcurrentHashMap<String,BitSet>();
+
+    private final String[] m_hideSubstrings;
+    private final Pattern[] m_hidePatterns;
+
+    private SyslogMatcher(final UeiList ueiList, final HideMessage hideMessage) {
+        m_ueiList = ueiList;
+        m_hideMessage = hideMessage;
+
+        final List<CompiledRule> rules = new ArrayList<CompiledRule>();
+        final List<List<String>> ruleLiterals = new ArrayList<List<String>>();
+        if (ueiList != null) {
+            for (final UeiMatch uei : ueiList.getUeiMatchCollection()) {
+                if (uei.getMatch() == null) continue;
+                final String type = uei.getMatch().getType();
+                final String expression = uei.getMatch().getExpression();
+                final CompiledRule rule;
+                final List<String> literals;
+                if ("substr".equals(type)) {
+                    rule = new CompiledRule(uei, false, null);
+                    literals = expression.isEmpty() ? Collections.<String>emptyList() : Collections.singletonList(expression);
+                } else if (type.startsWith("regex")) {
+                    rule = new CompiledRule(uei, true, compile(expression));
+                    literals = getRequiredLiterals(expression);
+                } else {
+                    continue;
+                }
+                if (!rule.isValid()) {
+                    // this rule can never match
+                    continue;
+                }
+                rules.add(rule);
+                ruleLiterals.add(literals);
+            }
+        }
+        m_rules = rules.toArray(new CompiledRule[rules.size()]);
+
+        // number the distinct literals and count how many rules use each one
+        final Map<String,Integer> literalIds = new HashMap<String,Integer>();
+        final List<String> literals = new ArrayList<String>();
+        final List<Integer> useCounts = new ArrayList<Integer>();
+        for (int i = 0; i < m_rules.length; i++) {
+            final List<String> required = ruleLiterals.get(i);
+            final int[] ids = new int[required.size()];
+            for (int j = 0; j < ids.length; j++) {
+                Integer id = literalIds.get(required.get(j));
+                if (id == null) {
+                    id = literals.size();
+                    literalIds.put(required.get(j), id);
+                    literals.add(required.get(j));
+                    useCounts.add(0);
+                }
+                useCounts.set(id, useCounts.get(id) + 1);
+                ids[j] = id;
+            }
+            m_rules[i].m_literals = ids;
+        }
+        m_automaton = new LiteralAutomaton(literals);
+
+        // anchor each rule on its least used literal, preferring longer ones
+        final List<List<Integer>> rulesByLiteral = new ArrayList<List<Integer>>();
+        for (int i = 0; i < literals.size(); i++) {
+            rulesByLiteral.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < m_rules.length; i++) {
+            int anchor = -1;
+            for (final int id : m_rules[i].m_literals) {
+                if (anchor == -1 || useCounts.get(id) < useCounts.get(anchor)
+                        || (useCounts.get(id).equals(useCounts.get(anchor)) && literals.get(id).length() > literals.get(anchor).length())) {
+                    anchor = id;
+                }
+            }
+            if (anchor == -1) {
+                m_unanchoredRules.set(i);
+            } else {
+                rulesByLiteral.get(anchor).add(i);
+            }
+        }
+        m_rulesByLiteral = new int[literals.size()][];
+        for (int i = 0; i < m_rulesByLiteral.length; i++) {
+            final List<Integer> anchored = rulesByLiteral.get(i);
+            m_rulesByLiteral[i] = new int[anchored.size()];
+            for (int j = 0; j < anchored.size(); j++) {
+                m_rulesByLiteral[i][j] = anchored.get(j);
+            }
+        }
+
+        final List<String> hideSubstrings = new ArrayList<String>();
+        final List<Pattern> hidePatterns = new ArrayList<Pattern>();
+        if (hideMessage != null) {
+            for (final HideMatch hide : hideMessage.getHideMatchCollection()) {
+                if (hide.getMatch().getType().equals("substr")) {
+                    hideSubstrings.add(hide.getMatch().getExpression());
+                } else if (hide.getMatch().getType().equals("regex")) {
+                    final Pattern pattern = compile(hide.getMatch().getExpression());
+                    if (pattern != null) {
+                        hidePatterns.add(pattern);
+                    }
+                }
+            }
+        }
+        m_hideSubstrings = hideSubstrings.toArray(new String[hideSubstrings.size()]);
+        m_hidePatterns = hidePatterns.toArray(new Pattern[hidePatterns.size()]);
+
+        LOG.debug("Compiled {} UEI matches with {} literals, {} of them without a literal", m_rules.length, literals.size(), m_unanchoredRules.cardinality());
+    }
+
+    /**
+     * Returns the compiled form of the given configuration, compiling it if
+     * it isn't the configuration that was compiled last.
+     */
+    static SyslogMatcher getInstance(final UeiList ueiList, final HideMessage hideMessage) {
+        SyslogMatcher matcher = s_instance;
+        if (matcher == null || matcher.m_ueiList != ueiList || matcher.m_hideMessage != hideMessage) {
+            synchronized (SyslogMatcher.class) {
+                matcher = s_instance;
+                if (matcher == null || matcher.m_ueiList != ueiList || matcher.m_hideMessage != hideMessage) {
+                    matcher = new SyslogMatcher(ueiList, hideMessage);
+                    s_instance = matcher;
+                }
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * Forgets the compiled configuration, so that changes made to the
+     * configuration objects themselves are picked up.
+     */
+    static void invalidate() {
+        s_instance = null;
+    }
+
+    /**
+     * Finds the first <code>ueiMatch</code> in the configuration that
+     * matches the message.
+     *
+     * @return the match, or null if no rule matches
+     */
+    UeiMatchResult matchUei(final SyslogMessage message, final String facilityTxt, final String priorityTxt) {
+        if (m_rules.length == 0) {
+            return null;
+        }
+
+        final BitSet eligible = getRulesForPriority(facilityTxt, priorityTxt);
+        if (eligible.isEmpty()) {
+            return null;
+        }
+
+        // substring expressions are matched against the matched message, and
+        // regular expressions against the full text if there isn't one
+        final String matchedText = message.getMatchedMessage();
+        final String regexText = matchedText != null ? matchedText : message.getFullText();
+        final BitSet substrLiterals = new BitSet(m_automaton.getLiteralCount());
+        if (matchedText != null) {
+            m_automaton.findAll(matchedText, substrLiterals);
+        }
+        final BitSet regexLiterals;
+        if (regexText == matchedText) {
+            regexLiterals = substrLiterals;
+        } else {
+            regexLiterals = new BitSet(m_automaton.getLiteralCount());
+            m_automaton.findAll(regexText, regexLiterals);
+        }
+
+        final BitSet candidates = (BitSet)m_unanchoredRules.clone();
+        addAnchoredRules(substrLiterals, candidates);
+        if (regexLiterals != substrLiterals) {
+            addAnchoredRules(regexLiterals, candidates);
+        }
+        candidates.and(eligible);
+
+        final boolean traceEnabled = LOG.isTraceEnabled();
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            final CompiledRule rule = m_rules[i];
+            final BitSet found = rule.m_regex ? regexLiterals : substrLiterals;
+            if (!containsAll(found, rule.m_literals) || !rule.matchesSource(message)) {
+                continue;
+            }
+            if (!rule.m_regex) {
+                if (matchedText != null) {
+                    return new UeiMatchResult(rule.m_ueiMatch, null);
+                }
+            } else {
+                final Matcher matcher = rule.m_pattern.matcher(regexText);
+                if (matcher.find()) {
+                    return new UeiMatchResult(rule.m_ueiMatch, matcher);
+                }
+                if (traceEnabled) LOG.trace("Message '{}' did not regex-match pattern '{}'", message.getMessage(), rule.m_ueiMatch.getMatch().getExpression());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the message should be hidden from the event
+     */
+    boolean shouldHide(final String fullText) {
+        for (final String substring : m_hideSubstrings) {
+            if (fullText.contains(substring)) {
+                return true;
+            }
+        }
+        for (final Pattern pattern : m_hidePatterns) {
+            if (pattern.matcher(fullText).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addAnchoredRules(final BitSet literals, final BitSet candidates) {
+        for (int id = literals.nextSetBit(0); id >= 0; id = literals.nextSetBit(id + 1)) {
+            for (final int rule : m_rulesByLiteral[id]) {
+                candidates.set(rule);
+            }
+        }
+    }
+
+    private static boolean containsAll(final BitSet found, final int[] literals) {
+        for (final int id : literals) {
+            if (!found.get(id)) return false;
+        }
+        return true;
+    }
+
+    private BitSet getRulesForPriority(final String facilityTxt, final String priorityTxt) {
+        final String facility = facilityTxt.toLowerCase(Locale.ENGLISH);
+        final String severity = priorityTxt.toLowerCase(Locale.ENGLISH);
+        final String key = facility + "/" + severity;
+        BitSet rules = m_rulesByPriority.get(key);
+        if (rules == null) {
+            rules = new BitSet(m_rules.length);
+            for (int i = 0; i < m_rules.length; i++) {
+                if (m_rules[i].matchesFacilityAndSeverity(facility, severity)) {
+                    rules.set(i);
+                }
+            }
+            m_rulesByPriority.put(key, rules);
+        }
+        return rules;
+    }
+
+    private static Set<String> lowerCase(final List<String> values) {
+        if (values.isEmpty()) {
+            return Collections.emptySet();
+        }
+        final Set<String> lower = new HashSet<String>();
+        for (final String value : values) {
+            lower.add(value.toLowerCase(Locale.ENGLISH));
+        }
+        return lower;
+    }
+
+    private static Pattern compile(final String expression) {
+        try {
+            return Pattern.compile(expression, Pattern.MULTILINE);
+        } catch (final PatternSyntaxException pse) {
+            LOG.warn("Failed to compile regex pattern '{}'", expression, pse);
+            return null;
+        }
+    }
+
+    /**
+     * Returns runs of literal text that every match of the regular
+     * expression must contain.  Only text outside of groups is considered,
+     * and nothing is returned for expressions with a top level alternation,
+     * inline flags or escapes that aren't understood, so the result is
+     * always safe to use as a pre-filter.
+     */
+    static List<String> getRequiredLiterals(final String regex) {
+        final List<String> literals = new ArrayList<String>();
+        final StringBuilder run = new StringBuilder();
+        int depth = 0;
+        int i = 0;
+        final int len = regex.length();
+        while (i < len) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= len) return Collections.emptyList();
+                final char e = regex.charAt(i + 1);
+                i += 2;
+                if (e == 'Q') {
+                    // quoted text can contain anything, including parentheses
+                    return Collections.emptyList();
+                }
+                if (depth > 0) continue;
+                if (!Character.isLetterOrDigit(e)) {
+                    i = appendLiteral(regex, i, e, run, literals);
+                } else if ("dDsSwWbBAGZz".indexOf(e) >= 0) {
+                    endRun(run, literals);
+                } else {
+                    // octal, hex, unicode, control, property and quoting escapes
+                    return Collections.emptyList();
+                }
+            } else if (c == '[') {
+                i = skipCharacterClass(regex, i);
+                if (i < 0) return Collections.emptyList();
+                if (depth == 0) endRun(run, literals);
+            } else if (c == '(') {
+                if (i + 1 < len && regex.charAt(i + 1) == '?') {
+                    if (i + 2 >= len || ":=!<>".indexOf(regex.charAt(i + 2)) < 0) {
+                        // inline flags, e.g. (?i)
+                        return Collections.emptyList();
+                    }
+                }
+                if (depth == 0) endRun(run, literals);
+                depth++;
+                i++;
+            } else if (c == ')') {
+                depth--;
+                i++;
+            } else if (c == '|') {
+                if (depth == 0) return Collections.emptyList();
+                i++;
+            } else if (c == '.' || c == '^' || c == '$' || c == '?' || c == '*' || c == '+' || c == '{') {
+                if (c == '{') {
+                    final int close = regex.indexOf('}', i);
+                    if (close < 0) return Collections.emptyList();
+                    i = close;
+                }
+                if (depth == 0) endRun(run, literals);
+                i++;
+            } else {
+                i++;
+                if (depth == 0) {
+                    i = appendLiteral(regex, i, c, run, literals);
+                }
+            }
+        }
+        endRun(run, literals);
+        return literals;
+    }
+
+    /**
+     * Appends a literal character to the current run, taking any quantifier
+     * that follows it into account, and returns the index after it.
+     */
+    private static int appendLiteral(final String regex, int i, final char c, final StringBuilder run, final List<String> literals) {
+        final char q = i < regex.length() ? regex.charAt(i) : 0;
+        if (q == '?' || q == '*') {
+            // the character is optional
+            endRun(run, literals);
+            return i + 1;
+        } else if (q == '{') {
+            final int close = regex.indexOf('}', i);
+            final boolean optional = close < 0 || regex.charAt(i + 1) == '0';
+            if (!optional) {
+                run.append(c);
+            }
+            endRun(run, literals);
+            return close < 0 ? regex.length() : close + 1;
+        } else if (q == '+') {
+            // required at least once, but the run can't continue past it
+            run.append(c);
+            endRun(run, literals);
+            return i + 1;
+        }
+        run.append(c);
+        return i;
+    }
+
+    private static void endRun(final StringBuilder run, final List<String> literals) {
+        if (run.length() > 0) {
+            final String literal = run.toString();
+            if (!literals.contains(literal)) {
+                literals.add(literal);
+            }
+            run.setLength(0);
+        }
+    }
+
+    /**
+     * Returns the index after the character class starting at i, or -1 if
+     * it isn't closed.
+     */
+    private static int skipCharacterClass(final String regex, int i) {
+        int depth = 0;
+        final int len = regex.length();
+        while (i < len) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+                i++;
+                // a ] right after the opening bracket (or ^) is literal
+                if (i < len && regex.charAt(i) == '^') i++;
+                if (i < len && regex.charAt(i) == ']') i++;
+                continue;
+            }
+            if (c == ']') {
+                depth--;
+                if (depth == 0) return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+}
@@ -41,6 +41,7 @@ import org.opennms.netmgt.config.SyslogdConfigFactory;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.events.api.EventIpcManagerFactory;
 import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Parm;
 
 /**
@@ -115,9 +116,13 @@ final class SyslogProcessor implements EndOfTheWaterfall {
     }
 
     private static void sendNewSuspectEvent(String localAddr, String trapInterface) {
+        EventIpcManagerFactory.getIpcManager().sendNow(createNewSuspectEvent(localAddr, trapInterface));
+    }
+
+    static Event createNewSuspectEvent(String localAddr, String trapInterface) {
         EventBuilder bldr = new EventBuilder(EventConstants.NEW_SUSPECT_INTERFACE_EVENT_UEI, "syslogd");
         bldr.setInterface(addr(trapInterface));
         bldr.setHost(localAddr);
-        EventIpcManagerFactory.getIpcManager().sendNow(bldr.getEvent());
+        return bldr.getEvent();
     }
 }
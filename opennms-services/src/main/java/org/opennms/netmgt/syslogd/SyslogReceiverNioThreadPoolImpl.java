@@ -29,36 +29,92 @@
 package org.opennms.netmgt.syslogd;
 
 import java.io.IOException;
-import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.DatagramChannel;
-import java.util.concurrent.ExecutionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 import org.opennms.core.concurrent.LogPreservingThreadFactory;
-import org.opennms.core.concurrent.WaterfallExecutor;
 import org.opennms.core.logging.Logging;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.config.SyslogdConfigFactory;
 import org.opennms.netmgt.config.syslogd.HideMessage;
 import org.opennms.netmgt.config.syslogd.UeiList;
+import org.opennms.netmgt.events.api.EventIpcManagerFactory;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Events;
+import org.opennms.netmgt.xml.event.Log;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Receives syslog datagrams on an NIO channel.
+ *
+ * <p>Datagrams are received into pooled direct buffers (see
+ * {@link SyslogBufferPool}) and put on a bounded queue as they are, without
+ * copying.  Parser threads take them off the queue in batches, decode each
+ * one straight from its buffer and send all of the resulting events to
+ * eventd in a single {@link Log}.</p>
+ *
+ * <p>When the queue is full, the <code>org.opennms.netmgt.syslogd.udpOverloadPolicy</code>
+ * system property decides what happens: <code>DROP_NEWEST</code> (the
+ * default) drops the datagram just received, <code>DROP_OLDEST</code> drops
+ * the one that has waited longest and <code>BLOCK</code> stops receiving
+ * until there is room, leaving it to the kernel to drop datagrams once the
+ * socket buffer fills.  The size of the queue is set with
+ * <code>org.opennms.netmgt.syslogd.udpQueueSize</code>.</p>
+ *
  * @author <a href="mailto:weave@oculan.com">Brian Weaver</a>
  * @author <a href="http://www.oculan.com">Oculan Corporation</a>
  * @fiddler joed
  */
-class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
+class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver, SyslogReceiverNioThreadPoolImplMBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(SyslogReceiverNioThreadPoolImpl.class);
 
-    private static final int SOCKET_TIMEOUT = 500;
+    public static final String QUEUE_SIZE_PROPERTY = "org.opennms.netmgt.syslogd.udpQueueSize";
+
+    public static final String OVERLOAD_POLICY_PROPERTY = "org.opennms.netmgt.syslogd.udpOverloadPolicy";
+
+    /**
+     * What to do with a datagram when the queue is full.
+     */
+    enum OverloadPolicy {
+        DROP_NEWEST,
+        DROP_OLDEST,
+        BLOCK
+    }
+
+    private static final int DEFAULT_QUEUE_SIZE = 16384;
+
+    /**
+     * The largest datagram that can be received.
+     */
+    private static final int MAX_DATAGRAM_LENGTH = 0xffff;
+
+    private static final int SLAB_SIZE = 16 * MAX_DATAGRAM_LENGTH;
+
+    private static final int SLAB_COUNT = 32;
+
+    /**
+     * The most events sent to eventd in one log.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    private static final long POLL_TIMEOUT = 500;
 
     /**
      * The Fiber's status.
@@ -84,10 +140,53 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
 
     private final HideMessage m_HideMessages;
 
-    private final ExecutorService m_executor;
+    private final boolean m_newSuspectOnMessage;
+
+    private final String m_localAddr;
+
+    private final OverloadPolicy m_overloadPolicy;
+
+    private final SyslogBufferPool m_buffers;
+
+    private final BlockingQueue<Datagram> m_queue;
+
+    private final ExecutorService m_parsers;
 
     private final ExecutorService m_socketReceivers;
 
+    private final AtomicLong m_received = new AtomicLong(0);
+
+    private final AtomicLong m_parsed = new AtomicLong(0);
+
+    private final AtomicLong m_discarded = new AtomicLong(0);
+
+    private final AtomicLong m_dropped = new AtomicLong(0);
+
+    private final AtomicLong m_batches = new AtomicLong(0);
+
+    private ObjectName m_objectName;
+
+    /**
+     * A datagram waiting to be parsed, still in the buffer it was received
+     * into.
+     */
+    private static final class Datagram {
+        private final InetSocketAddress m_source;
+        private final ByteBuffer m_data;
+        private final SyslogBufferPool.Slab m_slab;
+
+        private Datagram(final InetSocketAddress source, final ByteBuffer data, final SyslogBufferPool.Slab slab) {
+            m_source = source;
+            m_data = data;
+            m_slab = slab;
+            slab.retain();
+        }
+
+        private void release() {
+            m_slab.release();
+        }
+    }
+
     /**
      * Construct a new receiver
      *
@@ -106,29 +205,40 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
         m_discardUei = discardUei;
         m_UeiList = ueiList;
         m_HideMessages = hideMessages;
+        m_newSuspectOnMessage = SyslogdConfigFactory.getInstance().getNewSuspectOnMessage();
+        m_localAddr = InetAddressUtils.getLocalHostName();
 
-        m_executor = new ThreadPoolExecutor(
-            Runtime.getRuntime().availableProcessors() * 2,
+        m_overloadPolicy = getOverloadPolicy(System.getProperty(OVERLOAD_POLICY_PROPERTY));
+        m_queue = new ArrayBlockingQueue<Datagram>(Math.max(1, Integer.getInteger(QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE)));
+        m_buffers = new SyslogBufferPool(SLAB_COUNT, SLAB_SIZE);
+
+        // These threads take datagrams off of the queue, parse them and send the events to eventd
+        m_parsers = Executors.newFixedThreadPool(
             Runtime.getRuntime().availableProcessors() * 2,
-            1000L,
-            TimeUnit.MILLISECONDS,
-            new LinkedBlockingQueue<Runnable>(),
             new LogPreservingThreadFactory(getClass().getSimpleName(), Integer.MAX_VALUE)
         );
 
         // This thread pool is used to process {@link DatagramChannel#receive(ByteBuffer)} calls
         // on the syslog port. By using multiple threads, we can optimize the receipt of
         // packet data from the syslog port and avoid discarding UDP syslog packets.
-        m_socketReceivers = new ThreadPoolExecutor(
+        m_socketReceivers = Executors.newFixedThreadPool(
             Runtime.getRuntime().availableProcessors(),
-            Runtime.getRuntime().availableProcessors(),
-            1000L,
-            TimeUnit.MILLISECONDS,
-            new LinkedBlockingQueue<Runnable>(),
             new LogPreservingThreadFactory(getClass().getSimpleName() + "-SocketReceiver", Integer.MAX_VALUE)
         );
     }
 
+    private static OverloadPolicy getOverloadPolicy(final String value) {
+        if (value == null || value.trim().length() == 0) {
+            return OverloadPolicy.DROP_NEWEST;
+        }
+        try {
+            return OverloadPolicy.valueOf(value.trim().toUpperCase());
+        } catch (final IllegalArgumentException e) {
+            LOG.warn("Unknown value for {}: {}, using {}", OVERLOAD_POLICY_PROPERTY, value, OverloadPolicy.DROP_NEWEST);
+            return OverloadPolicy.DROP_NEWEST;
+        }
+    }
+
     /**
      * stop the current receiver
      * @throws InterruptedException
@@ -138,11 +248,29 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
     public void stop() throws InterruptedException {
         m_stop = true;
 
-        // Shut down the thread pool that is processing DatagramChannel.receive() calls
-        m_socketReceivers.shutdown();
+        // Closing the channel wakes up the threads blocked in DatagramChannel.receive()
+        try {
+            m_channel.close();
+        } catch (final IOException e) {
+            LOG.warn("An I/O error occured while closing the syslog channel", e);
+        }
+        m_socketReceivers.shutdownNow();
 
-        // Shut down the thread pools that are executing SyslogConnection and SyslogProcessor tasks
-        m_executor.shutdown();
+        // Let the parsers finish with the datagrams already queued
+        m_parsers.shutdown();
+        if (!m_parsers.awaitTermination(30, TimeUnit.SECONDS)) {
+            LOG.warn("Timed out waiting for {} queued syslog messages to be processed", m_queue.size());
+            m_parsers.shutdownNow();
+        }
+
+        if (m_objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(m_objectName);
+            } catch (final Exception e) {
+                LOG.debug("Unable to unregister {} from JMX", m_objectName, e);
+            }
+            m_objectName = null;
+        }
 
         if (m_context != null) {
             LOG.debug("Stopping and joining thread context {}", m_context.getName());
@@ -169,15 +297,6 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
         } else
             LOG.debug("Thread context started");
 
-        // set an SO timeout to make sure we don't block forever
-        // if a socket is closed.
-        try {
-            LOG.debug("Setting socket timeout to {}ms", SOCKET_TIMEOUT);
-            m_channel.socket().setSoTimeout(SOCKET_TIMEOUT);
-        } catch (SocketException e) {
-            LOG.warn("An I/O error occured while trying to set the socket timeout", e);
-        }
-
         // Increase the receive buffer for the socket
         try {
             LOG.debug("Attempting to set receive buffer size to {}", Integer.MAX_VALUE);
@@ -187,67 +306,175 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
             LOG.info("Failed to set the receive buffer to {}", Integer.MAX_VALUE, e);
         }
 
+        try {
+            m_objectName = new ObjectName("OpenNMS:Name=SyslogdUdpReceiver,Port=" + m_channel.socket().getLocalPort());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(this, SyslogReceiverNioThreadPoolImplMBean.class), m_objectName);
+        } catch (final Exception e) {
+            LOG.debug("Unable to register {} with JMX", m_objectName, e);
+            m_objectName = null;
+        }
+
+        for (int i = 0; i < Runtime.getRuntime().availableProcessors() * 2; i++) {
+            m_parsers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    parse();
+                }
+            });
+        }
+
         for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
             m_socketReceivers.execute(new Runnable() {
+                @Override
                 public void run() {
-
-                    // set to avoid numerous tracing message
-                    boolean ioInterrupted = false;
-
-                    // Allocate a buffer that's big enough to handle any sane syslog message
-                    ByteBuffer buffer = ByteBuffer.allocate(0xffff);
-                    buffer.clear();
-
-                    // now start processing incoming requests
-                    while (!m_stop) {
-                        if (m_context.isInterrupted()) {
-                            LOG.debug("Thread context interrupted");
-                            break;
-                        }
-
-                        try {
-                            if (!ioInterrupted) {
-                                LOG.debug("Waiting on a datagram to arrive");
-                            }
-
-                            // Write the datagram into the ByteBuffer
-                            InetSocketAddress source = (InetSocketAddress)m_channel.receive(buffer);
-
-                            // Flip the buffer from write to read mode
-                            buffer.flip();
-
-                            WaterfallExecutor.waterfall(m_executor, new SyslogConnection(source, buffer, m_matchPattern, m_hostGroup, m_messageGroup, m_UeiList, m_HideMessages, m_discardUei));
-
-                            // Clear the buffer so that it's ready for writing again
-                            buffer.clear();
-
-                            // reset the flag
-                            ioInterrupted = false; 
-                        } catch (SocketTimeoutException e) {
-                            ioInterrupted = true;
-                            continue;
-                        } catch (InterruptedIOException e) {
-                            ioInterrupted = true;
-                            continue;
-                        } catch (ExecutionException e) {
-                            LOG.error("Task execution failed in {}", this.getClass().getSimpleName(), e);
-                            break;
-                        } catch (InterruptedException e) {
-                            LOG.error("Task interrupted in {}", this.getClass().getSimpleName(), e);
-                            break;
-                        } catch (IOException e) {
-                            LOG.error("An I/O exception occured on the datagram receipt port, exiting", e);
-                            break;
-                        }
-
-                    } // end while status OK
-
-                    LOG.debug("Thread context exiting");
+                    receive();
                 }
             });
         }
     }
 
+    /**
+     * Receives datagrams into the pooled buffers and queues them until the
+     * receiver is stopped.
+     */
+    private void receive() {
+        // where datagrams are received when they have to be dropped
+        final ByteBuffer discard = ByteBuffer.allocateDirect(MAX_DATAGRAM_LENGTH);
+        SyslogBufferPool.Slab slab = null;
+
+        try {
+            while (!m_stop) {
+                if (slab != null && slab.getBuffer().remaining() < MAX_DATAGRAM_LENGTH) {
+                    slab.release();
+                    slab = null;
+                }
+                if (slab == null) {
+                    slab = m_overloadPolicy == OverloadPolicy.BLOCK ? m_buffers.acquire(POLL_TIMEOUT, TimeUnit.MILLISECONDS) : m_buffers.acquire();
+                    if (slab == null && m_overloadPolicy == OverloadPolicy.BLOCK) {
+                        continue;
+                    }
+                }
+
+                if (slab == null) {
+                    // all of the buffers are waiting to be parsed
+                    discard.clear();
+                    if (m_channel.receive(discard) != null) {
+                        m_received.incrementAndGet();
+                        m_dropped.incrementAndGet();
+                    }
+                    continue;
+                }
+
+                final ByteBuffer buffer = slab.getBuffer();
+                final int start = buffer.position();
+                final InetSocketAddress source = (InetSocketAddress)m_channel.receive(buffer);
+                if (source == null) {
+                    continue;
+                }
+                m_received.incrementAndGet();
+
+                final ByteBuffer data = buffer.duplicate();
+                data.position(start);
+                data.limit(buffer.position());
+                enqueue(new Datagram(source, data.slice(), slab));
+            }
+        } catch (final ClosedChannelException e) {
+            LOG.debug("The datagram receipt port was closed");
+        } catch (final InterruptedException e) {
+            LOG.debug("Interrupted while waiting for room to receive syslog messages");
+        } catch (final IOException e) {
+            LOG.error("An I/O exception occured on the datagram receipt port, exiting", e);
+        } finally {
+            if (slab != null) {
+                slab.release();
+            }
+        }
+
+        LOG.debug("Thread context exiting");
+    }
+
+    private void enqueue(final Datagram datagram) throws InterruptedException {
+        switch (m_overloadPolicy) {
+        case BLOCK:
+            m_queue.put(datagram);
+            break;
+        case DROP_OLDEST:
+            while (!m_queue.offer(datagram)) {
+                final Datagram oldest = m_queue.poll();
+                if (oldest != null) {
+                    oldest.release();
+                    m_dropped.incrementAndGet();
+                }
+            }
+            break;
+        default:
+            if (!m_queue.offer(datagram)) {
+                datagram.release();
+                m_dropped.incrementAndGet();
+            }
+            break;
+        }
+    }
+
+    /**
+     * Takes datagrams off of the queue in batches and sends the events for
+     * each batch to eventd together, until the receiver is stopped and the
+     * queue is empty.
+     */
+    private void parse() {
+        final List<Datagram> batch = new ArrayList<Datagram>(BATCH_SIZE);
+        while (true) {
+            try {
+                final Datagram first = m_queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (m_stop) {
+                        break;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                m_queue.drainTo(batch, BATCH_SIZE - 1);
+            } catch (final InterruptedException e) {
+                LOG.debug("Interrupted while waiting for syslog messages");
+                break;
+            }
+
+            final Events events = new Events();
+            for (final Datagram datagram : batch) {
+                try {
+                    final ConvertToEvent re = ConvertToEvent.make(datagram.m_source.getAddress(), datagram.m_source.getPort(), datagram.m_data, m_matchPattern, m_hostGroup, m_messageGroup, m_UeiList, m_HideMessages, m_discardUei);
+                    final Event event = re.getEvent();
+                    events.addEvent(event);
+                    if (m_newSuspectOnMessage && !event.hasNodeid()) {
+                        LOG.trace("Syslogd: Found a new suspect {}", event.getInterface());
+                        events.addEvent(SyslogProcessor.createNewSuspectEvent(m_localAddr, event.getInterface()));
+                    }
+                    m_parsed.incrementAndGet();
+                } catch (final MessageDiscardedException e) {
+                    LOG.debug("Message discarded, returning without enqueueing event.", e);
+                    m_discarded.incrementAndGet();
+                } catch (final Throwable t) {
+                    LOG.error("Unexpected error processing SyslogMessage", t);
+                    m_discarded.incrementAndGet();
+                } finally {
+                    datagram.release();
+                }
+            }
+            batch.clear();
+
+            if (events.getEventCount() > 0) {
+                final Log eventLog = new Log();
+                eventLog.setEvents(events);
+                try {
+                    EventIpcManagerFactory.getIpcManager().sendNow(eventLog);
+                    m_batches.incrementAndGet();
+                } catch (final Throwable t) {
+                    LOG.error("Unexpected error processing SyslogMessage - Could not send {} events", events.getEventCount(), t);
+                }
+            }
+        }
+    }
+
     /**
      * <p>setLogPrefix</p>
      *
@@ -256,4 +483,49 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
     @Override
     public void setLogPrefix(String prefix) {
     }
+
+    @Override
+    public long getMessagesReceived() {
+        return m_received.get();
+    }
+
+    @Override
+    public long getMessagesParsed() {
+        return m_parsed.get();
+    }
+
+    @Override
+    public long getMessagesDiscarded() {
+        return m_discarded.get();
+    }
+
+    @Override
+    public long getMessagesDropped() {
+        return m_dropped.get();
+    }
+
+    @Override
+    public long getBatchesSent() {
+        return m_batches.get();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return m_queue.size();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return m_queue.size() + m_queue.remainingCapacity();
+    }
+
+    @Override
+    public int getFreeBuffers() {
+        return m_buffers.getFreeCount();
+    }
+
+    @Override
+    public String getOverloadPolicy() {
+        return m_overloadPolicy.name();
+    }
 }
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+/**
+ * JMX view of the NIO UDP syslog listener.
+ */
+public interface SyslogReceiverNioThreadPoolImplMBean {
+
+    /**
+     * @return the cumulative number of datagrams received
+     */
+    public long getMessagesReceived();
+
+    /**
+     * @return the cumulative number of datagrams turned into events
+     */
+    public long getMessagesParsed();
+
+    /**
+     * @return the cumulative number of datagrams that could not be parsed or
+     *         were discarded by the configuration
+     */
+    public long getMessagesDiscarded();
+
+    /**
+     * @return the cumulative number of datagrams dropped because the queue
+     *         or the buffer pool was full
+     */
+    public long getMessagesDropped();
+
+    /**
+     * @return the cumulative number of event logs sent to eventd
+     */
+    public long getBatchesSent();
+
+    /**
+     * @return the number of datagrams waiting to be parsed
+     */
+    public int getQueueDepth();
+
+    /**
+     * @return the most datagrams that can wait to be parsed
+     */
+    public int getQueueCapacity();
+
+    /**
+     * @return the number of pooled receive buffers not in use
+     */
+    public int getFreeBuffers();
+
+    /**
+     * @return what is done with a datagram when the queue is full: one of
+     *         DROP_NEWEST, DROP_OLDEST or BLOCK
+     */
+    public String getOverloadPolicy();
+}
@@ -0,0 +1,388 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelException;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.ssl.SslHandler;
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.config.syslogd.HideMessage;
+import org.opennms.netmgt.config.syslogd.UeiList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives syslog messages over TCP, or TLS if an {@link SSLContext} is
+ * given, framed as described in RFC 6587.
+ *
+ * <p>Connections are multiplexed over a small number of Netty I/O threads.
+ * Each framed message is handed to a {@link SyslogConnection} on a pool of
+ * processing threads, exactly like a UDP datagram.  Flow control is left
+ * to TCP: see {@link SyslogTcpConnectionHandler}.</p>
+ *
+ * <p>Unlike the UDP receivers, {@link #run()} binds the listener and
+ * returns right away; the I/O threads are released by {@link #stop()}.</p>
+ */
+class SyslogReceiverTcpImpl implements SyslogReceiver, SyslogReceiverTcpImplMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogReceiverTcpImpl.class);
+
+    /**
+     * The largest syslog message accepted, the same as for UDP.
+     */
+    static final int MAX_MESSAGE_LENGTH = 0xffff;
+
+    private final InetSocketAddress m_address;
+
+    private final SSLContext m_sslContext;
+
+    private final String m_matchPattern;
+
+    private final int m_hostGroup;
+
+    private final int m_messageGroup;
+
+    private final String m_discardUei;
+
+    private final UeiList m_UeiList;
+
+    private final HideMessage m_HideMessages;
+
+    private final Map<Channel, SyslogTcpConnectionHandler> m_connections = new ConcurrentHashMap<Channel, SyslogTcpConnectionHandler>();
+
+    private final AtomicLong m_connectionsAccepted = new AtomicLong(0);
+
+    private final AtomicLong m_messages = new AtomicLong(0);
+
+    private final AtomicLong m_bytes = new AtomicLong(0);
+
+    private final AtomicLong m_framingErrors = new AtomicLong(0);
+
+    private final AtomicLong m_suspensions = new AtomicLong(0);
+
+    private final AtomicInteger m_inFlight = new AtomicInteger(0);
+
+    private String m_logPrefix = Syslogd.LOG4J_CATEGORY;
+
+    private ServerBootstrap m_bootstrap;
+
+    private ChannelGroup m_channels;
+
+    private ExecutorService m_executor;
+
+    private ObjectName m_objectName;
+
+    /**
+     * Construct a new receiver
+     *
+     * @param address the address and port to listen on
+     * @param sslContext the context used to accept TLS connections, or null
+     *            for plain TCP
+     */
+    SyslogReceiverTcpImpl(final InetSocketAddress address, final SSLContext sslContext, final String matchPattern, final int hostGroup, final int messageGroup,
+                   final UeiList ueiList, final HideMessage hideMessages, final String discardUei) {
+        m_address = address;
+        m_sslContext = sslContext;
+        m_matchPattern = matchPattern;
+        m_hostGroup = hostGroup;
+        m_messageGroup = messageGroup;
+        m_discardUei = discardUei;
+        m_UeiList = ueiList;
+        m_HideMessages = hideMessages;
+    }
+
+    /**
+     * Creates an {@link SSLContext} for a TLS listener from a keystore in the
+     * JVM's default format.  If no keystore is given, the JVM's default
+     * context (<code>javax.net.ssl.keyStore</code>) is used.
+     */
+    static SSLContext createSSLContext(final String keystore, final String password) throws IOException, GeneralSecurityException {
+        if (keystore == null || keystore.length() == 0) {
+            return SSLContext.getDefault();
+        }
+
+        final char[] secret = password == null ? null : password.toCharArray();
+        final KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
+        InputStream in = null;
+        try {
+            in = new FileInputStream(keystore);
+            ks.load(in, secret);
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+        }
+
+        final KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(ks, secret);
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), null, null);
+        return context;
+    }
+
+    /**
+     * Binds the listener and starts accepting connections.
+     *
+     * @throws java.lang.reflect.UndeclaredThrowableException if the listener
+     *             cannot be bound
+     */
+    @Override
+    public synchronized void run() {
+        if (m_bootstrap != null) {
+            return;
+        }
+
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final String name = getName();
+
+        // create the thread factories with the log prefix so that the threads inherit it
+        Logging.withPrefix(m_logPrefix, new Runnable() {
+            @Override
+            public void run() {
+                m_executor = new ThreadPoolExecutor(
+                    threads * 2,
+                    threads * 2,
+                    1000L,
+                    TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new LogPreservingThreadFactory(name, Integer.MAX_VALUE)
+                );
+                m_bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(
+                    Executors.newCachedThreadPool(new LogPreservingThreadFactory(name + "-Boss", Integer.MAX_VALUE)),
+                    Executors.newCachedThreadPool(new LogPreservingThreadFactory(name + "-Worker", threads)),
+                    threads
+                ));
+            }
+        });
+        m_channels = new DefaultChannelGroup(name);
+
+        m_bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() {
+                final ChannelPipeline pipeline = Channels.pipeline();
+                if (m_sslContext != null) {
+                    final SSLEngine engine = m_sslContext.createSSLEngine();
+                    engine.setUseClientMode(false);
+                    pipeline.addLast("ssl", new SslHandler(engine));
+                }
+                pipeline.addLast("framer", new SyslogFrameDecoder(MAX_MESSAGE_LENGTH));
+                pipeline.addLast("handler", new SyslogTcpConnectionHandler(SyslogReceiverTcpImpl.this, m_executor));
+                return pipeline;
+            }
+        });
+        m_bootstrap.setOption("reuseAddress", true);
+        m_bootstrap.setOption("child.tcpNoDelay", true);
+        m_bootstrap.setOption("child.keepAlive", true);
+
+        try {
+            m_channels.add(m_bootstrap.bind(m_address));
+        } catch (final ChannelException e) {
+            shutdown();
+            throw new UndeclaredThrowableException(e.getCause() == null ? e : e.getCause(), "Error opening syslog listener on " + m_address + ": " + e);
+        }
+
+        try {
+            m_objectName = new ObjectName("OpenNMS:Name=" + (m_sslContext == null ? "SyslogdTcpReceiver" : "SyslogdTlsReceiver") + ",Port=" + m_address.getPort());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(this, SyslogReceiverTcpImplMBean.class), m_objectName);
+        } catch (final Exception e) {
+            LOG.debug("Unable to register {} with JMX", m_objectName, e);
+            m_objectName = null;
+        }
+
+        LOG.info("Listening for syslog messages over {} on {}", m_sslContext == null ? "TCP" : "TLS", m_address);
+    }
+
+    /**
+     * Closes the listener and all of the connections and waits for the
+     * messages already received to be processed.
+     */
+    @Override
+    public synchronized void stop() throws InterruptedException {
+        if (m_objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(m_objectName);
+            } catch (final Exception e) {
+                LOG.debug("Unable to unregister {} from JMX", m_objectName, e);
+            }
+            m_objectName = null;
+        }
+        shutdown();
+    }
+
+    private void shutdown() {
+        if (m_channels != null) {
+            m_channels.close().awaitUninterruptibly();
+            m_channels = null;
+        }
+        if (m_bootstrap != null) {
+            m_bootstrap.releaseExternalResources();
+            m_bootstrap = null;
+        }
+        if (m_executor != null) {
+            m_executor.shutdown();
+            try {
+                if (!m_executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    LOG.warn("Timed out waiting for {} syslog messages to be processed", m_inFlight.get());
+                }
+            } catch (final InterruptedException e) {
+                LOG.warn("Thread Interrupted while waiting for syslog messages to be processed", e);
+                Thread.currentThread().interrupt();
+            }
+            m_executor = null;
+        }
+    }
+
+    /**
+     * <p>setLogPrefix</p>
+     *
+     * @param prefix a {@link java.lang.String} object.
+     */
+    @Override
+    public void setLogPrefix(final String prefix) {
+        m_logPrefix = prefix;
+    }
+
+    private String getName() {
+        return (m_sslContext == null ? "SyslogTcpReceiver[" : "SyslogTlsReceiver[") + m_address.getPort() + "]";
+    }
+
+    SyslogConnection createConnection(final InetSocketAddress source, final ByteBuffer message) {
+        return new SyslogConnection(source, message, m_matchPattern, m_hostGroup, m_messageGroup, m_UeiList, m_HideMessages, m_discardUei);
+    }
+
+    void connectionOpened(final Channel channel, final SyslogTcpConnectionHandler handler) {
+        m_connectionsAccepted.incrementAndGet();
+        m_connections.put(channel, handler);
+        final ChannelGroup channels = m_channels;
+        if (channels != null) {
+            channels.add(channel);
+        }
+    }
+
+    void connectionClosed(final Channel channel) {
+        m_connections.remove(channel);
+    }
+
+    void messageReceived(final int length) {
+        m_messages.incrementAndGet();
+        m_bytes.addAndGet(length);
+        m_inFlight.incrementAndGet();
+    }
+
+    void messageCompleted() {
+        m_inFlight.decrementAndGet();
+    }
+
+    void framingError() {
+        m_framingErrors.incrementAndGet();
+    }
+
+    void readSuspended() {
+        m_suspensions.incrementAndGet();
+    }
+
+    @Override
+    public int getOpenConnections() {
+        return m_connections.size();
+    }
+
+    @Override
+    public long getConnectionsAccepted() {
+        return m_connectionsAccepted.get();
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return m_messages.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return m_bytes.get();
+    }
+
+    @Override
+    public long getFramingErrors() {
+        return m_framingErrors.get();
+    }
+
+    @Override
+    public long getReadSuspensions() {
+        return m_suspensions.get();
+    }
+
+    @Override
+    public int getMessagesInFlight() {
+        return m_inFlight.get();
+    }
+
+    @Override
+    public String[] getConnectionStatistics() {
+        final List<String> stats = new ArrayList<String>(m_connections.size());
+        for (final SyslogTcpConnectionHandler handler : m_connections.values()) {
+            stats.add(handler.toString());
+        }
+        return stats.toArray(new String[stats.size()]);
+    }
+}
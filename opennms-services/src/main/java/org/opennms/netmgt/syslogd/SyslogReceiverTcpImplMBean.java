@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+/**
+ * JMX view of a TCP or TLS syslog listener.
+ */
+public interface SyslogReceiverTcpImplMBean {
+
+    /**
+     * @return the number of connections that are currently open
+     */
+    public int getOpenConnections();
+
+    /**
+     * @return the cumulative number of connections accepted
+     */
+    public long getConnectionsAccepted();
+
+    /**
+     * @return the cumulative number of syslog messages received
+     */
+    public long getMessagesReceived();
+
+    /**
+     * @return the cumulative number of syslog message bytes received, not
+     *         counting the framing
+     */
+    public long getBytesReceived();
+
+    /**
+     * @return the cumulative number of connections closed because of an
+     *         invalid or oversized frame
+     */
+    public long getFramingErrors();
+
+    /**
+     * @return the cumulative number of times a connection stopped being read
+     *         because too many of its messages were waiting to be processed
+     */
+    public long getReadSuspensions();
+
+    /**
+     * @return the number of messages received and not yet turned into events
+     */
+    public int getMessagesInFlight();
+
+    /**
+     * @return one line for each open connection with its remote address and
+     *         counters
+     */
+    public String[] getConnectionStatistics();
+}
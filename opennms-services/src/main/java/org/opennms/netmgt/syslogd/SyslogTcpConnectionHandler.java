@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.frame.CorruptedFrameException;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.opennms.core.concurrent.WaterfallExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Passes the messages framed by {@link SyslogFrameDecoder} on one TCP
+ * connection to the same {@link SyslogConnection} and
+ * {@link SyslogProcessor} chain as the UDP receivers.
+ *
+ * <p>Rather than queueing without bound or dropping messages when events
+ * are produced more slowly than they arrive, the connection stops being
+ * read once too many of its messages are in flight, which lets TCP push
+ * back on the sender.  Reading resumes when half of them have been
+ * processed.</p>
+ */
+final class SyslogTcpConnectionHandler extends SimpleChannelUpstreamHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogTcpConnectionHandler.class);
+
+    /**
+     * The number of messages in flight at which a connection stops being
+     * read.
+     */
+    static final int HIGH_WATER_MARK = 256;
+
+    /**
+     * The number of messages in flight at which reading resumes.
+     */
+    static final int LOW_WATER_MARK = HIGH_WATER_MARK / 2;
+
+    private final SyslogReceiverTcpImpl m_receiver;
+
+    private final Executor m_executor;
+
+    private final AtomicInteger m_inFlight = new AtomicInteger(0);
+
+    private final AtomicLong m_messages = new AtomicLong(0);
+
+    private final AtomicLong m_bytes = new AtomicLong(0);
+
+    private final AtomicLong m_suspensions = new AtomicLong(0);
+
+    private final long m_connectedTime = System.currentTimeMillis();
+
+    private volatile Channel m_channel;
+
+    private volatile InetSocketAddress m_source;
+
+    /**
+     * Guarded by <code>this</code>.
+     */
+    private boolean m_suspended = false;
+
+    /**
+     * Counts a message as done when the last callable of its chain returns.
+     */
+    private final class TrackingCallable implements Callable<Callable<?>> {
+        private final Callable<?> m_delegate;
+
+        private TrackingCallable(final Callable<?> delegate) {
+            m_delegate = delegate;
+        }
+
+        @Override
+        public Callable<?> call() throws Exception {
+            boolean last = true;
+            try {
+                final Object next = m_delegate.call();
+                if (next instanceof Callable<?>) {
+                    last = false;
+                    return new TrackingCallable((Callable<?>)next);
+                }
+                return null;
+            } finally {
+                if (last) {
+                    complete();
+                }
+            }
+        }
+    }
+
+    SyslogTcpConnectionHandler(final SyslogReceiverTcpImpl receiver, final Executor executor) {
+        m_receiver = receiver;
+        m_executor = executor;
+    }
+
+    @Override
+    public void channelOpen(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception {
+        m_channel = ctx.getChannel();
+        m_receiver.connectionOpened(m_channel, this);
+    }
+
+    @Override
+    public void channelConnected(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception {
+        m_source = (InetSocketAddress)ctx.getChannel().getRemoteAddress();
+        LOG.debug("Accepted syslog connection from {}", m_source);
+    }
+
+    @Override
+    public void channelClosed(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception {
+        LOG.debug("Syslog connection from {} closed after {} messages", m_source, m_messages.get());
+        m_receiver.connectionClosed(ctx.getChannel());
+    }
+
+    @Override
+    public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent e) throws Exception {
+        final ChannelBuffer frame = (ChannelBuffer)e.getMessage();
+        final int length = frame.readableBytes();
+        if (length == 0) {
+            return;
+        }
+
+        m_messages.incrementAndGet();
+        m_bytes.addAndGet(length);
+        m_receiver.messageReceived(length);
+
+        if (m_inFlight.incrementAndGet() >= HIGH_WATER_MARK) {
+            suspend();
+        }
+
+        try {
+            WaterfallExecutor.waterfall(m_executor, new TrackingCallable(m_receiver.createConnection(m_source, frame.toByteBuffer())));
+        } catch (final RejectedExecutionException ex) {
+            LOG.warn("Unable to process a syslog message from {}, closing the connection", m_source, ex);
+            complete();
+            ctx.getChannel().close();
+        }
+    }
+
+    @Override
+    public void exceptionCaught(final ChannelHandlerContext ctx, final ExceptionEvent e) throws Exception {
+        final Throwable cause = e.getCause();
+        if (cause instanceof TooLongFrameException || cause instanceof CorruptedFrameException) {
+            m_receiver.framingError();
+            LOG.warn("Closing syslog connection from {}: {}", m_source, cause.getMessage());
+        } else if (cause instanceof IOException) {
+            LOG.debug("I/O error on syslog connection from {}", m_source, cause);
+        } else {
+            LOG.warn("Unexpected error on syslog connection from {}", m_source, cause);
+        }
+        ctx.getChannel().close();
+    }
+
+    private void suspend() {
+        synchronized (this) {
+            if (m_suspended || m_inFlight.get() < HIGH_WATER_MARK) {
+                return;
+            }
+            m_suspended = true;
+            m_channel.setReadable(false);
+        }
+        m_suspensions.incrementAndGet();
+        m_receiver.readSuspended();
+        LOG.debug("Suspended reading syslog connection from {} with {} messages in flight", m_source, m_inFlight.get());
+    }
+
+    private void complete() {
+        m_receiver.messageCompleted();
+        if (m_inFlight.decrementAndGet() <= LOW_WATER_MARK) {
+            synchronized (this) {
+                if (m_suspended && m_inFlight.get() <= LOW_WATER_MARK) {
+                    m_suspended = false;
+                    m_channel.setReadable(true);
+                }
+            }
+        }
+    }
+
+    int getMessagesInFlight() {
+        return m_inFlight.get();
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder(128)
+            .append(m_source)
+            .append(" connected: ").append((System.currentTimeMillis() - m_connectedTime) / 1000L).append("s")
+            .append(" messages: ").append(m_messages.get())
+            .append(" bytes: ").append(m_bytes.get())
+            .append(" in flight: ").append(m_inFlight.get())
+            .append(" suspensions: ").append(m_suspensions.get())
+            .toString();
+    }
+}
@@ -35,8 +35,11 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.jexl2.ExpressionImpl;
+import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlEngine;
 import org.apache.commons.jexl2.MapContext;
+import org.opennms.core.expression.CompiledExpression;
+import org.opennms.core.expression.ExpressionScope;
 import org.opennms.netmgt.config.threshd.Expression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,18 +53,27 @@ import org.slf4j.LoggerFactory;
 public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
     private static final Logger LOG = LoggerFactory.getLogger(ExpressionConfigWrapper.class);
 
+    /**
+     * Shared by all expressions; parsing and evaluating are thread-safe.
+     */
+    private static final JexlEngine s_expressionParser = new JexlEngine();
+
+    private static final MathBinding s_mathBinding = new MathBinding();
+
     private final Expression m_expression;
-    private final Collection<String> m_datasources;
+    private final List<String> m_datasources;
+    private final CompiledExpression m_compiledExpression;
+
     public ExpressionConfigWrapper(Expression expression) throws ThresholdExpressionException {
         super(expression);
         m_expression = expression;
 
-        JexlEngine expressionParser = new JexlEngine();
         m_datasources = new ArrayList<String>();
+        final ExpressionImpl parsedExpression;
         try {
-            ExpressionImpl e = (ExpressionImpl) expressionParser.createExpression(m_expression.getExpression());
-            LOG.trace("List of Variables on the Expression: {}", e.getVariables());
-            for (List<String> list : e.getVariables()) { // Requires JEXL 2.1.x
+            parsedExpression = (ExpressionImpl) s_expressionParser.createExpression(m_expression.getExpression());
+            LOG.trace("List of Variables on the Expression: {}", parsedExpression.getVariables());
+            for (List<String> list : parsedExpression.getVariables()) { // Requires JEXL 2.1.x
                 if (list.get(0).equalsIgnoreCase("math")) {
                     continue;
                 }
@@ -77,6 +89,19 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
             throw new ThresholdExpressionException("Could not parse threshold expression:" + e.getMessage(), e);
         }
         LOG.trace("Threshold Variables: {}", m_datasources);
+
+        // The datasources are also available as datasources.name and datasources['name'], see NMS-5019
+        final ExpressionScope scope = new ExpressionScope(ExpressionScope.FunctionSyntax.METHOD);
+        for (int i = 0; i < m_datasources.size(); i++) {
+            final String ds = m_datasources.get(i);
+            scope.addColumn(ds, i);
+            scope.addColumn("datasources." + ds, i);
+            scope.addColumn("datasources['" + ds + "']", i);
+        }
+        m_compiledExpression = CompiledExpression.compile(parsedExpression, scope);
+        if (!m_compiledExpression.isCompiled()) {
+            LOG.debug("Threshold expression {} will be evaluated by JEXL", m_expression.getExpression());
+        }
     }
 
     @Override
@@ -142,19 +167,59 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
 
     @Override
     public double evaluate(Map<String, Double> values) throws ThresholdExpressionException {
-        // Add all of the variable values to the script context
-        Map<String,Object> context = new HashMap<String,Object>();
-        context.putAll(values);
-        context.put("datasources", new HashMap<String, Double>(values)); // To workaround NMS-5019
-        context.put("math", new MathBinding());
-        double result = Double.NaN;
+        if (m_compiledExpression.isCompiled()) {
+            final double[] context = new double[m_datasources.size()];
+            for (int i = 0; i < context.length; i++) {
+                final Double value = values.get(m_datasources.get(i));
+                if (value == null) {
+                    // JEXL's handling of missing values (relaxed thresholds) is left to JEXL
+                    return evaluate(getContext(values));
+                }
+                context[i] = value.doubleValue();
+            }
+            return evaluate(context);
+        }
+        return evaluate(getContext(values));
+    }
+
+    /**
+     * Evaluates the expression against an array of datasource values.
+     *
+     * @param values the value of each datasource, in the order of {@link #getRequiredDatasources()}
+     * @return the value of the expression
+     * @throws ThresholdExpressionException if the expression could not be evaluated
+     */
+    public double evaluate(final double[] values) throws ThresholdExpressionException {
+        try {
+            return m_compiledExpression.evaluate(values, new CompiledExpression.ContextFactory() {
+                @Override
+                public JexlContext getContext(int row) {
+                    final Map<String, Double> map = new HashMap<String, Double>();
+                    for (int i = 0; i < m_datasources.size(); i++) {
+                        map.put(m_datasources.get(i), values[i]);
+                    }
+                    return ExpressionConfigWrapper.getContext(map);
+                }
+            });
+        } catch (Throwable e) {
+            throw new ThresholdExpressionException("Error while evaluating expression " + m_expression.getExpression() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private double evaluate(JexlContext context) throws ThresholdExpressionException {
         try {
-            // Fetch an instance of the JEXL script engine to evaluate the script expression
-            Object resultObject = new JexlEngine().createExpression(m_expression.getExpression()).evaluate(new MapContext(context));
-            result = Double.parseDouble(resultObject.toString());
+            return m_compiledExpression.evaluate(context);
         } catch (Throwable e) {
             throw new ThresholdExpressionException("Error while evaluating expression " + m_expression.getExpression() + ": " + e.getMessage(), e);
         }
-        return result;
+    }
+
+    private static JexlContext getContext(Map<String, Double> values) {
+        // Add all of the variable values to the script context
+        Map<String,Object> context = new HashMap<String,Object>();
+        context.putAll(values);
+        context.put("datasources", new HashMap<String, Double>(values)); // To workaround NMS-5019
+        context.put("math", s_mathBinding);
+        return new MapContext(context);
     }
 }
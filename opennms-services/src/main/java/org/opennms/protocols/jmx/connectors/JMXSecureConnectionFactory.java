@@ -56,6 +56,39 @@ public abstract class JMXSecureConnectionFactory {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(JMXSecureConnectionFactory.class);
 
+    private static final JmxConnectionPool.ConnectionFactory POOL_FACTORY = new JmxConnectionPool.ConnectionFactory() {
+        @Override
+        public ConnectionWrapper createConnection(Map<String, ?> parameters, InetAddress address) {
+            return getMBeanServerConnection(parameters, address);
+        }
+    };
+
+    /**
+     * Returns a connection from the shared {@link JmxConnectionPool}.  Closing
+     * it gives it back to the pool instead of closing it.
+     *
+     * @param propertiesMap a {@link java.util.Map} object.
+     * @param address a {@link java.net.InetAddress} object.
+     * @return the connection, or null if none could be opened
+     */
+    public static ConnectionWrapper getPooledMBeanServerConnection(Map<String, ?> propertiesMap, InetAddress address) {
+        return getPooledMBeanServerConnection(propertiesMap, address, true);
+    }
+
+    /**
+     * Returns a connection from the shared {@link JmxConnectionPool}.  Closing
+     * it gives it back to the pool instead of closing it.
+     *
+     * @param propertiesMap a {@link java.util.Map} object.
+     * @param address a {@link java.net.InetAddress} object.
+     * @param backoff false to connect even if the target is backing off
+     *        after failed attempts, as monitors do
+     * @return the connection, or null if none could be opened
+     */
+    public static ConnectionWrapper getPooledMBeanServerConnection(Map<String, ?> propertiesMap, InetAddress address, boolean backoff) {
+        return JmxConnectionPool.getPooledConnection("jmxsecure", propertiesMap, address, POOL_FACTORY, backoff);
+    }
+
     /**
      * <p>getMBeanServerConnection</p>
      *
@@ -0,0 +1,543 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.protocols.jmx.connectors;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long-lived JMX connections shared by the JMX collectors and monitors.
+ *
+ * <p>Connections are kept per target, that is per connector type, address
+ * and connection parameters. A caller borrows a connection with
+ * {@link #getConnection(String, Map, InetAddress, ConnectionFactory)} and
+ * gives it back by calling {@link ConnectionWrapper#close()} on it, as it
+ * did when every call opened a new connection.</p>
+ *
+ * <ul>
+ * <li>A connection that has been idle for a while is checked before it is
+ * lent out again, and one whose calls failed with an {@link IOException} is
+ * closed instead of being given back.</li>
+ * <li>Connections that stay idle for too long are closed in the
+ * background.</li>
+ * <li>After a failed connection attempt further attempts to the same target
+ * are refused for a time that doubles with every failure.  Monitors ask for
+ * connections without this backoff, since their retries are what tells a
+ * target that is down from one that has recovered.</li>
+ * <li>Only a limited number of connections to the same target can be in use
+ * at once; further callers wait for one of them.</li>
+ * </ul>
+ *
+ * <p>The pool is configured with the
+ * <code>org.opennms.protocols.jmx.connectors.pool.*</code> system
+ * properties and can be turned off with
+ * <code>org.opennms.protocols.jmx.connectors.pool.enabled=false</code>.</p>
+ */
+public class JmxConnectionPool implements JmxConnectionPoolMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JmxConnectionPool.class);
+
+    private static final String PROPERTY_PREFIX = "org.opennms.protocols.jmx.connectors.pool.";
+
+    public static final String ENABLED_PROPERTY = PROPERTY_PREFIX + "enabled";
+    public static final String MAX_ACTIVE_PROPERTY = PROPERTY_PREFIX + "maxActive";
+    public static final String MAX_WAIT_PROPERTY = PROPERTY_PREFIX + "maxWait";
+    public static final String MAX_IDLE_TIME_PROPERTY = PROPERTY_PREFIX + "maxIdleTime";
+    public static final String VALIDATE_AFTER_PROPERTY = PROPERTY_PREFIX + "validateAfter";
+    public static final String RECONNECT_BACKOFF_PROPERTY = PROPERTY_PREFIX + "reconnectBackoff";
+    public static final String MAX_RECONNECT_BACKOFF_PROPERTY = PROPERTY_PREFIX + "maxReconnectBackoff";
+
+    private static final String OBJECT_NAME = "OpenNMS:Name=JmxConnectionPool";
+
+    /**
+     * The parameters that decide which server a connection goes to and how
+     * it authenticates; all others are collection or polling settings.
+     */
+    private static final String[] KEY_PARAMETERS = { "factory", "port", "protocol", "urlPath", "username", "password", "sunCacao" };
+
+    private static JmxConnectionPool s_instance;
+
+    /**
+     * Opens a new connection for the pool.
+     */
+    public interface ConnectionFactory {
+        /**
+         * @return the new connection, or null if it could not be opened
+         */
+        ConnectionWrapper createConnection(Map<String, ?> parameters, InetAddress address);
+    }
+
+    private final int m_maxActive;
+    private final long m_maxWait;
+    private final long m_maxIdleTime;
+    private final long m_validateAfter;
+    private final long m_reconnectBackoff;
+    private final long m_maxReconnectBackoff;
+
+    private final ConcurrentMap<String, Target> m_targets = new ConcurrentHashMap<String, Target>();
+    private volatile boolean m_closed = false;
+    private ScheduledExecutorService m_evictor;
+
+    private final AtomicInteger m_active = new AtomicInteger(0);
+    private final AtomicInteger m_idle = new AtomicInteger(0);
+    private final AtomicLong m_created = new AtomicLong(0);
+    private final AtomicLong m_destroyed = new AtomicLong(0);
+    private final AtomicLong m_borrowed = new AtomicLong(0);
+    private final AtomicLong m_refused = new AtomicLong(0);
+    private final AtomicLong m_connectFailures = new AtomicLong(0);
+
+    /**
+     * The connections to one target.
+     */
+    private static final class Target {
+        private final String m_name;
+        private final Semaphore m_permits;
+        // guarded by this
+        private final Deque<PooledConnection> m_idle = new ArrayDeque<PooledConnection>();
+        private int m_failures = 0;
+        private long m_nextAttempt = 0;
+
+        private Target(final String name, final int maxActive) {
+            m_name = name;
+            m_permits = new Semaphore(maxActive, true);
+        }
+
+        @Override
+        public String toString() {
+            return m_name;
+        }
+    }
+
+    /**
+     * An open connection.  Calls go through a proxy that notices when the
+     * connection has failed, so that it is not given back to the pool.
+     */
+    private static final class PooledConnection implements InvocationHandler {
+        private final Target m_target;
+        private final ConnectionWrapper m_delegate;
+        private final MBeanServerConnection m_connection;
+        private final MBeanServerConnection m_proxy;
+        private volatile boolean m_broken = false;
+        private long m_idleSince;
+
+        private PooledConnection(final Target target, final ConnectionWrapper delegate) {
+            m_target = target;
+            m_delegate = delegate;
+            m_connection = delegate.getMBeanServer();
+            m_proxy = (MBeanServerConnection)Proxy.newProxyInstance(MBeanServerConnection.class.getClassLoader(), new Class<?>[] { MBeanServerConnection.class }, this);
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            try {
+                return method.invoke(m_connection, args);
+            } catch (final InvocationTargetException e) {
+                if (e.getCause() instanceof IOException) {
+                    m_broken = true;
+                }
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * What a caller gets: closing it gives the connection back, once.
+     */
+    private final class Lease implements ConnectionWrapper {
+        private final PooledConnection m_pooled;
+        private final AtomicBoolean m_released = new AtomicBoolean(false);
+
+        private Lease(final PooledConnection pooled) {
+            m_pooled = pooled;
+        }
+
+        @Override
+        public MBeanServerConnection getMBeanServer() {
+            return m_released.get() ? null : m_pooled.m_proxy;
+        }
+
+        @Override
+        public void close() {
+            if (m_released.compareAndSet(false, true)) {
+                release(m_pooled);
+            }
+        }
+    }
+
+    public JmxConnectionPool(final int maxActive, final long maxWait, final long maxIdleTime, final long validateAfter, final long reconnectBackoff, final long maxReconnectBackoff) {
+        if (maxActive < 1) {
+            throw new IllegalArgumentException("The number of JMX connections per target must be at least 1, not " + maxActive);
+        }
+        m_maxActive = maxActive;
+        m_maxWait = maxWait;
+        m_maxIdleTime = maxIdleTime;
+        m_validateAfter = validateAfter;
+        m_reconnectBackoff = reconnectBackoff;
+        m_maxReconnectBackoff = maxReconnectBackoff;
+    }
+
+    /**
+     * Returns the pool shared by all JMX collectors and monitors in this
+     * class loader, creating it (and registering it with JMX) on first use,
+     * or null if pooling has been turned off.
+     */
+    public static synchronized JmxConnectionPool getInstance() {
+        if (s_instance == null && Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"))) {
+            s_instance = new JmxConnectionPool(
+                Integer.getInteger(MAX_ACTIVE_PROPERTY, 4),
+                Long.getLong(MAX_WAIT_PROPERTY, 5000L),
+                Long.getLong(MAX_IDLE_TIME_PROPERTY, 900000L),
+                Long.getLong(VALIDATE_AFTER_PROPERTY, 10000L),
+                Long.getLong(RECONNECT_BACKOFF_PROPERTY, 1000L),
+                Long.getLong(MAX_RECONNECT_BACKOFF_PROPERTY, 60000L)
+            );
+            s_instance.startEvictor();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(s_instance, new ObjectName(OBJECT_NAME));
+            } catch (final Exception e) {
+                LOG.debug("Unable to register {} with JMX", OBJECT_NAME, e);
+            }
+        }
+        return s_instance;
+    }
+
+    /**
+     * Returns a connection from the shared pool, or a new unpooled one if
+     * pooling has been turned off.
+     */
+    public static ConnectionWrapper getPooledConnection(final String type, final Map<String, ?> parameters, final InetAddress address, final ConnectionFactory factory) {
+        return getPooledConnection(type, parameters, address, factory, true);
+    }
+
+    /**
+     * Returns a connection from the shared pool, or a new unpooled one if
+     * pooling has been turned off.
+     *
+     * @param backoff whether to refuse to connect while the target is
+     *        backing off after failed attempts
+     * @see #getConnection(String, Map, InetAddress, ConnectionFactory, boolean)
+     */
+    public static ConnectionWrapper getPooledConnection(final String type, final Map<String, ?> parameters, final InetAddress address, final ConnectionFactory factory, final boolean backoff) {
+        final JmxConnectionPool pool = getInstance();
+        if (pool == null) {
+            return factory.createConnection(parameters, address);
+        }
+        return pool.getConnection(type, parameters, address, factory, backoff);
+    }
+
+    /**
+     * Lends out a connection to the target, opening one with the factory
+     * if none is idle.
+     *
+     * @param type the kind of connector, so that the same address and port
+     *        reached through different connectors are kept apart
+     * @return the connection, or null if none could be opened or the target
+     *         has too many connections in use
+     */
+    public ConnectionWrapper getConnection(final String type, final Map<String, ?> parameters, final InetAddress address, final ConnectionFactory factory) {
+        return getConnection(type, parameters, address, factory, true);
+    }
+
+    /**
+     * Lends out a connection to the target, opening one with the factory
+     * if none is idle.
+     *
+     * @param type the kind of connector, so that the same address and port
+     *        reached through different connectors are kept apart
+     * @param backoff whether to refuse to connect while the target is
+     *        backing off after failed attempts.  Monitors pass false so that
+     *        each of their retries really tries to connect; their failures
+     *        still count towards the backoff of the other callers.
+     * @return the connection, or null if none could be opened or the target
+     *         has too many connections in use
+     */
+    public ConnectionWrapper getConnection(final String type, final Map<String, ?> parameters, final InetAddress address, final ConnectionFactory factory, final boolean backoff) {
+        final Target target = getTarget(type, parameters, address);
+
+        try {
+            if (!target.m_permits.tryAcquire(m_maxWait, TimeUnit.MILLISECONDS)) {
+                LOG.warn("All {} JMX connections to {} are in use", m_maxActive, target);
+                m_refused.incrementAndGet();
+                return null;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        boolean lent = false;
+        try {
+            PooledConnection pooled;
+            while ((pooled = pollIdle(target)) != null) {
+                if (System.currentTimeMillis() - pooled.m_idleSince < m_validateAfter || isValid(pooled)) {
+                    lent = true;
+                    return lend(pooled);
+                }
+                LOG.debug("Idle JMX connection to {} has gone away", target);
+                destroy(pooled);
+            }
+
+            synchronized (target) {
+                if (backoff && System.currentTimeMillis() < target.m_nextAttempt) {
+                    LOG.debug("Not connecting to {} for another {} ms", target, target.m_nextAttempt - System.currentTimeMillis());
+                    m_refused.incrementAndGet();
+                    return null;
+                }
+            }
+
+            final ConnectionWrapper connection = factory.createConnection(parameters, address);
+            if (connection == null || connection.getMBeanServer() == null) {
+                m_connectFailures.incrementAndGet();
+                synchronized (target) {
+                    target.m_failures++;
+                    final long delay = Math.min(m_maxReconnectBackoff, m_reconnectBackoff << Math.min(target.m_failures - 1, 20));
+                    target.m_nextAttempt = System.currentTimeMillis() + delay;
+                }
+                return null;
+            }
+            synchronized (target) {
+                target.m_failures = 0;
+                target.m_nextAttempt = 0;
+            }
+            m_created.incrementAndGet();
+            lent = true;
+            return lend(new PooledConnection(target, connection));
+        } finally {
+            if (!lent) {
+                target.m_permits.release();
+            }
+        }
+    }
+
+    private Target getTarget(final String type, final Map<String, ?> parameters, final InetAddress address) {
+        final StringBuilder key = new StringBuilder(type).append('|').append(InetAddressUtils.str(address));
+        for (final String name : KEY_PARAMETERS) {
+            key.append('|').append(parameters == null ? null : parameters.get(name));
+        }
+
+        Target target = m_targets.get(key.toString());
+        if (target == null) {
+            final Object port = parameters == null ? null : parameters.get("port");
+            final Target newTarget = new Target(type + " " + InetAddressUtils.str(address) + (port == null ? "" : ":" + port), m_maxActive);
+            target = m_targets.putIfAbsent(key.toString(), newTarget);
+            if (target == null) {
+                target = newTarget;
+            }
+        }
+        return target;
+    }
+
+    private PooledConnection pollIdle(final Target target) {
+        final PooledConnection pooled;
+        synchronized (target) {
+            // most recently used first, so that the others age out
+            pooled = target.m_idle.pollFirst();
+        }
+        if (pooled != null) {
+            m_idle.decrementAndGet();
+        }
+        return pooled;
+    }
+
+    private static boolean isValid(final PooledConnection pooled) {
+        try {
+            pooled.m_connection.getMBeanCount();
+            return true;
+        } catch (final Throwable e) {
+            return false;
+        }
+    }
+
+    private ConnectionWrapper lend(final PooledConnection pooled) {
+        m_borrowed.incrementAndGet();
+        m_active.incrementAndGet();
+        return new Lease(pooled);
+    }
+
+    private void release(final PooledConnection pooled) {
+        m_active.decrementAndGet();
+        try {
+            if (pooled.m_broken || m_closed) {
+                destroy(pooled);
+            } else {
+                pooled.m_idleSince = System.currentTimeMillis();
+                synchronized (pooled.m_target) {
+                    pooled.m_target.m_idle.addFirst(pooled);
+                }
+                m_idle.incrementAndGet();
+            }
+        } finally {
+            pooled.m_target.m_permits.release();
+        }
+    }
+
+    private void destroy(final PooledConnection pooled) {
+        m_destroyed.incrementAndGet();
+        try {
+            pooled.m_delegate.close();
+        } catch (final Throwable e) {
+            LOG.debug("Error closing JMX connection to {}", pooled.m_target, e);
+        }
+    }
+
+    /**
+     * Closes the connections that have been idle for longer than allowed.
+     * This runs in the background once the pool is started with
+     * {@link #getInstance()}.
+     */
+    public void evictIdleConnections() {
+        final long oldest = System.currentTimeMillis() - m_maxIdleTime;
+        final List<PooledConnection> evicted = new ArrayList<PooledConnection>();
+        for (final Target target : m_targets.values()) {
+            synchronized (target) {
+                for (final Iterator<PooledConnection> it = target.m_idle.iterator(); it.hasNext(); ) {
+                    final PooledConnection pooled = it.next();
+                    if (pooled.m_idleSince < oldest) {
+                        it.remove();
+                        evicted.add(pooled);
+                    }
+                }
+            }
+        }
+        if (!evicted.isEmpty()) {
+            LOG.debug("Closing {} idle JMX connections", evicted.size());
+        }
+        for (final PooledConnection pooled : evicted) {
+            m_idle.decrementAndGet();
+            destroy(pooled);
+        }
+    }
+
+    private void startEvictor() {
+        m_evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "JmxConnectionPool-Evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final long period = Math.max(1000L, Math.min(60000L, m_maxIdleTime / 2));
+        m_evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evictIdleConnections();
+                } catch (final Throwable e) {
+                    LOG.warn("Unable to evict idle JMX connections", e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes all of the idle connections, and the ones in use as soon as
+     * they are given back.
+     */
+    public void close() {
+        m_closed = true;
+        if (m_evictor != null) {
+            m_evictor.shutdownNow();
+        }
+        final List<PooledConnection> idle = new ArrayList<PooledConnection>();
+        for (final Target target : m_targets.values()) {
+            synchronized (target) {
+                idle.addAll(target.m_idle);
+                target.m_idle.clear();
+            }
+        }
+        for (final PooledConnection pooled : idle) {
+            m_idle.decrementAndGet();
+            destroy(pooled);
+        }
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return m_active.get();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return m_idle.get();
+    }
+
+    @Override
+    public long getConnectionsCreated() {
+        return m_created.get();
+    }
+
+    @Override
+    public long getConnectionsClosed() {
+        return m_destroyed.get();
+    }
+
+    @Override
+    public long getConnectionsBorrowed() {
+        return m_borrowed.get();
+    }
+
+    @Override
+    public long getConnectionsRefused() {
+        return m_refused.get();
+    }
+
+    @Override
+    public long getConnectFailures() {
+        return m_connectFailures.get();
+    }
+}
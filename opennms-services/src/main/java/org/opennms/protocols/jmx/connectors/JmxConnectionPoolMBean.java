@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.protocols.jmx.connectors;
+
+/**
+ * JMX view of the pooled connections to monitored JVMs.
+ */
+public interface JmxConnectionPoolMBean {
+
+    /**
+     * @return the number of connections currently lent out to collectors
+     *         and monitors
+     */
+    public int getActiveConnections();
+
+    /**
+     * @return the number of open connections waiting to be reused
+     */
+    public int getIdleConnections();
+
+    /**
+     * @return the cumulative number of connections opened by the pool
+     */
+    public long getConnectionsCreated();
+
+    /**
+     * @return the cumulative number of connections closed by the pool,
+     *         because they failed, were idle for too long or the pool was
+     *         closed
+     */
+    public long getConnectionsClosed();
+
+    /**
+     * @return the cumulative number of connections lent out, new or reused
+     */
+    public long getConnectionsBorrowed();
+
+    /**
+     * @return the cumulative number of requests refused because the target
+     *         already had as many connections in use as allowed, or was
+     *         waiting out its reconnect backoff
+     */
+    public long getConnectionsRefused();
+
+    /**
+     * @return the cumulative number of failed connection attempts
+     */
+    public long getConnectFailures();
+}
@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.core.test.MockPlatformTransactionManager;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.collection.api.AttributeGroupType;
+import org.opennms.netmgt.collection.api.CollectionAttributeType;
+import org.opennms.netmgt.collection.api.CollectionResource;
+import org.opennms.netmgt.collection.api.ServiceParameters;
+import org.opennms.netmgt.collection.persistence.rrd.BasePersister;
+import org.opennms.netmgt.config.MibObject;
+import org.opennms.netmgt.dao.api.IpInterfaceDao;
+import org.opennms.netmgt.dao.support.NullRrdStrategy;
+import org.opennms.netmgt.mock.MockDataCollectionConfig;
+import org.opennms.netmgt.model.OnmsIpInterface;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.rrd.MultiOutputRrdStrategy;
+import org.opennms.netmgt.rrd.RrdRepository;
+import org.opennms.netmgt.rrd.RrdSample;
+import org.opennms.netmgt.rrd.RrdSampleStrategy;
+import org.opennms.netmgt.rrd.RrdStrategy;
+import org.opennms.netmgt.rrd.RrdUtils;
+import org.opennms.netmgt.snmp.SnmpUtils;
+import org.opennms.test.FileAnticipator;
+
+/**
+ * Pushes counter values through {@link BasePersister} and
+ * {@link RrdUtils} into a strategy that only accepts update strings and
+ * into one that accepts {@link RrdSample}s, verifying that both receive
+ * the same values and printing the throughput of each.
+ */
+public class BasePersisterThroughputTest {
+
+    private static final int ATTRIBUTES = 20;
+    private static final int UPDATES = 20000;
+
+    private FileAnticipator m_fileAnticipator;
+    private CollectionResource m_resource;
+    private final Set<CollectionAttributeType> m_attributeTypes = new LinkedHashSet<CollectionAttributeType>();
+    private final List<SnmpAttribute> m_attributes = new ArrayList<SnmpAttribute>();
+    private RrdRepository m_repository;
+    private RrdStrategy<?, ?> m_previousStrategy;
+
+    /**
+     * Parses update strings the same way the JRobin strategy does.
+     */
+    private static class StringRrdStrategy extends NullRrdStrategy {
+        protected double m_total = 0;
+        protected int m_updates = 0;
+
+        @Override
+        public Object openFile(String fileName) throws Exception {
+            return fileName;
+        }
+
+        @Override
+        public void updateFile(Object rrd, String owner, String data) throws Exception {
+            final String[] tokens = data.split(":");
+            Long.parseLong(tokens[0]);
+            for (int i = 1; i < tokens.length; i++) {
+                if (!"U".equals(tokens[i])) {
+                    m_total += Double.parseDouble(tokens[i]);
+                }
+            }
+            m_updates++;
+        }
+    }
+
+    private static class SampleRrdStrategy extends StringRrdStrategy implements RrdSampleStrategy<Object> {
+        @Override
+        public void updateFile(Object rrd, String owner, RrdSample sample) throws Exception {
+            for (final double value : sample.getValues()) {
+                if (!Double.isNaN(value)) {
+                    m_total += value;
+                }
+            }
+            m_updates++;
+        }
+    }
+
+    /**
+     * Remembers the last update string it was given.
+     */
+    private static class RecordingRrdStrategy extends NullRrdStrategy {
+        private String m_data;
+
+        @Override
+        public Object openFile(String fileName) throws Exception {
+            return fileName;
+        }
+
+        @Override
+        public void updateFile(Object rrd, String owner, String data) throws Exception {
+            m_data = data;
+        }
+    }
+
+    private static class BenchmarkPersister extends BasePersister {
+        public BenchmarkPersister(final RrdRepository repository) {
+            super(new ServiceParameters(new HashMap<String,Object>()), repository);
+        }
+
+        public void persist(final CollectionResource resource, final Set<CollectionAttributeType> attributeTypes, final List<SnmpAttribute> attributes) {
+            pushShouldPersist(resource);
+            createBuilder(resource, "benchmark", attributeTypes);
+            for (final SnmpAttribute attribute : attributes) {
+                storeAttribute(attribute);
+            }
+            commitBuilder();
+            popShouldPersist();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(true, "WARN");
+        m_previousStrategy = RrdUtils.getStrategy();
+
+        m_fileAnticipator = new FileAnticipator();
+
+        final OnmsNode node = new OnmsNode();
+        node.setId(1);
+        final OnmsIpInterface intf = new OnmsIpInterface();
+        intf.setId(25);
+        intf.setNode(node);
+        intf.setIpAddress(InetAddressUtils.addr("1.1.1.1"));
+
+        final IpInterfaceDao ifDao = EasyMock.createMock(IpInterfaceDao.class);
+        EasyMock.expect(ifDao.load(intf.getId())).andReturn(intf).anyTimes();
+        EasyMock.replay(ifDao);
+
+        final SnmpCollectionAgent agent = DefaultCollectionAgent.create(intf.getId(), ifDao, new MockPlatformTransactionManager());
+        final OnmsSnmpCollection collection = new OnmsSnmpCollection(agent, new ServiceParameters(new HashMap<String, Object>()), new MockDataCollectionConfig());
+        final NodeResourceType resourceType = new NodeResourceType(agent, collection);
+        final SnmpCollectionResource resource = new NodeInfo(resourceType, agent);
+        m_resource = resource;
+
+        final AttributeGroupType groupType = new AttributeGroupType("benchmark", AttributeGroupType.IF_TYPE_IGNORE);
+        for (int i = 0; i < ATTRIBUTES; i++) {
+            final MibObject mibObject = new MibObject();
+            mibObject.setOid(".1.3.6.1.2.1.2.2.1." + (i + 1));
+            mibObject.setAlias("ds" + i);
+            mibObject.setType("counter32");
+            mibObject.setInstance("0");
+
+            final NumericAttributeType attributeType = new NumericAttributeType(resourceType, "default", mibObject, groupType);
+            m_attributeTypes.add(attributeType);
+            m_attributes.add(new SnmpAttribute(resource, attributeType, SnmpUtils.getValueFactory().getCounter32(1000000L + i)));
+        }
+
+        m_repository = new RrdRepository();
+        m_repository.setRrdBaseDir(m_fileAnticipator.tempDir("snmp"));
+        m_repository.setHeartBeat(600);
+        m_repository.setStep(300);
+        m_repository.setRraList(Collections.singletonList("RRA:AVERAGE:0.5:1:100"));
+
+        final File nodeDir = m_fileAnticipator.expecting(m_repository.getRrdBaseDir(), node.getId().toString());
+        m_fileAnticipator.expecting(nodeDir, "benchmark.meta");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RrdUtils.setStrategy(m_previousStrategy);
+        MockLogAppender.assertNoWarningsOrGreater();
+        m_fileAnticipator.deleteExpected();
+        m_fileAnticipator.tearDown();
+    }
+
+    @Test
+    public void testSampleThroughput() throws Exception {
+        final StringRrdStrategy stringStrategy = new StringRrdStrategy();
+        final long stringElapsed = persist(stringStrategy);
+
+        final SampleRrdStrategy sampleStrategy = new SampleRrdStrategy();
+        final long sampleElapsed = persist(sampleStrategy);
+
+        System.err.printf("String updates: %d updates: Elapsed: %d ms: datapoints per second %f.%n", UPDATES, stringElapsed, UPDATES * ATTRIBUTES * 1000.0 / stringElapsed);
+        System.err.printf("RrdSample updates: %d updates: Elapsed: %d ms: datapoints per second %f.%n", UPDATES, sampleElapsed, UPDATES * ATTRIBUTES * 1000.0 / sampleElapsed);
+
+        assertEquals(UPDATES, stringStrategy.m_updates);
+        assertEquals(UPDATES, sampleStrategy.m_updates);
+        assertEquals(stringStrategy.m_total, sampleStrategy.m_total, 0.0);
+    }
+
+    /**
+     * Counter64 values above 2<sup>53</sup> can't be held by a double, so
+     * strategies that only accept strings must get them as collected, both
+     * directly and behind a strategy that accepts {@link RrdSample}s.
+     */
+    @Test
+    public void testCounter64NearMaximum() throws Exception {
+        final String max = "18446744073709551615";
+        final List<SnmpAttribute> attributes = new ArrayList<SnmpAttribute>();
+        for (final SnmpAttribute attribute : m_attributes) {
+            attributes.add(new SnmpAttribute((SnmpCollectionResource) m_resource, (SnmpAttributeType) attribute.getAttributeType(), SnmpUtils.getValueFactory().getCounter64(new BigInteger(max))) {
+                @Override
+                public String getNumericValue() {
+                    return max;
+                }
+            });
+        }
+        final BenchmarkPersister persister = new BenchmarkPersister(m_repository);
+
+        final RecordingRrdStrategy stringStrategy = new RecordingRrdStrategy();
+        RrdUtils.setStrategy(stringStrategy);
+        persister.persist(m_resource, m_attributeTypes, attributes);
+        assertAllValuesEqual(max, stringStrategy.m_data);
+
+        final RecordingRrdStrategy delegate = new RecordingRrdStrategy();
+        final MultiOutputRrdStrategy multiStrategy = new MultiOutputRrdStrategy();
+        multiStrategy.setDelegates(Collections.<RrdStrategy<Object, Object>>singletonList(delegate));
+        RrdUtils.setStrategy(multiStrategy);
+        persister.persist(m_resource, m_attributeTypes, attributes);
+        assertAllValuesEqual(max, delegate.m_data);
+
+        assertEquals("18446744073709551616:9007199254740992:U", RrdSample.formatValues(new double[] { Math.pow(2, 64), Math.pow(2, 53), Double.NaN }));
+        assertEquals(Math.pow(2, 64), new RrdSample(0, new String[] { max }).getValues()[0], 0.0);
+    }
+
+    private static void assertAllValuesEqual(final String expected, final String data) {
+        final String[] tokens = data.split(":");
+        assertEquals(ATTRIBUTES + 1, tokens.length);
+        for (int i = 1; i < tokens.length; i++) {
+            assertEquals(expected, tokens[i]);
+        }
+    }
+
+    /**
+     * Persists the attributes {@link #UPDATES} times through the given
+     * strategy, after a warm-up round, and returns the elapsed time.
+     */
+    private long persist(final StringRrdStrategy strategy) {
+        final BenchmarkPersister persister = new BenchmarkPersister(m_repository);
+        RrdUtils.setStrategy(strategy);
+        for (int i = 0; i < UPDATES / 10; i++) {
+            persister.persist(m_resource, m_attributeTypes, m_attributes);
+        }
+        strategy.m_total = 0;
+        strategy.m_updates = 0;
+
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < UPDATES; i++) {
+            persister.persist(m_resource, m_attributeTypes, m_attributes);
+        }
+        return Math.max(1, System.currentTimeMillis() - start);
+    }
+}
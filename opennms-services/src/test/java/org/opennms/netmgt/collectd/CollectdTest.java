@@ -49,6 +49,8 @@ import junit.framework.TestCase;
 import org.easymock.EasyMock;
 import org.opennms.core.test.ConfigurationTestUtils;
 import org.opennms.core.test.MockLogAppender;
+import org.opennms.core.utils.CallbackFuture;
+import org.opennms.netmgt.collection.api.AsyncServiceCollector;
 import org.opennms.netmgt.collection.api.CollectionAgent;
 import org.opennms.netmgt.collection.api.CollectionException;
 import org.opennms.netmgt.collection.api.CollectionInitializationException;
@@ -345,6 +347,59 @@ public class CollectdTest extends TestCase {
         m_easyMockUtils.verifyAll();
     }
 
+    /**
+     * An asynchronous collection must give the scheduler thread back right
+     * away and only reschedule the service once it has been processed.
+     */
+    public void testAsyncCollection() throws Exception {
+        OnmsIpInterface iface = getInterface();
+
+        setupCollector("SNMP", true, MockAsyncServiceCollector.class);
+        setupInterface(iface);
+        setupTransactionManager();
+  
+        expect(m_collectdConfig.getPackages()).andReturn(Collections.singletonList(getCollectionPackageThatMatchesSNMP()));
+        expect(m_collectdConfigFactory.interfaceInPackage(iface, getCollectionPackageThatMatchesSNMP())).andReturn(true);
+        
+        m_easyMockUtils.replayAll();
+
+        final CallbackFuture<CollectionSet> future = new CallbackFuture<CollectionSet>();
+        MockAsyncServiceCollector.setFuture(future);
+
+        m_collectd.afterPropertiesSet();
+
+        m_collectd.start();
+        
+        m_scheduler.next();
+
+        assertEquals("scheduler entry count", 1, m_scheduler.getEntryCount());
+
+        final DefaultCollectdInstrumentation instrumentation = (DefaultCollectdInstrumentation)Collectd.instrumentation();
+        final int inFlight = instrumentation.getCollectionsInFlight();
+
+        // starts the collection, nothing is rescheduled until it completes
+        m_scheduler.next();
+
+        assertEquals("scheduler entry count", 0, m_scheduler.getEntryCount());
+        assertEquals("collections in flight", inFlight + 1, instrumentation.getCollectionsInFlight());
+
+        // the result is handed back to the scheduler to be persisted
+        future.complete(MockServiceCollector.createCollectionSet());
+
+        assertEquals("scheduler entry count", 1, m_scheduler.getEntryCount());
+        assertEquals("collections in flight", inFlight, instrumentation.getCollectionsInFlight());
+        assertTrue("collection latency", instrumentation.getCollectionLatencies().containsKey("1/192.168.1.1/SNMP"));
+
+        // which reschedules the service
+        m_scheduler.next();
+
+        assertEquals("scheduler entry count", 1, m_scheduler.getEntryCount());
+
+        m_collectd.stop();
+
+        m_easyMockUtils.verifyAll();
+    }
+
     @SuppressWarnings("unchecked")
     private static <K> Collection<K> isACollection(Class<K> innerClass) {
         return isA(Collection.class);
@@ -376,6 +431,10 @@ public class CollectdTest extends TestCase {
     }
 
     private void setupCollector(String svcName, boolean successfulInit) throws CollectionInitializationException {
+        setupCollector(svcName, successfulInit, MockServiceCollector.class);
+    }
+
+    private void setupCollector(String svcName, boolean successfulInit, Class<? extends MockServiceCollector> collectorClass) throws CollectionInitializationException {
         ServiceCollector svcCollector = m_easyMockUtils.createMock(ServiceCollector.class);
         if (successfulInit) {
             svcCollector.initialize(isA(CollectionAgent.class), isAMap(String.class, Object.class));
@@ -386,7 +445,7 @@ public class CollectdTest extends TestCase {
         // Tell the config to use the MockServiceCollector for the specified service
         Collector collector = new Collector();
         collector.setService(svcName);
-        collector.setClassName(MockServiceCollector.class.getName());
+        collector.setClassName(collectorClass.getName());
 
         m_collectdConfigFactory = m_easyMockUtils.createMock(CollectdConfigFactory.class);
         m_collectdConfig = m_easyMockUtils.createMock(CollectdConfiguration.class);
@@ -411,6 +470,10 @@ public class CollectdTest extends TestCase {
         
         @Override
         public CollectionSet collect(CollectionAgent agent, EventProxy eproxy, Map<String, Object> parameters) throws CollectionException {
+            return createCollectionSet();
+        }
+
+        public static CollectionSet createCollectionSet() {
             return new AbstractCollectionSet() {
                 private Date m_timestamp = new Date();
                 @Override
@@ -462,4 +525,17 @@ public class CollectdTest extends TestCase {
         }
     }
 
+    public static class MockAsyncServiceCollector extends MockServiceCollector implements AsyncServiceCollector {
+        private static CallbackFuture<CollectionSet> s_future;
+
+        public static void setFuture(CallbackFuture<CollectionSet> future) {
+            s_future = future;
+        }
+
+        @Override
+        public CallbackFuture<CollectionSet> collectAsync(CollectionAgent agent, EventProxy eproxy, Map<String, Object> parameters) {
+            return s_future;
+        }
+    }
+
 }
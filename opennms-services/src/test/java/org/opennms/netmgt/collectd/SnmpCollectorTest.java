@@ -40,6 +40,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
@@ -51,6 +52,7 @@ import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
 import org.opennms.core.test.TestContextAware;
 import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
 import org.opennms.core.test.snmp.annotations.JUnitSnmpAgent;
+import org.opennms.core.utils.CallbackFuture;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.collection.api.CollectionAgent;
 import org.opennms.netmgt.collection.api.CollectionSet;
@@ -232,6 +234,54 @@ public class SnmpCollectorTest implements InitializingBean, TestContextAware {
         m_collectionSpecification.release(m_collectionAgent);
     }
 
+    @Test
+    @JUnitCollector(
+                    datacollectionConfig = "/org/opennms/netmgt/config/datacollection-config.xml", 
+                    datacollectionType = "snmp",
+                    anticipateFiles = {
+                            "1",
+                            "1/fw0"
+                    },
+                    anticipateRrds = {
+                            "1/tcpActiveOpens",
+                            "1/tcpAttemptFails",
+                            "1/tcpPassiveOpens",
+                            "1/tcpRetransSegs",
+                            "1/tcpCurrEstab",
+                            "1/tcpEstabResets",
+                            "1/tcpInErrors",
+                            "1/tcpInSegs",
+                            "1/tcpOutRsts",
+                            "1/tcpOutSegs",
+                            "1/fw0/ifInDiscards",
+                            "1/fw0/ifInErrors",
+                            "1/fw0/ifInNUcastpkts",
+                            "1/fw0/ifInOctets",
+                            "1/fw0/ifInUcastpkts",
+                            "1/fw0/ifOutErrors",
+                            "1/fw0/ifOutNUcastPkts",
+                            "1/fw0/ifOutOctets",
+                            "1/fw0/ifOutUcastPkts"
+                    }
+            )
+    @JUnitSnmpAgent(resource = "/org/opennms/netmgt/snmp/snmpTestData1.properties")
+    public void testCollectAsync() throws Exception {
+        System.setProperty("org.opennms.netmgt.collectd.SnmpCollector.limitCollectionToInstances", "true");
+
+        m_collectionSpecification.initialize(m_collectionAgent);
+
+        CallbackFuture<CollectionSet> future = m_collectionSpecification.collectAsync(m_collectionAgent);
+        assertNotNull("SNMP collection should be asynchronous", future);
+
+        CollectionSet collectionSet = future.get(30, TimeUnit.SECONDS);
+        assertEquals("collection status",
+                     ServiceCollector.COLLECTION_SUCCEEDED,
+                     collectionSet.getStatus());
+        CollectorTestUtils.persistCollectionSet(m_collectionSpecification, collectionSet);
+
+        m_collectionSpecification.release(m_collectionAgent);
+    }
+
     @Test
     @Transactional
     @JUnitCollector(
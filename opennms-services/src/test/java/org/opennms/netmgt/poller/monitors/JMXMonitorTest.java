@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.monitors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.poller.mock.MockMonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.protocols.jmx.connectors.ConnectionWrapper;
+import org.opennms.protocols.jmx.connectors.JmxConnectionPool;
+import org.opennms.protocols.jmx.connectors.Jsr160ConnectionFactory;
+
+/**
+ * Polls a JMX connector server in this JVM through a connection pool whose
+ * target fails once and then recovers.
+ */
+public class JMXMonitorTest {
+
+    private static final int PORT = 9125;
+
+    private static Registry s_registry;
+
+    private JMXConnectorServer m_connectorServer;
+    private JmxConnectionPool m_pool;
+    private final Map<String, Object> m_parameters = new HashMap<String, Object>();
+    private final InetAddress m_address = InetAddressUtils.getLocalHostAddress();
+    private final AtomicInteger m_connects = new AtomicInteger(0);
+
+    /** Fails the first connection attempt, as a target that has just come back would. */
+    private final JmxConnectionPool.ConnectionFactory m_factory = new JmxConnectionPool.ConnectionFactory() {
+        @Override
+        public ConnectionWrapper createConnection(final Map<String, ?> parameters, final InetAddress address) {
+            if (m_connects.incrementAndGet() == 1) {
+                return null;
+            }
+            return Jsr160ConnectionFactory.getMBeanServerConnection(parameters, address);
+        }
+    };
+
+    private final JMXMonitor m_monitor = new JMXMonitor() {
+        @Override
+        public ConnectionWrapper getMBeanServerConnection(final Map<String, Object> parameterMap, final InetAddress address) {
+            return m_pool.getConnection("jsr160", parameterMap, address, m_factory, false);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        if (s_registry == null) {
+            s_registry = LocateRegistry.createRegistry(PORT);
+        }
+        m_connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(new JMXServiceURL("service:jmx:rmi:///jndi/rmi://localhost:" + PORT + "/server"), null, ManagementFactory.getPlatformMBeanServer());
+        m_connectorServer.start();
+
+        m_parameters.put("port", String.valueOf(PORT));
+        m_parameters.put("urlPath", "/server");
+        // a backoff far longer than the test, so that any refusal shows
+        m_pool = new JmxConnectionPool(2, 100L, 900000L, 0L, 60000L, 60000L);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        m_pool.close();
+        m_connectorServer.stop();
+    }
+
+    @Test
+    public void testRetryAfterFailedConnect() throws Exception {
+        m_parameters.put("retry", "1");
+
+        final PollStatus status = m_monitor.poll(new MockMonitoredService(1, "Router", m_address, "JMX"), m_parameters);
+
+        assertTrue(status.getReason(), status.isAvailable());
+        assertEquals(2, m_connects.get());
+        assertEquals(1, m_pool.getConnectFailures());
+        assertEquals(0, m_pool.getActiveConnections());
+    }
+
+    @Test
+    public void testUnavailableWithoutRetry() throws Exception {
+        m_parameters.put("retry", "0");
+
+        assertTrue(m_monitor.poll(new MockMonitoredService(1, "Router", m_address, "JMX"), m_parameters).isUnavailable());
+        // the failure still makes collectors back off ...
+        assertNull(m_pool.getConnection("jsr160", m_parameters, m_address, m_factory));
+        assertEquals(1, m_connects.get());
+
+        // ... while the next poll connects
+        assertTrue(m_monitor.poll(new MockMonitoredService(1, "Router", m_address, "JMX"), m_parameters).isAvailable());
+        assertEquals(2, m_connects.get());
+    }
+}
@@ -0,0 +1,332 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.monitors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.core.utils.CallbackFuture;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.mock.MonitorTestUtils;
+
+/**
+ * Exercises the {@link NioPollReactor} and the monitors built on it against
+ * servers running in the test.
+ */
+public class NioPollReactorTest {
+
+    private static final String BANNER = "220 test.opennms.org ESMTP ready";
+
+    /**
+     * Accepts connections on a local port and hands each one to
+     * {@link #handle(Socket)} on the accepting thread.
+     */
+    private static abstract class LocalServer extends Thread {
+        private final ServerSocket m_serverSocket;
+        private final List<Socket> m_open = new ArrayList<Socket>();
+
+        private LocalServer() throws IOException {
+            m_serverSocket = new ServerSocket(0, 1000, InetAddress.getLoopbackAddress());
+            setDaemon(true);
+            start();
+        }
+
+        public int getPort() {
+            return m_serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            while (!m_serverSocket.isClosed()) {
+                try {
+                    final Socket socket = m_serverSocket.accept();
+                    m_open.add(socket);
+                    handle(socket);
+                } catch (final IOException e) {
+                    // closed
+                }
+            }
+        }
+
+        protected abstract void handle(Socket socket) throws IOException;
+
+        public void close() throws IOException {
+            m_serverSocket.close();
+            for (final Socket socket : m_open) {
+                socket.close();
+            }
+        }
+    }
+
+    private final List<LocalServer> m_servers = new ArrayList<LocalServer>();
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (final LocalServer server : m_servers) {
+            server.close();
+        }
+    }
+
+    private LocalServer bannerServer() throws IOException {
+        final LocalServer server = new LocalServer() {
+            @Override
+            protected void handle(final Socket socket) throws IOException {
+                socket.getOutputStream().write((BANNER + "\r\n").getBytes());
+                socket.close();
+            }
+        };
+        m_servers.add(server);
+        return server;
+    }
+
+    private static MonitoredService getMonitoredService(final String svcName) throws Exception {
+        return MonitorTestUtils.getMonitoredService(1, "localhost", InetAddress.getLoopbackAddress(), svcName);
+    }
+
+    private static Map<String, Object> parameters(final int port, final String... keyValues) {
+        final Map<String, Object> m = new ConcurrentSkipListMap<String, Object>();
+        m.put("port", String.valueOf(port));
+        m.put("retry", "0");
+        m.put("timeout", "1000");
+        for (int i = 0; i < keyValues.length; i += 2) {
+            m.put(keyValues[i], keyValues[i + 1]);
+        }
+        return m;
+    }
+
+    @Test
+    public void testTcpBanner() throws Exception {
+        final LocalServer server = bannerServer();
+        final TcpMonitor monitor = new TcpMonitor();
+
+        PollStatus status = monitor.poll(getMonitoredService("SMTP"), parameters(server.getPort(), "banner", "220"));
+        assertEquals(status.getReason(), PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
+
+        status = monitor.poll(getMonitoredService("SMTP"), parameters(server.getPort(), "banner", "~^220 .*ESMTP.*"));
+        assertEquals(status.getReason(), PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
+
+        status = monitor.poll(getMonitoredService("SMTP"), parameters(server.getPort(), "banner", "421"));
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("Banner: '" + BANNER + "' does not contain match string '421'", status.getReason());
+    }
+
+    @Test
+    public void testTcpZeroTimeoutWaitsForBanner() throws Exception {
+        final LocalServer server = new LocalServer() {
+            @Override
+            protected void handle(final Socket socket) throws IOException {
+                try {
+                    Thread.sleep(100);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                socket.getOutputStream().write((BANNER + "\r\n").getBytes());
+                socket.close();
+            }
+        };
+        m_servers.add(server);
+
+        // a zero timeout means wait forever, as with SO_TIMEOUT
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<NioPollReactor.Result> result = new AtomicReference<NioPollReactor.Result>();
+        NioPollReactor.getInstance().connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()), 0, 0, null, NioPollReactor.FIRST_LINE, new NioPollReactor.Callback() {
+            @Override
+            public void exchangeComplete(final NioPollReactor.Result r) {
+                result.set(r);
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(String.valueOf(result.get().getFailure()), result.get().isSuccessful());
+        assertEquals(BANNER + "\r\n", new String(result.get().getResponse()));
+    }
+
+    @Test
+    public void testTcpConnectionRefused() throws Exception {
+        final ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        final int port = socket.getLocalPort();
+        socket.close();
+
+        final PollStatus status = new TcpMonitor().poll(getMonitoredService("TCP"), parameters(port));
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertTrue(status.getReason(), status.getReason().startsWith("Connection exception for address"));
+    }
+
+    @Test
+    public void testTcpReadTimeout() throws Exception {
+        final LocalServer server = new LocalServer() {
+            @Override
+            protected void handle(final Socket socket) {
+                // say nothing
+            }
+        };
+        m_servers.add(server);
+
+        final long start = System.currentTimeMillis();
+        final PollStatus status = new TcpMonitor().poll(getMonitoredService("SMTP"), parameters(server.getPort(), "banner", "220", "timeout", "200", "retry", "1"));
+        final long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertTrue(status.getReason(), status.getReason().startsWith("did not connect to host with"));
+        assertTrue("two attempts took " + elapsed + "ms", elapsed >= 400);
+    }
+
+    @Test
+    public void testHttpResponseText() throws Exception {
+        final LocalServer server = new LocalServer() {
+            @Override
+            protected void handle(final Socket socket) throws IOException {
+                final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                String line;
+                while ((line = in.readLine()) != null && line.length() > 0) {
+                    // skip the request headers
+                }
+                final OutputStream out = socket.getOutputStream();
+                out.write("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\nConnection: close\r\n\r\n<html><body>Hello, poller</body></html>\r\n".getBytes());
+                socket.close();
+            }
+        };
+        m_servers.add(server);
+        final HttpMonitor monitor = new HttpMonitor();
+
+        PollStatus status = monitor.poll(getMonitoredService("HTTP"), parameters(server.getPort(), "response-text", "Hello, poller"));
+        assertEquals(status.getReason(), PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
+        assertNotNull(status.getResponseTime());
+
+        status = monitor.poll(getMonitoredService("HTTP"), parameters(server.getPort(), "response-text", "Goodbye"));
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertTrue(status.getReason(), status.getReason().startsWith("Matching text: [Goodbye] not found in body of HTTP response"));
+
+        status = monitor.poll(getMonitoredService("HTTP"), parameters(server.getPort(), "response", "400-499"));
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+    }
+
+    @Test
+    public void testUdpExchange() throws Exception {
+        final DatagramSocket echo = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        final Thread echoThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    final DatagramPacket packet = new DatagramPacket(new byte[512], 512);
+                    echo.receive(packet);
+                    echo.send(new DatagramPacket(packet.getData(), packet.getLength(), packet.getSocketAddress()));
+                } catch (final IOException e) {
+                    // closed
+                }
+            }
+        };
+        echoThread.start();
+
+        try {
+            final byte[] request = "ping".getBytes();
+            final InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), echo.getLocalPort());
+
+            NioPollReactor.Result result = exchange(address, request);
+            assertTrue(String.valueOf(result.getFailure()), result.isSuccessful());
+            assertArrayEquals(request, result.getResponse());
+
+            // nobody answers the second one
+            result = exchange(address, request);
+            assertTrue(result.getFailure() instanceof SocketTimeoutException);
+        } finally {
+            echo.close();
+            echoThread.join();
+        }
+    }
+
+    private static NioPollReactor.Result exchange(final InetSocketAddress address, final byte[] request) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<NioPollReactor.Result> result = new AtomicReference<NioPollReactor.Result>();
+        NioPollReactor.getInstance().send(address, 200, request, new NioPollReactor.Callback() {
+            @Override
+            public void exchangeComplete(final NioPollReactor.Result r) {
+                result.set(r);
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    @Test
+    public void testManyConcurrentPolls() throws Exception {
+        final LocalServer server = bannerServer();
+        final TcpMonitor monitor = new TcpMonitor();
+        final MonitoredService svc = getMonitoredService("SMTP");
+        final Map<String, Object> parameters = parameters(server.getPort(), "banner", "220", "timeout", "5000");
+
+        final int count = 1000;
+        final List<CallbackFuture<PollStatus>> polls = new ArrayList<CallbackFuture<PollStatus>>(count);
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            polls.add(monitor.pollAsync(svc, parameters));
+        }
+        int available = 0;
+        for (final CallbackFuture<PollStatus> poll : polls) {
+            if (poll.get(30, TimeUnit.SECONDS).isAvailable()) available++;
+        }
+        final long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        System.err.printf("%d concurrent TCP polls: Elapsed: %d ms: polls per second %f.%n", count, elapsed, count * 1000.0 / elapsed);
+        assertEquals(count, available);
+        assertEquals(0, NioPollReactor.getInstance().getActiveExchanges());
+    }
+}
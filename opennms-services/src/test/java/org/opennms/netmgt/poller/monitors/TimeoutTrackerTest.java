@@ -29,6 +29,7 @@
 package org.opennms.netmgt.poller.monitors;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 import org.opennms.core.utils.TimeoutTracker;
@@ -92,4 +93,23 @@ public class TimeoutTrackerTest extends TestCase {
         assertTrue("Expected value for elapsedTimeInMillis should be less than " + maxTime, elapsedTimeInMillis < (maxTime + 1));
     }
 
+    public void testAttemptDelay() {
+        Map<String,Object> strict = new HashMap<String,Object>();
+        strict.put("strict-timeout", "true");
+        TimeoutTracker tracker = new TimeoutTracker(strict, 1, 3000);
+
+        tracker.reset();
+        assertEquals(0, tracker.getAttemptDelayInMillis());
+        tracker.startAttempt();
+        tracker.nextAttempt();
+        long delay = tracker.getAttemptDelayInMillis();
+        assertTrue("Expected a delay of about 3000ms, got " + delay, delay > 2500 && delay <= 3000);
+
+        Map<String,?> emptyMap = Collections.emptyMap();
+        tracker = new TimeoutTracker(emptyMap, 1, 3000);
+        tracker.startAttempt();
+        tracker.nextAttempt();
+        assertEquals(0, tracker.getAttemptDelayInMillis());
+    }
+
 }
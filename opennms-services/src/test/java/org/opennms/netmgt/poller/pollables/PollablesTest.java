@@ -42,8 +42,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 
 import javax.sql.DataSource;
@@ -53,6 +56,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.opennms.core.test.MockLogAppender;
 import org.opennms.core.test.db.MockDatabase;
+import org.opennms.core.utils.CallbackFuture;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.Querier;
 import org.opennms.netmgt.config.PollOutagesConfig;
@@ -71,7 +75,10 @@ import org.opennms.netmgt.mock.MockService;
 import org.opennms.netmgt.mock.MockVisitor;
 import org.opennms.netmgt.mock.MockVisitorAdapter;
 import org.opennms.netmgt.mock.OutageAnticipator;
+import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.ServiceMonitor;
+import org.opennms.netmgt.poller.monitors.AbstractAsyncServiceMonitor;
 import org.opennms.netmgt.poller.mock.MockPollContext;
 import org.opennms.netmgt.poller.mock.MockScheduler;
 import org.opennms.netmgt.poller.mock.MockTimer;
@@ -1554,6 +1561,44 @@ public class PollablesTest {
         LOG.debug(".3 HTTP: {}: status={}, changetime={}", pDot3Http, pDot3Http.getStatus(), pDot3Http.getStatusChangeTime());
     }
 
+    @Test
+    public void testAsyncPoll() {
+        final List<CallbackFuture<PollStatus>> polls = new ArrayList<CallbackFuture<PollStatus>>();
+        final ServiceMonitor monitor = new AbstractAsyncServiceMonitor() {
+            @Override
+            public CallbackFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
+                final CallbackFuture<PollStatus> future = new CallbackFuture<PollStatus>();
+                polls.add(future);
+                return future;
+            }
+        };
+
+        Package pkg = m_pollerConfig.getPackage("TestPackage");
+        PollableServiceConfig pollConfig = new PollableServiceConfig(pDot1Smtp, m_pollerConfig, m_pollerConfig, pkg, m_scheduler);
+        pollConfig.setServiceMonitor(new LatencyStoringServiceMonitorAdaptor(monitor, m_pollerConfig, pkg));
+        pDot1Smtp.setPollConfig(pollConfig);
+
+        // the poll is started but nothing changes until it completes
+        pDot1Smtp.run();
+        assertEquals(1, polls.size());
+        assertUp(pDot1Smtp);
+        assertUnchanged(pDot1Smtp);
+
+        // no second poll while the first one is outstanding
+        pDot1Smtp.run();
+        assertEquals(1, polls.size());
+
+        anticipateDown(mDot1Smtp);
+
+        polls.get(0).complete(PollStatus.down());
+
+        assertDown(pDot1Smtp);
+        verifyAnticipated();
+
+        pDot1Smtp.run();
+        assertEquals(2, polls.size());
+    }
+
     @Test
     public void testSchedule() {
         pDot1Smtp.getSchedule().schedule();
@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.fiber.Fiber;
+import org.opennms.core.fiber.PausableFiber;
+
+public class TimingWheelSchedulerTest {
+
+    private TimingWheelScheduler m_scheduler;
+
+    private static class RecordingRunnable implements ReadyRunnable {
+        private final String m_name;
+        private final List<String> m_runs;
+        private final CountDownLatch m_latch;
+        private volatile boolean m_ready = true;
+        private volatile long m_ranAt = 0;
+
+        public RecordingRunnable(final String name, final List<String> runs, final CountDownLatch latch) {
+            m_name = name;
+            m_runs = runs;
+            m_latch = latch;
+        }
+
+        @Override
+        public boolean isReady() {
+            return m_ready;
+        }
+
+        @Override
+        public void run() {
+            m_ranAt = System.currentTimeMillis();
+            m_runs.add(m_name);
+            m_latch.countDown();
+        }
+
+        @Override
+        public String toString() {
+            return m_name;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        m_scheduler = new TimingWheelScheduler("TimingWheelSchedulerTest", 4);
+        m_scheduler.start();
+    }
+
+    @After
+    public void tearDown() {
+        m_scheduler.stop();
+    }
+
+    @Test
+    public void testRunsInDueOrder() throws Exception {
+        final List<String> runs = new CopyOnWriteArrayList<String>();
+        final CountDownLatch latch = new CountDownLatch(3);
+
+        final long start = System.currentTimeMillis();
+        final RecordingRunnable last = new RecordingRunnable("300", runs, latch);
+        m_scheduler.schedule(300, last);
+        m_scheduler.schedule(100, new RecordingRunnable("100", runs, latch));
+        m_scheduler.schedule(200, new RecordingRunnable("200", runs, latch));
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("[100, 200, 300]", runs.toString());
+        assertTrue("ran too early", last.m_ranAt - start >= 300);
+        assertEquals(3, m_scheduler.getNumTasksExecuted());
+        assertEquals(0, m_scheduler.getScheduled());
+    }
+
+    @Test
+    public void testLongInterval() throws Exception {
+        // far enough out to go through the overflow wheels
+        final List<String> runs = new CopyOnWriteArrayList<String>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long start = System.currentTimeMillis();
+        final RecordingRunnable runnable = new RecordingRunnable("long", runs, latch);
+        m_scheduler.schedule(4500, runnable);
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        final long elapsed = runnable.m_ranAt - start;
+        assertTrue("ran after " + elapsed + "ms", elapsed >= 4500 && elapsed < 4700);
+    }
+
+    @Test
+    public void testNotReadyDoesNotBlockOthers() throws Exception {
+        final List<String> runs = new CopyOnWriteArrayList<String>();
+        final CountDownLatch latch = new CountDownLatch(2);
+
+        final RecordingRunnable notReady = new RecordingRunnable("notReady", runs, latch);
+        notReady.m_ready = false;
+        m_scheduler.schedule(50, notReady);
+        m_scheduler.schedule(50, new RecordingRunnable("ready", runs, latch));
+
+        Thread.sleep(300);
+        assertEquals("[ready]", runs.toString());
+        assertEquals(1, m_scheduler.getScheduled());
+
+        notReady.m_ready = true;
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("[ready, notReady]", runs.toString());
+    }
+
+    @Test
+    public void testPauseAndResume() throws Exception {
+        final List<String> runs = new CopyOnWriteArrayList<String>();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        m_scheduler.pause();
+        m_scheduler.schedule(0, new RecordingRunnable("paused", runs, latch));
+        assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(PausableFiber.PAUSED, m_scheduler.getStatus());
+
+        m_scheduler.resume();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Fiber.RUNNING, m_scheduler.getStatus());
+    }
+
+    @Test
+    public void testLatenessHistogram() throws Exception {
+        final List<String> runs = new CopyOnWriteArrayList<String>();
+        final CountDownLatch latch = new CountDownLatch(20);
+        for (int i = 0; i < 10; i++) {
+            m_scheduler.schedule(10, new RecordingRunnable("a" + i, runs, latch));
+            m_scheduler.schedule(20, new RecordingRunnable("b" + i, runs, latch));
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        final LatenessHistogram histogram = m_scheduler.getLatenessHistograms().get(10L);
+        assertNotNull(histogram);
+        assertEquals(10, histogram.getCount());
+        assertEquals(10, m_scheduler.getLatenessHistograms().get(20L).getCount());
+        assertEquals(2, m_scheduler.getLatenessReport().length);
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        m_scheduler.schedule(60000, new RecordingRunnable("never", new CopyOnWriteArrayList<String>(), new CountDownLatch(1)));
+        m_scheduler.stop();
+        for (int i = 0; i < 50 && m_scheduler.getStatus() != Fiber.STOPPED; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(Fiber.STOPPED, m_scheduler.getStatus());
+
+        // let tearDown stop a fresh one
+        m_scheduler = new TimingWheelScheduler("TimingWheelSchedulerTest", 1);
+        m_scheduler.start();
+    }
+
+    /**
+     * Schedules a million services spread over two seconds and reports how
+     * quickly they are scheduled and how late they were started.
+     */
+    @Test
+    public void testMillionScheduledServices() throws Exception {
+        final int count = 1000000;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final ReadyRunnable service = new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            m_scheduler.schedule(1000 + (i % 20) * 50, service);
+        }
+        final long scheduleElapsed = Math.max(1, System.currentTimeMillis() - start);
+        System.err.printf("Scheduled %d services: Elapsed: %d ms: services per second %f.%n", count, scheduleElapsed, count * 1000.0 / scheduleElapsed);
+
+        assertTrue("not all services ran", latch.await(60, TimeUnit.SECONDS));
+        final long elapsed = System.currentTimeMillis() - start;
+        System.err.printf("Ran %d services: Elapsed: %d ms.%n", count, elapsed);
+        for (final String line : m_scheduler.getLatenessReport()) {
+            System.err.println(line);
+        }
+
+        assertEquals(count, m_scheduler.getNumTasksExecuted());
+        assertEquals(0, m_scheduler.getScheduled());
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Verifies that {@link SyslogBufferPool} slabs go back to the pool only when
+ * every datagram received into them has been released.
+ */
+public class SyslogBufferPoolTest {
+
+    @Test
+    public void testSlabReturnsWhenLastReferenceIsReleased() throws Exception {
+        final SyslogBufferPool pool = new SyslogBufferPool(1, 1024);
+        final SyslogBufferPool.Slab slab = pool.acquire();
+        assertNotNull(slab);
+        assertEquals(0, pool.getFreeCount());
+        assertNull(pool.acquire());
+
+        // two datagrams received into the slab
+        slab.getBuffer().put(new byte[100]);
+        slab.retain();
+        slab.retain();
+
+        // the receiver moves on to another slab
+        slab.release();
+        assertEquals(0, pool.getFreeCount());
+
+        slab.release();
+        assertEquals(0, pool.getFreeCount());
+        slab.release();
+        assertEquals(1, pool.getFreeCount());
+
+        final SyslogBufferPool.Slab again = pool.acquire(100, TimeUnit.MILLISECONDS);
+        assertSame(slab, again);
+        assertEquals(0, again.getBuffer().position());
+        assertEquals(1024, again.getBuffer().remaining());
+    }
+
+    @Test
+    public void testAcquireTimesOut() throws Exception {
+        final SyslogBufferPool pool = new SyslogBufferPool(1, 1024);
+        assertNotNull(pool.acquire());
+        assertNull(pool.acquire(10, TimeUnit.MILLISECONDS));
+        assertEquals(1, pool.getSize());
+    }
+}
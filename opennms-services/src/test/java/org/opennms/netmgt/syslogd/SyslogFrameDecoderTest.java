@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.Charset;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.frame.CorruptedFrameException;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.junit.Test;
+
+/**
+ * Verifies the RFC 6587 framing of {@link SyslogFrameDecoder}.
+ */
+public class SyslogFrameDecoderTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final SyslogFrameDecoder m_decoder = new SyslogFrameDecoder(64);
+
+    private final ChannelBuffer m_buffer = ChannelBuffers.dynamicBuffer();
+
+    private void write(final String data) {
+        m_buffer.writeBytes(data.getBytes(ASCII));
+    }
+
+    private String decode() throws Exception {
+        final ChannelBuffer frame = (ChannelBuffer)m_decoder.decode(null, null, m_buffer);
+        return frame == null ? null : frame.toString(ASCII);
+    }
+
+    @Test
+    public void testOctetCounting() throws Exception {
+        write("12 <13>foo: bar13 <13>foo: ba");
+        assertEquals("<13>foo: bar", decode());
+        assertNull(decode());
+
+        write("z\n");
+        assertEquals("<13>foo: baz\n", decode());
+        assertNull(decode());
+        assertFalse(m_buffer.readable());
+    }
+
+    @Test
+    public void testOctetCountSplitAcrossReads() throws Exception {
+        write("1");
+        assertNull(decode());
+        write("2");
+        assertNull(decode());
+        write(" <13>foo: bar");
+        assertEquals("<13>foo: bar", decode());
+    }
+
+    @Test
+    public void testNonTransparentFraming() throws Exception {
+        write("<13>foo: bar\n<13>foo: baz\r\n<13>foo");
+        assertEquals("<13>foo: bar", decode());
+        assertEquals("<13>foo: baz", decode());
+        assertNull(decode());
+
+        write(": qux\n\n\0");
+        assertEquals("<13>foo: qux", decode());
+        assertNull(decode());
+        assertFalse(m_buffer.readable());
+    }
+
+    @Test
+    public void testMixedFraming() throws Exception {
+        write("<13>foo: bar\n12 <13>foo: baz<13>foo: qux\n");
+        assertEquals("<13>foo: bar", decode());
+        assertEquals("<13>foo: baz", decode());
+        assertEquals("<13>foo: qux", decode());
+    }
+
+    @Test
+    public void testUnterminatedLastMessage() throws Exception {
+        write("<13>foo: bar\r");
+        assertNull(decode());
+        final ChannelBuffer frame = (ChannelBuffer)m_decoder.decodeLast(null, null, m_buffer);
+        assertEquals("<13>foo: bar", frame.toString(ASCII));
+    }
+
+    @Test(expected=TooLongFrameException.class)
+    public void testOctetCountTooLong() throws Exception {
+        write("65 <13>foo: bar");
+        decode();
+    }
+
+    @Test(expected=TooLongFrameException.class)
+    public void testLineTooLong() throws Exception {
+        final StringBuilder message = new StringBuilder("<13>foo: ");
+        while (message.length() <= 64) {
+            message.append("bar ");
+        }
+        write(message.toString());
+        decode();
+    }
+
+    @Test(expected=CorruptedFrameException.class)
+    public void testInvalidOctetCount() throws Exception {
+        write("12x<13>foo: bar");
+        decode();
+    }
+}
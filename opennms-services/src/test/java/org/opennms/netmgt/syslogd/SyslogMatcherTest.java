@@ -0,0 +1,370 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.HideMessage;
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.ProcessMatch;
+import org.opennms.netmgt.config.syslogd.UeiList;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+
+/**
+ * Verifies that {@link SyslogMatcher} picks the same UEI as evaluating
+ * every <code>ueiMatch</code> in order, and replays a syslog corpus through
+ * both to compare their throughput.
+ *
+ * <p>A captured corpus, one raw syslog message per line, can be replayed
+ * by setting the <code>org.opennms.syslogd.replayCorpus</code> system
+ * property to its path; otherwise a synthetic corpus is generated.</p>
+ */
+public class SyslogMatcherTest {
+
+    private static final String CORPUS_PROPERTY = "org.opennms.syslogd.replayCorpus";
+    private static final int LOAD_TEST_RULES = 2000;
+    private static final int SYNTHETIC_MESSAGES = 2000;
+
+    /** Patterns for the linear scan, which syslogd also cached. */
+    private static final Map<String,Pattern> s_patterns = new HashMap<String,Pattern>();
+
+    @Before
+    public void setUp() {
+        MockLogAppender.setupLogging(true, "WARN");
+        SyslogMatcher.invalidate();
+    }
+
+    @After
+    public void tearDown() {
+        SyslogMatcher.invalidate();
+    }
+
+    @Test
+    public void testRequiredLiterals() {
+        assertEquals(Arrays.asList("foo0: ", "load test ", " on "), SyslogMatcher.getRequiredLiterals(".*foo0: .*load test (\\S+) on ((pts\\/\\d+)|(tty\\d+)).*"));
+        assertEquals(Arrays.asList("Failed ", " for invalid user ", " from ", " port ", " ssh"), SyslogMatcher.getRequiredLiterals("^Failed (.*?) for invalid user (\\S+) from (.*?) port (\\d+) ssh(\\d)$"));
+        assertEquals(Arrays.asList("Bind to port ", " on ", " failed: ", "."), SyslogMatcher.getRequiredLiterals("^Bind to port (\\d+) on (.*?) failed: (.*)\\.$"));
+        // optional and repeated characters
+        assertEquals(Arrays.asList("colo", "r"), SyslogMatcher.getRequiredLiterals("colou?r"));
+        assertEquals(Arrays.asList("ab", "c"), SyslogMatcher.getRequiredLiterals("ab+c"));
+        assertEquals(Arrays.asList("x", "y"), SyslogMatcher.getRequiredLiterals("xz{0,2}y"));
+        assertEquals(Arrays.asList("foo", "bar"), SyslogMatcher.getRequiredLiterals("foo[a-z\\]]*bar"));
+        assertEquals(Arrays.asList("ouble"), SyslogMatcher.getRequiredLiterals("[Dd]ouble"));
+        // nothing can be required from these
+        assertEquals(Collections.emptyList(), SyslogMatcher.getRequiredLiterals(".*"));
+        assertEquals(Collections.emptyList(), SyslogMatcher.getRequiredLiterals("foo|bar"));
+        assertEquals(Collections.emptyList(), SyslogMatcher.getRequiredLiterals("(?i)foo"));
+        assertEquals(Collections.emptyList(), SyslogMatcher.getRequiredLiterals("\\x41bc"));
+        assertEquals(Collections.emptyList(), SyslogMatcher.getRequiredLiterals("\\Q(a\\E"));
+    }
+
+    @Test
+    public void testLiteralAutomaton() {
+        final LiteralAutomaton automaton = new LiteralAutomaton(Arrays.asList("he", "she", "his", "hers", "\u00e9t\u00e9"));
+        final BitSet found = new BitSet();
+        automaton.findAll("ushers", found);
+        assertEquals("{0, 1, 3}", found.toString());
+
+        found.clear();
+        automaton.findAll("this summer", found);
+        assertEquals("{2}", found.toString());
+
+        found.clear();
+        automaton.findAll("un \u00e9t\u00e9 chaud", found);
+        assertEquals("{4}", found.toString());
+
+        found.clear();
+        automaton.findAll("nothing", found);
+        assertTrue(found.isEmpty());
+    }
+
+    @Test
+    public void testFirstMatchWins() {
+        final UeiList ueiList = new UeiList();
+        ueiList.addUeiMatch(createUeiMatch("substr", "ignored", "uei.example.org/localOnly", null, "local7"));
+        ueiList.addUeiMatch(createUeiMatch("regex", "^Failed (\\S+) for (\\S+)$", "uei.example.org/failed", "^sshd$", null));
+        ueiList.addUeiMatch(createUeiMatch("substr", "Failed", "uei.example.org/failedSubstr", null, null));
+        ueiList.addUeiMatch(createUeiMatch("regex", "(unbalanced", "uei.example.org/invalid", null, null));
+        ueiList.addUeiMatch(createUeiMatch("regex", ".*", "uei.example.org/catchAll", "^sshd$", null));
+
+        final SyslogMatcher matcher = SyslogMatcher.getInstance(ueiList, null);
+        assertSame(matcher, SyslogMatcher.getInstance(ueiList, null));
+
+        SyslogMatcher.UeiMatchResult result = matcher.matchUei(createMessage("sshd", "Failed password for root"), "user", "info");
+        assertNotNull(result);
+        assertEquals("uei.example.org/failed", result.getUeiMatch().getUei());
+        assertEquals("root", result.getMatcher().group(2));
+
+        // the process doesn't match the regex rule, so the substring rule wins
+        result = matcher.matchUei(createMessage("login", "Failed password for root"), "user", "info");
+        assertEquals("uei.example.org/failedSubstr", result.getUeiMatch().getUei());
+        assertNull(result.getMatcher());
+
+        // the facility restricted rule only matches its facility, and case doesn't matter
+        result = matcher.matchUei(createMessage("login", "this is ignored"), "user", "info");
+        assertNull(result);
+        result = matcher.matchUei(createMessage("login", "this is ignored"), "LOCAL7", "info");
+        assertEquals("uei.example.org/localOnly", result.getUeiMatch().getUei());
+
+        result = matcher.matchUei(createMessage("sshd", "Accepted publickey"), "user", "info");
+        assertEquals("uei.example.org/catchAll", result.getUeiMatch().getUei());
+    }
+
+    @Test
+    public void testHide() {
+        final HideMessage hideMessage = new HideMessage();
+        hideMessage.addHideMatch(createHideMatch("substr", "TESTHIDING"));
+        hideMessage.addHideMatch(createHideMatch("regex", "[Dd]ouble[Ss]ecret"));
+        hideMessage.addHideMatch(createHideMatch("regex", "[broken"));
+
+        final SyslogMatcher matcher = SyslogMatcher.getInstance(null, hideMessage);
+        assertTrue(matcher.shouldHide("a TESTHIDING message"));
+        assertTrue(matcher.shouldHide("a doubleSecret message"));
+        assertFalse(matcher.shouldHide("a plain message"));
+    }
+
+    @Test
+    public void testMatchesLinearScan() throws Exception {
+        final UeiList ueiList = createRules();
+        final SyslogMatcher matcher = SyslogMatcher.getInstance(ueiList, null);
+        for (final SyslogMessage message : loadCorpus()) {
+            final String facility = message.getFacility().toString();
+            final String severity = message.getSeverity().toString();
+            final UeiMatch expected = matchLinear(ueiList, message, facility, severity);
+            final SyslogMatcher.UeiMatchResult actual = matcher.matchUei(message, facility, severity);
+            if (expected == null) {
+                assertNull(message.getFullText(), actual);
+            } else {
+                assertNotNull(message.getFullText(), actual);
+                assertSame(message.getFullText(), expected, actual.getUeiMatch());
+            }
+        }
+    }
+
+    @Test
+    public void testReplayThroughput() throws Exception {
+        final UeiList ueiList = createRules();
+        final List<SyslogMessage> corpus = loadCorpus();
+
+        long start = System.nanoTime();
+        int matched = 0;
+        for (final SyslogMessage message : corpus) {
+            if (matchLinear(ueiList, message, message.getFacility().toString(), message.getSeverity().toString()) != null) {
+                matched++;
+            }
+        }
+        printResults("Linear scan", corpus.size(), matched, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        final SyslogMatcher matcher = SyslogMatcher.getInstance(ueiList, null);
+        System.err.printf("Compile: %d rules: Elapsed: %.1f ms%n", ueiList.getUeiMatchCount(), (System.nanoTime() - start) / 1000000.0);
+
+        start = System.nanoTime();
+        int compiledMatched = 0;
+        for (final SyslogMessage message : corpus) {
+            if (matcher.matchUei(message, message.getFacility().toString(), message.getSeverity().toString()) != null) {
+                compiledMatched++;
+            }
+        }
+        printResults("Compiled matcher", corpus.size(), compiledMatched, System.nanoTime() - start);
+
+        assertEquals(matched, compiledMatched);
+    }
+
+    private static void printResults(final String name, final int count, final int matched, final long nanos) {
+        final double millis = nanos / 1000000.0;
+        System.err.printf("%s: %d messages, %d matched: Elapsed: %.1f ms: messages per second %.0f%n", name, count, matched, millis, count * 1000.0 / millis);
+    }
+
+    /**
+     * The rules from the load test configuration followed by the rules
+     * shipped for OpenSSH.
+     */
+    private static UeiList createRules() {
+        final UeiList ueiList = new UeiList();
+        for (int i = 0; i < LOAD_TEST_RULES; i++) {
+            ueiList.addUeiMatch(createUeiMatch("regex", ".*foo" + i + ": .*load test (\\S+) on ((pts\\/\\d+)|(tty\\d+)).*", "uei.example.org/syslog/loadTest/foo" + i, null, null));
+        }
+        ueiList.addUeiMatch(createUeiMatch("regex", "^Failed (.*?) for invalid user (\\S+) from (.*?) port (\\d+) ssh(\\d)$", "uei.opennms.org/vendor/openssh/syslog/sshd/invalidUser", "^sshd$", null));
+        ueiList.addUeiMatch(createUeiMatch("regex", "^Failed (.*?) for (\\S+) from (.*?) port (\\d+) ssh(\\d)$", "uei.opennms.org/vendor/openssh/syslog/sshd/passwordFailure", "^sshd$", null));
+        ueiList.addUeiMatch(createUeiMatch("regex", "^Bind to port (\\d+) on (.*?) failed: (.*)\\.$", "uei.opennms.org/vendor/openssh/syslog/sshd/bindFailure", "^sshd$", null));
+        ueiList.addUeiMatch(createUeiMatch("regex", "^Authentication refused: (.*)$", "uei.opennms.org/vendor/openssh/syslog/sshd/authenticationRefused", "^sshd$", null));
+        ueiList.addUeiMatch(createUeiMatch("substr", "Cannot bind any address.", "uei.opennms.org/vendor/openssh/syslog/sshd/totalBindFailure", "^sshd$", null));
+        ueiList.addUeiMatch(createUeiMatch("regex", ".*", "uei.opennms.org/vendor/openssh/syslog/sshd/unknownMessage", "^sshd$", null));
+        ueiList.addUeiMatch(createUeiMatch("substr", "link down", "uei.example.org/syslog/linkDown", null, "local7"));
+        return ueiList;
+    }
+
+    private static List<SyslogMessage> loadCorpus() throws Exception {
+        final List<String> lines = new ArrayList<String>();
+        final String corpus = System.getProperty(CORPUS_PROPERTY);
+        if (corpus != null) {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(new File(corpus)), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            } finally {
+                reader.close();
+            }
+        } else {
+            final Random random = new Random(42);
+            for (int i = 0; i < SYNTHETIC_MESSAGES; i++) {
+                final int n = random.nextInt(LOAD_TEST_RULES * 2);
+                switch (random.nextInt(5)) {
+                case 0:
+                    lines.add("<34>Aug 19 12:00:00 localhost sshd[" + n + "]: Failed password for user" + n + " from 10.0.0." + (n % 250) + " port " + n + " ssh2");
+                    break;
+                case 1:
+                    lines.add("<190>Aug 19 12:00:00 localhost ifmgr: interface ge-0/0/" + (n % 48) + " link down");
+                    break;
+                case 2:
+                    lines.add("<13>Aug 19 12:00:00 localhost cron[" + n + "]: (root) CMD (run-parts /etc/cron.hourly)");
+                    break;
+                default:
+                    lines.add("<15>Aug 19 12:00:00 localhost foo" + n + ": load test " + n + " on tty1");
+                    break;
+                }
+            }
+        }
+
+        final List<SyslogMessage> messages = new ArrayList<SyslogMessage>(lines.size());
+        for (final String line : lines) {
+            final SyslogParser parser = SyslogNGParser.getParser(line);
+            final SyslogMessage message = parser.parse();
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Evaluates every rule in order, the way syslogd did before the rules
+     * were compiled.
+     */
+    private static UeiMatch matchLinear(final UeiList ueiList, final SyslogMessage message, final String facilityTxt, final String priorityTxt) {
+        for (final UeiMatch uei : ueiList.getUeiMatchCollection()) {
+            if (!matchList(uei.getFacilityCollection(), facilityTxt) || !matchList(uei.getSeverityCollection(), priorityTxt)) {
+                continue;
+            }
+            if (uei.getProcessMatch() != null && (message.getProcessName() == null || !find(uei.getProcessMatch().getExpression(), message.getProcessName()))) {
+                continue;
+            }
+            if (uei.getMatch().getType().equals("substr")) {
+                if (message.getMatchedMessage().contains(uei.getMatch().getExpression())) {
+                    return uei;
+                }
+            } else if (uei.getMatch().getType().startsWith("regex")) {
+                final String text = message.getMatchedMessage() != null ? message.getMatchedMessage() : message.getFullText();
+                if (find(uei.getMatch().getExpression(), text)) {
+                    return uei;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean matchList(final List<String> values, final String value) {
+        if (values.isEmpty()) return true;
+        for (final String v : values) {
+            if (v.equalsIgnoreCase(value)) return true;
+        }
+        return false;
+    }
+
+    private static boolean find(final String expression, final String input) {
+        Pattern pattern = s_patterns.get(expression);
+        if (pattern == null) {
+            pattern = Pattern.compile(expression, Pattern.MULTILINE);
+            s_patterns.put(expression, pattern);
+        }
+        return pattern.matcher(input).find();
+    }
+
+    private static SyslogMessage createMessage(final String process, final String text) {
+        final SyslogMessage message = new SyslogMessage();
+        message.setProcessName(process);
+        message.setHostName("localhost");
+        message.setMessage(text);
+        return message;
+    }
+
+    private static UeiMatch createUeiMatch(final String type, final String expression, final String uei, final String process, final String facility) {
+        final UeiMatch ueiMatch = new UeiMatch();
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        ueiMatch.setMatch(match);
+        ueiMatch.setUei(uei);
+        if (process != null) {
+            final ProcessMatch processMatch = new ProcessMatch();
+            processMatch.setExpression(process);
+            ueiMatch.setProcessMatch(processMatch);
+        }
+        if (facility != null) {
+            ueiMatch.addFacility(facility);
+        }
+        return ueiMatch;
+    }
+
+    private static HideMatch createHideMatch(final String type, final String expression) {
+        final HideMatch hideMatch = new HideMatch();
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        hideMatch.setMatch(match);
+        return hideMatch;
+    }
+}
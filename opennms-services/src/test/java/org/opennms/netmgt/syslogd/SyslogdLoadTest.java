@@ -31,15 +31,21 @@ package org.opennms.netmgt.syslogd;
 import static org.junit.Assert.assertEquals;
 import static org.opennms.core.utils.InetAddressUtils.addr;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.net.BindException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -257,6 +263,101 @@ public class SyslogdLoadTest implements InitializingBean {
         System.err.println(String.format("total time: %d, wait time: %d, events per second: %8.4f", total, (end - mid), eventsPerSecond));
     }
 
+    @Test
+    @Transactional
+    public void testNioSyslog() throws Exception {
+        startSyslogdGracefully();
+
+        final int eventCount = 10000;
+        m_eventCounter.setAnticipated(eventCount);
+
+        final DatagramChannel receiverChannel = DatagramChannel.open();
+        receiverChannel.socket().bind(new InetSocketAddress(InetAddressUtils.getLocalHostAddress(), 0));
+        final SocketAddress address = receiverChannel.socket().getLocalSocketAddress();
+        final SyslogReceiverNioThreadPoolImpl receiver = new SyslogReceiverNioThreadPoolImpl(receiverChannel, MATCH_PATTERN, HOST_GROUP, MESSAGE_GROUP, UEI_LIST, HIDE_MESSAGE, DISCARD_UEI);
+        receiver.run();
+
+        String testPduFormat = "2010-08-19 localhost foo%d: load test %d on tty1";
+
+        final DatagramChannel channel = DatagramChannel.open();
+        final ByteBuffer buffer = ByteBuffer.allocate(0xffff);
+        System.err.println("Starting to send packets");
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < eventCount; i++) {
+            int foo = Double.valueOf(Math.random() * 10000).intValue();
+            buffer.clear();
+            buffer.put(SyslogClient.getPacketPayload(SyslogClient.LOG_USER, null, SyslogClient.LOG_DEBUG, String.format(testPduFormat, foo, foo)));
+            buffer.flip();
+            channel.send(buffer, address);
+        }
+        channel.close();
+
+        System.err.println(String.format("Sent %d packets in %d milliseconds", eventCount, System.currentTimeMillis() - start));
+
+        long mid = System.currentTimeMillis();
+        // UDP may lose some of the packets, so don't wait the full 2 minutes for them
+        m_eventCounter.waitForFinish(30000);
+        long end = System.currentTimeMillis();
+
+        receiver.stop();
+
+        System.err.println(String.format("received: %d, parsed: %d, discarded: %d, dropped: %d, batches: %d", receiver.getMessagesReceived(), receiver.getMessagesParsed(), receiver.getMessagesDiscarded(), receiver.getMessagesDropped(), receiver.getBatchesSent()));
+
+        final long total = (end - start);
+        final double eventsPerSecond = (m_eventCounter.getCount() * 1000.0 / total);
+        System.err.println(String.format("total time: %d, wait time: %d, events per second: %8.4f", total, (end - mid), eventsPerSecond));
+
+        assertEquals(receiver.getMessagesReceived(), receiver.getMessagesParsed() + receiver.getMessagesDiscarded() + receiver.getMessagesDropped());
+        assertEquals(0, receiver.getQueueDepth());
+    }
+
+    @Test
+    @Transactional
+    public void testTcpSyslog() throws Exception {
+        startSyslogdGracefully();
+
+        final int eventCount = 10000;
+        m_eventCounter.setAnticipated(eventCount);
+
+        final SyslogReceiverTcpImpl receiver = new SyslogReceiverTcpImpl(new InetSocketAddress(InetAddressUtils.getLocalHostAddress(), SyslogClient.PORT), null, MATCH_PATTERN, HOST_GROUP, MESSAGE_GROUP, UEI_LIST, HIDE_MESSAGE, DISCARD_UEI);
+        receiver.run();
+
+        String testPduFormat = "2010-08-19 localhost foo%d: load test %d on tty1";
+
+        // Send octet-counted frames over a single connection as fast as it will take them
+        final Socket socket = new Socket(InetAddressUtils.getLocalHostAddress(), SyslogClient.PORT);
+        final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+        System.err.println("Starting to send messages");
+        final long start = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < eventCount; i++) {
+                int foo = Double.valueOf(Math.random() * 10000).intValue();
+                byte[] payload = SyslogClient.getPacketPayload(SyslogClient.LOG_USER, null, SyslogClient.LOG_DEBUG, String.format(testPduFormat, foo, foo));
+                out.write(String.format("%d ", payload.length).getBytes("US-ASCII"));
+                out.write(payload);
+            }
+            out.flush();
+        } finally {
+            socket.close();
+        }
+
+        System.err.println(String.format("Sent %d messages in %d milliseconds", eventCount, System.currentTimeMillis() - start));
+
+        long mid = System.currentTimeMillis();
+        m_eventCounter.waitForFinish(120000);
+        long end = System.currentTimeMillis();
+
+        System.err.println(String.format("messages: %d, bytes: %d, read suspensions: %d, framing errors: %d", receiver.getMessagesReceived(), receiver.getBytesReceived(), receiver.getReadSuspensions(), receiver.getFramingErrors()));
+        receiver.stop();
+
+        final long total = (end - start);
+        final double eventsPerSecond = (eventCount * 1000.0 / total);
+        System.err.println(String.format("total time: %d, wait time: %d, events per second: %8.4f", total, (end - mid), eventsPerSecond));
+
+        assertEquals(eventCount, m_eventCounter.getCount());
+        assertEquals(0, receiver.getFramingErrors());
+    }
+
     @Test
     @Transactional
     public void testRfcSyslog() throws Exception {
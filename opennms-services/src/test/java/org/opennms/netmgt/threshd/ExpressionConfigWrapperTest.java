@@ -171,4 +171,35 @@ public class ExpressionConfigWrapperTest {
         values.put("ifSpeed", 10.0);
         Assert.assertEquals(160.0, wrapper.evaluate(values), 0.0);
     }
+
+    @Test
+    public void testEvaluateArray() throws Exception {
+        final double[] values = new double[wrapper.getRequiredDatasources().size()];
+        int i = 0;
+        for (final String ds : wrapper.getRequiredDatasources()) {
+            if ("ifInOctets".equals(ds)) {
+                values[i] = 200000.0;
+            } else if ("ifSpeed".equals(ds)) {
+                values[i] = 10000000.0;
+            }
+            i++;
+        }
+        Assert.assertEquals(16.0, wrapper.evaluate(values), 0.0);
+    }
+
+    @Test
+    public void testFloatLiterals() throws Exception {
+        // JEXL reads 0.1 as a Float, which is what it multiplies by
+        Expression exp = new Expression();
+        exp.setExpression("data * 0.1");
+        wrapper = new ExpressionConfigWrapper(exp);
+        Map<String, Double> values = new HashMap<String,Double>();
+        values.put("data", 10.0);
+        Assert.assertEquals(10.0 * 0.1f, wrapper.evaluate(values), 0.0);
+
+        // ...but a literal result is converted from its string value
+        exp.setExpression("data > 5 ? 0.1 : 0.2");
+        wrapper = new ExpressionConfigWrapper(exp);
+        Assert.assertEquals(0.1, wrapper.evaluate(values), 0.0);
+    }
 }
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.threshd;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -289,4 +290,42 @@ public class ThresholdExpressionTestCase extends TestCase {
         result = wrapper.evaluate(values);
         assertEquals("Conditional Expression result", Double.valueOf(30.0), result);
     }
+
+    public void testEvaluateAndCreateEventsThroughput() throws Exception {
+        final String[] expressions = new String[] {
+            "ifSpeed > 0 and ifSpeed < 100000000 ? ((ifInOctets * 8 / ifSpeed) * 100) : (ifHighSpeed > 0 ? (((ifHCInOctets * 8) / (ifHighSpeed * 1000000)) * 100) : 0)",
+            "hrStorageUsed * 100 / hrStorageSize",
+            "(hrStorageSize-hrStorageUsed)*hrStorageAllocationUnits / 1073741824",
+            "math.max((ifInOctets*8/ifSpeed), (ifOutOctets*8/ifSpeed)) * 100",
+            "jnxOperatingState == 2.0 || jnxOperatingState == 3.0 || jnxOperatingState == 7.0 ? 1.0 : 0.0"
+        };
+
+        final Map<String, Double> values=new HashMap<String,Double>();
+        values.put("ifSpeed", 10000000.0);
+        values.put("ifHighSpeed", 10.0);
+        values.put("ifInOctets", 200000.0);
+        values.put("ifOutOctets", 100000.0);
+        values.put("ifHCInOctets", 200000.0);
+        values.put("hrStorageSize", 2048.0);
+        values.put("hrStorageUsed", 1024.0);
+        values.put("hrStorageAllocationUnits", 4096.0);
+        values.put("jnxOperatingState", 2.0);
+
+        final int count = 200000;
+        final Date date = new Date();
+        for (final String exp : expressions) {
+            expression.setExpression(exp);
+            final ThresholdEntity entity=new ThresholdEntity();
+            entity.addThreshold(BaseThresholdDefConfigWrapper.getConfigWrapper(expression));
+
+            final long start = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                // all of the values are below the threshold so no events are created
+                assertEquals(0, entity.evaluateAndCreateEvents(values, date).size());
+            }
+            final long elapsed = Math.max(1, System.currentTimeMillis() - start);
+            System.err.println(exp);
+            System.err.println(count + " evaluations: Elapsed: " + elapsed + " ms: evaluations per second " + (count * 1000.0 / elapsed) + ".");
+        }
+    }
 }
@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.protocols.jmx.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+
+/**
+ * Runs the {@link JmxConnectionPool} against a JMX connector server in this
+ * JVM.
+ */
+public class JmxConnectionPoolTest {
+
+    private static final int PORT = 9124;
+
+    private static Registry s_registry;
+
+    private JMXConnectorServer m_connectorServer;
+    private JmxConnectionPool m_pool;
+    private final Map<String, Object> m_parameters = new HashMap<String, Object>();
+    private final InetAddress m_address = InetAddressUtils.getLocalHostAddress();
+    private final AtomicInteger m_connects = new AtomicInteger(0);
+
+    private final JmxConnectionPool.ConnectionFactory m_factory = new JmxConnectionPool.ConnectionFactory() {
+        @Override
+        public ConnectionWrapper createConnection(final Map<String, ?> parameters, final InetAddress address) {
+            m_connects.incrementAndGet();
+            return Jsr160ConnectionFactory.getMBeanServerConnection(parameters, address);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        if (s_registry == null) {
+            s_registry = LocateRegistry.createRegistry(PORT);
+        }
+        startServer();
+
+        m_parameters.put("port", String.valueOf(PORT));
+        m_parameters.put("urlPath", "/server");
+        m_pool = new JmxConnectionPool(2, 100L, 900000L, 0L, 60000L, 60000L);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_pool.close();
+        if (m_connectorServer != null) {
+            m_connectorServer.stop();
+        }
+    }
+
+    private void startServer() throws IOException {
+        m_connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(new JMXServiceURL("service:jmx:rmi:///jndi/rmi://localhost:" + PORT + "/server"), null, ManagementFactory.getPlatformMBeanServer());
+        m_connectorServer.start();
+    }
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            final ConnectionWrapper connection = m_pool.getConnection("jsr160", m_parameters, m_address, m_factory);
+            assertNotNull(connection);
+            assertNotNull(connection.getMBeanServer().getDefaultDomain());
+            connection.close();
+            // closing twice must not give it back twice
+            connection.close();
+            assertNull(connection.getMBeanServer());
+        }
+
+        assertEquals(1, m_connects.get());
+        assertEquals(1, m_pool.getConnectionsCreated());
+        assertEquals(10, m_pool.getConnectionsBorrowed());
+        assertEquals(0, m_pool.getActiveConnections());
+        assertEquals(1, m_pool.getIdleConnections());
+    }
+
+    @Test
+    public void testBrokenConnectionIsReplaced() throws Exception {
+        // no reconnect backoff, so that the pool connects again right away
+        m_pool = new JmxConnectionPool(2, 100L, 900000L, 0L, 0L, 0L);
+        ConnectionWrapper connection = m_pool.getConnection("jsr160", m_parameters, m_address, m_factory);
+        connection.getMBeanServer().getMBeanCount();
+        connection.close();
+
+        // the idle connection fails its check and no new one can be opened
+        m_connectorServer.stop();
+        assertNull(m_pool.getConnection("jsr160", m_parameters, m_address, m_factory));
+        assertEquals(1, m_pool.getConnectionsClosed());
+        assertEquals(1, m_pool.getConnectFailures());
+        assertEquals(0, m_pool.getIdleConnections());
+
+        startServer();
+        connection = m_pool.getConnection("jsr160", m_parameters, m_address, m_factory);
+        assertNotNull(connection);
+        connection.getMBeanServer().getMBeanCount();
+        connection.close();
+
+        assertEquals(3, m_connects.get());
+        assertEquals(1, m_pool.getIdleConnections());
+    }
+
+    @Test
+    public void testFailedCallClosesConnection() throws Exception {
+        // check idle connections only after a minute, so the dead one is lent out
+        m_pool = new JmxConnectionPool(2, 100L, 900000L, 60000L, 60000L, 60000L);
+        ConnectionWrapper connection = m_pool.getConnection("jsr160", m_parameters, m_address, m_factory);
+        connection.close();
+
+        m_connectorServer.stop();
+
+        connection = m_pool.getConnection("jsr160", m_parameters, m_address, m_factory);
+        try {
+            connection.getMBeanServer().getMBeanCount();
+            fail("the connection should have failed");
+        } catch (final IOException e) {
+            // expected
+        }
+        connection.close();
+
+        assertEquals(1, m_pool.getConnectionsClosed());
+        assertEquals(0, m_pool.getIdleConnections());
+
+        startServer();
+        connection = m_pool.getConnection("jsr160", m_parameters, m_address, m_factory);
+        connection.getMBeanServer().getMBeanCount();
+        connection.close();
+        assertEquals(2, m_connects.get());
+    }
+
+    @Test
+    public void testReconnectBackoff() throws Exception {
+        m_parameters.put("urlPath", "/nothing-here");
+
+        assertNull(m_pool.getConnection("jsr160", m_parameters, m_address, m_factory));
+        assertNull(m_pool.getConnection("jsr160", m_parameters, m_address, m_factory));
+        assertNull(m_pool.getConnection("jsr160", m_parameters, m_address, m_factory));
+
+        assertEquals(1, m_connects.get());
+        assertEquals(1, m_pool.getConnectFailures());
+        assertEquals(2, m_pool.getConnectionsRefused());
+
+        // other targets are not held back
+        m_parameters.put("urlPath", "/server");
+        final ConnectionWrapper connection = m_pool.getConnection("jsr160", m_parameters, m_address, m_factory);
+        assertNotNull(connection);
+        connection.close();
+    }
+
+    @Test
+    public void testMaxActive() throws Exception {
+        final ConnectionWrapper first = m_pool.getConnection("jsr160", m_parameters, m_address, m_factory);
+        final ConnectionWrapper second = m_pool.getConnection("jsr160", m_parameters, m_address, m_factory);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(2, m_pool.getActiveConnections());
+
+        assertNull(m_pool.getConnection("jsr160", m_parameters, m_address, m_factory));
+        assertEquals(1, m_pool.getConnectionsRefused());
+
+        // the same target through another connector is separate
+        final ConnectionWrapper other = m_pool.getConnection("jmxsecure", m_parameters, m_address, m_factory);
+        assertNotNull(other);
+        other.close();
+
+        second.close();
+        final ConnectionWrapper third = m_pool.getConnection("jsr160", m_parameters, m_address, m_factory);
+        assertNotNull(third);
+        first.close();
+        third.close();
+
+        assertEquals(3, m_connects.get());
+        assertEquals(0, m_pool.getActiveConnections());
+    }
+
+    @Test
+    public void testEvictIdleConnections() throws Exception {
+        m_pool = new JmxConnectionPool(2, 100L, 1L, 0L, 60000L, 60000L);
+        final ConnectionWrapper connection = m_pool.getConnection("jsr160", m_parameters, m_address, m_factory);
+        connection.close();
+        assertEquals(1, m_pool.getIdleConnections());
+
+        Thread.sleep(10);
+        m_pool.evictIdleConnections();
+
+        assertEquals(0, m_pool.getIdleConnections());
+        assertEquals(1, m_pool.getConnectionsClosed());
+    }
+
+    /**
+     * Compares how many connections a collection cycle over one target
+     * opens, and how long it takes, with and without the pool.
+     */
+    @Test
+    public void testConnectionsPerCycle() throws Exception {
+        final int cycles = 50;
+        final int attributesPerCycle = 20;
+
+        m_connects.set(0);
+        long start = System.nanoTime();
+        for (int cycle = 0; cycle < cycles; cycle++) {
+            final ConnectionWrapper connection = m_factory.createConnection(m_parameters, m_address);
+            try {
+                for (int i = 0; i < attributesPerCycle; i++) {
+                    connection.getMBeanServer().getMBeanCount();
+                }
+            } finally {
+                connection.close();
+            }
+        }
+        final long unpooledNanos = System.nanoTime() - start;
+        final int unpooledConnects = m_connects.getAndSet(0);
+
+        start = System.nanoTime();
+        for (int cycle = 0; cycle < cycles; cycle++) {
+            final ConnectionWrapper connection = m_pool.getConnection("jsr160", m_parameters, m_address, m_factory);
+            try {
+                for (int i = 0; i < attributesPerCycle; i++) {
+                    connection.getMBeanServer().getMBeanCount();
+                }
+            } finally {
+                connection.close();
+            }
+        }
+        final long pooledNanos = System.nanoTime() - start;
+        final int pooledConnects = m_connects.get();
+
+        System.err.printf("JMX connections: %d cycles, unpooled %.2f connections/cycle in %d ms, pooled %.2f connections/cycle in %d ms%n",
+                          cycles, (double)unpooledConnects / cycles, unpooledNanos / 1000000L, (double)pooledConnects / cycles, pooledNanos / 1000000L);
+
+        assertEquals(cycles, unpooledConnects);
+        assertEquals(1, pooledConnects);
+    }
+}
@@ -0,0 +1,1199 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.expression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opennms.core.expression.ExpressionScope.Binding;
+import org.opennms.core.expression.ExpressionScope.FunctionSyntax;
+
+/**
+ * An expression compiled into a tree of numeric and boolean nodes, with
+ * each name resolved to a column index or a constant up front.  The tree
+ * evaluates either a single row of values or a whole column of rows at a
+ * time.
+ *
+ * <p>Only the arithmetic subset of JEXL that thresholds and measurements
+ * typically use is supported: numbers, names bound in the
+ * {@link ExpressionScope}, the arithmetic, comparison, logical and
+ * conditional operators and the <code>math</code> functions.
+ * {@link #compile(String, ExpressionScope)} returns null for anything else,
+ * and for the cases where JEXL's boxed arithmetic could give a different
+ * answer whatever the values, so that the caller can fall back to JEXL.</p>
+ *
+ * <p>A few corner cases depend on the values of a row rather than on the
+ * expression: dividing by zero, comparing NaN or zeros of different sign for
+ * equality, and integers too large to be exact as doubles.  Those rows are
+ * faults, and have to be evaluated by JEXL too.</p>
+ */
+final class ArithmeticExpression {
+
+    /*
+     * The types a numeric node may produce, as JEXL would box them.  Integer
+     * literals are Integers or Longs, decimal literals are Floats and
+     * columns are Doubles, or Longs for timestamps.
+     */
+    static final int INT = 1;
+    static final int FLOAT = 2;
+    static final int DOUBLE = 4;
+
+    /**
+     * JEXL does integer arithmetic with BigIntegers, which only agrees with
+     * double arithmetic while the values are exact.
+     */
+    static final double MAX_EXACT_INTEGER = 9007199254740992.0;
+
+    private final NumericNode m_root;
+
+    private ArithmeticExpression(final NumericNode root) {
+        m_root = root;
+    }
+
+    /**
+     * Compiles an expression.
+     *
+     * @return the compiled expression, or null if it has to be evaluated
+     *         by JEXL
+     */
+    static ArithmeticExpression compile(final String expression, final ExpressionScope scope) {
+        if (expression == null) {
+            return null;
+        }
+        try {
+            return new ArithmeticExpression(result(new Parser(expression, scope).parse()));
+        } catch (final UnsupportedExpressionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks the node whose value is the result of the expression.  JEXL's
+     * result is converted with <code>Double.valueOf(result.toString())</code>,
+     * which for a Float gives the decimal that was written rather than the
+     * widened float.
+     */
+    private static NumericNode result(final Node node) throws UnsupportedExpressionException {
+        if (!(node instanceof NumericNode)) {
+            throw new UnsupportedExpressionException("boolean result");
+        }
+        final NumericNode numeric = (NumericNode)node;
+        if (numeric instanceof Constant && numeric.m_type == FLOAT) {
+            final Constant constant = (Constant)numeric;
+            return new Constant(constant.m_name, Double.parseDouble(Float.toString((float)constant.m_value)), FLOAT);
+        } else if (numeric instanceof NumericConditional) {
+            final NumericConditional conditional = (NumericConditional)numeric;
+            return new NumericConditional(conditional.m_condition, result(conditional.m_ifTrue), result(conditional.m_ifFalse));
+        } else if ((numeric.m_type & FLOAT) != 0) {
+            throw new UnsupportedExpressionException("float result");
+        }
+        return numeric;
+    }
+
+    /**
+     * Evaluates the expression for a single row.
+     *
+     * @param values the values of the columns of the scope, by index
+     * @throws Fault if the value of the row has to be evaluated by JEXL
+     */
+    double evaluate(final double[] values) throws Fault {
+        return m_root.value(values);
+    }
+
+    /**
+     * Evaluates the expression for every row.
+     *
+     * @param columns the columns of the scope, by index
+     * @param rows the number of rows
+     * @param faults set to true for the rows whose value has to be
+     *        evaluated by JEXL instead; the values of those rows are
+     *        undefined
+     * @return a new array with the value of each row
+     */
+    double[] evaluate(final double[][] columns, final int rows, final boolean[] faults) {
+        final Column column = m_root.values(columns, rows);
+        if (column.m_faults != null) {
+            System.arraycopy(column.m_faults, 0, faults, 0, rows);
+        }
+        // variables return the column they reference
+        return m_root instanceof Variable ? column.m_values.clone() : column.m_values;
+    }
+
+    /**
+     * Thrown when a single row has to be evaluated by JEXL.  Faults are
+     * expected, so the exception is shared and has no stack trace.
+     */
+    static final class Fault extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private static final Fault INSTANCE = new Fault();
+
+        private Fault() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final class UnsupportedExpressionException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private UnsupportedExpressionException(final String message) {
+            super(message);
+        }
+    }
+
+    private static final class Parser {
+        private final String m_text;
+        private final ExpressionScope m_scope;
+        private final List<String> m_tokens = new ArrayList<String>();
+        private int m_next = 0;
+
+        private Parser(final String text, final ExpressionScope scope) throws UnsupportedExpressionException {
+            m_text = text;
+            m_scope = scope;
+            tokenize();
+        }
+
+        private void tokenize() throws UnsupportedExpressionException {
+            int i = 0;
+            final int length = m_text.length();
+            while (i < length) {
+                final char c = m_text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c >= '0' && c <= '9') {
+                    int end = i;
+                    while (end < length && (Character.isLetterOrDigit(m_text.charAt(end)) || m_text.charAt(end) == '.')) {
+                        end++;
+                    }
+                    m_tokens.add(m_text.substring(i, end));
+                    i = end;
+                } else if (Character.isJavaIdentifierStart(c)) {
+                    int end = i + 1;
+                    while (end < length && Character.isJavaIdentifierPart(m_text.charAt(end))) {
+                        end++;
+                    }
+                    m_tokens.add(m_text.substring(i, end));
+                    i = end;
+                } else if (c == '\'' || c == '"') {
+                    final int end = m_text.indexOf(c, i + 1);
+                    if (end < 0 || m_text.substring(i, end).indexOf('\\') >= 0) {
+                        throw new UnsupportedExpressionException("string literal");
+                    }
+                    m_tokens.add(m_text.substring(i, end + 1));
+                    i = end + 1;
+                } else {
+                    final String two = i + 1 < length ? m_text.substring(i, i + 2) : "";
+                    if ("||".equals(two) || "&&".equals(two) || "==".equals(two) || "!=".equals(two) || "<=".equals(two) || ">=".equals(two)) {
+                        m_tokens.add(two);
+                        i += 2;
+                    } else if ("?:".equals(two)) {
+                        throw new UnsupportedExpressionException("elvis operator");
+                    } else if ("+-*/%<>!?:(),.[]".indexOf(c) >= 0) {
+                        m_tokens.add(String.valueOf(c));
+                        i++;
+                    } else {
+                        throw new UnsupportedExpressionException("operator " + c);
+                    }
+                }
+            }
+        }
+
+        private Node parse() throws UnsupportedExpressionException {
+            final Node root = ternary();
+            if (m_next != m_tokens.size()) {
+                throw new UnsupportedExpressionException("unexpected " + peek());
+            }
+            return root;
+        }
+
+        private String peek() {
+            return peek(0);
+        }
+
+        private String peek(final int ahead) {
+            return m_next + ahead < m_tokens.size() ? m_tokens.get(m_next + ahead) : null;
+        }
+
+        private boolean accept(final String token) {
+            if (token.equals(peek())) {
+                m_next++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(final String token) throws UnsupportedExpressionException {
+            if (!accept(token)) {
+                throw new UnsupportedExpressionException("expected " + token + " but found " + peek());
+            }
+        }
+
+        private String identifier() throws UnsupportedExpressionException {
+            final String token = peek();
+            if (token == null || !Character.isJavaIdentifierStart(token.charAt(0)) || isReserved(token)) {
+                throw new UnsupportedExpressionException("unexpected " + token);
+            }
+            m_next++;
+            return token;
+        }
+
+        private Node ternary() throws UnsupportedExpressionException {
+            final Node condition = or();
+            if (!accept("?")) {
+                return condition;
+            }
+            final Node ifTrue = ternary();
+            expect(":");
+            final Node ifFalse = ternary();
+            if (ifTrue instanceof BooleanNode && ifFalse instanceof BooleanNode) {
+                return new BooleanConditional(condition(condition), (BooleanNode)ifTrue, (BooleanNode)ifFalse);
+            }
+            return new NumericConditional(condition(condition), number(ifTrue), number(ifFalse));
+        }
+
+        private Node or() throws UnsupportedExpressionException {
+            Node left = and();
+            while (accept("||") || accept("or")) {
+                left = new Or(condition(left), condition(and()));
+            }
+            return left;
+        }
+
+        private Node and() throws UnsupportedExpressionException {
+            Node left = equality();
+            while (accept("&&") || accept("and")) {
+                left = new And(condition(left), condition(equality()));
+            }
+            return left;
+        }
+
+        private Node equality() throws UnsupportedExpressionException {
+            Node left = relational();
+            while (true) {
+                if (accept("==") || accept("eq")) {
+                    left = comparison(Comparison.EQ, left, relational());
+                } else if (accept("!=") || accept("ne")) {
+                    left = comparison(Comparison.NE, left, relational());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node relational() throws UnsupportedExpressionException {
+            Node left = additive();
+            while (true) {
+                if (accept("<") || accept("lt")) {
+                    left = comparison(Comparison.LT, left, additive());
+                } else if (accept("<=") || accept("le")) {
+                    left = comparison(Comparison.LE, left, additive());
+                } else if (accept(">") || accept("gt")) {
+                    left = comparison(Comparison.GT, left, additive());
+                } else if (accept(">=") || accept("ge")) {
+                    left = comparison(Comparison.GE, left, additive());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node additive() throws UnsupportedExpressionException {
+            Node left = multiplicative();
+            while (true) {
+                if (accept("+")) {
+                    left = arithmetic(Arithmetic.ADD, left, multiplicative());
+                } else if (accept("-")) {
+                    left = arithmetic(Arithmetic.SUBTRACT, left, multiplicative());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node multiplicative() throws UnsupportedExpressionException {
+            Node left = unary();
+            while (true) {
+                if (accept("*")) {
+                    left = arithmetic(Arithmetic.MULTIPLY, left, unary());
+                } else if (accept("/") || accept("div")) {
+                    left = arithmetic(Arithmetic.DIVIDE, left, unary());
+                } else if (accept("%") || accept("mod")) {
+                    left = arithmetic(Arithmetic.MODULO, left, unary());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node unary() throws UnsupportedExpressionException {
+            if (accept("-")) {
+                final NumericNode operand = operand(unary());
+                if (operand instanceof Constant) {
+                    return new Constant(null, negate(((Constant)operand).m_value, operand.m_type), operand.m_type);
+                }
+                return new Negate(operand);
+            } else if (accept("!") || accept("not")) {
+                return new Not(condition(unary()));
+            }
+            return primary();
+        }
+
+        private Node primary() throws UnsupportedExpressionException {
+            final String token = peek();
+            if (token == null) {
+                throw new UnsupportedExpressionException("unexpected end of expression");
+            } else if (accept("(")) {
+                final Node node = ternary();
+                expect(")");
+                return node;
+            } else if (Character.isDigit(token.charAt(0))) {
+                m_next++;
+                return literal(token);
+            }
+
+            final String first = identifier();
+            if (":".equals(peek()) && "(".equals(peek(2))) {
+                // JEXL reads this as a namespace function, even inside a ternary
+                if (m_scope.getFunctionSyntax() != FunctionSyntax.NAMESPACE || !"math".equals(first)) {
+                    throw new UnsupportedExpressionException("function " + first + ":" + peek(1));
+                }
+                m_next++;
+                final String name = identifier();
+                expect("(");
+                return function(name);
+            } else if (m_scope.getFunctionSyntax() == FunctionSyntax.METHOD && "math".equals(first) && ".".equals(peek()) && "(".equals(peek(2))) {
+                m_next++;
+                final String name = identifier();
+                expect("(");
+                return function(name);
+            } else if (accept("[")) {
+                // a subscripted name such as datasources['ifInOctets'], for names that aren't identifiers
+                final String key = peek();
+                if (key == null || (key.charAt(0) != '\'' && key.charAt(0) != '"')) {
+                    throw new UnsupportedExpressionException("subscript " + key);
+                }
+                m_next++;
+                expect("]");
+                return variable(first + "['" + key.substring(1, key.length() - 1) + "']");
+            }
+
+            String name = first;
+            while (accept(".")) {
+                final String member = identifier();
+                // JEXL only looks up the dotted name as a whole when the
+                // property lookup on what precedes it gives null
+                if (m_scope.get(name) != null && !isUnknownProperty(member)) {
+                    throw new UnsupportedExpressionException("property " + name + "." + member);
+                }
+                name = name + "." + member;
+            }
+            if ("(".equals(peek())) {
+                throw new UnsupportedExpressionException("method " + name);
+            }
+            return variable(name);
+        }
+
+        private NumericNode literal(final String token) throws UnsupportedExpressionException {
+            final char suffix = Character.toLowerCase(token.charAt(token.length() - 1));
+            final String digits = Character.isDigit(suffix) ? token : token.substring(0, token.length() - 1);
+            final int dot = digits.indexOf('.');
+            for (int i = 0; i < digits.length(); i++) {
+                final char c = digits.charAt(i);
+                if ((c < '0' || c > '9') && i != dot) {
+                    throw new UnsupportedExpressionException("literal " + token);
+                }
+            }
+            // JEXL reads a leading 0 as octal
+            if (digits.length() > 1 && digits.charAt(0) == '0' && dot != 1) {
+                throw new UnsupportedExpressionException("octal literal " + token);
+            }
+
+            try {
+                if (dot < 0) {
+                    if (!Character.isDigit(suffix) && suffix != 'l') {
+                        throw new UnsupportedExpressionException("literal " + token);
+                    }
+                    final long value = Long.parseLong(digits);
+                    if (value >= MAX_EXACT_INTEGER) {
+                        throw new UnsupportedExpressionException("literal " + token);
+                    }
+                    return new Constant(null, value, INT);
+                } else if (dot == 0 || dot == digits.length() - 1) {
+                    throw new UnsupportedExpressionException("literal " + token);
+                } else if (suffix == 'd') {
+                    return new Constant(null, Double.parseDouble(digits), DOUBLE);
+                } else if (Character.isDigit(suffix) || suffix == 'f') {
+                    // JEXL reads decimals as Floats, and widens them to double for arithmetic
+                    final float value = Float.parseFloat(digits);
+                    if (Float.isInfinite(value)) {
+                        throw new UnsupportedExpressionException("literal " + token);
+                    }
+                    return new Constant(null, value, FLOAT);
+                }
+                throw new UnsupportedExpressionException("literal " + token);
+            } catch (final NumberFormatException e) {
+                throw new UnsupportedExpressionException("literal " + token);
+            }
+        }
+
+        private NumericNode variable(final String name) throws UnsupportedExpressionException {
+            final Binding binding = m_scope.get(name);
+            if (binding == null) {
+                throw new UnsupportedExpressionException("unknown variable " + name);
+            } else if (binding.m_type == 0) {
+                throw new UnsupportedExpressionException("constant " + name);
+            } else if (binding.isColumn()) {
+                return new Variable(binding.m_index, binding.m_type);
+            }
+            return new Constant(name, binding.m_value, binding.m_type);
+        }
+
+        private NumericNode function(final String name) throws UnsupportedExpressionException {
+            final List<NumericNode> args = new ArrayList<NumericNode>();
+            if (!accept(")")) {
+                do {
+                    args.add(operand(ternary()));
+                } while (accept(","));
+                expect(")");
+            }
+            return Function.create(name, args);
+        }
+
+        /**
+         * Whether a property of a number is certainly null, so that JEXL
+         * goes on to look up the dotted name.  Numbers have the
+         * <code>class</code>, <code>NaN</code> and <code>infinite</code>
+         * properties, and upper case constants.
+         */
+        private static boolean isUnknownProperty(final String member) {
+            if ("class".equalsIgnoreCase(member) || "nan".equalsIgnoreCase(member) || "infinite".equalsIgnoreCase(member)) {
+                return false;
+            }
+            for (int i = 0; i < member.length(); i++) {
+                if (Character.isLowerCase(member.charAt(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isReserved(final String token) {
+            return "or".equals(token) || "and".equals(token) || "not".equals(token) || "div".equals(token) || "mod".equals(token)
+                || "eq".equals(token) || "ne".equals(token) || "lt".equals(token) || "le".equals(token) || "gt".equals(token) || "ge".equals(token)
+                || "null".equals(token) || "true".equals(token) || "false".equals(token) || "empty".equals(token) || "size".equals(token)
+                || "new".equals(token) || "function".equals(token) || "var".equals(token) || "return".equals(token)
+                || "if".equals(token) || "else".equals(token) || "for".equals(token) || "foreach".equals(token) || "while".equals(token);
+        }
+
+        private static BooleanNode condition(final Node node) throws UnsupportedExpressionException {
+            if (!(node instanceof BooleanNode)) {
+                throw new UnsupportedExpressionException("numeric condition");
+            }
+            return (BooleanNode)node;
+        }
+
+        private static NumericNode number(final Node node) throws UnsupportedExpressionException {
+            if (!(node instanceof NumericNode)) {
+                throw new UnsupportedExpressionException("boolean operand");
+            }
+            return (NumericNode)node;
+        }
+
+        /**
+         * Checks that a node is a number, and either certainly an integer
+         * or certainly not one, so that the arithmetic on it is known up
+         * front.
+         */
+        private static NumericNode operand(final Node node) throws UnsupportedExpressionException {
+            final NumericNode numeric = number(node);
+            if ((numeric.m_type & INT) != 0 && numeric.m_type != INT) {
+                throw new UnsupportedExpressionException("integer or floating point operand");
+            }
+            return numeric;
+        }
+
+        private static BooleanNode comparison(final int operator, final Node left, final Node right) throws UnsupportedExpressionException {
+            final NumericNode l = number(left);
+            final NumericNode r = number(right);
+            if (l.isSameObject(r)) {
+                // JEXL checks for the same object first, so this holds even for NaN
+                return new BooleanConstant(operator == Comparison.EQ || operator == Comparison.LE || operator == Comparison.GE);
+            }
+            return new Comparison(operator, l, r);
+        }
+
+        private static NumericNode arithmetic(final int operator, final Node left, final Node right) throws UnsupportedExpressionException {
+            final NumericNode l = operand(left);
+            final NumericNode r = operand(right);
+            final boolean integer = l.m_type == INT && r.m_type == INT;
+            if (integer && operator == Arithmetic.MODULO) {
+                throw new UnsupportedExpressionException("integer modulo");
+            }
+            return new Arithmetic(operator, l, r, integer ? INT : DOUBLE);
+        }
+    }
+
+    /**
+     * Negates a value the way JEXL would negate the boxed number, which
+     * gives no negative zero for integers.
+     */
+    private static double negate(final double value, final int type) {
+        return type == INT ? 0.0 - value : -value;
+    }
+
+    /**
+     * Checks that an integer result is small enough for double arithmetic
+     * to match JEXL's.
+     */
+    private static double exact(final double value) throws Fault {
+        if (Math.abs(value) >= MAX_EXACT_INTEGER) {
+            throw Fault.INSTANCE;
+        }
+        return value;
+    }
+
+    /**
+     * Whether JEXL may compare two numbers with <code>equals()</code> and
+     * get a different answer than the primitive comparison.
+     */
+    private static boolean isEqualityFault(final double left, final double right) {
+        return Double.isNaN(left) || Double.isNaN(right) || (left == 0.0 && right == 0.0 && Double.doubleToLongBits(left) != Double.doubleToLongBits(right));
+    }
+
+    private static boolean[] merge(final boolean[] faults, final boolean[] other) {
+        if (faults == null) {
+            return other;
+        } else if (other != null) {
+            for (int i = 0; i < faults.length; i++) {
+                faults[i] |= other[i];
+            }
+        }
+        return faults;
+    }
+
+    /**
+     * The values of a node for every row: numbers or booleans, and the rows
+     * that JEXL has to evaluate, if any.
+     */
+    private static final class Column {
+        private final double[] m_values;
+        private final boolean[] m_tests;
+        private boolean[] m_faults;
+
+        Column(final double[] values, final boolean[] tests, final boolean[] faults) {
+            m_values = values;
+            m_tests = tests;
+            m_faults = faults;
+        }
+
+        void fault(final int row) {
+            if (m_faults == null) {
+                m_faults = new boolean[m_values == null ? m_tests.length : m_values.length];
+            }
+            m_faults[row] = true;
+        }
+
+        /**
+         * Faults the rows of an integer column that are too large for
+         * double arithmetic to match JEXL's.
+         */
+        Column exact() {
+            for (int i = 0; i < m_values.length; i++) {
+                if (Math.abs(m_values[i]) >= MAX_EXACT_INTEGER) {
+                    fault(i);
+                }
+            }
+            return this;
+        }
+    }
+
+    /**
+     * A node of the tree, which is either a {@link NumericNode} or a
+     * {@link BooleanNode}.  The parser checks which one each operator
+     * accepts.
+     */
+    private abstract static class Node {
+    }
+
+    private abstract static class NumericNode extends Node {
+        final int m_type;
+
+        NumericNode(final int type) {
+            m_type = type;
+        }
+
+        /**
+         * Whether JEXL would see the same boxed object for both nodes.
+         */
+        boolean isSameObject(final NumericNode other) {
+            return false;
+        }
+
+        abstract double value(double[] values) throws Fault;
+
+        abstract Column values(double[][] columns, int rows);
+    }
+
+    private abstract static class BooleanNode extends Node {
+        abstract boolean test(double[] values) throws Fault;
+
+        abstract Column tests(double[][] columns, int rows);
+    }
+
+    private static final class Constant extends NumericNode {
+        private final String m_name;
+        private final double m_value;
+
+        Constant(final String name, final double value, final int type) {
+            super(type);
+            m_name = name;
+            m_value = value;
+        }
+
+        @Override
+        boolean isSameObject(final NumericNode other) {
+            return m_name != null && other instanceof Constant && m_name.equals(((Constant)other).m_name);
+        }
+
+        @Override
+        double value(final double[] values) {
+            return m_value;
+        }
+
+        @Override
+        Column values(final double[][] columns, final int rows) {
+            final double[] values = new double[rows];
+            Arrays.fill(values, m_value);
+            return new Column(values, null, null);
+        }
+    }
+
+    private static final class BooleanConstant extends BooleanNode {
+        private final boolean m_value;
+
+        BooleanConstant(final boolean value) {
+            m_value = value;
+        }
+
+        @Override
+        boolean test(final double[] values) {
+            return m_value;
+        }
+
+        @Override
+        Column tests(final double[][] columns, final int rows) {
+            final boolean[] tests = new boolean[rows];
+            Arrays.fill(tests, m_value);
+            return new Column(null, tests, null);
+        }
+    }
+
+    private static final class Variable extends NumericNode {
+        private final int m_index;
+
+        Variable(final int index, final int type) {
+            super(type);
+            m_index = index;
+        }
+
+        @Override
+        boolean isSameObject(final NumericNode other) {
+            return other instanceof Variable && m_index == ((Variable)other).m_index;
+        }
+
+        @Override
+        double value(final double[] values) {
+            return values[m_index];
+        }
+
+        @Override
+        Column values(final double[][] columns, final int rows) {
+            return new Column(columns[m_index], null, null);
+        }
+    }
+
+    private static final class Negate extends NumericNode {
+        private final NumericNode m_operand;
+
+        Negate(final NumericNode operand) {
+            super(operand.m_type);
+            m_operand = operand;
+        }
+
+        @Override
+        double value(final double[] values) throws Fault {
+            return negate(m_operand.value(values), m_type);
+        }
+
+        @Override
+        Column values(final double[][] columns, final int rows) {
+            final Column operand = m_operand.values(columns, rows);
+            final double[] values = new double[rows];
+            for (int i = 0; i < rows; i++) {
+                values[i] = negate(operand.m_values[i], m_type);
+            }
+            return new Column(values, null, operand.m_faults);
+        }
+    }
+
+    private static final class Arithmetic extends NumericNode {
+        static final int ADD = 0;
+        static final int SUBTRACT = 1;
+        static final int MULTIPLY = 2;
+        static final int DIVIDE = 3;
+        static final int MODULO = 4;
+
+        private final int m_operator;
+        private final NumericNode m_left;
+        private final NumericNode m_right;
+
+        Arithmetic(final int operator, final NumericNode left, final NumericNode right, final int type) {
+            super(type);
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        double value(final double[] values) throws Fault {
+            final double left = m_left.value(values);
+            final double right = m_right.value(values);
+            final double value;
+            switch (m_operator) {
+            case ADD:
+                value = left + right;
+                break;
+            case SUBTRACT:
+                value = left - right;
+                break;
+            case MULTIPLY:
+                value = left * right;
+                break;
+            case DIVIDE:
+                // JEXL's answer depends on how lenient its arithmetic is
+                if (right == 0.0) {
+                    throw Fault.INSTANCE;
+                }
+                value = m_type == INT ? (long)left / (long)right : left / right;
+                break;
+            default:
+                if (right == 0.0) {
+                    throw Fault.INSTANCE;
+                }
+                value = left % right;
+            }
+            // BigIntegers have no negative zero
+            return m_type == INT ? exact(value + 0.0) : value;
+        }
+
+        @Override
+        Column values(final double[][] columns, final int rows) {
+            final Column leftColumn = m_left.values(columns, rows);
+            final Column rightColumn = m_right.values(columns, rows);
+            final double[] left = leftColumn.m_values;
+            final double[] right = rightColumn.m_values;
+            final double[] values = new double[rows];
+            final Column result = new Column(values, null, merge(leftColumn.m_faults, rightColumn.m_faults));
+            switch (m_operator) {
+            case ADD:
+                for (int i = 0; i < rows; i++) {
+                    values[i] = left[i] + right[i];
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < rows; i++) {
+                    values[i] = left[i] - right[i];
+                }
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < rows; i++) {
+                    values[i] = left[i] * right[i];
+                }
+                break;
+            case DIVIDE:
+                for (int i = 0; i < rows; i++) {
+                    if (right[i] == 0.0) {
+                        result.fault(i);
+                    } else if (m_type == INT) {
+                        values[i] = (long)left[i] / (long)right[i];
+                    } else {
+                        values[i] = left[i] / right[i];
+                    }
+                }
+                break;
+            default:
+                for (int i = 0; i < rows; i++) {
+                    if (right[i] == 0.0) {
+                        result.fault(i);
+                    } else {
+                        values[i] = left[i] % right[i];
+                    }
+                }
+            }
+
+            if (m_type == INT) {
+                for (int i = 0; i < rows; i++) {
+                    values[i] += 0.0;
+                }
+                return result.exact();
+            }
+            return result;
+        }
+    }
+
+    private static final class Comparison extends BooleanNode {
+        static final int EQ = 0;
+        static final int NE = 1;
+        static final int LT = 2;
+        static final int LE = 3;
+        static final int GT = 4;
+        static final int GE = 5;
+
+        private final int m_operator;
+        private final NumericNode m_left;
+        private final NumericNode m_right;
+
+        Comparison(final int operator, final NumericNode left, final NumericNode right) {
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        private boolean compare(final double left, final double right) {
+            switch (m_operator) {
+            case EQ:
+                return left == right;
+            case NE:
+                return left != right;
+            case LT:
+                return left < right;
+            case LE:
+                return left <= right;
+            case GT:
+                return left > right;
+            default:
+                return left >= right;
+            }
+        }
+
+        /**
+         * JEXL may compare boxed numbers of the same class with equals().
+         */
+        private boolean mayUseEquals() {
+            return m_operator != LT && m_operator != GT;
+        }
+
+        @Override
+        boolean test(final double[] values) throws Fault {
+            final double left = m_left.value(values);
+            final double right = m_right.value(values);
+            if (mayUseEquals() && isEqualityFault(left, right)) {
+                throw Fault.INSTANCE;
+            }
+            return compare(left, right);
+        }
+
+        @Override
+        Column tests(final double[][] columns, final int rows) {
+            final Column leftColumn = m_left.values(columns, rows);
+            final Column rightColumn = m_right.values(columns, rows);
+            final double[] left = leftColumn.m_values;
+            final double[] right = rightColumn.m_values;
+            final boolean[] tests = new boolean[rows];
+            final Column result = new Column(null, tests, merge(leftColumn.m_faults, rightColumn.m_faults));
+            final boolean mayUseEquals = mayUseEquals();
+            for (int i = 0; i < rows; i++) {
+                tests[i] = compare(left[i], right[i]);
+                if (mayUseEquals && isEqualityFault(left[i], right[i])) {
+                    result.fault(i);
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class And extends BooleanNode {
+        private final BooleanNode m_left;
+        private final BooleanNode m_right;
+
+        And(final BooleanNode left, final BooleanNode right) {
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        boolean test(final double[] values) throws Fault {
+            return m_left.test(values) && m_right.test(values);
+        }
+
+        @Override
+        Column tests(final double[][] columns, final int rows) {
+            final Column left = m_left.tests(columns, rows);
+            final Column right = m_right.tests(columns, rows);
+            final boolean[] tests = new boolean[rows];
+            final Column result = new Column(null, tests, left.m_faults);
+            for (int i = 0; i < rows; i++) {
+                tests[i] = left.m_tests[i] && right.m_tests[i];
+                // the right hand side is only evaluated when the left is true
+                if (left.m_tests[i] && right.m_faults != null && right.m_faults[i]) {
+                    result.fault(i);
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class Or extends BooleanNode {
+        private final BooleanNode m_left;
+        private final BooleanNode m_right;
+
+        Or(final BooleanNode left, final BooleanNode right) {
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        boolean test(final double[] values) throws Fault {
+            return m_left.test(values) || m_right.test(values);
+        }
+
+        @Override
+        Column tests(final double[][] columns, final int rows) {
+            final Column left = m_left.tests(columns, rows);
+            final Column right = m_right.tests(columns, rows);
+            final boolean[] tests = new boolean[rows];
+            final Column result = new Column(null, tests, left.m_faults);
+            for (int i = 0; i < rows; i++) {
+                tests[i] = left.m_tests[i] || right.m_tests[i];
+                // the right hand side is only evaluated when the left is false
+                if (!left.m_tests[i] && right.m_faults != null && right.m_faults[i]) {
+                    result.fault(i);
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class Not extends BooleanNode {
+        private final BooleanNode m_operand;
+
+        Not(final BooleanNode operand) {
+            m_operand = operand;
+        }
+
+        @Override
+        boolean test(final double[] values) throws Fault {
+            return !m_operand.test(values);
+        }
+
+        @Override
+        Column tests(final double[][] columns, final int rows) {
+            final Column operand = m_operand.tests(columns, rows);
+            final boolean[] tests = new boolean[rows];
+            for (int i = 0; i < rows; i++) {
+                tests[i] = !operand.m_tests[i];
+            }
+            return new Column(null, tests, operand.m_faults);
+        }
+    }
+
+    /**
+     * Merges the faults of the branch taken in each row into the faults of
+     * the condition.
+     */
+    private static Column taken(final Column result, final Column condition, final Column ifTrue, final Column ifFalse, final int rows) {
+        for (int i = 0; i < rows; i++) {
+            final Column taken = condition.m_tests[i] ? ifTrue : ifFalse;
+            if (taken.m_faults != null && taken.m_faults[i]) {
+                result.fault(i);
+            }
+        }
+        return result;
+    }
+
+    private static final class NumericConditional extends NumericNode {
+        private final BooleanNode m_condition;
+        private final NumericNode m_ifTrue;
+        private final NumericNode m_ifFalse;
+
+        NumericConditional(final BooleanNode condition, final NumericNode ifTrue, final NumericNode ifFalse) {
+            super(ifTrue.m_type | ifFalse.m_type);
+            m_condition = condition;
+            m_ifTrue = ifTrue;
+            m_ifFalse = ifFalse;
+        }
+
+        @Override
+        double value(final double[] values) throws Fault {
+            return m_condition.test(values) ? m_ifTrue.value(values) : m_ifFalse.value(values);
+        }
+
+        @Override
+        Column values(final double[][] columns, final int rows) {
+            final Column condition = m_condition.tests(columns, rows);
+            final Column ifTrue = m_ifTrue.values(columns, rows);
+            final Column ifFalse = m_ifFalse.values(columns, rows);
+            final double[] values = new double[rows];
+            for (int i = 0; i < rows; i++) {
+                values[i] = condition.m_tests[i] ? ifTrue.m_values[i] : ifFalse.m_values[i];
+            }
+            return taken(new Column(values, null, condition.m_faults), condition, ifTrue, ifFalse, rows);
+        }
+    }
+
+    private static final class BooleanConditional extends BooleanNode {
+        private final BooleanNode m_condition;
+        private final BooleanNode m_ifTrue;
+        private final BooleanNode m_ifFalse;
+
+        BooleanConditional(final BooleanNode condition, final BooleanNode ifTrue, final BooleanNode ifFalse) {
+            m_condition = condition;
+            m_ifTrue = ifTrue;
+            m_ifFalse = ifFalse;
+        }
+
+        @Override
+        boolean test(final double[] values) throws Fault {
+            return m_condition.test(values) ? m_ifTrue.test(values) : m_ifFalse.test(values);
+        }
+
+        @Override
+        Column tests(final double[][] columns, final int rows) {
+            final Column condition = m_condition.tests(columns, rows);
+            final Column ifTrue = m_ifTrue.tests(columns, rows);
+            final Column ifFalse = m_ifFalse.tests(columns, rows);
+            final boolean[] tests = new boolean[rows];
+            for (int i = 0; i < rows; i++) {
+                tests[i] = condition.m_tests[i] ? ifTrue.m_tests[i] : ifFalse.m_tests[i];
+            }
+            return taken(new Column(null, tests, condition.m_faults), condition, ifTrue, ifFalse, rows);
+        }
+    }
+
+    /**
+     * The functions of {@link Math}.  The ones that have int, long or float
+     * overloads are only compiled for double arguments, since JEXL would
+     * pick the overload by the type of the boxed arguments.
+     */
+    private enum Function {
+        abs(1, true) { @Override double apply(double a, double b) { return Math.abs(a); } },
+        acos(1, false) { @Override double apply(double a, double b) { return Math.acos(a); } },
+        asin(1, false) { @Override double apply(double a, double b) { return Math.asin(a); } },
+        atan(1, false) { @Override double apply(double a, double b) { return Math.atan(a); } },
+        atan2(2, false) { @Override double apply(double a, double b) { return Math.atan2(a, b); } },
+        cbrt(1, false) { @Override double apply(double a, double b) { return Math.cbrt(a); } },
+        ceil(1, false) { @Override double apply(double a, double b) { return Math.ceil(a); } },
+        cos(1, false) { @Override double apply(double a, double b) { return Math.cos(a); } },
+        cosh(1, false) { @Override double apply(double a, double b) { return Math.cosh(a); } },
+        exp(1, false) { @Override double apply(double a, double b) { return Math.exp(a); } },
+        expm1(1, false) { @Override double apply(double a, double b) { return Math.expm1(a); } },
+        floor(1, false) { @Override double apply(double a, double b) { return Math.floor(a); } },
+        hypot(2, false) { @Override double apply(double a, double b) { return Math.hypot(a, b); } },
+        IEEEremainder(2, false) { @Override double apply(double a, double b) { return Math.IEEEremainder(a, b); } },
+        log(1, false) { @Override double apply(double a, double b) { return Math.log(a); } },
+        log10(1, false) { @Override double apply(double a, double b) { return Math.log10(a); } },
+        log1p(1, false) { @Override double apply(double a, double b) { return Math.log1p(a); } },
+        max(2, true) { @Override double apply(double a, double b) { return Math.max(a, b); } },
+        min(2, true) { @Override double apply(double a, double b) { return Math.min(a, b); } },
+        pow(2, false) { @Override double apply(double a, double b) { return Math.pow(a, b); } },
+        rint(1, false) { @Override double apply(double a, double b) { return Math.rint(a); } },
+        round(1, true) { @Override double apply(double a, double b) { return Math.round(a); } },
+        signum(1, true) { @Override double apply(double a, double b) { return Math.signum(a); } },
+        sin(1, false) { @Override double apply(double a, double b) { return Math.sin(a); } },
+        sinh(1, false) { @Override double apply(double a, double b) { return Math.sinh(a); } },
+        sqrt(1, false) { @Override double apply(double a, double b) { return Math.sqrt(a); } },
+        tan(1, false) { @Override double apply(double a, double b) { return Math.tan(a); } },
+        tanh(1, false) { @Override double apply(double a, double b) { return Math.tanh(a); } },
+        toDegrees(1, false) { @Override double apply(double a, double b) { return Math.toDegrees(a); } },
+        toRadians(1, false) { @Override double apply(double a, double b) { return Math.toRadians(a); } },
+        ulp(1, true) { @Override double apply(double a, double b) { return Math.ulp(a); } };
+
+        final int m_arity;
+        final boolean m_overloaded;
+
+        private Function(final int arity, final boolean overloaded) {
+            m_arity = arity;
+            m_overloaded = overloaded;
+        }
+
+        abstract double apply(double a, double b);
+
+        static NumericNode create(final String name, final List<NumericNode> args) throws UnsupportedExpressionException {
+            final Function function;
+            try {
+                function = valueOf(name);
+            } catch (final IllegalArgumentException e) {
+                throw new UnsupportedExpressionException("function math " + name);
+            }
+            if (function.m_arity != args.size()) {
+                throw new UnsupportedExpressionException("function math " + name + " with " + args.size() + " arguments");
+            }
+            if (function.m_overloaded) {
+                for (final NumericNode arg : args) {
+                    if (arg.m_type != DOUBLE) {
+                        throw new UnsupportedExpressionException("function math " + name + " of an integer or float");
+                    }
+                }
+            }
+            return new Call(function, args.get(0), args.size() > 1 ? args.get(1) : null, function == round ? INT : DOUBLE);
+        }
+    }
+
+    private static final class Call extends NumericNode {
+        private final Function m_function;
+        private final NumericNode m_first;
+        private final NumericNode m_second;
+
+        Call(final Function function, final NumericNode first, final NumericNode second, final int type) {
+            super(type);
+            m_function = function;
+            m_first = first;
+            m_second = second;
+        }
+
+        @Override
+        double value(final double[] values) throws Fault {
+            final double value = m_function.apply(m_first.value(values), m_second == null ? 0.0 : m_second.value(values));
+            return m_type == INT ? exact(value) : value;
+        }
+
+        @Override
+        Column values(final double[][] columns, final int rows) {
+            final Column first = m_first.values(columns, rows);
+            final Column second = m_second == null ? null : m_second.values(columns, rows);
+            final double[] values = new double[rows];
+            final Column result = new Column(values, null, merge(first.m_faults, second == null ? null : second.m_faults));
+            for (int i = 0; i < rows; i++) {
+                values[i] = m_function.apply(first.m_values[i], second == null ? 0.0 : second.m_values[i]);
+            }
+            return m_type == INT ? result.exact() : result;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.expression;
+
+import org.apache.commons.jexl2.Expression;
+import org.apache.commons.jexl2.JexlContext;
+
+/**
+ * A JEXL expression together with its compiled {@link ArithmeticExpression},
+ * if it has one.  The compiled form evaluates the expression without boxing
+ * the values into a JEXL context; whatever it can't evaluate the way JEXL
+ * would, whether the expression as a whole or the value of a single row, is
+ * evaluated by JEXL instead, so the results are always JEXL's.
+ */
+public final class CompiledExpression {
+
+    /**
+     * Supplies the JEXL context for the rows that have to be evaluated by
+     * JEXL.
+     */
+    public static interface ContextFactory {
+        /**
+         * @param row the index of the row; always 0 for a single row
+         * @return a context with the values of the row
+         */
+        JexlContext getContext(int row);
+    }
+
+    private final Expression m_expression;
+    private final ArithmeticExpression m_compiled;
+
+    private CompiledExpression(final Expression expression, final ArithmeticExpression compiled) {
+        m_expression = expression;
+        m_compiled = compiled;
+    }
+
+    /**
+     * Compiles a parsed JEXL expression.
+     *
+     * @param expression the expression, as parsed by the JEXL engine whose
+     *        functions the scope describes
+     * @param scope the names the expression may reference
+     */
+    public static CompiledExpression compile(final Expression expression, final ExpressionScope scope) {
+        return new CompiledExpression(expression, ArithmeticExpression.compile(expression.getExpression(), scope));
+    }
+
+    /**
+     * @return whether the expression has a compiled form, or is always
+     *         evaluated by JEXL
+     */
+    public boolean isCompiled() {
+        return m_compiled != null;
+    }
+
+    /**
+     * Evaluates the expression for a single row.
+     *
+     * @param values the values of the columns of the scope, by index
+     * @param contextFactory supplies the context if JEXL has to evaluate the row
+     * @return the value of the expression
+     * @throws org.apache.commons.jexl2.JexlException if JEXL fails to evaluate the expression
+     * @throws NullPointerException if JEXL evaluates the expression to null
+     * @throws NumberFormatException if JEXL evaluates the expression to something other than a number
+     */
+    public double evaluate(final double[] values, final ContextFactory contextFactory) {
+        if (m_compiled != null) {
+            try {
+                return m_compiled.evaluate(values);
+            } catch (final ArithmeticExpression.Fault e) {
+                // left to JEXL
+            }
+        }
+        return evaluate(contextFactory.getContext(0));
+    }
+
+    /**
+     * Evaluates the expression for every row.
+     *
+     * @param columns the columns of the scope, by index
+     * @param rows the number of rows
+     * @param contextFactory supplies the contexts of the rows JEXL has to evaluate
+     * @return a new array with the value of each row
+     * @throws org.apache.commons.jexl2.JexlException if JEXL fails to evaluate the expression
+     * @throws NullPointerException if JEXL evaluates the expression to null
+     * @throws NumberFormatException if JEXL evaluates the expression to something other than a number
+     */
+    public double[] evaluate(final double[][] columns, final int rows, final ContextFactory contextFactory) {
+        final boolean[] faults = new boolean[rows];
+        final double[] values;
+        if (m_compiled != null) {
+            values = m_compiled.evaluate(columns, rows, faults);
+        } else {
+            values = new double[rows];
+            for (int i = 0; i < rows; i++) {
+                faults[i] = true;
+            }
+        }
+        for (int i = 0; i < rows; i++) {
+            if (faults[i]) {
+                values[i] = evaluate(contextFactory.getContext(i));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Evaluates the expression with JEXL.
+     *
+     * @throws org.apache.commons.jexl2.JexlException if JEXL fails to evaluate the expression
+     * @throws NullPointerException if the expression evaluates to null
+     * @throws NumberFormatException if the expression evaluates to something other than a number
+     */
+    public double evaluate(final JexlContext context) {
+        final Object value = m_expression.evaluate(context);
+        if (value instanceof Double) {
+            return (Double)value;
+        }
+        // Simple way of converting integers, floats and longs
+        return Double.parseDouble(value.toString());
+    }
+
+    @Override
+    public String toString() {
+        return m_expression.getExpression();
+    }
+}
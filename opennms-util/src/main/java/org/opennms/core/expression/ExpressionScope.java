@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.expression;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The names a {@link CompiledExpression} may reference, and how it calls
+ * the <code>math</code> functions.  Each name is bound either to a column,
+ * whose value is read from the array the expression is evaluated against,
+ * or to a constant.
+ *
+ * <p>Binding a name again replaces the earlier binding, so names should be
+ * added in increasing order of precedence.</p>
+ */
+public final class ExpressionScope {
+
+    /**
+     * How the functions of {@link Math} are called from an expression.
+     */
+    public static enum FunctionSyntax {
+        /** <code>math:sin(x)</code>, with {@link Math} registered as a JEXL namespace */
+        NAMESPACE,
+        /** <code>math.sin(x)</code>, with an object that has the {@link Math} methods bound to <code>math</code> */
+        METHOD
+    }
+
+    /**
+     * What a name is bound to.
+     */
+    static final class Binding {
+        final String m_name;
+        final int m_index;
+        final double m_value;
+        final int m_type;
+
+        private Binding(final String name, final int index, final double value, final int type) {
+            m_name = name;
+            m_index = index;
+            m_value = value;
+            m_type = type;
+        }
+
+        boolean isColumn() {
+            return m_index >= 0;
+        }
+    }
+
+    private final FunctionSyntax m_functionSyntax;
+    private final Map<String, Binding> m_bindings = new HashMap<String, Binding>();
+
+    public ExpressionScope(final FunctionSyntax functionSyntax) {
+        m_functionSyntax = functionSyntax;
+    }
+
+    public FunctionSyntax getFunctionSyntax() {
+        return m_functionSyntax;
+    }
+
+    /**
+     * Binds a name to a column of {@link Double} values.
+     *
+     * @param name the name, which may be dotted (<code>ifInOctets.ifSpeed</code>)
+     *        or subscripted (<code>datasources['ifInOctets']</code>)
+     * @param index the index of the column in the values the expression is
+     *        evaluated against
+     */
+    public void addColumn(final String name, final int index) {
+        addColumn(name, index, ArithmeticExpression.DOUBLE);
+    }
+
+    /**
+     * Binds a name to a column of {@link Long} values, such as timestamps.
+     * The values must be small enough to be exact as doubles.
+     */
+    public void addIntegerColumn(final String name, final int index) {
+        addColumn(name, index, ArithmeticExpression.INT);
+    }
+
+    private void addColumn(final String name, final int index, final int type) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Negative index " + index + " for column " + name);
+        }
+        m_bindings.put(name, new Binding(name, index, 0.0, type));
+    }
+
+    /**
+     * Binds a name to a constant.  Names bound to constants of types that
+     * expressions can't be compiled for, or to integers too large to be exact
+     * as doubles, are left to JEXL.
+     */
+    public void addConstant(final String name, final Number value) {
+        final int type;
+        if (value instanceof Double) {
+            type = ArithmeticExpression.DOUBLE;
+        } else if (value instanceof Float) {
+            type = ArithmeticExpression.FLOAT;
+        } else if ((value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+                && Math.abs(value.longValue()) < ArithmeticExpression.MAX_EXACT_INTEGER) {
+            type = ArithmeticExpression.INT;
+        } else {
+            type = 0;
+        }
+        m_bindings.put(name, new Binding(name, -1, value == null ? 0.0 : value.doubleValue(), type));
+    }
+
+    /**
+     * Returns the binding of a name, or null if JEXL would find nothing by
+     * that name.  The type of a constant that can't be compiled is 0.
+     */
+    Binding get(final String name) {
+        return m_bindings.get(name);
+    }
+}
@@ -132,6 +132,21 @@ public class TimeoutTracker {
         return m_attempt;
     }
 
+    /**
+     * Returns how long {@link #startAttempt()} would sleep before starting
+     * the next attempt, so that non-blocking callers can schedule the
+     * attempt instead.  This is only ever non-zero with strict timeouts.
+     *
+     * @return the delay in milliseconds
+     */
+    public long getAttemptDelayInMillis() {
+        if (!m_strictTimeouts) {
+            return 0L;
+        }
+        final long remaining = m_nextRetryTimeNanos - System.nanoTime();
+        return remaining <= 0 ? 0L : TimeUnit.MILLISECONDS.convert(remaining + 999999L, TimeUnit.NANOSECONDS);
+    }
+
     /**
      * <p>startAttempt</p>
      */
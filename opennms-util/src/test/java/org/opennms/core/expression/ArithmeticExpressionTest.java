@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.expression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.opennms.core.expression.ExpressionScope.FunctionSyntax;
+
+public class ArithmeticExpressionTest {
+
+    private static ExpressionScope scope(final FunctionSyntax syntax) {
+        final ExpressionScope scope = new ExpressionScope(syntax);
+        scope.addColumn("x", 0);
+        scope.addColumn("y", 1);
+        scope.addColumn("datasources['y']", 1);
+        scope.addIntegerColumn("timestamp", 2);
+        scope.addConstant("x.ifSpeed", 1000.0);
+        scope.addConstant("label", null);
+        return scope;
+    }
+
+    private static ArithmeticExpression compile(final String expression) {
+        return ArithmeticExpression.compile(expression, scope(FunctionSyntax.NAMESPACE));
+    }
+
+    private static double evaluate(final String expression, final double... values) throws ArithmeticExpression.Fault {
+        final ArithmeticExpression compiled = compile(expression);
+        assertNotNull(expression, compiled);
+        return compiled.evaluate(values);
+    }
+
+    @Test
+    public void testArithmetic() throws Exception {
+        assertEquals(12.0, evaluate("x * 5 + 7", 1.0, 0.0, 0.0), 0.0);
+        assertEquals(8.0, evaluate("x * 8 / x.ifSpeed", 1000.0, 0.0, 0.0), 0.0);
+        assertEquals(-3.0, evaluate("-y", 0.0, 3.0, 0.0), 0.0);
+        assertEquals(1.5, evaluate("x > 1 ? y : 0.0d", 2.0, 1.5, 0.0), 0.0);
+        assertEquals(1.0, evaluate("timestamp / 1000", 0.0, 0.0, 1999.0), 0.0);
+        assertEquals(Math.sin(2.0), evaluate("math:sin(x)", 2.0, 0.0, 0.0), 0.0);
+    }
+
+    @Test
+    public void testFloatLiterals() throws Exception {
+        // JEXL reads 0.1 as a Float, which is what it multiplies by
+        assertEquals(10.0 * 0.1f, evaluate("x * 0.1", 10.0, 0.0, 0.0), 0.0);
+        // ...but a literal result is converted from its string value
+        assertEquals(0.1, evaluate("x > 5 ? 0.1 : 0.2", 10.0, 0.0, 0.0), 0.0);
+    }
+
+    @Test
+    public void testMethodSyntax() throws Exception {
+        final ExpressionScope scope = scope(FunctionSyntax.METHOD);
+        assertEquals(2.0, ArithmeticExpression.compile("math.max(x, datasources['y'])", scope).evaluate(new double[] { 1.0, 2.0, 0.0 }), 0.0);
+        assertNull(ArithmeticExpression.compile("math:max(x, y)", scope));
+        assertNull(compile("math.max(x, y)"));
+    }
+
+    @Test
+    public void testUnsupported() {
+        // types the parser rejects, rather than failing when evaluated
+        assertNull(compile("x > 1"));
+        assertNull(compile("x + (y > 1)"));
+        assertNull(compile("x ? 1 : 2"));
+        assertNull(compile("!x"));
+        assertNull(compile("x > 1 ? y > 1 : 2"));
+        // syntax and names the compiled form does not cover
+        assertNull(compile("unknown * 2"));
+        assertNull(compile("label * 2"));
+        assertNull(compile("x % 3 + 5 % 3"));
+        assertNull(compile("strictmath:abs(x)"));
+        assertNull(compile("math:abs(1)"));
+        assertNull(compile("x.size()"));
+        assertNull(compile("'a' + x"));
+        assertNull(compile("010 + x"));
+    }
+
+    @Test
+    public void testBooleanConditionals() throws Exception {
+        assertEquals(1.0, evaluate("(x > 1 ? y > 1 : y < 1) ? 1 : 0", 2.0, 2.0, 0.0), 0.0);
+        assertEquals(0.0, evaluate("(x > 1 ? y > 1 : y < 1) ? 1 : 0", 0.0, 2.0, 0.0), 0.0);
+    }
+
+    @Test
+    public void testFaults() throws Exception {
+        assertFault("y / x", 0.0, 1.0, 0.0);
+        assertFault("x == y ? 1 : 0", Double.NaN, 1.0, 0.0);
+        assertFault("x == y ? 1 : 0", 0.0, -0.0, 0.0);
+        assertFault("timestamp * timestamp", 0.0, 0.0, 1e9);
+        assertFault("math:round(x)", 1e17, 0.0, 0.0);
+
+        // the same object is equal to itself, even when it is NaN
+        assertEquals(1.0, evaluate("x == x ? 1 : 0", Double.NaN, 0.0, 0.0), 0.0);
+        // only the branches that are evaluated fault
+        assertEquals(0.0, evaluate("x != 0 && y / x > 1 ? 1 : 0", 0.0, 1.0, 0.0), 0.0);
+        assertEquals(2.0, evaluate("x == 0 ? 2 : y / x", 0.0, 1.0, 0.0), 0.0);
+    }
+
+    private static void assertFault(final String expression, final double... values) {
+        try {
+            evaluate(expression, values);
+            fail("expected a fault for " + expression);
+        } catch (final ArithmeticExpression.Fault e) {
+            // expected
+        }
+
+        final double[][] columns = new double[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            columns[i] = new double[] { 1.0, values[i] };
+        }
+        final boolean[] faults = new boolean[2];
+        compile(expression).evaluate(columns, 2, faults);
+        assertTrue(expression, faults[1]);
+    }
+
+    @Test
+    public void testColumnsMatchRows() throws Exception {
+        final String[] expressions = new String[] {
+            "x + y * 2",
+            "y / x",
+            "x > 50 ? 50 : x",
+            "x < 10 ? 0.1 : x * 0.1",
+            "x == y ? 1 : 0",
+            "x != 0 && y / x > 1 ? 1 : 0",
+            "timestamp / 1000",
+            "math:pow(y, 2) - math:sqrt(x)",
+            "-x"
+        };
+        final int rows = 200;
+        final double[][] columns = new double[3][rows];
+        for (int i = 0; i < rows; i++) {
+            columns[0][i] = i % 31 == 0 ? 0.0 : i % 97 == 0 ? Double.NaN : (i * 7 % 101) * 1.5;
+            columns[1][i] = i % 13 == 0 ? 0.0 : (i * 11 % 89) * 1.5;
+            columns[2][i] = 1414602000000.0 + i * 300000.0;
+        }
+
+        for (final String expression : expressions) {
+            final ArithmeticExpression compiled = compile(expression);
+            assertNotNull(expression, compiled);
+            final boolean[] faults = new boolean[rows];
+            final double[] values = compiled.evaluate(columns, rows, faults);
+            for (int i = 0; i < rows; i++) {
+                final double[] row = new double[] { columns[0][i], columns[1][i], columns[2][i] };
+                try {
+                    final double value = compiled.evaluate(row);
+                    assertFalse(expression + " row " + i, faults[i]);
+                    assertEquals(expression + " row " + i, value, values[i], 0.0);
+                } catch (final ArithmeticExpression.Fault e) {
+                    assertTrue(expression + " row " + i, faults[i]);
+                }
+            }
+        }
+
+        // a variable result is a copy of its column
+        final double[] copy = compile("x").evaluate(columns, rows, new boolean[rows]);
+        assertArrayEquals(columns[0], copy, 0.0);
+        assertFalse(copy == columns[0]);
+    }
+}
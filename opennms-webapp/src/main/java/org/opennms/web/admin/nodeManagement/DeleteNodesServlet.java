@@ -49,6 +49,7 @@ import org.opennms.core.utils.WebSecurityUtils;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.model.ResourceTypeUtils;
 import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.rrd.RrdUtils;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.web.api.Util;
 import org.opennms.web.svclayer.ResourceService;
@@ -101,7 +102,7 @@ public class DeleteNodesServlet extends HttpServlet {
 
             if (nodeDir.exists() && nodeDir.isDirectory()) {
                 LOG.debug("Attempting to delete node data directory: {}", nodeDir.getAbsolutePath());
-                if (deleteDir(nodeDir)) {
+                if (deleteRrdDir(nodeDir)) {
                     LOG.info("Node SNMP data directory deleted successfully: {}", nodeDir.getAbsolutePath());
                 } else {
                     LOG.warn("Node SNMP data directory *not* deleted successfully: {}", nodeDir.getAbsolutePath());
@@ -114,7 +115,7 @@ public class DeleteNodesServlet extends HttpServlet {
 
                 if (intfDir.exists() && intfDir.isDirectory()) {
                     LOG.debug("Attempting to delete node response time data directory: {}", intfDir.getAbsolutePath());
-                    if (deleteDir(intfDir)) {
+                    if (deleteRrdDir(intfDir)) {
                         LOG.info("Node response time data directory deleted successfully: {}", intfDir.getAbsolutePath());
                     } else {
                         LOG.warn("Node response time data directory *not* deleted successfully: {}", intfDir.getAbsolutePath());
@@ -188,6 +189,18 @@ public class DeleteNodesServlet extends HttpServlet {
         return list;
     }
 
+    /**
+     * Deletes a directory of RRD files, after telling the RRD strategy to
+     * close any handles it holds on the files in it, so that they are not
+     * written to or reused once the files are gone.
+     *
+     * @return true if all deletions were successful, false otherwise.
+     */
+    static boolean deleteRrdDir(File dir) {
+        RrdUtils.evictFiles(dir.getAbsolutePath());
+        return deleteDir(dir);
+    }
+
     /**
      * Deletes all files and sub-directories under the specified directory
      * If a deletion fails, the method stops attempting to delete and returns
@@ -195,7 +208,7 @@ public class DeleteNodesServlet extends HttpServlet {
      * 
      * @return true if all deletions were successful, false otherwise.
      */
-    private boolean deleteDir(File file) {
+    private static boolean deleteDir(File file) {
         // If this file is a directory, delete all of its children
         if (file.isDirectory()) {
             for (File child : file.listFiles()) {
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.web.admin.nodeManagement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.dao.support.NullRrdStrategy;
+import org.opennms.netmgt.rrd.RrdFileCache;
+import org.opennms.netmgt.rrd.RrdUtils;
+import org.opennms.test.FileAnticipator;
+
+public class DeleteNodesServletTest {
+
+    /**
+     * Records the evicted paths, and whether they still existed when they
+     * were evicted.
+     */
+    private static class EvictingRrdStrategy extends NullRrdStrategy implements RrdFileCache {
+        private final List<String> m_evicted = new ArrayList<String>();
+        private boolean m_existedWhenEvicted = true;
+
+        @Override
+        public void evictFiles(final String path) {
+            m_evicted.add(path);
+            m_existedWhenEvicted &= new File(path).exists();
+        }
+    }
+
+    private FileAnticipator m_fileAnticipator;
+
+    @Before
+    public void setUp() throws Exception {
+        m_fileAnticipator = new FileAnticipator();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RrdUtils.setStrategy(null);
+        m_fileAnticipator.tearDown();
+    }
+
+    @Test
+    public void testDeleteEvictsFiles() throws Exception {
+        final EvictingRrdStrategy strategy = new EvictingRrdStrategy();
+        RrdUtils.setStrategy(strategy);
+
+        final File nodeDir = m_fileAnticipator.tempDir("42");
+        final File ifDir = m_fileAnticipator.tempDir(nodeDir, "eth0");
+        m_fileAnticipator.tempFile(ifDir, "ifInOctets.jrb", "data");
+        m_fileAnticipator.tempFile(nodeDir, "tcpActiveOpens.jrb", "data");
+
+        assertTrue(DeleteNodesServlet.deleteRrdDir(nodeDir));
+
+        assertFalse(nodeDir.exists());
+        assertEquals(1, strategy.m_evicted.size());
+        assertEquals(nodeDir.getAbsolutePath(), strategy.m_evicted.get(0));
+        assertTrue("the files were evicted before they were deleted", strategy.m_existedWhenEvicted);
+    }
+}
@@ -41,11 +41,13 @@ import java.net.URLConnection;
 import java.net.URLEncoder;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 
-import javax.xml.namespace.NamespaceContext;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.Source;
@@ -55,8 +57,8 @@ import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
@@ -104,6 +106,23 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
     /** The Constant LOG. */
     private static final Logger LOG = LoggerFactory.getLogger(AbstractXmlCollectionHandler.class);
 
+    /** The name of the request parameter that enables streaming the documents instead of building a DOM. */
+    public static final String STREAMING_PARAMETER = "streaming";
+
+    /**
+     * The compiled XPath expressions of each XML source. Compiled expressions are not thread-safe, so each thread has its own.
+     * The keys are weak so that sources dropped by a configuration reload go away with their expressions.
+     */
+    private static final ThreadLocal<Map<XmlSource, CompiledXmlSource>> s_compiledSources = new ThreadLocal<Map<XmlSource, CompiledXmlSource>>() {
+        @Override
+        protected Map<XmlSource, CompiledXmlSource> initialValue() {
+            return new WeakHashMap<XmlSource, CompiledXmlSource>();
+        }
+    };
+
+    /** The streaming evaluation of each XML source. */
+    private static final Map<XmlSource, StreamingXmlSource> s_streamingSources = Collections.synchronizedMap(new WeakHashMap<XmlSource, StreamingXmlSource>());
+
     /** The Service Name associated with this Collection Handler. */
     private String m_serviceName;
 
@@ -215,21 +234,26 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
      */
     protected void fillCollectionSet(CollectionAgent agent, XmlCollectionSet collectionSet, XmlSource source, Document doc) throws XPathExpressionException, ParseException {
         m_nodeResource = null; // Be sure that the temporary resource for node level data is clean before processing a new document.
-        NamespaceContext nc = new DocumentNamespaceResolver(doc);
-        XPath xpath = XPathFactory.newInstance().newXPath();
-        xpath.setNamespaceContext(nc);
-        for (XmlGroup group : source.getXmlGroups()) {
+        CompiledXmlSource compiledSource = getCompiledXmlSource(source, doc);
+        for (CompiledXmlSource.Group compiledGroup : compiledSource.getGroups()) {
+            XmlGroup group = compiledGroup.getGroup();
             LOG.debug("fillCollectionSet: getting resources for XML group {} using XPATH {}", group.getName(), group.getResourceXpath());
-            Date timestamp = getTimeStamp(doc, xpath, group);
-            NodeList resourceList = (NodeList) xpath.evaluate(group.getResourceXpath(), doc, XPathConstants.NODESET);
+            Date timestamp = getTimeStamp(doc, compiledGroup.getTimestampXpath(), group);
+            NodeList resourceList = (NodeList) compiledGroup.getResourceXpath().evaluate(doc, XPathConstants.NODESET);
             for (int j = 0; j < resourceList.getLength(); j++) {
                 Node resource = resourceList.item(j);
-                String resourceName = getResourceName(xpath, group, resource);
+                // The JDK's XPath builds a model of the whole tree holding the context node on each evaluation, so evaluating
+                // the resource's expressions on a detached copy of it keeps them from walking the whole document every time.
+                if (compiledGroup.isSelfContained()) {
+                    resource = resource.cloneNode(true);
+                }
+                String resourceName = getResourceName(compiledGroup, resource);
                 LOG.debug("fillCollectionSet: processing XML resource {}", resourceName);
                 XmlCollectionResource collectionResource = getCollectionResource(agent, resourceName, group.getResourceType(), timestamp);
                 AttributeGroupType attribGroupType = new AttributeGroupType(group.getName(), group.getIfType());
+                Iterator<XPathExpression> objectXpaths = compiledGroup.getObjectXpaths().iterator();
                 for (XmlObject object : group.getXmlObjects()) {
-                    String value = (String) xpath.evaluate(object.getXpath(), resource, XPathConstants.STRING);
+                    String value = (String) objectXpaths.next().evaluate(resource, XPathConstants.STRING);
                     XmlCollectionAttributeType attribType = new XmlCollectionAttributeType(object, attribGroupType);
                     collectionResource.setAttributeValue(attribType, value);
                 }
@@ -239,33 +263,156 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
         }
     }
 
+    /**
+     * Fill collection set.
+     * <p>If the request enables streaming and the XPath expressions of the source support it, the document is streamed
+     * instead of being parsed into a DOM.</p>
+     *
+     * @param agent the agent
+     * @param collectionSet the collection set
+     * @param source the source
+     * @param is the input stream
+     * @param request the request
+     * @throws Exception the exception
+     */
+    protected void fillCollectionSet(CollectionAgent agent, XmlCollectionSet collectionSet, XmlSource source, InputStream is, Request request) throws Exception {
+        StreamingXmlSource streamingSource = getStreamingXmlSource(source, request);
+        if (streamingSource == null) {
+            fillCollectionSet(agent, collectionSet, source, getXmlDocument(is, request));
+            return;
+        }
+        is = preProcessHtml(request, is);
+        is = applyXsltTransformation(request, is);
+        List<StreamingXmlSource.GroupResult> results;
+        try {
+            results = streamingSource.parse(is);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        m_nodeResource = null; // Be sure that the temporary resource for node level data is clean before processing a new document.
+        for (StreamingXmlSource.GroupResult result : results) {
+            XmlGroup group = result.getGroup();
+            LOG.debug("fillCollectionSet: streamed {} resources for XML group {}", result.getResources().size(), group.getName());
+            Date timestamp = null;
+            if (group.getTimestampXpath() != null) {
+                if (result.getTimestamp() == null) {
+                    LOG.warn("fillCollectionSet: can't find the custom timestamp using XPATH {}", group.getTimestampXpath());
+                } else {
+                    timestamp = parseTimeStamp(result.getTimestamp(), group);
+                }
+            }
+            for (StreamingXmlSource.Resource resource : result.getResources()) {
+                LOG.debug("fillCollectionSet: processing XML resource {}", resource.getName());
+                XmlCollectionResource collectionResource = getCollectionResource(agent, resource.getName(), group.getResourceType(), timestamp);
+                AttributeGroupType attribGroupType = new AttributeGroupType(group.getName(), group.getIfType());
+                Iterator<String> values = resource.getValues().iterator();
+                for (XmlObject object : group.getXmlObjects()) {
+                    XmlCollectionAttributeType attribType = new XmlCollectionAttributeType(object, attribGroupType);
+                    collectionResource.setAttributeValue(attribType, values.next());
+                }
+                processXmlResource(collectionResource, attribGroupType);
+                collectionSet.getCollectionResources().add(collectionResource);
+            }
+        }
+    }
+
+    /**
+     * Fill collection set from the document at the URL, streaming it if the request enables streaming.
+     *
+     * @param agent the agent
+     * @param collectionSet the collection set
+     * @param source the source
+     * @param urlString the URL string
+     * @param request the request
+     * @throws Exception the exception
+     */
+    protected void fillCollectionSet(CollectionAgent agent, XmlCollectionSet collectionSet, XmlSource source, String urlString, Request request) throws Exception {
+        if (getStreamingXmlSource(source, request) == null) {
+            Document doc = getXmlDocument(urlString, request);
+            LOG.debug("fillCollectionSet: parsed document for source url '{}' collection", source.getUrl());
+            fillCollectionSet(agent, collectionSet, source, doc);
+            return;
+        }
+        InputStream is = null;
+        URLConnection c = null;
+        try {
+            URL url = UrlFactory.getUrl(urlString, request);
+            c = url.openConnection();
+            is = c.getInputStream();
+            fillCollectionSet(agent, collectionSet, source, is, request);
+        } finally {
+            IOUtils.closeQuietly(is);
+            UrlFactory.disconnect(c);
+        }
+    }
+
+    /**
+     * Gets the compiled XPath expressions of an XML source, compiling them on first use in the current thread.
+     *
+     * @param source the XML source
+     * @param doc the document the expressions will be evaluated against
+     * @return the compiled source
+     * @throws XPathExpressionException the x path expression exception
+     */
+    protected CompiledXmlSource getCompiledXmlSource(XmlSource source, Document doc) throws XPathExpressionException {
+        Map<XmlSource, CompiledXmlSource> compiledSources = s_compiledSources.get();
+        CompiledXmlSource compiledSource = compiledSources.get(source);
+        if (compiledSource == null || !compiledSource.isCompatible(doc)) {
+            LOG.debug("getCompiledXmlSource: compiling XPath expressions for source url '{}'", source.getUrl());
+            compiledSource = new CompiledXmlSource(source, doc);
+            compiledSources.put(source, compiledSource);
+        }
+        return compiledSource;
+    }
+
+    /**
+     * Gets the streaming evaluation of an XML source.
+     *
+     * @param source the XML source
+     * @param request the request
+     * @return the streaming source, or null if the request doesn't enable streaming or the source can't be streamed
+     */
+    protected StreamingXmlSource getStreamingXmlSource(XmlSource source, Request request) {
+        if (request == null || !Boolean.parseBoolean(request.getParameter(STREAMING_PARAMETER))) {
+            return null;
+        }
+        StreamingXmlSource streamingSource = s_streamingSources.get(source);
+        if (streamingSource == null) {
+            streamingSource = new StreamingXmlSource(source);
+            if (!streamingSource.isSupported()) {
+                LOG.warn("getStreamingXmlSource: the XPATH {} of source url '{}' can't be streamed, the documents will be parsed into a DOM instead.", streamingSource.getUnsupportedExpression(), source.getUrl());
+            }
+            s_streamingSources.put(source, streamingSource);
+        }
+        return streamingSource.isSupported() ? streamingSource : null;
+    }
+
     /**
      * Gets the resource name.
      *
-     * @param xpath the Xpath
-     * @param group the group
+     * @param compiledGroup the compiled group
      * @param resource the resource
      * @return the resource name
      * @throws XPathExpressionException the x path expression exception
      */
-    private String getResourceName(XPath xpath, XmlGroup group, Node resource) throws XPathExpressionException {
+    private String getResourceName(CompiledXmlSource.Group compiledGroup, Node resource) throws XPathExpressionException {
+        XmlGroup group = compiledGroup.getGroup();
         // Processing multiple-key resource name.
         if (group.hasMultipleResourceKey()) {
             List<String> keys = new ArrayList<String>();
-            for (String key : group.getXmlResourceKey().getKeyXpathList()) {
-                LOG.debug("getResourceName: getting key for resource's name using {}", key);
-                Node keyNode = (Node) xpath.evaluate(key, resource, XPathConstants.NODE);
+            for (XPathExpression key : compiledGroup.getKeyXpaths()) {
+                Node keyNode = (Node) key.evaluate(resource, XPathConstants.NODE);
                 keys.add(keyNode.getNodeValue() == null ? keyNode.getTextContent() : keyNode.getNodeValue());
             }
             return StringUtils.join(keys, "_");
         }
         // If key-xpath doesn't exist or not found, a node resource will be assumed.
-        if (group.getKeyXpath() == null) {
+        if (compiledGroup.getKeyXpath() == null) {
             return "node";
         }
         // Processing single-key resource name.
         LOG.debug("getResourceName: getting key for resource's name using {}", group.getKeyXpath());
-        Node keyNode = (Node) xpath.evaluate(group.getKeyXpath(), resource, XPathConstants.NODE);
+        Node keyNode = (Node) compiledGroup.getKeyXpath().evaluate(resource, XPathConstants.NODE);
         return keyNode.getNodeValue() == null ? keyNode.getTextContent() : keyNode.getNodeValue();
     }
 
@@ -330,15 +477,41 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
         if (group.getTimestampXpath() == null) {
             return null;
         }
-        String pattern = group.getTimestampFormat() == null ? "yyyy-MM-dd HH:mm:ss" : group.getTimestampFormat();
-        LOG.debug("getTimeStamp: retrieving custom timestamp to be used when updating RRDs using XPATH {} and pattern {}", group.getTimestampXpath(), pattern);
-        Node tsNode = (Node) xpath.evaluate(group.getTimestampXpath(), doc, XPathConstants.NODE);
+        return getTimeStamp(doc, xpath.compile(group.getTimestampXpath()), group);
+    }
+
+    /**
+     * Gets the time stamp.
+     * 
+     * @param doc the doc
+     * @param timestampXpath the compiled timestamp XPath, or null
+     * @param group the group
+     * @return the time stamp
+     * @throws XPathExpressionException the x path expression exception
+     */
+    protected Date getTimeStamp(Document doc, XPathExpression timestampXpath, XmlGroup group) throws XPathExpressionException {
+        if (timestampXpath == null) {
+            return null;
+        }
+        Node tsNode = (Node) timestampXpath.evaluate(doc, XPathConstants.NODE);
         if (tsNode == null) {
             LOG.warn("getTimeStamp: can't find the custom timestamp using XPATH {}",  group.getTimestampXpath());
             return null;
         }
+        return parseTimeStamp(tsNode.getNodeValue() == null ? tsNode.getTextContent() : tsNode.getNodeValue(), group);
+    }
+
+    /**
+     * Parses the time stamp.
+     *
+     * @param value the time stamp value
+     * @param group the group
+     * @return the time stamp, or null if it can't be parsed
+     */
+    private Date parseTimeStamp(String value, XmlGroup group) {
+        String pattern = group.getTimestampFormat() == null ? "yyyy-MM-dd HH:mm:ss" : group.getTimestampFormat();
+        LOG.debug("getTimeStamp: retrieving custom timestamp to be used when updating RRDs using XPATH {} and pattern {}", group.getTimestampXpath(), pattern);
         Date date = null;
-        String value = tsNode.getNodeValue() == null ? tsNode.getTextContent() : tsNode.getNodeValue();
         LOG.debug("getTimeStamp: time stamp value is {}", value);
         try {
             DateTimeFormatter dtf = DateTimeFormat.forPattern(pattern);
@@ -496,7 +669,7 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
             Document doc = builder.parse(IOUtils.toInputStream(contents, "UTF-8"));
             // Ugly hack to deal with DOM & XPath 1.0's battle royale 
             // over handling namespaces without a prefix. 
-            if(doc.getNamespaceURI() != null && doc.getPrefix() == null){
+            if(doc.getDocumentElement().getNamespaceURI() != null && doc.getDocumentElement().getPrefix() == null){
                 factory.setNamespaceAware(false);
                 builder = factory.newDocumentBuilder();
                 doc = builder.parse(IOUtils.toInputStream(contents, "UTF-8"));
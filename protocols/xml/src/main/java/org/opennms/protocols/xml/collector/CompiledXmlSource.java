@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.protocols.xml.collector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.opennms.protocols.xml.config.XmlGroup;
+import org.opennms.protocols.xml.config.XmlObject;
+import org.opennms.protocols.xml.config.XmlSource;
+import org.w3c.dom.Document;
+
+/**
+ * The XPath expressions of an XML source, compiled once and evaluated against
+ * every document collected from it.
+ * <p>Namespace prefixes are resolved against the document the expressions
+ * are compiled with, so they can only be reused for documents that map the
+ * same prefixes to the same namespaces; see {@link #isCompatible(Document)}.</p>
+ * <p>Compiled expressions are not thread-safe, so an instance must only be
+ * used by one thread at a time.</p>
+ */
+public class CompiledXmlSource {
+
+    /**
+     * The compiled expressions of an XML group.
+     */
+    public static class Group {
+
+        /** The XML group. */
+        private final XmlGroup m_group;
+
+        /** The resource XPath. */
+        private final XPathExpression m_resourceXpath;
+
+        /** The key XPath, or null. */
+        private final XPathExpression m_keyXpath;
+
+        /** The key XPaths of a multiple-key resource. */
+        private final List<XPathExpression> m_keyXpaths = new ArrayList<XPathExpression>();
+
+        /** The timestamp XPath, or null. */
+        private final XPathExpression m_timestampXpath;
+
+        /** The object XPaths, in the same order as the group's objects. */
+        private final List<XPathExpression> m_objectXpaths = new ArrayList<XPathExpression>();
+
+        /** Whether the key and object XPaths only select the resource and its descendants. */
+        private boolean m_selfContained = true;
+
+        /**
+         * Instantiates a new compiled group.
+         *
+         * @param xpath the XPath used to compile the expressions
+         * @param group the XML group
+         * @throws XPathExpressionException the XPath expression exception
+         */
+        private Group(XPath xpath, XmlGroup group) throws XPathExpressionException {
+            m_group = group;
+            m_resourceXpath = xpath.compile(group.getResourceXpath());
+            m_keyXpath = group.getKeyXpath() == null ? null : compileRelative(xpath, group.getKeyXpath());
+            if (group.hasMultipleResourceKey()) {
+                for (String key : group.getXmlResourceKey().getKeyXpathList()) {
+                    m_keyXpaths.add(compileRelative(xpath, key));
+                }
+            }
+            m_timestampXpath = group.getTimestampXpath() == null ? null : xpath.compile(group.getTimestampXpath());
+            for (XmlObject object : group.getXmlObjects()) {
+                m_objectXpaths.add(compileRelative(xpath, object.getXpath()));
+            }
+        }
+
+        private XPathExpression compileRelative(XPath xpath, String expression) throws XPathExpressionException {
+            StreamingXmlSource.Path path = StreamingXmlSource.Path.parse(expression);
+            if (path == null || path.isAbsolute()) {
+                m_selfContained = false;
+            }
+            return xpath.compile(expression);
+        }
+
+        public XmlGroup getGroup() {
+            return m_group;
+        }
+
+        public XPathExpression getResourceXpath() {
+            return m_resourceXpath;
+        }
+
+        public XPathExpression getKeyXpath() {
+            return m_keyXpath;
+        }
+
+        public List<XPathExpression> getKeyXpaths() {
+            return m_keyXpaths;
+        }
+
+        public XPathExpression getTimestampXpath() {
+            return m_timestampXpath;
+        }
+
+        public List<XPathExpression> getObjectXpaths() {
+            return m_objectXpaths;
+        }
+
+        /**
+         * Checks whether the key and object XPaths are plain relative paths, which
+         * only select the resource and its descendants and can therefore be
+         * evaluated against a detached copy of the resource.
+         *
+         * @return true, if the resource's expressions don't look outside of it
+         */
+        public boolean isSelfContained() {
+            return m_selfContained;
+        }
+    }
+
+    /**
+     * Resolves prefixes against the document and remembers the result.
+     */
+    private static class RecordingNamespaceContext implements NamespaceContext {
+
+        private final NamespaceContext m_delegate;
+        private final Map<String, String> m_resolved = new HashMap<String, String>();
+
+        private RecordingNamespaceContext(Document doc) {
+            m_delegate = new DocumentNamespaceResolver(doc);
+        }
+
+        @Override
+        public String getNamespaceURI(String prefix) {
+            String uri = m_delegate.getNamespaceURI(prefix);
+            m_resolved.put(prefix, uri);
+            return uri;
+        }
+
+        @Override
+        public String getPrefix(String namespaceURI) {
+            return m_delegate.getPrefix(namespaceURI);
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Iterator getPrefixes(String namespaceURI) {
+            return m_delegate.getPrefixes(namespaceURI);
+        }
+    }
+
+    /** The prefixes resolved while compiling, and their namespace URIs. */
+    private final Map<String, String> m_namespaces;
+
+    /** The compiled groups, in the same order as the source's groups. */
+    private final List<Group> m_groups = new ArrayList<Group>();
+
+    /**
+     * Compiles the expressions of an XML source.
+     *
+     * @param source the XML source
+     * @param doc the document used to resolve namespace prefixes
+     * @throws XPathExpressionException the XPath expression exception
+     */
+    public CompiledXmlSource(XmlSource source, Document doc) throws XPathExpressionException {
+        RecordingNamespaceContext nc = new RecordingNamespaceContext(doc);
+        XPath xpath = XPathFactory.newInstance().newXPath();
+        xpath.setNamespaceContext(nc);
+        for (XmlGroup group : source.getXmlGroups()) {
+            m_groups.add(new Group(xpath, group));
+        }
+        m_namespaces = Collections.unmodifiableMap(nc.m_resolved);
+    }
+
+    /**
+     * Gets the compiled groups.
+     *
+     * @return the compiled groups
+     */
+    public List<Group> getGroups() {
+        return m_groups;
+    }
+
+    /**
+     * Checks whether the expressions can be evaluated against a document,
+     * that is whether it maps every prefix used by the expressions to the
+     * same namespace as the document they were compiled with.
+     *
+     * @param doc the document
+     * @return true, if the expressions can be used with the document
+     */
+    public boolean isCompatible(Document doc) {
+        if (m_namespaces.isEmpty()) {
+            return true;
+        }
+        NamespaceContext nc = new DocumentNamespaceResolver(doc);
+        for (Map.Entry<String, String> e : m_namespaces.entrySet()) {
+            String uri = nc.getNamespaceURI(e.getKey());
+            if (uri == null ? e.getValue() != null : !uri.equals(e.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -33,10 +33,6 @@ import org.opennms.netmgt.collection.api.CollectionAgent;
 import org.opennms.protocols.xml.config.Request;
 import org.opennms.protocols.xml.config.XmlSource;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-
 /**
  * The default implementation of the interface XmlCollectionHandler based on AbstractXmlCollectionHandler.
  * 
@@ -44,9 +40,6 @@ import org.w3c.dom.Document;
  */
 public class DefaultXmlCollectionHandler extends AbstractXmlCollectionHandler {
 
-    /** The Constant LOG. */
-    private static final Logger LOG = LoggerFactory.getLogger(DefaultXmlCollectionHandler.class);
-
     /* (non-Javadoc)
      * @see org.opennms.protocols.xml.collector.AbstractXmlCollectionHandler#processXmlResource(org.opennms.protocols.xml.collector.XmlCollectionResource, org.opennms.netmgt.config.collector.AttributeGroupType)
      */
@@ -58,9 +51,7 @@ public class DefaultXmlCollectionHandler extends AbstractXmlCollectionHandler {
      */
     @Override
     protected void fillCollectionSet(String urlString, Request request, CollectionAgent agent, XmlCollectionSet collectionSet, XmlSource source) throws Exception {
-        final Document doc = getXmlDocument(urlString, request);
-        LOG.debug("collect: parsed document for source url '{}' collection", source.getUrl());
-        fillCollectionSet(agent, collectionSet, source, doc);
+        fillCollectionSet(agent, collectionSet, source, urlString, request);
     }
 
 }
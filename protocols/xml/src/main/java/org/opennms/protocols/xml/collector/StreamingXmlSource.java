@@ -0,0 +1,717 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.protocols.xml.collector;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang.StringUtils;
+import org.opennms.protocols.xml.config.XmlGroup;
+import org.opennms.protocols.xml.config.XmlObject;
+import org.opennms.protocols.xml.config.XmlSource;
+
+/**
+ * Evaluates the XPath expressions of an XML source in a single pass over a
+ * StAX stream, without building a DOM.
+ * <p>Only plain location paths are supported:</p>
+ * <ul>
+ * <li>Resource and timestamp XPaths must be absolute, like
+ * <code>/measCollecFile/measData/measInfo[@measInfoId='dns|dns']/measValue</code>.</li>
+ * <li>Key and object XPaths are relative to the resource, like
+ * <code>@measObjLdn</code>, <code>suspect</code> or <code>r[@p=1]</code>.</li>
+ * <li>Each step is an element name or <code>*</code> with any number of
+ * <code>[@attribute='value']</code> or <code>[@attribute=number]</code>
+ * predicates, and the path can end with <code>/@attribute</code>.</li>
+ * </ul>
+ * <p>Element and attribute names are compared with the prefix used in the
+ * document, and names without a prefix match elements in the default
+ * namespace, as they do on the non namespace-aware DOM the collector builds
+ * for such documents.</p>
+ * <p>Use {@link #isSupported()} to find out whether all the expressions of
+ * the source are supported before calling {@link #parse(InputStream)}.</p>
+ * <p>Instances are immutable and can be shared between threads.</p>
+ */
+public class StreamingXmlSource {
+
+    /** The StAX factory. */
+    private static final XMLInputFactory s_inputFactory = createInputFactory();
+
+    /**
+     * A predicate comparing an attribute with a literal.
+     */
+    private static final class Predicate {
+        private final Name m_attribute;
+        private final String m_literal;
+        private final Double m_number;
+
+        private Predicate(Name attribute, String literal, Double number) {
+            m_attribute = attribute;
+            m_literal = literal;
+            m_number = number;
+        }
+
+        private boolean matches(XMLStreamReader reader) {
+            String value = m_attribute.getAttributeValue(reader);
+            if (value == null) {
+                return false;
+            }
+            if (m_number == null) {
+                return value.equals(m_literal);
+            }
+            try {
+                return Double.parseDouble(value.trim()) == m_number.doubleValue();
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * An element or attribute name, with an optional prefix.
+     */
+    private static final class Name {
+        private final String m_prefix;
+        private final String m_localName;
+
+        private Name(String qname) {
+            int colon = qname.indexOf(':');
+            m_prefix = colon < 0 ? "" : qname.substring(0, colon);
+            m_localName = colon < 0 ? qname : qname.substring(colon + 1);
+        }
+
+        private boolean matchesElement(XMLStreamReader reader) {
+            return m_localName.equals(reader.getLocalName()) && m_prefix.equals(StringUtils.defaultString(reader.getPrefix()));
+        }
+
+        private String getAttributeValue(XMLStreamReader reader) {
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                if (m_localName.equals(reader.getAttributeLocalName(i)) && m_prefix.equals(StringUtils.defaultString(reader.getAttributePrefix(i)))) {
+                    return reader.getAttributeValue(i);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A location step.
+     */
+    private static final class Step {
+        /** The element name, or null for any element. */
+        private final Name m_name;
+        private final List<Predicate> m_predicates;
+
+        private Step(Name name, List<Predicate> predicates) {
+            m_name = name;
+            m_predicates = predicates;
+        }
+
+        private boolean matches(XMLStreamReader reader) {
+            if (m_name != null && !m_name.matchesElement(reader)) {
+                return false;
+            }
+            for (Predicate p : m_predicates) {
+                if (!p.matches(reader)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A location path of the supported subset.
+     */
+    static final class Path {
+        private final boolean m_absolute;
+        private final Step[] m_steps;
+        /** The attribute selected by the path, or null to select the element. */
+        private final Name m_attribute;
+
+        private Path(boolean absolute, List<Step> steps, Name attribute) {
+            m_absolute = absolute;
+            m_steps = steps.toArray(new Step[steps.size()]);
+            m_attribute = attribute;
+        }
+
+        boolean isAbsolute() {
+            return m_absolute;
+        }
+
+        int getDepth() {
+            return m_steps.length;
+        }
+
+        /**
+         * Parses an XPath expression.
+         *
+         * @param expression the XPath expression
+         * @return the path, or null if the expression is not a plain location path
+         */
+        static Path parse(String expression) {
+            if (expression == null) {
+                return null;
+            }
+            final String s = expression.trim();
+            if (s.equals(".")) {
+                return new Path(false, Collections.<Step>emptyList(), null);
+            }
+            final List<Step> steps = new ArrayList<Step>();
+            final boolean absolute = s.startsWith("/");
+            int pos = absolute ? 1 : 0;
+            while (true) {
+                if (pos < s.length() && s.charAt(pos) == '@') {
+                    final int end = scanName(s, pos + 1);
+                    if (end < 0 || end != s.length()) {
+                        return null;
+                    }
+                    return new Path(absolute, steps, new Name(s.substring(pos + 1, end)));
+                }
+                Name name = null;
+                if (pos < s.length() && s.charAt(pos) == '*') {
+                    pos++;
+                } else {
+                    final int end = scanName(s, pos);
+                    if (end < 0) {
+                        return null;
+                    }
+                    name = new Name(s.substring(pos, end));
+                    pos = end;
+                }
+                final List<Predicate> predicates = new ArrayList<Predicate>();
+                while (pos < s.length() && s.charAt(pos) == '[') {
+                    pos = parsePredicate(s, pos, predicates);
+                    if (pos < 0) {
+                        return null;
+                    }
+                }
+                steps.add(new Step(name, predicates));
+                if (pos == s.length()) {
+                    return new Path(absolute, steps, null);
+                }
+                if (s.charAt(pos) != '/' || pos + 1 == s.length() || s.charAt(pos + 1) == '/') {
+                    return null;
+                }
+                pos++;
+            }
+        }
+
+        /**
+         * Parses <code>[@name='literal']</code> or <code>[@name=number]</code>.
+         *
+         * @return the position after the predicate, or -1 if it isn't one
+         */
+        private static int parsePredicate(String s, int pos, List<Predicate> predicates) {
+            pos = skipSpaces(s, pos + 1);
+            if (pos >= s.length() || s.charAt(pos) != '@') {
+                return -1;
+            }
+            final int nameEnd = scanName(s, pos + 1);
+            if (nameEnd < 0) {
+                return -1;
+            }
+            final Name attribute = new Name(s.substring(pos + 1, nameEnd));
+            pos = skipSpaces(s, nameEnd);
+            if (pos >= s.length() || s.charAt(pos) != '=') {
+                return -1;
+            }
+            pos = skipSpaces(s, pos + 1);
+            if (pos >= s.length()) {
+                return -1;
+            }
+            final char quote = s.charAt(pos);
+            if (quote == '\'' || quote == '"') {
+                final int end = s.indexOf(quote, pos + 1);
+                if (end < 0) {
+                    return -1;
+                }
+                predicates.add(new Predicate(attribute, s.substring(pos + 1, end), null));
+                pos = end + 1;
+            } else {
+                int end = pos;
+                while (end < s.length() && (Character.isDigit(s.charAt(end)) || s.charAt(end) == '.' || s.charAt(end) == '-')) {
+                    end++;
+                }
+                try {
+                    predicates.add(new Predicate(attribute, null, Double.valueOf(s.substring(pos, end))));
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+                pos = end;
+            }
+            pos = skipSpaces(s, pos);
+            if (pos >= s.length() || s.charAt(pos) != ']') {
+                return -1;
+            }
+            return pos + 1;
+        }
+
+        private static int skipSpaces(String s, int pos) {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+            return pos;
+        }
+
+        /**
+         * @return the end of the name starting at pos, or -1 if there is none
+         */
+        private static int scanName(String s, int pos) {
+            if (pos >= s.length() || !(Character.isLetter(s.charAt(pos)) || s.charAt(pos) == '_')) {
+                return -1;
+            }
+            int end = pos + 1;
+            boolean colon = false;
+            while (end < s.length()) {
+                final char c = s.charAt(end);
+                if (c == ':' && !colon && end + 1 < s.length() && (Character.isLetter(s.charAt(end + 1)) || s.charAt(end + 1) == '_')) {
+                    colon = true;
+                } else if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.')) {
+                    break;
+                }
+                end++;
+            }
+            // a function call like text() or position()
+            if (end < s.length() && s.charAt(end) == '(') {
+                return -1;
+            }
+            return end;
+        }
+    }
+
+    /**
+     * Keeps track of which ancestors of the current element match the steps
+     * of a path.
+     */
+    private static final class PathMatcher {
+        private final Path m_path;
+        /** The depth of the context element, 0 for the document. */
+        private final int m_base;
+        private final boolean[] m_matched;
+
+        private PathMatcher(Path path, int base) {
+            m_path = path;
+            m_base = base;
+            m_matched = new boolean[path.m_steps.length + 1];
+            m_matched[0] = true;
+        }
+
+        /**
+         * Called for every element started below the context element.
+         *
+         * @return true if the element is selected by the path
+         */
+        private boolean start(int depth, XMLStreamReader reader) {
+            final int level = depth - m_base;
+            if (level < 1 || level > m_path.m_steps.length) {
+                return false;
+            }
+            m_matched[level] = m_matched[level - 1] && m_path.m_steps[level - 1].matches(reader);
+            return m_matched[level] && level == m_path.m_steps.length;
+        }
+    }
+
+    /**
+     * A value being collected from the text of an element and its
+     * descendants.
+     */
+    private static final class TextCapture {
+        private final String[] m_target;
+        private final int m_index;
+        private final int m_depth;
+        private final StringBuilder m_text = new StringBuilder();
+
+        private TextCapture(String[] target, int index, int depth) {
+            m_target = target;
+            m_index = index;
+            m_depth = depth;
+        }
+    }
+
+    /**
+     * A resource found in a document.
+     */
+    public static final class Resource {
+        private final String m_name;
+        private final List<String> m_values;
+
+        private Resource(String name, List<String> values) {
+            m_name = name;
+            m_values = values;
+        }
+
+        /**
+         * Gets the resource name, built from its keys like the DOM based
+         * collector does.
+         *
+         * @return the resource name
+         */
+        public String getName() {
+            return m_name;
+        }
+
+        /**
+         * Gets the values of the group's objects, in the same order as the
+         * objects. Objects that were not found have an empty value.
+         *
+         * @return the values
+         */
+        public List<String> getValues() {
+            return m_values;
+        }
+    }
+
+    /**
+     * What a document contains for an XML group.
+     */
+    public static final class GroupResult {
+        private final XmlGroup m_group;
+        private final String m_timestamp;
+        private final List<Resource> m_resources;
+
+        private GroupResult(XmlGroup group, String timestamp, List<Resource> resources) {
+            m_group = group;
+            m_timestamp = timestamp;
+            m_resources = resources;
+        }
+
+        public XmlGroup getGroup() {
+            return m_group;
+        }
+
+        /**
+         * @return the value selected by the timestamp XPath, or null
+         */
+        public String getTimestamp() {
+            return m_timestamp;
+        }
+
+        public List<Resource> getResources() {
+            return m_resources;
+        }
+    }
+
+    /**
+     * The parsed paths of an XML group.
+     */
+    private static final class Group {
+        private final XmlGroup m_group;
+        private final Path m_resource;
+        private final Path m_timestamp;
+        /** The key paths, empty for node-level resources. */
+        private final Path[] m_keys;
+        private final Path[] m_objects;
+
+        private Group(XmlGroup group, Path resource, Path timestamp, Path[] keys, Path[] objects) {
+            m_group = group;
+            m_resource = resource;
+            m_timestamp = timestamp;
+            m_keys = keys;
+            m_objects = objects;
+        }
+    }
+
+    /**
+     * The state of a group while a document is parsed.
+     */
+    private static final class GroupState {
+        private final Group m_group;
+        private final PathMatcher m_resourceMatcher;
+        private final PathMatcher m_timestampMatcher;
+        private final String[] m_timestamp = new String[1];
+        private final List<Resource> m_resources = new ArrayList<Resource>();
+
+        /** The depth of the current resource element, or 0 outside of one. */
+        private int m_resourceDepth = 0;
+        private String[] m_keys;
+        private String[] m_values;
+        private PathMatcher[] m_keyMatchers;
+        private PathMatcher[] m_objectMatchers;
+
+        private GroupState(Group group) {
+            m_group = group;
+            m_resourceMatcher = new PathMatcher(group.m_resource, 0);
+            m_timestampMatcher = group.m_timestamp == null ? null : new PathMatcher(group.m_timestamp, 0);
+        }
+    }
+
+    /** The parsed groups, or null if an expression is not supported. */
+    private final List<Group> m_groups;
+
+    /** The first expression that is not supported, or null. */
+    private final String m_unsupportedExpression;
+
+    /**
+     * Parses the XPath expressions of an XML source.
+     *
+     * @param source the XML source
+     */
+    public StreamingXmlSource(XmlSource source) {
+        final List<Group> groups = new ArrayList<Group>();
+        String unsupported = null;
+        for (XmlGroup group : source.getXmlGroups()) {
+            final Path resource = Path.parse(group.getResourceXpath());
+            if (resource == null || !resource.isAbsolute() || resource.getDepth() == 0 || resource.m_attribute != null) {
+                unsupported = group.getResourceXpath();
+                break;
+            }
+            Path timestamp = null;
+            if (group.getTimestampXpath() != null) {
+                // evaluated from the document, so a relative path is also absolute
+                timestamp = Path.parse(group.getTimestampXpath());
+                if (timestamp == null || timestamp.getDepth() == 0) {
+                    unsupported = group.getTimestampXpath();
+                    break;
+                }
+            }
+            final List<String> keyXpaths = new ArrayList<String>();
+            if (group.hasMultipleResourceKey()) {
+                keyXpaths.addAll(group.getXmlResourceKey().getKeyXpathList());
+            } else if (group.getKeyXpath() != null) {
+                keyXpaths.add(group.getKeyXpath());
+            }
+            final Path[] keys = parseRelative(keyXpaths);
+            if (keys == null) {
+                unsupported = keyXpaths.toString();
+                break;
+            }
+            final List<String> objectXpaths = new ArrayList<String>();
+            for (XmlObject object : group.getXmlObjects()) {
+                objectXpaths.add(object.getXpath());
+            }
+            final Path[] objects = parseRelative(objectXpaths);
+            if (objects == null) {
+                unsupported = objectXpaths.toString();
+                break;
+            }
+            groups.add(new Group(group, resource, timestamp, keys, objects));
+        }
+        m_groups = unsupported == null ? groups : null;
+        m_unsupportedExpression = unsupported;
+    }
+
+    private static Path[] parseRelative(List<String> expressions) {
+        final Path[] paths = new Path[expressions.size()];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = Path.parse(expressions.get(i));
+            if (paths[i] == null || paths[i].isAbsolute()) {
+                return null;
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Checks if all the XPath expressions of the source can be streamed.
+     *
+     * @return true, if the source can be streamed
+     */
+    public boolean isSupported() {
+        return m_groups != null;
+    }
+
+    /**
+     * Gets the first XPath expression that can't be streamed.
+     *
+     * @return the expression, or null if all of them can
+     */
+    public String getUnsupportedExpression() {
+        return m_unsupportedExpression;
+    }
+
+    /**
+     * Parses a document.
+     *
+     * @param is the input stream, which is not closed
+     * @return what the document contains for each group, in the order of the source's groups
+     * @throws XMLStreamException if the document can't be parsed
+     */
+    public List<GroupResult> parse(InputStream is) throws XMLStreamException {
+        if (m_groups == null) {
+            throw new IllegalStateException("The XPath expression " + m_unsupportedExpression + " can't be streamed");
+        }
+        final GroupState[] states = new GroupState[m_groups.size()];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = new GroupState(m_groups.get(i));
+        }
+        final List<TextCapture> captures = new ArrayList<TextCapture>();
+
+        final XMLStreamReader reader = s_inputFactory.createXMLStreamReader(is);
+        try {
+            int depth = 0;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    for (GroupState state : states) {
+                        startElement(state, depth, reader, captures);
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (!captures.isEmpty()) {
+                        for (TextCapture capture : captures) {
+                            capture.m_text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        }
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    for (int i = captures.size() - 1; i >= 0; i--) {
+                        final TextCapture capture = captures.get(i);
+                        if (capture.m_depth == depth) {
+                            capture.m_target[capture.m_index] = capture.m_text.toString();
+                            captures.remove(i);
+                        }
+                    }
+                    for (GroupState state : states) {
+                        if (state.m_resourceDepth == depth) {
+                            endResource(state);
+                        }
+                    }
+                    depth--;
+                    break;
+                default:
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        final List<GroupResult> results = new ArrayList<GroupResult>(states.length);
+        for (GroupState state : states) {
+            results.add(new GroupResult(state.m_group.m_group, state.m_timestamp[0], state.m_resources));
+        }
+        return results;
+    }
+
+    private static void startElement(GroupState state, int depth, XMLStreamReader reader, List<TextCapture> captures) {
+        final Group group = state.m_group;
+        if (state.m_timestampMatcher != null && state.m_timestamp[0] == null && state.m_timestampMatcher.start(depth, reader)) {
+            select(group.m_timestamp, reader, state.m_timestamp, 0, depth, captures);
+        }
+        if (state.m_resourceDepth > 0) {
+            match(state.m_keyMatchers, group.m_keys, state.m_keys, depth, reader, captures);
+            match(state.m_objectMatchers, group.m_objects, state.m_values, depth, reader, captures);
+        } else if (state.m_resourceMatcher.start(depth, reader)) {
+            state.m_resourceDepth = depth;
+            state.m_keys = new String[group.m_keys.length];
+            state.m_values = new String[group.m_objects.length];
+            state.m_keyMatchers = startResource(group.m_keys, state.m_keys, depth, reader, captures);
+            state.m_objectMatchers = startResource(group.m_objects, state.m_values, depth, reader, captures);
+        }
+    }
+
+    /**
+     * Creates the matchers of the paths relative to a new resource, and
+     * selects the values of the paths that point to the resource itself.
+     */
+    private static PathMatcher[] startResource(Path[] paths, String[] values, int depth, XMLStreamReader reader, List<TextCapture> captures) {
+        final PathMatcher[] matchers = new PathMatcher[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i].getDepth() == 0) {
+                select(paths[i], reader, values, i, depth, captures);
+            } else {
+                matchers[i] = new PathMatcher(paths[i], depth);
+            }
+        }
+        return matchers;
+    }
+
+    private static void match(PathMatcher[] matchers, Path[] paths, String[] values, int depth, XMLStreamReader reader, List<TextCapture> captures) {
+        for (int i = 0; i < matchers.length; i++) {
+            if (matchers[i] != null && values[i] == null && matchers[i].start(depth, reader) && !isCapturing(captures, values, i)) {
+                select(paths[i], reader, values, i, depth, captures);
+            }
+        }
+    }
+
+    private static boolean isCapturing(List<TextCapture> captures, String[] values, int index) {
+        for (TextCapture capture : captures) {
+            if (capture.m_target == values && capture.m_index == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes the value of a path from the element it selects: either an
+     * attribute, right away, or the element's text, once it ends.
+     */
+    private static void select(Path path, XMLStreamReader reader, String[] values, int index, int depth, List<TextCapture> captures) {
+        if (path.m_attribute == null) {
+            captures.add(new TextCapture(values, index, depth));
+        } else {
+            values[index] = path.m_attribute.getAttributeValue(reader);
+        }
+    }
+
+    private static void endResource(GroupState state) {
+        state.m_resourceDepth = 0;
+        final String name;
+        if (state.m_keys.length == 0) {
+            // If key-xpath doesn't exist, a node resource will be assumed.
+            name = "node";
+        } else {
+            for (int i = 0; i < state.m_keys.length; i++) {
+                if (state.m_keys[i] == null) {
+                    throw new XmlCollectorException("Can't find a key for a resource of XML group " + state.m_group.m_group.getName());
+                }
+            }
+            name = StringUtils.join(state.m_keys, "_");
+        }
+        for (int i = 0; i < state.m_values.length; i++) {
+            if (state.m_values[i] == null) {
+                state.m_values[i] = "";
+            }
+        }
+        state.m_resources.add(new Resource(name, Arrays.asList(state.m_values)));
+        state.m_keys = null;
+        state.m_values = null;
+        state.m_keyMatchers = null;
+        state.m_objectMatchers = null;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+}
@@ -0,0 +1,316 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2014 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2014 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.protocols.xml.collector;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.opennms.netmgt.collection.api.CollectionAttribute;
+import org.opennms.netmgt.collection.api.CollectionResource;
+import org.opennms.netmgt.collection.support.AbstractCollectionSetVisitor;
+import org.opennms.protocols.xml.config.Request;
+import org.opennms.protocols.xml.config.XmlGroup;
+import org.opennms.protocols.xml.config.XmlObject;
+import org.opennms.protocols.xml.config.XmlSource;
+import org.opennms.protocols.xml.dao.jaxb.XmlDataCollectionConfigDaoJaxb;
+import org.springframework.core.io.FileSystemResource;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * The Test Class for the compiled and streaming evaluation of XML sources.
+ */
+public class StreamingXmlSourceTest {
+
+    /** The 3GPP configuration file. */
+    private static final String CONFIG_3GPP = "src/test/resources/3gpp-xml-datacollection-config.xml";
+
+    /** The 3GPP sample file. */
+    private static final String SAMPLE_3GPP = "src/test/resources/A20111025.0030-0500-0045-0500_MME00001.xml";
+
+    /**
+     * Test parsing XPath expressions.
+     */
+    @Test
+    public void testParsePaths() {
+        Assert.assertNotNull(StreamingXmlSource.Path.parse("/measCollecFile/measData/measInfo[@measInfoId='dns|dns']/measValue"));
+        Assert.assertNotNull(StreamingXmlSource.Path.parse("/measCollecFile/fileFooter/measCollec/@endTime"));
+        Assert.assertNotNull(StreamingXmlSource.Path.parse("r[@p=1]"));
+        Assert.assertNotNull(StreamingXmlSource.Path.parse("@measObjLdn"));
+        Assert.assertNotNull(StreamingXmlSource.Path.parse("dp:Stat[@Name=\"HATS\"]/@Value"));
+        Assert.assertNotNull(StreamingXmlSource.Path.parse("cfm-iter-ethlm-entry/*"));
+        Assert.assertNotNull(StreamingXmlSource.Path.parse("."));
+
+        Assert.assertNull(StreamingXmlSource.Path.parse("//measValue"));
+        Assert.assertNull(StreamingXmlSource.Path.parse("/a//b"));
+        Assert.assertNull(StreamingXmlSource.Path.parse("r[1]"));
+        Assert.assertNull(StreamingXmlSource.Path.parse("text()"));
+        Assert.assertNull(StreamingXmlSource.Path.parse("p[contains(.,'Document Count:')]"));
+        Assert.assertNull(StreamingXmlSource.Path.parse("../name"));
+        Assert.assertNull(StreamingXmlSource.Path.parse("count(r)"));
+    }
+
+    /**
+     * Test that streaming a 3GPP file gives the same resources and values as the DOM.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void test3gppStreaming() throws Exception {
+        XmlSource source = getSource(CONFIG_3GPP, "3GPP");
+        Assert.assertTrue(new StreamingXmlSource(source).isSupported());
+        List<String> dom = collectFromDom(source, SAMPLE_3GPP);
+        List<String> streamed = collectFromStream(source, SAMPLE_3GPP);
+        Assert.assertFalse(dom.isEmpty());
+        Assert.assertEquals(dom, streamed);
+    }
+
+    /**
+     * Test streaming a document with prefixed namespaces.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testNamespaceStreaming() throws Exception {
+        XmlSource source = getSource("src/test/resources/namespace-datacollection-config.xml", "Namespace");
+        List<String> dom = collectFromDom(source, "src/test/resources/namespace.xml");
+        List<String> streamed = collectFromStream(source, "src/test/resources/namespace.xml");
+        Assert.assertEquals(6, dom.size());
+        Assert.assertEquals(dom, streamed);
+    }
+
+    /**
+     * Test streaming a document with node-level data.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testNodeLevelStreaming() throws Exception {
+        XmlSource source = getSource("src/test/resources/node-level-datacollection-config.xml", "NodeLevel");
+        List<String> dom = collectFromDom(source, "src/test/resources/node-level.xml");
+        List<String> streamed = collectFromStream(source, "src/test/resources/node-level.xml");
+        Assert.assertFalse(dom.isEmpty());
+        Assert.assertEquals(dom, streamed);
+    }
+
+    /**
+     * Test that the compiled expressions are reused between documents.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testCompiledExpressionsAreReused() throws Exception {
+        XmlSource source = getSource(CONFIG_3GPP, "3GPP");
+        MockDefaultXmlCollectionHandler handler = new MockDefaultXmlCollectionHandler();
+        CompiledXmlSource first = handler.getCompiledXmlSource(source, parse(new File(SAMPLE_3GPP)));
+        CompiledXmlSource second = handler.getCompiledXmlSource(source, parse(new File(SAMPLE_3GPP)));
+        Assert.assertSame(first, second);
+    }
+
+    /**
+     * Test that sources with unsupported expressions are not streamed.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testUnsupportedExpression() throws Exception {
+        XmlGroup group = new XmlGroup();
+        group.setName("test");
+        group.setResourceType("node");
+        group.setResourceXpath("//measValue");
+        XmlSource source = new XmlSource();
+        source.setUrl("http://localhost/test.xml");
+        source.getXmlGroups().add(group);
+        StreamingXmlSource streamingSource = new StreamingXmlSource(source);
+        Assert.assertFalse(streamingSource.isSupported());
+        Assert.assertEquals("//measValue", streamingSource.getUnsupportedExpression());
+
+        MockDefaultXmlCollectionHandler handler = new MockDefaultXmlCollectionHandler();
+        Assert.assertNull(handler.getStreamingXmlSource(source, getStreamingRequest()));
+        Assert.assertNull(handler.getStreamingXmlSource(getSource(CONFIG_3GPP, "3GPP"), new Request()));
+        Assert.assertNotNull(handler.getStreamingXmlSource(getSource(CONFIG_3GPP, "3GPP"), getStreamingRequest()));
+    }
+
+    /**
+     * Compares uncompiled XPath, compiled XPath and streaming on the 3GPP sample.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    @Ignore // Ignoring the test because it only prints timings and takes seconds; run it by hand
+    public void test3gppBenchmark() throws Exception {
+        final int files = 10;
+        final XmlSource source = getSource(CONFIG_3GPP, "3GPP");
+        final byte[] contents = FileUtils.readFileToByteArray(new File(SAMPLE_3GPP));
+        final MockDefaultXmlCollectionHandler handler = new MockDefaultXmlCollectionHandler();
+
+        // warm up
+        for (int i = 0; i < 2; i++) {
+            handler.fillCollectionSet(null, new XmlCollectionSet(), source, parse(new ByteArrayInputStream(contents)));
+            handler.fillCollectionSet(null, new XmlCollectionSet(), source, new ByteArrayInputStream(contents), getStreamingRequest());
+        }
+
+        // the uncompiled expressions take seconds per file, so only a couple of them
+        final int uncompiledFiles = 2;
+        long start = System.nanoTime();
+        long allocated = getAllocatedBytes();
+        for (int i = 0; i < uncompiledFiles; i++) {
+            collectUncompiled(source, parse(new ByteArrayInputStream(contents)));
+        }
+        report("DOM, uncompiled XPath", uncompiledFiles, System.nanoTime() - start, getAllocatedBytes() - allocated);
+
+        start = System.nanoTime();
+        allocated = getAllocatedBytes();
+        for (int i = 0; i < files; i++) {
+            handler.fillCollectionSet(null, new XmlCollectionSet(), source, parse(new ByteArrayInputStream(contents)));
+        }
+        report("DOM, compiled XPath", files, System.nanoTime() - start, getAllocatedBytes() - allocated);
+
+        start = System.nanoTime();
+        allocated = getAllocatedBytes();
+        for (int i = 0; i < files; i++) {
+            handler.fillCollectionSet(null, new XmlCollectionSet(), source, new ByteArrayInputStream(contents), getStreamingRequest());
+        }
+        report("StAX streaming", files, System.nanoTime() - start, getAllocatedBytes() - allocated);
+    }
+
+    /**
+     * Evaluates the expressions the way the collector did before they were compiled.
+     */
+    private static void collectUncompiled(XmlSource source, Document doc) throws Exception {
+        XPath xpath = XPathFactory.newInstance().newXPath();
+        xpath.setNamespaceContext(new DocumentNamespaceResolver(doc));
+        for (XmlGroup group : source.getXmlGroups()) {
+            xpath.evaluate(group.getTimestampXpath(), doc, XPathConstants.NODE);
+            NodeList resourceList = (NodeList) xpath.evaluate(group.getResourceXpath(), doc, XPathConstants.NODESET);
+            for (int j = 0; j < resourceList.getLength(); j++) {
+                Node resource = resourceList.item(j);
+                xpath.evaluate(group.getKeyXpath(), resource, XPathConstants.NODE);
+                for (XmlObject object : group.getXmlObjects()) {
+                    xpath.evaluate(object.getXpath(), resource, XPathConstants.STRING);
+                }
+            }
+        }
+    }
+
+    private static void report(String mode, int files, long nanos, long allocated) {
+        System.err.printf("%-24s %8.2f ms/file %10.2f MB allocated/file%n", mode, nanos / 1000000.0 / files, allocated < 0 ? Double.NaN : allocated / 1048576.0 / files);
+    }
+
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static Request getStreamingRequest() {
+        Request request = new Request();
+        request.addParameter(AbstractXmlCollectionHandler.STREAMING_PARAMETER, "true");
+        return request;
+    }
+
+    private static XmlSource getSource(String configFile, String collection) throws Exception {
+        XmlDataCollectionConfigDaoJaxb dao = new XmlDataCollectionConfigDaoJaxb();
+        dao.setConfigResource(new FileSystemResource(configFile));
+        dao.afterPropertiesSet();
+        return dao.getDataCollectionByName(collection).getXmlSources().get(0);
+    }
+
+    private static List<String> collectFromDom(XmlSource source, String sampleFile) throws Exception {
+        XmlCollectionSet collectionSet = new XmlCollectionSet();
+        new MockDefaultXmlCollectionHandler().fillCollectionSet(null, collectionSet, source, parse(new File(sampleFile)));
+        return dump(collectionSet);
+    }
+
+    private static List<String> collectFromStream(XmlSource source, String sampleFile) throws Exception {
+        XmlCollectionSet collectionSet = new XmlCollectionSet();
+        InputStream is = new FileInputStream(sampleFile);
+        try {
+            new MockDefaultXmlCollectionHandler().fillCollectionSet(null, collectionSet, source, is, getStreamingRequest());
+        } finally {
+            is.close();
+        }
+        return dump(collectionSet);
+    }
+
+    /**
+     * Parses a document with the collector's own parser.
+     */
+    private static Document parse(File file) throws Exception {
+        InputStream is = new FileInputStream(file);
+        try {
+            return parse(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    private static Document parse(InputStream is) {
+        return new MockDefaultXmlCollectionHandler().getXmlDocument(is, new Request());
+    }
+
+    private static List<String> dump(XmlCollectionSet collectionSet) {
+        final List<String> values = new ArrayList<String>();
+        collectionSet.visit(new AbstractCollectionSetVisitor() {
+            private String m_resource;
+
+            @Override
+            public void visitResource(CollectionResource resource) {
+                m_resource = resource.getResourceTypeName() + "[" + resource.getInstance() + "]";
+                if (resource.getTimeKeeper() instanceof ConstantTimeKeeper) {
+                    m_resource += "@" + resource.getTimeKeeper().getCurrentTime();
+                }
+            }
+
+            @Override
+            public void visitAttribute(CollectionAttribute attribute) {
+                values.add(m_resource + "." + attribute.getName() + "=" + attribute.getStringValue());
+            }
+        });
+        Collections.sort(values);
+        return values;
+    }
+}